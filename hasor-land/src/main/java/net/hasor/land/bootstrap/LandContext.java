@@ -3,9 +3,13 @@ import io.netty.util.TimerTask;
 import net.hasor.core.*;
 import net.hasor.core.event.StandardEventManager;
 import net.hasor.land.domain.LandEvent;
+import net.hasor.land.domain.ReadMode;
 import net.hasor.land.domain.ServerStatus;
 import net.hasor.land.domain.WorkMode;
 import net.hasor.land.election.ElectionService;
+import net.hasor.land.replicator.ReplicatorManager;
+import net.hasor.land.replicator.ReplicatorService;
+import net.hasor.land.replicator.StateMachine;
 import net.hasor.rsf.InterAddress;
 import net.hasor.rsf.RsfBindInfo;
 import net.hasor.rsf.RsfClient;
@@ -13,6 +17,7 @@ import net.hasor.rsf.RsfContext;
 import net.hasor.rsf.utils.NetworkUtils;
 import net.hasor.rsf.utils.TimerManager;
 import net.hasor.utils.StringUtils;
+import net.hasor.utils.future.BasicFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,13 +30,15 @@ import java.util.Map;
  * Created by yongchun.zyc on 2017/2/22.
  */
 public class LandContext {
-    protected Logger                    logger          = LoggerFactory.getLogger(getClass());
-    private   String                    serverID        = null; // 当前服务器ID
-    private   Map<String, InterAddress> servers         = null;
-    private   RsfBindInfo<?>            electionService = null;
-    private   WorkMode                  workMode        = null; //
-    private   EventContext              eventContext    = null;
-    private   TimerManager              timerManager    = null;
+    protected Logger                    logger            = LoggerFactory.getLogger(getClass());
+    private   String                    serverID          = null; // 当前服务器ID
+    private   Map<String, InterAddress> servers           = null;
+    private   RsfBindInfo<?>            electionService   = null;
+    private   RsfBindInfo<?>            replicatorService = null;
+    private   StateMachine              stateMachine      = null; // 状态机
+    private   WorkMode                  workMode          = null; //
+    private   EventContext              eventContext      = null;
+    private   TimerManager              timerManager      = null;
     @Inject
     private RsfContext   rsfContext;
     private InterAddress workAddress;
@@ -73,6 +80,8 @@ public class LandContext {
         }
         // .选举服务
         this.electionService = this.rsfContext.getServiceInfo(ElectionService.class);
+        // .日志复制服务
+        this.replicatorService = this.rsfContext.getServiceInfo(ReplicatorService.class);
     }
     //
     //
@@ -89,6 +98,40 @@ public class LandContext {
     public RsfBindInfo<?> getElectionService() {
         return this.electionService;
     }
+    /** 日志复制服务元信息 */
+    public RsfBindInfo<?> getReplicatorService() {
+        return this.replicatorService;
+    }
+    /** 状态机，已提交的日志会按顺序交给它 */
+    public StateMachine getStateMachine() {
+        return this.stateMachine;
+    }
+    /** 设置状态机，没有状态机时已提交的日志不会被应用（设置之后会先从本地快照恢复，再继续应用日志） */
+    public void setStateMachine(StateMachine stateMachine) {
+        this.stateMachine = stateMachine;
+    }
+    /**
+     * 提交一条数据到复制日志（只有 Leader 可以提交），
+     * 返回的 Future 在数据被多数派确认并且应用到状态机之后完成，结果为这条数据的日志 index。
+     */
+    public BasicFuture<Long> propose(byte[] dataArrays) {
+        return this.rsfContext.getAppContext().getInstance(ReplicatorManager.class).propose(dataArrays);
+    }
+    /**
+     * 线性一致读，返回的 Future 完成之后本地状态机已经应用到了读取点，此时直接读本地状态机即可读到所有已经完成的写入。
+     * <p>{@link ReadMode#Lease} 和 {@link ReadMode#ReadIndex} 不写日志，Follower 上也可以调用（向 Leader 请求读取点，然后在本地读）；
+     * {@link ReadMode#Log} 写入一条空日志，只有 Leader 可以调用。结果为读取点的日志 index。</p>
+     */
+    public BasicFuture<Long> read(ReadMode readMode) {
+        return this.rsfContext.getAppContext().getInstance(ReplicatorManager.class).read(readMode);
+    }
+    /**
+     * 立即生成一次状态机快照（快照也会根据 hasor.land.snapshot.logThreshold 自动生成），快照之前的日志随后被删除。
+     * 返回的 Future 结果为快照覆盖的最后一条日志的 index。
+     */
+    public BasicFuture<Long> takeSnapshot() {
+        return this.rsfContext.getAppContext().getInstance(ReplicatorManager.class).takeSnapshot();
+    }
     //
     //
     //
@@ -23,6 +23,9 @@ import net.hasor.land.election.ElectionService;
 import net.hasor.land.election.ElectionServiceManager;
 import net.hasor.land.node.Server;
 import net.hasor.land.node.ServerNode;
+import net.hasor.land.replicator.DataContext;
+import net.hasor.land.replicator.ReplicatorManager;
+import net.hasor.land.replicator.ReplicatorService;
 import net.hasor.rsf.RsfApiBinder;
 import net.hasor.rsf.RsfModule;
 /**
@@ -42,11 +45,17 @@ public class LandModule extends RsfModule {
         //
         // .注册Bean
         apiBinder.bindType(LandContext.class).asEagerSingleton();
+        apiBinder.bindType(DataContext.class).asEagerSingleton();
         apiBinder.bindType(Server.class).to(ServerNode.class).asEagerSingleton();
         apiBinder.bindType(ElectionService.class).to(ElectionServiceManager.class).asEagerSingleton();
+        apiBinder.bindType(ReplicatorManager.class).asEagerSingleton();
         //
-        // .注册选举服务(隐藏的消息服务)
+        // .注册选举服务(隐藏的消息服务)，调用超时和基准超时时间一致，响应缓慢的节点不会拖住后续的心跳和选举
+        int electionTimeout = env.getSettings().getInteger("hasor.land.timeout", 300);
         apiBinder.rsfService(apiBinder.getBindInfo(ElectionService.class))//
+                .timeout(electionTimeout).asAloneThreadPool().asShadow().register();
+        // .注册日志复制服务(隐藏的消息服务)
+        apiBinder.rsfService(ReplicatorService.class).toInfo(apiBinder.getBindInfo(ReplicatorManager.class))//
                 .asAloneThreadPool().asShadow().register();
         //
         Hasor.addStartListener(apiBinder.getEnvironment(), new EventListener<AppContext>() {
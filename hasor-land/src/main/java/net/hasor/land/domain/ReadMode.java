@@ -0,0 +1,29 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.domain;
+/**
+ * 线性一致读的方式
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public enum ReadMode {
+    /** 写入一条空日志，它被应用之后再读（和写入的代价相同，只有 Leader 可用） */
+    Log(),//
+    /** ReadIndex：记录 commitIndex，向多数派确认自己仍然是 Leader，本地应用到 commitIndex 之后再读 */
+    ReadIndex(),//
+    /** Leader 租约：租约有效期内直接以 commitIndex 作为读取点，不需要网络往返；租约失效时退化为 ReadIndex */
+    Lease(),
+}
@@ -21,13 +21,15 @@ package net.hasor.land.election;
  * @author 赵永春 (zyc@hasor.net)
  */
 public class CollectVoteData {
-    private String serverID = null; //候选人 ServerID
-    private String term     = null; //候选人当前 term 值
+    private String serverID     = null; //候选人 ServerID
+    private long   term         = 0;    //候选人的任期（预投票时为候选人将要使用的任期）
+    private long   lastLogTerm  = 0;    //候选人最后一条日志的 term
+    private long   lastLogIndex = 0;    //候选人最后一条日志的 index
     //
-    public String getTerm() {
+    public long getTerm() {
         return term;
     }
-    public void setTerm(String term) {
+    public void setTerm(long term) {
         this.term = term;
     }
     public String getServerID() {
@@ -36,4 +38,16 @@ public class CollectVoteData {
     public void setServerID(String serverID) {
         this.serverID = serverID;
     }
+    public long getLastLogTerm() {
+        return lastLogTerm;
+    }
+    public void setLastLogTerm(long lastLogTerm) {
+        this.lastLogTerm = lastLogTerm;
+    }
+    public long getLastLogIndex() {
+        return lastLogIndex;
+    }
+    public void setLastLogIndex(long lastLogIndex) {
+        this.lastLogIndex = lastLogIndex;
+    }
 }
\ No newline at end of file
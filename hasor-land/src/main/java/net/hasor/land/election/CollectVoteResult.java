@@ -22,7 +22,7 @@ package net.hasor.land.election;
  */
 public class CollectVoteResult {
     private String  serverID    = null;  //服务器ID
-    private String  remoteTerm  = null;  //当前任期号，以便于候选人去更新自己的任期号
+    private long    remoteTerm  = 0;     //当前任期号，以便于候选人去更新自己的任期号
     private boolean voteGranted = false; //候选人赢得了此张选票时为真
     //
     public String getServerID() {
@@ -31,10 +31,10 @@ public class CollectVoteResult {
     public void setServerID(String serverID) {
         this.serverID = serverID;
     }
-    public String getRemoteTerm() {
+    public long getRemoteTerm() {
         return remoteTerm;
     }
-    public void setRemoteTerm(String remoteTerm) {
+    public void setRemoteTerm(long remoteTerm) {
         this.remoteTerm = remoteTerm;
     }
     public boolean isVoteGranted() {
@@ -23,6 +23,9 @@ public interface ElectionService {
     /** 请求选票 */
     public CollectVoteResult collectVote(CollectVoteData voteData);
 
+    /** 预投票：在发起选举之前确认自己能够赢得选举，不会改变任何一方的任期 */
+    public CollectVoteResult preVote(CollectVoteData voteData);
+
     /** Leader 的心跳 */
     public LeaderBeatResult leaderHeartbeat(LeaderBeatData beatResult);
 }
\ No newline at end of file
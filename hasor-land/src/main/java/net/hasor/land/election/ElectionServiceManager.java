@@ -16,245 +16,174 @@
 package net.hasor.land.election;
 import io.netty.util.Timeout;
 import io.netty.util.TimerTask;
-import net.hasor.core.EventListener;
 import net.hasor.core.Init;
 import net.hasor.core.Inject;
 import net.hasor.core.InjectSettings;
 import net.hasor.land.bootstrap.LandContext;
 import net.hasor.land.domain.ServerStatus;
 import net.hasor.land.node.NodeData;
-import net.hasor.land.node.Operation;
-import net.hasor.land.node.RunLock;
 import net.hasor.land.node.Server;
+import net.hasor.land.node.ServerState;
 import net.hasor.land.replicator.DataContext;
-import net.hasor.land.utils.TermUtils;
 import net.hasor.rsf.RsfContext;
 import net.hasor.utils.future.FutureCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.List;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 /**
  * 选举服务,负责选出 Leader
+ * <p>选举状态由 {@link Server} 以 CAS 的方式维护，这里没有任何锁：</p>
+ * <ul>
+ *     <li>选举超时之后先进行预投票（PreVote），确认能够得到多数派的选票之后才真正增加任期发起选举，
+ *         网络分区中的节点不会因为反复选举把任期推高，恢复之后也不会打断正常工作的 Leader。</li>
+ *     <li>Leader 粘性：最近 baseTimeout 之内收到过 Leader 心跳的节点拒绝为其它候选人投票。</li>
+ *     <li>选举超时时间根据心跳的到达间隔自适应，见 {@link ElectionTimeout}。</li>
+ *     <li>CheckQuorum：Leader 在 maxTimeout 之内没有得到多数派的心跳响应时主动退位。</li>
+ * </ul>
  *
  * @version : 2016年09月10日
  * @author 赵永春 (zyc@hasor.net)
  */
-public class ElectionServiceManager implements ElectionService, EventListener<ServerStatus> {
+public class ElectionServiceManager implements ElectionService {
     protected Logger logger = LoggerFactory.getLogger(getClass());
     @Inject
-    private Server        server;
+    private          Server                     server;
     @Inject
-    private DataContext   dataContext;
+    private          DataContext                dataContext;
     @Inject
-    private LandContext   landContext;
+    private          LandContext                landContext;
     @Inject
-    private RsfContext    rsfContext;
-    private AtomicBoolean landStatus;
+    private          RsfContext                 rsfContext;
+    private final    AtomicBoolean              landStatus       = new AtomicBoolean(true);
     //
     @InjectSettings("hasor.land.timeout")
-    private int           baseTimeout;         // 基准心跳时间
+    private          int                        baseTimeout;                                         // 基准心跳时间
     @InjectSettings("hasor.land.leaderHeartbeat")
-    private int           leaderHeartbeat;     // Leader 心跳时间
-    private AtomicBoolean followerTimer;       // follower 定时器
-    private AtomicBoolean candidateTimer;      // candidate定时器
-    private AtomicBoolean leaderTimer;         // leader   定时器
+    private          int                        leaderHeartbeat;                                     // Leader 心跳时间
+    @InjectSettings(value = "hasor.land.maxTimeout", defaultValue = "3000")
+    private          int                        maxTimeout;                                          // 选举超时的上限，同时也是 CheckQuorum 的判定时间
+    private          ElectionTimeout            electionTimeout;                                     // 自适应的选举超时
+    private volatile long                       lastElectionTime;                                    // 最后一次发起（预）选举的时间
+    private final    AtomicReference<VoteRound> preVoteRound     = new AtomicReference<VoteRound>(); // 正在进行的预投票
+    private volatile long                       leaderSince;                                         // 成为 Leader 的时间
     //
     //
     @Init
     public void start() {
-        this.landStatus = new AtomicBoolean(true);
-        this.followerTimer = new AtomicBoolean(false);
-        this.candidateTimer = new AtomicBoolean(false);
-        this.leaderTimer = new AtomicBoolean(false);
+        this.electionTimeout = new ElectionTimeout(this.baseTimeout, this.maxTimeout);
         //
-        this.landContext.addStatusListener(this);
-        //
-        this.startFollowerTimer();
-        this.startCandidateTimer();
+        this.server.newLastLeaderHeartbeat();
+        this.startElectionTimer(this.electionTimeout.nextTimeout());
         this.startLeaderTimer();
-        //
-        this.server.lockRun(new RunLock() {
-            public void run(Operation object) {
-                String selfServerID = landContext.getServerID();
-                String selfTerm = object.getCurrentTerm();
-                switchToFollow(object, selfServerID, selfTerm);
-            }
-        });
     }
-    //
     // --------------------------------------------------------------------------------------------
-    // .状态切换事件
-    //      当发生角色转换，负责更新各个定时器状态
-    public void onEvent(String event, ServerStatus eventData) {
-        this.followerTimer.set(false);
-        this.candidateTimer.set(false);
-        this.leaderTimer.set(false);
-        //
-        logger.info("Land[Status] - switchTo -> {}.", eventData);
-        if (eventData == ServerStatus.Follower) {
-            this.followerTimer.set(true);
-            return;
-        }
-        // .一旦成为候选人那么马上进行选举
-        if (eventData == ServerStatus.Candidate) {
-            this.candidateTimer.set(true);
-            return;
-        }
-        // .一旦成为 Leader 马上发送一个 term 以建立权威,然后通过心跳维持权威
-        if (eventData == ServerStatus.Leader) {
-            this.leaderTimer.set(true);
-            return;
-        }
-    }
-    // --------------------------------------------------------------------------------------------
-    // .follower
-    //      startFollowerTimer      启动定时器
-    //      processFollowerTimer    定时器的循环调用
-    //      processFollower         follower 逻辑代码
-    private void startFollowerTimer() {
-        if (!this.followerTimer.compareAndSet(false, true)) {
-            this.logger.error("Land[Follower] - followerTimer -> already started");
-            return;
-        }
-        this.logger.info("Land[Follower] - start followerTimer.");
-        final long lastLeaderHeartbeat = this.server.getLastHeartbeat();
+    // .选举定时器
+    //      startElectionTimer      启动定时器
+    //      processElectionTimer    定时器的循环调用，距离最后一次心跳（或选举）超过选举超时之后发起预投票
+    private void startElectionTimer(final int timeout) {
         this.landContext.atTime(new TimerTask() {
-            public void run(Timeout timeout) throws Exception {
-                processFollowerTimer(lastLeaderHeartbeat);
+            public void run(Timeout t) throws Exception {
+                processElectionTimer(timeout);
             }
-        }, genTimeout());
+        }, timeout);
     }
-    private void processFollowerTimer(long lastLeaderHeartbeat) {
+    private void processElectionTimer(int timeout) {
         // .如果系统退出，那么结束定时器循环
         if (!this.landStatus.get()) {
             return;
         }
-        // .执行 Follower 任务
+        int nextTimeout = timeout;
         try {
-            this.processFollower(lastLeaderHeartbeat);
+            long lastActive = Math.max(this.server.getLastHeartbeat(), this.lastElectionTime);
+            long elapsed = System.currentTimeMillis() - lastActive;
+            if (this.server.getStatus() == ServerStatus.Leader || elapsed < timeout) {
+                // .还没有超时，等到剩余的时间之后再检查
+                nextTimeout = (int) Math.max(1, timeout - elapsed);
+                if (this.server.getStatus() == ServerStatus.Follower) {
+                    this.printLeader();
+                }
+            } else {
+                nextTimeout = this.electionTimeout.nextTimeout();
+                this.processElection();
+            }
         } catch (Exception e) {
-            logger.error("Land[Follower] - " + e.getMessage(), e);
+            logger.error("Land[Election] - " + e.getMessage(), e);
         }
         // .重启定时器
-        final long curLeaderHeartbeat = this.server.getLastHeartbeat();
-        this.landContext.atTime(new TimerTask() {
-            public void run(Timeout timeout) throws Exception {
-                processFollowerTimer(curLeaderHeartbeat);
-            }
-        }, genTimeout());
+        this.startElectionTimer(nextTimeout);
     }
-    private void processFollower(final long lastLeaderHeartbeat) {
-        /* 确保 lockRun 中的方法在并发场景中是线程安全的 */
-        this.server.lockRun(new RunLock() {
-            public void run(Operation object) {
-                if (!followerTimer.get()) {
-                    return;
-                }
-                // .如果已经不在处于追随者,那么放弃后续处理
-                if (object.getStatus() != ServerStatus.Follower) {
-                    logger.info("Land[Follower] -> server mast be Follower, but ->" + object.getStatus());
-                    return;
-                }
-                //
-                // .判断启动定时器之后是否收到最新的 Leader 心跳 ,如果收到了心跳,那么放弃后续处理维持 Follower 状态
-                //      (新的Leader心跳时间比启动定时器之前心跳时间要新,即为收到了心跳)
-                boolean leaderHeartbeat = object.getLastHeartbeat() > lastLeaderHeartbeat;
-                if (leaderHeartbeat) {
-                    printLeader();
-                    return;
-                }
-                //
-                // .确保状态从 Follower 切换到 Candidate
-                logger.info("Land[Follower] -> initiate the election.");
-                if (object.getStatus() == ServerStatus.Follower) {
-                    landContext.fireStatus(ServerStatus.Candidate);
-                }
-            }
-        });
+    private void processElection() {
+        this.lastElectionTime = System.currentTimeMillis();
         //
-    }
-    // --------------------------------------------------------------------------------------------
-    // .candidate
-    //      startCandidateTimer     启动定时器
-    //      processCandidateTimer   定时器的循环调用
-    //      processCandidate        candidate 逻辑代码
-    private void startCandidateTimer() {
-        if (!this.candidateTimer.compareAndSet(false, true)) {
-            this.logger.error("Land[Candidate] - candidateTimer -> already started");
+        // .学习者（正在接收或恢复快照）的状态机还不完整，不发起选举
+        if (this.dataContext.isLearner()) {
+            logger.debug("Land[Election] -> this server is learner, don't initiate the election.");
             return;
         }
-        this.logger.info("Land[Candidate] - start candidateTimer.");
-        this.landContext.atTime(new TimerTask() {
-            public void run(Timeout timeout) throws Exception {
-                processCandidateTimer();
+        //
+        // .预投票：用下一个任期询问其它节点，但是自己的任期保持不变
+        final ServerState state = this.server.getState();
+        final VoteRound round = new VoteRound(state, state.getTerm() + 1);
+        this.preVoteRound.set(round);
+        logger.info("Land[PreVote] -> initiate the pre-vote, next term is {}", round.term);
+        //
+        for (NodeData nodeData : this.server.getOnlineNodes()) {
+            if (nodeData.isSelf()) {
+                this.doPreVote(round, nodeData.getServerID(), true);
+                continue;
             }
-        }, this.genTimeout());
+            final String serverID = nodeData.getServerID();
+            nodeData.preVote(round.term, this.dataContext, new FutureCallback<CollectVoteResult>() {
+                public void completed(CollectVoteResult result) {
+                    doPreVote(round, serverID, result.isVoteGranted());
+                }
+                public void failed(Throwable ex) {
+                    doFailed(ex);
+                }
+            });
+        }
     }
-    private void processCandidateTimer() {
-        // .如果系统退出，那么结束定时器循环
-        if (!this.landStatus.get()) {
+    private void doPreVote(VoteRound round, String serverID, boolean granted) {
+        if (!granted || this.preVoteRound.get() != round) {
             return;
         }
-        // .执行 Candidate 任务
-        try {
-            this.processCandidate();
-        } catch (Exception e) {
-            logger.error("Land[Candidate] - " + e.getMessage(), e);
+        round.grants.add(serverID);
+        if (round.grants.size() * 2 <= this.server.getOnlineNodes().size()) {
+            return;
         }
-        // .重启定时器
-        this.landContext.atTime(new TimerTask() {
-            public void run(Timeout timeout) throws Exception {
-                processCandidateTimer();
+        // .预投票得到了多数派的支持，并且这期间状态没有变化（例如收到了新 Leader 的心跳），正式发起选举
+        if (!this.preVoteRound.compareAndSet(round, null)) {
+            return;
+        }
+        final ServerState state = this.server.startElection(round.state);
+        if (state == null) {
+            logger.info("Land[PreVote] -> server state changed or term not saved, abandon the election.");
+            return;
+        }
+        logger.info("Land[Candidate] -> solicit votes , current Trem is {}", state.getTerm());
+        this.lastElectionTime = System.currentTimeMillis();
+        for (NodeData nodeData : this.server.getOnlineNodes()) {
+            if (nodeData.isSelf()) {
+                continue;
             }
-        }, genTimeout());
-    }
-    private void processCandidate() {
-        /* 确保 lockRun 中的方法在并发场景中是线程安全的 */
-        this.server.lockRun(new RunLock() {
-            public void run(Operation object) {
-                if (!candidateTimer.get()) {
-                    return;
-                }
-                if (object.getStatus() != ServerStatus.Candidate) {
-                    return;
+            // .征集选票（并发）
+            nodeData.collectVote(state.getTerm(), this.dataContext, new FutureCallback<CollectVoteResult>() {
+                public void completed(CollectVoteResult result) {
+                    doVote(state.getTerm(), result);
                 }
-                // .候选人会继续保持着当前状态直到以下三件事情之一发生：
-                //  (a) 他自己赢得了这次的选举，    -> 成为 Leader
-                //  (b) 其他的服务器成为领导者，    -> 成为 Follower
-                //  (c) 一段时间之后没有任何获胜的， -> 重新开始选举
-                //
-                //
-                // .term自增
-                object.incrementAndGetTerm();
-                object.clearVoted();
-                logger.info("Land[Candidate] -> solicit votes , current Trem is {}", object.getCurrentTerm());
-                //
-                // .发起选举然后收集选票
-                List<NodeData> nodeList = object.getOnlineNodes();
-                for (NodeData nodeData : nodeList) {
-                    // .如果目标是自己，那么直接投给自己
-                    if (nodeData.isSelf()) {
-                        landContext.fireVotedFor(nodeData.getServerID());
-                        object.applyVoted(nodeData.getServerID(), true);
-                        continue;
-                    }
-                    // .征集选票（并发）
-                    nodeData.collectVote(object, dataContext, new FutureCallback<CollectVoteResult>() {
-                        public void completed(CollectVoteResult result) {
-                            doVote(result);
-                        }
-                        public void failed(Throwable ex) {
-                            doFailed(ex);
-                        }
-                    });
+                public void failed(Throwable ex) {
+                    doFailed(ex);
                 }
-                //
-                //
-            }
-        });
+            });
+        }
+        // .单节点集群，自己的一票就够了
+        this.checkElected(state);
     }
     // --------------------------------------------------------------------------------------------
     // .leader
@@ -262,10 +191,6 @@ public class ElectionServiceManager implements ElectionService, EventListener<Se
     //      processLeaderTimer      定时器的循环调用
     //      processLeader           leader 逻辑代码
     private void startLeaderTimer() {
-        if (!this.leaderTimer.compareAndSet(false, true)) {
-            this.logger.error("Land[Leader] - leaderTimer -> already started");
-            return;
-        }
         this.logger.info("Land[Leader] - start leaderTimer.");
         this.landContext.atTime(new TimerTask() {
             public void run(Timeout timeout) throws Exception {
@@ -293,197 +218,202 @@ public class ElectionServiceManager implements ElectionService, EventListener<Se
         }, this.leaderHeartbeat);
     }
     private void processLeader() {
-        /* 确保 lockRun 中的方法在并发场景中是线程安全的 */
-        this.server.lockRun(new RunLock() {
-            public void run(Operation object) {
-                if (!leaderTimer.get()) {
-                    return;
+        ServerState state = this.server.getState();
+        if (state.getStatus() != ServerStatus.Leader) {
+            return;
+        }
+        this.server.newLastLeaderHeartbeat();
+        this.printLeader();
+        //
+        // .CheckQuorum：maxTimeout 之内没有得到多数派的响应，说明自己可能处在少数派的分区里，主动退位
+        long now = System.currentTimeMillis();
+        List<NodeData> nodeList = this.server.getOnlineNodes();
+        int ackCount = 1;
+        for (NodeData nodeData : nodeList) {
+            if (!nodeData.isSelf() && now - nodeData.getLastAckTime(state.getTerm()) < this.maxTimeout) {
+                ackCount++;
+            }
+        }
+        if (ackCount * 2 <= nodeList.size() && now - this.leaderSince > this.maxTimeout) {
+            if (this.server.stepDown(state.getTerm())) {
+                logger.warn("Land[Leader] -> lost contact with the majority({}/{}), step down.", ackCount, nodeList.size());
+            }
+            return;
+        }
+        //
+        this.sendHeartbeat(state.getTerm());
+    }
+    /** 发送心跳以维持 Leader 权威，各个节点之间互不等待，上一次心跳还没有返回的节点跳过 */
+    private void sendHeartbeat(long term) {
+        for (NodeData nodeData : this.server.getOnlineNodes()) {
+            if (nodeData.isSelf()) {
+                continue;
+            }
+            nodeData.leaderHeartbeat(term, this.dataContext, this.baseTimeout, new FutureCallback<LeaderBeatResult>() {
+                public void completed(LeaderBeatResult result) {
+                    doHeartbeat(result);
                 }
-                //
-                printLeader();
-                //
-                // .发送心跳log以维持 Leader 权威
-                List<NodeData> nodeList = object.getOnlineNodes();
-                for (NodeData nodeData : nodeList) {
-                    //
-                    // .如果心跳目标是自己，那么直接更新心跳时间
-                    if (nodeData.isSelf()) {
-                        object.newLastLeaderHeartbeat();
-                        continue;
-                    }
-                    // .发送Leader心跳包（并发）
-                    nodeData.leaderHeartbeat(object, dataContext, new FutureCallback<LeaderBeatResult>() {
-                        public void completed(LeaderBeatResult result) {
-                            doHeartbeat(result);
-                        }
-                        public void failed(Throwable ex) {
-                            doFailed(ex);
-                        }
-                    });
+                public void failed(Throwable ex) {
+                    doFailed(ex);
                 }
-            }
-        });
+            });
+        }
     }
     // --------------------------------------------------------------------------------------------
     // .拉选票
     //      collectVote  处理拉票操作
+    //      preVote      处理预投票
     //      doVote       投票结果处理
     @Override
     public CollectVoteResult collectVote(CollectVoteData voteData) {
-        final String selfTerm = this.server.getCurrentTerm();
-        final String remoteTerm = voteData.getTerm();
+        final long remoteTerm = voteData.getTerm();
         final String remoteServerID = voteData.getServerID();
         //
         final CollectVoteResult voteResult = new CollectVoteResult();
         voteResult.setServerID(this.landContext.getServerID());
-        voteResult.setRemoteTerm(selfTerm);
         //
         // .无条件接受来自，自己的邀票
         if (this.landContext.getServerID().equals(remoteServerID)) {
             logger.info("Land[Vote] -> accept votes from self.");
+            voteResult.setRemoteTerm(this.server.getCurrentTerm());
             voteResult.setVoteGranted(true);
             return voteResult;
         }
         //
-        // .处理拉票操作（线程安全）
-        this.server.lockRun(new RunLock() {
-            public void run(Operation object) {
-                //
-                // .如果远程的term比自己大，那么成为 Follower
-                if (TermUtils.gtFirst(selfTerm, remoteTerm)) {
-                    logger.info("Land[Vote] -> accept votes from {}.", remoteServerID);
-                    voteResult.setVoteGranted(true);
-                    switchToFollow(object, remoteServerID, remoteTerm);
-                    return;
-                }
-                // .拒绝投给他
-                voteResult.setVoteGranted(false);
-                logger.info("Land[Vote] -> reject to {} votes. cause: currentTerm({}) > remoteTerm({})", //
-                        remoteServerID, selfTerm, remoteTerm);
-                //
+        String rejectCause = this.checkVote(voteData, this.server.getState());
+        if (rejectCause != null) {
+            // .拒绝投票，但是发现了更大的任期时仍然要跟上（Leader 粘性的情况除外，否则会打断正常工作的 Leader）
+            if (remoteTerm > this.server.getCurrentTerm() && !this.hasLiveLeader()) {
+                this.server.followLeader(remoteTerm, null);
             }
-        });
+            voteResult.setVoteGranted(false);
+            logger.info("Land[Vote] -> reject to {} votes. cause: {}", remoteServerID, rejectCause);
+        } else if (this.server.grantVote(remoteTerm, remoteServerID)) {
+            this.server.newLastLeaderHeartbeat();
+            voteResult.setVoteGranted(true);
+            logger.info("Land[Vote] -> accept votes from {}, term is {}.", remoteServerID, remoteTerm);
+        } else {
+            voteResult.setVoteGranted(false);
+            logger.info("Land[Vote] -> reject to {} votes. cause: already voted in term {}.", remoteServerID, remoteTerm);
+        }
+        voteResult.setRemoteTerm(this.server.getCurrentTerm());
         return voteResult;
     }
-    public void doVote(final CollectVoteResult voteData) {
-        final String remoteTerm = voteData.getRemoteTerm();
-        final String remoteServerID = voteData.getServerID();
-        final boolean granted = voteData.isVoteGranted();
+    @Override
+    public CollectVoteResult preVote(CollectVoteData voteData) {
+        ServerState state = this.server.getState();
+        CollectVoteResult voteResult = new CollectVoteResult();
+        voteResult.setServerID(this.landContext.getServerID());
+        voteResult.setRemoteTerm(state.getTerm());
+        //
+        String rejectCause = this.checkVote(voteData, state);
+        if (rejectCause == null && voteData.getTerm() <= state.getTerm()) {
+            rejectCause = "term " + voteData.getTerm() + " is not greater than currentTerm(" + state.getTerm() + ")";
+        }
+        voteResult.setVoteGranted(rejectCause == null);
+        if (rejectCause != null) {
+            logger.debug("Land[PreVote] -> reject to {}. cause: {}", voteData.getServerID(), rejectCause);
+        }
+        return voteResult;
+    }
+    /** 检查是否可以投票给候选人，返回拒绝的原因，可以投票时返回 null */
+    private String checkVote(CollectVoteData voteData, ServerState state) {
+        String remoteServerID = voteData.getServerID();
+        if (voteData.getTerm() < state.getTerm()) {
+            return "currentTerm(" + state.getTerm() + ") > remoteTerm(" + voteData.getTerm() + ")";
+        }
+        // .Leader 粘性：最近收到过 Leader 的心跳，说明 Leader 还活着
+        if (!remoteServerID.equals(state.getLeaderID()) && this.hasLiveLeader()) {
+            return "leader " + state.getLeaderID() + " is alive.";
+        }
+        // .学习者不参与投票
+        if (this.dataContext.isLearner()) {
+            return "this server is learner.";
+        }
+        // .候选人的日志至少要和自己一样新，否则它成为 Leader 之后会覆盖掉已经提交的日志
+        if (!this.dataContext.isUpToDate(voteData.getLastLogTerm(), voteData.getLastLogIndex())) {
+            return "log of candidate is out of date.";
+        }
+        return null;
+    }
+    /** 最近 baseTimeout 之内是否收到过 Leader 的心跳（自己是 Leader 时也算） */
+    private boolean hasLiveLeader() {
+        ServerState state = this.server.getState();
+        if (state.getStatus() == ServerStatus.Leader) {
+            return true;
+        }
+        return state.getLeaderID() != null && System.currentTimeMillis() - this.server.getLastHeartbeat() < this.baseTimeout;
+    }
+    public void doVote(long term, CollectVoteResult voteData) {
+        long remoteTerm = voteData.getRemoteTerm();
+        String remoteServerID = voteData.getServerID();
         //
         // .没有赢得选票，如果对方比自己大那么直接转换为 Follower
-        this.server.lockRun(new RunLock() {
-            public void run(Operation object) {
-                String localTerm = object.getCurrentTerm();
-                boolean gtFirst = TermUtils.gtFirst(localTerm, remoteTerm);
-                if (!granted && gtFirst) {
-                    logger.info("Land[Vote] -> this server follower to {}. L:R is {}:{}", remoteServerID, localTerm, remoteTerm);
-                    switchToFollow(object, remoteServerID, remoteTerm);
-                }
-                //
-                // .记录选票结果
-                object.applyVoted(remoteServerID, voteData.isVoteGranted());
+        if (!voteData.isVoteGranted()) {
+            if (remoteTerm > term && this.server.followLeader(remoteTerm, null)) {
+                logger.info("Land[Vote] -> found higher term from {}. L:R is {}:{}", remoteServerID, term, remoteTerm);
             }
-            //
-        });
+            return;
+        }
         // .赢得了选票 -> 计票 -> 尝试成为 Leader
-        if (granted) {
-            this.server.lockRun(new RunLock() {
-                public void run(Operation object) {
-                    // .计票，尝试成为 Leader( 返回true表示赢得了这次的选举 )
-                    if (!isTestToLeader(object))
-                        return;
-                    //
-                    landContext.fireVotedFor(landContext.getServerID());
-                    landContext.fireStatus(ServerStatus.Leader);
-                    logger.info("Land[Vote] -> this server is elected leader.");
-                }
-            });
+        ServerState state = this.server.applyVote(term, remoteServerID);
+        if (state != null) {
+            this.checkElected(state);
+        }
+    }
+    /** 得到半数以上的选票之后成为 Leader，并马上发送一次心跳以建立权威 */
+    private void checkElected(ServerState state) {
+        if (state.getVoteCount() * 2 <= this.server.getOnlineNodes().size()) {
             return;
         }
+        if (this.server.becomeLeader(state.getTerm())) {
+            this.leaderSince = System.currentTimeMillis();
+            logger.info("Land[Vote] -> this server is elected leader, term is {}.", state.getTerm());
+            this.sendHeartbeat(state.getTerm());
+        }
     }
     // --------------------------------------------------------------------------------------------
     // .Leader心跳
     //      leaderHeartbeat Leader进行心跳
     //      doHeartbeat     心跳结果处理
     @Override
-    public LeaderBeatResult leaderHeartbeat(final LeaderBeatData beatResult) {
+    public LeaderBeatResult leaderHeartbeat(LeaderBeatData beatResult) {
         //
-        final String remoteTerm = beatResult.getCurrentTerm();
-        final String remoteServerID = beatResult.getServerID();
-        final LeaderBeatResult result = new LeaderBeatResult();
+        long remoteTerm = beatResult.getCurrentTerm();
+        String remoteServerID = beatResult.getServerID();
+        LeaderBeatResult result = new LeaderBeatResult();
         result.setServerID(this.landContext.getServerID());
         //
-        // .更新 term 和 Leadeer 一致
-        if (remoteServerID.equals(this.server.getVotedFor())) {
-            this.server.lockRun(new RunLock() {
-                public void run(Operation object) {
-                    String selfTerm = server.getCurrentTerm();
-                    if (TermUtils.gtFirst(selfTerm, remoteTerm)) {
-                        object.updateTermTo(remoteTerm);
-                        logger.info("Land[Beat] -> follow leader update term to {}.", remoteTerm);
-                    }
-                    object.newLastLeaderHeartbeat();
-                }
-            });
-            result.setAccept(true);
-            return result;
-        }
-        //
         // .确定是否是已知的Leader
-        List<NodeData> allNodes = this.server.getOnlineNodes();
         NodeData atNode = null;
-        for (NodeData nodeData : allNodes) {
+        for (NodeData nodeData : this.server.getOnlineNodes()) {
             if (nodeData.getServerID().equalsIgnoreCase(remoteServerID)) {
                 atNode = nodeData;
                 break;
             }
         }
         //
-        // .未知的 Server 想要成为 Leader 直接决绝。
-        if (atNode == null) {
+        // .未知的 Server 想要成为 Leader 直接决绝；否则检查这个 Leader 的 Term 是否够大
+        if (atNode != null && this.server.followLeader(remoteTerm, remoteServerID)) {
+            long now = System.currentTimeMillis();
+            this.server.newLastLeaderHeartbeat();
+            this.electionTimeout.onHeartbeat(now);
+            result.setAccept(true);
+        } else {
+            logger.info("Land[Beat] -> refused to field {} leader heartbeat. L:R is {}:{}",//
+                    remoteServerID, this.server.getCurrentTerm(), remoteTerm);
             result.setAccept(false);
-            return result;
         }
-        //
-        // .检查这个 Leader 的 Term 是否够大
-        this.server.lockRun(new RunLock() {
-            public void run(Operation object) {
-                String selfTerm = server.getCurrentTerm();
-                if (TermUtils.gtFirst(selfTerm, remoteTerm)) {
-                    switchToFollow(object, remoteServerID, remoteTerm);
-                    logger.info("Land[Beat] -> follow the new leader {} , new term is {}", remoteServerID, remoteTerm);
-                    result.setAccept(true);
-                } else {
-                    logger.info("Land[Beat] -> refused to field {} leader heartbeat. L:R is {}:{}",//
-                            remoteServerID, selfTerm, remoteTerm);
-                    result.setAccept(false);
-                }
-            }
-        });
-        //
+        result.setTerm(this.server.getCurrentTerm());
         return result;
     }
-    public void doHeartbeat(final LeaderBeatResult leaderBeatResult) {
-        //
-        // .更新自己的支持者列表
-        this.server.lockRun(new RunLock() {
-            public void run(Operation object) {
-                object.applyVoted(leaderBeatResult.getServerID(), leaderBeatResult.isAccept());
+    public void doHeartbeat(LeaderBeatResult leaderBeatResult) {
+        // .被拒绝的原因是对方的任期更大，说明已经有了新的 Leader，自己退回为 Follower
+        if (!leaderBeatResult.isAccept() && leaderBeatResult.getTerm() > this.server.getCurrentTerm()) {
+            if (this.server.followLeader(leaderBeatResult.getTerm(), null)) {
+                logger.info("Land[Beat] -> found higher term {} from {}, step down.", leaderBeatResult.getTerm(), leaderBeatResult.getServerID());
             }
-        });
-        // .如果出现拒绝者，那么测试自己是否还有足够的支持者支持自己成为 Leader，如果支持者足够，那么自增 term。
-        if (!leaderBeatResult.isAccept()) {
-            this.server.lockRun(new RunLock() {
-                public void run(Operation object) {
-                    if (isTestToLeader(object)) {
-                        object.incrementAndGetTerm();
-                        logger.info("Land[Beat] -> [{},{}] leader conflict, strengthen shelf. term update to {}",//
-                                leaderBeatResult.getServerID(), landContext.getServerID(), object.getCurrentTerm());
-                    }
-                }
-            });
         }
-        return;
     }
     // --------------------------------------------------------------------------------------------
     //
@@ -493,7 +423,7 @@ public class ElectionServiceManager implements ElectionService, EventListener<Se
         boolean printLeaderLog = this.lastPrintLeaderLog + 5000L < System.currentTimeMillis();
         if (printLeaderLog) {
             this.lastPrintLeaderLog = System.currentTimeMillis();
-            this.logger.info("Land[Leader] -> leader is {} , term is {}", this.server.getVotedFor(), this.server.getCurrentTerm());
+            this.logger.info("Land[Leader] -> leader is {} , term is {}", this.server.getLeaderID(), this.server.getCurrentTerm());
         }
     }
     /** 处理异常信息的打印 */
@@ -503,28 +433,14 @@ public class ElectionServiceManager implements ElectionService, EventListener<Se
         }
         logger.error(ex.getMessage());
     }
-    /** 生成最长：“n ~ n + (150 ~ 300)” 的一个随机数。用作超时时间 */
-    public int genTimeout() {
-        return this.baseTimeout + new Random(System.currentTimeMillis()).nextInt(150) + 300;
-    }
-    /** 测试当前服务器是否可以成为 Leader，成为 Leader 的条件是得到半数选票。 */
-    private boolean isTestToLeader(Operation object) {
-        List<NodeData> nodeList = object.getOnlineNodes();
-        int grantedCount = nodeList.size();
-        int serverCount = 0;
-        for (NodeData nodeData : nodeList) {
-            serverCount++;
-            if (object.testVote(nodeData.getServerID())) {
-                grantedCount++;
-            }
+    /** 一轮预投票 */
+    private static class VoteRound {
+        private final ServerState state;   // 发起预投票时的状态，正式选举时以它为 CAS 的预期值
+        private final long        term;    // 预投票的任期
+        private final Set<String> grants = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        VoteRound(ServerState state, long term) {
+            this.state = state;
+            this.term = term;
         }
-        return grantedCount * 2 > serverCount;
-    }
-    /** 成为 Follower 并追随一个 Leader */
-    public void switchToFollow(Operation object, String targetServer, String remoteTerm) {
-        object.updateTermTo(remoteTerm);
-        landContext.fireVotedFor(targetServer);
-        landContext.fireStatus(ServerStatus.Follower);
-        object.newLastLeaderHeartbeat();
     }
-}
\ No newline at end of file
+}
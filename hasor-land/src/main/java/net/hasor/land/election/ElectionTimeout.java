@@ -0,0 +1,66 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.election;
+import java.util.Random;
+/**
+ * 自适应的选举超时时间。
+ * <p>记录 Leader 心跳的到达间隔，用它的平滑均值和平均偏差（参考 TCP 的 RTO 算法）估算心跳可能延迟多久，
+ * 超时基准取 max(baseTimeout, 均值 + 4 * 偏差)，上限为 maxTimeout。每次选举超时在 [基准, 2 * 基准) 之间随机。</p>
+ * <p>Leader 所在机器繁忙或者频繁 GC 时心跳间隔变长、抖动变大，超时时间随之变长，避免 Follower 误判 Leader 失联而发起选举。</p>
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+class ElectionTimeout {
+    private final int    baseTimeout;
+    private final int    maxTimeout;
+    private final Random random        = new Random();
+    private       long   lastBeatTime  = 0;
+    private       double avgInterval   = 0; // 心跳间隔的平滑均值
+    private       double devInterval   = 0; // 心跳间隔的平均偏差
+    //
+    ElectionTimeout(int baseTimeout, int maxTimeout) {
+        this.baseTimeout = baseTimeout;
+        this.maxTimeout = Math.max(baseTimeout, maxTimeout);
+    }
+    //
+    /** 收到了一次 Leader 心跳 */
+    synchronized void onHeartbeat(long beatTime) {
+        long interval = beatTime - this.lastBeatTime;
+        this.lastBeatTime = beatTime;
+        // .间隔太长说明中间发生过 Leader 切换或者网络中断，不作为样本
+        if (interval <= 0 || interval > this.maxTimeout) {
+            return;
+        }
+        if (this.avgInterval == 0) {
+            this.avgInterval = interval;
+            this.devInterval = interval / 2d;
+            return;
+        }
+        this.devInterval += (Math.abs(interval - this.avgInterval) - this.devInterval) / 4;
+        this.avgInterval += (interval - this.avgInterval) / 8;
+    }
+    /** 当前的超时基准 */
+    synchronized int getTimeout() {
+        long timeout = (long) (this.avgInterval + 4 * this.devInterval);
+        return (int) Math.min(this.maxTimeout, Math.max(this.baseTimeout, timeout));
+    }
+    /** 生成一个随机的选举超时时间 */
+    int nextTimeout() {
+        int timeout = this.getTimeout();
+        return timeout + this.random.nextInt(timeout);
+    }
+}
@@ -22,9 +22,9 @@ package net.hasor.land.election;
  */
 public class LeaderBeatData {
     private String serverID    = null; //候选人 ServerID
-    private String currentTerm = null; //当前任期
-    private String commitIndex = null; //已知的,最大的,已经被提交的日志条目的termID
-    private String lastApplied = null; //已知的,最大的,已经被提交的日志条目的termID
+    private long   currentTerm = 0;    //当前任期
+    private long   commitIndex = 0;    //已知的,最大的,已经被提交的日志条目的index
+    private long   lastApplied = 0;    //已经被应用到状态机的最大日志条目的index
     //
     public String getServerID() {
         return serverID;
@@ -32,22 +32,22 @@ public class LeaderBeatData {
     public void setServerID(String serverID) {
         this.serverID = serverID;
     }
-    public String getCurrentTerm() {
+    public long getCurrentTerm() {
         return currentTerm;
     }
-    public void setCurrentTerm(String currentTerm) {
+    public void setCurrentTerm(long currentTerm) {
         this.currentTerm = currentTerm;
     }
-    public String getCommitIndex() {
+    public long getCommitIndex() {
         return commitIndex;
     }
-    public void setCommitIndex(String commitIndex) {
+    public void setCommitIndex(long commitIndex) {
         this.commitIndex = commitIndex;
     }
-    public String getLastApplied() {
+    public long getLastApplied() {
         return lastApplied;
     }
-    public void setLastApplied(String lastApplied) {
+    public void setLastApplied(long lastApplied) {
         this.lastApplied = lastApplied;
     }
 }
\ No newline at end of file
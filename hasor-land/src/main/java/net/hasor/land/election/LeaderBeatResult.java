@@ -22,7 +22,8 @@ package net.hasor.land.election;
  */
 public class LeaderBeatResult {
     private String  serverID = null;  //服务器ID
-    private boolean accept   = false; //候选人赢得了此张选票时为真
+    private long    term     = 0;     //当前任期号，以便于 Leader 发现自己已经过期
+    private boolean accept   = false; //承认这个 Leader 时为真
     //
     public String getServerID() {
         return serverID;
@@ -30,6 +31,12 @@ public class LeaderBeatResult {
     public void setServerID(String serverID) {
         this.serverID = serverID;
     }
+    public long getTerm() {
+        return term;
+    }
+    public void setTerm(long term) {
+        this.term = term;
+    }
     public boolean isAccept() {
         return accept;
     }
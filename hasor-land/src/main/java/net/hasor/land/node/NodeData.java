@@ -20,27 +20,40 @@ import net.hasor.land.election.CollectVoteData;
 import net.hasor.land.election.CollectVoteResult;
 import net.hasor.land.election.LeaderBeatData;
 import net.hasor.land.election.LeaderBeatResult;
+import net.hasor.land.replicator.AppendEntriesData;
+import net.hasor.land.replicator.AppendEntriesResult;
 import net.hasor.land.replicator.DataContext;
+import net.hasor.land.replicator.InstallSnapshotData;
+import net.hasor.land.replicator.InstallSnapshotResult;
+import net.hasor.land.replicator.ReadIndexData;
+import net.hasor.land.replicator.ReadIndexResult;
 import net.hasor.rsf.RsfBindInfo;
 import net.hasor.rsf.RsfClient;
 import net.hasor.utils.future.FutureCallback;
+
+import java.util.concurrent.atomic.AtomicLong;
 /**
  * 集群中服务器节点信息
  * @version : 2016年09月10日
  * @author 赵永春 (zyc@hasor.net)
  */
 public class NodeData {
-    private String         serverID    = null; //服务器ID
-    private NodeStatus     nodeStatus  = null; //节点状态
-    private LandContext    landContext = null;
-    private RsfBindInfo<?> bindInfo    = null;
-    private RsfClient      rsfClient   = null;
+    private String         serverID       = null;              //服务器ID
+    private NodeStatus     nodeStatus     = null;              //节点状态
+    private LandContext    landContext    = null;
+    private RsfBindInfo<?> bindInfo       = null;
+    private RsfBindInfo<?> replicatorInfo = null;
+    private RsfClient      rsfClient      = null;
+    private AtomicLong     beatSendTime   = new AtomicLong(0); //在途心跳的发送时间，没有在途心跳时为 0
+    private long           ackTerm        = -1;                //lastAckTime 所属的任期
+    private long           lastAckTime    = 0;                 //本任期内最后一次承认本节点为 Leader 的时间
     //
     protected NodeData(String serverID, LandContext landContext) {
         this.serverID = serverID;
         this.nodeStatus = NodeStatus.Online;
         this.landContext = landContext;
         this.bindInfo = landContext.getElectionService();
+        this.replicatorInfo = landContext.getReplicatorService();
         this.rsfClient = landContext.wrapperApi(serverID);
     }
     //
@@ -56,15 +69,28 @@ public class NodeData {
     public boolean isOnline() {
         return this.nodeStatus == NodeStatus.Online;
     }
+    /** term 任期内最后一次承认本节点为 Leader 的时间，这个任期内还没有承认过时为 0（之前任期的承认不算数） */
+    public synchronized long getLastAckTime(long term) {
+        return this.ackTerm == term ? this.lastAckTime : 0;
+    }
     //
     //
     /** 请求选票，并获得选票结果(异步) */
-    public void collectVote(Server server, DataContext data, final FutureCallback<CollectVoteResult> callBack) {
+    public void collectVote(long term, DataContext data, FutureCallback<CollectVoteResult> callBack) {
+        this.requestVote("collectVote", term, data, callBack);
+    }
+    /** 预投票，询问对方是否会在 term 任期投票给自己(异步) */
+    public void preVote(long term, DataContext data, FutureCallback<CollectVoteResult> callBack) {
+        this.requestVote("preVote", term, data, callBack);
+    }
+    private void requestVote(String methodName, long term, DataContext data, final FutureCallback<CollectVoteResult> callBack) {
         CollectVoteData voteData = new CollectVoteData();
         voteData.setServerID(this.landContext.getServerID());
-        voteData.setTerm(server.getCurrentTerm());
+        voteData.setTerm(term);
+        voteData.setLastLogTerm(data.getLastLogTerm());
+        voteData.setLastLogIndex(data.getLastLogIndex());
         //
-        this.rsfClient.callBackInvoke(this.bindInfo, "collectVote",//
+        this.rsfClient.callBackInvoke(this.bindInfo, methodName,//
                 new Class[] { CollectVoteData.class },//
                 new Object[] { voteData }, //
                 new FutureCallback<Object>() {
@@ -77,11 +103,30 @@ public class NodeData {
                 });
         //
     }
-    /** leader心跳(异步) */
-    public void leaderHeartbeat(Server server, DataContext data, final FutureCallback<LeaderBeatResult> callBack) {
+    /**
+     * leader心跳(异步)。上一次心跳还在途并且没有超过 timeout 时不再发送（返回 false），
+     * 一个响应缓慢的节点不会堆积请求，也不会拖慢发给其它节点的心跳。
+     */
+    public boolean leaderHeartbeat(long term, DataContext data, int timeout, final FutureCallback<LeaderBeatResult> callBack) {
+        final long sendTime = System.currentTimeMillis();
+        long inflightTime = this.beatSendTime.get();
+        if (inflightTime > 0 && sendTime - inflightTime < timeout) {
+            return false;
+        }
+        if (!this.beatSendTime.compareAndSet(inflightTime, sendTime)) {
+            return false;
+        }
+        this.sendHeartbeat(term, data, sendTime, callBack);
+        return true;
+    }
+    /** 确认自己仍然是 term 任期的 Leader（ReadIndex），立即发送一次心跳，不受在途心跳的限制(异步) */
+    public void confirmLeader(long term, DataContext data, FutureCallback<LeaderBeatResult> callBack) {
+        this.sendHeartbeat(term, data, System.currentTimeMillis(), callBack);
+    }
+    private void sendHeartbeat(final long term, DataContext data, final long sendTime, final FutureCallback<LeaderBeatResult> callBack) {
         LeaderBeatData leaderData = new LeaderBeatData();
         leaderData.setServerID(this.landContext.getServerID());
-        leaderData.setCurrentTerm(server.getCurrentTerm());
+        leaderData.setCurrentTerm(term);
         leaderData.setLastApplied(data.getLastApplied());
         leaderData.setCommitIndex(data.getCommitIndex());
         //
@@ -90,12 +135,69 @@ public class NodeData {
                 new Object[] { leaderData }, //
                 new FutureCallback<Object>() {
                     public void completed(Object result) {
-                        callBack.completed((LeaderBeatResult) result);
+                        beatSendTime.compareAndSet(sendTime, 0);
+                        LeaderBeatResult beatResult = (LeaderBeatResult) result;
+                        if (beatResult.isAccept()) {
+                            updateAckTime(term, sendTime);
+                        }
+                        callBack.completed(beatResult);
+                    }
+                    public void failed(Throwable ex) {
+                        beatSendTime.compareAndSet(sendTime, 0);
+                        callBack.failed(ex);
+                    }
+                });
+    }
+    /** 记录 term 任期的心跳被对方接受（sendTime 为心跳的发送时间），任期改变时之前的记录作废 */
+    protected synchronized void updateAckTime(long term, long sendTime) {
+        // .回应可能乱序到达，只保留最新任期里最新的
+        if (term > this.ackTerm) {
+            this.ackTerm = term;
+            this.lastAckTime = sendTime;
+        } else if (term == this.ackTerm && sendTime > this.lastAckTime) {
+            this.lastAckTime = sendTime;
+        }
+    }
+    /** 复制日志(异步)，多个请求可以同时在途 */
+    public void appendEntries(AppendEntriesData appendData, final FutureCallback<AppendEntriesResult> callBack) {
+        this.rsfClient.callBackInvoke(this.replicatorInfo, "appendEntries",//
+                new Class[] { AppendEntriesData.class },//
+                new Object[] { appendData }, //
+                new FutureCallback<Object>() {
+                    public void completed(Object result) {
+                        callBack.completed((AppendEntriesResult) result);
+                    }
+                    public void failed(Throwable ex) {
+                        callBack.failed(ex);
+                    }
+                });
+    }
+    /** 向 Leader 请求一个读取点(异步) */
+    public void readIndex(ReadIndexData readData, final FutureCallback<ReadIndexResult> callBack) {
+        this.rsfClient.callBackInvoke(this.replicatorInfo, "readIndex",//
+                new Class[] { ReadIndexData.class },//
+                new Object[] { readData }, //
+                new FutureCallback<Object>() {
+                    public void completed(Object result) {
+                        callBack.completed((ReadIndexResult) result);
+                    }
+                    public void failed(Throwable ex) {
+                        callBack.failed(ex);
+                    }
+                });
+    }
+    /** 发送一块快照数据(异步) */
+    public void installSnapshot(InstallSnapshotData snapshotData, final FutureCallback<InstallSnapshotResult> callBack) {
+        this.rsfClient.callBackInvoke(this.replicatorInfo, "installSnapshot",//
+                new Class[] { InstallSnapshotData.class },//
+                new Object[] { snapshotData }, //
+                new FutureCallback<Object>() {
+                    public void completed(Object result) {
+                        callBack.completed((InstallSnapshotResult) result);
                     }
                     public void failed(Throwable ex) {
                         callBack.failed(ex);
                     }
                 });
-        //
     }
 }
\ No newline at end of file
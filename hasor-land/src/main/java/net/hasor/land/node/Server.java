@@ -19,29 +19,51 @@ import net.hasor.land.domain.ServerStatus;
 import java.util.List;
 /**
  * 当前服务器节点信息
+ * <p>选举状态保存在一个不可变的 {@link ServerState} 中，所有的状态转换都是对它的 CAS 替换，不需要加锁。</p>
  *
  * @version : 2016年09月10日
  * @author 赵永春 (zyc@hasor.net)
  */
 public interface Server {
-    /** 当前条目ID(已递交，已生效) */
-    public String getCurrentTerm();
+    /** 当前的选举状态 */
+    public ServerState getState();
+
+    /** 当前任期 */
+    public long getCurrentTerm();
 
     /** 当前服务器的选票投给了谁 */
     public String getVotedFor();
 
+    /** 当前任期的 Leader，未知时为 null */
+    public String getLeaderID();
+
     /** 当前服务器节点状态 */
     public ServerStatus getStatus();
 
     /** 最后一次 Leader 发来的心跳时间 */
     public long getLastHeartbeat();
 
+    /** 更新最后一次收到 Leader 的心跳时间 */
+    public void newLastLeaderHeartbeat();
+
     /** 获取所有在线状态的节点 */
     public List<NodeData> getOnlineNodes();
 
-    /** 同步执行server的修改 */
-    public void lockRun(RunLock runnable);
+    /** 发起选举：任期加一、投票给自己、成为候选人，新的任期落盘之后返回。当前状态已经不是 expect 或者落盘失败时放弃，返回 null */
+    public ServerState startElection(ServerState expect);
+
+    /** 候选人记录一张 term 任期的选票，返回记录之后的状态。任期已经改变或者不再是候选人时返回 null */
+    public ServerState applyVote(long term, String serverID);
+
+    /** 候选人成为 term 任期的 Leader */
+    public boolean becomeLeader(long term);
+
+    /** 追随 term 任期的 Leader（leaderID 为 null 表示只是发现了更大的任期）。term 比自己小时返回 false */
+    public boolean followLeader(long term, String leaderID);
+
+    /** 把 term 任期的选票投给候选人，每个任期只能投一次。选票落盘之后才会返回 true */
+    public boolean grantVote(long term, String candidateID);
 
-    /** 测试是否得到某个服务器的投票 */
-    public boolean testVote(String serverID);
-}
\ No newline at end of file
+    /** Leader 失去了多数派的联系，退回为 Follower（任期不变） */
+    public boolean stepDown(long term);
+}
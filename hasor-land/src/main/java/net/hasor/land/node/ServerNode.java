@@ -14,58 +14,65 @@
  * limitations under the License.
  */
 package net.hasor.land.node;
-import io.netty.util.internal.ConcurrentSet;
-import net.hasor.core.EventListener;
 import net.hasor.core.Init;
 import net.hasor.core.Inject;
 import net.hasor.land.bootstrap.LandContext;
-import net.hasor.land.domain.LandEvent;
 import net.hasor.land.domain.ServerStatus;
-import net.hasor.land.utils.TermUtils;
+import net.hasor.land.replicator.DataContext;
+import net.hasor.land.storage.TermStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 /**
  * 当前服务器节点信息
+ * <p>所有状态转换都是 “读取当前状态 -> 计算新状态 -> CAS 替换” 的循环，替换成功之后再发出状态变更、投票事件。
+ * 事件可能和状态变化的顺序不一致，监听者应当以 {@link #getState()} 为准。</p>
+ * <p>任期和选票发生变化时先落盘（{@link TermStore}）再返回，调用者据此回应投票或者征集选票；落盘失败时当作转换没有成功。</p>
  *
  * @version : 2016年09月10日
  * @author 赵永春 (zyc@hasor.net)
  */
-public class ServerNode implements EventListener<Object>, Operation {
-    protected     Logger         logger        = LoggerFactory.getLogger(getClass());
+public class ServerNode implements Server {
+    protected        Logger                       logger        = LoggerFactory.getLogger(getClass());
     @Inject
-    private       LandContext    landContext   = null;
-    private       List<NodeData> allNodes      = null; //所有服务器节点
-    private       Set<String>    supporterVote = null; //支持者的选票
-    //
-    private final Object         lock          = new Object();
-    private       ServerStatus   status        = null; //当前状态
-    private       String         currentTerm   = null; //当前任期
-    private       String         votedFor      = null; //得票候选人ID
-    private       long           lastHeartbeat = 0;    //最后一次来自Leader的心跳时间
+    private          LandContext                  landContext   = null;
+    @Inject
+    private          DataContext                  dataContext   = null;
+    private          List<NodeData>               allNodes      = null; //所有服务器节点
+    private final    AtomicReference<ServerState> state         = new AtomicReference<ServerState>(ServerState.INIT);
+    private volatile long                         lastHeartbeat = 0;    //最后一次来自Leader的心跳时间
     //
     //
     //
-    /** 当前条目ID(已递交，已生效) */
-    public String getCurrentTerm() {
-        return currentTerm;
+    public ServerState getState() {
+        return this.state.get();
+    }
+    /** 当前任期 */
+    public long getCurrentTerm() {
+        return this.state.get().getTerm();
     }
     /** 当前服务器的选票投给了谁 */
     public String getVotedFor() {
-        return votedFor;
+        return this.state.get().getVotedFor();
+    }
+    /** 当前任期的 Leader，未知时为 null */
+    public String getLeaderID() {
+        return this.state.get().getLeaderID();
     }
     /** 当前服务器节点状态 */
     public ServerStatus getStatus() {
-        return status;
+        return this.state.get().getStatus();
     }
     /** 最后一次 Leader 发来的心跳时间 */
     public long getLastHeartbeat() {
-        return lastHeartbeat;
+        return this.lastHeartbeat;
     }
     /** 获取所有在线状态的节点 */
     public List<NodeData> getOnlineNodes() {
@@ -77,11 +84,9 @@ public class ServerNode implements EventListener<Object>, Operation {
     @Init
     public void init() throws URISyntaxException {
         //
-        this.currentTerm = "0";
-        this.votedFor = null;
-        this.status = ServerStatus.Follower;
-        this.landContext.addVotedListener(this);
-        this.landContext.addStatusListener(this);
+        // .恢复上次保存的任期和选票，重启之后不会在同一个任期里再投出一张不同的选票
+        TermStore termStore = this.dataContext.getTermStore();
+        this.state.set(new ServerState(termStore.getTerm(), ServerStatus.Follower, termStore.getVotedFor(), null, Collections.<String>emptySet()));
         //
         // .添加节点
         this.allNodes = new ArrayList<NodeData>();
@@ -89,62 +94,137 @@ public class ServerNode implements EventListener<Object>, Operation {
         for (String serverID : serverIDs) {
             this.allNodes.add(new NodeData(serverID, this.landContext));
         }
-        //
-        this.supporterVote = new ConcurrentSet<String>();
     }
     //
     //
     //
-    @Override
-    public void onEvent(String event, Object eventData) throws Throwable {
-        if (eventData == null) {
-            return;
+    /** 更新最后一次收到 Leader 的心跳时间 */
+    public void newLastLeaderHeartbeat() {
+        this.lastHeartbeat = System.currentTimeMillis();
+    }
+    public ServerState startElection(ServerState expect) {
+        if (expect.getStatus() == ServerStatus.Leader) {
+            return null;
         }
-        if (LandEvent.ServerStatus.equalsIgnoreCase(event)) {
-            this.status = (ServerStatus) eventData;
+        String selfID = this.landContext.getServerID();
+        ServerState update = new ServerState(expect.getTerm() + 1, ServerStatus.Candidate, selfID, null, Collections.singleton(selfID));
+        return this.swap(expect, update) && this.persist(update) ? update : null;
+    }
+    public ServerState applyVote(long term, String serverID) {
+        while (true) {
+            ServerState current = this.state.get();
+            if (current.getStatus() != ServerStatus.Candidate || current.getTerm() != term) {
+                return null;
+            }
+            if (current.hasVote(serverID)) {
+                return current;
+            }
+            ServerState update = current.addVote(serverID);
+            if (this.swap(current, update)) {
+                return update;
+            }
+        }
+    }
+    public boolean becomeLeader(long term) {
+        String selfID = this.landContext.getServerID();
+        while (true) {
+            ServerState current = this.state.get();
+            if (current.getStatus() != ServerStatus.Candidate || current.getTerm() != term) {
+                return false;
+            }
+            ServerState update = new ServerState(term, ServerStatus.Leader, current.getVotedFor(), selfID, Collections.<String>emptySet());
+            if (this.swap(current, update)) {
+                return true;
+            }
         }
-        if (LandEvent.VotedFor_Event.equalsIgnoreCase(event)) {
-            this.votedFor = (String) eventData;
+    }
+    public boolean followLeader(long term, String leaderID) {
+        while (true) {
+            ServerState current = this.state.get();
+            ServerState update;
+            if (term < current.getTerm()) {
+                return false;
+            }
+            if (term > current.getTerm()) {
+                update = new ServerState(term, ServerStatus.Follower, null, leaderID, Collections.<String>emptySet());
+            } else {
+                // .同一个任期只会有一个 Leader
+                if (leaderID == null || current.getStatus() == ServerStatus.Leader) {
+                    return false;
+                }
+                if (current.getStatus() == ServerStatus.Follower && leaderID.equals(current.getLeaderID())) {
+                    return true; // 绝大多数心跳都走这里，不产生新的对象
+                }
+                if (current.getLeaderID() != null && !leaderID.equals(current.getLeaderID())) {
+                    return false;
+                }
+                update = new ServerState(term, ServerStatus.Follower, current.getVotedFor(), leaderID, Collections.<String>emptySet());
+            }
+            if (this.swap(current, update)) {
+                return this.persist(update);
+            }
         }
     }
-    public void lockRun(RunLock runnable) {
-        synchronized (this.lock) {
-            runnable.run(this);
+    public boolean grantVote(long term, String candidateID) {
+        while (true) {
+            ServerState current = this.state.get();
+            ServerState update;
+            if (term < current.getTerm()) {
+                return false;
+            }
+            if (term > current.getTerm()) {
+                update = new ServerState(term, ServerStatus.Follower, candidateID, null, Collections.<String>emptySet());
+            } else {
+                if (current.getVotedFor() != null) {
+                    return current.getVotedFor().equals(candidateID) && this.persist(current); // 重复的请求（上一次可能落盘失败）
+                }
+                if (current.getLeaderID() != null) {
+                    return false;
+                }
+                update = new ServerState(term, ServerStatus.Follower, candidateID, null, Collections.<String>emptySet());
+            }
+            if (this.swap(current, update)) {
+                return this.persist(update);
+            }
         }
     }
-    @Override
-    public boolean testVote(String serverID) {
-        return this.supporterVote.contains(serverID);
+    public boolean stepDown(long term) {
+        while (true) {
+            ServerState current = this.state.get();
+            if (current.getStatus() != ServerStatus.Leader || current.getTerm() != term) {
+                return false;
+            }
+            ServerState update = new ServerState(term, ServerStatus.Follower, current.getVotedFor(), null, Collections.<String>emptySet());
+            if (this.swap(current, update)) {
+                return true;
+            }
+        }
     }
     //
-    //
-    //
-    /** Term 自增 */
-    public void incrementAndGetTerm() {
-        this.currentTerm = TermUtils.incrementAndGet(this.currentTerm);
-    }
-    /** Term 更新成比自己大的那个 */
-    public boolean updateTermTo(String remoteTerm) {
-        if (TermUtils.gtFirst(this.currentTerm, remoteTerm)) {
-            this.currentTerm = remoteTerm;
+    // - 任期和选票落盘，和已经保存的一样时没有 IO
+    private boolean persist(ServerState update) {
+        try {
+            this.dataContext.getTermStore().save(update.getTerm(), update.getVotedFor());
             return true;
+        } catch (IOException e) {
+            logger.error("Land[Server] -> save term " + update.getTerm() + " failed, " + e.getMessage(), e);
+            return false;
         }
-        return false;
-    }
-    /** 更新最后一次收到 Leader 的心跳时间 */
-    public void newLastLeaderHeartbeat() {
-        this.lastHeartbeat = System.currentTimeMillis();
     }
-    @Override
-    public void applyVoted(String serverID, boolean voteGranted) {
-        if (voteGranted) {
-            this.supporterVote.add(serverID);
-        } else {
-            this.supporterVote.remove(serverID);
+    // - CAS 替换状态，成功之后发出事件
+    private boolean swap(ServerState expect, ServerState update) {
+        if (!this.state.compareAndSet(expect, update)) {
+            return false;
         }
+        if (expect.getTerm() != update.getTerm() || expect.getStatus() != update.getStatus()) {
+            logger.info("Land[Server] -> {}", update);
+        }
+        if (update.getVotedFor() != null && !update.getVotedFor().equals(expect.getVotedFor())) {
+            this.landContext.fireVotedFor(update.getVotedFor());
+        }
+        if (expect.getStatus() != update.getStatus()) {
+            this.landContext.fireStatus(update.getStatus());
+        }
+        return true;
     }
-    @Override
-    public void clearVoted() {
-        this.supporterVote.clear();
-    }
-}
\ No newline at end of file
+}
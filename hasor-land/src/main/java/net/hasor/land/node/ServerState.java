@@ -0,0 +1,79 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.node;
+import net.hasor.land.domain.ServerStatus;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+/**
+ * 选举状态（不可变）。任期、角色、选票、Leader 作为一个整体被原子替换，读者拿到的任何一个状态内部都是一致的。
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public final class ServerState {
+    static final  ServerState  INIT = new ServerState(0, ServerStatus.Follower, null, null, Collections.<String>emptySet());
+    private final long         term;       //当前任期
+    private final ServerStatus status;     //当前状态
+    private final String       votedFor;   //本任期内选票投给了谁
+    private final String       leaderID;   //本任期的 Leader，未知时为 null
+    private final Set<String>  supporters; //候选人收到的选票
+    //
+    ServerState(long term, ServerStatus status, String votedFor, String leaderID, Set<String> supporters) {
+        this.term = term;
+        this.status = status;
+        this.votedFor = votedFor;
+        this.leaderID = leaderID;
+        this.supporters = supporters;
+    }
+    //
+    /** 当前任期 */
+    public long getTerm() {
+        return this.term;
+    }
+    /** 当前状态 */
+    public ServerStatus getStatus() {
+        return this.status;
+    }
+    /** 本任期内选票投给了谁，还没有投票时为 null */
+    public String getVotedFor() {
+        return this.votedFor;
+    }
+    /** 本任期的 Leader，未知时为 null */
+    public String getLeaderID() {
+        return this.leaderID;
+    }
+    /** 候选人是否得到了某个服务器的选票 */
+    public boolean hasVote(String serverID) {
+        return this.supporters.contains(serverID);
+    }
+    /** 候选人得到的选票数 */
+    public int getVoteCount() {
+        return this.supporters.size();
+    }
+    //
+    /** 追加一张选票，返回新的状态 */
+    ServerState addVote(String serverID) {
+        Set<String> newSupporters = new HashSet<String>(this.supporters);
+        newSupporters.add(serverID);
+        return new ServerState(this.term, this.status, this.votedFor, this.leaderID, Collections.unmodifiableSet(newSupporters));
+    }
+    @Override
+    public String toString() {
+        return "term=" + this.term + ", status=" + this.status + ", votedFor=" + this.votedFor + ", leader=" + this.leaderID;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.replicator;
+import java.io.Serializable;
+import java.util.List;
+/**
+ * Leader 发给 Follower 的日志复制数据包，entries 为空时即为一次心跳。
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class AppendEntriesData implements Serializable {
+    private static final long          serialVersionUID = -3514297546512357361L;
+    private              String        leaderID         = null; //Leader 的 ServerID
+    private              long          term             = 0;    //Leader 的任期
+    private              long          prevLogIndex     = 0;    //新日志之前那条日志的 index
+    private              long          prevLogTerm      = 0;    //新日志之前那条日志的 term
+    private              long          leaderCommit     = 0;    //Leader 已经提交的日志 index
+    private              List<LogData> entries          = null; //需要复制的日志（按 index 连续）
+    //
+    public String getLeaderID() {
+        return leaderID;
+    }
+    public void setLeaderID(String leaderID) {
+        this.leaderID = leaderID;
+    }
+    public long getTerm() {
+        return term;
+    }
+    public void setTerm(long term) {
+        this.term = term;
+    }
+    public long getPrevLogIndex() {
+        return prevLogIndex;
+    }
+    public void setPrevLogIndex(long prevLogIndex) {
+        this.prevLogIndex = prevLogIndex;
+    }
+    public long getPrevLogTerm() {
+        return prevLogTerm;
+    }
+    public void setPrevLogTerm(long prevLogTerm) {
+        this.prevLogTerm = prevLogTerm;
+    }
+    public long getLeaderCommit() {
+        return leaderCommit;
+    }
+    public void setLeaderCommit(long leaderCommit) {
+        this.leaderCommit = leaderCommit;
+    }
+    public List<LogData> getEntries() {
+        return entries;
+    }
+    public void setEntries(List<LogData> entries) {
+        this.entries = entries;
+    }
+}
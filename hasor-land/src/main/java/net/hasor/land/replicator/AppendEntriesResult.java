@@ -0,0 +1,62 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.replicator;
+import java.io.Serializable;
+/**
+ * 日志复制的回应包
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class AppendEntriesResult implements Serializable {
+    private static final long    serialVersionUID = 6094311426245123586L;
+    private              String  serverID         = null;  //服务器ID
+    private              long    term             = 0;     //Follower 当前任期，以便于 Leader 发现自己已经过期
+    private              boolean success          = false; //日志被接受并且已经落盘时为真
+    private              long    lastLogIndex     = 0;     //Follower 最后一条日志的 index
+    private              long    conflictIndex    = 0;     //日志不匹配时，Leader 应当从这个 index 开始重新发送（0 表示不是日志冲突）
+    //
+    public String getServerID() {
+        return serverID;
+    }
+    public void setServerID(String serverID) {
+        this.serverID = serverID;
+    }
+    public long getTerm() {
+        return term;
+    }
+    public void setTerm(long term) {
+        this.term = term;
+    }
+    public boolean isSuccess() {
+        return success;
+    }
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+    public long getLastLogIndex() {
+        return lastLogIndex;
+    }
+    public void setLastLogIndex(long lastLogIndex) {
+        this.lastLogIndex = lastLogIndex;
+    }
+    public long getConflictIndex() {
+        return conflictIndex;
+    }
+    public void setConflictIndex(long conflictIndex) {
+        this.conflictIndex = conflictIndex;
+    }
+}
@@ -14,28 +14,121 @@
  * limitations under the License.
  */
 package net.hasor.land.replicator;
+import net.hasor.core.AppContext;
+import net.hasor.core.Init;
+import net.hasor.core.Inject;
+import net.hasor.core.InjectSettings;
+import net.hasor.land.bootstrap.LandContext;
+import net.hasor.land.storage.LogStore;
+import net.hasor.land.storage.SnapshotStore;
+import net.hasor.land.storage.TermStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 /**
- * 数据上下文
+ * 数据上下文，持有本地日志、快照以及日志的提交、应用进度。
+ * <p>快照覆盖的日志一定是已经提交的，因此启动时 commitIndex 从快照开始，状态机恢复快照之后再继续应用日志。</p>
  *
  * @version : 2016年09月10日
  * @author 赵永春 (zyc@hasor.net)
  */
 public class DataContext {
-    private String commitIndex = null; //已知的,最大的,已经被提交的日志条目的termID
-    private String lastApplied = null; //已知的,最大的,已经被提交的日志条目的termID
-    //nextIndex[]
-    //matchIndex
+    @Inject
+    private          AppContext    appContext;
+    @Inject
+    private          LandContext   landContext;
+    @InjectSettings(value = "hasor.land.logStore.segmentSize", defaultValue = "67108864")
+    private          int           segmentSize;
+    @InjectSettings("hasor.land.timeout")
+    private          int           baseTimeout;
+    private          LogStore      logStore      = null;
+    private          SnapshotStore snapshotStore = null;
+    private          TermStore     termStore     = null; //持久化的 currentTerm 和 votedFor
+    private volatile long          installTime   = 0;    //最后一次收到快照数据的时间
+    private          AtomicLong    commitIndex   = null; //已知的,最大的,已经被提交的日志条目的index
+    private volatile long          lastApplied   = 0;    //已经被应用到状态机的最大日志条目的index
     //
-    public String getCommitIndex() {
-        return commitIndex;
+    @Init
+    public void init() throws IOException {
+        String dataHome = this.appContext.getEnvironment().evalString("%LAND_DATA_HOME%");
+        File serverHome = new File(dataHome, this.landContext.getServerID());
+        this.termStore = new TermStore(new File(serverHome, "term.dat"));
+        this.termStore.open();
+        this.snapshotStore = new SnapshotStore(new File(serverHome, "snapshot"));
+        this.snapshotStore.open();
+        this.logStore = new LogStore(new File(serverHome, "log"), this.segmentSize);
+        this.logStore.open();
+        // .快照之前的日志可能还没来得及删除，也可能快照是从 Leader 接收的、本地日志已经没有意义
+        long snapshotIndex = this.snapshotStore.getLastIndex();
+        if (snapshotIndex > 0) {
+            this.logStore.sync(this.logStore.compactTo(snapshotIndex, this.snapshotStore.getLastTerm()));
+        }
+        this.commitIndex = new AtomicLong(snapshotIndex);
     }
-    public void setCommitIndex(String commitIndex) {
-        this.commitIndex = commitIndex;
+    //
+    /** 持久化的任期和选票，{@link net.hasor.land.node.ServerNode} 启动时从这里恢复 */
+    public TermStore getTermStore() {
+        return this.termStore;
+    }
+    /** 本地日志 */
+    public LogStore getLogStore() {
+        return this.logStore;
+    }
+    public long getCommitIndex() {
+        return this.commitIndex.get();
     }
-    public String getLastApplied() {
-        return lastApplied;
+    /** 提升 commitIndex，只有新值更大时才会更新，返回是否发生了更新 */
+    public boolean updateCommitIndex(long newCommitIndex) {
+        while (true) {
+            long current = this.commitIndex.get();
+            if (newCommitIndex <= current) {
+                return false;
+            }
+            if (this.commitIndex.compareAndSet(current, newCommitIndex)) {
+                return true;
+            }
+        }
     }
-    public void setLastApplied(String lastApplied) {
+    public long getLastApplied() {
+        return this.lastApplied;
+    }
+    public void setLastApplied(long lastApplied) {
         this.lastApplied = lastApplied;
     }
-}
\ No newline at end of file
+    /** 本地快照 */
+    public SnapshotStore getSnapshotStore() {
+        return this.snapshotStore;
+    }
+    /** 记录正在从 Leader 接收快照 */
+    public void markInstalling() {
+        this.installTime = System.currentTimeMillis();
+    }
+    /**
+     * 是否为学习者：正在接收快照，或者状态机还没有从快照中恢复。
+     * 学习者照常接收 Leader 的数据，但是不参与投票也不发起选举（它的状态机还不完整）。
+     * 快照接收中断超过一个基准超时时间之后恢复为普通节点。
+     */
+    public boolean isLearner() {
+        if (this.lastApplied < this.snapshotStore.getLastIndex()) {
+            return true;
+        }
+        return System.currentTimeMillis() - this.installTime < this.baseTimeout;
+    }
+    /** 最后一条日志的 index */
+    public long getLastLogIndex() {
+        return this.logStore.getLastIndex();
+    }
+    /** 最后一条日志的 term */
+    public long getLastLogTerm() {
+        return this.logStore.getLastTerm();
+    }
+    /** 候选人的日志是否至少和自己一样新（先比较最后一条日志的 term，再比较 index） */
+    public boolean isUpToDate(long lastLogTerm, long lastLogIndex) {
+        long localTerm = this.logStore.getLastTerm();
+        if (lastLogTerm != localTerm) {
+            return lastLogTerm > localTerm;
+        }
+        return lastLogIndex >= this.logStore.getLastIndex();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.replicator;
+import java.io.Serializable;
+/**
+ * Leader 发给 Follower 的一块快照数据，快照按文件内容顺序分块发送。
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class InstallSnapshotData implements Serializable {
+    private static final long    serialVersionUID  = -4065437857750033631L;
+    private              String  leaderID          = null;  //Leader 的 ServerID
+    private              long    term              = 0;     //Leader 的任期
+    private              long    lastIncludedIndex = 0;     //快照覆盖的最后一条日志的 index
+    private              long    lastIncludedTerm  = 0;     //快照覆盖的最后一条日志的 term
+    private              long    offset            = 0;     //这块数据在快照文件中的位置
+    private              byte[]  dataArrays        = null;  //快照文件的原始内容
+    private              boolean done              = false; //是否为最后一块
+    //
+    public String getLeaderID() {
+        return leaderID;
+    }
+    public void setLeaderID(String leaderID) {
+        this.leaderID = leaderID;
+    }
+    public long getTerm() {
+        return term;
+    }
+    public void setTerm(long term) {
+        this.term = term;
+    }
+    public long getLastIncludedIndex() {
+        return lastIncludedIndex;
+    }
+    public void setLastIncludedIndex(long lastIncludedIndex) {
+        this.lastIncludedIndex = lastIncludedIndex;
+    }
+    public long getLastIncludedTerm() {
+        return lastIncludedTerm;
+    }
+    public void setLastIncludedTerm(long lastIncludedTerm) {
+        this.lastIncludedTerm = lastIncludedTerm;
+    }
+    public long getOffset() {
+        return offset;
+    }
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+    public byte[] getDataArrays() {
+        return dataArrays;
+    }
+    public void setDataArrays(byte[] dataArrays) {
+        this.dataArrays = dataArrays;
+    }
+    public boolean isDone() {
+        return done;
+    }
+    public void setDone(boolean done) {
+        this.done = done;
+    }
+}
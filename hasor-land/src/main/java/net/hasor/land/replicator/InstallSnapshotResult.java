@@ -0,0 +1,62 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.replicator;
+import java.io.Serializable;
+/**
+ * 快照数据的回应包
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class InstallSnapshotResult implements Serializable {
+    private static final long    serialVersionUID = -2658840888473225646L;
+    private              String  serverID         = null;  //服务器ID
+    private              long    term             = 0;     //Follower 当前任期，以便于 Leader 发现自己已经过期
+    private              boolean success          = false; //数据块被接受时为真
+    private              long    nextOffset       = 0;     //Follower 期望的下一块数据的位置
+    private              boolean installed        = false; //快照已经安装完毕（或者 Follower 已经有了更新的快照）
+    //
+    public String getServerID() {
+        return serverID;
+    }
+    public void setServerID(String serverID) {
+        this.serverID = serverID;
+    }
+    public long getTerm() {
+        return term;
+    }
+    public void setTerm(long term) {
+        this.term = term;
+    }
+    public boolean isSuccess() {
+        return success;
+    }
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+    public long getNextOffset() {
+        return nextOffset;
+    }
+    public void setNextOffset(long nextOffset) {
+        this.nextOffset = nextOffset;
+    }
+    public boolean isInstalled() {
+        return installed;
+    }
+    public void setInstalled(boolean installed) {
+        this.installed = installed;
+    }
+}
@@ -14,16 +14,55 @@
  * limitations under the License.
  */
 package net.hasor.land.replicator;
-import java.util.Date;
+import java.io.Serializable;
 /**
- * 一条日志数据
+ * 一条日志数据，term 和 index 都使用 long 表示。
  *
  * @version : 2016年09月10日
  * @author 赵永春 (zyc@hasor.net)
  */
-public class LogData {
-    public String atTerm;       // termID(BigInt)
-    public byte[] dataArrays;   // 数据本身
-    public Date   generatedTime;// 数据产生时间
-    public Date   receiptTime;  // 数据收录时间
-}
\ No newline at end of file
+public class LogData implements Serializable {
+    private static final long   serialVersionUID = 4309275364219374405L;
+    private              long   term             = 0;    // 日志产生时 Leader 的任期
+    private              long   index            = 0;    // 日志序号（从 1 开始连续递增）
+    private              byte[] dataArrays       = null; // 数据本身
+    private              long   generatedTime    = 0;    // 数据产生时间
+    //
+    public LogData() {
+    }
+    public LogData(long term, long index, byte[] dataArrays, long generatedTime) {
+        this.term = term;
+        this.index = index;
+        this.dataArrays = dataArrays;
+        this.generatedTime = generatedTime;
+    }
+    //
+    public long getTerm() {
+        return term;
+    }
+    public void setTerm(long term) {
+        this.term = term;
+    }
+    public long getIndex() {
+        return index;
+    }
+    public void setIndex(long index) {
+        this.index = index;
+    }
+    public byte[] getDataArrays() {
+        return dataArrays;
+    }
+    public void setDataArrays(byte[] dataArrays) {
+        this.dataArrays = dataArrays;
+    }
+    public long getGeneratedTime() {
+        return generatedTime;
+    }
+    public void setGeneratedTime(long generatedTime) {
+        this.generatedTime = generatedTime;
+    }
+    /** 空日志（Leader 上任时写入的 no-op），不会交给状态机 */
+    public boolean isEmpty() {
+        return this.dataArrays == null || this.dataArrays.length == 0;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.replicator;
+import net.hasor.land.node.NodeData;
+/**
+ * Leader 维护的单个 Follower 的复制进度，除 matchIndex 之外的字段都由对象锁保护。
+ * <p>Probe 状态下同一时刻只允许一个在途请求，用来找到双方日志一致的位置；找到之后进入 Replicate 状态，
+ * nextIndex 随着发送乐观推进，最多允许 maxInflight 个请求同时在途（流控窗口）。
+ * 需要的日志已经被快照覆盖时进入 Snapshot 状态，快照发送完成之前不再发送日志。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+class Progress {
+    private final    NodeData nodeData;
+    private          boolean  probe         = true;
+    private          long     nextIndex     = 1; // 下一条要发送的日志
+    private volatile long     matchIndex    = 0; // 已经确认复制成功的最大日志
+    private          int      inflight      = 0; // 在途的请求数
+    private          long     snapshotIndex = 0; // 正在发送的快照，不在 Snapshot 状态时为 0
+    private          long     generation    = 0; // 每次重置都会改变，之前发出的请求的回应会被忽略
+    private          long     lastSendTime  = 0;
+    //
+    Progress(NodeData nodeData) {
+        this.nodeData = nodeData;
+    }
+    //
+    NodeData getNodeData() {
+        return this.nodeData;
+    }
+    boolean isProbe() {
+        return this.probe;
+    }
+    boolean isSnapshot() {
+        return this.snapshotIndex > 0;
+    }
+    long getSnapshotIndex() {
+        return this.snapshotIndex;
+    }
+    long getNextIndex() {
+        return this.nextIndex;
+    }
+    long getMatchIndex() {
+        return this.matchIndex;
+    }
+    long getGeneration() {
+        return this.generation;
+    }
+    long getLastSendTime() {
+        return this.lastSendTime;
+    }
+    //
+    /** 新的 Leader 任期开始，全部进度重置 */
+    void reset(long nextIndex) {
+        this.matchIndex = 0;
+        this.probeFrom(nextIndex);
+    }
+    /** 进入 Probe 状态，从 nextIndex 开始探测，在途的请求全部作废 */
+    void probeFrom(long nextIndex) {
+        this.probe = true;
+        this.nextIndex = Math.max(nextIndex, this.matchIndex + 1);
+        this.inflight = 0;
+        this.snapshotIndex = 0;
+        this.generation++;
+    }
+    /** 进入 Snapshot 状态，开始发送覆盖到 snapshotIndex 的快照，在途的请求全部作废 */
+    void becomeSnapshot(long snapshotIndex, long sendTime) {
+        this.probeFrom(this.nextIndex);
+        this.snapshotIndex = snapshotIndex;
+        this.lastSendTime = sendTime;
+    }
+    /** 发出了一块快照数据 */
+    void onSnapshotSend(long sendTime) {
+        this.lastSendTime = sendTime;
+    }
+    /** 快照已经被 Follower 安装，从快照之后开始探测 */
+    void onSnapshotDone() {
+        this.matchIndex = Math.max(this.matchIndex, this.snapshotIndex);
+        this.probeFrom(this.snapshotIndex + 1);
+    }
+    /** 流控窗口是否允许再发送一个请求 */
+    boolean canSend(int maxInflight) {
+        if (this.snapshotIndex > 0) {
+            return false;
+        }
+        return this.probe ? this.inflight == 0 : this.inflight < maxInflight;
+    }
+    /** 发出了一个请求，lastIndex 为请求中最后一条日志（心跳为 prevLogIndex） */
+    void onSend(long lastIndex, long sendTime) {
+        this.inflight++;
+        this.lastSendTime = sendTime;
+        if (!this.probe) {
+            this.nextIndex = lastIndex + 1;
+        }
+    }
+    /** 请求复制成功 */
+    void onSuccess(long lastIndex) {
+        this.inflight = Math.max(0, this.inflight - 1);
+        this.matchIndex = Math.max(this.matchIndex, lastIndex);
+        if (this.probe) {
+            this.probe = false;
+            this.nextIndex = this.matchIndex + 1;
+        }
+    }
+}
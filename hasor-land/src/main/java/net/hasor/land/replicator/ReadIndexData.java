@@ -0,0 +1,41 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.replicator;
+import java.io.Serializable;
+/**
+ * Follower 向 Leader 请求读取点
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ReadIndexData implements Serializable {
+    private static final long    serialVersionUID = 4418960250733174721L;
+    private              String  serverID         = null;  //发起请求的服务器ID
+    private              boolean lease            = false; //是否允许 Leader 在租约有效期内直接给出读取点
+    //
+    public String getServerID() {
+        return serverID;
+    }
+    public void setServerID(String serverID) {
+        this.serverID = serverID;
+    }
+    public boolean isLease() {
+        return lease;
+    }
+    public void setLease(boolean lease) {
+        this.lease = lease;
+    }
+}
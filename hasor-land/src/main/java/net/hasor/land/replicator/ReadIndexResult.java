@@ -0,0 +1,62 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.replicator;
+import java.io.Serializable;
+/**
+ * 读取点的回应包
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ReadIndexResult implements Serializable {
+    private static final long    serialVersionUID = -7205566712417880153L;
+    private              String  serverID         = null;  //服务器ID
+    private              long    term             = 0;     //Leader 当前任期
+    private              boolean success          = false; //Leader 确认了自己的身份时为真
+    private              long    readIndex        = 0;     //读取点，本地状态机应用到这里之后就可以读了
+    private              String  message          = null;  //失败的原因
+    //
+    public String getServerID() {
+        return serverID;
+    }
+    public void setServerID(String serverID) {
+        this.serverID = serverID;
+    }
+    public long getTerm() {
+        return term;
+    }
+    public void setTerm(long term) {
+        this.term = term;
+    }
+    public boolean isSuccess() {
+        return success;
+    }
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+    public long getReadIndex() {
+        return readIndex;
+    }
+    public void setReadIndex(long readIndex) {
+        this.readIndex = readIndex;
+    }
+    public String getMessage() {
+        return message;
+    }
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
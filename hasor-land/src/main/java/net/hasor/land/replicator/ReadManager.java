@@ -0,0 +1,275 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.replicator;
+import net.hasor.land.bootstrap.LandContext;
+import net.hasor.land.domain.ServerStatus;
+import net.hasor.land.election.LeaderBeatResult;
+import net.hasor.land.node.NodeData;
+import net.hasor.land.node.Server;
+import net.hasor.land.node.ServerState;
+import net.hasor.utils.future.BasicFuture;
+import net.hasor.utils.future.FutureCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * 线性一致读，读请求不写日志。
+ * <ul>
+ *     <li>ReadIndex：记下当前的 commitIndex 作为读取点，然后向多数派发送一次心跳确认自己仍然是 Leader。
+ *         确认期间到达的读请求攒成一批，共享下一次确认，所以一次网络往返可以服务任意多的读。</li>
+ *     <li>Lease：多数派在 leaseTimeout 之内承认过自己（心跳的发送时间为准），而 Follower 收到心跳之后 timeout 之内不会给其它候选人投票，
+ *         所以这段时间里不可能出现新的 Leader，直接以 commitIndex 作为读取点。租约的实际有效期为
+ *         min(leaseTimeout, timeout * (1 - clockDrift))，即使配置的 leaseTimeout 过大也会留出时钟漂移的余量。</li>
+ *     <li>Follower 读：向 Leader 请求读取点，本地状态机应用到读取点之后在本地读。</li>
+ * </ul>
+ * 新的 Leader 在自己的任期内提交第一条日志之前不知道哪些日志已经提交，这期间的读请求直接失败，由调用者重试。
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ReadManager {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+    private final    Server                     server;
+    private final    DataContext                dataContext;
+    private final    LandContext                landContext;
+    private final    int                        leaseTimeout;
+    private final    Object                     readLock     = new Object();
+    private          List<ReadRequest>          pendingReads = new ArrayList<ReadRequest>();     // 等待下一次 Leader 确认的读请求
+    private          boolean                    confirming   = false;                            // 是否有正在进行的 Leader 确认
+    private final    PriorityQueue<ReadRequest> applyWaiting = new PriorityQueue<ReadRequest>(); // 等待本地应用到读取点的读请求
+    private volatile long                       leaseTerm    = -1;                               // leaseStart 对应的任期
+    private volatile long                       leaseStart   = 0;                                // 本任期内第一次发现自己是 Leader 的时间，之前的心跳回应不算数
+    //
+    public ReadManager(Server server, DataContext dataContext, LandContext landContext, int baseTimeout, int leaseTimeout, float clockDrift) {
+        if (clockDrift < 0 || clockDrift >= 1) {
+            throw new IllegalArgumentException("clockDrift must be in [0, 1), but it is " + clockDrift);
+        }
+        this.server = server;
+        this.dataContext = dataContext;
+        this.landContext = landContext;
+        this.leaseTimeout = (int) Math.min(leaseTimeout, (long) (baseTimeout * (1 - clockDrift)));
+    }
+    /** 租约的实际有效期 */
+    public int getLeaseTimeout() {
+        return this.leaseTimeout;
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .Leader
+    //      readIndex       取得读取点，租约有效时立即返回，否则等待下一次 Leader 确认
+    //      confirmLeader   向多数派发送心跳，确认一批读请求
+    /** 取得读取点（只有 Leader 可以调用），future 的结果为读取点 */
+    public void readIndex(boolean useLease, BasicFuture<Long> future) {
+        // .先取时间再取状态，租约检查用到的心跳回应都发生在确认状态之前
+        long now = System.currentTimeMillis();
+        ServerState state = this.server.getState();
+        if (state.getStatus() != ServerStatus.Leader) {
+            future.failed(new IllegalStateException("this server is not leader."));
+            return;
+        }
+        long commitIndex = this.dataContext.getCommitIndex();
+        if (this.dataContext.getLogStore().termAt(commitIndex) != state.getTerm()) {
+            future.failed(new IllegalStateException("leader has not committed any log in term " + state.getTerm() + " yet."));
+            return;
+        }
+        if (useLease && this.hasLease(state.getTerm(), now)) {
+            future.completed(commitIndex);
+            return;
+        }
+        synchronized (this.readLock) {
+            this.pendingReads.add(new ReadRequest(state.getTerm(), commitIndex, future));
+        }
+        this.confirmLeader();
+    }
+    private boolean hasLease(long term, long now) {
+        if (this.leaseTerm != term) {
+            this.leaseStart = System.currentTimeMillis();
+            this.leaseTerm = term;
+            return false;
+        }
+        long leaseStart = this.leaseStart;
+        List<NodeData> nodeList = this.server.getOnlineNodes();
+        int ackCount = 1;
+        for (NodeData nodeData : nodeList) {
+            long ackTime = nodeData.getLastAckTime(term);
+            if (!nodeData.isSelf() && ackTime >= leaseStart && now - ackTime < this.leaseTimeout) {
+                ackCount++;
+            }
+        }
+        return ackCount * 2 > nodeList.size();
+    }
+    private void confirmLeader() {
+        List<ReadRequest> batch;
+        synchronized (this.readLock) {
+            if (this.confirming || this.pendingReads.isEmpty()) {
+                return;
+            }
+            this.confirming = true;
+            batch = this.pendingReads;
+            this.pendingReads = new ArrayList<ReadRequest>();
+        }
+        //
+        // .只能以当前任期确认，失去 Leader 身份之后再发心跳会误导 Follower
+        ServerState state = this.server.getState();
+        List<NodeData> nodeList = this.server.getOnlineNodes();
+        final ConfirmRound round = new ConfirmRound(state.getTerm(), batch, nodeList.size());
+        if (state.getStatus() != ServerStatus.Leader) {
+            this.finishRound(round, false);
+            return;
+        }
+        for (NodeData nodeData : nodeList) {
+            if (nodeData.isSelf()) {
+                continue;
+            }
+            nodeData.confirmLeader(round.term, this.dataContext, new FutureCallback<LeaderBeatResult>() {
+                public void completed(LeaderBeatResult result) {
+                    checkRound(round, result.isAccept());
+                }
+                public void failed(Throwable ex) {
+                    checkRound(round, false);
+                }
+            });
+        }
+        this.checkRound(round, true); // 自己的一票
+    }
+    private void checkRound(ConfirmRound round, boolean accept) {
+        // .先计票再计数，最后一个回应看到的票数一定是最终的票数
+        int acks = accept ? round.acks.incrementAndGet() : round.acks.get();
+        int responses = round.responses.incrementAndGet();
+        if (acks * 2 > round.nodeCount) {
+            this.finishRound(round, true);
+        } else if (responses >= round.nodeCount) {
+            this.finishRound(round, round.acks.get() * 2 > round.nodeCount);
+        }
+    }
+    private void finishRound(ConfirmRound round, boolean confirmed) {
+        if (!round.finished.compareAndSet(false, true)) {
+            return;
+        }
+        for (ReadRequest request : round.batch) {
+            if (confirmed && request.term == round.term) {
+                request.future.completed(request.readIndex);
+            } else {
+                request.future.failed(new IllegalStateException("leadership of term " + request.term + " is not confirmed."));
+            }
+        }
+        if (!confirmed) {
+            logger.warn("Land[Read] -> leadership of term {} is not confirmed, {} reads failed.", round.term, round.batch.size());
+        }
+        synchronized (this.readLock) {
+            this.confirming = false;
+        }
+        // .确认期间攒下的读请求马上开始下一轮
+        this.confirmLeader();
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .Follower
+    /** 向 Leader 请求读取点，future 的结果为读取点 */
+    public void readFromLeader(boolean useLease, final BasicFuture<Long> future) {
+        String leaderID = this.server.getLeaderID();
+        NodeData leader = null;
+        for (NodeData nodeData : this.server.getOnlineNodes()) {
+            if (!nodeData.isSelf() && nodeData.getServerID().equals(leaderID)) {
+                leader = nodeData;
+                break;
+            }
+        }
+        if (leader == null) {
+            future.failed(new IllegalStateException("leader is unknown."));
+            return;
+        }
+        ReadIndexData readData = new ReadIndexData();
+        readData.setServerID(this.landContext.getServerID());
+        readData.setLease(useLease);
+        leader.readIndex(readData, new FutureCallback<ReadIndexResult>() {
+            public void completed(ReadIndexResult result) {
+                if (result.isSuccess()) {
+                    future.completed(result.getReadIndex());
+                } else {
+                    future.failed(new IllegalStateException(result.getServerID() + " refused, " + result.getMessage()));
+                }
+            }
+            public void failed(Throwable ex) {
+                future.failed(ex);
+            }
+        });
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .等待应用
+    //      waitApplied     本地状态机应用到读取点之后完成 future
+    //      onApplied       应用线程每应用一批日志之后调用
+    /** 本地状态机应用到 readIndex 之后完成 future，结果为 readIndex */
+    public void waitApplied(long readIndex, BasicFuture<Long> future) {
+        synchronized (this.applyWaiting) {
+            if (this.dataContext.getLastApplied() < readIndex) {
+                this.applyWaiting.offer(new ReadRequest(0, readIndex, future));
+                return;
+            }
+        }
+        future.completed(readIndex);
+    }
+    public void onApplied(long lastApplied) {
+        List<ReadRequest> readyList = null;
+        synchronized (this.applyWaiting) {
+            while (!this.applyWaiting.isEmpty() && this.applyWaiting.peek().readIndex <= lastApplied) {
+                if (readyList == null) {
+                    readyList = new ArrayList<ReadRequest>();
+                }
+                readyList.add(this.applyWaiting.poll());
+            }
+        }
+        if (readyList != null) {
+            for (ReadRequest request : readyList) {
+                request.future.completed(request.readIndex);
+            }
+        }
+    }
+    //
+    private static class ReadRequest implements Comparable<ReadRequest> {
+        private final long              term;      // 发起读请求时的任期
+        private final long              readIndex; // 读取点
+        private final BasicFuture<Long> future;
+        ReadRequest(long term, long readIndex, BasicFuture<Long> future) {
+            this.term = term;
+            this.readIndex = readIndex;
+            this.future = future;
+        }
+        public int compareTo(ReadRequest o) {
+            return this.readIndex < o.readIndex ? -1 : (this.readIndex == o.readIndex ? 0 : 1);
+        }
+    }
+    /** 一次 Leader 确认 */
+    private static class ConfirmRound {
+        private final long              term;
+        private final List<ReadRequest> batch;
+        private final int               nodeCount;
+        private final AtomicInteger     acks      = new AtomicInteger(0);
+        private final AtomicInteger     responses = new AtomicInteger(0);
+        private final AtomicBoolean     finished  = new AtomicBoolean(false);
+        ConfirmRound(long term, List<ReadRequest> batch, int nodeCount) {
+            this.term = term;
+            this.batch = batch;
+            this.nodeCount = nodeCount;
+        }
+    }
+}
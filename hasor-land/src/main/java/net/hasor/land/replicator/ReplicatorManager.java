@@ -0,0 +1,947 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.replicator;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import net.hasor.core.EventListener;
+import net.hasor.core.Init;
+import net.hasor.core.Inject;
+import net.hasor.core.InjectSettings;
+import net.hasor.land.bootstrap.LandContext;
+import net.hasor.land.domain.ReadMode;
+import net.hasor.land.domain.ServerStatus;
+import net.hasor.land.node.NodeData;
+import net.hasor.land.node.Server;
+import net.hasor.land.node.ServerState;
+import net.hasor.land.storage.LogStore;
+import net.hasor.land.storage.SnapshotOutput;
+import net.hasor.land.storage.SnapshotStore;
+import net.hasor.rsf.RsfContext;
+import net.hasor.utils.future.BasicFuture;
+import net.hasor.utils.future.FutureCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+/**
+ * 日志复制服务，负责 Leader 一侧日志的写入、复制、提交，以及 Follower 一侧日志的接收。
+ * <ul>
+ *     <li>批量：提交的数据先进入队列，由写入线程成批分配 index 写入本地日志，每批只需要一次 fsync。</li>
+ *     <li>流水线：Leader 不等上一个 AppendEntries 的回应就继续发送，每个 Follower 最多 maxInflight 个请求在途。</li>
+ *     <li>提交：多数派落盘的日志即为已提交，由应用线程按顺序交给状态机。</li>
+ *     <li>快照：应用线程定期生成状态机快照并删除快照之前的日志，Follower 需要的日志已经被删除时，Leader 改为分块发送快照。</li>
+ *     <li>读：线性一致读不写日志，由 {@link ReadManager} 通过 ReadIndex 或者 Leader 租约取得读取点，Follower 也可以提供读。</li>
+ * </ul>
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ReplicatorManager implements ReplicatorService, EventListener<ServerStatus> {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+    private static final Proposal                               NOOP            = new Proposal(null, null);
+    @Inject
+    private              Server                                 server;
+    @Inject
+    private              DataContext                            dataContext;
+    @Inject
+    private              LandContext                            landContext;
+    @Inject
+    private              RsfContext                             rsfContext;
+    @InjectSettings("hasor.land.timeout")
+    private              int                                    baseTimeout;                    // 基准超时时间
+    @InjectSettings("hasor.land.leaderHeartbeat")
+    private              int                                    leaderHeartbeat;                // Leader 心跳时间
+    @InjectSettings(value = "hasor.land.replicator.maxBatchSize", defaultValue = "512")
+    private              int                                    maxBatchSize;                   // 单次 AppendEntries 最多携带的日志条数
+    @InjectSettings(value = "hasor.land.replicator.maxBatchBytes", defaultValue = "1048576")
+    private              int                                    maxBatchBytes;                  // 单次 AppendEntries 最多携带的数据量
+    @InjectSettings(value = "hasor.land.replicator.maxInflight", defaultValue = "8")
+    private              int                                    maxInflight;                    // 每个 Follower 最多在途的请求数
+    @InjectSettings(value = "hasor.land.replicator.maxPending", defaultValue = "100000")
+    private              int                                    maxPending;                     // 等待写入日志的提交数上限
+    @InjectSettings(value = "hasor.land.snapshot.logThreshold", defaultValue = "100000")
+    private              int                                    snapshotThreshold;              // 快照之后新应用了多少条日志时生成新的快照
+    @InjectSettings(value = "hasor.land.snapshot.retainLogs", defaultValue = "10000")
+    private              int                                    retainLogs;                     // 生成快照之后保留的日志条数
+    @InjectSettings(value = "hasor.land.snapshot.chunkSize", defaultValue = "1048576")
+    private              int                                    chunkSize;                      // 发送快照时每块数据的大小
+    @InjectSettings(value = "hasor.land.read.leaseTimeout", defaultValue = "250")
+    private              int                                    leaseTimeout;                   // Leader 租约的有效期
+    @InjectSettings(value = "hasor.land.read.clockDrift", defaultValue = "0.1")
+    private              float                                  clockDrift;                     // 节点之间时钟漂移的比例，租约至少比 timeout 短这么多
+    private              AtomicBoolean                          landStatus;
+    private              LogStore                               logStore;
+    private              SnapshotStore                          snapshotStore;
+    private              ReadManager                            readManager;
+    private              List<Progress>                         progressList;                   // 所有 Follower 的复制进度
+    private              BlockingQueue<Proposal>                proposalQueue;                  // 等待写入日志的提交
+    private              ConcurrentMap<Long, BasicFuture<Long>> waitingMap;                     // 等待应用到状态机的提交
+    private              Queue<BasicFuture<Long>>               snapshotRequests;               // 等待生成的快照
+    private final        Object                                 appendLock      = new Object(); // 保护日志写入和 Leader 任期的切换
+    private final        Object                                 applyLock       = new Object();
+    private volatile     long                                   leaderTerm      = -1;           // 作为 Leader 的任期，不是 Leader 时为 -1
+    private volatile     long                                   maxKnownTerm    = 0;            // Follower 回应中出现过的最大任期
+    private volatile     boolean                                appendNoop      = false;        // 新任期开始，需要先写入一条空日志
+    //
+    //
+    @Init
+    public void start() {
+        this.landStatus = new AtomicBoolean(true);
+        this.logStore = this.dataContext.getLogStore();
+        this.snapshotStore = this.dataContext.getSnapshotStore();
+        this.readManager = new ReadManager(this.server, this.dataContext, this.landContext, this.baseTimeout, this.leaseTimeout, this.clockDrift);
+        this.progressList = new ArrayList<Progress>();
+        for (NodeData nodeData : this.server.getOnlineNodes()) {
+            if (!nodeData.isSelf()) {
+                this.progressList.add(new Progress(nodeData));
+            }
+        }
+        this.proposalQueue = new LinkedBlockingQueue<Proposal>(this.maxPending);
+        this.waitingMap = new ConcurrentHashMap<Long, BasicFuture<Long>>();
+        this.snapshotRequests = new ConcurrentLinkedQueue<BasicFuture<Long>>();
+        this.landContext.addStatusListener(this);
+        //
+        this.startThread("Land-Appender", new Runnable() {
+            public void run() {
+                processAppend();
+            }
+        });
+        this.startThread("Land-Applier", new Runnable() {
+            public void run() {
+                processApply();
+            }
+        });
+        this.startReplicatorTimer();
+    }
+    private void startThread(String threadName, Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.setName(threadName);
+        thread.setContextClassLoader(this.rsfContext.getClassLoader());
+        thread.start();
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .状态切换事件
+    //      成为 Leader 时初始化所有 Follower 的复制进度，失去 Leader 身份时停止复制
+    public void onEvent(String event, ServerStatus eventData) {
+        // .事件可能和状态变化的顺序不一致，以当前状态为准
+        ServerState state = this.server.getState();
+        if (state.getStatus() == ServerStatus.Leader) {
+            this.becomeLeader(state.getTerm());
+        } else {
+            this.stepDown();
+        }
+    }
+    private void becomeLeader(long term) {
+        long nextIndex;
+        synchronized (this.appendLock) {
+            if (this.leaderTerm == term) {
+                return;
+            }
+            this.leaderTerm = term;
+            nextIndex = this.logStore.getLastIndex() + 1;
+            for (Progress progress : this.progressList) {
+                synchronized (progress) {
+                    progress.reset(nextIndex);
+                }
+            }
+            // .上任后先写入一条空日志，它被提交时之前任期遗留的日志也随之提交
+            this.appendNoop = true;
+            this.proposalQueue.offer(NOOP);
+        }
+        logger.info("Land[Replicator] -> leader of term {}, replicate from index {}.", term, nextIndex);
+    }
+    private void stepDown() {
+        synchronized (this.appendLock) {
+            if (this.leaderTerm < 0) {
+                return;
+            }
+            this.leaderTerm = -1;
+            this.appendNoop = false;
+            for (Progress progress : this.progressList) {
+                synchronized (progress) {
+                    progress.reset(0);
+                }
+            }
+        }
+        // .还没有提交的数据结果未知（新的 Leader 可能保留也可能覆盖它们）
+        long commitIndex = this.dataContext.getCommitIndex();
+        for (Map.Entry<Long, BasicFuture<Long>> entry : this.waitingMap.entrySet()) {
+            if (entry.getKey() > commitIndex && this.waitingMap.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().failed(new IllegalStateException("leadership is lost, the result is unknown."));
+            }
+        }
+        logger.info("Land[Replicator] -> step down from leader.");
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .提交数据
+    //      propose         提交数据（只有 Leader 可以提交）
+    //      processAppend   写入线程，成批的把提交写入本地日志然后发给 Follower
+    //      takeSnapshot    请求立即生成一次快照
+    //      read            线性一致读，Future 完成之后本地状态机已经应用到了读取点
+    /** 提交一条数据，Future 在数据被应用到状态机之后完成，结果为数据的日志 index */
+    public BasicFuture<Long> propose(byte[] dataArrays) {
+        BasicFuture<Long> future = new BasicFuture<Long>();
+        if (dataArrays == null || dataArrays.length == 0) {
+            future.failed(new IllegalArgumentException("dataArrays is empty."));
+            return future;
+        }
+        if (this.leaderTerm < 0) {
+            future.failed(new IllegalStateException("this server is not leader."));
+            return future;
+        }
+        if (!this.proposalQueue.offer(new Proposal(dataArrays, future))) {
+            future.failed(new IllegalStateException("too many pending proposals, max is " + this.maxPending));
+        }
+        return future;
+    }
+    /** 写入一条空日志，Future 在它被应用到状态机之后完成（Log 方式的读） */
+    private BasicFuture<Long> barrier() {
+        BasicFuture<Long> future = new BasicFuture<Long>();
+        if (this.leaderTerm < 0) {
+            future.failed(new IllegalStateException("this server is not leader."));
+            return future;
+        }
+        if (!this.proposalQueue.offer(new Proposal(null, future))) {
+            future.failed(new IllegalStateException("too many pending proposals, max is " + this.maxPending));
+        }
+        return future;
+    }
+    /** 立即生成一次快照，Future 的结果为快照覆盖的最后一条日志的 index */
+    public BasicFuture<Long> takeSnapshot() {
+        BasicFuture<Long> future = new BasicFuture<Long>();
+        if (this.landContext.getStateMachine() == null) {
+            future.failed(new IllegalStateException("state machine is not set."));
+            return future;
+        }
+        this.snapshotRequests.offer(future);
+        this.wakeApplier();
+        return future;
+    }
+    /** 线性一致读，Future 在本地状态机应用到读取点之后完成，结果为读取点。之后直接读本地状态机即可 */
+    public BasicFuture<Long> read(ReadMode readMode) {
+        if (readMode == ReadMode.Log) {
+            return this.barrier();
+        }
+        final BasicFuture<Long> future = new BasicFuture<Long>();
+        BasicFuture<Long> indexFuture = new BasicFuture<Long>(new FutureCallback<Long>() {
+            public void completed(Long readIndex) {
+                readManager.waitApplied(readIndex, future);
+            }
+            public void failed(Throwable ex) {
+                future.failed(ex);
+            }
+        });
+        boolean useLease = readMode == ReadMode.Lease;
+        if (this.server.getStatus() == ServerStatus.Leader) {
+            this.readManager.readIndex(useLease, indexFuture);
+        } else {
+            this.readManager.readFromLeader(useLease, indexFuture);
+        }
+        return future;
+    }
+    private void processAppend() {
+        logger.info("Land[Replicator] -> appender thread start.");
+        while (this.landStatus.get()) {
+            List<Proposal> batch = new ArrayList<Proposal>();
+            try {
+                batch.add(this.proposalQueue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.proposalQueue.drainTo(batch, this.maxBatchSize - 1);
+            try {
+                this.appendBatch(batch);
+            } catch (Throwable e) {
+                logger.error("Land[Replicator] - " + e.getMessage(), e);
+            }
+        }
+    }
+    private void appendBatch(List<Proposal> batch) throws IOException {
+        long term;
+        long ticket;
+        List<LogData> logList = new ArrayList<LogData>(batch.size() + 1);
+        synchronized (this.appendLock) {
+            term = this.leaderTerm;
+            if (term < 0) {
+                failProposals(batch, new IllegalStateException("this server is not leader."));
+                return;
+            }
+            long index = this.logStore.getLastIndex();
+            long generatedTime = System.currentTimeMillis();
+            if (this.appendNoop) {
+                this.appendNoop = false;
+                logList.add(new LogData(term, ++index, null, generatedTime));
+            }
+            for (Proposal proposal : batch) {
+                if (proposal == NOOP) {
+                    continue;
+                }
+                logList.add(new LogData(term, ++index, proposal.dataArrays, generatedTime));
+                this.waitingMap.put(index, proposal.future);
+            }
+            if (logList.isEmpty()) {
+                return;
+            }
+            try {
+                ticket = this.logStore.append(logList);
+            } catch (IOException e) {
+                for (LogData logData : logList) {
+                    BasicFuture<Long> future = this.waitingMap.remove(logData.getIndex());
+                    if (future != null) {
+                        future.failed(e);
+                    }
+                }
+                throw e;
+            }
+        }
+        // .先把日志发给 Follower，本地刷盘和网络传输同时进行
+        this.replicateAll();
+        this.logStore.sync(ticket);
+        this.maybeCommit(term);
+    }
+    private static void failProposals(List<Proposal> batch, Exception e) {
+        for (Proposal proposal : batch) {
+            if (proposal.future != null) {
+                proposal.future.failed(e);
+            }
+        }
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .复制日志（Leader）
+    //      replicate       在流控窗口允许的范围内，向 Follower 连续发送 AppendEntries
+    //      doAppendResult  处理回应，推进复制进度或者回退到 Probe 状态
+    //      sendSnapshot    需要的日志已经被快照覆盖，逐块发送快照
+    //      maybeCommit     多数派确认之后推进 commitIndex
+    private void replicateAll() {
+        for (Progress progress : this.progressList) {
+            this.replicate(progress, false);
+        }
+    }
+    private void replicate(final Progress progress, boolean heartbeat) {
+        while (true) {
+            final long term = this.leaderTerm;
+            if (term < 0) {
+                return;
+            }
+            final AppendEntriesData appendData = new AppendEntriesData();
+            final long generation;
+            final long lastIndex;
+            long snapshotIndex = 0;
+            long snapshotTerm = 0;
+            synchronized (progress) {
+                if (!progress.canSend(this.maxInflight)) {
+                    return;
+                }
+                long nextIndex = progress.getNextIndex();
+                long prevIndex = nextIndex - 1;
+                long prevTerm = this.logStore.termAt(prevIndex);
+                if (prevTerm < 0) {
+                    // .需要的日志已经不在本地（被快照覆盖），改为发送快照
+                    snapshotIndex = this.snapshotStore.getLastIndex();
+                    snapshotTerm = this.snapshotStore.getLastTerm();
+                    if (snapshotIndex == 0 || snapshotIndex < prevIndex) {
+                        logger.error("Land[Replicator] -> log {} is missing and not in snapshot, can't replicate to {}.", //
+                                prevIndex, progress.getNodeData().getServerID());
+                        return;
+                    }
+                    progress.becomeSnapshot(snapshotIndex, System.currentTimeMillis());
+                    generation = progress.getGeneration();
+                    lastIndex = snapshotIndex;
+                } else {
+                    List<LogData> entries = this.logStore.read(nextIndex, this.maxBatchSize, this.maxBatchBytes);
+                    if (entries.isEmpty() && !heartbeat) {
+                        return;
+                    }
+                    appendData.setLeaderID(this.landContext.getServerID());
+                    appendData.setTerm(term);
+                    appendData.setPrevLogIndex(prevIndex);
+                    appendData.setPrevLogTerm(prevTerm);
+                    appendData.setLeaderCommit(this.dataContext.getCommitIndex());
+                    appendData.setEntries(entries);
+                    generation = progress.getGeneration();
+                    lastIndex = prevIndex + entries.size();
+                    progress.onSend(lastIndex, System.currentTimeMillis());
+                }
+            }
+            if (snapshotIndex > 0) {
+                logger.info("Land[Replicator] -> log of {} is compacted, send snapshot {}.", progress.getNodeData().getServerID(), snapshotIndex);
+                this.sendSnapshot(progress, generation, term, snapshotIndex, snapshotTerm, 0);
+                return;
+            }
+            heartbeat = false;
+            progress.getNodeData().appendEntries(appendData, new FutureCallback<AppendEntriesResult>() {
+                public void completed(AppendEntriesResult result) {
+                    doAppendResult(progress, generation, lastIndex, term, result);
+                }
+                public void failed(Throwable ex) {
+                    doAppendFailed(progress, generation, ex);
+                }
+            });
+        }
+    }
+    private void doAppendResult(Progress progress, long generation, long lastIndex, long term, AppendEntriesResult result) {
+        if (this.checkHigherTerm(result.getServerID(), result.getTerm(), term)) {
+            return;
+        }
+        boolean resend = true;
+        synchronized (progress) {
+            if (progress.getGeneration() != generation) {
+                return;
+            }
+            if (result.isSuccess()) {
+                progress.onSuccess(lastIndex);
+            } else if (result.getConflictIndex() > 0) {
+                // .日志不匹配，回退到 Follower 给出的位置重新探测
+                progress.probeFrom(Math.min(result.getConflictIndex(), progress.getNextIndex()));
+            } else {
+                // .Follower 还没有承认当前 Leader（例如心跳尚未到达），等下一次定时器再试
+                progress.probeFrom(progress.getMatchIndex() + 1);
+                resend = false;
+            }
+        }
+        if (result.isSuccess()) {
+            this.maybeCommit(term);
+        }
+        if (resend) {
+            this.replicate(progress, false);
+        }
+    }
+    // - Follower 的任期更大，说明已经有了新的 Leader，自己先转为 Follower 然后停止复制（不会出现停止了复制却仍然自称 Leader 的状态）
+    private boolean checkHigherTerm(String serverID, long remoteTerm, long term) {
+        if (remoteTerm <= term) {
+            return false;
+        }
+        synchronized (this.appendLock) {
+            this.maxKnownTerm = Math.max(this.maxKnownTerm, remoteTerm);
+        }
+        logger.info("Land[Replicator] -> {} has a higher term {}, stop replicating.", serverID, remoteTerm);
+        this.server.followLeader(remoteTerm, null);
+        this.stepDown();
+        return true;
+    }
+    private void sendSnapshot(final Progress progress, final long generation, final long term, long snapshotIndex, long snapshotTerm, long offset) {
+        // .直接从快照文件中读取一块，整个快照不会进入内存
+        byte[] dataArrays = null;
+        try {
+            dataArrays = this.snapshotStore.readChunk(snapshotIndex, offset, this.chunkSize);
+        } catch (IOException e) {
+            logger.error("Land[Replicator] -> read snapshot " + snapshotIndex + " failed, " + e.getMessage(), e);
+        }
+        synchronized (progress) {
+            if (progress.getGeneration() != generation) {
+                return;
+            }
+            if (dataArrays == null) {
+                // .快照已经被替换，等下一次定时器发送新的快照
+                progress.probeFrom(progress.getMatchIndex() + 1);
+                return;
+            }
+            progress.onSnapshotSend(System.currentTimeMillis());
+        }
+        final InstallSnapshotData snapshotData = new InstallSnapshotData();
+        snapshotData.setLeaderID(this.landContext.getServerID());
+        snapshotData.setTerm(term);
+        snapshotData.setLastIncludedIndex(snapshotIndex);
+        snapshotData.setLastIncludedTerm(snapshotTerm);
+        snapshotData.setOffset(offset);
+        snapshotData.setDataArrays(dataArrays);
+        snapshotData.setDone(dataArrays.length < this.chunkSize);
+        progress.getNodeData().installSnapshot(snapshotData, new FutureCallback<InstallSnapshotResult>() {
+            public void completed(InstallSnapshotResult result) {
+                doSnapshotResult(progress, generation, term, snapshotData, result);
+            }
+            public void failed(Throwable ex) {
+                doAppendFailed(progress, generation, ex);
+            }
+        });
+    }
+    private void doSnapshotResult(Progress progress, long generation, long term, InstallSnapshotData snapshotData, InstallSnapshotResult result) {
+        if (this.checkHigherTerm(result.getServerID(), result.getTerm(), term)) {
+            return;
+        }
+        synchronized (progress) {
+            if (progress.getGeneration() != generation) {
+                return;
+            }
+            if (!result.isSuccess()) {
+                // .Follower 没有接受（例如还没有承认当前 Leader，或者快照校验失败），等下一次定时器重新开始
+                progress.probeFrom(progress.getMatchIndex() + 1);
+                return;
+            }
+            if (result.isInstalled()) {
+                progress.onSnapshotDone();
+            }
+        }
+        if (result.isInstalled()) {
+            logger.info("Land[Replicator] -> snapshot {} is installed on {}.", snapshotData.getLastIncludedIndex(), result.getServerID());
+            this.maybeCommit(term);
+            this.replicate(progress, false);
+            return;
+        }
+        // .继续发送下一块（顺序不对时 Follower 会告知从哪里继续）
+        this.sendSnapshot(progress, generation, term, snapshotData.getLastIncludedIndex(), snapshotData.getLastIncludedTerm(), result.getNextOffset());
+    }
+    private void doAppendFailed(Progress progress, long generation, Throwable ex) {
+        boolean wasReplicate;
+        synchronized (progress) {
+            if (progress.getGeneration() != generation) {
+                return;
+            }
+            wasReplicate = !progress.isProbe();
+            progress.probeFrom(progress.getMatchIndex() + 1);
+        }
+        if (ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        if (wasReplicate) {
+            logger.warn("Land[Replicator] -> append to {} failed, switch to probe. cause: {}", progress.getNodeData().getServerID(), ex.getMessage());
+        } else {
+            logger.debug("Land[Replicator] -> probe {} failed. cause: {}", progress.getNodeData().getServerID(), ex.getMessage());
+        }
+    }
+    private void maybeCommit(long term) {
+        if (this.leaderTerm != term) {
+            return;
+        }
+        long[] matchArrays = new long[this.progressList.size() + 1];
+        matchArrays[0] = this.logStore.getFlushedIndex();
+        for (int i = 0; i < this.progressList.size(); i++) {
+            matchArrays[i + 1] = this.progressList.get(i).getMatchIndex();
+        }
+        Arrays.sort(matchArrays);
+        long majorityIndex = matchArrays[(matchArrays.length - 1) / 2];
+        // .只能通过计数的方式提交当前任期的日志，之前任期的日志随之一起提交
+        if (majorityIndex > this.dataContext.getCommitIndex() && this.logStore.termAt(majorityIndex) == term) {
+            if (this.dataContext.updateCommitIndex(majorityIndex)) {
+                this.wakeApplier();
+            }
+        }
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .接收日志（Follower）
+    @Override
+    public AppendEntriesResult appendEntries(final AppendEntriesData appendData) {
+        long localTerm = this.server.getCurrentTerm();
+        AppendEntriesResult result = new AppendEntriesResult();
+        result.setServerID(this.landContext.getServerID());
+        result.setTerm(localTerm);
+        result.setSuccess(false);
+        result.setLastLogIndex(this.logStore.getLastIndex());
+        if (!this.acceptLeader(appendData.getLeaderID(), appendData.getTerm(), localTerm)) {
+            return result;
+        }
+        //
+        List<LogData> entries = appendData.getEntries();
+        if (entries == null) {
+            entries = Collections.emptyList();
+        }
+        long prevIndex = appendData.getPrevLogIndex();
+        long lastNewIndex = prevIndex + entries.size();
+        long ticket;
+        try {
+            synchronized (this.appendLock) {
+                // .流水线上的请求可能被乱序处理，前面的日志还在路上时稍等片刻，避免 Leader 回退整个窗口
+                this.awaitGap(prevIndex);
+                // .一致性检查
+                long lastIndex = this.logStore.getLastIndex();
+                if (prevIndex > lastIndex) {
+                    result.setConflictIndex(lastIndex + 1);
+                    return result;
+                }
+                // .prevIndex 处的日志已经被本地快照覆盖（快照中的日志都是已提交的），让 Leader 从日志末尾继续
+                if (prevIndex < this.logStore.getFirstIndex() - 1) {
+                    result.setConflictIndex(lastIndex + 1);
+                    return result;
+                }
+                if (this.logStore.termAt(prevIndex) != appendData.getPrevLogTerm()) {
+                    result.setConflictIndex(this.findConflictIndex(prevIndex));
+                    return result;
+                }
+                // .跳过已经存在的日志，从第一条冲突的日志开始截断
+                int appendFrom = 0;
+                for (; appendFrom < entries.size(); appendFrom++) {
+                    LogData logData = entries.get(appendFrom);
+                    if (logData.getIndex() > lastIndex) {
+                        break;
+                    }
+                    if (this.logStore.termAt(logData.getIndex()) != logData.getTerm()) {
+                        if (logData.getIndex() <= this.dataContext.getCommitIndex()) {
+                            logger.error("Land[Replicator] -> conflict with committed log {}, from leader {}.", logData.getIndex(), appendData.getLeaderID());
+                            return result;
+                        }
+                        this.logStore.truncateSuffix(logData.getIndex());
+                        break;
+                    }
+                }
+                if (appendFrom < entries.size()) {
+                    this.logStore.append(entries.subList(appendFrom, entries.size()));
+                    this.appendLock.notifyAll();
+                }
+                ticket = this.logStore.getWriteTicket();
+            }
+            // .多个请求共享一次刷盘
+            this.logStore.sync(ticket);
+        } catch (IOException e) {
+            logger.error("Land[Replicator] -> append log failed, " + e.getMessage(), e);
+            return result;
+        }
+        //
+        if (this.dataContext.updateCommitIndex(Math.min(appendData.getLeaderCommit(), lastNewIndex))) {
+            this.wakeApplier();
+        }
+        result.setSuccess(true);
+        result.setLastLogIndex(lastNewIndex);
+        return result;
+    }
+    // - 只接受当前追随的 Leader 发来的数据，同时也算作一次 Leader 心跳
+    private boolean acceptLeader(String leaderID, long term, long localTerm) {
+        if (leaderID == null || term < localTerm || !this.server.followLeader(term, leaderID)) {
+            return false;
+        }
+        this.server.newLastLeaderHeartbeat();
+        return true;
+    }
+    // - 等待 prevIndex 之前的日志到达，只在缺口不超过一个流控窗口时等待，最多等待一个心跳周期（调用者持有 appendLock）
+    private void awaitGap(long prevIndex) {
+        long gap = prevIndex - this.logStore.getLastIndex();
+        if (gap <= 0 || gap > (long) this.maxBatchSize * this.maxInflight) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + this.leaderHeartbeat;
+        try {
+            while (prevIndex > this.logStore.getLastIndex()) {
+                long waitTime = deadline - System.currentTimeMillis();
+                if (waitTime <= 0) {
+                    return;
+                }
+                this.appendLock.wait(waitTime);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    // - prevIndex 处的日志和 Leader 不一致，跳过这个 term 的全部日志，让 Leader 一次回退到位（不会越过已提交的日志）
+    private long findConflictIndex(long prevIndex) {
+        long conflictTerm = this.logStore.termAt(prevIndex);
+        long lowerIndex = Math.max(this.dataContext.getCommitIndex() + 1, this.logStore.getFirstIndex());
+        long index = prevIndex;
+        while (index > lowerIndex && this.logStore.termAt(index - 1) == conflictTerm) {
+            index--;
+        }
+        return index;
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .提供读取点（Leader），Follower 读的第一步
+    @Override
+    public ReadIndexResult readIndex(ReadIndexData readData) {
+        ReadIndexResult result = new ReadIndexResult();
+        result.setServerID(this.landContext.getServerID());
+        result.setTerm(this.server.getCurrentTerm());
+        BasicFuture<Long> future = new BasicFuture<Long>();
+        this.readManager.readIndex(readData.isLease(), future);
+        try {
+            result.setReadIndex(future.get(this.baseTimeout, TimeUnit.MILLISECONDS));
+            result.setSuccess(true);
+        } catch (ExecutionException e) {
+            result.setMessage(e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            result.setMessage("leadership confirm timeout.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.setMessage("interrupted.");
+        }
+        return result;
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .接收快照（Follower）
+    //      快照块按顺序写入临时文件，最后一块到达之后校验并替换本地快照，然后丢弃被覆盖的日志。
+    //      接收期间本节点是学习者，不参与选举，状态机由应用线程从快照恢复。
+    @Override
+    public InstallSnapshotResult installSnapshot(InstallSnapshotData snapshotData) {
+        long localTerm = this.server.getCurrentTerm();
+        InstallSnapshotResult result = new InstallSnapshotResult();
+        result.setServerID(this.landContext.getServerID());
+        result.setTerm(localTerm);
+        result.setSuccess(false);
+        if (!this.acceptLeader(snapshotData.getLeaderID(), snapshotData.getTerm(), localTerm)) {
+            return result;
+        }
+        long snapshotIndex = snapshotData.getLastIncludedIndex();
+        long snapshotTerm = snapshotData.getLastIncludedTerm();
+        try {
+            // .本地已经有了这些日志（或者覆盖它们的快照），不需要再接收
+            if (snapshotIndex <= this.snapshotStore.getLastIndex() || this.logStore.termAt(snapshotIndex) == snapshotTerm) {
+                this.logStore.sync(this.logStore.getWriteTicket());
+                result.setSuccess(true);
+                result.setInstalled(true);
+                return result;
+            }
+            this.dataContext.markInstalling();
+            byte[] dataArrays = snapshotData.getDataArrays() == null ? new byte[0] : snapshotData.getDataArrays();
+            long nextOffset = this.snapshotStore.installChunk(snapshotIndex, snapshotTerm, snapshotData.getOffset(), dataArrays, snapshotData.isDone());
+            result.setNextOffset(nextOffset);
+            if (!snapshotData.isDone() || this.snapshotStore.getLastIndex() != snapshotIndex) {
+                result.setSuccess(true);
+                return result;
+            }
+            // .快照已经落盘，被它覆盖的日志全部作废
+            long ticket;
+            synchronized (this.appendLock) {
+                ticket = this.logStore.compactTo(snapshotIndex, snapshotTerm);
+                this.appendLock.notifyAll();
+            }
+            this.logStore.sync(ticket);
+        } catch (IOException e) {
+            logger.error("Land[Replicator] -> install snapshot " + snapshotIndex + " failed, " + e.getMessage(), e);
+            return result;
+        }
+        if (this.dataContext.updateCommitIndex(snapshotIndex)) {
+            this.wakeApplier();
+        }
+        logger.info("Land[Replicator] -> snapshot {} is installed, from leader {}.", snapshotIndex, snapshotData.getLeaderID());
+        result.setSuccess(true);
+        result.setInstalled(true);
+        return result;
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .应用日志
+    //      processApply    应用线程，把 commitIndex 之前的日志按顺序交给状态机
+    //      restoreSnapshot 状态机落后于快照时（重启、接收了快照），先从快照恢复
+    //      maybeSnapshot   新应用的日志足够多或者收到了请求时生成快照，然后删除快照之前的日志
+    private void wakeApplier() {
+        synchronized (this.applyLock) {
+            this.applyLock.notifyAll();
+        }
+    }
+    private void processApply() {
+        logger.info("Land[Replicator] -> applier thread start.");
+        while (this.landStatus.get()) {
+            long commitIndex;
+            synchronized (this.applyLock) {
+                try {
+                    // .没有设置状态机时不应用任何日志，等状态机设置之后再从头应用
+                    while (!this.hasApplyWork()) {
+                        this.applyLock.wait(1000);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                commitIndex = this.dataContext.getCommitIndex();
+            }
+            try {
+                this.applyTo(commitIndex);
+                this.maybeSnapshot();
+            } catch (Throwable e) {
+                logger.error("Land[Apply] - " + e.getMessage(), e);
+                synchronized (this.applyLock) {
+                    try {
+                        this.applyLock.wait(1000);
+                    } catch (InterruptedException e1) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+    private boolean hasApplyWork() {
+        if (this.landContext.getStateMachine() == null) {
+            return false;
+        }
+        return this.dataContext.getCommitIndex() > this.dataContext.getLastApplied() || !this.snapshotRequests.isEmpty();
+    }
+    private void applyTo(long commitIndex) throws Throwable {
+        long applied = this.dataContext.getLastApplied();
+        while (applied < commitIndex) {
+            if (applied < this.snapshotStore.getLastIndex()) {
+                applied = this.restoreSnapshot();
+                continue;
+            }
+            List<LogData> logList = this.logStore.read(applied + 1, this.maxBatchSize, this.maxBatchBytes);
+            if (logList.isEmpty()) {
+                throw new IllegalStateException("log " + (applied + 1) + " is missing.");
+            }
+            for (LogData logData : logList) {
+                if (logData.getIndex() > commitIndex) {
+                    break;
+                }
+                this.applyLog(logData);
+                applied = logData.getIndex();
+                this.dataContext.setLastApplied(applied);
+            }
+            this.readManager.onApplied(applied);
+        }
+    }
+    private long restoreSnapshot() throws Throwable {
+        long snapshotIndex = this.snapshotStore.getLastIndex();
+        InputStream inputStream = this.snapshotStore.openData(snapshotIndex);
+        if (inputStream == null) {
+            return this.dataContext.getLastApplied(); // 快照刚好被替换，重新读取
+        }
+        try {
+            this.landContext.getStateMachine().loadSnapshot(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        this.dataContext.setLastApplied(snapshotIndex);
+        logger.info("Land[Apply] -> state machine is restored from snapshot {}.", snapshotIndex);
+        return snapshotIndex;
+    }
+    private void maybeSnapshot() {
+        long applied = this.dataContext.getLastApplied();
+        long snapshotIndex = this.snapshotStore.getLastIndex();
+        if (applied - snapshotIndex < this.snapshotThreshold && this.snapshotRequests.isEmpty()) {
+            return;
+        }
+        List<BasicFuture<Long>> requests = new ArrayList<BasicFuture<Long>>();
+        for (BasicFuture<Long> future = this.snapshotRequests.poll(); future != null; future = this.snapshotRequests.poll()) {
+            requests.add(future);
+        }
+        try {
+            if (applied > snapshotIndex) {
+                this.saveSnapshot(applied);
+                snapshotIndex = applied;
+            }
+            for (BasicFuture<Long> future : requests) {
+                future.completed(snapshotIndex);
+            }
+        } catch (Throwable e) {
+            logger.error("Land[Snapshot] -> save snapshot at " + applied + " failed, " + e.getMessage(), e);
+            for (BasicFuture<Long> future : requests) {
+                future.failed(e);
+            }
+        }
+    }
+    private void saveSnapshot(long snapshotIndex) throws Throwable {
+        long snapshotTerm = this.logStore.termAt(snapshotIndex);
+        if (snapshotTerm < 0) {
+            throw new IllegalStateException("log " + snapshotIndex + " is missing.");
+        }
+        // .在应用线程上生成快照，状态机看到的正好是 snapshotIndex 处的状态
+        SnapshotOutput output = this.snapshotStore.newOutput(snapshotIndex, snapshotTerm);
+        try {
+            this.landContext.getStateMachine().saveSnapshot(output);
+            output.commit();
+        } catch (Throwable e) {
+            output.abort();
+            throw e;
+        }
+        // .快照之前的日志可以删除了，保留最近的一部分，稍微落后的 Follower 仍然可以通过日志追赶
+        long ticket;
+        synchronized (this.appendLock) {
+            ticket = this.logStore.truncatePrefix(snapshotIndex - this.retainLogs + 1);
+        }
+        this.logStore.sync(ticket);
+        logger.info("Land[Snapshot] -> snapshot at {} is saved, log starts from {}.", snapshotIndex, this.logStore.getFirstIndex());
+    }
+    private void applyLog(LogData logData) {
+        BasicFuture<Long> future = this.waitingMap.remove(logData.getIndex());
+        StateMachine stateMachine = this.landContext.getStateMachine();
+        if (!logData.isEmpty() && stateMachine != null) {
+            try {
+                stateMachine.apply(logData);
+            } catch (Throwable e) {
+                logger.error("Land[Apply] -> apply log " + logData.getIndex() + " failed, " + e.getMessage(), e);
+                if (future != null) {
+                    future.failed(e);
+                }
+                return;
+            }
+        }
+        if (future != null) {
+            future.completed(logData.getIndex());
+        }
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .定时器
+    //      对齐 Leader 任期，给空闲的 Follower 发送心跳（同步 commitIndex），重试 Probe 状态下的探测
+    private void startReplicatorTimer() {
+        this.landContext.atTime(new TimerTask() {
+            public void run(Timeout timeout) throws Exception {
+                processReplicatorTimer();
+            }
+        }, this.leaderHeartbeat);
+    }
+    private void processReplicatorTimer() {
+        // .如果系统退出，那么结束定时器循环
+        if (!this.landStatus.get()) {
+            return;
+        }
+        try {
+            this.processReplicator();
+        } catch (Exception e) {
+            logger.error("Land[Replicator] - " + e.getMessage(), e);
+        }
+        this.startReplicatorTimer();
+    }
+    private void processReplicator() {
+        // .状态事件可能乱序或者丢失（例如 Leader 退位之后又在新的任期当选），这里以当前状态为准负责对齐
+        ServerState state = this.server.getState();
+        if (state.getStatus() == ServerStatus.Leader) {
+            long term = state.getTerm();
+            if (term != this.leaderTerm && term >= this.maxKnownTerm) {
+                this.becomeLeader(term);
+            }
+        } else if (this.leaderTerm >= 0) {
+            this.stepDown();
+        }
+        if (this.leaderTerm < 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Progress progress : this.progressList) {
+            boolean idle;
+            synchronized (progress) {
+                idle = now - progress.getLastSendTime() >= this.leaderHeartbeat;
+            }
+            this.replicate(progress, idle);
+        }
+    }
+    //
+    /** 一次数据提交 */
+    private static class Proposal {
+        private final byte[]            dataArrays;
+        private final BasicFuture<Long> future;
+        public Proposal(byte[] dataArrays, BasicFuture<Long> future) {
+            this.dataArrays = dataArrays;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.replicator;
+/**
+ * 日志复制接口
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public interface ReplicatorService {
+    /** Leader 复制日志（entries 为空时作为心跳） */
+    public AppendEntriesResult appendEntries(AppendEntriesData appendData);
+    /** Leader 发送快照（Follower 需要的日志已经被快照覆盖时），每次调用传输一块数据 */
+    public InstallSnapshotResult installSnapshot(InstallSnapshotData snapshotData);
+    /** Follower 向 Leader 请求一个读取点（ReadIndex），Follower 本地应用到这个位置之后就可以提供线性一致的读 */
+    public ReadIndexResult readIndex(ReadIndexData readData);
+}
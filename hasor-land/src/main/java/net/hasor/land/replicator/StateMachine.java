@@ -0,0 +1,33 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.replicator;
+import java.io.InputStream;
+import java.io.OutputStream;
+/**
+ * 状态机，已经被多数派确认的日志会按照 index 顺序依次交给状态机。
+ * 状态机只存在于内存中，节点重启时先从快照恢复，然后再应用快照之后的日志。
+ * <p>所有方法都在同一个应用线程上调用，因此 saveSnapshot 看到的就是最后一条已应用日志之后的状态。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public interface StateMachine {
+    /** 应用一条已经提交的日志 */
+    public void apply(LogData logData) throws Throwable;
+    /** 把当前状态写入快照，数据会直接写进文件，不要在内存中拼装整个快照 */
+    public void saveSnapshot(OutputStream outputStream) throws Throwable;
+    /** 丢弃当前状态，从快照中恢复（本地重启，或者从 Leader 接收了快照之后） */
+    public void loadSnapshot(InputStream inputStream) throws Throwable;
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.storage;
+import net.hasor.land.replicator.LogData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+/**
+ * 日志分段文件，文件名为段内第一条日志的 index。文件创建时按固定大小预分配，并整体映射到内存。
+ * 单条日志的格式为：<length 4-Byte> + <crc32 4-Byte> + <term 8-Byte> + <index 8-Byte> + <generatedTime 8-Byte> + <data n-Byte>，
+ * length 为 0 的位置即为段尾。
+ * <p>写操作由 {@link LogStore} 串行化，读操作可以和写并发（读者只会访问已经发布的日志）。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+class LogSegment {
+    static final         String           SEGMENT_EXT   = ".log";
+    static final         int              HEAD_LENGTH   = 8;             // length + crc32
+    static final         int              FIXED_LENGTH  = 24;            // term + index + generatedTime
+    private static final byte[]           EMPTY_DATA    = new byte[0];
+    private final        File             file;
+    private final        long             baseIndex;
+    private final        RandomAccessFile accessFile;
+    private final        MappedByteBuffer mapped;
+    private final        int              capacity;
+    private volatile     int[]            offsets       = new int[1024]; // 段内每条日志的起始位置
+    private volatile     int              count         = 0;
+    private              int              writePosition = 0;
+    private              boolean          dirty         = false;         // 是否有尚未 force 的数据（由 LogStore 的写锁保护）
+    private              boolean          broken        = false;         // 加载时是否发现了损坏的尾部
+    //
+    private LogSegment(File file, long baseIndex, int capacity) throws IOException {
+        this.file = file;
+        this.baseIndex = baseIndex;
+        this.accessFile = new RandomAccessFile(file, "rw");
+        if (this.accessFile.length() < capacity) {
+            this.accessFile.setLength(capacity);
+        }
+        this.capacity = capacity;
+        this.mapped = this.accessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+    //
+    /** 创建一个新的分段 */
+    static LogSegment create(File logDir, long baseIndex, int capacity) throws IOException {
+        File file = new File(logDir, fileName(baseIndex));
+        if (file.exists() && !file.delete()) {
+            throw new IOException("delete old segment " + file.getAbsolutePath() + " failed.");
+        }
+        return new LogSegment(file, baseIndex, capacity);
+    }
+    /** 打开已有的分段并重建段内索引 */
+    static LogSegment open(File file) throws IOException {
+        long fileSize = file.length();
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("segment " + file.getAbsolutePath() + " is too large.");
+        }
+        LogSegment segment = new LogSegment(file, baseIndex(file), (int) fileSize);
+        segment.recover();
+        return segment;
+    }
+    static String fileName(long baseIndex) {
+        return String.format("%020d", baseIndex) + SEGMENT_EXT;
+    }
+    /** 从文件名中解析出段内第一条日志的 index，不是分段文件时返回 -1 */
+    static long baseIndex(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SEGMENT_EXT)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXT.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    //
+    // - 顺序扫描日志，遇到不完整、校验失败或者 index 不连续的日志时停止，之后的数据都会被丢弃
+    private void recover() {
+        int position = 0;
+        while (position + HEAD_LENGTH + FIXED_LENGTH <= this.capacity) {
+            int length = this.mapped.getInt(position);
+            if (length < FIXED_LENGTH || length > this.capacity - position - HEAD_LENGTH) {
+                break;
+            }
+            if (this.mapped.getInt(position + 4) != checksum(position, length)) {
+                break;
+            }
+            if (this.mapped.getLong(position + HEAD_LENGTH + 8) != this.baseIndex + this.count) {
+                break;
+            }
+            this.addOffset(position);
+            position = position + HEAD_LENGTH + length;
+        }
+        this.broken = position + 4 <= this.capacity && this.mapped.getInt(position) != 0;
+        this.writePosition = position;
+        this.markEnd(position);
+    }
+    private int checksum(int position, int length) {
+        byte[] dataArrays = new byte[length];
+        ByteBuffer buffer = this.mapped.duplicate();
+        buffer.position(position + HEAD_LENGTH);
+        buffer.get(dataArrays);
+        CRC32 crc = new CRC32();
+        crc.update(dataArrays);
+        return (int) crc.getValue();
+    }
+    private void addOffset(int position) {
+        int[] offsetArrays = this.offsets;
+        if (this.count == offsetArrays.length) {
+            offsetArrays = Arrays.copyOf(offsetArrays, offsetArrays.length * 2);
+            this.offsets = offsetArrays;
+        }
+        offsetArrays[this.count] = position;
+        this.count = this.count + 1;
+    }
+    private void markEnd(int position) {
+        if (position + 4 <= this.capacity) {
+            this.mapped.putInt(position, 0);
+        }
+    }
+    //
+    /** 追加一条日志，空间不足时返回 false */
+    boolean append(LogData logData) {
+        byte[] dataArrays = logData.getDataArrays() == null ? EMPTY_DATA : logData.getDataArrays();
+        int length = FIXED_LENGTH + dataArrays.length;
+        if (length > this.capacity - this.writePosition - HEAD_LENGTH) {
+            return false;
+        }
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_LENGTH);
+        fixed.putLong(logData.getTerm());
+        fixed.putLong(logData.getIndex());
+        fixed.putLong(logData.getGeneratedTime());
+        CRC32 crc = new CRC32();
+        crc.update(fixed.array());
+        crc.update(dataArrays);
+        //
+        ByteBuffer buffer = this.mapped.duplicate();
+        buffer.position(this.writePosition + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(fixed.array());
+        buffer.put(dataArrays);
+        this.markEnd(this.writePosition + HEAD_LENGTH + length);
+        // .最后写入 length，length 不为 0 时这条日志才算完整
+        this.mapped.putInt(this.writePosition, length);
+        this.addOffset(this.writePosition);
+        this.writePosition = this.writePosition + HEAD_LENGTH + length;
+        this.dirty = true;
+        return true;
+    }
+    /** 删除 fromIndex 以及之后的日志 */
+    void truncate(long fromIndex) {
+        int keepCount = (int) (fromIndex - this.baseIndex);
+        if (keepCount < 0 || keepCount >= this.count) {
+            return;
+        }
+        this.count = keepCount;
+        this.writePosition = this.offsets[keepCount];
+        this.markEnd(this.writePosition);
+        this.dirty = true;
+    }
+    /** 读取 index 所在日志的 term */
+    long termAt(long index) {
+        return this.mapped.getLong(this.offsets[(int) (index - this.baseIndex)] + HEAD_LENGTH);
+    }
+    /** 读取一条日志 */
+    LogData read(long index) {
+        int position = this.offsets[(int) (index - this.baseIndex)];
+        int length = this.mapped.getInt(position);
+        LogData logData = new LogData();
+        logData.setTerm(this.mapped.getLong(position + HEAD_LENGTH));
+        logData.setIndex(this.mapped.getLong(position + HEAD_LENGTH + 8));
+        logData.setGeneratedTime(this.mapped.getLong(position + HEAD_LENGTH + 16));
+        byte[] dataArrays = new byte[length - FIXED_LENGTH];
+        ByteBuffer buffer = this.mapped.duplicate();
+        buffer.position(position + HEAD_LENGTH + FIXED_LENGTH);
+        buffer.get(dataArrays);
+        logData.setDataArrays(dataArrays);
+        return logData;
+    }
+    //
+    long getBaseIndex() {
+        return this.baseIndex;
+    }
+    /** 段内最后一条日志的 index，空段返回 baseIndex - 1 */
+    long getLastIndex() {
+        return this.baseIndex + this.count - 1;
+    }
+    File getFile() {
+        return this.file;
+    }
+    boolean isBroken() {
+        return this.broken;
+    }
+    boolean isDirty() {
+        return this.dirty;
+    }
+    void clearDirty() {
+        this.dirty = false;
+    }
+    /** 将映射区的数据刷到磁盘上 */
+    void force() {
+        this.mapped.force();
+    }
+    /** 关闭文件。映射区不主动释放（可能仍有读者在使用），交给 GC 回收。 */
+    void close() throws IOException {
+        this.accessFile.close();
+    }
+    /** 关闭并删除分段文件 */
+    void delete() throws IOException {
+        this.close();
+        if (this.file.exists() && !this.file.delete()) {
+            throw new IOException("delete segment " + this.file.getAbsolutePath() + " failed.");
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.storage;
+import net.hasor.land.replicator.LogData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+/**
+ * 分段存储的日志，每个分段都是一个预分配并映射到内存的文件（参见 {@link LogSegment}），写满之后切换到新的分段。
+ * <p>写入分为两步：{@link #append(List)} 把日志写进映射区并返回票据，{@link #sync(long)} 等待票据之前的数据落盘。
+ * 多个线程并发 sync 时，最先到达的线程负责 force 所有脏的分段，其余线程等待即可（group commit）。</p>
+ * <p>term 和 index 都以 long 形式保存在分段中，读取时不需要任何解析。</p>
+ * <p>被快照覆盖的日志通过 {@link #truncatePrefix(long)}、{@link #compactTo(long, long)} 以分段为单位删除。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class LogStore {
+    protected static     Logger       logger        = LoggerFactory.getLogger(LogStore.class);
+    private final        File         logDir;
+    private final        int          segmentSize;
+    private final        Object       writeLock     = new Object();
+    private volatile     LogSegment[] segments      = new LogSegment[0];
+    private volatile     long         firstIndex    = 1;      // 第一条日志的 index
+    private volatile     long         lastIndex     = 0;      // 最后一条日志的 index
+    private volatile     long         lastTerm      = 0;      // 最后一条日志的 term
+    private volatile     long         prevTerm      = 0;      // firstIndex 之前那条日志（已经被快照覆盖）的 term，未知时为 -1
+    private              long         writeTicket   = 0;      // 最后一次修改的票据（由 writeLock 保护）
+    //
+    private final        Object       syncLock      = new Object();
+    private              long         syncedTicket  = 0;      // 已经落盘的票据
+    private volatile     long         flushedIndex  = 0;      // 已经落盘的最大 index
+    private              boolean      flushing      = false;  // 是否有线程正在刷盘
+    private              IOException  failure       = null;   // 刷盘失败之后日志不再可用
+    //
+    public LogStore(File logDir, int segmentSize) {
+        this.logDir = logDir;
+        this.segmentSize = segmentSize;
+    }
+    //
+    /** 打开日志目录，加载所有分段。遇到损坏或不连续的日志时，之后的数据都会被丢弃。 */
+    public void open() throws IOException {
+        synchronized (this.writeLock) {
+            if (!this.logDir.exists() && !this.logDir.mkdirs()) {
+                throw new IOException("create dir " + this.logDir.getAbsolutePath() + " failed.");
+            }
+            List<LogSegment> segmentList = new ArrayList<LogSegment>();
+            boolean broken = false;
+            for (File file : this.listSegments()) {
+                if (broken) {
+                    logger.warn("land log {} is after a broken segment, discarded.", file.getName());
+                    deleteFile(file);
+                    continue;
+                }
+                LogSegment segment = LogSegment.open(file);
+                if (!segmentList.isEmpty()) {
+                    LogSegment prev = segmentList.get(segmentList.size() - 1);
+                    if (segment.getBaseIndex() != prev.getLastIndex() + 1) {
+                        logger.warn("land log {} is not continuous with {}, discarded.", file.getName(), prev.getFile().getName());
+                        segment.delete();
+                        broken = true;
+                        continue;
+                    }
+                }
+                segmentList.add(segment);
+                // .分段尾部损坏，说明之后的分段也不可信
+                broken = segment.isBroken();
+            }
+            this.segments = segmentList.toArray(new LogSegment[segmentList.size()]);
+            if (this.segments.length == 0) {
+                this.firstIndex = 1;
+                this.lastIndex = 0;
+                this.lastTerm = 0;
+                this.prevTerm = 0;
+            } else {
+                LogSegment first = this.segments[0];
+                LogSegment last = this.segments[this.segments.length - 1];
+                this.firstIndex = first.getBaseIndex();
+                this.prevTerm = this.firstIndex == 1 ? 0 : -1; // 前面的日志已经被快照覆盖，由 compactTo 告知
+                this.lastIndex = last.getLastIndex();
+                this.lastTerm = this.termAt(this.lastIndex);
+            }
+            this.flushedIndex = this.lastIndex;
+            logger.info("land log opened, dir = {}, segments = {}, index = [{}, {}]", //
+                    this.logDir.getAbsolutePath(), this.segments.length, this.firstIndex, this.lastIndex);
+        }
+    }
+    //
+    /** 第一条日志的 index */
+    public long getFirstIndex() {
+        return this.firstIndex;
+    }
+    /** 最后一条日志的 index，没有日志时为 firstIndex - 1 */
+    public long getLastIndex() {
+        return this.lastIndex;
+    }
+    /** 最后一条日志的 term，没有日志时为 0 */
+    public long getLastTerm() {
+        return this.lastTerm;
+    }
+    /** 已经落盘的最大 index（只在日志没有被截断的情况下有意义，即 Leader 上） */
+    public long getFlushedIndex() {
+        return this.flushedIndex;
+    }
+    /** 最后一次修改的票据，用于 {@link #sync(long)} */
+    public long getWriteTicket() {
+        synchronized (this.writeLock) {
+            return this.writeTicket;
+        }
+    }
+    //
+    /** 获取 index 所在日志的 term。index 为 firstIndex - 1 时返回快照覆盖的最后一条日志的 term（没有快照时即为 0），日志不存在时返回 -1 */
+    public long termAt(long index) {
+        if (index == this.firstIndex - 1) {
+            return this.prevTerm;
+        }
+        if (index < this.firstIndex || index > this.lastIndex) {
+            return -1;
+        }
+        LogSegment segment = this.findSegment(index);
+        return segment == null ? -1 : segment.termAt(index);
+    }
+    /** 读取一条日志，日志不存在时返回 null */
+    public LogData read(long index) {
+        if (index < this.firstIndex || index > this.lastIndex) {
+            return null;
+        }
+        LogSegment segment = this.findSegment(index);
+        return segment == null ? null : segment.read(index);
+    }
+    /** 从 fromIndex 开始连续读取日志，最多 maxCount 条，数据总量达到 maxBytes 时停止（至少返回一条） */
+    public List<LogData> read(long fromIndex, int maxCount, int maxBytes) {
+        long toIndex = this.lastIndex;
+        if (fromIndex < this.firstIndex || fromIndex > toIndex) {
+            return Collections.emptyList();
+        }
+        List<LogData> logList = new ArrayList<LogData>();
+        int readBytes = 0;
+        LogSegment segment = null;
+        for (long index = fromIndex; index <= toIndex && logList.size() < maxCount && readBytes < maxBytes; index++) {
+            if (segment == null || index > segment.getLastIndex()) {
+                segment = this.findSegment(index);
+                if (segment == null) {
+                    break;
+                }
+            }
+            LogData logData = segment.read(index);
+            logList.add(logData);
+            readBytes += logData.getDataArrays().length;
+        }
+        return logList;
+    }
+    //
+    /** 追加一组日志，日志的 index 必须和已有的日志连续。返回用于 {@link #sync(long)} 的票据，此时数据还未落盘。 */
+    public long append(List<LogData> logList) throws IOException {
+        synchronized (this.writeLock) {
+            this.checkFailure();
+            for (LogData logData : logList) {
+                if (logData.getIndex() != this.lastIndex + 1) {
+                    throw new IllegalArgumentException("log index mast be " + (this.lastIndex + 1) + ", but " + logData.getIndex());
+                }
+                LogSegment[] segmentArrays = this.segments;
+                LogSegment segment = segmentArrays.length == 0 ? null : segmentArrays[segmentArrays.length - 1];
+                if (segment == null || !segment.append(logData)) {
+                    segment = this.newSegment(logData);
+                    if (!segment.append(logData)) {
+                        throw new IOException("log " + logData.getIndex() + " is too large.");
+                    }
+                }
+                this.lastTerm = logData.getTerm();
+                this.lastIndex = logData.getIndex(); // volatile 写，之后读者才能看到这条日志
+            }
+            return ++this.writeTicket;
+        }
+    }
+    /** 删除 fromIndex 以及之后的所有日志（Follower 和 Leader 日志冲突时使用），返回用于 {@link #sync(long)} 的票据 */
+    public long truncateSuffix(long fromIndex) throws IOException {
+        synchronized (this.writeLock) {
+            this.checkFailure();
+            if (fromIndex > this.lastIndex) {
+                return this.writeTicket;
+            }
+            if (fromIndex < this.firstIndex) {
+                throw new IllegalArgumentException("truncate index " + fromIndex + " is less than first index " + this.firstIndex);
+            }
+            LogSegment[] segmentArrays = this.segments;
+            int keepCount = segmentArrays.length;
+            while (keepCount > 0 && segmentArrays[keepCount - 1].getBaseIndex() >= fromIndex) {
+                keepCount--;
+            }
+            // .保留至少一个分段，第一个分段的文件名决定了 firstIndex
+            keepCount = Math.max(keepCount, 1);
+            for (int i = keepCount; i < segmentArrays.length; i++) {
+                segmentArrays[i].delete();
+            }
+            LogSegment[] newSegments = Arrays.copyOf(segmentArrays, keepCount);
+            newSegments[keepCount - 1].truncate(fromIndex);
+            //
+            this.lastIndex = fromIndex - 1;
+            this.segments = newSegments;
+            this.lastTerm = this.termAt(this.lastIndex);
+            this.flushedIndex = Math.min(this.flushedIndex, this.lastIndex);
+            logger.info("land log truncate from {}.", fromIndex);
+            return ++this.writeTicket;
+        }
+    }
+    /**
+     * 快照已经覆盖了 index 以及之前的日志：
+     * 日志中 index 处的 term 和快照一致时只删除前面的日志，否则日志已经没有保留的意义，全部删除之后从 index + 1 开始。
+     * 返回用于 {@link #sync(long)} 的票据。
+     */
+    public long compactTo(long index, long term) throws IOException {
+        synchronized (this.writeLock) {
+            this.checkFailure();
+            if (index < this.firstIndex - 1) {
+                return this.writeTicket; // 日志的起点已经在快照之后
+            }
+            if (index == this.firstIndex - 1) {
+                this.prevTerm = term;
+                if (this.lastIndex == index) {
+                    this.lastTerm = term;
+                }
+                return this.writeTicket;
+            }
+            if (index <= this.lastIndex && this.termAt(index) == term) {
+                return this.truncatePrefix(index + 1);
+            }
+            LogSegment[] segmentArrays = this.segments;
+            this.segments = new LogSegment[0];
+            for (LogSegment segment : segmentArrays) {
+                segment.delete();
+            }
+            this.firstIndex = index + 1;
+            this.lastIndex = index;
+            this.lastTerm = term;
+            this.prevTerm = term;
+            this.flushedIndex = index;
+            logger.info("land log reset, next index is {}.", index + 1);
+            return ++this.writeTicket;
+        }
+    }
+    /**
+     * 删除 keepFrom 之前的日志（这些日志已经被快照覆盖）。删除以分段为单位进行，因此实际保留的日志可能多一些，最后一个分段总是保留。
+     * 返回用于 {@link #sync(long)} 的票据。
+     */
+    public long truncatePrefix(long keepFrom) throws IOException {
+        synchronized (this.writeLock) {
+            this.checkFailure();
+            LogSegment[] segmentArrays = this.segments;
+            int dropCount = 0;
+            while (dropCount < segmentArrays.length - 1 && segmentArrays[dropCount].getLastIndex() < keepFrom) {
+                dropCount++;
+            }
+            if (dropCount == 0) {
+                return this.writeTicket;
+            }
+            // .先发布新的起点，读者不会再访问被删除的分段（已经在读的读者不受影响，映射区由 GC 回收）
+            long newFirstIndex = segmentArrays[dropCount].getBaseIndex();
+            long newPrevTerm = segmentArrays[dropCount - 1].termAt(newFirstIndex - 1);
+            this.prevTerm = newPrevTerm;
+            this.firstIndex = newFirstIndex;
+            this.segments = Arrays.copyOfRange(segmentArrays, dropCount, segmentArrays.length);
+            for (int i = 0; i < dropCount; i++) {
+                segmentArrays[i].delete();
+            }
+            logger.info("land log truncate before {}, {} segments deleted.", newFirstIndex, dropCount);
+            return ++this.writeTicket;
+        }
+    }
+    //
+    /** 等待 ticket 及其之前的所有修改落盘。 */
+    public void sync(long ticket) throws IOException {
+        boolean interrupted = false;
+        synchronized (this.syncLock) {
+            try {
+                while (true) {
+                    if (this.syncedTicket >= ticket) {
+                        return;
+                    }
+                    if (this.failure != null) {
+                        throw new IOException("land log is broken.", this.failure);
+                    }
+                    if (!this.flushing) {
+                        break;
+                    }
+                    interrupted |= this.awaitLock();
+                }
+            } finally {
+                restoreInterrupt(interrupted);
+            }
+            this.flushing = true;
+        }
+        // .成为刷盘者，force 所有脏的分段
+        long upToTicket;
+        long upToIndex;
+        List<LogSegment> toForce = new ArrayList<LogSegment>();
+        synchronized (this.writeLock) {
+            upToTicket = this.writeTicket;
+            upToIndex = this.lastIndex;
+            for (LogSegment segment : this.segments) {
+                if (segment.isDirty()) {
+                    segment.clearDirty();
+                    toForce.add(segment);
+                }
+            }
+        }
+        IOException error = null;
+        try {
+            for (LogSegment segment : toForce) {
+                segment.force();
+            }
+        } catch (RuntimeException e) {
+            error = new IOException("force land log failed.", e);
+        }
+        synchronized (this.syncLock) {
+            this.flushing = false;
+            if (error == null) {
+                this.syncedTicket = upToTicket;
+                this.flushedIndex = Math.max(this.flushedIndex, upToIndex);
+            } else {
+                this.failure = error;
+            }
+            this.syncLock.notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+    //
+    /** 关闭日志，未落盘的数据会被刷盘 */
+    public void close() throws IOException {
+        this.sync(this.getWriteTicket());
+        synchronized (this.writeLock) {
+            for (LogSegment segment : this.segments) {
+                segment.close();
+            }
+            this.segments = new LogSegment[0];
+        }
+    }
+    //
+    private LogSegment newSegment(LogData logData) throws IOException {
+        int dataLength = logData.getDataArrays() == null ? 0 : logData.getDataArrays().length;
+        int needSize = LogSegment.HEAD_LENGTH + LogSegment.FIXED_LENGTH + dataLength + 4;
+        LogSegment segment = LogSegment.create(this.logDir, logData.getIndex(), Math.max(this.segmentSize, needSize));
+        LogSegment[] segmentArrays = this.segments;
+        LogSegment[] newSegments = Arrays.copyOf(segmentArrays, segmentArrays.length + 1);
+        newSegments[segmentArrays.length] = segment;
+        this.segments = newSegments;
+        if (segmentArrays.length == 0) {
+            this.firstIndex = logData.getIndex();
+        }
+        return segment;
+    }
+    private LogSegment findSegment(long index) {
+        LogSegment[] segmentArrays = this.segments;
+        int low = 0;
+        int high = segmentArrays.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            LogSegment segment = segmentArrays[mid];
+            if (index < segment.getBaseIndex()) {
+                high = mid - 1;
+            } else if (index > segment.getLastIndex()) {
+                low = mid + 1;
+            } else {
+                return segment;
+            }
+        }
+        return null;
+    }
+    private void checkFailure() throws IOException {
+        synchronized (this.syncLock) {
+            if (this.failure != null) {
+                throw new IOException("land log is broken.", this.failure);
+            }
+        }
+    }
+    private List<File> listSegments() {
+        File[] files = this.logDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && LogSegment.baseIndex(file) > 0;
+            }
+        });
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long i1 = LogSegment.baseIndex(o1);
+                long i2 = LogSegment.baseIndex(o2);
+                return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+            }
+        });
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+    private static void deleteFile(File file) {
+        if (!file.delete()) {
+            logger.warn("land log {} delete failed.", file.getAbsolutePath());
+        }
+    }
+    // - 等待期间的中断不能打断刷盘协议，返回是否发生过中断，由调用者在结束时恢复中断标记
+    private boolean awaitLock() {
+        try {
+            this.syncLock.wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+    private static void restoreInterrupt(boolean interrupted) {
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.storage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+/**
+ * 生成中的快照，状态机把数据写进这个流里，写完之后调用 {@link #commit()} 替换当前快照，失败时调用 {@link #abort()}。
+ * <p>数据直接写入临时文件，状态机调用 {@link #close()} 只会刷新缓冲区。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class SnapshotOutput extends OutputStream {
+    private final SnapshotStore    snapshotStore;
+    private final File             file;
+    private final long             lastIndex;
+    private final long             lastTerm;
+    private final FileOutputStream fileStream;
+    private final OutputStream     bufferStream;
+    private final CRC32            crc        = new CRC32();
+    private       long             dataLength = 0;
+    private       boolean          finished   = false;
+    //
+    SnapshotOutput(SnapshotStore snapshotStore, File file, long lastIndex, long lastTerm) throws IOException {
+        this.snapshotStore = snapshotStore;
+        this.file = file;
+        this.lastIndex = lastIndex;
+        this.lastTerm = lastTerm;
+        this.fileStream = new FileOutputStream(file);
+        this.fileStream.write(new byte[SnapshotStore.HEAD_LENGTH]); // 文件头在 commit 时回填
+        this.bufferStream = new BufferedOutputStream(this.fileStream, 65536);
+    }
+    //
+    /** 快照覆盖的最后一条日志的 index */
+    public long getLastIndex() {
+        return this.lastIndex;
+    }
+    @Override
+    public void write(int b) throws IOException {
+        this.checkFinished();
+        this.bufferStream.write(b);
+        this.crc.update(b);
+        this.dataLength++;
+    }
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.checkFinished();
+        this.bufferStream.write(b, off, len);
+        this.crc.update(b, off, len);
+        this.dataLength += len;
+    }
+    @Override
+    public void flush() throws IOException {
+        this.checkFinished();
+        this.bufferStream.flush();
+    }
+    @Override
+    public void close() throws IOException {
+        if (!this.finished) {
+            this.bufferStream.flush();
+        }
+    }
+    //
+    /** 回填文件头并落盘，然后替换当前快照 */
+    public void commit() throws IOException {
+        this.checkFinished();
+        this.finished = true;
+        try {
+            this.bufferStream.flush();
+            ByteBuffer head = ByteBuffer.allocate(SnapshotStore.HEAD_LENGTH);
+            head.putInt(SnapshotStore.MAGIC);
+            head.putInt((int) this.crc.getValue());
+            head.putLong(this.lastIndex);
+            head.putLong(this.lastTerm);
+            head.putLong(this.dataLength);
+            head.flip();
+            FileChannel channel = this.fileStream.getChannel();
+            while (head.hasRemaining()) {
+                channel.write(head, head.position());
+            }
+            channel.force(true);
+            this.fileStream.close();
+        } catch (IOException e) {
+            this.abort();
+            throw e;
+        }
+        this.snapshotStore.replace(this.file, this.lastIndex, this.lastTerm);
+    }
+    /** 放弃这个快照 */
+    public void abort() {
+        this.finished = true;
+        try {
+            this.fileStream.close();
+        } catch (IOException e) {
+            /* 临时文件马上会被删除 */
+        }
+        SnapshotStore.deleteFile(this.file);
+    }
+    private void checkFinished() throws IOException {
+        if (this.finished) {
+            throw new IOException("snapshot " + this.lastIndex + " is already finished.");
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+/**
+ * 状态机快照，只保留最新的一份。文件格式为：
+ * <magic 4-Byte> + <crc32 4-Byte> + <lastIndex 8-Byte> + <lastTerm 8-Byte> + <dataLength 8-Byte> + <data n-Byte>。
+ * <p>无论是本地生成（{@link #newOutput(long, long)}）还是从 Leader 接收（{@link #installChunk(long, long, long, byte[], boolean)}），
+ * 快照都先写入临时文件，校验通过并落盘之后再改名替换，因此任何时刻磁盘上的快照都是完整的。</p>
+ * <p>发送给 Follower 时按块从文件中读取原始内容（{@link #readChunk(long, long, int)}），整个快照不会被载入内存。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class SnapshotStore {
+    protected static     Logger      logger         = LoggerFactory.getLogger(SnapshotStore.class);
+    static final         int         MAGIC          = 0x4C414E44; // "LAND"
+    static final         int         HEAD_LENGTH    = 32;
+    private static final int         BUFFER_SIZE    = 65536;
+    private final        File        snapshotDir;
+    private final        File        snapshotFile;
+    private final        File        saveFile;                    // 本地生成快照的临时文件
+    private final        File        installFile;                 // 接收快照的临时文件
+    private volatile     long        lastIndex      = 0;          // 快照覆盖的最后一条日志的 index，没有快照时为 0
+    private volatile     long        lastTerm       = 0;          // 快照覆盖的最后一条日志的 term
+    private volatile     long        length         = 0;          // 快照文件的总长度
+    private              FileChannel readChannel    = null;       // 用于向 Follower 发送快照（由对象锁保护）
+    //
+    private              FileChannel installChannel = null;       // 正在接收的快照（由对象锁保护）
+    private              long        installIndex   = 0;
+    private              long        installTerm    = 0;
+    private              long        installOffset  = 0;
+    //
+    public SnapshotStore(File snapshotDir) {
+        this.snapshotDir = snapshotDir;
+        this.snapshotFile = new File(snapshotDir, "snapshot.dat");
+        this.saveFile = new File(snapshotDir, "snapshot.save");
+        this.installFile = new File(snapshotDir, "snapshot.install");
+    }
+    //
+    /** 打开快照目录并校验已有的快照。快照损坏时抛出异常（它覆盖的日志已经被删除，无法自动恢复）。 */
+    public synchronized void open() throws IOException {
+        if (!this.snapshotDir.exists() && !this.snapshotDir.mkdirs()) {
+            throw new IOException("create dir " + this.snapshotDir.getAbsolutePath() + " failed.");
+        }
+        deleteFile(this.saveFile);
+        deleteFile(this.installFile);
+        if (!this.snapshotFile.exists()) {
+            logger.info("land snapshot opened, dir = {}, no snapshot.", this.snapshotDir.getAbsolutePath());
+            return;
+        }
+        long[] header = verify(this.snapshotFile);
+        if (header == null) {
+            throw new IOException("land snapshot " + this.snapshotFile.getAbsolutePath() + " is broken.");
+        }
+        this.publish(header[0], header[1], this.snapshotFile.length());
+        logger.info("land snapshot opened, dir = {}, lastIndex = {}, lastTerm = {}", //
+                this.snapshotDir.getAbsolutePath(), this.lastIndex, this.lastTerm);
+    }
+    //
+    /** 快照覆盖的最后一条日志的 index，没有快照时为 0 */
+    public long getLastIndex() {
+        return this.lastIndex;
+    }
+    /** 快照覆盖的最后一条日志的 term，没有快照时为 0 */
+    public long getLastTerm() {
+        return this.lastTerm;
+    }
+    /** 快照文件的总长度（包括文件头），用于发送快照 */
+    public long getLength() {
+        return this.length;
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .本地快照
+    /** 开始生成一个覆盖到 lastIndex 的快照，数据写完之后调用 {@link SnapshotOutput#commit()} 生效 */
+    public SnapshotOutput newOutput(long lastIndex, long lastTerm) throws IOException {
+        return new SnapshotOutput(this, this.saveFile, lastIndex, lastTerm);
+    }
+    /** 读取快照中的状态机数据，快照已经不是 lastIndex 时返回 null */
+    public synchronized InputStream openData(long lastIndex) throws IOException {
+        if (this.lastIndex != lastIndex || this.lastIndex == 0) {
+            return null;
+        }
+        final long dataLength = this.length - HEAD_LENGTH;
+        FileInputStream fileStream = new FileInputStream(this.snapshotFile);
+        if (fileStream.skip(HEAD_LENGTH) != HEAD_LENGTH) {
+            fileStream.close();
+            throw new IOException("land snapshot " + this.snapshotFile.getAbsolutePath() + " is broken.");
+        }
+        // .限制读取范围，状态机读多了也不会越界
+        return new FilterInputStream(new BufferedInputStream(fileStream, BUFFER_SIZE)) {
+            private long remaining = dataLength;
+            public int read() throws IOException {
+                if (this.remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    this.remaining--;
+                }
+                return b;
+            }
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (this.remaining <= 0) {
+                    return -1;
+                }
+                int count = super.read(b, off, (int) Math.min(len, this.remaining));
+                if (count > 0) {
+                    this.remaining -= count;
+                }
+                return count;
+            }
+            public long skip(long n) throws IOException {
+                long count = super.skip(Math.min(n, this.remaining));
+                this.remaining -= count;
+                return count;
+            }
+            public int available() throws IOException {
+                return (int) Math.min(super.available(), this.remaining);
+            }
+        };
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    // .发送和接收快照
+    /** 从 offset 开始读取快照文件的原始内容，最多 maxBytes 字节。快照已经不是 lastIndex 时返回 null */
+    public synchronized byte[] readChunk(long lastIndex, long offset, int maxBytes) throws IOException {
+        if (this.lastIndex != lastIndex || this.readChannel == null) {
+            return null;
+        }
+        int readSize = (int) Math.max(0, Math.min(maxBytes, this.length - offset));
+        ByteBuffer buffer = ByteBuffer.allocate(readSize);
+        while (buffer.hasRemaining()) {
+            if (this.readChannel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("land snapshot is shorter than " + this.length);
+            }
+        }
+        return buffer.array();
+    }
+    /**
+     * 接收一块快照数据，块必须按顺序到达。offset 为 0 时开始一次新的接收，done 为 true 表示这是最后一块，此时会校验并替换本地快照。
+     * 返回下一块期望的 offset（顺序不对时 Leader 应当从这里继续发送）。
+     */
+    public synchronized long installChunk(long lastIndex, long lastTerm, long offset, byte[] data, boolean done) throws IOException {
+        if (offset == 0) {
+            this.closeInstall();
+            deleteFile(this.installFile);
+            this.installChannel = new RandomAccessFile(this.installFile, "rw").getChannel();
+            this.installIndex = lastIndex;
+            this.installTerm = lastTerm;
+            this.installOffset = 0;
+        } else if (this.installChannel == null || this.installIndex != lastIndex || this.installTerm != lastTerm) {
+            return 0;
+        } else if (this.installOffset != offset) {
+            return this.installOffset;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                this.installChannel.write(buffer, this.installOffset + buffer.position());
+            }
+            this.installOffset = this.installOffset + data.length;
+            if (!done) {
+                return this.installOffset;
+            }
+            this.installChannel.force(true);
+            this.closeInstall();
+            long[] header = verify(this.installFile);
+            if (header == null || header[0] != lastIndex || header[1] != lastTerm) {
+                throw new IOException("received snapshot " + lastIndex + " is broken.");
+            }
+            this.replace(this.installFile, lastIndex, lastTerm);
+            return this.installOffset;
+        } catch (IOException e) {
+            this.closeInstall();
+            deleteFile(this.installFile);
+            throw e;
+        }
+    }
+    //
+    /** 关闭快照，正在接收的快照会被丢弃 */
+    public synchronized void close() throws IOException {
+        this.closeInstall();
+        if (this.readChannel != null) {
+            this.readChannel.close();
+            this.readChannel = null;
+        }
+    }
+    //
+    // - 用已经校验并落盘的临时文件替换当前快照
+    synchronized void replace(File newFile, long lastIndex, long lastTerm) throws IOException {
+        if (this.readChannel != null) {
+            this.readChannel.close();
+            this.readChannel = null;
+        }
+        if (!newFile.renameTo(this.snapshotFile)) {
+            deleteFile(this.snapshotFile);
+            if (!newFile.renameTo(this.snapshotFile)) {
+                throw new IOException("rename " + newFile.getAbsolutePath() + " to " + this.snapshotFile.getName() + " failed.");
+            }
+        }
+        this.publish(lastIndex, lastTerm, this.snapshotFile.length());
+        logger.info("land snapshot replaced, lastIndex = {}, lastTerm = {}, length = {}", lastIndex, lastTerm, this.length);
+    }
+    private void publish(long lastIndex, long lastTerm, long length) throws IOException {
+        this.readChannel = new RandomAccessFile(this.snapshotFile, "r").getChannel();
+        this.length = length;
+        this.lastTerm = lastTerm;
+        this.lastIndex = lastIndex;
+    }
+    private void closeInstall() {
+        if (this.installChannel == null) {
+            return;
+        }
+        try {
+            this.installChannel.close();
+        } catch (IOException e) {
+            logger.warn("close {} failed, {}", this.installFile.getName(), e.getMessage());
+        }
+        this.installChannel = null;
+    }
+    // - 校验快照文件，返回 [lastIndex, lastTerm]，文件不完整或者校验失败时返回 null
+    static long[] verify(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            long fileLength = file.length();
+            if (fileLength < HEAD_LENGTH) {
+                return null;
+            }
+            byte[] headArrays = new byte[HEAD_LENGTH];
+            readFully(inputStream, headArrays);
+            ByteBuffer head = ByteBuffer.wrap(headArrays);
+            int magic = head.getInt();
+            int crc32 = head.getInt();
+            long lastIndex = head.getLong();
+            long lastTerm = head.getLong();
+            long dataLength = head.getLong();
+            if (magic != MAGIC || dataLength != fileLength - HEAD_LENGTH) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) > 0) {
+                crc.update(buffer, 0, count);
+            }
+            return (int) crc.getValue() == crc32 ? new long[] { lastIndex, lastTerm } : null;
+        } finally {
+            inputStream.close();
+        }
+    }
+    private static void readFully(InputStream inputStream, byte[] dataArrays) throws IOException {
+        int position = 0;
+        while (position < dataArrays.length) {
+            int count = inputStream.read(dataArrays, position, dataArrays.length - position);
+            if (count < 0) {
+                throw new IOException("unexpected end of snapshot.");
+            }
+            position += count;
+        }
+    }
+    static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.warn("land snapshot {} delete failed.", file.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.land.storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+/**
+ * 持久化的选举状态：当前任期（currentTerm）和本任期的选票（votedFor）。
+ * <p>投出选票、发起选举之前必须先把它们落盘，否则重启之后可能在同一个任期里投出第二张选票。</p>
+ * <p>文件中有两个槽位轮流写入，每个槽位的格式为：
+ * <magic 4-Byte> + <crc32 4-Byte> + <version 8-Byte> + <term 8-Byte> + <votedForLength 4-Byte> + <votedFor n-Byte>。
+ * 写入过程中崩溃最多损坏正在写的那个槽位，启动时取校验通过并且 version 最大的槽位。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class TermStore {
+    protected static     Logger      logger      = LoggerFactory.getLogger(TermStore.class);
+    static final         int         MAGIC       = 0x5445524D; // "TERM"
+    static final         int         SLOT_SIZE   = 512;
+    private static final int         HEAD_LENGTH = 28;
+    private static final Charset     UTF8        = Charset.forName("UTF-8");
+    private final        File        termFile;
+    private              FileChannel channel     = null;
+    private              long        version     = 0;          // 最后一次写入的版本，决定下一次写哪个槽位
+    private volatile     long        term        = 0;          // 已经落盘的任期
+    private volatile     String      votedFor    = null;       // 已经落盘的选票，没有投票时为 null
+    //
+    public TermStore(File termFile) {
+        this.termFile = termFile;
+    }
+    //
+    /** 打开文件并载入最后一次保存的任期和选票，两个槽位都损坏时抛出异常 */
+    public synchronized void open() throws IOException {
+        File parentFile = this.termFile.getParentFile();
+        if (parentFile != null && !parentFile.exists() && !parentFile.mkdirs()) {
+            throw new IOException("create dir " + parentFile.getAbsolutePath() + " failed.");
+        }
+        boolean exists = this.termFile.exists() && this.termFile.length() > 0;
+        this.channel = new RandomAccessFile(this.termFile, "rw").getChannel();
+        if (!exists) {
+            this.channel.truncate(0);
+            this.write(0, null);
+            this.channel.force(true);
+            logger.info("land term opened, file = {}, new file.", this.termFile.getAbsolutePath());
+            return;
+        }
+        Slot slot = null;
+        for (int i = 0; i < 2; i++) {
+            Slot read = this.readSlot(i);
+            if (read != null && (slot == null || read.version > slot.version)) {
+                slot = read;
+            }
+        }
+        if (slot == null) {
+            this.channel.close();
+            this.channel = null;
+            throw new IOException("land term " + this.termFile.getAbsolutePath() + " is broken.");
+        }
+        this.version = slot.version;
+        this.term = slot.term;
+        this.votedFor = slot.votedFor;
+        logger.info("land term opened, file = {}, term = {}, votedFor = {}", //
+                this.termFile.getAbsolutePath(), this.term, this.votedFor);
+    }
+    //
+    /** 已经落盘的任期 */
+    public long getTerm() {
+        return this.term;
+    }
+    /** 已经落盘的选票，没有投票时为 null */
+    public String getVotedFor() {
+        return this.votedFor;
+    }
+    //
+    /**
+     * 保存任期和选票，返回时数据已经落盘。
+     * <p>并发的状态转换可能乱序到达这里，比已经保存的更旧的状态（任期更小，或者同一个任期里还没有投票）会被忽略，
+     * 和已经保存的相同时也不会产生 IO。</p>
+     */
+    public synchronized void save(long term, String votedFor) throws IOException {
+        if (this.channel == null) {
+            throw new IOException("land term " + this.termFile.getAbsolutePath() + " is closed.");
+        }
+        if (term < this.term || (term == this.term && (votedFor == null || this.votedFor != null))) {
+            return;
+        }
+        this.write(term, votedFor);
+        this.channel.force(false);
+        this.term = term;
+        this.votedFor = votedFor;
+    }
+    /** 关闭文件 */
+    public synchronized void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+    //
+    // - 把状态写入下一个槽位（不落盘）
+    private void write(long term, String votedFor) throws IOException {
+        byte[] votedArrays = votedFor == null ? new byte[0] : votedFor.getBytes(UTF8);
+        if (HEAD_LENGTH + votedArrays.length > SLOT_SIZE) {
+            throw new IOException("votedFor " + votedFor + " is too long.");
+        }
+        long newVersion = this.version + 1;
+        ByteBuffer body = ByteBuffer.allocate(HEAD_LENGTH - 8 + votedArrays.length);
+        body.putLong(newVersion);
+        body.putLong(term);
+        body.putInt(votedFor == null ? -1 : votedArrays.length);
+        body.put(votedArrays);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        //
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        slot.putInt(MAGIC);
+        slot.putInt((int) crc.getValue());
+        slot.put(body.array());
+        slot.clear();
+        long position = (newVersion % 2) * SLOT_SIZE;
+        while (slot.hasRemaining()) {
+            this.channel.write(slot, position + slot.position());
+        }
+        this.version = newVersion;
+    }
+    // - 读取一个槽位，槽位不完整或者校验失败时返回 null
+    private Slot readSlot(int index) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        long position = (long) index * SLOT_SIZE;
+        while (slot.hasRemaining()) {
+            if (this.channel.read(slot, position + slot.position()) < 0) {
+                return null;
+            }
+        }
+        slot.flip();
+        int magic = slot.getInt();
+        int crc32 = slot.getInt();
+        int votedLength = slot.getInt(HEAD_LENGTH - 4);
+        if (magic != MAGIC || votedLength < -1 || HEAD_LENGTH + votedLength > SLOT_SIZE) {
+            return null;
+        }
+        byte[] body = new byte[HEAD_LENGTH - 8 + Math.max(0, votedLength)];
+        slot.get(body);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != crc32) {
+            return null;
+        }
+        ByteBuffer bodyBuffer = ByteBuffer.wrap(body);
+        Slot read = new Slot();
+        read.version = bodyBuffer.getLong();
+        read.term = bodyBuffer.getLong();
+        bodyBuffer.getInt();
+        read.votedFor = votedLength < 0 ? null : new String(body, bodyBuffer.position(), votedLength, UTF8);
+        return read;
+    }
+    /** 一个槽位中的内容 */
+    private static class Slot {
+        private long   version;
+        private long   term;
+        private String votedFor;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.land;
+import io.netty.util.TimerTask;
+import net.hasor.land.bootstrap.LandContext;
+import net.hasor.land.domain.ServerStatus;
+import net.hasor.land.election.CollectVoteResult;
+import net.hasor.land.election.LeaderBeatResult;
+import net.hasor.land.node.NodeData;
+import net.hasor.land.node.ServerNode;
+import net.hasor.land.replicator.DataContext;
+import net.hasor.land.storage.LogStore;
+import net.hasor.land.storage.TermStore;
+import net.hasor.rsf.RsfBindInfo;
+import net.hasor.rsf.RsfClient;
+import net.hasor.utils.future.FutureCallback;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+/**
+ * 不启动 RSF 的情况下测试选举和读取：节点之间的调用由测试代码直接回应，注入的字段用反射设置
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class LandTestSupport {
+    public static void setField(Object target, String fieldName, Object value) throws Exception {
+        Field field = findField(target.getClass(), fieldName);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+    public static Object invoke(Object target, String methodName) throws Exception {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            for (Method method : type.getDeclaredMethods()) {
+                if (method.getName().equals(methodName) && method.getParameterTypes().length == 0) {
+                    method.setAccessible(true);
+                    return method.invoke(target);
+                }
+            }
+        }
+        throw new NoSuchMethodException(methodName);
+    }
+    private static Field findField(Class<?> type, String fieldName) throws NoSuchFieldException {
+        for (; type != null; type = type.getSuperclass()) {
+            try {
+                return type.getDeclaredField(fieldName);
+            } catch (NoSuchFieldException e) { /**/ }
+        }
+        throw new NoSuchFieldException(fieldName);
+    }
+    public static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+    //
+    /** 集群信息，没有定时器和事件线程，状态事件记录在 statusList 中 */
+    public static class TestLandContext extends LandContext {
+        private final String             serverID;
+        private final List<String>       serverIDs;
+        public final  List<ServerStatus> statusList = new CopyOnWriteArrayList<ServerStatus>();
+        public TestLandContext(String serverID, String... serverIDs) {
+            this.serverID = serverID;
+            this.serverIDs = Arrays.asList(serverIDs);
+        }
+        public String getServerID() {
+            return this.serverID;
+        }
+        public Collection<String> getServerIDs() {
+            return this.serverIDs;
+        }
+        public RsfBindInfo<?> getElectionService() {
+            return null;
+        }
+        public RsfBindInfo<?> getReplicatorService() {
+            return null;
+        }
+        public RsfClient wrapperApi(String serverID) {
+            return null;
+        }
+        public void atTime(TimerTask timerTask, int timeout) {
+        }
+        public void fireVotedFor(String votedTo) {
+        }
+        public void fireStatus(ServerStatus toStatus) {
+            this.statusList.add(toStatus);
+        }
+    }
+    /** 任期存储和（按需打开的）日志，提交进度、日志的新旧和学习者状态由测试指定 */
+    public static class TestDataContext extends DataContext {
+        private final   File      dataDir;
+        private final   TermStore termStore;
+        private         LogStore  logStore    = null;
+        public volatile boolean   learner     = false;
+        public volatile boolean   upToDate    = true;
+        public volatile long      commitIndex = 0;
+        public TestDataContext(File dataDir) throws IOException {
+            deleteFile(dataDir);
+            this.dataDir = dataDir;
+            this.termStore = new TermStore(new File(dataDir, "term.dat"));
+            this.termStore.open();
+        }
+        public LogStore openLogStore() throws IOException {
+            this.logStore = new LogStore(new File(this.dataDir, "log"), 4096);
+            this.logStore.open();
+            return this.logStore;
+        }
+        public void close() throws IOException {
+            this.termStore.close();
+            if (this.logStore != null) {
+                this.logStore.close();
+            }
+            deleteFile(this.dataDir);
+        }
+        public TermStore getTermStore() {
+            return this.termStore;
+        }
+        public LogStore getLogStore() {
+            return this.logStore;
+        }
+        public boolean isLearner() {
+            return this.learner;
+        }
+        public boolean isUpToDate(long lastLogTerm, long lastLogIndex) {
+            return this.upToDate;
+        }
+        public long getLastLogIndex() {
+            return 0;
+        }
+        public long getLastLogTerm() {
+            return 0;
+        }
+        public long getCommitIndex() {
+            return this.commitIndex;
+        }
+        public long getLastApplied() {
+            return 0;
+        }
+    }
+    /** 远程节点，请求被记录下来，由测试决定如何回应 */
+    public static class TestNode extends NodeData {
+        public final    List<String> calls      = new CopyOnWriteArrayList<String>();
+        public volatile Boolean      voteGrant  = null; // 为 null 时不回应投票请求
+        public volatile Boolean      beatAccept = null; // 为 null 时不回应心跳
+        public TestNode(String serverID, LandContext landContext) {
+            super(serverID, landContext);
+        }
+        public void ack(long term, long sendTime) {
+            this.updateAckTime(term, sendTime);
+        }
+        public void preVote(long term, DataContext data, FutureCallback<CollectVoteResult> callBack) {
+            this.calls.add("preVote:" + term);
+            this.replyVote(term, callBack);
+        }
+        public void collectVote(long term, DataContext data, FutureCallback<CollectVoteResult> callBack) {
+            this.calls.add("collectVote:" + term);
+            this.replyVote(term, callBack);
+        }
+        private void replyVote(long term, FutureCallback<CollectVoteResult> callBack) {
+            if (this.isSelf() || this.voteGrant == null) {
+                return;
+            }
+            CollectVoteResult result = new CollectVoteResult();
+            result.setServerID(this.getServerID());
+            result.setRemoteTerm(term);
+            result.setVoteGranted(this.voteGrant);
+            callBack.completed(result);
+        }
+        public boolean leaderHeartbeat(long term, DataContext data, int timeout, FutureCallback<LeaderBeatResult> callBack) {
+            this.calls.add("leaderHeartbeat:" + term);
+            this.replyBeat(term, callBack);
+            return true;
+        }
+        public void confirmLeader(long term, DataContext data, FutureCallback<LeaderBeatResult> callBack) {
+            this.calls.add("confirmLeader:" + term);
+            this.replyBeat(term, callBack);
+        }
+        private void replyBeat(long term, FutureCallback<LeaderBeatResult> callBack) {
+            if (this.beatAccept == null) {
+                return;
+            }
+            if (this.beatAccept) {
+                this.ack(term, System.currentTimeMillis());
+            }
+            LeaderBeatResult result = new LeaderBeatResult();
+            result.setServerID(this.getServerID());
+            result.setTerm(term);
+            result.setAccept(this.beatAccept);
+            callBack.completed(result);
+        }
+    }
+    /** 节点列表由测试提供的 ServerNode */
+    public static class TestServerNode extends ServerNode {
+        private final List<NodeData> nodeList = new ArrayList<NodeData>();
+        public TestServerNode(TestLandContext landContext, DataContext dataContext) throws Exception {
+            setField(this, "landContext", landContext);
+            setField(this, "dataContext", dataContext);
+            this.init();
+            for (String serverID : landContext.getServerIDs()) {
+                this.nodeList.add(new TestNode(serverID, landContext));
+            }
+        }
+        public List<NodeData> getOnlineNodes() {
+            return this.nodeList;
+        }
+        public TestNode getNode(String serverID) {
+            for (NodeData nodeData : this.nodeList) {
+                if (nodeData.getServerID().equals(serverID)) {
+                    return (TestNode) nodeData;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.land;
+import net.hasor.core.AppContext;
+import net.hasor.core.Hasor;
+import net.hasor.land.bootstrap.LandContext;
+import net.hasor.land.domain.ReadMode;
+import net.hasor.land.domain.ServerStatus;
+import net.hasor.land.node.Server;
+import net.hasor.land.replicator.LogData;
+import net.hasor.land.replicator.StateMachine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * 线性一致读的吞吐量对比：在本机启动 3 个节点（127.0.0.1:7101 ~ 7103），分别用 Log、ReadIndex、Lease 三种方式读，
+ * Leader 和 Follower 各测一遍。
+ * <pre>参数：[线程数, 默认 16] [每项持续的秒数, 默认 5]</pre>
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ReadBenchmark {
+    private static final String SERVERS = "server_1:127.0.0.1:7101,server_2:127.0.0.1:7102,server_3:127.0.0.1:7103";
+    //
+    public static void main(String[] args) throws Throwable {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        File dataHome = new File(System.getProperty("java.io.tmpdir"), "land-read-bench-" + System.currentTimeMillis());
+        //
+        List<AppContext> appList = new ArrayList<AppContext>();
+        for (int i = 1; i <= 3; i++) {
+            appList.add(Hasor.create()//
+                    .putData("RSF_SERVICE_IP", "127.0.0.1")//
+                    .putData("RSF_SERVICE_PORT", String.valueOf(7100 + i))//
+                    .putData("LAND_SERVER_ID", "server_" + i)//
+                    .putData("LAND_SERVERS", SERVERS)//
+                    .putData("LAND_WORK_MODE", "candidate")//
+                    .putData("LAND_DATA_HOME", dataHome.getAbsolutePath())//
+                    .build());
+        }
+        for (AppContext appContext : appList) {
+            appContext.getInstance(LandContext.class).setStateMachine(new MapStateMachine());
+        }
+        //
+        // .等待选出 Leader，然后写入一些数据
+        AppContext leader = null;
+        AppContext follower = null;
+        while (leader == null) {
+            Thread.sleep(100);
+            for (AppContext appContext : appList) {
+                if (appContext.getInstance(Server.class).getStatus() == ServerStatus.Leader) {
+                    leader = appContext;
+                }
+            }
+        }
+        for (AppContext appContext : appList) {
+            if (appContext != leader) {
+                follower = appContext;
+            }
+        }
+        LandContext leaderContext = leader.getInstance(LandContext.class);
+        for (int i = 0; i < 1000; i++) {
+            leaderContext.propose(("key" + i + "=value" + i).getBytes("UTF-8")).get(10, TimeUnit.SECONDS);
+        }
+        System.out.println("leader is " + leaderContext.getServerID() + ", threads = " + threads + ", seconds = " + seconds);
+        //
+        for (ReadMode readMode : ReadMode.values()) {
+            runBenchmark("leader   " + readMode, leaderContext, readMode, threads, seconds);
+        }
+        LandContext followerContext = follower.getInstance(LandContext.class);
+        runBenchmark("follower " + ReadMode.ReadIndex, followerContext, ReadMode.ReadIndex, threads, seconds);
+        runBenchmark("follower " + ReadMode.Lease, followerContext, ReadMode.Lease, threads, seconds);
+        //
+        for (AppContext appContext : appList) {
+            appContext.shutdown();
+        }
+        System.exit(0);
+    }
+    private static void runBenchmark(String title, final LandContext landContext, final ReadMode readMode, int threads, int seconds) throws InterruptedException {
+        final MapStateMachine stateMachine = (MapStateMachine) landContext.getStateMachine();
+        final AtomicLong readCount = new AtomicLong();
+        final AtomicLong failedCount = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + seconds * 1000L;
+        List<Thread> threadList = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final int threadIndex = i;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    int keyIndex = threadIndex;
+                    while (System.currentTimeMillis() < deadline) {
+                        try {
+                            landContext.read(readMode).get(5, TimeUnit.SECONDS);
+                            stateMachine.get("key" + (keyIndex++ % 1000));
+                            readCount.incrementAndGet();
+                        } catch (Exception e) {
+                            failedCount.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threadList.add(thread);
+        }
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        System.out.println(String.format("%-20s %10d reads/s, failed %d", title, readCount.get() / seconds, failedCount.get()));
+    }
+    //
+    /** 每条日志是一个 key=value */
+    private static class MapStateMachine implements StateMachine {
+        private final Map<String, String> dataMap = new ConcurrentHashMap<String, String>();
+        public String get(String key) {
+            return this.dataMap.get(key);
+        }
+        public void apply(LogData logData) throws Throwable {
+            String data = new String(logData.getDataArrays(), "UTF-8");
+            int split = data.indexOf('=');
+            this.dataMap.put(data.substring(0, split), data.substring(split + 1));
+        }
+        public void saveSnapshot(OutputStream outputStream) throws Throwable {
+            DataOutputStream dataOutput = new DataOutputStream(outputStream);
+            dataOutput.writeInt(this.dataMap.size());
+            for (Map.Entry<String, String> entry : this.dataMap.entrySet()) {
+                dataOutput.writeUTF(entry.getKey());
+                dataOutput.writeUTF(entry.getValue());
+            }
+            dataOutput.flush();
+        }
+        public void loadSnapshot(InputStream inputStream) throws Throwable {
+            DataInputStream dataInput = new DataInputStream(inputStream);
+            this.dataMap.clear();
+            int size = dataInput.readInt();
+            for (int i = 0; i < size; i++) {
+                this.dataMap.put(dataInput.readUTF(), dataInput.readUTF());
+            }
+        }
+    }
+}
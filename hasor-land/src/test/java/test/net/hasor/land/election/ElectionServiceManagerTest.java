@@ -0,0 +1,150 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.land.election;
+import net.hasor.land.domain.ServerStatus;
+import net.hasor.land.election.CollectVoteData;
+import net.hasor.land.election.ElectionServiceManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import test.net.hasor.land.LandTestSupport.TestDataContext;
+import test.net.hasor.land.LandTestSupport.TestLandContext;
+import test.net.hasor.land.LandTestSupport.TestNode;
+import test.net.hasor.land.LandTestSupport.TestServerNode;
+
+import java.io.File;
+
+import static test.net.hasor.land.LandTestSupport.*;
+/**
+ * 预投票的拒绝、预投票通过之后的正式选举、CheckQuorum 退位
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ElectionServiceManagerTest {
+    private static File                   DATA_DIR = new File("land_election_test");
+    private        TestLandContext        landContext;
+    private        TestDataContext        dataContext;
+    private        TestServerNode         server;
+    private        ElectionServiceManager manager;
+    //
+    @Before
+    public void before() throws Exception {
+        this.landContext = new TestLandContext("s1", "s1", "s2", "s3");
+        this.dataContext = new TestDataContext(DATA_DIR);
+        this.server = new TestServerNode(this.landContext, this.dataContext);
+        this.manager = new ElectionServiceManager();
+        setField(this.manager, "server", this.server);
+        setField(this.manager, "dataContext", this.dataContext);
+        setField(this.manager, "landContext", this.landContext);
+        setField(this.manager, "baseTimeout", 300);
+        setField(this.manager, "leaderHeartbeat", 100);
+        setField(this.manager, "maxTimeout", 200);
+    }
+    @After
+    public void after() throws Exception {
+        this.dataContext.close();
+    }
+    private static CollectVoteData voteData(String serverID, long term) {
+        CollectVoteData voteData = new CollectVoteData();
+        voteData.setServerID(serverID);
+        voteData.setTerm(term);
+        return voteData;
+    }
+    // - 预投票通过（s2 同意），正式选举中 s2 投票，成为 term 1 的 Leader
+    private void electLeader() throws Exception {
+        this.server.getNode("s2").voteGrant = true;
+        this.server.getNode("s3").voteGrant = false;
+        invoke(this.manager, "processElection");
+        assert this.server.getStatus() == ServerStatus.Leader && this.server.getCurrentTerm() == 1;
+    }
+    //
+    @Test
+    public void preVoteRejectTest() throws Exception {
+        assert this.manager.preVote(voteData("s2", 1)).isVoteGranted();
+        // .预投票的任期必须比自己的大
+        assert !this.manager.preVote(voteData("s2", 0)).isVoteGranted();
+        // .候选人的日志落后
+        this.dataContext.upToDate = false;
+        assert !this.manager.preVote(voteData("s2", 1)).isVoteGranted();
+        this.dataContext.upToDate = true;
+        // .学习者不参与投票
+        this.dataContext.learner = true;
+        assert !this.manager.preVote(voteData("s2", 1)).isVoteGranted();
+        this.dataContext.learner = false;
+        //
+        // .Leader 粘性：Leader 还活着时拒绝其它候选人，Leader 自己除外
+        assert this.server.followLeader(1, "s2");
+        this.server.newLastLeaderHeartbeat();
+        assert !this.manager.preVote(voteData("s3", 2)).isVoteGranted();
+        assert this.manager.preVote(voteData("s2", 2)).isVoteGranted();
+        //
+        // .预投票不会改变自己的任期和选票
+        assert this.server.getCurrentTerm() == 1 && this.server.getVotedFor() == null;
+        assert this.dataContext.getTermStore().getTerm() == 1;
+    }
+    @Test
+    public void preVoteElectionTest() throws Exception {
+        // .预投票没有得到多数派的同意，任期不变，也不会征集选票
+        this.server.getNode("s2").voteGrant = false;
+        this.server.getNode("s3").voteGrant = false;
+        invoke(this.manager, "processElection");
+        assert this.server.getCurrentTerm() == 0 && this.server.getStatus() == ServerStatus.Follower;
+        assert this.server.getNode("s2").calls.contains("preVote:1");
+        assert !this.server.getNode("s2").calls.contains("collectVote:1");
+        //
+        // .预投票通过之后才增加任期，任期和选票在征集选票之前已经落盘
+        this.electLeader();
+        assert this.server.getNode("s3").calls.contains("collectVote:1");
+        assert this.dataContext.getTermStore().getTerm() == 1;
+        assert "s1".equals(this.dataContext.getTermStore().getVotedFor());
+        assert this.server.getNode("s2").calls.contains("leaderHeartbeat:1");
+    }
+    @Test
+    public void checkQuorumTest() throws Exception {
+        this.electLeader();
+        // .刚当选时不会因为还没有收到心跳回应而退位
+        invoke(this.manager, "processLeader");
+        assert this.server.getStatus() == ServerStatus.Leader;
+        //
+        // .maxTimeout 之内没有得到多数派的回应，退位，任期不变
+        Thread.sleep(250);
+        invoke(this.manager, "processLeader");
+        assert this.server.getStatus() == ServerStatus.Follower && this.server.getCurrentTerm() == 1;
+        assert this.landContext.statusList.contains(ServerStatus.Follower);
+    }
+    @Test
+    public void checkQuorumAckTest() throws Exception {
+        // .之前任期的心跳回应不算数
+        TestNode s2 = this.server.getNode("s2");
+        s2.ack(0, System.currentTimeMillis() + 1000);
+        this.electLeader();
+        Thread.sleep(250);
+        invoke(this.manager, "processLeader");
+        assert this.server.getStatus() == ServerStatus.Follower;
+        //
+        // .本任期内持续得到 s2 的回应，保持 Leader 身份
+        this.server.getNode("s2").voteGrant = true;
+        invoke(this.manager, "processElection");
+        assert this.server.getStatus() == ServerStatus.Leader && this.server.getCurrentTerm() == 2;
+        s2.beatAccept = true;
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(60);
+            invoke(this.manager, "processLeader");
+        }
+        assert this.server.getStatus() == ServerStatus.Leader && this.server.getCurrentTerm() == 2;
+        assert s2.getLastAckTime(2) > 0 && s2.getLastAckTime(1) == 0;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.land.election;
+import net.hasor.land.domain.ServerStatus;
+import net.hasor.land.node.ServerState;
+import net.hasor.land.storage.TermStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import test.net.hasor.land.LandTestSupport.TestDataContext;
+import test.net.hasor.land.LandTestSupport.TestLandContext;
+import test.net.hasor.land.LandTestSupport.TestServerNode;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 选举状态的并发转换：多个线程同时竞争同一个状态，只有一个转换生效，落盘的任期和选票与内存中的一致
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ServerNodeTest {
+    private static File            DATA_DIR = new File("land_server_test");
+    private        TestDataContext dataContext;
+    private        TestServerNode  server;
+    //
+    @Before
+    public void before() throws Exception {
+        this.dataContext = new TestDataContext(DATA_DIR);
+        this.server = new TestServerNode(new TestLandContext("s1", "s1", "s2", "s3"), this.dataContext);
+    }
+    @After
+    public void after() throws Exception {
+        this.dataContext.close();
+    }
+    // - 所有任务在同一时刻开始，全部结束之后返回
+    private static void race(Runnable... tasks) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[tasks.length];
+        for (int i = 0; i < tasks.length; i++) {
+            final Runnable task = tasks[i];
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    task.run();
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+    private void checkSaved() {
+        TermStore termStore = this.dataContext.getTermStore();
+        ServerState state = this.server.getState();
+        assert termStore.getTerm() == state.getTerm() : termStore.getTerm() + " != " + state.getTerm();
+        String votedFor = state.getVotedFor();
+        assert votedFor == null ? termStore.getVotedFor() == null : votedFor.equals(termStore.getVotedFor());
+    }
+    //
+    @Test
+    public void grantVoteRaceTest() throws Exception {
+        // .同一个任期里多个候选人同时拉票，只有一个能得到选票
+        for (int term = 1; term <= 100; term++) {
+            final long atTerm = term;
+            final AtomicInteger granted = new AtomicInteger();
+            final AtomicReference<String> winner = new AtomicReference<String>();
+            Runnable[] tasks = new Runnable[8];
+            for (int i = 0; i < tasks.length; i++) {
+                final String candidateID = "c" + i;
+                tasks[i] = new Runnable() {
+                    public void run() {
+                        if (server.grantVote(atTerm, candidateID)) {
+                            granted.incrementAndGet();
+                            winner.set(candidateID);
+                        }
+                    }
+                };
+            }
+            race(tasks);
+            assert granted.get() == 1 : "term " + term + " granted " + granted.get();
+            assert winner.get().equals(this.server.getVotedFor());
+            this.checkSaved();
+        }
+    }
+    @Test
+    public void applyVoteRaceTest() throws Exception {
+        // .同时到达的选票一张都不会丢
+        final ServerState candidate = this.server.startElection(this.server.getState());
+        assert candidate != null && candidate.getVoteCount() == 1;
+        Runnable[] tasks = new Runnable[16];
+        for (int i = 0; i < tasks.length; i++) {
+            final String serverID = "v" + i;
+            tasks[i] = new Runnable() {
+                public void run() {
+                    server.applyVote(candidate.getTerm(), serverID);
+                    server.applyVote(candidate.getTerm(), serverID);
+                }
+            };
+        }
+        race(tasks);
+        assert this.server.getState().getVoteCount() == 17;
+        assert this.server.getStatus() == ServerStatus.Candidate;
+    }
+    @Test
+    public void electionRaceTest() throws Exception {
+        // .发起选举和为其它候选人投票竞争同一个任期，二者只有一个生效
+        for (int round = 0; round < 100; round++) {
+            final ServerState expect = this.server.getState();
+            final long nextTerm = expect.getTerm() + 1;
+            final AtomicReference<ServerState> elected = new AtomicReference<ServerState>();
+            final AtomicInteger granted = new AtomicInteger();
+            race(new Runnable() {
+                public void run() {
+                    elected.set(server.startElection(expect));
+                }
+            }, new Runnable() {
+                public void run() {
+                    if (server.grantVote(nextTerm, "s2")) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            assert (elected.get() != null) != (granted.get() == 1) : "round " + round;
+            assert this.server.getCurrentTerm() == nextTerm;
+            assert this.server.getVotedFor().equals(elected.get() != null ? "s1" : "s2");
+            this.checkSaved();
+            // .回到 Follower 开始下一轮
+            this.server.followLeader(nextTerm, "s2");
+        }
+    }
+    @Test
+    public void leaderRaceTest() throws Exception {
+        // .当选和发现更大的任期同时发生，最终一定是更大任期的 Follower
+        for (int round = 0; round < 100; round++) {
+            final ServerState candidate = this.server.startElection(this.server.getState());
+            assert candidate != null;
+            race(new Runnable() {
+                public void run() {
+                    server.becomeLeader(candidate.getTerm());
+                }
+            }, new Runnable() {
+                public void run() {
+                    server.followLeader(candidate.getTerm() + 1, null);
+                }
+            });
+            ServerState state = this.server.getState();
+            assert state.getStatus() == ServerStatus.Follower && state.getTerm() == candidate.getTerm() + 1 : state;
+            assert state.getVotedFor() == null && state.getLeaderID() == null;
+            this.checkSaved();
+        }
+    }
+}
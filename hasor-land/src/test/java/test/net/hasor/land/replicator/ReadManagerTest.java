@@ -0,0 +1,131 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.land.replicator;
+import net.hasor.land.node.ServerState;
+import net.hasor.land.replicator.LogData;
+import net.hasor.land.replicator.ReadManager;
+import net.hasor.land.storage.LogStore;
+import net.hasor.utils.future.BasicFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import test.net.hasor.land.LandTestSupport.TestDataContext;
+import test.net.hasor.land.LandTestSupport.TestLandContext;
+import test.net.hasor.land.LandTestSupport.TestNode;
+import test.net.hasor.land.LandTestSupport.TestServerNode;
+
+import java.io.File;
+import java.util.Collections;
+/**
+ * Leader 租约：租约的有效期、租约之内的读不需要确认、租约过期之后的读重新确认 Leader 身份
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ReadManagerTest {
+    private static File            DATA_DIR = new File("land_read_test");
+    private        TestLandContext landContext;
+    private        TestDataContext dataContext;
+    private        TestServerNode  server;
+    //
+    @Before
+    public void before() throws Exception {
+        this.landContext = new TestLandContext("s1", "s1", "s2", "s3");
+        this.dataContext = new TestDataContext(DATA_DIR);
+        this.server = new TestServerNode(this.landContext, this.dataContext);
+        //
+        // .成为 term 1 的 Leader，并且已经提交了本任期的第一条日志
+        ServerState candidate = this.server.startElection(this.server.getState());
+        this.server.applyVote(candidate.getTerm(), "s2");
+        assert this.server.becomeLeader(candidate.getTerm());
+        LogStore logStore = this.dataContext.openLogStore();
+        logStore.sync(logStore.append(Collections.singletonList(new LogData(1, 1, new byte[0], System.currentTimeMillis()))));
+        this.dataContext.commitIndex = 1;
+    }
+    @After
+    public void after() throws Exception {
+        this.dataContext.close();
+    }
+    private static long countCalls(TestNode node, String call) {
+        long count = 0;
+        for (String atCall : node.calls) {
+            if (atCall.equals(call)) {
+                count++;
+            }
+        }
+        return count;
+    }
+    //
+    @Test
+    public void leaseTimeoutTest() {
+        // .租约不超过 timeout * (1 - clockDrift)
+        assert new ReadManager(this.server, this.dataContext, this.landContext, 300, 250, 0.1f).getLeaseTimeout() == 250;
+        assert new ReadManager(this.server, this.dataContext, this.landContext, 300, 1000, 0.1f).getLeaseTimeout() == 270;
+        assert new ReadManager(this.server, this.dataContext, this.landContext, 300, 1000, 0.5f).getLeaseTimeout() == 150;
+        assert new ReadManager(this.server, this.dataContext, this.landContext, 300, 300, 0f).getLeaseTimeout() == 300;
+        try {
+            new ReadManager(this.server, this.dataContext, this.landContext, 300, 250, 1f);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            /**/
+        }
+    }
+    @Test
+    public void leaseExpiredTest() throws Exception {
+        ReadManager readManager = new ReadManager(this.server, this.dataContext, this.landContext, 300, 100, 0.1f);
+        TestNode s2 = this.server.getNode("s2");
+        TestNode s3 = this.server.getNode("s3");
+        s2.beatAccept = true;
+        s3.beatAccept = true;
+        //
+        // .本任期的第一次读没有租约，需要确认一次 Leader 身份
+        BasicFuture<Long> future = new BasicFuture<Long>();
+        readManager.readIndex(true, future);
+        assert future.isDone() && future.get() == 1;
+        assert countCalls(s2, "confirmLeader:1") == 1;
+        //
+        // .租约之内的读直接返回
+        future = new BasicFuture<Long>();
+        readManager.readIndex(true, future);
+        assert future.isDone() && future.get() == 1;
+        assert countCalls(s2, "confirmLeader:1") == 1;
+        //
+        // .租约过期之后到达的读不能使用旧的租约，重新确认时多数派不再承认自己，读失败
+        Thread.sleep(150);
+        s2.beatAccept = false;
+        s3.beatAccept = false;
+        future = new BasicFuture<Long>();
+        readManager.readIndex(true, future);
+        assert countCalls(s2, "confirmLeader:1") == 2;
+        assert future.isDone();
+        try {
+            future.get();
+            assert false;
+        } catch (IllegalStateException e) {
+            assert e.getMessage().contains("not confirmed");
+        }
+        //
+        // .重新确认成功之后租约恢复
+        s2.beatAccept = true;
+        future = new BasicFuture<Long>();
+        readManager.readIndex(true, future);
+        assert future.isDone() && future.get() == 1;
+        assert countCalls(s2, "confirmLeader:1") == 3;
+        future = new BasicFuture<Long>();
+        readManager.readIndex(true, future);
+        assert future.isDone() && future.get() == 1;
+        assert countCalls(s2, "confirmLeader:1") == 3;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.land.storage;
+import net.hasor.land.replicator.LogData;
+import net.hasor.land.storage.LogStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+/**
+ * LogStore 的分段写入、截断、压缩、重启恢复测试
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class LogStoreTest {
+    private static File LOG_DIR = new File("land_log_test");
+    //
+    @Before
+    public void cleanDir() {
+        deleteFile(LOG_DIR);
+    }
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+    private static List<LogData> logList(long term, long fromIndex, int count) {
+        List<LogData> logList = new ArrayList<LogData>();
+        for (int i = 0; i < count; i++) {
+            long index = fromIndex + i;
+            logList.add(new LogData(term, index, ("data-" + term + "-" + index).getBytes(), System.currentTimeMillis()));
+        }
+        return logList;
+    }
+    //
+    @Test
+    public void appendAndRestart() throws IOException {
+        LogStore logStore = new LogStore(LOG_DIR, 4096);
+        logStore.open();
+        for (int i = 0; i < 100; i++) {
+            long ticket = logStore.append(logList(1, i * 10 + 1, 10));
+            logStore.sync(ticket);
+        }
+        assert logStore.getLastIndex() == 1000;
+        assert logStore.getLastTerm() == 1;
+        assert logStore.getFlushedIndex() == 1000;
+        assert LOG_DIR.listFiles().length > 1; // 4K 的分段一定会发生切换
+        assert "data-1-500".equals(new String(logStore.read(500).getDataArrays()));
+        List<LogData> readList = logStore.read(995, 100, 1024 * 1024);
+        assert readList.size() == 6 && readList.get(5).getIndex() == 1000;
+        assert logStore.read(1, 100, 1).size() == 1; // 数据量达到上限时停止（至少返回一条）
+        // 不调用 close 模拟进程崩溃
+        //
+        LogStore reopen = new LogStore(LOG_DIR, 4096);
+        reopen.open();
+        assert reopen.getFirstIndex() == 1;
+        assert reopen.getLastIndex() == 1000;
+        assert reopen.termAt(0) == 0 && reopen.termAt(1) == 1 && reopen.termAt(1001) == -1;
+        assert "data-1-1000".equals(new String(reopen.read(1000).getDataArrays()));
+        reopen.close();
+    }
+    //
+    @Test
+    public void truncateSuffix() throws IOException {
+        LogStore logStore = new LogStore(LOG_DIR, 4096);
+        logStore.open();
+        logStore.sync(logStore.append(logList(1, 1, 300)));
+        // 模拟 Follower 和新 Leader 的日志冲突：从 101 开始被 term 2 的日志覆盖
+        logStore.truncateSuffix(101);
+        assert logStore.getLastIndex() == 100;
+        assert logStore.read(101) == null;
+        logStore.sync(logStore.append(logList(2, 101, 50)));
+        assert logStore.getLastIndex() == 150 && logStore.getLastTerm() == 2;
+        logStore.close();
+        //
+        LogStore reopen = new LogStore(LOG_DIR, 4096);
+        reopen.open();
+        assert reopen.getLastIndex() == 150;
+        assert reopen.termAt(100) == 1 && reopen.termAt(101) == 2;
+        assert "data-2-150".equals(new String(reopen.read(150).getDataArrays()));
+        reopen.close();
+    }
+    //
+    @Test
+    public void brokenTail() throws IOException {
+        LogStore logStore = new LogStore(LOG_DIR, 1024 * 1024);
+        logStore.open();
+        logStore.sync(logStore.append(logList(1, 1, 10)));
+        logStore.close();
+        //
+        // 改坏最后一条日志的数据，模拟写入过程中断电
+        File segmentFile = LOG_DIR.listFiles()[0];
+        RandomAccessFile accessFile = new RandomAccessFile(segmentFile, "rw");
+        long lastPosition = 9 * (8 + 24 + "data-1-1".length());
+        accessFile.seek(lastPosition + 8 + 24);
+        accessFile.write('X');
+        accessFile.close();
+        //
+        LogStore reopen = new LogStore(LOG_DIR, 1024 * 1024);
+        reopen.open();
+        assert reopen.getLastIndex() == 9;
+        reopen.sync(reopen.append(logList(1, 10, 1)));
+        assert "data-1-10".equals(new String(reopen.read(10).getDataArrays()));
+        reopen.close();
+    }
+    //
+    @Test
+    public void truncatePrefix() throws IOException {
+        LogStore logStore = new LogStore(LOG_DIR, 4096);
+        logStore.open();
+        logStore.sync(logStore.append(logList(1, 1, 300)));
+        int segmentCount = LOG_DIR.listFiles().length;
+        // 快照覆盖到 200，按分段删除之前的日志
+        logStore.sync(logStore.truncatePrefix(201));
+        long firstIndex = logStore.getFirstIndex();
+        assert firstIndex > 1 && firstIndex <= 201;
+        assert LOG_DIR.listFiles().length < segmentCount;
+        assert logStore.read(firstIndex - 1) == null;
+        assert logStore.termAt(firstIndex - 1) == 1; // 被删除的最后一条日志的 term 仍然可以获取
+        assert logStore.read(firstIndex, 1000, 1024 * 1024).size() == 300 - firstIndex + 1;
+        logStore.close();
+        //
+        // 重启之后 firstIndex 之前的 term 未知，由快照告知
+        LogStore reopen = new LogStore(LOG_DIR, 4096);
+        reopen.open();
+        assert reopen.getFirstIndex() == firstIndex && reopen.getLastIndex() == 300;
+        assert reopen.termAt(firstIndex - 1) == -1;
+        reopen.compactTo(firstIndex - 1, 1);
+        assert reopen.termAt(firstIndex - 1) == 1;
+        reopen.close();
+    }
+    //
+    @Test
+    public void compactTo() throws IOException {
+        LogStore logStore = new LogStore(LOG_DIR, 4096);
+        logStore.open();
+        logStore.sync(logStore.append(logList(1, 1, 300)));
+        // 快照和日志一致，只删除前面的日志
+        logStore.sync(logStore.compactTo(250, 1));
+        assert logStore.getFirstIndex() <= 251 && logStore.getLastIndex() == 300;
+        // 快照和日志不一致（从 Leader 接收的快照），日志全部作废
+        logStore.sync(logStore.compactTo(500, 3));
+        assert logStore.getFirstIndex() == 501 && logStore.getLastIndex() == 500;
+        assert logStore.getLastTerm() == 3 && logStore.termAt(500) == 3;
+        assert LOG_DIR.listFiles().length == 0;
+        logStore.sync(logStore.append(logList(3, 501, 10)));
+        assert logStore.getLastIndex() == 510;
+        logStore.close();
+        //
+        LogStore reopen = new LogStore(LOG_DIR, 4096);
+        reopen.open();
+        reopen.compactTo(500, 3);
+        assert reopen.getFirstIndex() == 501 && reopen.getLastIndex() == 510;
+        assert reopen.termAt(500) == 3 && reopen.termAt(510) == 3;
+        reopen.close();
+    }
+}
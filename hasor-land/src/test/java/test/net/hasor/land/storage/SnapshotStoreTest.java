@@ -0,0 +1,145 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.land.storage;
+import net.hasor.land.storage.SnapshotOutput;
+import net.hasor.land.storage.SnapshotStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+/**
+ * SnapshotStore 的生成、分块传输、校验测试
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class SnapshotStoreTest {
+    private static File LEADER_DIR   = new File("land_snapshot_test/leader");
+    private static File FOLLOWER_DIR = new File("land_snapshot_test/follower");
+    //
+    @Before
+    public void cleanDir() {
+        deleteFile(new File("land_snapshot_test"));
+    }
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100];
+        int count;
+        while ((count = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, count);
+        }
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+    private static SnapshotStore saveSnapshot(File dir, long lastIndex, long lastTerm, int size) throws IOException {
+        SnapshotStore snapshotStore = new SnapshotStore(dir);
+        snapshotStore.open();
+        SnapshotOutput output = snapshotStore.newOutput(lastIndex, lastTerm);
+        for (int i = 0; i < size; i++) {
+            output.write(i % 251);
+        }
+        output.close();
+        output.commit();
+        return snapshotStore;
+    }
+    //
+    @Test
+    public void saveAndRestart() throws IOException {
+        SnapshotStore snapshotStore = saveSnapshot(LEADER_DIR, 100, 2, 10000);
+        assert snapshotStore.getLastIndex() == 100 && snapshotStore.getLastTerm() == 2;
+        snapshotStore.close();
+        //
+        SnapshotStore reopen = new SnapshotStore(LEADER_DIR);
+        reopen.open();
+        assert reopen.getLastIndex() == 100 && reopen.getLastTerm() == 2;
+        assert reopen.openData(99) == null;
+        byte[] dataArrays = readAll(reopen.openData(100));
+        assert dataArrays.length == 10000 && dataArrays[9999] == (byte) (9999 % 251);
+        reopen.close();
+    }
+    //
+    @Test
+    public void transferByChunk() throws IOException {
+        SnapshotStore leader = saveSnapshot(LEADER_DIR, 100, 2, 10000);
+        SnapshotStore follower = new SnapshotStore(FOLLOWER_DIR);
+        follower.open();
+        // 每块 1000 字节，最后一块不足 1000 字节时即为结束
+        long offset = 0;
+        while (true) {
+            byte[] chunk = leader.readChunk(100, offset, 1000);
+            boolean done = chunk.length < 1000;
+            long nextOffset = follower.installChunk(100, 2, offset, chunk, done);
+            if (done) {
+                break;
+            }
+            if (offset == 3000) {
+                // 重复发送的块会被告知从哪里继续
+                assert follower.installChunk(100, 2, 1000, new byte[10], false) == nextOffset;
+            }
+            offset = nextOffset;
+        }
+        assert follower.getLastIndex() == 100 && follower.getLastTerm() == 2;
+        assert follower.getLength() == leader.getLength();
+        byte[] dataArrays = readAll(follower.openData(100));
+        assert dataArrays.length == 10000 && dataArrays[5000] == (byte) (5000 % 251);
+        assert leader.readChunk(99, 0, 1000) == null;
+        leader.close();
+        follower.close();
+    }
+    //
+    @Test
+    public void brokenTransfer() throws IOException {
+        SnapshotStore leader = saveSnapshot(LEADER_DIR, 100, 2, 3000);
+        SnapshotStore follower = new SnapshotStore(FOLLOWER_DIR);
+        follower.open();
+        byte[] chunk = leader.readChunk(100, 0, 10000);
+        chunk[chunk.length - 1]++;
+        try {
+            follower.installChunk(100, 2, 0, chunk, true);
+            assert false;
+        } catch (IOException e) {
+            assert e.getMessage().contains("broken");
+        }
+        assert follower.getLastIndex() == 0;
+        leader.close();
+        follower.close();
+        //
+        // 改坏磁盘上的快照，启动时拒绝加载
+        File snapshotFile = new File(LEADER_DIR, "snapshot.dat");
+        RandomAccessFile accessFile = new RandomAccessFile(snapshotFile, "rw");
+        accessFile.seek(100);
+        accessFile.write(0xFF);
+        accessFile.close();
+        try {
+            new SnapshotStore(LEADER_DIR).open();
+            assert false;
+        } catch (IOException e) {
+            assert e.getMessage().contains("broken");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.land.storage;
+import net.hasor.land.storage.TermStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+/**
+ * TermStore 的保存、重启恢复、槽位损坏测试
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class TermStoreTest {
+    private static File TEST_DIR  = new File("land_term_test");
+    private static File TERM_FILE = new File(TEST_DIR, "term.dat");
+    //
+    @Before
+    public void cleanDir() {
+        File[] files = TEST_DIR.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        TEST_DIR.delete();
+    }
+    private static TermStore reopen(TermStore termStore) throws IOException {
+        termStore.close();
+        TermStore reopen = new TermStore(TERM_FILE);
+        reopen.open();
+        return reopen;
+    }
+    //
+    @Test
+    public void saveAndRestart() throws IOException {
+        TermStore termStore = new TermStore(TERM_FILE);
+        termStore.open();
+        assert termStore.getTerm() == 0 && termStore.getVotedFor() == null;
+        termStore.save(3, null);
+        termStore = reopen(termStore);
+        assert termStore.getTerm() == 3 && termStore.getVotedFor() == null;
+        //
+        termStore.save(3, "server_2");
+        termStore.save(4, "server_1");
+        termStore = reopen(termStore);
+        assert termStore.getTerm() == 4 && "server_1".equals(termStore.getVotedFor());
+        termStore.close();
+    }
+    @Test
+    public void staleSave() throws IOException {
+        // 乱序到达的旧状态不能覆盖新的状态，同一个任期里的选票不能被改写或者清空
+        TermStore termStore = new TermStore(TERM_FILE);
+        termStore.open();
+        termStore.save(5, "server_2");
+        termStore.save(4, "server_3");
+        termStore.save(5, null);
+        termStore.save(5, "server_3");
+        assert termStore.getTerm() == 5 && "server_2".equals(termStore.getVotedFor());
+        termStore = reopen(termStore);
+        assert termStore.getTerm() == 5 && "server_2".equals(termStore.getVotedFor());
+        //
+        // 更大的任期可以没有选票
+        termStore.save(6, null);
+        termStore = reopen(termStore);
+        assert termStore.getTerm() == 6 && termStore.getVotedFor() == null;
+        termStore.close();
+    }
+    @Test
+    public void brokenSlot() throws IOException {
+        TermStore termStore = new TermStore(TERM_FILE);
+        termStore.open();
+        termStore.save(7, "server_1");
+        termStore.save(8, "server_2");
+        termStore.close();
+        //
+        // 改坏最后写入的槽位（模拟写入过程中崩溃），启动时使用另外一个槽位
+        RandomAccessFile accessFile = new RandomAccessFile(TERM_FILE, "rw");
+        accessFile.seek(512 + 20);
+        accessFile.write(0xFF);
+        accessFile.close();
+        termStore = new TermStore(TERM_FILE);
+        termStore.open();
+        assert termStore.getTerm() == 7 && "server_1".equals(termStore.getVotedFor());
+        termStore.close();
+        //
+        // 两个槽位都损坏时拒绝启动
+        accessFile = new RandomAccessFile(TERM_FILE, "rw");
+        accessFile.seek(20);
+        accessFile.write(0xFF);
+        accessFile.close();
+        try {
+            new TermStore(TERM_FILE).open();
+            assert false;
+        } catch (IOException e) {
+            assert e.getMessage().contains("broken");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf;
+/**
+ * 服务端执行请求的方式
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public enum ExecuteMode {
+    ThreadPool, // Shared ThreadPoolExecutor,queued requests are checked for timeout when a worker picks them up
+    WorkStealing, // Per-service dispatch queues on a shared work-stealing pool,expired requests are dropped before dispatch (Java 8+)
+    VirtualThread // Per-service dispatch queues,each request runs on a virtual thread (Java 21+,falls back to WorkStealing)
+}
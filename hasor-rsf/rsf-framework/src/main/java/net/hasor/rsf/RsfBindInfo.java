@@ -63,6 +63,9 @@ public interface RsfBindInfo<T> extends BindInfo<T> {
     /** @return 获取客户端调用服务超时时间。*/
     public int getClientTimeout();
 
+    /** @return 客户端和每个远程地址之间建立的连接数。*/
+    public int getConnections();
+
     /** @return 获取序列化方式*/
     public String getSerializeType();
 
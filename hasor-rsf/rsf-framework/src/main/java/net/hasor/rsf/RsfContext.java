@@ -17,6 +17,7 @@ package net.hasor.rsf;
 import net.hasor.core.AppContext;
 import net.hasor.core.Environment;
 import net.hasor.core.Provider;
+import net.hasor.rsf.rpc.caller.MethodDispatcher;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -67,6 +68,12 @@ public interface RsfContext extends OnlineStatus {
      */
     public <T> Provider<T> getServiceProvider(RsfBindInfo<T> bindInfo);
 
+    /**
+     * 获取服务的方法调用器
+     * @param bindInfo 元信息所描述对象
+     */
+    public MethodDispatcher getMethodDispatcher(RsfBindInfo<?> bindInfo);
+
     /**获取运行着的协议*/
     public Set<String> runProtocols();
 
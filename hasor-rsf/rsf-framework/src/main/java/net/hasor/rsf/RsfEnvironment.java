@@ -14,6 +14,7 @@
  * limitations under the License.
  */
 package net.hasor.rsf;
+import io.netty.util.Timeout;
 import io.netty.util.TimerTask;
 import net.hasor.core.Environment;
 /**
@@ -26,9 +27,11 @@ public interface RsfEnvironment extends Environment {
 
     public SerializeCoder getSerializeCoder(String codeName);
 
-    public void atTime(TimerTask timeTask, int timeout);
+    /** 在 timeout 毫秒之后执行 timeTask，返回的 {@link Timeout} 可用于取消任务。*/
+    public Timeout atTime(TimerTask timeTask, int timeout);
 
-    public void atTime(TimerTask timerTask);
+    /** 在默认超时时间之后执行 timeTask，返回的 {@link Timeout} 可用于取消任务。*/
+    public Timeout atTime(TimerTask timerTask);
 
     public String getInstanceID();
 }
\ No newline at end of file
@@ -172,6 +172,13 @@ public interface RsfPublisher {
          */
         public ConfigurationBuilder<T> timeout(int clientTimeout);
 
+        /**
+         * 设置和每个远程地址之间建立的连接数
+         * @param connections 连接数
+         * @return 返回ConfigurationBuilder。
+         */
+        public ConfigurationBuilder<T> connections(int connections);
+
         /**
          * 设置序列化方式
          * @param serializeType 序列化方式
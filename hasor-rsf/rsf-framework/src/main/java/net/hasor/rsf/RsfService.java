@@ -40,4 +40,7 @@ public @interface RsfService {
 
     /**获取序列化方式*/
     public String serializeType() default "";
+
+    /**客户端和每个远程地址之间建立的连接数。*/
+    public int connections() default -1;
 }
\ No newline at end of file
@@ -36,6 +36,9 @@ public interface RsfSettings extends Settings {
     /**获取默认超时时间。*/
     public String getDefaultSerializeType();
 
+    /**是否延迟反序列化，开启之后 I/O 线程只解析数据帧，参数和返回值在业务线程（或调用者线程）上反序列化*/
+    public boolean isLazyDecode();
+
     /**获取配置的服务器端选项*/
     public RsfOptionSet getServerOption();
 
@@ -54,15 +57,30 @@ public interface RsfSettings extends Settings {
     /**(SECONDS),when the number of threads is greater than the core, this is the maximum time that excess idle threads will wait for new tasks before terminating.*/
     public long getQueueKeepAliveTime();
 
+    /**服务端执行请求的方式*/
+    public ExecuteMode getQueueExecuteMode();
+
+    /**WorkStealing、VirtualThread 方式下，单个服务最多同时执行的请求数，0 表示自动计算*/
+    public int getQueueServiceLimit();
+
     /**客户端请求超时时间*/
     public int getRequestTimeout();
 
     /**最大并发请求数*/
     public int getMaximumRequest();
 
-    /** 并发调用请求限制策略，当并发调用达到限制值后的策略（Reject 抛出异常，WaitSecond 等待1秒重试）*/
+    /** 并发调用请求限制策略，当并发调用达到限制值后的策略（Reject 抛出异常，WaitSecond 等待1秒重试，WaitQueue 进入等待队列）*/
     public SendLimitPolicy getSendLimitPolicy();
 
+    /** WaitQueue 策略下，等待队列的最大长度*/
+    public int getSendQueueMaxSize();
+
+    /** WaitQueue 策略下，请求在等待队列中的最长等待时间（单位毫秒）*/
+    public int getSendQueueMaxWait();
+
+    /**默认情况下，客户端和每个远程地址之间建立的连接数（服务可以单独配置）*/
+    public int getConnectionsPerHost();
+
     /**客户端发起一个连接请求所允许的最大耗时（单位毫秒）*/
     public int getConnectTimeout();
 
@@ -99,6 +117,18 @@ public interface RsfSettings extends Settings {
     /**应用自动上线*/
     public boolean isAutomaticOnline();
 
+    /**Invoke 调用是否总是先回应 Accept（false 时和同样支持的对端协商，只在 Message 调用时回应 Accept）*/
+    public boolean isInvokeAccept();
+
+    /**连接级字符串字典的容量，握手时和对端协商启用 RSF 2.0 协议，0 表示不启用*/
+    public int getDictionarySize();
+
+    /**发送数据包时使用的压缩算法（none、block、deflate），握手时和对端协商，对端不支持时不压缩*/
+    public String getCompressType();
+
+    /**包体达到多少字节时才压缩*/
+    public int getCompressThreshold();
+
     /**重新加载Rsf配置*/
     public void refreshRsfConfig() throws IOException;
 }
\ No newline at end of file
@@ -21,5 +21,6 @@ package net.hasor.rsf;
  */
 public enum SendLimitPolicy {
     Reject, // Reject send request and throw exception
-    WaitSecond // Wait 1 second then retry,if failed again,then throw exception
+    WaitSecond, // Wait 1 second then retry,if failed again,then throw exception
+    WaitQueue // Put request into a bounded wait queue without blocking the caller,send it when a slot is free or fail it after sendQueueMaxWait
 }
\ No newline at end of file
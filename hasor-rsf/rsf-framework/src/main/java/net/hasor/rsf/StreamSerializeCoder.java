@@ -0,0 +1,31 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+/**
+ * 流式序列化（编码/解码）器，直接在 {@link ByteBuf} 上完成编解码，避免中间的 byte[] 复制。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public interface StreamSerializeCoder extends SerializeCoder {
+    /** decode ByteBuf to Object，in 为 null 时返回 null */
+    public Object decode(ByteBuf in, Class<?> returnType) throws IOException;
+
+    /** Encode Object into ByteBuf */
+    public void encode(Object object, ByteBuf out) throws IOException;
+}
@@ -60,6 +60,7 @@ public class AddressBucket extends Observable {
     private final    RsfEnvironment                                rsfEnvironment;     //环境信息
     private volatile FlowControlRef                                flowControlRef;     //默认流控规则引用
     private volatile RuleRef                                       ruleRef;
+    private final    AddressMetrics                                addressMetrics;     //各个地址上的调用统计（负载均衡使用）
     //原始数据
     private final    String                                        serviceID;          //服务ID
     private final    String                                        unitName;           //服务所属单元
@@ -77,6 +78,7 @@ public class AddressBucket extends Observable {
         this.rsfEnvironment = rsfEnvironment;
         this.flowControlRef = FlowControlRef.defaultRef(rsfEnvironment);
         this.ruleRef = new RuleRef(null);
+        this.addressMetrics = new AddressMetrics();
         this.serviceID = serviceID;
         this.unitName = rsfSettings.getUnitName();
         this.allAddressList = new CopyOnWriteArrayList<InterAddress>();
@@ -96,6 +98,9 @@ public class AddressBucket extends Observable {
     RuleRef getRuleRef() {
         return this.ruleRef;
     }
+    AddressMetrics getAddressMetrics() {
+        return this.addressMetrics;
+    }
     //
     /**获取所有地址（包括本地的和无效的）。*/
     public synchronized List<InterAddress> getAllAddresses() {
@@ -212,6 +217,7 @@ public class AddressBucket extends Observable {
         this.allAddressList.remove(address);
         this.staticAddressList.remove(address);
         this.invalidAddresses.remove(address);
+        this.addressMetrics.removeMetric(address);
         synchronized (this) {
             refreshAvailableAddress();
         }
@@ -16,136 +16,321 @@
 package net.hasor.rsf.address;
 import net.hasor.core.Hasor;
 import net.hasor.rsf.InterAddress;
-import net.hasor.rsf.address.route.rule.ArgsKey;
+import net.hasor.utils.NameThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 /**
  * 路由计算结果缓存<br/>
  * 接口级    方法级      参数级
+ * <p>计算结果按服务分别缓存，地址或规则发生变化时只重新计算对应的服务：
+ * <ul>
+ *  <li>地址列表和规则版本都没有变化的服务直接跳过。</li>
+ *  <li>没有配置路由规则的服务，同步更新计算结果（不需要执行脚本）。</li>
+ *  <li>配置了路由规则的服务，先把上一次经过规则过滤的计算结果按新的可用地址过滤之后立刻生效，然后在后台线程上重新执行规则脚本，
+ *      每个脚本有执行时间上限，超时的计算会被放弃并继续沿用之前的结果。</li>
+ *  <li>还没有经过规则过滤的计算结果时（服务第一次计算或者刚刚配置了规则），在当前线程上等待规则计算完成，
+ *      避免未经过滤的地址生效；计算超时或者失败时才先使用单元化的地址，然后在后台重试。</li>
+ * </ul>
+ * 规则脚本（Groovy）无法被中断，超时的脚本会一直占用执行它的线程，因此脚本在固定大小的线程池上执行，
+ * 线程都被占用时新的计算直接放弃，超时次数通过 {@link #getRuleTimeoutCount()} 获取。</p>
  * @version : 2015年3月29日
  * @author 赵永春 (zyc@hasor.net)
  */
 class AddressCacheResult {
     protected Logger logger = LoggerFactory.getLogger(getClass());
-    //做引用切换
-    private volatile CacheResult cacheResultRef;
-    private final    AddressPool addressPool;
+    private final    AddressPool                          addressPool;
+    private final    ConcurrentMap<String, ServiceResult> resultMap;     // 每个服务的计算结果
+    private final    Set<String>                          dirtyServices; // 等待执行规则脚本的服务
+    private final    AtomicBoolean                        evalScheduled;
+    private final    int                                  ruleTimeout;
+    private final    int                                  ruleThreads;
+    private final    AtomicLong                           ruleTimeoutCount;
+    private volatile ExecutorService                      evalExecutor;  // 依次处理 dirtyServices
+    private volatile ExecutorService                      ruleExecutor;  // 执行规则脚本，用于控制脚本的执行时间
+    private volatile boolean                              shutdown;
     //
     public AddressCacheResult(AddressPool addressPool) {
         this.addressPool = Hasor.assertIsNotNull(addressPool);
+        this.resultMap = new ConcurrentHashMap<String, ServiceResult>();
+        this.dirtyServices = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.evalScheduled = new AtomicBoolean(false);
+        this.ruleTimeout = addressPool.getRsfEnvironment().getSettings().getInteger("hasor.rsfConfig.route.ruleTimeout", 1000);
+        this.ruleThreads = Math.max(addressPool.getRsfEnvironment().getSettings().getInteger("hasor.rsfConfig.route.ruleThreads", 2), 1);
+        this.ruleTimeoutCount = new AtomicLong(0);
+    }
+    /**规则脚本执行超时（包括线程都被超时的脚本占用而无法执行）的次数。*/
+    public long getRuleTimeoutCount() {
+        return this.ruleTimeoutCount.get();
+    }
+    /**停止后台计算，正在执行的规则脚本所在的线程会收到中断。*/
+    public synchronized void shutdown() {
+        this.shutdown = true;
+        if (this.evalExecutor != null) {
+            this.evalExecutor.shutdownNow();
+            this.ruleExecutor.shutdownNow();
+            this.evalExecutor = null;
+            this.ruleExecutor = null;
+        }
     }
     //
     /**从全部地址中计算执行动态计算并缓存计算结果.*/
     public List<InterAddress> getAddressList(String serviceID, String methodName, Object[] args) {
-        if (this.cacheResultRef == null) {
-            logger.warn("getAddressList fail. resultRef is null.");
+        ServiceResult resultRef = this.resultMap.get(serviceID);
+        if (resultRef == null) {
+            logger.warn("getAddressList fail. service {} result is null.", serviceID);
             return null;
         }
         List<InterAddress> result = null;
-        CacheResult resultRef = this.cacheResultRef;
         //
         //1.获取参数级地址列表
-        ArgsKey argsKeyBuilder = addressPool.getArgsKey();
-        if (argsKeyBuilder != null) {
-            Map<String, Map<String, List<InterAddress>>> methodList = resultRef.argsLevel.get(serviceID);
-            if (methodList != null) {
-                Map<String, List<InterAddress>> cacheList = methodList.get(methodName);
-                if (cacheList != null) {
-                    String key = argsKeyBuilder.eval(serviceID, methodName, args);
-                    if (key != null) {
-                        result = cacheList.get(key);
-                    }
-                }
+        ArgsRouteIndex.MethodTable methodTable = resultRef.argsLevel;
+        if (methodTable != null) {
+            ArgsRouteIndex routeIndex = methodTable.findMethod(methodName);
+            if (routeIndex != null) {
+                result = routeIndex.find(serviceID, args, addressPool.getArgsKey());
             }
         }
         //
         //2.获取方法级地址列表
-        if (result == null) {
-            Map<String, List<InterAddress>> cacheList = resultRef.methodLevel.get(serviceID);
-            if (cacheList != null) {
-                result = cacheList.get(methodName);
-            }
+        if (result == null && resultRef.methodLevel != null) {
+            result = resultRef.methodLevel.get(methodName);
         }
         //
         //3.获取服务级别地址列表
         if (result == null) {
-            result = resultRef.serviceLevel.get(serviceID);
+            result = resultRef.serviceLevel;
         }
         return result;
     }
-    /**重置缓存结果*/
-    public void reset() {
+    /**重置所有服务的缓存结果（地址和规则都没有变化的服务会被跳过）*/
+    public synchronized void reset() {
         this.logger.info("reset addressCache.");
-        Map<String, List<InterAddress>> allAddress = this.addressPool.allServiceAddressToSnapshot();
         Set<String> allServiceIDs = this.addressPool.getBucketNames();
-        CacheResult cacheResultRef = new CacheResult();
-        //
+        for (String serviceID : this.resultMap.keySet()) {
+            if (!allServiceIDs.contains(serviceID)) {
+                this.resultMap.remove(serviceID);
+            }
+        }
         for (String serviceID : allServiceIDs) {
-            /*计算使用的地址列表(所有可用的/本单元的/本地网络的)*/
-            List<InterAddress> all = allAddress.get(serviceID);
-            List<InterAddress> unit = allAddress.get(serviceID + "_UNIT");
-            List<String> allStrList = convertToStr(all);
-            RuleRef refRule = this.addressPool.getRefRule(serviceID);
-            //
-            //1.计算缓存的服务接口级,地址列表
-            List<InterAddress> serviceLevelResult = null;
-            if (!refRule.getServiceLevel().isEnable()) {
-                logger.debug("eval routeScript [ServiceLevel], service {} route undefined.", serviceID);
-            } else {
-                List<String> serviceLevelResultStr = evalServiceLevel(serviceID, refRule, allStrList);
-                if (serviceLevelResultStr != null && !serviceLevelResultStr.isEmpty()) {
-                    serviceLevelResult = convertToAddress(all, serviceLevelResultStr);
-                }
+            this.reset(serviceID);
+        }
+    }
+    /**重置某个服务的缓存结果*/
+    public synchronized void reset(String serviceID) {
+        AddressBucket bucket = this.addressPool.getBucket(serviceID);
+        if (bucket == null) {
+            this.resultMap.remove(serviceID);
+            return;
+        }
+        /*计算使用的地址列表(所有可用的/本单元的)*/
+        List<InterAddress> all = bucket.getAvailableAddresses();
+        List<InterAddress> unit = bucket.getLocalUnitAddresses();
+        RuleRef refRule = this.addressPool.getRefRule(serviceID);
+        int[] ruleVersion = ruleVersion(refRule);
+        //
+        ServiceResult oldResult = this.resultMap.get(serviceID);
+        if (oldResult != null && oldResult.isSame(all, unit, ruleVersion)) {
+            if (!oldResult.evaluated && hasRule(refRule)) {
+                this.dirtyServices.add(serviceID);/*地址和规则都没有变化，但是上一次的规则计算没有完成*/
+                this.scheduleEval();
             }
-            if (serviceLevelResult == null || serviceLevelResult.isEmpty()) {
-                serviceLevelResult = unit;/*如果计算结果为空，就使用单元化的地址 -> 如果单元化策略没有配置则单元化地址就是全量地址。*/
+            return;
+        }
+        ServiceResult newResult = new ServiceResult(all, unit, ruleVersion);
+        if (!hasRule(refRule)) {
+            this.logger.debug("service {} route undefined.", serviceID);
+            newResult.evaluated = true;
+            this.resultMap.put(serviceID, newResult);
+            return;
+        }
+        //
+        if (oldResult != null && oldResult.filtered) {
+            // .先沿用上一次经过规则过滤的计算结果（去掉已经不可用的地址），规则脚本放到后台计算
+            newResult.retain(oldResult);
+        } else {
+            // .还没有经过规则过滤的结果，等待第一次计算完成
+            try {
+                this.resultMap.put(serviceID, this.evalService(serviceID, refRule, newResult));
+                return;
+            } catch (TimeoutException e) {
+                this.logger.error("eval route of service {} timeout after {}ms, use unit addresses and retry later.", serviceID, this.ruleTimeout);
+            } catch (Throwable e) {
+                this.logger.error("eval route of service " + serviceID + " failed, use unit addresses and retry later. message = " + e.getMessage(), e);
             }
-            cacheResultRef.serviceLevel.put(serviceID, serviceLevelResult);
-            //
-            //2.计算缓存的服务方法级,地址列表
-            if (!refRule.getMethodLevel().isEnable()) {
-                logger.debug("eval routeScript [MethodLevel], service {} route undefined.", serviceID);
-            } else {
-                Map<String, List<String>> methodLevelResultStr = evalMethodLevel(serviceID, refRule, allStrList);
-                if (methodLevelResultStr != null && !methodLevelResultStr.isEmpty()) {
-                    Map<String, List<InterAddress>> methodLevelResult = convertToAddressMethod(all, methodLevelResultStr);
-                    cacheResultRef.methodLevel.put(serviceID, methodLevelResult);/*保存计算结果*/
+        }
+        this.resultMap.put(serviceID, newResult);
+        this.dirtyServices.add(serviceID);
+        this.scheduleEval();
+    }
+    //
+    private static int[] ruleVersion(RuleRef refRule) {
+        if (refRule == null) {
+            return new int[] { 0, 0, 0 };
+        }
+        return new int[] {                      //
+                refRule.getServiceLevel().getVersion(),//
+                refRule.getMethodLevel().getVersion(), //
+                refRule.getArgsLevel().getVersion()    //
+        };
+    }
+    private static boolean hasRule(RuleRef refRule) {
+        return refRule != null && (refRule.getServiceLevel().isEnable() || refRule.getMethodLevel().isEnable() || refRule.getArgsLevel().isEnable());
+    }
+    private void scheduleEval() {
+        ExecutorService evalExecutor = this.getEvalExecutor();
+        if (evalExecutor == null || !this.evalScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        evalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evalDirtyServices();
+                } finally {
+                    evalScheduled.set(false);
+                }
+                if (!dirtyServices.isEmpty()) {
+                    scheduleEval();
                 }
             }
-            //
-            //3.计算缓存的服务参数级,地址列表
-            if (!refRule.getArgsLevel().isEnable()) {
-                logger.debug("eval routeScript [ArgsLevel], service {} route undefined.", serviceID);
-            } else if (addressPool.getArgsKey() == null) {
-                logger.error("argsKeyBuilder is null , evalArgsLevel failed.");
-            } else {
-                Map<String, Map<String, List<String>>> argsLevelResultStr = evalArgsLevel(serviceID, refRule, allStrList);
-                if (argsLevelResultStr != null && !argsLevelResultStr.isEmpty()) {
-                    Map<String, Map<String, List<InterAddress>>> argsLevelResult = convertToAddressArgs(all, argsLevelResultStr);
-                    cacheResultRef.argsLevel.put(serviceID, argsLevelResult);/*保存计算结果*/
+        });
+    }
+    private synchronized ExecutorService getEvalExecutor() {
+        if (this.evalExecutor == null && !this.shutdown) {
+            ClassLoader loader = this.addressPool.getRsfEnvironment().getClassLoader();
+            this.evalExecutor = Executors.newSingleThreadExecutor(new NameThreadFactory("RSF-RouteEval-%s", loader));
+            // 不排队：线程都被（无法中断的）超时脚本占用时直接拒绝，避免计算请求无限堆积
+            this.ruleExecutor = new ThreadPoolExecutor(this.ruleThreads, this.ruleThreads, 60, TimeUnit.SECONDS, //
+                    new SynchronousQueue<Runnable>(), new NameThreadFactory("RSF-RouteRule-%s", loader));
+        }
+        return this.evalExecutor;
+    }
+    private ExecutorService getRuleExecutor() {
+        if (this.ruleExecutor == null) {
+            this.getEvalExecutor();
+        }
+        return this.ruleExecutor;
+    }
+    /**在后台线程上执行规则脚本，计算完成后如果服务的地址在此期间又发生了变化，则丢弃结果等待下一轮计算。*/
+    private void evalDirtyServices() {
+        Iterator<String> iterator = this.dirtyServices.iterator();
+        while (iterator.hasNext()) {
+            String serviceID = iterator.next();
+            iterator.remove();
+            ServiceResult baseResult = this.resultMap.get(serviceID);
+            RuleRef refRule = this.addressPool.getRefRule(serviceID);
+            if (baseResult == null || refRule == null) {
+                continue;
+            }
+            try {
+                ServiceResult evalResult = this.evalService(serviceID, refRule, baseResult);
+                if (!this.resultMap.replace(serviceID, baseResult, evalResult)) {
+                    this.logger.debug("service {} changed during eval route, wait for next eval.", serviceID);
                 }
+            } catch (TimeoutException e) {
+                this.logger.error("eval route of service {} timeout after {}ms, keep the previous result.", serviceID, this.ruleTimeout);
+            } catch (Throwable e) {
+                this.logger.error("eval route of service " + serviceID + " failed, message = " + e.getMessage(), e);
+            }
+        }
+    }
+    private ServiceResult evalService(String serviceID, RuleRef refRule, ServiceResult baseResult) throws TimeoutException {
+        List<InterAddress> all = baseResult.all;
+        List<String> allStrList = convertToStr(all);
+        ServiceResult cacheResult = new ServiceResult(all, baseResult.unit, baseResult.ruleVersion);
+        cacheResult.filtered = true;
+        cacheResult.evaluated = true;
+        //
+        //1.计算缓存的服务接口级,地址列表
+        if (!refRule.getServiceLevel().isEnable()) {
+            logger.debug("eval routeScript [ServiceLevel], service {} route undefined.", serviceID);
+        } else {
+            List<String> serviceLevelResultStr = evalServiceLevel(serviceID, refRule, allStrList);
+            if (serviceLevelResultStr != null && !serviceLevelResultStr.isEmpty()) {
+                cacheResult.setRuleServiceLevel(convertToAddress(all, serviceLevelResultStr));
+            }
+        }
+        //
+        //2.计算缓存的服务方法级,地址列表
+        if (!refRule.getMethodLevel().isEnable()) {
+            logger.debug("eval routeScript [MethodLevel], service {} route undefined.", serviceID);
+        } else {
+            Map<String, List<String>> methodLevelResultStr = evalMethodLevel(serviceID, refRule, allStrList);
+            if (methodLevelResultStr != null && !methodLevelResultStr.isEmpty()) {
+                Map<String, List<InterAddress>> methodLevelResult = convertToAddressMethod(all, methodLevelResultStr);
+                cacheResult.methodLevel = methodLevelResult.isEmpty() ? null : methodLevelResult;/*保存计算结果*/
             }
-            //
         }
-        logger.debug("switch cacheResultRef.");
-        this.cacheResultRef = cacheResultRef;
+        //
+        //3.计算缓存的服务参数级,地址列表
+        if (!refRule.getArgsLevel().isEnable()) {
+            logger.debug("eval routeScript [ArgsLevel], service {} route undefined.", serviceID);
+        } else {
+            Map<String, Map<String, List<String>>> argsLevelResultStr = evalArgsLevel(serviceID, refRule, allStrList);
+            if (argsLevelResultStr != null && !argsLevelResultStr.isEmpty()) {
+                ArgsRouteIndex[] argsLevelResult = compileArgsLevel(serviceID, all, argsLevelResultStr);
+                cacheResult.argsLevel = argsLevelResult.length == 0 ? null : new ArgsRouteIndex.MethodTable(argsLevelResult);/*保存编译结果*/
+            }
+        }
+        return cacheResult;
+    }
+    /**在 ruleExecutor 上执行规则脚本，超过 ruleTimeout 毫秒没有结果或者没有空闲的线程则放弃。*/
+    private Object runRule(final InnerRuleEngine ruleEngine, final String serviceID, final List<String> all) throws TimeoutException {
+        ExecutorService ruleExecutor = this.getRuleExecutor();
+        if (ruleExecutor == null) {
+            return null;// 已经 shutdown
+        }
+        Future<Object> future;
+        try {
+            future = ruleExecutor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return ruleEngine.runRule(serviceID, all);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.ruleTimeoutCount.incrementAndGet();
+            throw new TimeoutException("all " + this.ruleThreads + " rule threads are busy.");
+        }
+        try {
+            return future.get(this.ruleTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            this.ruleTimeoutCount.incrementAndGet();
+            future.cancel(true);// 只能设置中断标记，脚本不检查中断时会继续占用线程直到执行结束
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            logger.error("run route rule error ,message = " + e.getCause().getMessage(), e.getCause());
+            return null;
+        }
     }
     //
     //
     //
-    private static Map<String, Map<String, List<InterAddress>>> convertToAddressArgs(List<InterAddress> all, Map<String, Map<String, List<String>>> argsLevelResult) {
-        Map<String, Map<String, List<InterAddress>>> result = new HashMap<String, Map<String, List<InterAddress>>>();
+    /**把参数级路由的计算结果编译成 ArgsRouteIndex，声明错误的方法会被忽略。*/
+    private ArgsRouteIndex[] compileArgsLevel(String serviceID, List<InterAddress> all, Map<String, Map<String, List<String>>> argsLevelResult) {
+        List<ArgsRouteIndex> result = new ArrayList<ArgsRouteIndex>();
         for (Entry<String, Map<String, List<String>>> ent : argsLevelResult.entrySet()) {
-            String key = ent.getKey();
             Map<String, List<InterAddress>> val = convertToAddressMethod(all, ent.getValue());
-            if (val != null && !val.isEmpty()) {
-                result.put(key, val);
+            if (val == null || val.isEmpty()) {
+                continue;
+            }
+            try {
+                result.add(ArgsRouteIndex.compile(ent.getKey(), val));
+            } catch (IllegalArgumentException e) {
+                logger.error("compile argsLevel route of service {} failed -> {}", serviceID, e.getMessage());
             }
         }
-        return result;
+        return result.toArray(new ArgsRouteIndex[result.size()]);
     }
     private static Map<String, List<InterAddress>> convertToAddressMethod(List<InterAddress> all, Map<String, List<String>> methodLevelResult) {
         Map<String, List<InterAddress>> result = new HashMap<String, List<InterAddress>>();
@@ -200,13 +385,13 @@ class AddressCacheResult {
      *      return null
      *  }</pre>
      * */
-    private List<String> evalServiceLevel(String serviceID, RuleRef refRule, List<String> all) {
+    private List<String> evalServiceLevel(String serviceID, RuleRef refRule, List<String> all) throws TimeoutException {
         InnerRuleEngine serviceLevel = refRule.getServiceLevel();
         if (serviceLevel == null) {
             return null;
         }
+        Object result = this.runRule(serviceLevel, serviceID, all);
         try {
-            Object result = serviceLevel.runRule(serviceID, all);
             return (List<String>) result;
         } catch (Throwable e) {
             logger.error("evalServiceLevel error ,message = " + e.getMessage(), e);
@@ -244,13 +429,13 @@ class AddressCacheResult {
      *      return null
      *  }</pre>
      * */
-    private Map<String, List<String>> evalMethodLevel(String serviceID, RuleRef refRule, List<String> all) {
+    private Map<String, List<String>> evalMethodLevel(String serviceID, RuleRef refRule, List<String> all) throws TimeoutException {
         InnerRuleEngine methodLevel = refRule.getMethodLevel();
         if (methodLevel == null) {
             return null;
         }
+        Object result = this.runRule(methodLevel, serviceID, all);
         try {
-            Object result = methodLevel.runRule(serviceID, all);
             return (Map<String, List<String>>) result;
         } catch (Throwable e) {
             logger.error("evalMethodLevel error ,message = " + e.getMessage(), e);
@@ -271,6 +456,10 @@ class AddressCacheResult {
      *      //[RSF]sorg.mytest.FooFacse-1.0.0 ---- Group=RSF, Name=sorg.mytest.FooFacse, Version=1.0.0
      *      if ( serviceID == "[RSF]sorg.mytest.FooFacse-1.0.0" ) {
      *          return [
+     *              "sayHello(0, 1.userType)":[
+     *                  "etc1,VIP":[
+     *                      "202.168.17.10:8000"
+     *                  ]],
      *              "sayEcho":[
      *                  "sayTo_etc1":[
      *                      "202.168.17.10:8000",
@@ -292,14 +481,16 @@ class AddressCacheResult {
      *      }
      *      return null
      *  }</pre>
+     * 方法名上带有参数声明时（例如：sayHello(0, 1.userType)），路由 key 是对应参数值用逗号连接的结果，详见 {@link ArgsRouteIndex}；
+     * 没有参数声明时路由 key 由 ArgsKey 生成。
      * */
-    private Map<String, Map<String, List<String>>> evalArgsLevel(String serviceID, RuleRef refRule, List<String> all) {
+    private Map<String, Map<String, List<String>>> evalArgsLevel(String serviceID, RuleRef refRule, List<String> all) throws TimeoutException {
         InnerRuleEngine argsLevel = refRule.getArgsLevel();
         if (argsLevel == null) {
             return null;
         }
+        Object result = this.runRule(argsLevel, serviceID, all);
         try {
-            Object result = argsLevel.runRule(serviceID, all);
             return (Map<String, Map<String, List<String>>>) result;
         } catch (Throwable e) {
             logger.error("evalArgsLevel error ,message = " + e.getMessage(), e);
@@ -307,15 +498,64 @@ class AddressCacheResult {
         }
     }
     //
-    private static class CacheResult {
-        public final Map<String, List<InterAddress>>                           serviceLevel; //服务接口级
-        public final Map<String, Map<String, List<InterAddress>>>              methodLevel;  //方法级
-        public final Map<String, Map<String, Map<String, List<InterAddress>>>> argsLevel;    //参数级
+    //
+    /** 一个服务的路由计算结果 */
+    private static class ServiceResult {
+        private final List<InterAddress>              all;          //所有可用地址
+        private final List<InterAddress>              unit;         //本单元地址
+        private final int[]                           ruleVersion;  //计算时使用的规则版本
+        private       List<InterAddress>              ruleServiceLevel;
+        public        List<InterAddress>              serviceLevel; //服务接口级
+        public        Map<String, List<InterAddress>> methodLevel;  //方法级
+        public        ArgsRouteIndex.MethodTable      argsLevel;    //参数级（已编译）
+        public        boolean                         filtered;     //是否经过了规则过滤（规则计算的结果或者沿用的规则计算结果）
+        public        boolean                         evaluated;    //是否已经按当前的规则版本完成了计算
         //
-        public CacheResult() {
-            this.serviceLevel = new HashMap<String, List<InterAddress>>(); //服务接口级
-            this.methodLevel = new HashMap<String, Map<String, List<InterAddress>>>(); //方法级
-            this.argsLevel = new HashMap<String, Map<String, Map<String, List<InterAddress>>>>(); //参数级
+        public ServiceResult(List<InterAddress> all, List<InterAddress> unit, int[] ruleVersion) {
+            this.all = all;
+            this.unit = unit;
+            this.ruleVersion = ruleVersion;
+            this.serviceLevel = unit;
+        }
+        public boolean isSame(List<InterAddress> all, List<InterAddress> unit, int[] ruleVersion) {
+            return Arrays.equals(this.ruleVersion, ruleVersion) && this.all.equals(all) && this.unit.equals(unit);
+        }
+        /**如果计算结果为空，就使用单元化的地址 -> 如果单元化策略没有配置则单元化地址就是全量地址。*/
+        public void setRuleServiceLevel(List<InterAddress> ruleServiceLevel) {
+            this.ruleServiceLevel = ruleServiceLevel;
+            this.serviceLevel = (ruleServiceLevel == null || ruleServiceLevel.isEmpty()) ? this.unit : ruleServiceLevel;
+        }
+        /**沿用另一个计算结果，并去掉其中已经不可用的地址。*/
+        public void retain(ServiceResult oldResult) {
+            this.filtered = oldResult.filtered;
+            Set<InterAddress> available = new HashSet<InterAddress>(this.all);
+            this.setRuleServiceLevel(retainList(oldResult.ruleServiceLevel, available));
+            if (oldResult.methodLevel != null) {
+                Map<String, List<InterAddress>> methodLevel = new HashMap<String, List<InterAddress>>();
+                for (Entry<String, List<InterAddress>> ent : oldResult.methodLevel.entrySet()) {
+                    List<InterAddress> val = retainList(ent.getValue(), available);
+                    if (val != null && !val.isEmpty()) {
+                        methodLevel.put(ent.getKey(), val);
+                    }
+                }
+                this.methodLevel = methodLevel.isEmpty() ? null : methodLevel;
+            }
+            if (oldResult.argsLevel != null) {
+                this.argsLevel = oldResult.argsLevel.retain(available);
+            }
         }
     }
-}
\ No newline at end of file
+    /**只保留 available 中的地址，没有地址被去掉时返回原列表。*/
+    static List<InterAddress> retainList(List<InterAddress> addresses, Set<InterAddress> available) {
+        if (addresses == null || available.containsAll(addresses)) {
+            return addresses;
+        }
+        List<InterAddress> result = new ArrayList<InterAddress>(addresses.size());
+        for (InterAddress address : addresses) {
+            if (available.contains(address)) {
+                result.add(address);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.address;
+import net.hasor.rsf.InterAddress;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * 服务的各个地址上的调用统计（在途请求数、响应耗时的指数移动平均），供地址选取规则做负载均衡。
+ * tips：统计数据由调用开始和调用结束时更新，全部使用原子变量，不加锁。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class AddressMetrics {
+    private final ConcurrentMap<InterAddress, Metric> metricMap = new ConcurrentHashMap<InterAddress, Metric>();
+    //
+    /** 查找地址的统计信息，没有统计信息时返回 null。*/
+    public Metric findMetric(InterAddress address) {
+        return this.metricMap.get(address);
+    }
+    /** 获取地址的统计信息，没有时创建。*/
+    public Metric getMetric(InterAddress address) {
+        Metric metric = this.metricMap.get(address);
+        if (metric == null) {
+            Metric newMetric = new Metric();
+            metric = this.metricMap.putIfAbsent(address, newMetric);
+            if (metric == null) {
+                metric = newMetric;
+            }
+        }
+        return metric;
+    }
+    /** 地址的在途请求数。*/
+    public int getActive(InterAddress address) {
+        Metric metric = this.metricMap.get(address);
+        return metric == null ? 0 : metric.getActive();
+    }
+    /** 地址的平均响应耗时（微秒），还没有样本时返回 0。*/
+    public long getLatency(InterAddress address) {
+        Metric metric = this.metricMap.get(address);
+        return metric == null ? 0 : metric.getLatency();
+    }
+    /** 移除已经不再使用的地址。*/
+    public void removeMetric(InterAddress address) {
+        this.metricMap.remove(address);
+    }
+    //
+    /** 单个地址的调用统计。*/
+    public static class Metric {
+        /** EWMA 的衰减系数为 1/2^EWMA_SHIFT */
+        private static final int           EWMA_SHIFT  = 3;
+        private final        AtomicInteger active      = new AtomicInteger(0);
+        private final        AtomicLong    latency     = new AtomicLong(0);   // 响应耗时的指数移动平均（微秒）
+        private final        AtomicLong    invokeCount = new AtomicLong(0);
+        //
+        /** 在途请求数 */
+        public int getActive() {
+            return this.active.get();
+        }
+        /** 平均响应耗时（微秒），还没有样本时返回 0 */
+        public long getLatency() {
+            return this.latency.get();
+        }
+        /** 完成的调用次数 */
+        public long getInvokeCount() {
+            return this.invokeCount.get();
+        }
+        /** 调用开始 */
+        public void invokeStart() {
+            this.active.incrementAndGet();
+        }
+        /** 调用结束，costTime 为调用耗时（毫秒，超时和失败的调用同样计入，使慢地址的权重下降）。*/
+        public void invokeEnd(long costTime) {
+            if (this.active.decrementAndGet() < 0) {
+                this.active.incrementAndGet();
+            }
+            this.invokeCount.incrementAndGet();
+            long sample = Math.max(costTime, 0) * 1000 + 1;
+            while (true) {
+                long oldValue = this.latency.get();
+                long newValue = (oldValue == 0) ? sample : oldValue + ((sample - oldValue) >> EWMA_SHIFT);
+                if (this.latency.compareAndSet(oldValue, newValue)) {
+                    return;
+                }
+            }
+        }
+    }
+}
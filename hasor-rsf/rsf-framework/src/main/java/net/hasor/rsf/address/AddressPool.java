@@ -16,9 +16,13 @@
 package net.hasor.rsf.address;
 import net.hasor.core.EventListener;
 import net.hasor.rsf.*;
+import net.hasor.rsf.address.route.flowcontrol.SelectFlowControl;
+import net.hasor.rsf.address.route.flowcontrol.speed.SpeedFlowControl;
 import net.hasor.rsf.address.route.rule.ArgsKey;
 import net.hasor.rsf.address.route.rule.DefaultArgsKey;
+import net.hasor.rsf.domain.ProtocolStatus;
 import net.hasor.rsf.domain.RsfEvent;
+import net.hasor.rsf.domain.RsfException;
 import net.hasor.rsf.utils.IOUtils;
 import net.hasor.utils.ClassUtils;
 import net.hasor.utils.ExceptionUtils;
@@ -32,6 +36,8 @@ import java.io.OutputStream;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -43,6 +49,8 @@ import java.util.zip.ZipOutputStream;
  * @author 赵永春 (zyc@hasor.net)
  */
 public class AddressPool implements RsfUpdater {
+    private static final long MIN_QOS_PARK = TimeUnit.MICROSECONDS.toNanos(50); // QoS 退避等待的最小间隔
+    private static final long MAX_QOS_PARK = TimeUnit.MILLISECONDS.toNanos(5);  // QoS 退避等待的最大间隔
     protected final Logger                               logger = LoggerFactory.getLogger(getClass());
     //
     private final   RsfEnvironment                       rsfEnvironment;
@@ -107,6 +115,14 @@ public class AddressPool implements RsfUpdater {
     public RsfEnvironment getRsfEnvironment() {
         return rsfEnvironment;
     }
+    /**路由规则脚本执行超时的次数。*/
+    public long getRuleTimeoutCount() {
+        return this.rulerCache.getRuleTimeoutCount();
+    }
+    /**停止路由规则的后台计算。*/
+    public void shutdown() {
+        this.rulerCache.shutdown();
+    }
     /**
      * 所有服务地址快照功能，该接口获得的数据不可以进行写操作。通过这个接口可以获得到此刻地址池中所有服务的：
      * <ol>
@@ -202,7 +218,7 @@ public class AddressPool implements RsfUpdater {
         //2.新增服务
         bucket.newAddress(newHostSet, type);
         bucket.refreshAddress();//局部更新
-        this.rulerCache.reset();
+        this.rulerCache.reset(serviceID);
     }
     /**
      * 将服务的地址设置成临时失效状态。
@@ -223,7 +239,6 @@ public class AddressPool implements RsfUpdater {
             }
             this.rulerCache.reset();
         }
-        this.rulerCache.reset();
     }
     /**
      * 将服务的地址设置成临时失效状态，把地址从服务的地址本中彻底删除。
@@ -253,9 +268,9 @@ public class AddressPool implements RsfUpdater {
             for (InterAddress invalidAddress : invalidAddressSet) {
                 strBuilder.append(invalidAddress.toHostSchema() + ",");
                 bucket.removeAddress(invalidAddress);
-                bucket.refreshAddress();
-                this.rulerCache.reset();
             }
+            bucket.refreshAddress();
+            this.rulerCache.reset(serviceID);
         }
         long invalidWaitTime = rsfEnvironment.getSettings().getInvalidWaitTime();
         this.logger.info("serviceID ={} ,remove invalidAddress = {} ,wait {} -> active.", serviceID, strBuilder.toString(), invalidWaitTime);
@@ -284,7 +299,7 @@ public class AddressPool implements RsfUpdater {
         if (this.addressPool.containsKey(serviceID)) {
             this.logger.info("removeAddressBucket serviceID is {}", serviceID);
             this.addressPool.remove(serviceID);
-            this.rulerCache.reset();
+            this.rulerCache.reset(serviceID);
             return true;
         }
         return false;
@@ -301,7 +316,7 @@ public class AddressPool implements RsfUpdater {
             this.logger.debug("service {} refreshCache.", serviceID);
             bucket.refreshAddressToNew(addressList);//刷新地址计算结果
         }
-        this.rulerCache.reset();
+        this.rulerCache.reset(serviceID);
     }
     /**刷新地址缓存*/
     @Override
@@ -321,10 +336,11 @@ public class AddressPool implements RsfUpdater {
         }
     }
     /**
-     * 从服务地址本中获取一条可用的地址。<p>当一个服务具有多个地址的情况下，为了保证公平性地址池采取了随机选取的方式（路由策略：随机选址）
+     * 从服务地址本中获取一条可用的地址。<p>当一个服务具有多个地址的情况下，由选址规则决定选取方式（默认为随机选址，可配置为加权轮询、最少在途请求、基于响应耗时）
      * <ul>
      *  <li>如果地址池中没有定义这个服务的Bucket，那么将会返回一个null。</li>
      *  <li>如果地址本或者地址池上配置了流控机制，那么选择到的地址将会被限制固定的速率，进而限制nextAddress方法的整个QPS。</li>
+     *  <li>QoS 取不到令牌时退避等待，超过 maxWait 仍然取不到令牌抛出 SendLimitPolicy 异常。</li>
      *  <li>默认情况下地址的获取，会受到路由规则、流控规则的影响。</li>
      * </ul>
      * 当地址获取和地址更新同时进行时候，不需要保证瞬时的一致性，只要保证最终一致性就好。
@@ -351,15 +367,53 @@ public class AddressPool implements RsfUpdater {
         if (flowControlRef == null) {
             throw new NullPointerException("flowControlRef is null.");
         }
-        doCallAddress = flowControlRef.randomFlowControl.getServiceAddress(addresses);
-        while (true) {
-            boolean check = flowControlRef.speedFlowControl.callCheck(serviceID, methodName, doCallAddress);//QoS
-            if (check) {
-                break;
-            }
+        AddressMetrics metrics = bucket.getAddressMetrics();
+        SelectFlowControl selectFlowControl = flowControlRef.selectFlowControl;
+        SpeedFlowControl speedFlowControl = flowControlRef.speedFlowControl;
+        doCallAddress = selectFlowControl.getServiceAddress(addresses, metrics);
+        if (speedFlowControl.callCheck(serviceID, methodName, doCallAddress)) {//QoS
+            return doCallAddress;
         }
         //
-        return doCallAddress;
+        /*取不到令牌时退避等待（不空转），在 maxWait 内仍然取不到令牌则失败。按地址限流时每次重试都重新选址。*/
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(speedFlowControl.getMaxWait());
+        long parkNanos = MIN_QOS_PARK;
+        while (System.nanoTime() < deadline) {
+            LockSupport.parkNanos(Math.min(parkNanos, Math.max(deadline - System.nanoTime(), 1)));
+            parkNanos = Math.min(parkNanos << 1, MAX_QOS_PARK);
+            doCallAddress = selectFlowControl.getServiceAddress(addresses, metrics);
+            if (speedFlowControl.callCheck(serviceID, methodName, doCallAddress)) {
+                return doCallAddress;
+            }
+        }
+        throw new RsfException(ProtocolStatus.SendLimitPolicy, "service [" + serviceID + "] QoS limit, no token within " + speedFlowControl.getMaxWait() + "ms.");
+    }
+    /**
+     * 记录一次远程调用开始，用于负载均衡的在途请求统计。
+     * @param serviceID 服务id。
+     * @param address 调用的地址。
+     */
+    public void invokeStart(String serviceID, InterAddress address) {
+        AddressBucket bucket = addressPool.get(serviceID);
+        if (bucket != null && address != null) {
+            bucket.getAddressMetrics().getMetric(address).invokeStart();
+        }
+    }
+    /**
+     * 记录一次远程调用结束，用于负载均衡的在途请求和响应耗时统计。
+     * @param serviceID 服务id。
+     * @param address 调用的地址。
+     * @param costTime 调用耗时（毫秒）。
+     */
+    public void invokeEnd(String serviceID, InterAddress address, long costTime) {
+        AddressBucket bucket = addressPool.get(serviceID);
+        if (bucket == null || address == null) {
+            return;
+        }
+        AddressMetrics.Metric metric = bucket.getAddressMetrics().findMetric(address);
+        if (metric != null) {
+            metric.invokeEnd(costTime);// 地址已经被移除的情况下不再重建统计
+        }
     }
     //
     //
@@ -411,8 +465,8 @@ public class AddressPool implements RsfUpdater {
             return false;
         }
         this.logger.info("update flowControl service={} -> update ok", serviceID);
-        bucket.updateFlowControl(flowControl);
-        this.refreshAddressCache();
+        bucket.updateFlowControl(flowControl);//同时会刷新地址计算结果
+        this.rulerCache.reset(serviceID);
         return true;
     }
     /**
@@ -429,8 +483,8 @@ public class AddressPool implements RsfUpdater {
         }
         //
         this.logger.info("update rules service={} -> update ok", serviceID);
-        bucket.updateRoute(routeType, script);
-        this.refreshAddressCache();
+        bucket.updateRoute(routeType, script);//同时会刷新地址计算结果
+        this.rulerCache.reset(serviceID);
         return true;
     }
     //
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.address;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.address.route.rule.ArgsKey;
+import net.hasor.utils.StringUtils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+/**
+ * 参数级路由的编译结果，一个服务方法对应一个 ArgsRouteIndex。
+ * <p>参数级路由脚本中方法名可以带上参与路由计算的参数声明，例如：<code>"sayEcho(0)"</code>、<code>"query(0, 1.user.id)"</code>。
+ * 数字表示参数位置，点号后面是参数对象上的字段路径（参数为 Map 时按 key 取值），路由表的 key 为这些值用逗号连接起来的字符串。</p>
+ * <ul>
+ *  <li>带有参数声明：调用时直接从参数上取值并计算散列，在开放寻址表中查找，取值和比较都不会生成字符串（String、整数、枚举、布尔、字符类型）。</li>
+ *  <li>没有参数声明：保持原有的行为，由 {@link ArgsKey} 生成 key 之后查表。</li>
+ * </ul>
+ * 一个服务的全部方法在编译时放入 {@link MethodTable}，调用时按方法名散列定位，不需要逐个比较方法名。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ArgsRouteIndex {
+    private static final int NULL_HASH = "null".hashCode();
+    private static final int MIN_HASH  = Long.toString(Long.MIN_VALUE).hashCode();
+    private final String                          methodName;
+    private final ArgsField[]                     fields;     // null 表示没有参数声明，使用 ArgsKey
+    private final Map<String, List<InterAddress>> keyRoutes;  // 没有参数声明时使用
+    private final RouteEntry[]                    entries;
+    private final int[]                           table;      // 开放寻址表，值为 entries 的下标 + 1
+    //
+    private ArgsRouteIndex(String methodName, ArgsField[] fields, Map<String, List<InterAddress>> keyRoutes, List<RouteEntry> entryList) {
+        this.methodName = methodName;
+        this.fields = fields;
+        this.keyRoutes = keyRoutes;
+        this.entries = entryList.toArray(new RouteEntry[entryList.size()]);
+        int size = 2;
+        while (size < this.entries.length * 2) {
+            size <<= 1;
+        }
+        this.table = new int[size];
+        int mask = size - 1;
+        for (int i = 0; i < this.entries.length; i++) {
+            int index = this.entries[i].hash & mask;
+            while (this.table[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            this.table[index] = i + 1;
+        }
+    }
+    /**去掉已经不可用的地址，没有地址可用的路由项会被删除（和编译时的处理一致）。*/
+    public ArgsRouteIndex retain(Set<InterAddress> available) {
+        if (this.fields == null) {
+            Map<String, List<InterAddress>> keyRoutes = new HashMap<String, List<InterAddress>>();
+            for (Entry<String, List<InterAddress>> ent : this.keyRoutes.entrySet()) {
+                List<InterAddress> val = AddressCacheResult.retainList(ent.getValue(), available);
+                if (!val.isEmpty()) {
+                    keyRoutes.put(ent.getKey(), val);
+                }
+            }
+            return new ArgsRouteIndex(this.methodName, null, keyRoutes, new ArrayList<RouteEntry>(0));
+        }
+        List<RouteEntry> entryList = new ArrayList<RouteEntry>(this.entries.length);
+        for (RouteEntry entry : this.entries) {
+            List<InterAddress> val = AddressCacheResult.retainList(entry.addresses, available);
+            if (!val.isEmpty()) {
+                entryList.add(new RouteEntry(entry.hash, entry.parts, val));
+            }
+        }
+        return new ArgsRouteIndex(this.methodName, this.fields, null, entryList);
+    }
+    /**方法名（去掉参数声明之后的）。*/
+    public String getMethodName() {
+        return this.methodName;
+    }
+    //
+    /**
+     * 编译一个方法的参数级路由表。
+     * @param declare 方法名，可以带有参数声明，例如：sayEcho(0, 1.name)
+     * @param routes 路由 key 和地址列表
+     */
+    public static ArgsRouteIndex compile(String declare, Map<String, List<InterAddress>> routes) {
+        declare = declare.trim();
+        int start = declare.indexOf('(');
+        if (start < 0) {
+            return new ArgsRouteIndex(declare, null, routes, new ArrayList<RouteEntry>(0));
+        }
+        if (!declare.endsWith(")")) {
+            throw new IllegalArgumentException("args declare format error -> " + declare);
+        }
+        String methodName = declare.substring(0, start).trim();
+        String[] fieldDeclares = declare.substring(start + 1, declare.length() - 1).split(",");
+        ArgsField[] fields = new ArgsField[fieldDeclares.length];
+        for (int i = 0; i < fieldDeclares.length; i++) {
+            fields[i] = ArgsField.parse(fieldDeclares[i].trim());
+        }
+        //
+        List<RouteEntry> entryList = new ArrayList<RouteEntry>(routes.size());
+        for (Entry<String, List<InterAddress>> ent : routes.entrySet()) {
+            String[] keys = ent.getKey().split(",", -1);
+            if (keys.length != fields.length) {
+                throw new IllegalArgumentException("route key '" + ent.getKey() + "' does not match args declare -> " + declare);
+            }
+            KeyPart[] parts = new KeyPart[keys.length];
+            int hash = 1;
+            for (int i = 0; i < keys.length; i++) {
+                parts[i] = new KeyPart(keys[i].trim());
+                hash = 31 * hash + parts[i].hash;
+            }
+            entryList.add(new RouteEntry(hash, parts, ent.getValue()));
+        }
+        return new ArgsRouteIndex(methodName, fields, null, entryList);
+    }
+    //
+    /**根据调用参数查找地址列表，没有匹配的路由时返回 null。*/
+    public List<InterAddress> find(String serviceID, Object[] args, ArgsKey argsKey) {
+        if (this.fields == null) {
+            if (argsKey == null) {
+                return null;
+            }
+            String key = argsKey.eval(serviceID, this.methodName, args);
+            return key == null ? null : this.keyRoutes.get(key);
+        }
+        if (this.entries.length == 0) {
+            return null;
+        }
+        //
+        // .单个参数的情况不需要暂存取到的值
+        if (this.fields.length == 1) {
+            Object value = this.fields[0].extract(args);
+            int hash = 31 + hashOf(value);
+            int mask = this.table.length - 1;
+            for (int index = hash & mask; this.table[index] != 0; index = (index + 1) & mask) {
+                RouteEntry entry = this.entries[this.table[index] - 1];
+                if (entry.hash == hash && entry.parts[0].matches(value)) {
+                    return entry.addresses;
+                }
+            }
+            return null;
+        }
+        Object[] values = new Object[this.fields.length];
+        int hash = 1;
+        for (int i = 0; i < this.fields.length; i++) {
+            values[i] = this.fields[i].extract(args);
+            hash = 31 * hash + hashOf(values[i]);
+        }
+        int mask = this.table.length - 1;
+        for (int index = hash & mask; this.table[index] != 0; index = (index + 1) & mask) {
+            RouteEntry entry = this.entries[this.table[index] - 1];
+            if (entry.hash == hash && entry.matches(values)) {
+                return entry.addresses;
+            }
+        }
+        return null;
+    }
+    //
+    /**计算值的散列，结果等于该值字符串形式的 hashCode（常用类型不生成字符串）。*/
+    static int hashOf(Object value) {
+        if (value == null) {
+            return NULL_HASH;
+        }
+        if (value instanceof String) {
+            return value.hashCode();
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return hashOfLong(((Number) value).longValue());
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name().hashCode();
+        }
+        if (value instanceof Character) {
+            return (Character) value;// 单个字符的字符串，hashCode 就是字符本身
+        }
+        return value.toString().hashCode();// Boolean.toString 返回的是常量，其它类型只能使用 toString
+    }
+    /**计算 Long.toString(value).hashCode()，不生成字符串。*/
+    static int hashOfLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            return MIN_HASH;
+        }
+        int hash = 0;
+        if (value < 0) {
+            hash = '-';
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            hash = 31 * hash + ('0' + (int) (value / divisor));
+            value = value % divisor;
+            divisor = divisor / 10;
+        }
+        return hash;
+    }
+    //
+    /** 路由表中的一项 */
+    private static class RouteEntry {
+        private final int                hash;
+        private final KeyPart[]          parts;
+        private final List<InterAddress> addresses;
+        RouteEntry(int hash, KeyPart[] parts, List<InterAddress> addresses) {
+            this.hash = hash;
+            this.parts = parts;
+            this.addresses = addresses;
+        }
+        boolean matches(Object[] values) {
+            for (int i = 0; i < this.parts.length; i++) {
+                if (!this.parts[i].matches(values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    /** 路由 key 中的一段，编译时预先解析出数值形式 */
+    private static class KeyPart {
+        private final String  text;
+        private final int     hash;
+        private final boolean numeric;
+        private final long    longValue;
+        KeyPart(String text) {
+            this.text = text;
+            this.hash = text.hashCode();
+            long longValue = 0;
+            boolean numeric = false;
+            try {
+                longValue = Long.parseLong(text);
+                numeric = Long.toString(longValue).equals(text);// "007" 这类写法和数值 7 的字符串形式不同，不按数值比较
+            } catch (NumberFormatException e) {
+                /**/
+            }
+            this.numeric = numeric;
+            this.longValue = longValue;
+        }
+        boolean matches(Object value) {
+            if (value == null) {
+                return "null".equals(this.text);
+            }
+            if (value instanceof String) {
+                return this.text.equals(value);
+            }
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                return this.numeric && this.longValue == ((Number) value).longValue();
+            }
+            if (value instanceof Enum) {
+                return this.text.equals(((Enum<?>) value).name());
+            }
+            if (value instanceof Character) {
+                return this.text.length() == 1 && this.text.charAt(0) == (Character) value;
+            }
+            return this.text.equals(value.toString());
+        }
+    }
+    /** 参与路由计算的参数：参数位置 + 字段路径 */
+    private static class ArgsField {
+        private final int        argIndex;
+        private final String[]   path;
+        private final FieldRef[] fieldCache;
+        private ArgsField(int argIndex, String[] path) {
+            this.argIndex = argIndex;
+            this.path = path;
+            this.fieldCache = new FieldRef[path.length];
+        }
+        static ArgsField parse(String declare) {
+            if (StringUtils.isBlank(declare)) {
+                throw new IllegalArgumentException("args declare is empty.");
+            }
+            String[] items = declare.split("\\.");
+            int argIndex;
+            try {
+                argIndex = Integer.parseInt(items[0].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("args index format error -> " + declare);
+            }
+            if (argIndex < 0) {
+                throw new IllegalArgumentException("args index must be >= 0 -> " + declare);
+            }
+            String[] path = new String[items.length - 1];
+            for (int i = 1; i < items.length; i++) {
+                path[i - 1] = items[i].trim();
+            }
+            return new ArgsField(argIndex, path);
+        }
+        Object extract(Object[] args) {
+            if (args == null || this.argIndex >= args.length) {
+                return null;
+            }
+            Object value = args[this.argIndex];
+            for (int i = 0; i < this.path.length && value != null; i++) {
+                value = this.readProperty(i, value);
+            }
+            return value;
+        }
+        private Object readProperty(int depth, Object target) {
+            if (target instanceof Map) {
+                return ((Map<?, ?>) target).get(this.path[depth]);
+            }
+            FieldRef fieldRef = this.fieldCache[depth];
+            if (fieldRef == null || fieldRef.type != target.getClass()) {
+                fieldRef = new FieldRef(target.getClass(), this.path[depth]);
+                this.fieldCache[depth] = fieldRef;// FieldRef 不可变，多线程下重复创建也没有关系
+            }
+            if (fieldRef.field == null) {
+                return null;
+            }
+            try {
+                return fieldRef.field.get(target);
+            } catch (IllegalAccessException e) {
+                return null;
+            }
+        }
+    }
+    /** 缓存某个类型上的字段 */
+    private static class FieldRef {
+        private final Class<?> type;
+        private final Field    field;
+        FieldRef(Class<?> type, String fieldName) {
+            this.type = type;
+            this.field = findField(type, fieldName);
+        }
+        private static Field findField(Class<?> type, String fieldName) {
+            for (Class<?> atType = type; atType != null && atType != Object.class; atType = atType.getSuperclass()) {
+                try {
+                    Field field = atType.getDeclaredField(fieldName);
+                    field.setAccessible(true);
+                    return field;
+                } catch (NoSuchFieldException e) {
+                    /**/
+                } catch (SecurityException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+    //
+    /**
+     * 一个服务的参数级路由表，编译时把各个方法按方法名散列放入开放寻址表。
+     * tips：同名方法有多个声明时，先加入的那个生效（和按顺序查找的结果一致）。
+     */
+    public static class MethodTable {
+        private final ArgsRouteIndex[] indexes;
+        private final int[]            table;  // 开放寻址表，值为 indexes 的下标 + 1
+        public MethodTable(ArgsRouteIndex[] indexes) {
+            this.indexes = indexes;
+            int size = 2;
+            while (size < indexes.length * 2) {
+                size <<= 1;
+            }
+            this.table = new int[size];
+            int mask = size - 1;
+            for (int i = 0; i < indexes.length; i++) {
+                int index = indexes[i].methodName.hashCode() & mask;
+                while (this.table[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                this.table[index] = i + 1;
+            }
+        }
+        /**方法数*/
+        public int size() {
+            return this.indexes.length;
+        }
+        /**查找方法（方法名通常来自 Method.getName()，因此先比较引用），没有找到返回 null。*/
+        public ArgsRouteIndex findMethod(String methodName) {
+            if (methodName == null) {
+                return null;
+            }
+            int mask = this.table.length - 1;
+            for (int index = methodName.hashCode() & mask; this.table[index] != 0; index = (index + 1) & mask) {
+                ArgsRouteIndex routeIndex = this.indexes[this.table[index] - 1];
+                if (routeIndex.methodName == methodName || routeIndex.methodName.equals(methodName)) {
+                    return routeIndex;
+                }
+            }
+            return null;
+        }
+        /**去掉已经不可用的地址，见 {@link ArgsRouteIndex#retain(Set)}。*/
+        public MethodTable retain(Set<InterAddress> available) {
+            ArgsRouteIndex[] indexes = new ArgsRouteIndex[this.indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = this.indexes[i].retain(available);
+            }
+            return new MethodTable(indexes);
+        }
+    }
+}
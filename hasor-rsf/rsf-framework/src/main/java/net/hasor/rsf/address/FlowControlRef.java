@@ -15,6 +15,7 @@
  */
 package net.hasor.rsf.address;
 import net.hasor.rsf.RsfEnvironment;
+import net.hasor.rsf.address.route.flowcontrol.SelectFlowControl;
 import net.hasor.rsf.address.route.flowcontrol.random.RandomFlowControl;
 import net.hasor.rsf.address.route.flowcontrol.speed.SpeedFlowControl;
 import net.hasor.rsf.address.route.flowcontrol.unit.UnitFlowControl;
@@ -36,7 +37,7 @@ public class FlowControlRef {
     private static RuleParser ruleParser;
     public String            flowControlScript = null;
     public UnitFlowControl   unitFlowControl   = null; //单元规则
-    public RandomFlowControl randomFlowControl = null; //地址选取规则
+    public SelectFlowControl selectFlowControl = null; //地址选取规则（负载均衡）
     public SpeedFlowControl  speedFlowControl  = null; //QoS速率规则
     //
     private FlowControlRef(RsfEnvironment rsfEnvironment) {
@@ -89,8 +90,8 @@ public class FlowControlRef {
             /*  */
             if (rule instanceof UnitFlowControl) {
                 this.unitFlowControl = (UnitFlowControl) rule; /*单元规则*/
-            } else if (rule instanceof RandomFlowControl) {
-                this.randomFlowControl = (RandomFlowControl) rule;/*选址规则*/
+            } else if (rule instanceof SelectFlowControl && rule.enable()) {
+                this.selectFlowControl = (SelectFlowControl) rule;/*选址规则*/
             } else if (rule instanceof SpeedFlowControl) {
                 this.speedFlowControl = (SpeedFlowControl) rule; /*速率规则*/
             }
@@ -107,8 +108,8 @@ public class FlowControlRef {
         if (ref.unitFlowControl != null) {
             newRef.unitFlowControl = ref.unitFlowControl;
         }
-        if (ref.randomFlowControl != null) {
-            newRef.randomFlowControl = ref.randomFlowControl;
+        if (ref.selectFlowControl != null) {
+            newRef.selectFlowControl = ref.selectFlowControl;
         }
         if (ref.speedFlowControl != null) {
             newRef.speedFlowControl = ref.speedFlowControl;
@@ -117,7 +118,7 @@ public class FlowControlRef {
     }
     public static final FlowControlRef defaultRef(RsfEnvironment rsfEnvironment) {
         FlowControlRef flowControlRef = new FlowControlRef(rsfEnvironment);
-        flowControlRef.randomFlowControl = new RandomFlowControl();
+        flowControlRef.selectFlowControl = new RandomFlowControl();
         flowControlRef.speedFlowControl = SpeedFlowControl.defaultControl(rsfEnvironment);
         return flowControlRef;
     }
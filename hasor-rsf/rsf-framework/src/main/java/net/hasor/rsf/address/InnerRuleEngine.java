@@ -34,11 +34,16 @@ class InnerRuleEngine {
     private volatile       String                  ruleScript = null; //规则脚本
     private volatile       String                  signature  = null; //脚本内容签名，用于校验是否发生变化
     private volatile       RuleGroovyScriptFace<?> runScript  = null; //调用程序
+    private volatile       int                     version    = 0;    //脚本版本，每次脚本变化时递增
     //
     //
     public boolean isEnable() {
         return runScript != null;
     }
+    /**脚本版本，用于判断路由计算结果是否需要重新计算。*/
+    public int getVersion() {
+        return this.version;
+    }
     public synchronized boolean update(String ruleScript) {
         //1.空内容判断
         if (StringUtils.isBlank(ruleScript)) {
@@ -63,7 +68,9 @@ class InnerRuleEngine {
         try {
             if (StringUtils.isBlank(ruleScript)) {
                 this.ruleScript = null;
+                this.runScript = null;
                 this.signature = signature;
+                this.version++;
                 return true;
             }
             ScriptEngine engine = new GroovyScriptEngineImpl();
@@ -73,6 +80,7 @@ class InnerRuleEngine {
             //
             this.ruleScript = ruleScript;
             this.signature = signature;
+            this.version++;
             return true;
         } catch (Throwable e) {
             if (e instanceof ScriptException) {
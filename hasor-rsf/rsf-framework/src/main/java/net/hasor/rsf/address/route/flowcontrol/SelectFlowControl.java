@@ -0,0 +1,41 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.address.route.flowcontrol;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.address.AddressMetrics;
+import net.hasor.rsf.address.route.rule.AbstractRule;
+
+import java.util.List;
+/**
+ * 地址选取规则，从一组备选地址中选取一个地址。不同的实现对应不同的负载均衡策略：
+ * <ul>
+ *  <li>random：随机</li>
+ *  <li>weight：加权轮询</li>
+ *  <li>active：两次随机选择，取在途请求少的一个</li>
+ *  <li>latency：两次随机选择，取（平均耗时 x 在途请求）小的一个</li>
+ * </ul>
+ * tips：实现类不允许加锁，随机数使用线程本地的随机数生成器。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public abstract class SelectFlowControl extends AbstractRule {
+    /**
+     * 选取备选地址中的一个地址。
+     * @param addresses 备选地址
+     * @param metrics 备选地址上的调用统计
+     */
+    public abstract InterAddress getServiceAddress(List<InterAddress> addresses, AddressMetrics metrics);
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.address.route.flowcontrol.active;
+import io.netty.util.internal.ThreadLocalRandom;
+import net.hasor.core.Settings;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.address.AddressMetrics;
+import net.hasor.rsf.address.route.flowcontrol.SelectFlowControl;
+
+import java.util.List;
+/**
+ * 最少在途请求，随机选出两个地址，选取其中在途请求较少的一个（power of two choices）。
+ * <pre>
+ * 配置实例：
+ * &lt;flowControl enable="true|false" type="active"&gt;
+ * &lt;/flowControl&gt;
+ * </pre>
+ * 解释：相比于在所有地址中选取最小值，两次随机选择不需要遍历地址列表，并且可以避免大量请求同时涌向同一个最空闲的地址。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class LeastActiveFlowControl extends SelectFlowControl {
+    @Override
+    public void paserControl(Settings settings) {
+    }
+    //
+    @Override
+    public InterAddress getServiceAddress(List<InterAddress> addresses, AddressMetrics metrics) {
+        if ((addresses == null) || (addresses.size() == 0)) {
+            return null;
+        }
+        int size = addresses.size();
+        if (size == 1) {
+            return addresses.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int indexA = random.nextInt(size);
+        int indexB = random.nextInt(size - 1);
+        if (indexB >= indexA) {
+            indexB++;
+        }
+        InterAddress addressA = addresses.get(indexA);
+        InterAddress addressB = addresses.get(indexB);
+        if (metrics == null) {
+            return addressA;
+        }
+        return metrics.getActive(addressB) < metrics.getActive(addressA) ? addressB : addressA;
+    }
+}
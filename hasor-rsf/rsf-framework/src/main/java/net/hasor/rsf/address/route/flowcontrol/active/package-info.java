@@ -13,12 +13,7 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package net.hasor.land.node;
 /**
- * 同步操作 Operation
- * @version : 2016年09月10日
- * @author 赵永春 (zyc@hasor.net)
+ * 流控规则：最少在途请求选址。
  */
-public interface RunLock {
-    public void run(Operation object);
-}
\ No newline at end of file
+package net.hasor.rsf.address.route.flowcontrol.active;
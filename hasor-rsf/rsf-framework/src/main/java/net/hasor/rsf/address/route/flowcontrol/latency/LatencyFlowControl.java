@@ -0,0 +1,68 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.address.route.flowcontrol.latency;
+import io.netty.util.internal.ThreadLocalRandom;
+import net.hasor.core.Settings;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.address.AddressMetrics;
+import net.hasor.rsf.address.route.flowcontrol.SelectFlowControl;
+
+import java.util.List;
+/**
+ * 基于响应耗时的选址，随机选出两个地址，选取其中负载较低的一个，负载 = 平均响应耗时(EWMA) x (在途请求数 + 1)。
+ * <pre>
+ * 配置实例：
+ * &lt;flowControl enable="true|false" type="latency"&gt;
+ * &lt;/flowControl&gt;
+ * </pre>
+ * 解释：响应变慢的地址负载会升高，从而自动减少分配给它的请求；还没有耗时样本的地址负载为 0，会优先被选中用于探测。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class LatencyFlowControl extends SelectFlowControl {
+    @Override
+    public void paserControl(Settings settings) {
+    }
+    //
+    @Override
+    public InterAddress getServiceAddress(List<InterAddress> addresses, AddressMetrics metrics) {
+        if ((addresses == null) || (addresses.size() == 0)) {
+            return null;
+        }
+        int size = addresses.size();
+        if (size == 1) {
+            return addresses.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int indexA = random.nextInt(size);
+        int indexB = random.nextInt(size - 1);
+        if (indexB >= indexA) {
+            indexB++;
+        }
+        InterAddress addressA = addresses.get(indexA);
+        InterAddress addressB = addresses.get(indexB);
+        if (metrics == null) {
+            return addressA;
+        }
+        return load(metrics.findMetric(addressB)) < load(metrics.findMetric(addressA)) ? addressB : addressA;
+    }
+    private static long load(AddressMetrics.Metric metric) {
+        if (metric == null) {
+            return 0;
+        }
+        return metric.getLatency() * (metric.getActive() + 1);
+    }
+}
@@ -14,12 +14,13 @@
  * limitations under the License.
  */
 package net.hasor.rsf.address.route.flowcontrol.random;
+import io.netty.util.internal.ThreadLocalRandom;
 import net.hasor.core.Settings;
 import net.hasor.rsf.InterAddress;
-import net.hasor.rsf.address.route.rule.AbstractRule;
+import net.hasor.rsf.address.AddressMetrics;
+import net.hasor.rsf.address.route.flowcontrol.SelectFlowControl;
 
 import java.util.List;
-import java.util.Random;
 /**
  * 对于一组备选地址，通过随机的方式选取其中一个地址。
  * <pre>
@@ -27,17 +28,19 @@ import java.util.Random;
  * &lt;flowControl enable="true|false" type="random"&gt;
  * &lt;/flowControl&gt;
  * </pre>
+ * tips：使用线程本地的随机数生成器，多线程选址时不会在同一个 Random 上竞争。
  * @version : 2015年4月6日
  * @author 赵永春 (zyc@hasor.net)
  */
-public class RandomFlowControl extends AbstractRule {
-    private Random random = new Random();
-    //
+public class RandomFlowControl extends SelectFlowControl {
     @Override
     public void paserControl(Settings settings) {
-        this.random = new Random(System.currentTimeMillis());
     }
     //
+    @Override
+    public InterAddress getServiceAddress(List<InterAddress> addresses, AddressMetrics metrics) {
+        return this.getServiceAddress(addresses);
+    }
     /**使用随机规则选取备选地址中的一个地址。*/
     public InterAddress getServiceAddress(List<InterAddress> addresses) {
         if ((addresses == null) || (addresses.size() == 0)) {
@@ -47,7 +50,7 @@ public class RandomFlowControl extends AbstractRule {
         if (size == 1) {
             return addresses.get(0);
         }
-        int index = this.random.nextInt(size);
+        int index = ThreadLocalRandom.current().nextInt(size);
         return addresses.get(index);
     }
 }
\ No newline at end of file
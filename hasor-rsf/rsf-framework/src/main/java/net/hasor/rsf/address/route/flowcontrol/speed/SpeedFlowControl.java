@@ -31,6 +31,7 @@ import java.util.concurrent.ConcurrentMap;
  *   &lt;rate&gt;20&lt;/rate&gt;             &lt;!-- 稳态速率 --&gt
  *   &lt;peak&gt;100&lt;/peak&gt;            &lt;!-- 峰值速率 --&gt
  *   &lt;timeWindow&gt;10&lt;/timeWindow&gt; &lt;!-- 时间窗口 --&gt
+ *   &lt;maxWait&gt;100&lt;/maxWait&gt;       &lt;!-- 取不到令牌时最长等待时间（毫秒），0 表示立即失败 --&gt
  * &lt;/flowControl&gt;
  * </pre>
  * 解释：根据action的配置决定RPC调用速率。
@@ -40,6 +41,7 @@ public class SpeedFlowControl extends AbstractRule {
     private int rate       = 20;
     private int peak       = 200;
     private int timeWindow = 10;
+    private int maxWait    = 100;
     private QoSBucket                        defaultQoSBucket;
     private ConcurrentMap<String, QoSBucket> qosBucketMap;
     //
@@ -49,6 +51,7 @@ public class SpeedFlowControl extends AbstractRule {
         this.rate = settings.getInteger("flowControl.rate");
         this.peak = settings.getInteger("flowControl.peak");
         this.timeWindow = settings.getInteger("flowControl.timeWindow");
+        this.maxWait = settings.getInteger("flowControl.maxWait", 100);
         this.qosBucketMap = new ConcurrentHashMap<String, QoSBucket>();
         //
         if (this.action == null) {
@@ -67,6 +70,10 @@ public class SpeedFlowControl extends AbstractRule {
         }
         defaultQoSBucket = qosBucket;
     }
+    /** 取不到令牌时最长等待时间（毫秒），0 表示立即失败。*/
+    public int getMaxWait() {
+        return this.maxWait;
+    }
     //
     public boolean callCheck(String serviceID, String methodName, InterAddress doCallAddress) {
         if (!this.enable()) {
@@ -110,6 +117,7 @@ public class SpeedFlowControl extends AbstractRule {
         flowControl.rate = rsfSettings.getInteger("hasor.rsfConfig.defaultSpeedFlowControl.rate");
         flowControl.peak = rsfSettings.getInteger("hasor.rsfConfig.defaultSpeedFlowControl.peak");
         flowControl.timeWindow = rsfSettings.getInteger("hasor.rsfConfig.defaultSpeedFlowControl.timeWindow");
+        flowControl.maxWait = rsfSettings.getInteger("hasor.rsfConfig.defaultSpeedFlowControl.maxWait", 100);
         return flowControl;
     }
 }
\ No newline at end of file
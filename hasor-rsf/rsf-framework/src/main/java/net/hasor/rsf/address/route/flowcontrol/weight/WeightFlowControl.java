@@ -0,0 +1,152 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.address.route.flowcontrol.weight;
+import io.netty.util.internal.ThreadLocalRandom;
+import net.hasor.core.Settings;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.address.AddressMetrics;
+import net.hasor.rsf.address.route.flowcontrol.SelectFlowControl;
+import net.hasor.utils.StringUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * 加权轮询，按照地址的权重比例依次选取地址。
+ * <pre>
+ * 配置实例：
+ * &lt;flowControl enable="true|false" type="weight"&gt;
+ *   &lt;defaultWeight&gt;100&lt;/defaultWeight&gt;
+ *   &lt;weights&gt;192.168.1.1:2180=200,192.168.1.2:2180=50&lt;/weights&gt;
+ * &lt;/flowControl&gt;
+ * </pre>
+ * 解释：没有单独配置权重的地址使用 defaultWeight，权重为 0 的地址不会被选中。
+ * tips：轮询序号使用 AtomicLong 递增，序号乘以一个和总权重互质的步长再对总权重取模，
+ *      这样在一个周期内每个地址被选中的次数等于其权重，并且不同地址交替出现而不是连续出现。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class WeightFlowControl extends SelectFlowControl {
+    private          int                  defaultWeight = 100;
+    private          Map<String, Integer> weightMap     = new HashMap<String, Integer>();
+    private final    AtomicLong           sequence      = new AtomicLong(0);
+    private volatile WeightTable          weightTable   = null;
+    //
+    @Override
+    public void paserControl(Settings settings) {
+        this.enable(settings.getBoolean("flowControl.enable"));
+        this.defaultWeight = settings.getInteger("flowControl.defaultWeight", 100);
+        Map<String, Integer> weightMap = new HashMap<String, Integer>();
+        String weights = settings.getString("flowControl.weights");
+        if (StringUtils.isNotBlank(weights)) {
+            for (String item : weights.split(",")) {
+                int index = item.lastIndexOf('=');
+                if (index <= 0) {
+                    continue;
+                }
+                try {
+                    weightMap.put(item.substring(0, index).trim(), Integer.parseInt(item.substring(index + 1).trim()));
+                } catch (NumberFormatException e) {
+                    logger.error("weight format error -> {}", item);
+                }
+            }
+        }
+        this.weightMap = weightMap;
+        this.weightTable = null;
+    }
+    /** 获取地址的权重 */
+    public int getWeight(InterAddress address) {
+        Integer weight = this.weightMap.get(address.getHostPort());
+        return Math.max(weight == null ? this.defaultWeight : weight, 0);
+    }
+    //
+    @Override
+    public InterAddress getServiceAddress(List<InterAddress> addresses, AddressMetrics metrics) {
+        if ((addresses == null) || (addresses.size() == 0)) {
+            return null;
+        }
+        if (addresses.size() == 1) {
+            return addresses.get(0);
+        }
+        //
+        WeightTable table = this.weightTable;
+        if (table == null || table.addresses != addresses) {
+            table = new WeightTable(addresses); // 地址列表发生变化（地址列表是缓存对象，变化时引用也会变化）
+            this.weightTable = table;
+        }
+        if (table.totalWeight <= 0) {
+            return addresses.get(ThreadLocalRandom.current().nextInt(addresses.size()));
+        }
+        long seq = this.sequence.getAndIncrement() & Long.MAX_VALUE;
+        int position = (int) ((seq % table.totalWeight) * table.step % table.totalWeight);
+        return addresses.get(table.indexOf(position));
+    }
+    //
+    /** 地址列表对应的权重前缀和 */
+    private class WeightTable {
+        private final List<InterAddress> addresses;
+        private final int[]              prefixWeight;
+        private final int                totalWeight;
+        private final long               step;
+        //
+        WeightTable(List<InterAddress> addresses) {
+            this.addresses = addresses;
+            this.prefixWeight = new int[addresses.size()];
+            int total = 0;
+            for (int i = 0; i < addresses.size(); i++) {
+                total += getWeight(addresses.get(i));
+                this.prefixWeight[i] = total;
+            }
+            this.totalWeight = total;
+            this.step = coprimeStep(total);
+        }
+        /** 第一个前缀和大于 position 的地址 */
+        int indexOf(int position) {
+            int low = 0;
+            int high = this.prefixWeight.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.prefixWeight[mid] > position) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+    /** 在总权重的 0.618 附近寻找一个和总权重互质的步长 */
+    private static long coprimeStep(int total) {
+        if (total <= 2) {
+            return 1;
+        }
+        for (int step = Math.max((int) (total * 0.618), 1); step < total; step++) {
+            if (gcd(step, total) == 1) {
+                return step;
+            }
+        }
+        return 1;
+    }
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
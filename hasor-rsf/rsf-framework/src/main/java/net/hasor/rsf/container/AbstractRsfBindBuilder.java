@@ -90,6 +90,7 @@ abstract class AbstractRsfBindBuilder implements RsfPublisher {
             domain.setBindVersion(serviceInfo.version());
             domain.setSerializeType(serviceInfo.serializeType());
             domain.setClientTimeout(serviceInfo.clientTimeout());
+            domain.setConnections(serviceInfo.connections());
         }
         //
         @Override
@@ -140,6 +141,15 @@ abstract class AbstractRsfBindBuilder implements RsfPublisher {
         }
         //
         @Override
+        public ConfigurationBuilder<T> connections(int connections) {
+            if (connections < 1) {
+                throw new IllegalStateException("connections must be greater than 0");
+            }
+            this.serviceDefine.getDomain().setConnections(connections);
+            return this;
+        }
+        //
+        @Override
         public ConfigurationBuilder<T> serialize(String serializeType) {
             Hasor.assertIsNotNull(serializeType, "serializeType is null.");
             if (serializeType.contains("/")) {
@@ -29,6 +29,7 @@ class AnnoRsfServiceValue implements RsfService {
     private String serviceVersion = null;
     private int    clientTimeout  = 0;
     private String serializeType  = null;
+    private int    connections    = 0;
     //
     public AnnoRsfServiceValue(RsfSettings rsfSettings, Class<?> serviceType) {
         //1.真实值
@@ -49,6 +50,9 @@ class AnnoRsfServiceValue implements RsfService {
             if (serviceInfo.clientTimeout() > 0) {
                 this.clientTimeout = serviceInfo.clientTimeout();
             }
+            if (serviceInfo.connections() > 0) {
+                this.connections = serviceInfo.connections();
+            }
         }
         //2.默认值
         if (StringUtils.isBlank(this.serviceGroup)) {
@@ -66,6 +70,9 @@ class AnnoRsfServiceValue implements RsfService {
         if (this.clientTimeout < 1) {
             this.clientTimeout = rsfSettings.getDefaultTimeout();
         }
+        if (this.connections < 1) {
+            this.connections = rsfSettings.getConnectionsPerHost();
+        }
     }
     //
     @Override
@@ -92,4 +99,8 @@ class AnnoRsfServiceValue implements RsfService {
     public String serializeType() {
         return this.serializeType;
     }
+    @Override
+    public int connections() {
+        return this.connections;
+    }
 }
\ No newline at end of file
@@ -22,6 +22,7 @@ import net.hasor.rsf.domain.ProtocolStatus;
 import net.hasor.rsf.domain.RsfEvent;
 import net.hasor.rsf.domain.RsfException;
 import net.hasor.rsf.domain.RsfServiceType;
+import net.hasor.rsf.rpc.caller.MethodDispatcher;
 import net.hasor.utils.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +44,7 @@ public class RsfBeanContainer {
     private final Object                                               filterLock;
     private final AddressPool                                          addressPool;
     private final ConcurrentMap<String, Provider<RsfFilter>[]>         filterCache;
+    private final ConcurrentMap<String, MethodDispatcher>              dispatcherCache;
     //
     public RsfBeanContainer(AddressPool addressPool) {
         this.serviceMap = new ConcurrentHashMap<String, ServiceDefine<?>>();
@@ -51,6 +53,7 @@ public class RsfBeanContainer {
         this.filterLock = new Object();
         this.addressPool = addressPool;
         this.filterCache = new ConcurrentHashMap<String, Provider<RsfFilter>[]>();
+        this.dispatcherCache = new ConcurrentHashMap<String, MethodDispatcher>();
     }
     /**
      * 计算指定服务上配置的过滤器。{@link RsfFilter}按照配置方式分为共有和私有。
@@ -98,6 +101,20 @@ public class RsfBeanContainer {
         }
         return result;
     }
+    /**
+     * 获取服务的方法调用器，调用器随容器一起回收，服务被回收时一同删除。
+     * @param rsfBindInfo 服务元信息。
+     */
+    public MethodDispatcher getMethodDispatcher(RsfBindInfo<?> rsfBindInfo) {
+        String serviceID = rsfBindInfo.getBindID();
+        MethodDispatcher dispatcher = this.dispatcherCache.get(serviceID);
+        if (dispatcher == null) {
+            dispatcher = MethodDispatcher.newDispatcher(rsfBindInfo.getBindType());
+            MethodDispatcher oldDispatcher = this.dispatcherCache.putIfAbsent(serviceID, dispatcher);
+            dispatcher = (oldDispatcher == null) ? dispatcher : oldDispatcher;
+        }
+        return dispatcher;
+    }
     /**
      * 根据服务id获取服务对象。如果服务未定义或者服务未声明提供者，则返回null。
      * @param rsfBindInfo 服务ID。
@@ -190,6 +207,10 @@ public class RsfBeanContainer {
     public RsfEnvironment getEnvironment() {
         return this.addressPool.getRsfEnvironment();
     }
+    /**获取地址池。*/
+    public AddressPool getAddressPool() {
+        return this.addressPool;
+    }
     //
     /* ----------------------------------------------------------------------------------------- */
     //
@@ -306,6 +327,7 @@ public class RsfBeanContainer {
             //
             // .回收服务
             this.serviceMap.remove(serviceID);
+            this.dispatcherCache.remove(serviceID);
             //
             for (Map.Entry<String, ConcurrentMap<String, String>> aliasEntry : this.aliasNameMap.entrySet()) {
                 ConcurrentMap<String, String> aliasSet = aliasEntry.getValue();
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.domain;
+/**
+ * 延迟反序列化的数据，由解码器在 I/O 线程上创建，在业务线程（或调用者线程）上解码。
+ * <p>解码结果写回到创建它的 {@link RequestInfo} 或 {@link ResponseInfo} 中。
+ * 它可能引用着网络数据包，解码之后或者不再需要时必须调用 {@link #release()}，重复调用 release 没有影响。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public interface LazyPayload {
+    /**解码数据，并写回到所属的 RequestInfo 或 ResponseInfo 中。*/
+    public void decode() throws Throwable;
+
+    /**释放引用的网络数据包。*/
+    public void release();
+}
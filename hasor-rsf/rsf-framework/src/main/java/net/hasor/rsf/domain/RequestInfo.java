@@ -34,6 +34,7 @@ public class RequestInfo extends OptionInfo {
     private boolean      isMessage      = false;//是否为消息请求
     private List<String> paramTypes     = null; //参数类型
     private List<Object> paramValues    = null; //参数值
+    private LazyPayload  lazyPayload    = null; //延迟反序列化的参数
     //
     //
     public RequestInfo() {
@@ -142,4 +143,34 @@ public class RequestInfo extends OptionInfo {
     public List<Object> getParameterValues() {
         return this.paramValues;
     }
+    //
+    /**设置延迟反序列化的参数，在 {@link #decodePayload()} 时解码。*/
+    public void setLazyPayload(LazyPayload lazyPayload) {
+        this.lazyPayload = lazyPayload;
+    }
+    /**是否还有没有解码的参数。*/
+    public boolean hasLazyPayload() {
+        return this.lazyPayload != null;
+    }
+    /**解码延迟反序列化的参数（只会解码一次），无论成功与否都会释放引用的网络数据包。*/
+    public synchronized void decodePayload() throws Throwable {
+        LazyPayload payload = this.lazyPayload;
+        if (payload == null) {
+            return;
+        }
+        this.lazyPayload = null;
+        try {
+            payload.decode();
+        } finally {
+            payload.release();
+        }
+    }
+    /**放弃没有解码的参数，释放引用的网络数据包。*/
+    public synchronized void releasePayload() {
+        LazyPayload payload = this.lazyPayload;
+        if (payload != null) {
+            this.lazyPayload = null;
+            payload.release();
+        }
+    }
 }
\ No newline at end of file
@@ -26,6 +26,7 @@ public class ResponseInfo extends OptionInfo {
     private String serializeType = null; //序列化类型
     private String returnType    = null; //返回数据类型
     private Object returnData    = null; //返回数据
+    private LazyPayload lazyPayload   = null; //延迟反序列化的返回值
     //
     //
     /**获取请求ID。*/
@@ -81,4 +82,34 @@ public class ResponseInfo extends OptionInfo {
     public void setReturnData(Object returnData) {
         this.returnData = returnData;
     }
+    //
+    /**设置延迟反序列化的返回值，在 {@link #decodePayload()} 时解码。*/
+    public void setLazyPayload(LazyPayload lazyPayload) {
+        this.lazyPayload = lazyPayload;
+    }
+    /**是否还有没有解码的返回值。*/
+    public boolean hasLazyPayload() {
+        return this.lazyPayload != null;
+    }
+    /**解码延迟反序列化的返回值（只会解码一次），无论成功与否都会释放引用的网络数据包。*/
+    public synchronized void decodePayload() throws Throwable {
+        LazyPayload payload = this.lazyPayload;
+        if (payload == null) {
+            return;
+        }
+        this.lazyPayload = null;
+        try {
+            payload.decode();
+        } finally {
+            payload.release();
+        }
+    }
+    /**放弃没有解码的返回值，释放引用的网络数据包。*/
+    public synchronized void releasePayload() {
+        LazyPayload payload = this.lazyPayload;
+        if (payload != null) {
+            this.lazyPayload = null;
+            payload.release();
+        }
+    }
 }
\ No newline at end of file
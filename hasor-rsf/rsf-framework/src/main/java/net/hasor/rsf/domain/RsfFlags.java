@@ -21,6 +21,7 @@ package net.hasor.rsf.domain;
  */
 public enum RsfFlags {
     P2PFlag((short) 0),      // 第0位，P2P调用
+    NoAcceptFlag((short) 1), // 第1位，Invoke 调用不需要 Accept 应答（握手时双方协商）
     ;
     private int flagMark;
     RsfFlags(short flagMark) {
@@ -37,6 +37,7 @@ public class ServiceDomain<T> extends MetaDataAdapter implements RsfBindInfo<T>
     private boolean             asShadow           = false;     // 是否为消息接口
     private boolean             isSharedThreadPool = true;      // 是否共享调用线程池(提供者)
     private int                 clientTimeout      = 6000;      // 调用超时（毫秒）
+    private int                 connections        = 1;         // 和每个远程地址之间的连接数
     private String              serializeType      = null;      // 传输序列化类型
     private RsfServiceType      serviceType        = null;      // 服务类型（提供者 or 消费者）
     private Set<String>         bindProtocols      = null;      // 服务特殊置顶的协议类型
@@ -118,6 +119,14 @@ public class ServiceDomain<T> extends MetaDataAdapter implements RsfBindInfo<T>
     public void setClientTimeout(int clientTimeout) {
         this.clientTimeout = clientTimeout;
     }
+    /**获取客户端和每个远程地址之间建立的连接数。*/
+    public int getConnections() {
+        return this.connections;
+    }
+    /**设置客户端和每个远程地址之间建立的连接数。*/
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
     /**获取客户端使用的对象序列化格式。*/
     public String getSerializeType() {
         return this.serializeType;
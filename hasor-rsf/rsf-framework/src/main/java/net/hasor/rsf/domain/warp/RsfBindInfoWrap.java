@@ -84,6 +84,10 @@ public class RsfBindInfoWrap<T> implements RsfBindInfo<T> {
         return this.target.getClientTimeout();
     }
     @Override
+    public int getConnections() {
+        return this.target.getConnections();
+    }
+    @Override
     public String getSerializeType() {
         return this.target.getSerializeType();
     }
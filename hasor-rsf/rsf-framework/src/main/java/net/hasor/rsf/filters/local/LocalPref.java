@@ -16,6 +16,7 @@
 package net.hasor.rsf.filters.local;
 import net.hasor.core.Provider;
 import net.hasor.rsf.*;
+import net.hasor.rsf.rpc.caller.MethodDispatcher;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -32,13 +33,20 @@ public class LocalPref implements RsfFilter {
             RsfBindInfo<?> bindInfo = request.getBindInfo();
             Provider<?> provider = request.getContext().getServiceProvider(bindInfo);
             if (provider != null) {
-                String method = request.getMethod().getName();
-                Class<?>[] rParams = request.getParameterTypes();
+                Object target = provider.get();
                 Object[] rObjects = request.getParameterObject();
                 //
-                Method m = provider.get().getClass().getMethod(method, rParams);
+                MethodDispatcher dispatcher = request.getContext().getMethodDispatcher(bindInfo);
+                int methodIndex = dispatcher.indexOf(request.getMethod());
+                if (methodIndex >= 0) {
+                    response.sendData(dispatcher.invoke(target, methodIndex, rObjects));
+                    return;
+                }
+                String method = request.getMethod().getName();
+                Class<?>[] rParams = request.getParameterTypes();
+                Method m = target.getClass().getMethod(method, rParams);
                 try {
-                    response.sendData(m.invoke(provider.get(), rObjects));
+                    response.sendData(m.invoke(target, rObjects));
                 } catch (InvocationTargetException e) {
                     throw e.getTargetException();
                 }
@@ -36,6 +36,9 @@ public interface CodecAdapter {
     /**将{@link ByteBuf} 中读取{@link RequestInfo}信息。*/
     RequestInfo readRequestInfo(ByteBuf frame) throws Throwable;
 
+    /**将{@link ByteBuf} 中读取{@link RequestInfo}信息，lazy 为 true 时参数不在这里反序列化，而是交给 {@link RequestInfo#decodePayload()}。*/
+    RequestInfo readRequestInfo(ByteBuf frame, boolean lazy) throws Throwable;
+
     /**将{@link ResponseInfo},转换为{@link ResponseBlock}。*/
     ResponseBlock buildResponseBlock(ResponseInfo info) throws IOException;
 
@@ -44,4 +47,7 @@ public interface CodecAdapter {
 
     /**将{@link ByteBuf} 中读取{@link ResponseInfo}信息。*/
     ResponseInfo readResponseInfo(ByteBuf frame) throws Throwable;
+
+    /**将{@link ByteBuf} 中读取{@link ResponseInfo}信息，lazy 为 true 时返回值不在这里反序列化，而是交给 {@link ResponseInfo#decodePayload()}。*/
+    ResponseInfo readResponseInfo(ByteBuf frame, boolean lazy) throws Throwable;
 }
\ No newline at end of file
@@ -45,4 +45,16 @@ public interface ProtocolConstants {
     public static final byte RSF_MessageRequest        = Version_1 | RSF_Packet_MessageRequest; // 1010 0001
     public static final byte RSF_Response              = Version_1 | RSF_Packet_Response;       // 1011 0001
     public static final byte RSF_Options               = Version_1 | RSF_Packet_Options;        // 1100 0001
+    //
+    // 协议头2.0（连接级字符串字典，握手时协商启用）
+    public static final byte Version_2                 = (byte) (0x02);                         // 1000 0010
+    public static final byte RSF_InvokerRequest_V2     = Version_2 | RSF_Packet_InvokerRequest; // 1001 0010
+    public static final byte RSF_MessageRequest_V2     = Version_2 | RSF_Packet_MessageRequest; // 1010 0010
+    public static final byte RSF_Response_V2           = Version_2 | RSF_Packet_Response;       // 1011 0010
+    //
+    // 包头中的保留字节（第 10 个字节）的低 4 位表示包体的压缩算法，1.0 和 2.0 协议通用，握手时协商启用
+    public static final byte Compress_Mask             = (byte) (0x0F);
+    public static final byte Compress_None             = (byte) (0x00);
+    public static final byte Compress_Block            = (byte) (0x01);                         // LZ 块压缩
+    public static final byte Compress_Deflate          = (byte) (0x02);                         // JDK Deflater
 }
\ No newline at end of file
@@ -21,6 +21,9 @@ import net.hasor.rsf.RsfEnvironment;
 import net.hasor.rsf.domain.ProtocolStatus;
 import net.hasor.rsf.domain.RequestInfo;
 import net.hasor.rsf.domain.ResponseInfo;
+import net.hasor.rsf.protocol.rsf.compress.FrameCompress;
+import net.hasor.rsf.protocol.rsf.v2.CodecAdapterForV2;
+import net.hasor.rsf.protocol.rsf.v2.StringDictionary;
 import net.hasor.rsf.utils.ProtocolUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,8 +34,12 @@ import org.slf4j.LoggerFactory;
  */
 public class RsfDecoder extends LengthFieldBasedFrameDecoder implements ProtocolConstants {
     protected Logger logger = LoggerFactory.getLogger(getClass());
-    private RsfEnvironment rsfEnvironment;
-    private ClassLoader    classLoader;
+    private RsfEnvironment    rsfEnvironment;
+    private ClassLoader       classLoader;
+    private boolean           lazyDecode;     // I/O 线程只解析数据帧，参数和返回值交给业务线程反序列化
+    private CodecAdapterForV2 adapterV2;      // 持有对端发来方向的字符串字典
+    private int               maxBodyLength;  // 解压之后的数据包也不能超过这个大小
+    private boolean           broken;         // 连接已经无法继续解码（正在关闭），之后收到的数据全部丢弃
     //
     public RsfDecoder(RsfEnvironment rsfEnvironment, int maxBodyLength, ClassLoader classLoader) {
         // lengthFieldOffset   = 10
@@ -42,29 +49,74 @@ public class RsfDecoder extends LengthFieldBasedFrameDecoder implements Protocol
         super(maxBodyLength, 10, 3, 0, 0);
         this.rsfEnvironment = rsfEnvironment;
         this.classLoader = classLoader;
+        this.maxBodyLength = maxBodyLength;
+        this.lazyDecode = rsfEnvironment.getSettings().isLazyDecode();
+        this.adapterV2 = new CodecAdapterForV2(rsfEnvironment, classLoader, new StringDictionary(rsfEnvironment.getSettings().getDictionarySize()));
     }
     //
     /*解码*/
     protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        if (this.broken) {
+            in.skipBytes(in.readableBytes());
+            return null;
+        }
         ByteBuf frame = (ByteBuf) super.decode(ctx, in);
         if (frame == null) {
             return null;
         }
         //
-        //        try {
-        byte rsfHead = frame.getByte(0);//协议头
-        short status = this.doDecode(rsfHead, ctx, frame);//协议解析
-        if (status != ProtocolStatus.OK) {
-            frame = frame.resetReaderIndex().skipBytes(1);
-            long requestID = frame.readLong();
-            ResponseInfo info = ProtocolUtils.buildResponseStatus(this.rsfEnvironment, requestID, status, null);
-            ctx.pipeline().writeAndFlush(info);
+        // .压缩过的数据包先解压，解压之后和未压缩的数据包完全相同
+        if (FrameCompress.isCompressed(frame)) {
+            ByteBuf plainFrame;
+            try {
+                plainFrame = FrameCompress.decompressFrame(ctx.alloc(), frame, this.maxBodyLength);
+            } catch (Throwable e) {
+                // .压缩数据损坏时无法知道其中是什么数据包（2.0 的字典也因此和对端不再一致），只能关闭连接
+                logger.error("decompress frame error :" + e.getMessage(), e);
+                this.closeChannel(ctx, "decompress frame failed");
+                return null;
+            }
+            try {
+                this.decodeFrame(ctx, plainFrame);
+            } finally {
+                plainFrame.release();// 延迟解码时 Payload 自己会 retain
+            }
+            return null;
         }
+        //
+        //        try {
+        this.decodeFrame(ctx, frame);
         //        } finally {
         // IOUtils.releaseByteBuf(frame); // 外层调用这个方法的地方会执行释放
         //        }
         return null;
     }
+    private void decodeFrame(ChannelHandlerContext ctx, ByteBuf frame) {
+        byte rsfHead = frame.getByte(0);//协议头
+        // - RSF 2.0（只有握手时声明过字典容量，对端才会发送）
+        if ((rsfHead & 0x0F) == Version_2) {
+            // .字典随着每个数据包更新，任何一个数据包解码失败之后双方的字典都不再一致，这条连接上的后续数据包都无法解码
+            if (!this.doDecodeV2(rsfHead, ctx, frame)) {
+                this.closeChannel(ctx, "rsf 2.0 frame decode failed");
+            }
+            return;
+        }
+        short status = this.doDecode(rsfHead, ctx, frame);//协议解析
+        if (status != ProtocolStatus.OK) {
+            this.responseStatus(ctx, frame, status);
+        }
+    }
+    private void responseStatus(ChannelHandlerContext ctx, ByteBuf frame, short status) {
+        frame = frame.resetReaderIndex().skipBytes(1);
+        long requestID = frame.readLong();
+        ResponseInfo info = ProtocolUtils.buildResponseStatus(this.rsfEnvironment, requestID, status, null);
+        ctx.pipeline().writeAndFlush(info);
+    }
+    private void closeChannel(ChannelHandlerContext ctx, String reason) {
+        logger.error(reason + ", close the channel. ->" + ctx.channel().remoteAddress());
+        this.broken = true;
+        ctx.close();
+    }
     protected ByteBuf extractFrame(ChannelHandlerContext ctx, ByteBuf buffer, int index, int length) {
         return buffer.slice(index, length);
     }
@@ -75,7 +127,7 @@ public class RsfDecoder extends LengthFieldBasedFrameDecoder implements Protocol
         // - RSF_InvokerRequest
         if (RSF_InvokerRequest == rsfHead) {
             try {
-                RequestInfo info = factory.readRequestInfo(frame);//  <-1.解码二进制数据。
+                RequestInfo info = factory.readRequestInfo(frame, this.lazyDecode);//  <-1.解码二进制数据。
                 info.setReceiveTime(System.currentTimeMillis());//    <-2.设置接收时间戳
                 info.setMessage(false);
                 //
@@ -89,7 +141,7 @@ public class RsfDecoder extends LengthFieldBasedFrameDecoder implements Protocol
         // - RSF_MessageRequest
         if (RSF_MessageRequest == rsfHead) {
             try {
-                RequestInfo info = factory.readRequestInfo(frame);//  <-1.解码二进制数据。
+                RequestInfo info = factory.readRequestInfo(frame, this.lazyDecode);//  <-1.解码二进制数据。
                 info.setReceiveTime(System.currentTimeMillis());//    <-2.设置接收时间戳
                 info.setMessage(true);
                 //
@@ -103,7 +155,7 @@ public class RsfDecoder extends LengthFieldBasedFrameDecoder implements Protocol
         // RSF_Response
         if (RSF_Response == rsfHead) {
             try {
-                ResponseInfo info = factory.readResponseInfo(frame);//  <-1.解码二进制数据。
+                ResponseInfo info = factory.readResponseInfo(frame, this.lazyDecode);//  <-1.解码二进制数据。
                 info.setReceiveTime(System.currentTimeMillis());//      <-2.设置接收时间戳
                 ctx.fireChannelRead(info);
                 return ProtocolStatus.OK;/*正常处理后返回*/
@@ -114,4 +166,32 @@ public class RsfDecoder extends LengthFieldBasedFrameDecoder implements Protocol
         }
         return ProtocolStatus.ProtocolUndefined;
     }
-}
\ No newline at end of file
+    /**RSF 2.0 协议解析，解码失败时返回 false*/
+    private boolean doDecodeV2(byte rsfHead, ChannelHandlerContext ctx, ByteBuf frame) {
+        if (RSF_InvokerRequest_V2 == rsfHead || RSF_MessageRequest_V2 == rsfHead) {
+            try {
+                RequestInfo info = this.adapterV2.readRequestInfo(frame, this.lazyDecode);//  <-1.解码二进制数据。
+                info.setReceiveTime(System.currentTimeMillis());//    <-2.设置接收时间戳
+                //
+                ctx.fireChannelRead(info);
+                return true;/*正常处理后返回*/
+            } catch (Throwable e) {
+                logger.error("decode request error :" + e.getMessage(), e);
+                return false;
+            }
+        }
+        if (RSF_Response_V2 == rsfHead) {
+            try {
+                ResponseInfo info = this.adapterV2.readResponseInfo(frame, this.lazyDecode);//  <-1.解码二进制数据。
+                info.setReceiveTime(System.currentTimeMillis());//      <-2.设置接收时间戳
+                ctx.fireChannelRead(info);
+                return true;/*正常处理后返回*/
+            } catch (Throwable e) {
+                logger.error("decode response error :" + e.getMessage(), e);
+                return false;
+            }
+        }
+        logger.error("undefined rsf 2.0 frame, head = " + rsfHead);
+        return false;
+    }
+}
@@ -20,56 +20,105 @@ import io.netty.handler.codec.MessageToByteEncoder;
 import net.hasor.rsf.RsfEnvironment;
 import net.hasor.rsf.domain.RequestInfo;
 import net.hasor.rsf.domain.ResponseInfo;
+import net.hasor.rsf.protocol.rsf.compress.FrameCompress;
 import net.hasor.rsf.protocol.rsf.v1.PoolBlock;
 import net.hasor.rsf.protocol.rsf.v1.RequestBlock;
 import net.hasor.rsf.protocol.rsf.v1.ResponseBlock;
+import net.hasor.rsf.protocol.rsf.v2.CodecAdapterForV2;
+import net.hasor.rsf.protocol.rsf.v2.StringDictionary;
+import net.hasor.rsf.rpc.net.netty.NettyConnector;
+
+import java.io.IOException;
 /**
  * RSF 编码器，支持将{@link RequestInfo}、{@link RequestBlock}或者{@link ResponseInfo}、{@link ResponseBlock}编码写入Socket
+ * <p>握手时和对端协商好字符串字典之后，{@link RequestInfo}、{@link ResponseInfo} 使用 RSF 2.0 协议编码。</p>
+ * <p>握手时协商了压缩算法时，包体达到阈值的数据包压缩之后发送，见 {@link FrameCompress}。</p>
  * @version : 2014年10月10日
  * @author 赵永春 (zyc@hasor.net)
  */
 public class RsfEncoder extends MessageToByteEncoder<Object> implements ProtocolConstants {
-    private RsfEnvironment rsfEnvironment;
-    private ClassLoader    classLoader;
+    private RsfEnvironment    rsfEnvironment;
+    private ClassLoader       classLoader;
+    private CodecAdapterForV2 adapterV2; // 握手协商成功之后创建，持有发往对端方向的字符串字典
+    private int               compressThreshold;
     public RsfEncoder(RsfEnvironment rsfEnvironment, ClassLoader classLoader) {
         this.rsfEnvironment = rsfEnvironment;
         this.classLoader = classLoader;
+        this.compressThreshold = rsfEnvironment.getSettings().getCompressThreshold();
     }
     protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
         PoolBlock block = null;
+        int writerIndex = out.writerIndex();
         try {
+            // .RSF 2.0，字典的 ID 按编码顺序分配，编码在 Channel 的 EventLoop 上进行，顺序和写到网络上的顺序一致
+            CodecAdapterForV2 adapterV2 = this.getAdapterV2(ctx);
+            if (adapterV2 != null && (msg instanceof RequestInfo || msg instanceof ResponseInfo)) {
+                boolean committed = false;
+                try {
+                    if (msg instanceof RequestInfo) {
+                        adapterV2.writeRequestInfo((RequestInfo) msg, out);
+                    } else {
+                        adapterV2.writeResponseInfo((ResponseInfo) msg, out);
+                    }
+                    this.compressFrame(ctx, out, writerIndex);
+                    adapterV2.getDictionary().commit();
+                    committed = true;
+                } finally {
+                    if (!committed) {
+                        adapterV2.getDictionary().rollback();// 数据包没有写出，撤销这期间定义的字符串
+                    }
+                }
+                return;
+            }
+            //
             CodecAdapter factory = CodecAdapterFactory.getCodecAdapterByVersion(this.rsfEnvironment, this.classLoader, Version_1);
             if (msg instanceof RequestInfo) {
                 RequestInfo info = (RequestInfo) msg;
                 block = factory.buildRequestBlock(info);
                 factory.wirteRequestBlock((RequestBlock) block, out);
-                return;
-            }
-            if (msg instanceof ResponseInfo) {
+            } else if (msg instanceof ResponseInfo) {
                 ResponseInfo info = (ResponseInfo) msg;
                 block = factory.buildResponseBlock(info);
                 factory.wirteResponseBlock((ResponseBlock) block, out);
-                return;
-            }
-            if (msg instanceof RequestBlock) {
+            } else if (msg instanceof RequestBlock) {
                 /*=这个可有可无*/
                 block = (RequestBlock) msg;
                 factory.wirteRequestBlock((RequestBlock) block, out);
-                return;
-            }
-            if (msg instanceof ResponseBlock) {
+            } else if (msg instanceof ResponseBlock) {
                 /*=这个可有可无*/
                 block = (ResponseBlock) msg;
                 factory.wirteResponseBlock((ResponseBlock) block, out);
+            } else {
                 return;
             }
+            this.compressFrame(ctx, out, writerIndex);
         } catch (Exception e) {
+            out.writerIndex(writerIndex);// 不写出不完整的数据包
             ctx.fireExceptionCaught(e);
         } finally {
-            ctx.flush();
             if (block != null) {
                 block.release();
             }
         }
     }
+    /** 握手时协商了压缩算法，并且包体达到阈值时压缩刚写入的数据包 */
+    private void compressFrame(ChannelHandlerContext ctx, ByteBuf out, int frameIndex) throws IOException {
+        Byte compressType = ctx.channel().attr(NettyConnector.COMPRESS_TYPE).get();
+        if (compressType == null || compressType == Compress_None) {
+            return;
+        }
+        if (out.writerIndex() - frameIndex - 13 >= this.compressThreshold) {
+            FrameCompress.compressFrame(ctx.alloc(), out, frameIndex, compressType);
+        }
+    }
+    private CodecAdapterForV2 getAdapterV2(ChannelHandlerContext ctx) {
+        if (this.adapterV2 == null) {
+            Integer dictionarySize = ctx.channel().attr(NettyConnector.DICTIONARY_SIZE).get();
+            if (dictionarySize == null || dictionarySize <= 0) {
+                return null;
+            }
+            this.adapterV2 = new CodecAdapterForV2(this.rsfEnvironment, this.classLoader, new StringDictionary(dictionarySize));
+        }
+        return this.adapterV2;
+    }
 }
\ No newline at end of file
@@ -20,9 +20,12 @@ import io.netty.util.Timeout;
 import io.netty.util.TimerTask;
 import net.hasor.rsf.InterAddress;
 import net.hasor.rsf.RsfEnvironment;
+import net.hasor.rsf.domain.OptionInfo;
 import net.hasor.rsf.domain.ProtocolStatus;
 import net.hasor.rsf.domain.ResponseInfo;
+import net.hasor.rsf.protocol.rsf.compress.FrameCompress;
 import net.hasor.rsf.rpc.net.Connector;
+import net.hasor.rsf.rpc.net.netty.NettyConnector;
 import net.hasor.rsf.utils.ProtocolUtils;
 import net.hasor.utils.StringUtils;
 import org.slf4j.Logger;
@@ -35,6 +38,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * @author 赵永春 (zyc@hasor.net)
  */
 public class ShakeHands extends ChannelInboundHandlerAdapter {
+    private static final String ACCEPT_MODE         = "ACCEPT_MODE";
+    private static final String ACCEPT_MODE_MESSAGE = "Message"; // 只有 Message 调用回应 Accept
+    private static final String DICTIONARY_SIZE     = "DICTIONARY_SIZE"; // 能够接收的 RSF 2.0 协议字符串字典容量
+    private static final String COMPRESS_SUPPORT    = "COMPRESS_SUPPORT"; // 能够解压的数据包压缩算法
     protected Logger logger = LoggerFactory.getLogger(getClass());
     private final AtomicBoolean  atomicBoolean;
     private final InterAddress   bindAddress;
@@ -68,6 +75,13 @@ public class ShakeHands extends ChannelInboundHandlerAdapter {
         options.setRequestID(-1);
         options.setStatus(ProtocolStatus.OK);
         options.addOption("SERVER_INFO", this.bindAddress.toHostSchema());
+        if (!this.rsfEnvironment.getSettings().isInvokeAccept()) {
+            options.addOption(ACCEPT_MODE, ACCEPT_MODE_MESSAGE);// 旧版本会忽略这个选项，继续总是回应 Accept
+        }
+        if (this.rsfEnvironment.getSettings().getDictionarySize() > 0) {
+            options.addOption(DICTIONARY_SIZE, String.valueOf(this.rsfEnvironment.getSettings().getDictionarySize()));
+        }
+        options.addOption(COMPRESS_SUPPORT, FrameCompress.SUPPORT_TYPES);
         ctx.writeAndFlush(options);
         //
         super.channelActive(ctx);
@@ -79,12 +93,32 @@ public class ShakeHands extends ChannelInboundHandlerAdapter {
                 ResponseInfo responseInfo = (ResponseInfo) msg;
                 String serverInfo = responseInfo.getOption("SERVER_INFO");
                 if (StringUtils.isNotBlank(serverInfo)) {
-                    logger.info("shake hands successful. ->" + ctx.channel().remoteAddress());
+                    // .双方都只在 Message 调用时回应 Accept，这条连接上的 Invoke 调用就不再需要 Accept
+                    boolean acceptOptional = !this.rsfEnvironment.getSettings().isInvokeAccept() &&//
+                            ACCEPT_MODE_MESSAGE.equals(responseInfo.getOption(ACCEPT_MODE));
+                    ctx.channel().attr(NettyConnector.ACCEPT_OPTIONAL).set(acceptOptional);
+                    // .对端声明了能接收的字典容量，之后发往对端的数据包改用 RSF 2.0 协议（对端的解码器总是能识别 1.0 和 2.0）
+                    int dictionarySize = Math.min(this.rsfEnvironment.getSettings().getDictionarySize(), toInt(responseInfo.getOption(DICTIONARY_SIZE)));
+                    ctx.channel().attr(NettyConnector.DICTIONARY_SIZE).set(dictionarySize);
+                    // .对端能够解压本地配置的算法时，之后发往对端的大数据包压缩发送
+                    byte compressType = FrameCompress.negotiate(this.rsfEnvironment.getSettings().getCompressType(), responseInfo.getOption(COMPRESS_SUPPORT));
+                    ctx.channel().attr(NettyConnector.COMPRESS_TYPE).set(compressType);
+                    logger.info("shake hands successful. ->" + ctx.channel().remoteAddress() + ", acceptOptional = " + acceptOptional + ", dictionarySize = " + dictionarySize + ", compressType = " + compressType);
                     this.atomicBoolean.set(true);
                 }
             }
+            if (msg instanceof OptionInfo) {
+                ProtocolUtils.releasePayload((OptionInfo) msg);// 握手之前收到的数据直接丢弃
+            }
             return;
         }
         super.channelRead(ctx, msg);
     }
+    private static int toInt(String value) {
+        try {
+            return StringUtils.isBlank(value) ? 0 : Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 }
\ No newline at end of file
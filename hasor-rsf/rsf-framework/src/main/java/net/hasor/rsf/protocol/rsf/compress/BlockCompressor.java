@@ -0,0 +1,162 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.protocol.rsf.compress;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.util.Arrays;
+/**
+ * 速度优先的 LZ 块压缩，格式和 LZ4 的 block 格式类似，直接在 {@link ByteBuf} 上读写，不复制到中间数组。
+ * <pre>
+ * sequence = token [+ literalLength...] + literals [+ byte[2] offset + [matchLength...]]
+ * token    = (literalLength &lt;&lt; 4) | (matchLength - 4)，超过 15 时为 15，余下的部分用后续字节表示（每个 255 表示还有下一个字节）
+ * </pre>
+ * 最后一个 sequence 只有 literals，解压时以输入的结束作为结束。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+class BlockCompressor implements FrameCompressor {
+    private static final int   HASH_LOG     = 14;
+    private static final int   MIN_MATCH    = 4;
+    private static final int   MAX_OFFSET   = 0xFFFF;
+    private static final int   RUN_MASK     = 0x0F;
+    private static final int   SKIP_TRIGGER = 6;       // 连续找不到匹配时加快向后跳的速度，不可压缩的数据不会太慢
+    private final        int[] hashTable    = new int[1 << HASH_LOG]; // 存放 base + 位置 + 1
+    private              int   base         = 0;       // 本次压缩的起点，表中不大于 base 的值是之前的数据包留下的，视为没有
+    //
+    public void compress(ByteBuf src, int index, int length, ByteBuf out) {
+        int[] table = this.hashTable;
+        if (this.base > Integer.MAX_VALUE - length - 1) {
+            Arrays.fill(table, 0);// 累计压缩了约 2G 数据之后才需要清空一次
+            this.base = 0;
+        }
+        int base = this.base;
+        this.base = base + length + 1;
+        int end = index + length;
+        int matchLimit = end - MIN_MATCH;
+        int anchor = index;
+        int atIndex = index;
+        while (atIndex <= matchLimit) {
+            int sequence = src.getInt(atIndex);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int refIndex = table[hash] - base - 1 + index;
+            table[hash] = base + atIndex - index + 1;
+            if (refIndex < index || atIndex - refIndex > MAX_OFFSET || src.getInt(refIndex) != sequence) {
+                atIndex += 1 + ((atIndex - anchor) >>> SKIP_TRIGGER);
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (atIndex + matchLength < end && src.getByte(refIndex + matchLength) == src.getByte(atIndex + matchLength)) {
+                matchLength++;
+            }
+            //
+            int literalLength = atIndex - anchor;
+            int extMatchLength = matchLength - MIN_MATCH;
+            out.writeByte((Math.min(literalLength, RUN_MASK) << 4) | Math.min(extMatchLength, RUN_MASK));
+            writeLiterals(src, anchor, literalLength, out);
+            out.writeShort(atIndex - refIndex);
+            if (extMatchLength >= RUN_MASK) {
+                writeLength(out, extMatchLength - RUN_MASK);
+            }
+            atIndex += matchLength;
+            anchor = atIndex;
+        }
+        // .最后的 literals
+        int literalLength = end - anchor;
+        out.writeByte(Math.min(literalLength, RUN_MASK) << 4);
+        writeLiterals(src, anchor, literalLength, out);
+    }
+    private static void writeLiterals(ByteBuf src, int index, int length, ByteBuf out) {
+        if (length >= RUN_MASK) {
+            writeLength(out, length - RUN_MASK);
+        }
+        out.writeBytes(src, index, length);
+    }
+    private static void writeLength(ByteBuf out, int length) {
+        while (length >= 0xFF) {
+            out.writeByte(0xFF);
+            length -= 0xFF;
+        }
+        out.writeByte(length);
+    }
+    //
+    public void decompress(ByteBuf src, int index, int length, ByteBuf out, int originalLength) throws IOException {
+        out.ensureWritable(originalLength);
+        int atIndex = index;
+        int end = index + length;
+        int outStart = out.writerIndex();
+        int outEnd = outStart + originalLength;
+        while (atIndex < end) {
+            int token = src.getUnsignedByte(atIndex++);
+            // .literals
+            int literalLength = token >>> 4;
+            if (literalLength == RUN_MASK) {
+                int[] lengthAndIndex = readLength(src, atIndex, end);
+                literalLength += lengthAndIndex[0];
+                atIndex = lengthAndIndex[1];
+            }
+            if (literalLength > end - atIndex || literalLength > outEnd - out.writerIndex()) {
+                throw new IOException("malformed block data, literals out of range.");
+            }
+            out.writeBytes(src, atIndex, literalLength);
+            atIndex += literalLength;
+            if (atIndex == end) {
+                break;// 最后一个 sequence
+            }
+            // .match
+            if (end - atIndex < 2) {
+                throw new IOException("malformed block data, offset is truncated.");
+            }
+            int offset = src.getUnsignedShort(atIndex);
+            atIndex += 2;
+            int matchLength = token & RUN_MASK;
+            if (matchLength == RUN_MASK) {
+                int[] lengthAndIndex = readLength(src, atIndex, end);
+                matchLength += lengthAndIndex[0];
+                atIndex = lengthAndIndex[1];
+            }
+            matchLength += MIN_MATCH;
+            int refIndex = out.writerIndex() - offset;
+            if (offset == 0 || refIndex < outStart || matchLength > outEnd - out.writerIndex()) {
+                throw new IOException("malformed block data, match out of range.");
+            }
+            // .offset 小于 matchLength 时源和目标重叠，[refIndex, writerIndex) 是以 offset 为周期的重复数据，每次最多复制这么长，复制的长度逐次翻倍
+            while (matchLength > 0) {
+                int copyLength = Math.min(matchLength, out.writerIndex() - refIndex);
+                out.writeBytes(out, refIndex, copyLength);
+                matchLength -= copyLength;
+            }
+        }
+        if (out.writerIndex() != outEnd) {
+            throw new IOException("malformed block data, expect " + originalLength + " bytes but " + (out.writerIndex() - outStart));
+        }
+    }
+    /** 返回 {长度, 新的位置} */
+    private static int[] readLength(ByteBuf src, int index, int end) throws IOException {
+        int length = 0;
+        int value;
+        do {
+            if (index >= end) {
+                throw new IOException("malformed block data, length is truncated.");
+            }
+            value = src.getUnsignedByte(index++);
+            length += value;
+        } while (value == 0xFF);
+        return new int[] { length, index };
+    }
+    public void release() {
+    }
+}
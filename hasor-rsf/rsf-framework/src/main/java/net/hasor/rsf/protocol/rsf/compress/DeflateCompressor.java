@@ -0,0 +1,129 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.protocol.rsf.compress;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+/**
+ * 压缩率优先，使用 JDK 的 {@link Deflater}（不带 zlib 头的原始 deflate 数据）。
+ * <p>{@link ByteBuf} 是堆内存时直接使用它的数组，否则通过两个固定大小的数组分段输入输出，不会把整个包体复制一遍。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+class DeflateCompressor implements FrameCompressor {
+    private static final int      CHUNK_SIZE = 8192;
+    private final        Deflater deflater   = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final        Inflater inflater   = new Inflater(true);
+    private final        byte[]   inChunk    = new byte[CHUNK_SIZE];
+    private final        byte[]   outChunk   = new byte[CHUNK_SIZE];
+    //
+    public void compress(ByteBuf src, int index, int length, ByteBuf out) {
+        this.deflater.reset();
+        int atIndex = 0;
+        while (atIndex < length) {
+            atIndex += this.setInput(src, index + atIndex, length - atIndex, true);
+            while (!this.deflater.needsInput()) {
+                this.deflate(out);
+            }
+        }
+        this.deflater.finish();
+        while (!this.deflater.finished()) {
+            this.deflate(out);
+        }
+    }
+    private void deflate(ByteBuf out) {
+        out.ensureWritable(CHUNK_SIZE);
+        if (out.hasArray()) {
+            int count = this.deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+            out.writerIndex(out.writerIndex() + count);
+        } else {
+            int count = this.deflater.deflate(this.outChunk, 0, this.outChunk.length);
+            out.writeBytes(this.outChunk, 0, count);
+        }
+    }
+    //
+    public void decompress(ByteBuf src, int index, int length, ByteBuf out, int originalLength) throws IOException {
+        this.inflater.reset();
+        out.ensureWritable(originalLength);
+        int atIndex = 0;
+        int remaining = originalLength;
+        try {
+            while (!this.inflater.finished()) {
+                if (this.inflater.needsInput()) {
+                    if (atIndex >= length) {
+                        throw new IOException("malformed deflate data, data is truncated.");
+                    }
+                    atIndex += this.setInput(src, index + atIndex, length - atIndex, false);
+                    continue;
+                }
+                if (this.inflater.needsDictionary()) {
+                    throw new IOException("malformed deflate data, dictionary is required.");
+                }
+                if (remaining == 0) {
+                    // .输出已满但还没有读到结束标记，只允许再输出 0 个字节
+                    if (this.inflater.inflate(this.outChunk, 0, 1) > 0) {
+                        throw new IOException("malformed deflate data, more than " + originalLength + " bytes.");
+                    }
+                    continue;
+                }
+                remaining -= this.inflate(out, remaining);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("malformed deflate data, " + e.getMessage(), e);
+        }
+        if (remaining != 0) {
+            throw new IOException("malformed deflate data, expect " + originalLength + " bytes but " + (originalLength - remaining));
+        }
+    }
+    private int inflate(ByteBuf out, int maxLength) throws DataFormatException {
+        if (out.hasArray()) {
+            int count = this.inflater.inflate(out.array(), out.arrayOffset() + out.writerIndex(), maxLength);
+            out.writerIndex(out.writerIndex() + count);
+            return count;
+        } else {
+            int count = this.inflater.inflate(this.outChunk, 0, Math.min(maxLength, this.outChunk.length));
+            out.writeBytes(this.outChunk, 0, count);
+            return count;
+        }
+    }
+    /** 设置下一段输入，返回这次输入的字节数。数组在下一次调用之前必须被完全消耗。 */
+    private int setInput(ByteBuf src, int index, int length, boolean forDeflater) {
+        byte[] input;
+        int offset;
+        if (src.hasArray()) {
+            input = src.array();
+            offset = src.arrayOffset() + index;
+        } else {
+            length = Math.min(length, this.inChunk.length);
+            src.getBytes(index, this.inChunk, 0, length);
+            input = this.inChunk;
+            offset = 0;
+        }
+        if (forDeflater) {
+            this.deflater.setInput(input, offset, length);
+        } else {
+            this.inflater.setInput(input, offset, length);
+        }
+        return length;
+    }
+    public void release() {
+        this.deflater.end();
+        this.inflater.end();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.protocol.rsf.compress;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.concurrent.FastThreadLocal;
+import net.hasor.rsf.protocol.rsf.ProtocolConstants;
+import net.hasor.utils.StringUtils;
+
+import java.io.IOException;
+/**
+ * 数据包压缩。压缩只作用于包头之后的包体，包头保留字节的低 4 位记录压缩算法，包头中的长度是压缩后的长度。
+ * <pre>
+ * --------------------------------------------------------bytes =13
+ * byte[1]  version                              RSF版本
+ * byte[8]  requestID                            请求ID
+ * byte[1]  keepData                             保留区（低 4 位为压缩算法）
+ * byte[3]  contentLength                        压缩后的内容大小
+ * --------------------------------------------------------
+ * byte[4]  originalLength                       压缩前的内容大小
+ * byte[*]  compressedData                       压缩后的内容
+ * </pre>
+ * 解码端先把包体解压，得到和未压缩时完全相同的数据包再交给 {@link net.hasor.rsf.protocol.rsf.RsfDecoder} 解析。
+ * 压缩算法的实例在每个线程（EventLoop）上缓存一份，同一个 EventLoop 上的所有连接共用。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class FrameCompress implements ProtocolConstants {
+    public static final  String                             NONE            = "none";
+    public static final  String                             BLOCK           = "block";
+    public static final  String                             DEFLATE         = "deflate";
+    /** 握手时声明自己能够解压的算法 */
+    public static final  String                             SUPPORT_TYPES   = BLOCK + "," + DEFLATE;
+    private static final int                                HEAD_LENGTH     = 13;
+    private static final int                                KEEP_DATA_INDEX = 9;
+    private static final int                                LENGTH_INDEX    = 10;
+    private static final FastThreadLocal<FrameCompressor[]> compressorCache = new FastThreadLocal<FrameCompressor[]>() {
+        protected FrameCompressor[] initialValue() {
+            return new FrameCompressor[Compress_Mask + 1];
+        }
+        protected void onRemoval(FrameCompressor[] compressors) {
+            for (FrameCompressor compressor : compressors) {
+                if (compressor != null) {
+                    compressor.release();
+                }
+            }
+        }
+    };
+    //
+    /** 算法名对应的标识，不支持的算法返回 {@link #Compress_None}。 */
+    public static byte typeOf(String compressType) {
+        if (BLOCK.equalsIgnoreCase(compressType)) {
+            return Compress_Block;
+        }
+        if (DEFLATE.equalsIgnoreCase(compressType)) {
+            return Compress_Deflate;
+        }
+        return Compress_None;
+    }
+    /** 本地配置的算法在对端声明支持的算法之中时返回它的标识，否则返回 {@link #Compress_None}（不压缩）。 */
+    public static byte negotiate(String localType, String peerSupportTypes) {
+        byte type = typeOf(localType);
+        if (type == Compress_None || StringUtils.isBlank(peerSupportTypes)) {
+            return Compress_None;
+        }
+        for (String peerType : peerSupportTypes.split(",")) {
+            if (typeOf(peerType.trim()) == type) {
+                return type;
+            }
+        }
+        return Compress_None;
+    }
+    private static FrameCompressor getCompressor(int type) {
+        FrameCompressor[] compressors = compressorCache.get();
+        FrameCompressor compressor = compressors[type];
+        if (compressor == null) {
+            if (type == Compress_Block) {
+                compressor = new BlockCompressor();
+            } else if (type == Compress_Deflate) {
+                compressor = new DeflateCompressor();
+            } else {
+                return null;
+            }
+            compressors[type] = compressor;
+        }
+        return compressor;
+    }
+    //
+    /**
+     * 压缩 out 中从 frameIndex 开始的一个完整数据包，压缩后没有变小时保持原样。
+     * <p>压缩结果先写到一个临时缓冲，确定变小之后再覆盖原来的包体：压缩算法需要完整的包体作为输入（查找重复数据、Deflater 直接引用数组），
+     * 不能边编码边压缩；也不能直接追加到 out 之后，out 扩容时会换掉算法正在读取的内存。多出来的只是一次压缩结果大小的复制。</p>
+     * @return 是否压缩了。
+     */
+    public static boolean compressFrame(ByteBufAllocator allocator, ByteBuf out, int frameIndex, byte compressType) throws IOException {
+        FrameCompressor compressor = getCompressor(compressType & Compress_Mask);
+        if (compressor == null) {
+            return false;
+        }
+        int bodyIndex = frameIndex + HEAD_LENGTH;
+        int bodyLength = out.writerIndex() - bodyIndex;
+        ByteBuf compressed = allocator.buffer(bodyLength >>> 1);
+        try {
+            compressor.compress(out, bodyIndex, bodyLength, compressed);
+            if (compressed.readableBytes() + 4 >= bodyLength) {
+                return false;
+            }
+            out.writerIndex(bodyIndex);
+            out.writeInt(bodyLength);
+            out.writeBytes(compressed);
+            out.setByte(frameIndex + KEEP_DATA_INDEX, (out.getByte(frameIndex + KEEP_DATA_INDEX) & ~Compress_Mask) | compressType);
+            out.setMedium(frameIndex + LENGTH_INDEX, out.writerIndex() - bodyIndex);
+            return true;
+        } finally {
+            compressed.release();
+        }
+    }
+    /** 数据包是否被压缩过 */
+    public static boolean isCompressed(ByteBuf frame) {
+        return (frame.getByte(frame.readerIndex() + KEEP_DATA_INDEX) & Compress_Mask) != Compress_None;
+    }
+    /**
+     * 解压数据包，返回一个新的数据包（调用者负责释放），内容和压缩前完全相同。
+     * @param maxFrameLength 解压之后的数据包不能超过这个大小，防止很小的数据包解压出巨大的数据。
+     */
+    public static ByteBuf decompressFrame(ByteBufAllocator allocator, ByteBuf frame, int maxFrameLength) throws IOException {
+        int frameIndex = frame.readerIndex();
+        int bodyLength = frame.readableBytes() - HEAD_LENGTH;
+        byte keepData = frame.getByte(frameIndex + KEEP_DATA_INDEX);
+        FrameCompressor compressor = getCompressor(keepData & Compress_Mask);
+        if (compressor == null) {
+            throw new IOException("unsupported compress type " + (keepData & Compress_Mask));
+        }
+        if (bodyLength < 4) {
+            throw new IOException("compressed frame is truncated.");
+        }
+        int originalLength = frame.getInt(frameIndex + HEAD_LENGTH);
+        if (originalLength < 0 || originalLength > maxFrameLength - HEAD_LENGTH) {
+            throw new IOException("decompressed frame length " + originalLength + " exceeds the limit " + maxFrameLength);
+        }
+        ByteBuf plainFrame = allocator.buffer(HEAD_LENGTH + originalLength);
+        boolean success = false;
+        try {
+            plainFrame.writeBytes(frame, frameIndex, HEAD_LENGTH);
+            plainFrame.setByte(KEEP_DATA_INDEX, keepData & ~Compress_Mask);
+            plainFrame.setMedium(LENGTH_INDEX, originalLength);
+            compressor.decompress(frame, frameIndex + HEAD_LENGTH + 4, bodyLength - 4, plainFrame, originalLength);
+            success = true;
+            return plainFrame;
+        } finally {
+            if (!success) {
+                plainFrame.release();
+            }
+        }
+    }
+}
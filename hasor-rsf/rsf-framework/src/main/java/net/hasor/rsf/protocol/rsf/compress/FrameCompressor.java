@@ -0,0 +1,34 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.protocol.rsf.compress;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+/**
+ * 包体压缩算法。实例不是线程安全的，由 {@link FrameCompress} 为每个线程（EventLoop）各缓存一份。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public interface FrameCompressor {
+    /** 压缩 src 中从 index 开始的 length 个字节，结果追加到 out。 */
+    public void compress(ByteBuf src, int index, int length, ByteBuf out) throws IOException;
+
+    /** 解压 src 中从 index 开始的 length 个字节，结果追加到 out，解压之后必须正好是 originalLength 个字节。 */
+    public void decompress(ByteBuf src, int index, int length, ByteBuf out, int originalLength) throws IOException;
+
+    /** 线程结束时释放占用的资源 */
+    public void release();
+}
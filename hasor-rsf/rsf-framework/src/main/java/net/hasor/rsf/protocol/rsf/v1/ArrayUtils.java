@@ -15,7 +15,6 @@
  * limitations under the License.
  */
 package net.hasor.rsf.protocol.rsf.v1;
-import java.lang.reflect.Array;
 /**
  * <p>Operations on {@link String} that are <code>null</code> safe.</p>
  */
@@ -42,26 +41,47 @@ public abstract class ArrayUtils {
      * @since 2.1
      */
     public static int[] add(final int[] array, final int element) {
-        int[] newArray = (int[]) copyArrayGrow1(array, Integer.TYPE);
-        newArray[newArray.length - 1] = element;
+        int arrayLength = (array == null) ? 0 : array.length;
+        int[] newArray = new int[arrayLength + 1];
+        if (arrayLength > 0) {
+            System.arraycopy(array, 0, newArray, 0, arrayLength);
+        }
+        newArray[arrayLength] = element;
         return newArray;
     }
     /**
-     * Returns a copy of the given array of size 1 greater than the argument.
-     * The last value of the array is left to the default value.
+     * <p>Returns an array with at least <code>minCapacity</code> slots, growing by half of the current
+     * length so that a sequence of appends costs amortized O(1).</p>
      *
-     * @param array The array to copy, must not be <code>null</code>.
-     * @param newArrayComponentType If <code>array</code> is <code>null</code>, create a
-     * size 1 array of this type.
-     * @return A new copy of the array of size 1 greater than the input.
+     * @param array  the array to grow, may be <code>null</code>
+     * @param minCapacity  the desired minimum capacity
+     * @return the input array if it is already large enough, otherwise a grown copy
      */
-    private static Object copyArrayGrow1(final Object array, final Class<?> newArrayComponentType) {
-        if (array != null) {
-            int arrayLength = Array.getLength(array);
-            Object newArray = Array.newInstance(array.getClass().getComponentType(), arrayLength + 1);
+    public static int[] grow(final int[] array, final int minCapacity) {
+        int arrayLength = (array == null) ? 0 : array.length;
+        if (arrayLength >= minCapacity) {
+            return array;
+        }
+        int newLength = Math.max(Math.max(arrayLength + (arrayLength >> 1), 8), minCapacity);
+        int[] newArray = new int[newLength];
+        if (arrayLength > 0) {
             System.arraycopy(array, 0, newArray, 0, arrayLength);
-            return newArray;
         }
-        return Array.newInstance(newArrayComponentType, 1);
+        return newArray;
+    }
+    /**
+     * <p>Returns an array holding exactly the first <code>length</code> elements of the input.</p>
+     *
+     * @param array  the array to trim, must not be <code>null</code>
+     * @param length  the number of leading elements to keep
+     * @return the input array if its length already matches, otherwise a trimmed copy
+     */
+    public static int[] trim(final int[] array, final int length) {
+        if (array.length == length) {
+            return array;
+        }
+        int[] newArray = new int[length];
+        System.arraycopy(array, 0, newArray, 0, length);
+        return newArray;
     }
 }
\ No newline at end of file
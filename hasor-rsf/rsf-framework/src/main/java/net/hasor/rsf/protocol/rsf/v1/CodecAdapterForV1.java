@@ -17,6 +17,8 @@ package net.hasor.rsf.protocol.rsf.v1;
 import io.netty.buffer.ByteBuf;
 import net.hasor.rsf.RsfEnvironment;
 import net.hasor.rsf.SerializeCoder;
+import net.hasor.rsf.StreamSerializeCoder;
+import net.hasor.rsf.domain.LazyPayload;
 import net.hasor.rsf.domain.RequestInfo;
 import net.hasor.rsf.domain.ResponseInfo;
 import net.hasor.rsf.protocol.rsf.CodecAdapter;
@@ -28,6 +30,7 @@ import net.hasor.utils.StringUtils;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * Protocol Interface,for custom network protocol
  * @version : 2014年11月4日
@@ -68,10 +71,9 @@ public class CodecAdapterForV1 implements CodecAdapter, ProtocolConstants {
             for (int i = 0; i < pTypes.size(); i++) {
                 String typeKey = pTypes.get(i);
                 Object value = pValues.get(i);
-                byte[] valKey = (coder != null) ? coder.encode(value) : new byte[0];
                 //
                 short paramType = pushString(block, typeKey);
-                short paramData = pushBytes(block, valKey);
+                short paramData = pushObject(block, coder, value);
                 block.addParameter(paramType, paramData);
             }
         }
@@ -100,10 +102,8 @@ public class CodecAdapterForV1 implements CodecAdapter, ProtocolConstants {
         //2.returnData
         String returnType = info.getReturnType();
         SerializeCoder serializeCoder = this.rsfEnvironment.getSerializeCoder(info.getSerializeType());
-        byte[] encode = (serializeCoder != null) ? serializeCoder.encode(info.getReturnData()) : new byte[0];
-        block.setReturnData(block.pushData(encode));
         block.setReturnType(pushString(block, returnType));
-        block.setReturnData(block.pushData(encode));
+        block.setReturnData(pushObject(block, serializeCoder, info.getReturnData()));
         block.setStatus(info.getStatus());//响应状态
         //
         //3.Opt参数
@@ -117,13 +117,32 @@ public class CodecAdapterForV1 implements CodecAdapter, ProtocolConstants {
         return block;
     }
     //
-    /**将字节数据放入，PoolBlock*/
-    private static short pushBytes(PoolBlock socketMessage, byte[] attrData) {
-        if (attrData != null) {
-            return socketMessage.pushData(attrData);
-        } else {
-            return socketMessage.pushData(null);
+    /**将对象序列化后放入，PoolBlock（流式序列化器会直接编码到数据池中）*/
+    private static short pushObject(PoolBlock socketMessage, SerializeCoder coder, Object attrData) throws IOException {
+        if (coder == null) {
+            return socketMessage.pushData(new byte[0]);
+        }
+        if (!(coder instanceof StreamSerializeCoder)) {
+            return socketMessage.pushData(coder.encode(attrData));
+        }
+        ByteBuf dataBuf = socketMessage.beginData();
+        try {
+            ((StreamSerializeCoder) coder).encode(attrData, dataBuf);
+            return socketMessage.commitData();
+        } catch (IOException e) {
+            socketMessage.abortData();
+            throw e;
+        } catch (RuntimeException e) {
+            socketMessage.abortData();
+            throw e;
+        }
+    }
+    /**从 PoolBlock 中读取对象，流式序列化器直接在数据切片上解码*/
+    private static Object readObject(PoolBlock socketMessage, short attrIndex, SerializeCoder coder, Class<?> dataType) throws IOException {
+        if (coder instanceof StreamSerializeCoder) {
+            return ((StreamSerializeCoder) coder).decode(socketMessage.readPoolSlice(attrIndex), dataType);
         }
+        return coder.decode(socketMessage.readPool(attrIndex), dataType);
     }
     /**将字符串数据放入，PoolBlock*/
     private static short pushString(PoolBlock socketMessage, String attrData) {
@@ -143,14 +162,20 @@ public class CodecAdapterForV1 implements CodecAdapter, ProtocolConstants {
     }
     @Override
     public RequestInfo readRequestInfo(ByteBuf frame) throws Throwable {
+        return this.readRequestInfo(frame, false);
+    }
+    @Override
+    public RequestInfo readRequestInfo(ByteBuf frame, boolean lazy) throws Throwable {
         RequestBlock rsfBlock = this.requestProtocol.decode(frame);
         RequestInfo info = new RequestInfo();
+        RequestPayload payload = null;
         try {
             //
             //1.基本数据
             info.setRequestID(rsfBlock.getRequestID());
+            info.setFlags(rsfBlock.getFlags());
             short serializeTypeInt = rsfBlock.getSerializeType();
-            String serializeType = ByteStringCachelUtils.fromCache(rsfBlock.readPool(serializeTypeInt));
+            String serializeType = rsfBlock.readPoolString(serializeTypeInt);
             info.setSerializeType(serializeType);
             //
             //2.Message
@@ -167,17 +192,17 @@ public class CodecAdapterForV1 implements CodecAdapter, ProtocolConstants {
                 for (int optItem : optionArray) {
                     short optKey = (short) (optItem >>> 16);
                     short optVal = (short) (optItem & PoolBlock.PoolMaxSize);
-                    String optKeyStr = ByteStringCachelUtils.fromCache(rsfBlock.readPool(optKey));
-                    String optValStr = ByteStringCachelUtils.fromCache(rsfBlock.readPool(optVal));
+                    String optKeyStr = rsfBlock.readPoolString(optKey);
+                    String optValStr = rsfBlock.readPoolString(optVal);
                     info.addOption(optKeyStr, optValStr);
                 }
             }
             //
             //4.Request
-            String serviceGroup = ByteStringCachelUtils.fromCache(rsfBlock.readPool(rsfBlock.getServiceGroup()));
-            String serviceName = ByteStringCachelUtils.fromCache(rsfBlock.readPool(rsfBlock.getServiceName()));
-            String serviceVersion = ByteStringCachelUtils.fromCache(rsfBlock.readPool(rsfBlock.getServiceVersion()));
-            String targetMethod = ByteStringCachelUtils.fromCache(rsfBlock.readPool(rsfBlock.getTargetMethod()));
+            String serviceGroup = rsfBlock.readPoolString(rsfBlock.getServiceGroup());
+            String serviceName = rsfBlock.readPoolString(rsfBlock.getServiceName());
+            String serviceVersion = rsfBlock.readPoolString(rsfBlock.getServiceVersion());
+            String targetMethod = rsfBlock.readPoolString(rsfBlock.getTargetMethod());
             int clientTimeout = rsfBlock.getClientTimeout();
             info.setServiceGroup(serviceGroup);
             info.setServiceName(serviceName);
@@ -192,19 +217,29 @@ public class CodecAdapterForV1 implements CodecAdapter, ProtocolConstants {
                     int paramItem = paramDatas[i];
                     short paramKey = (short) (paramItem >>> 16);
                     short paramVal = (short) (paramItem & PoolBlock.PoolMaxSize);
-                    byte[] keyData = rsfBlock.readPool(paramKey);
-                    byte[] valData = rsfBlock.readPool(paramVal);
-                    //
-                    String paramType = ByteStringCachelUtils.fromCache(keyData);
+                    String paramType = rsfBlock.readPoolString(paramKey);
                     Object paramObj = null;
                     if (serializeCoder != null && StringUtils.isNotBlank(paramType)) {
-                        paramObj = serializeCoder.decode(valData, ClassUtils.getClass(this.classLoader, paramType, false));
+                        if (lazy) {
+                            if (payload == null) {
+                                payload = new RequestPayload(info, rsfBlock, frame, serializeCoder, this.classLoader, paramDatas.length);
+                            }
+                            payload.addParameter(i, paramVal);
+                        } else {
+                            paramObj = readObject(rsfBlock, paramVal, serializeCoder, ClassUtils.getClass(this.classLoader, paramType, false));
+                        }
                     }
                     info.addParameter(paramType, paramObj);
                 }
             }
+            //
+            //5.延迟反序列化，数据区是 frame 的切片，frame 要一直保留到参数解码之后
+            if (payload != null) {
+                frame.retain();
+                info.setLazyPayload(payload);
+            }
         } finally {
-            if (rsfBlock != null) {
+            if (rsfBlock != null && !info.hasLazyPayload()) {
                 rsfBlock.release();
             }
         }
@@ -216,6 +251,10 @@ public class CodecAdapterForV1 implements CodecAdapter, ProtocolConstants {
     }
     @Override
     public ResponseInfo readResponseInfo(ByteBuf frame) throws Throwable {
+        return this.readResponseInfo(frame, false);
+    }
+    @Override
+    public ResponseInfo readResponseInfo(ByteBuf frame, boolean lazy) throws Throwable {
         ResponseBlock rsfBlock = this.responseProtocol.decode(frame);
         ResponseInfo info = new ResponseInfo();
         try {
@@ -223,7 +262,7 @@ public class CodecAdapterForV1 implements CodecAdapter, ProtocolConstants {
             //1.基本数据
             info.setRequestID(rsfBlock.getRequestID());
             short serializeTypeInt = rsfBlock.getSerializeType();
-            String serializeType = ByteStringCachelUtils.fromCache(rsfBlock.readPool(serializeTypeInt));
+            String serializeType = rsfBlock.readPoolString(serializeTypeInt);
             info.setSerializeType(serializeType);
             //
             //2.Opt参数
@@ -231,20 +270,25 @@ public class CodecAdapterForV1 implements CodecAdapter, ProtocolConstants {
             for (int optItem : optionArray) {
                 short optKey = (short) (optItem >>> 16);
                 short optVal = (short) (optItem & PoolBlock.PoolMaxSize);
-                String optKeyStr = ByteStringCachelUtils.fromCache(rsfBlock.readPool(optKey));
-                String optValStr = ByteStringCachelUtils.fromCache(rsfBlock.readPool(optVal));
+                String optKeyStr = rsfBlock.readPoolString(optKey);
+                String optValStr = rsfBlock.readPoolString(optVal);
                 info.addOption(optKeyStr, optValStr);
             }
             //
             //3.Response
             info.setStatus(rsfBlock.getStatus());
             SerializeCoder serializeCoder = this.rsfEnvironment.getSerializeCoder(serializeType);
-            String returnType = ByteStringCachelUtils.fromCache(rsfBlock.readPool(rsfBlock.getReturnType()));
+            String returnType = rsfBlock.readPoolString(rsfBlock.getReturnType());
             info.setReturnType(returnType);
-            byte[] returnByte = rsfBlock.readPool(rsfBlock.getReturnData());
             Object returnData = null;
             if (serializeCoder != null && StringUtils.isNotBlank(returnType)) {
-                returnData = serializeCoder.decode(returnByte, ClassUtils.getClass(this.classLoader, returnType, false));
+                if (lazy) {
+                    // .调用者什么时候取结果是不确定的，返回值复制出来，不引用网络数据包
+                    byte[] dataArrays = rsfBlock.readPool(rsfBlock.getReturnData());
+                    info.setLazyPayload(new ResponsePayload(info, dataArrays, serializeCoder, this.classLoader));
+                } else {
+                    returnData = readObject(rsfBlock, rsfBlock.getReturnData(), serializeCoder, ClassUtils.getClass(this.classLoader, returnType, false));
+                }
             }
             info.setReturnData(returnData);
         } finally {
@@ -254,4 +298,69 @@ public class CodecAdapterForV1 implements CodecAdapter, ProtocolConstants {
         }
         return info;
     }
-}
+    //
+    //
+    /**延迟反序列化的请求参数，数据区引用着 frame，解码之后释放 frame。*/
+    private static class RequestPayload implements LazyPayload {
+        private final RequestInfo    requestInfo;
+        private final RequestBlock   rsfBlock;
+        private final ByteBuf        frame;
+        private final SerializeCoder serializeCoder;
+        private final ClassLoader    classLoader;
+        private final int[]          paramIndex;     // 需要解码的参数位置
+        private final short[]        paramData;      // 参数数据在池中的索引
+        private       int            paramCount = 0;
+        private final AtomicBoolean  released   = new AtomicBoolean(false);
+        RequestPayload(RequestInfo requestInfo, RequestBlock rsfBlock, ByteBuf frame, SerializeCoder serializeCoder, ClassLoader classLoader, int maxCount) {
+            this.requestInfo = requestInfo;
+            this.rsfBlock = rsfBlock;
+            this.frame = frame;
+            this.serializeCoder = serializeCoder;
+            this.classLoader = classLoader;
+            this.paramIndex = new int[maxCount];
+            this.paramData = new short[maxCount];
+        }
+        void addParameter(int index, short paramVal) {
+            this.paramIndex[this.paramCount] = index;
+            this.paramData[this.paramCount] = paramVal;
+            this.paramCount++;
+        }
+        public void decode() throws Throwable {
+            if (this.released.get()) {
+                throw new IllegalStateException("payload is released.");
+            }
+            for (int i = 0; i < this.paramCount; i++) {
+                int index = this.paramIndex[i];
+                String paramType = this.requestInfo.getParameterTypes().get(index);
+                Class<?> dataType = ClassUtils.getClass(this.classLoader, paramType, false);
+                Object paramObj = readObject(this.rsfBlock, this.paramData[i], this.serializeCoder, dataType);
+                this.requestInfo.updateParameter(index, paramType, paramObj);
+            }
+        }
+        public void release() {
+            if (this.released.compareAndSet(false, true)) {
+                this.rsfBlock.release();
+                this.frame.release();
+            }
+        }
+    }
+    /**延迟反序列化的返回值，数据已经复制出来，不需要释放。*/
+    private static class ResponsePayload implements LazyPayload {
+        private final ResponseInfo   responseInfo;
+        private final byte[]         dataArrays;
+        private final SerializeCoder serializeCoder;
+        private final ClassLoader    classLoader;
+        ResponsePayload(ResponseInfo responseInfo, byte[] dataArrays, SerializeCoder serializeCoder, ClassLoader classLoader) {
+            this.responseInfo = responseInfo;
+            this.dataArrays = dataArrays;
+            this.serializeCoder = serializeCoder;
+            this.classLoader = classLoader;
+        }
+        public void decode() throws Throwable {
+            Class<?> dataType = ClassUtils.getClass(this.classLoader, this.responseInfo.getReturnType(), false);
+            this.responseInfo.setReturnData(this.serializeCoder.decode(this.dataArrays, dataType));
+        }
+        public void release() {
+        }
+    }
+}
\ No newline at end of file
@@ -15,8 +15,12 @@
  */
 package net.hasor.rsf.protocol.rsf.v1;
 import io.netty.buffer.ByteBuf;
+import net.hasor.rsf.domain.ProtocolStatus;
+import net.hasor.rsf.domain.RsfException;
 import net.hasor.rsf.utils.IOUtils;
 import net.hasor.rsf.utils.ProtocolUtils;
+
+import java.nio.charset.Charset;
 /**
  * 池上限为 0~4095条数据，单条数据最大约16MB。
  * 下面是数据格式：<pre>
@@ -29,99 +33,183 @@ import net.hasor.rsf.utils.ProtocolUtils;
  * dataBody                         数据内容
  *     bytes[...]
  * </pre>
+ * 池中每条数据的起始位置在写入或解码时就计算好并保存在 poolOffset 中，读取时无需再遍历前面的数据。
+ * 解码时数据区直接引用来源 {@link ByteBuf} 的切片，不再额外复制。
  * @version : 2014年10月25日
  * @author 赵永春 (zyc@hasor.net)
  */
 public class PoolBlock {
-    public static final int     NULL_MARK   = 0xFFFFFFFF; //表示NULL
-    public static       int     DataMaxSize = 0x00FFFFFF; //单条数据最大约16MB
-    public static       short   PoolMaxSize = 0x0FFF;     //池上限为 0~4095条
-    private             int[]   poolMap     = {};
-    private             ByteBuf poolData    = null;
+    public static final  int     NULL_MARK       = 0xFFFFFFFF; //表示NULL
+    public static        int     DataMaxSize     = 0x00FFFFFF; //单条数据最大约16MB
+    public static        short   PoolMaxSize     = 0x0FFF;     //池上限为 0~4095条
+    private static final Charset DEFAULT_CHARSET = Charset.defaultCharset();
+    private              int[]   poolMap         = {};         //每条数据的长度
+    private              int[]   poolOffset      = {};         //每条数据在 poolData 中的起始位置
+    private              int     poolLength      = 0;          //池中数据条数
+    private              ByteBuf poolData        = null;
+    private              boolean sharedData      = false;      //poolData 是否为来源数据的切片(不归本对象释放)
+    private              int     dataMark        = NULL_MARK;  //beginData 时 poolData 的写入位置
     //
     public PoolBlock() {
         this.poolData = ProtocolUtils.newByteBuf();
     }
+    /**从 formData 中读取数据池，数据区以切片方式引用 formData，在本对象使用期间 formData 不能被释放。*/
     public void fillFrom(ByteBuf formData) {
         if (formData == null) {
             return;
         }
         //
         short attrPoolSize = (short) (PoolMaxSize & formData.readShort());
+        this.ensurePoolCapacity(this.poolLength + attrPoolSize);
+        int rawIndex = this.poolData.writerIndex();
         for (int i = 0; i < attrPoolSize; i++) {
             int length = formData.readInt();
-            this.poolMap = ArrayUtils.add(this.poolMap, length);
+            this.poolMap[this.poolLength] = length;
+            this.poolOffset[this.poolLength] = rawIndex;
+            this.poolLength++;
+            if (length != NULL_MARK) {
+                rawIndex += length;
+            }
+        }
+        if (this.poolData.writerIndex() == 0 && !this.sharedData) {
+            IOUtils.releaseByteBuf(this.poolData);
+            this.poolData = formData.readSlice(formData.readableBytes());
+            this.sharedData = true;
+        } else {
+            this.poolData.writeBytes(formData);
         }
-        this.poolData.writeBytes(formData);
     }
     public void fillTo(ByteBuf toData) {
         if (toData == null)
             return;
         //
-        toData.writeShort(poolMap.length);
-        for (int i = 0; i < poolMap.length; i++) {
-            toData.writeInt(poolMap[i]);
+        toData.writeShort(this.poolLength);
+        for (int i = 0; i < this.poolLength; i++) {
+            toData.writeInt(this.poolMap[i]);
         }
-        toData.writeBytes(this.poolData);
+        toData.writeBytes(this.poolData, this.poolData.readerIndex(), this.poolData.readableBytes());
     }
     //
     /**添加请求参数。*/
     public short pushData(byte[] dataArray) {
-        if (this.poolMap.length >= PoolMaxSize) {
+        if (this.poolLength >= PoolMaxSize) {
             throw new IndexOutOfBoundsException("poolMax size is " + PoolMaxSize);
         }
+        if (this.sharedData) {
+            throw new IllegalStateException("pool data is readonly.");
+        }
+        if (this.dataMark != NULL_MARK) {
+            throw new IllegalStateException("the previous data is not committed.");
+        }
         //
         int datalength = (dataArray == null) ? NULL_MARK : dataArray.length;
-        this.poolMap = ArrayUtils.add(this.poolMap, datalength);
+        this.ensurePoolCapacity(this.poolLength + 1);
+        this.poolMap[this.poolLength] = datalength;
+        this.poolOffset[this.poolLength] = this.poolData.writerIndex();
         if (datalength > 0) {
             this.poolData.writeBytes(dataArray);
         }
-        return (short) (this.poolMap.length - 1);
+        return (short) (this.poolLength++);
+    }
+    /**开始直接向数据池写入一条数据（例如由序列化器直接编码），写完之后必须调用 {@link #commitData()} 或 {@link #abortData()}。*/
+    public ByteBuf beginData() {
+        if (this.poolLength >= PoolMaxSize) {
+            throw new IndexOutOfBoundsException("poolMax size is " + PoolMaxSize);
+        }
+        if (this.sharedData) {
+            throw new IllegalStateException("pool data is readonly.");
+        }
+        if (this.dataMark != NULL_MARK) {
+            throw new IllegalStateException("the previous data is not committed.");
+        }
+        this.dataMark = this.poolData.writerIndex();
+        return this.poolData;
+    }
+    /**提交通过 {@link #beginData()} 写入的数据，返回其在池中的索引。*/
+    public short commitData() {
+        if (this.dataMark == NULL_MARK) {
+            throw new IllegalStateException("beginData must be called first.");
+        }
+        this.ensurePoolCapacity(this.poolLength + 1);
+        this.poolMap[this.poolLength] = this.poolData.writerIndex() - this.dataMark;
+        this.poolOffset[this.poolLength] = this.dataMark;
+        this.dataMark = NULL_MARK;
+        return (short) (this.poolLength++);
+    }
+    /**放弃通过 {@link #beginData()} 写入的数据。*/
+    public void abortData() {
+        if (this.dataMark != NULL_MARK) {
+            this.poolData.writerIndex(this.dataMark);
+            this.dataMark = NULL_MARK;
+        }
+    }
+    private void ensurePoolCapacity(int minCapacity) {
+        if (this.poolMap.length < minCapacity) {
+            this.poolMap = ArrayUtils.grow(this.poolMap, minCapacity);
+            this.poolOffset = ArrayUtils.grow(this.poolOffset, minCapacity);
+        }
     }
     //
     /**池长度*/
     public int getPoolLength() {
-        return this.poolMap.length;
+        return this.poolLength;
     }
     /**池大小*/
     public int getPoolSize() {
-        int rawSize = 0;
-        for (int i = 0; i < this.poolMap.length; i++) {
-            int atPoolData = this.poolMap[i];
-            if (atPoolData <= 0)
-                continue;
-            rawSize += this.poolMap[i];
-        }
-        return rawSize;
+        return this.poolData.writerIndex();
     }
     /**池数据*/
     public int[] getPoolData() {
+        if (this.poolMap.length != this.poolLength) {
+            this.poolMap = ArrayUtils.trim(this.poolMap, this.poolLength);
+            this.poolOffset = ArrayUtils.trim(this.poolOffset, this.poolLength);
+        }
         return this.poolMap;
     }
+    /**池索引来自对方发送的数据包，超出范围时视为协议错误。*/
+    private void checkIndex(short attrIndex) {
+        if (attrIndex < 0 || attrIndex >= this.poolLength) {
+            throw new RsfException(ProtocolStatus.ProtocolError, "pool index out of range, index = " + attrIndex + " ,poolLength = " + this.poolLength);
+        }
+    }
     /**内容所处起始位置*/
     public byte[] readPool(short attrIndex) {
-        if (this.poolMap[attrIndex] == NULL_MARK) {
+        this.checkIndex(attrIndex);
+        int readLength = this.poolMap[attrIndex];//内容长度
+        if (readLength == NULL_MARK) {
             return null;
         }
         //
-        int rawIndex = 0;
-        for (int i = 0; i < this.poolMap.length; i++) {
-            if (i == attrIndex)
-                break;
-            if (this.poolMap[i] != NULL_MARK)
-                rawIndex += this.poolMap[i];
+        byte[] data = new byte[readLength];
+        this.poolData.getBytes(this.poolOffset[attrIndex], data, 0, readLength);
+        return data;
+    }
+    /**以切片的方式读取池中数据（不复制），返回的 ByteBuf 与本对象共享生命周期，调用 release 之后不可再使用。*/
+    public ByteBuf readPoolSlice(short attrIndex) {
+        this.checkIndex(attrIndex);
+        int readLength = this.poolMap[attrIndex];//内容长度
+        if (readLength == NULL_MARK) {
+            return null;
         }
+        return this.poolData.slice(this.poolOffset[attrIndex], readLength);
+    }
+    /**将池中数据直接解码为字符串。*/
+    public String readPoolString(short attrIndex) {
+        this.checkIndex(attrIndex);
         int readLength = this.poolMap[attrIndex];//内容长度
-        if (readLength == NULL_MARK)
+        if (readLength == NULL_MARK) {
             return null;
-        //
-        byte[] data = new byte[readLength];
-        this.poolData.getBytes(rawIndex, data, 0, readLength);
-        return data;
+        }
+        return this.poolData.toString(this.poolOffset[attrIndex], readLength, DEFAULT_CHARSET);
     }
     public void release() {
-        IOUtils.releaseByteBuf(this.poolData);
+        if (!this.sharedData) {
+            IOUtils.releaseByteBuf(this.poolData);
+        }
+        this.poolData = null;
         this.poolMap = null;
+        this.poolOffset = null;
+        this.poolLength = 0;
     }
     @Override
     protected void finalize() throws Throwable {
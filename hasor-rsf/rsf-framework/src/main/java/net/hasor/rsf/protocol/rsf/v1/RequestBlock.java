@@ -62,7 +62,9 @@ public class RequestBlock extends PoolBlock {
     private short serializeType  = 0;  //byte[2]  序列化策略
     private int   clientTimeout  = 0;  //byte[4]  远程客户端超时时间
     private int[] paramData      = {}; //(attr-index,attr-index)
+    private int   paramCount     = 0;  //paramData 有效条数
     private int[] optionMap      = {}; //(attr-index,attr-index)
+    private int   optionCount    = 0;  //optionMap 有效条数
     //
     public RequestBlock() {
     }
@@ -152,12 +154,13 @@ public class RequestBlock extends PoolBlock {
     }
     /**添加请求参数。*/
     public void addParameter(int mergeData) {
-        this.paramData = ArrayUtils.add(this.paramData, mergeData);
+        this.paramData = ArrayUtils.grow(this.paramData, this.paramCount + 1);
+        this.paramData[this.paramCount++] = mergeData;
     }
     /**获取请求参数类型列表。*/
     public short[] getParameterTypes() {
-        short[] pTypes = new short[this.paramData.length];
-        for (int i = 0; i < this.paramData.length; i++) {
+        short[] pTypes = new short[this.paramCount];
+        for (int i = 0; i < this.paramCount; i++) {
             int mergeData = this.paramData[i];
             pTypes[i] = (short) (mergeData >>> 16);
         }
@@ -165,14 +168,15 @@ public class RequestBlock extends PoolBlock {
     }
     /**获取请求参数类型列表。*/
     public short[] getParameterValues() {
-        short[] pDatas = new short[this.paramData.length];
-        for (int i = 0; i < this.paramData.length; i++) {
+        short[] pDatas = new short[this.paramCount];
+        for (int i = 0; i < this.paramCount; i++) {
             pDatas[i] = (short) (PoolMaxSize & this.paramData[i]);
         }
         return pDatas;
     }
     /**获取请求参数类型列表。*/
     public int[] getParameters() {
+        this.paramData = ArrayUtils.trim(this.paramData, this.paramCount);
         return this.paramData;
     }
     /**添加选项。*/
@@ -184,12 +188,13 @@ public class RequestBlock extends PoolBlock {
     }
     /**添加选项。*/
     public void addOption(int mergeData) {
-        this.optionMap = ArrayUtils.add(this.optionMap, mergeData);
+        this.optionMap = ArrayUtils.grow(this.optionMap, this.optionCount + 1);
+        this.optionMap[this.optionCount++] = mergeData;
     }
     /**获取选项Key集合。*/
     public short[] getOptionKeys() {
-        short[] optKeys = new short[this.optionMap.length];
-        for (int i = 0; i < this.optionMap.length; i++) {
+        short[] optKeys = new short[this.optionCount];
+        for (int i = 0; i < this.optionCount; i++) {
             int mergeData = this.optionMap[i];
             optKeys[i] = (short) (mergeData >>> 16);
         }
@@ -197,14 +202,15 @@ public class RequestBlock extends PoolBlock {
     }
     /**获取选项数据*/
     public short[] getOptionValues() {
-        short[] optDatas = new short[this.optionMap.length];
-        for (int i = 0; i < this.optionMap.length; i++) {
+        short[] optDatas = new short[this.optionCount];
+        for (int i = 0; i < this.optionCount; i++) {
             optDatas[i] = (short) (0x0000FFFF & this.optionMap[i]);
         }
         return optDatas;
     }
     /**获取Option。*/
     public int[] getOptions() {
+        this.optionMap = ArrayUtils.trim(this.optionMap, this.optionCount);
         return this.optionMap;
     }
 }
\ No newline at end of file
@@ -50,6 +50,7 @@ public class ResponseBlock extends PoolBlock {
     private short returnType    = 0;  //byte[2]  返回数据类型
     private short returnData    = 0;  //byte[2]  返回数据
     private int[] optionMap     = {}; //(attr-index,attr-index)
+    private int   optionCount   = 0;  //optionMap 有效条数
     //
     /**获取协议版本。*/
     public byte getVersion() {
@@ -112,12 +113,13 @@ public class ResponseBlock extends PoolBlock {
     }
     /**添加选项。*/
     public void addOption(int mergeData) {
-        this.optionMap = ArrayUtils.add(this.optionMap, mergeData);
+        this.optionMap = ArrayUtils.grow(this.optionMap, this.optionCount + 1);
+        this.optionMap[this.optionCount++] = mergeData;
     }
     /**获取选项Key集合。*/
     public short[] getOptionKeys() {
-        short[] optKeys = new short[this.optionMap.length];
-        for (int i = 0; i < this.optionMap.length; i++) {
+        short[] optKeys = new short[this.optionCount];
+        for (int i = 0; i < this.optionCount; i++) {
             int mergeData = this.optionMap[i];
             optKeys[i] = (short) (mergeData >>> 16);
         }
@@ -125,14 +127,15 @@ public class ResponseBlock extends PoolBlock {
     }
     /**获取选项数据*/
     public short[] getOptionValues() {
-        short[] optDatas = new short[this.optionMap.length];
-        for (int i = 0; i < this.optionMap.length; i++) {
+        short[] optDatas = new short[this.optionCount];
+        for (int i = 0; i < this.optionCount; i++) {
             optDatas[i] = (short) (0x0000FFFF & this.optionMap[i]);
         }
         return optDatas;
     }
     /**获取Option。*/
     public int[] getOptions() {
+        this.optionMap = ArrayUtils.trim(this.optionMap, this.optionCount);
         return this.optionMap;
     }
 }
\ No newline at end of file
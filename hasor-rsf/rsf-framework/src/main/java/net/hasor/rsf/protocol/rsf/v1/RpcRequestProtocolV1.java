@@ -16,7 +16,6 @@
 package net.hasor.rsf.protocol.rsf.v1;
 import io.netty.buffer.ByteBuf;
 import net.hasor.rsf.protocol.rsf.Protocol;
-import net.hasor.rsf.utils.ProtocolUtils;
 
 import java.io.IOException;
 /**
@@ -35,17 +34,17 @@ public class RpcRequestProtocolV1 implements Protocol<RequestBlock> {
         //* byte[1]  keepData                             保留区
         buf.writeByte(0);
         //* byte[3]  contentLength                        内容大小(max = 16MB)
+        //  先占位，内容直接写入 buf 之后再回填长度，避免额外的中间缓冲和复制。
+        int lengthIndex = buf.writerIndex();
+        buf.writeMedium(0);
         //
-        ByteBuf requestBody = this.encodeRequest(reqMsg);
-        int bodyLength = requestBody.readableBytes();
+        this.encodeRequest(reqMsg, buf);
+        int bodyLength = buf.writerIndex() - lengthIndex - 3;
         bodyLength = (bodyLength << 8) >>> 8;//左移8未，在无符号右移8位。形成最大16777215字节的限制。
-        buf.writeMedium(bodyLength);
-        //
-        buf.writeBytes(requestBody);
+        buf.setMedium(lengthIndex, bodyLength);
     }
     //
-    private ByteBuf encodeRequest(RequestBlock reqMsg) {
-        ByteBuf bodyBuf = ProtocolUtils.newByteBuf();
+    private void encodeRequest(RequestBlock reqMsg, ByteBuf bodyBuf) {
         //* --------------------------------------------------------bytes =14
         //* byte[2]  servicesName-(attr-index)            远程服务名
         bodyBuf.writeShort(reqMsg.getServiceName());
@@ -82,7 +81,6 @@ public class RpcRequestProtocolV1 implements Protocol<RequestBlock> {
         //* --------------------------------------------------------数据池
         //* dataBody                                      数据池
         reqMsg.fillTo(bodyBuf);
-        return bodyBuf;
     }
     //
     //
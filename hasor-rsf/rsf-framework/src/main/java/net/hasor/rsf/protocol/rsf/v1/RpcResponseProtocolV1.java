@@ -16,7 +16,6 @@
 package net.hasor.rsf.protocol.rsf.v1;
 import io.netty.buffer.ByteBuf;
 import net.hasor.rsf.protocol.rsf.Protocol;
-import net.hasor.rsf.utils.ProtocolUtils;
 
 import java.io.IOException;
 /**
@@ -36,17 +35,18 @@ public class RpcResponseProtocolV1 implements Protocol<ResponseBlock> {
         //* byte[1]  keepData                             保留区
         buf.writeByte(0);
         //* byte[3]  contentLength                        内容大小(max = 16MB)
-        ByteBuf responseBody = this.encodeResponse(resMsg);
-        int bodyLength = responseBody.readableBytes();
-        bodyLength = (bodyLength << 8) >>> 8;//左移8未，在无符号右移8位。形成最大16777215字节的限制。
-        buf.writeMedium(bodyLength);
+        //  先占位，内容直接写入 buf 之后再回填长度，避免额外的中间缓冲和复制。
+        int lengthIndex = buf.writerIndex();
+        buf.writeMedium(0);
         //
-        buf.writeBytes(responseBody);
+        this.encodeResponse(resMsg, buf);
+        int bodyLength = buf.writerIndex() - lengthIndex - 3;
+        bodyLength = (bodyLength << 8) >>> 8;//左移8未，在无符号右移8位。形成最大16777215字节的限制。
+        buf.setMedium(lengthIndex, bodyLength);
         //
     }
     //
-    private ByteBuf encodeResponse(ResponseBlock resMsg) {
-        ByteBuf bodyBuf = ProtocolUtils.newByteBuf();
+    private void encodeResponse(ResponseBlock resMsg, ByteBuf bodyBuf) {
         //
         //* --------------------------------------------------------bytes =8
         //* byte[2]  status                               响应状态
@@ -69,7 +69,6 @@ public class RpcResponseProtocolV1 implements Protocol<ResponseBlock> {
         //* --------------------------------------------------------bytes =n
         //* dataBody                                      数据池
         resMsg.fillTo(bodyBuf);
-        return bodyBuf;
     }
     //
     //
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.protocol.rsf.v2;
+import io.netty.buffer.ByteBuf;
+import net.hasor.rsf.RsfEnvironment;
+import net.hasor.rsf.SerializeCoder;
+import net.hasor.rsf.StreamSerializeCoder;
+import net.hasor.rsf.domain.LazyPayload;
+import net.hasor.rsf.domain.OptionInfo;
+import net.hasor.rsf.domain.RequestInfo;
+import net.hasor.rsf.domain.ResponseInfo;
+import net.hasor.rsf.protocol.rsf.ProtocolConstants;
+import net.hasor.utils.ClassUtils;
+import net.hasor.utils.StringUtils;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+/**
+ * RSF 2.0 协议的编码解码，包头和 1.0 相同，包体中的字符串通过 {@link StringDictionary} 压缩，数值使用变长编码。
+ * <p>每条连接的每个方向使用一个实例：编码端和解码端各自持有自己方向上的字典。</p>
+ * <pre>
+ * --------------------------------------------------------bytes =13
+ * byte[1]  version                              RSF版本(0x92、0xA2、0xB2)
+ * byte[8]  requestID                            请求ID
+ * byte[1]  keepData                             保留区
+ * byte[3]  contentLength                        内容大小(max = 16MB)
+ * --------------------------------------------------------Request
+ * string   serviceGroup、serviceName、serviceVersion、targetMethod、serializeType
+ * varint   clientTimeout
+ * byte[2]  flags
+ * varint   paramCount
+ *     string paramType、data paramData         参数
+ * varint   optionCount
+ *     string optKey、string optValue            选项参数
+ * --------------------------------------------------------Response
+ * byte[2]  status
+ * string   serializeType、returnType
+ * data     returnData
+ * varint   optionCount
+ *     string optKey、string optValue            选项参数
+ * --------------------------------------------------------
+ * string = varint head [+ UTF-8 bytes]
+ *     head = 0                                  null
+ *     head = (id     &lt;&lt; 2) | 1                 引用字典中的字符串
+ *     head = (length &lt;&lt; 2) | 2                 字符串内容，同时放入字典
+ *     head = (length &lt;&lt; 2) | 3                 字符串内容，不放入字典
+ * data   = varint (length + 1) [+ bytes]        0 表示 null
+ * </pre>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class CodecAdapterForV2 implements ProtocolConstants {
+    private static final Charset          UTF8          = Charset.forName("UTF-8");
+    private static final int              STRING_NULL   = 0;
+    private static final int              STRING_REF    = 1;
+    private static final int              STRING_DEFINE = 2;
+    private static final int              STRING_RAW    = 3;
+    private final        RsfEnvironment   rsfEnvironment;
+    private final        ClassLoader      classLoader;
+    private final        StringDictionary dictionary;
+    //
+    public CodecAdapterForV2(RsfEnvironment rsfEnvironment, ClassLoader classLoader, StringDictionary dictionary) {
+        this.rsfEnvironment = rsfEnvironment;
+        this.classLoader = classLoader;
+        this.dictionary = dictionary;
+    }
+    public StringDictionary getDictionary() {
+        return this.dictionary;
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    /** 编码请求，失败时 out 中可能留有部分数据，字典也需要 rollback。 */
+    public void writeRequestInfo(RequestInfo info, ByteBuf out) throws IOException {
+        int lengthIndex = this.writeHead(info.isMessage() ? RSF_MessageRequest_V2 : RSF_InvokerRequest_V2, info.getRequestID(), out);
+        //
+        //1.基本信息
+        this.writeString(out, info.getServiceGroup(), true);
+        this.writeString(out, info.getServiceName(), true);
+        this.writeString(out, info.getServiceVersion(), true);
+        this.writeString(out, info.getTargetMethod(), true);
+        this.writeString(out, info.getSerializeType(), true);
+        writeVarInt(out, info.getClientTimeout());
+        out.writeShort(info.getFlags());
+        //
+        //2.params
+        List<String> pTypes = info.getParameterTypes();
+        List<Object> pValues = info.getParameterValues();
+        if ((pTypes != null && !pTypes.isEmpty()) && (pValues != null && !pValues.isEmpty())) {
+            SerializeCoder coder = this.rsfEnvironment.getSerializeCoder(info.getSerializeType());
+            writeVarInt(out, pTypes.size());
+            for (int i = 0; i < pTypes.size(); i++) {
+                this.writeString(out, pTypes.get(i), true);
+                writeObject(out, coder, pValues.get(i));
+            }
+        } else {
+            writeVarInt(out, 0);
+        }
+        //
+        //3.Opt参数
+        this.writeOptions(out, info);
+        this.writeLength(lengthIndex, out);
+    }
+    /** 编码响应，失败时 out 中可能留有部分数据，字典也需要 rollback。 */
+    public void writeResponseInfo(ResponseInfo info, ByteBuf out) throws IOException {
+        int lengthIndex = this.writeHead(RSF_Response_V2, info.getRequestID(), out);
+        //
+        //1.基本信息
+        out.writeShort(info.getStatus());
+        this.writeString(out, info.getSerializeType(), true);
+        //
+        //2.returnData
+        SerializeCoder coder = this.rsfEnvironment.getSerializeCoder(info.getSerializeType());
+        this.writeString(out, info.getReturnType(), true);
+        writeObject(out, coder, info.getReturnData());
+        //
+        //3.Opt参数
+        this.writeOptions(out, info);
+        this.writeLength(lengthIndex, out);
+    }
+    private int writeHead(byte head, long requestID, ByteBuf out) {
+        out.writeByte(head);
+        out.writeLong(requestID);
+        out.writeByte(0);
+        int lengthIndex = out.writerIndex();
+        out.writeMedium(0);
+        return lengthIndex;
+    }
+    private void writeLength(int lengthIndex, ByteBuf out) {
+        int bodyLength = out.writerIndex() - lengthIndex - 3;
+        bodyLength = (bodyLength << 8) >>> 8;
+        out.setMedium(lengthIndex, bodyLength);
+    }
+    /** 选项的 key 放入字典，value 经常变化（例如跟踪ID）不放入字典 */
+    private void writeOptions(ByteBuf out, OptionInfo info) {
+        String[] optKeys = info.getOptionKeys();
+        writeVarInt(out, optKeys.length);
+        for (String optKey : optKeys) {
+            this.writeString(out, optKey, true);
+            this.writeString(out, info.getOption(optKey), false);
+        }
+    }
+    private void writeString(ByteBuf out, String string, boolean useDictionary) {
+        if (string == null) {
+            writeVarInt(out, STRING_NULL);
+            return;
+        }
+        int type = STRING_RAW;
+        if (useDictionary) {
+            int id = this.dictionary.idOf(string);
+            if (id >= 0) {
+                writeVarInt(out, (id << 2) | STRING_REF);
+                return;
+            }
+            if (this.dictionary.define(string) >= 0) {
+                type = STRING_DEFINE;
+            }
+        }
+        byte[] stringBytes = string.getBytes(UTF8);
+        writeVarInt(out, (stringBytes.length << 2) | type);
+        out.writeBytes(stringBytes);
+    }
+    /** 序列化数据，流式序列化器直接编码到 out 中，长度用固定 4 个字节的变长整数回填 */
+    private static void writeObject(ByteBuf out, SerializeCoder coder, Object data) throws IOException {
+        if (coder == null) {
+            writeVarInt(out, 1);
+            return;
+        }
+        if (!(coder instanceof StreamSerializeCoder)) {
+            byte[] dataBytes = coder.encode(data);
+            if (dataBytes == null) {
+                writeVarInt(out, 0);
+                return;
+            }
+            writeVarInt(out, dataBytes.length + 1);
+            out.writeBytes(dataBytes);
+            return;
+        }
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        ((StreamSerializeCoder) coder).encode(data, out);
+        int length = out.writerIndex() - lengthIndex - 4 + 1;
+        if (length >>> 28 != 0) {
+            throw new IOException("data is too large, length = " + (length - 1));
+        }
+        out.setByte(lengthIndex, (length & 0x7F) | 0x80);
+        out.setByte(lengthIndex + 1, ((length >>> 7) & 0x7F) | 0x80);
+        out.setByte(lengthIndex + 2, ((length >>> 14) & 0x7F) | 0x80);
+        out.setByte(lengthIndex + 3, (length >>> 21) & 0x7F);
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    /** 解码请求，frame 为一个完整的数据包。lazy 为 true 时参数不在这里反序列化，而是交给 {@link RequestInfo#decodePayload()}。 */
+    public RequestInfo readRequestInfo(ByteBuf frame, boolean lazy) throws Throwable {
+        RequestInfo info = new RequestInfo();
+        byte head = frame.readByte();
+        info.setRequestID(frame.readLong());
+        frame.skipBytes(4);
+        info.setMessage(head == RSF_MessageRequest_V2);
+        //
+        //1.基本信息（先把整个数据包中的字符串都读完，保证字典和对端一致）
+        info.setServiceGroup(this.readString(frame));
+        info.setServiceName(this.readString(frame));
+        info.setServiceVersion(this.readString(frame));
+        info.setTargetMethod(this.readString(frame));
+        String serializeType = this.readString(frame);
+        info.setSerializeType(serializeType);
+        info.setClientTimeout(readVarInt(frame));
+        info.setFlags(frame.readShort());
+        //
+        //2.params，这里只记录数据的位置
+        SerializeCoder serializeCoder = this.rsfEnvironment.getSerializeCoder(serializeType);
+        int paramCount = readVarInt(frame);
+        RequestPayload payload = null;
+        for (int i = 0; i < paramCount; i++) {
+            String paramType = this.readString(frame);
+            int length = readVarInt(frame) - 1;
+            if (serializeCoder != null && StringUtils.isNotBlank(paramType) && length >= 0) {
+                if (payload == null) {
+                    payload = new RequestPayload(info, frame, serializeCoder, this.classLoader, paramCount);
+                }
+                payload.addParameter(i, frame.readerIndex(), length);
+            }
+            info.addParameter(paramType, null);
+            if (length > 0) {
+                frame.skipBytes(length);
+            }
+        }
+        //
+        //3.Opt参数
+        int optionCount = readVarInt(frame);
+        for (int i = 0; i < optionCount; i++) {
+            info.addOption(this.readString(frame), this.readString(frame));
+        }
+        //
+        //4.反序列化参数，延迟反序列化时 frame 要一直保留到参数解码之后
+        if (payload != null) {
+            if (lazy) {
+                frame.retain();
+                info.setLazyPayload(payload);
+            } else {
+                payload.decode();
+            }
+        }
+        return info;
+    }
+    /** 解码响应，frame 为一个完整的数据包。lazy 为 true 时返回值不在这里反序列化，而是交给 {@link ResponseInfo#decodePayload()}。 */
+    public ResponseInfo readResponseInfo(ByteBuf frame, boolean lazy) throws Throwable {
+        ResponseInfo info = new ResponseInfo();
+        frame.skipBytes(1);
+        info.setRequestID(frame.readLong());
+        frame.skipBytes(4);
+        //
+        //1.基本信息
+        info.setStatus(frame.readShort());
+        String serializeType = this.readString(frame);
+        info.setSerializeType(serializeType);
+        String returnType = this.readString(frame);
+        info.setReturnType(returnType);
+        int dataLength = readVarInt(frame) - 1;
+        int dataOffset = frame.readerIndex();
+        if (dataLength > 0) {
+            frame.skipBytes(dataLength);
+        }
+        //
+        //2.Opt参数
+        int optionCount = readVarInt(frame);
+        for (int i = 0; i < optionCount; i++) {
+            info.addOption(this.readString(frame), this.readString(frame));
+        }
+        //
+        //3.returnData
+        SerializeCoder serializeCoder = this.rsfEnvironment.getSerializeCoder(serializeType);
+        if (serializeCoder != null && StringUtils.isNotBlank(returnType) && dataLength >= 0) {
+            if (lazy) {
+                // .调用者什么时候取结果是不确定的，返回值复制出来，不引用网络数据包
+                byte[] dataArrays = new byte[dataLength];
+                frame.getBytes(dataOffset, dataArrays);
+                info.setLazyPayload(new ResponsePayload(info, dataArrays, serializeCoder, this.classLoader));
+            } else {
+                Class<?> dataType = ClassUtils.getClass(this.classLoader, returnType, false);
+                info.setReturnData(readObject(frame.slice(dataOffset, dataLength), serializeCoder, dataType));
+            }
+        }
+        return info;
+    }
+    private String readString(ByteBuf frame) throws IOException {
+        int head = readVarInt(frame);
+        int type = head & 3;
+        if (type == STRING_REF) {
+            return this.dictionary.get(head >>> 2);
+        }
+        if (type == STRING_NULL) {
+            if (head != STRING_NULL) {
+                throw new IOException("bad string head " + head);
+            }
+            return null;
+        }
+        int length = head >>> 2;
+        String string = frame.toString(frame.readerIndex(), length, UTF8);
+        frame.skipBytes(length);
+        if (type == STRING_DEFINE) {
+            this.dictionary.add(string);
+        }
+        return string;
+    }
+    private static Object readObject(ByteBuf data, SerializeCoder coder, Class<?> dataType) throws IOException {
+        if (coder instanceof StreamSerializeCoder) {
+            return ((StreamSerializeCoder) coder).decode(data, dataType);
+        }
+        byte[] dataArrays = new byte[data.readableBytes()];
+        data.getBytes(data.readerIndex(), dataArrays);
+        return coder.decode(dataArrays, dataType);
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    /** 写入无符号变长整数，每个字节 7 位，最高位为 1 表示后面还有数据 */
+    static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    /** 读取无符号变长整数 */
+    static int readVarInt(ByteBuf in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint.");
+    }
+    //
+    // --------------------------------------------------------------------------------------------
+    /**延迟反序列化的请求参数，数据区引用着 frame，解码之后释放 frame。*/
+    private static class RequestPayload implements LazyPayload {
+        private final RequestInfo    requestInfo;
+        private final ByteBuf        frame;
+        private final SerializeCoder serializeCoder;
+        private final ClassLoader    classLoader;
+        private final int[]          paramIndex;     // 需要解码的参数位置
+        private final int[]          dataOffset;     // 参数数据在 frame 中的位置
+        private final int[]          dataLength;     // 参数数据的长度
+        private       int            paramCount = 0;
+        private final AtomicBoolean  released   = new AtomicBoolean(false);
+        RequestPayload(RequestInfo requestInfo, ByteBuf frame, SerializeCoder serializeCoder, ClassLoader classLoader, int maxCount) {
+            this.requestInfo = requestInfo;
+            this.frame = frame;
+            this.serializeCoder = serializeCoder;
+            this.classLoader = classLoader;
+            this.paramIndex = new int[maxCount];
+            this.dataOffset = new int[maxCount];
+            this.dataLength = new int[maxCount];
+        }
+        void addParameter(int index, int offset, int length) {
+            this.paramIndex[this.paramCount] = index;
+            this.dataOffset[this.paramCount] = offset;
+            this.dataLength[this.paramCount] = length;
+            this.paramCount++;
+        }
+        public void decode() throws Throwable {
+            if (this.released.get()) {
+                throw new IllegalStateException("payload is released.");
+            }
+            for (int i = 0; i < this.paramCount; i++) {
+                int index = this.paramIndex[i];
+                String paramType = this.requestInfo.getParameterTypes().get(index);
+                Class<?> dataType = ClassUtils.getClass(this.classLoader, paramType, false);
+                ByteBuf data = this.frame.slice(this.dataOffset[i], this.dataLength[i]);
+                this.requestInfo.updateParameter(index, paramType, readObject(data, this.serializeCoder, dataType));
+            }
+        }
+        public void release() {
+            if (this.released.compareAndSet(false, true)) {
+                this.frame.release();
+            }
+        }
+    }
+    /**延迟反序列化的返回值，数据已经复制出来，不需要释放。*/
+    private static class ResponsePayload implements LazyPayload {
+        private final ResponseInfo   responseInfo;
+        private final byte[]         dataArrays;
+        private final SerializeCoder serializeCoder;
+        private final ClassLoader    classLoader;
+        ResponsePayload(ResponseInfo responseInfo, byte[] dataArrays, SerializeCoder serializeCoder, ClassLoader classLoader) {
+            this.responseInfo = responseInfo;
+            this.dataArrays = dataArrays;
+            this.serializeCoder = serializeCoder;
+            this.classLoader = classLoader;
+        }
+        public void decode() throws Throwable {
+            Class<?> dataType = ClassUtils.getClass(this.classLoader, this.responseInfo.getReturnType(), false);
+            this.responseInfo.setReturnData(this.serializeCoder.decode(this.dataArrays, dataType));
+        }
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.protocol.rsf.v2;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * 连接级的字符串字典，每条连接的每个方向各有一个。
+ * <p>发送端第一次发送某个字符串时连同内容一起发送并标记为“定义”，双方都按出现的顺序为它分配下一个 ID，
+ * 之后同一个字符串只发送 ID。ID 不在网络上传输，只要两端处理数据包的顺序一致，分配的结果就一致，
+ * 因此发送端只能在编码线程上使用它，并且数据包编码失败时必须 {@link #rollback()}。</p>
+ * <p>字典的容量在握手时协商，字典满了之后新的字符串直接发送内容。接收端解码出的字符串在连接的生命周期内只创建一次。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class StringDictionary {
+    /** 超过这个长度的字符串不放入字典 */
+    public static final int                  MaxStringLength = 256;
+    private final       int                  capacity;
+    private final       Map<String, Integer> idMap;           // 发送端使用
+    private final       List<String>         stringList;      // ID -> 字符串
+    private             int                  commitSize      = 0;
+    //
+    public StringDictionary(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.idMap = new HashMap<String, Integer>();
+        this.stringList = new ArrayList<String>();
+    }
+    /** 字典容量 */
+    public int getCapacity() {
+        return this.capacity;
+    }
+    /** 字典中的字符串数量 */
+    public int size() {
+        return this.stringList.size();
+    }
+    //
+    /** (发送端)查找字符串的 ID，不在字典中返回 -1。 */
+    public int idOf(String string) {
+        Integer id = this.idMap.get(string);
+        return id == null ? -1 : id;
+    }
+    /** (发送端)把字符串放入字典并返回分配的 ID，字典已满或者字符串太长时返回 -1。 */
+    public int define(String string) {
+        if (this.stringList.size() >= this.capacity || string.length() > MaxStringLength) {
+            return -1;
+        }
+        int id = this.stringList.size();
+        this.stringList.add(string);
+        this.idMap.put(string, id);
+        return id;
+    }
+    /** (发送端)数据包已经完整写出，确认这期间定义的字符串。 */
+    public void commit() {
+        this.commitSize = this.stringList.size();
+    }
+    /** (发送端)数据包没有写出，撤销上次 commit 之后定义的字符串。 */
+    public void rollback() {
+        while (this.stringList.size() > this.commitSize) {
+            String string = this.stringList.remove(this.stringList.size() - 1);
+            this.idMap.remove(string);
+        }
+    }
+    //
+    /** (接收端)对端定义了一个新的字符串。 */
+    public void add(String string) throws IOException {
+        if (this.stringList.size() >= this.capacity) {
+            throw new IOException("string dictionary is full, capacity is " + this.capacity);
+        }
+        this.stringList.add(string);
+    }
+    /** (接收端)根据 ID 取得字符串。 */
+    public String get(int id) throws IOException {
+        if (id < 0 || id >= this.stringList.size()) {
+            throw new IOException("string id " + id + " is undefined, dictionary size is " + this.stringList.size());
+        }
+        return this.stringList.get(id);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.rpc.caller;
+import net.hasor.utils.asm.*;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+/**
+ * 生成服务桩、方法调用器字节码时使用的工具类。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+class ClassCodeTools implements Opcodes {
+    /** 服务类型上所有可以远程调用的方法（public、非 static），签名相同的方法只保留一个，数组下标即为方法序号。 */
+    public static Method[] serviceMethods(Class<?> serviceType, Set<String> excludeDesc) {
+        List<Method> methodList = new ArrayList<Method>();
+        Set<String> descSet = new HashSet<String>();
+        for (Method method : serviceType.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            String desc = method.getName() + Type.getMethodDescriptor(method);
+            if ((excludeDesc != null && excludeDesc.contains(desc)) || !descSet.add(desc)) {
+                continue;
+            }
+            methodList.add(method);
+        }
+        return methodList.toArray(new Method[methodList.size()]);
+    }
+    /** 生成的类和服务类型不在同一个 ClassLoader 中，用到的类型都必须是 public 的。 */
+    public static boolean isPublicType(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive()) {
+            return true;
+        }
+        for (Class<?> atType = type; atType != null; atType = atType.getEnclosingClass()) {
+            if (!Modifier.isPublic(atType.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /** 方法的参数、返回值是否都是 public 类型 */
+    public static boolean isPublicMethod(Method method) {
+        if (!isPublicType(method.getReturnType())) {
+            return false;
+        }
+        for (Class<?> paramType : method.getParameterTypes()) {
+            if (!isPublicType(paramType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /** 生成的类能否通过 loader 找到 type（同一个 Class 对象） */
+    public static boolean isVisible(Class<?> type, ClassLoader loader) {
+        try {
+            return Class.forName(type.getName(), false, loader) == type;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+    //
+    /** 把一个 int 常量压入栈顶 */
+    public static void pushInt(MethodVisitor mv, int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+    /** 栈顶的基本类型装箱，引用类型不变 */
+    public static void box(MethodVisitor mv, Class<?> type) {
+        if (!type.isPrimitive()) {
+            return;
+        }
+        String wrapper = Type.getInternalName(wrapperType(type));
+        mv.visitMethodInsn(INVOKESTATIC, wrapper, "valueOf", "(" + Type.getDescriptor(type) + ")L" + wrapper + ";", false);
+    }
+    /** 栈顶的 Object 转换为 type，基本类型先强转为包装类型再拆箱 */
+    public static void unbox(MethodVisitor mv, Class<?> type) {
+        if (type == Object.class) {
+            return;
+        }
+        if (!type.isPrimitive()) {
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+            return;
+        }
+        String wrapper = Type.getInternalName(wrapperType(type));
+        mv.visitTypeInsn(CHECKCAST, wrapper);
+        mv.visitMethodInsn(INVOKEVIRTUAL, wrapper, type.getName() + "Value", "()" + Type.getDescriptor(type), false);
+    }
+    private static Class<?> wrapperType(Class<?> type) {
+        if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == char.class) {
+            return Character.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == double.class) {
+            return Double.class;
+        }
+        throw new UnsupportedOperationException("not primitive type " + type);
+    }
+    //
+    /**
+     * 只借用父类的类名生成一个全新的子类：父类中的方法、字段、内部类信息全部丢弃，
+     * 在 visitEnd 时输出无参构造方法和 {@link #visitBody()} 中生成的方法。
+     */
+    static abstract class NewClassAdapter extends ClassVisitor {
+        private final String   thisClassName;
+        private final String[] interfaces;
+        private       String   superClassName;
+        NewClassAdapter(ClassVisitor visitor, String thisClassName, String[] interfaces) {
+            super(ASM5, visitor);
+            this.thisClassName = thisClassName.replace(".", "/");
+            this.interfaces = interfaces;
+        }
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.superClassName = name;
+            super.visit(V1_6, ACC_PUBLIC | ACC_SUPER, this.thisClassName, null, this.superClassName, this.interfaces);
+        }
+        public void visitSource(String source, String debug) {
+        }
+        public void visitOuterClass(String owner, String name, String desc) {
+        }
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            return null;
+        }
+        public void visitAttribute(Attribute attr) {
+        }
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        }
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            return null;
+        }
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            return null;
+        }
+        public void visitEnd() {
+            MethodVisitor mv = super.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitMethodInsn(INVOKESPECIAL, this.superClassName, "<init>", "()V", false);
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+            this.visitBody();
+            super.visitEnd();
+        }
+        /** 生成的方法通过这里输出 */
+        protected MethodVisitor newMethod(int access, String name, String desc, String[] exceptions) {
+            return super.visitMethod(access, name, desc, null, exceptions);
+        }
+        protected String getThisClassName() {
+            return this.thisClassName;
+        }
+        protected String getSuperClassName() {
+            return this.superClassName;
+        }
+        protected abstract void visitBody();
+    }
+}
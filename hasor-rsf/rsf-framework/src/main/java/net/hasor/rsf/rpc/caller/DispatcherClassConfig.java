@@ -0,0 +1,134 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.rpc.caller;
+import net.hasor.core.classcode.AbstractClassConfig;
+import net.hasor.utils.asm.ClassVisitor;
+import net.hasor.utils.asm.Label;
+import net.hasor.utils.asm.MethodVisitor;
+import net.hasor.utils.asm.Opcodes;
+import net.hasor.utils.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+/**
+ * 生成 {@link MethodDispatcher} 的子类。
+ * <pre>
+ * public Object invoke(Object target, int index, Object[] params) throws Throwable {
+ *     switch (index) {
+ *     case 0:
+ *         return ((ServiceType) target).method0((A) params[0], ((Integer) params[1]).intValue());
+ *     ...
+ *     default:
+ *         throw this.noSuchMethod(index);
+ *     }
+ * }
+ * </pre>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+class DispatcherClassConfig extends AbstractClassConfig implements Opcodes {
+    protected static Logger   logger = LoggerFactory.getLogger(DispatcherClassConfig.class);
+    private final    Class<?> serviceType;
+    private final    Method[] methods;
+    //
+    DispatcherClassConfig(Class<?> serviceType, Method[] methods, ClassLoader parentLoader) {
+        super(MethodDispatcher.class, parentLoader);
+        this.serviceType = serviceType;
+        this.methods = methods;
+    }
+    protected String initClassName() {
+        return MethodDispatcher.class.getName() + "$Auto$" + index();
+    }
+    public boolean hasChange() {
+        return true;
+    }
+    //
+    /** 生成服务类型的调用器，不支持生成或者生成失败时返回 null。 */
+    static MethodDispatcher newDispatcher(Class<?> serviceType, Method[] methods) {
+        ClassLoader loader = serviceType.getClassLoader();
+        if (loader == null || !ClassCodeTools.isPublicType(serviceType) || !ClassCodeTools.isVisible(MethodDispatcher.class, loader)) {
+            return null;
+        }
+        for (Method method : methods) {
+            if (!ClassCodeTools.isPublicMethod(method)) {
+                return null;
+            }
+        }
+        try {
+            Class<?> dispatcherType = new DispatcherClassConfig(serviceType, methods, loader).toClass();
+            return (MethodDispatcher) dispatcherType.newInstance();
+        } catch (Throwable e) {
+            logger.warn("build dispatcher of {} failed, use reflect instead -> {}", serviceType.getName(), e.getMessage(), e);
+            return null;
+        }
+    }
+    protected ClassVisitor buildClassVisitor(ClassVisitor parentVisitor) {
+        return new ClassCodeTools.NewClassAdapter(parentVisitor, this.getClassName(), null) {
+            protected void visitBody() {
+                buildInvoke(this);
+            }
+        };
+    }
+    private void buildInvoke(ClassCodeTools.NewClassAdapter adapter) {
+        String desc = "(Ljava/lang/Object;I[Ljava/lang/Object;)Ljava/lang/Object;";
+        MethodVisitor mv = adapter.newMethod(ACC_PUBLIC, "invoke", desc, new String[] { "java/lang/Throwable" });
+        mv.visitCode();
+        Label defaultLabel = new Label();
+        if (this.methods.length > 0) {
+            Label[] caseLabels = new Label[this.methods.length];
+            for (int i = 0; i < caseLabels.length; i++) {
+                caseLabels[i] = new Label();
+            }
+            mv.visitVarInsn(ILOAD, 2);
+            mv.visitTableSwitchInsn(0, caseLabels.length - 1, defaultLabel, caseLabels);
+            for (int i = 0; i < caseLabels.length; i++) {
+                mv.visitLabel(caseLabels[i]);
+                this.buildCase(mv, this.methods[i]);
+            }
+        }
+        // .default: throw this.noSuchMethod(index);
+        mv.visitLabel(defaultLabel);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, 2);
+        mv.visitMethodInsn(INVOKEVIRTUAL, adapter.getSuperClassName(), "noSuchMethod", "(I)Ljava/lang/Throwable;", false);
+        mv.visitInsn(ATHROW);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+    private void buildCase(MethodVisitor mv, Method method) {
+        String ownerName = Type.getInternalName(this.serviceType);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitTypeInsn(CHECKCAST, ownerName);
+        Class<?>[] paramTypes = method.getParameterTypes();
+        for (int i = 0; i < paramTypes.length; i++) {
+            mv.visitVarInsn(ALOAD, 3);
+            ClassCodeTools.pushInt(mv, i);
+            mv.visitInsn(AALOAD);
+            ClassCodeTools.unbox(mv, paramTypes[i]);
+        }
+        boolean isInterface = this.serviceType.isInterface();
+        int opcode = isInterface ? INVOKEINTERFACE : INVOKEVIRTUAL;
+        mv.visitMethodInsn(opcode, ownerName, method.getName(), Type.getMethodDescriptor(method), isInterface);
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            mv.visitInsn(ACONST_NULL);
+        } else {
+            ClassCodeTools.box(mv, returnType);
+        }
+        mv.visitInsn(ARETURN);
+    }
+}
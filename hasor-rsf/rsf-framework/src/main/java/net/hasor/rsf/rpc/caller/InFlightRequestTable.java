@@ -0,0 +1,270 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.rpc.caller;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import net.hasor.rsf.RsfFuture;
+import net.hasor.rsf.rpc.net.RsfChannel;
+
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * 进行中的请求表，以原生 long 类型的 requestID 作为 key（不装箱）。
+ * <p>整个表按 requestID 分为多个段（stripe），每段是一个独立加锁的开放寻址散列表。
+ * requestID 为全局递增序列，响应报文中也只携带 requestID，因此按 requestID 分段即可把同一连接上的请求均匀分散到各段。</p>
+ * <p>每个 {@link Slot} 本身就是超时任务，请求完成（响应、失败）时会同时取消它在时间轮中的超时任务，避免时间轮中堆积无效任务。</p>
+ * <p>Slot 同时记录请求是从哪个连接发出的，请求完成（最终响应、发送失败、超时）时扣减该连接上的在途请求数。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class InFlightRequestTable {
+    /** 请求年龄直方图的分桶上限（毫秒），最后一个桶表示超过最大值的请求。*/
+    public static final long[] AGE_BUCKETS = { 10, 50, 100, 500, 1000, 5000 };
+    private final Stripe[]        stripes;
+    private final int             stripeMask;
+    private final AtomicInteger   inFlightCount;
+    private final TimeoutListener timeoutListener;
+    //
+    public InFlightRequestTable(int stripeCount, TimeoutListener timeoutListener) {
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeMask = size - 1;
+        this.inFlightCount = new AtomicInteger(0);
+        this.timeoutListener = timeoutListener;
+    }
+    //
+    private Stripe stripeOf(long requestID) {
+        return this.stripes[(int) (requestID & this.stripeMask)];
+    }
+    /**登记一个进行中的请求，返回的 Slot 可以作为超时任务交给时间轮。*/
+    public Slot put(long requestID, RsfFuture rsfFuture) {
+        Slot slot = new Slot(requestID, rsfFuture);
+        Slot oldSlot = this.stripeOf(requestID).put(slot);
+        if (oldSlot == null) {
+            this.inFlightCount.incrementAndGet();
+        } else {
+            oldSlot.finish();
+        }
+        return slot;
+    }
+    /**获取进行中的请求。*/
+    public RsfFuture get(long requestID) {
+        Slot slot = this.getSlot(requestID);
+        return slot == null ? null : slot.rsfFuture;
+    }
+    /**获取进行中的请求的 Slot。*/
+    public Slot getSlot(long requestID) {
+        return this.stripeOf(requestID).get(requestID);
+    }
+    /**移除进行中的请求，同时取消其超时任务。*/
+    public RsfFuture remove(long requestID) {
+        Slot slot = this.removeSlot(requestID);
+        return slot == null ? null : slot.rsfFuture;
+    }
+    /**移除进行中的请求并返回其 Slot（可以拿到请求的开始时间），同时取消其超时任务并扣减发出连接上的在途请求数。*/
+    public Slot removeSlot(long requestID) {
+        Slot slot = this.stripeOf(requestID).remove(requestID);
+        if (slot == null) {
+            return null;
+        }
+        this.inFlightCount.decrementAndGet();
+        slot.finish();
+        return slot;
+    }
+    /**进行中的请求数。*/
+    public int size() {
+        return this.inFlightCount.get();
+    }
+    /**
+     * 进行中请求的年龄直方图，数组长度为 AGE_BUCKETS.length + 1。
+     * 第 i 个元素为年龄小于 AGE_BUCKETS[i] 毫秒（且不小于前一个桶上限）的请求数，最后一个元素为超过最大上限的请求数。
+     */
+    public long[] ageHistogram() {
+        long[] histogram = new long[AGE_BUCKETS.length + 1];
+        long nowTime = System.currentTimeMillis();
+        for (Stripe stripe : this.stripes) {
+            stripe.collectAge(nowTime, histogram);
+        }
+        return histogram;
+    }
+    //
+    /** 请求超时的处理器。*/
+    public static interface TimeoutListener {
+        public void onTimeout(long requestID);
+    }
+    //
+    /** 一个进行中的请求，同时作为该请求的超时任务。*/
+    public class Slot implements TimerTask {
+        private final    long       requestID;
+        private final    RsfFuture  rsfFuture;
+        private final    long       startTime;
+        private volatile Timeout    timeout;
+        private volatile boolean    finished;
+        private          RsfChannel channel;  // 发出请求的连接，访问时锁定 Slot
+        private Slot(long requestID, RsfFuture rsfFuture) {
+            this.requestID = requestID;
+            this.rsfFuture = rsfFuture;
+            this.startTime = System.currentTimeMillis();
+        }
+        public RsfFuture getRsfFuture() {
+            return this.rsfFuture;
+        }
+        /**请求的开始时间（毫秒）。*/
+        public long getStartTime() {
+            return this.startTime;
+        }
+        /**关联时间轮中的超时任务，如果此时请求已经完成则立刻取消。*/
+        public void attachTimeout(Timeout timeout) {
+            this.timeout = timeout;
+            if (this.finished && timeout != null) {
+                timeout.cancel();
+            }
+        }
+        /**记录请求是从哪个连接发出的，该连接的在途请求数加一。请求已经完成或者已经记录过连接时返回 false。*/
+        public synchronized boolean attachChannel(RsfChannel channel) {
+            if (this.finished || this.channel != null) {
+                return false;
+            }
+            this.channel = channel;
+            channel.requestStarted();
+            return true;
+        }
+        private void finish() {
+            this.finished = true;
+            Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            RsfChannel channel;
+            synchronized (this) {
+                channel = this.channel;
+                this.channel = null;
+            }
+            if (channel != null) {
+                channel.requestFinished();
+            }
+        }
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            if (this.finished) {
+                return;
+            }
+            timeoutListener.onTimeout(this.requestID);
+        }
+    }
+    //
+    /** 开放寻址（线性探测）的 long -> Slot 散列表，删除时做后移压缩，不使用墓碑。*/
+    private static final class Stripe {
+        private long[] keys  = new long[16];
+        private Slot[] slots = new Slot[16];
+        private int    size  = 0;
+        //
+        private static int hash(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+        public synchronized Slot get(long requestID) {
+            int mask = this.keys.length - 1;
+            for (int i = hash(requestID, mask); this.slots[i] != null; i = (i + 1) & mask) {
+                if (this.keys[i] == requestID) {
+                    return this.slots[i];
+                }
+            }
+            return null;
+        }
+        public synchronized Slot put(Slot slot) {
+            if ((this.size + 1) << 1 > this.keys.length) {
+                this.resize(this.keys.length << 1);
+            }
+            int mask = this.keys.length - 1;
+            int i = hash(slot.requestID, mask);
+            for (; this.slots[i] != null; i = (i + 1) & mask) {
+                if (this.keys[i] == slot.requestID) {
+                    Slot oldSlot = this.slots[i];
+                    this.slots[i] = slot;
+                    return oldSlot;
+                }
+            }
+            this.keys[i] = slot.requestID;
+            this.slots[i] = slot;
+            this.size++;
+            return null;
+        }
+        public synchronized Slot remove(long requestID) {
+            int mask = this.keys.length - 1;
+            int i = hash(requestID, mask);
+            for (; this.slots[i] != null; i = (i + 1) & mask) {
+                if (this.keys[i] == requestID) {
+                    break;
+                }
+            }
+            Slot removed = this.slots[i];
+            if (removed == null) {
+                return null;
+            }
+            // 后移压缩：把后续探测链上的元素向前挪，保证查找不会被空位截断
+            int hole = i;
+            for (int j = (i + 1) & mask; this.slots[j] != null; j = (j + 1) & mask) {
+                int home = hash(this.keys[j], mask);
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    this.keys[hole] = this.keys[j];
+                    this.slots[hole] = this.slots[j];
+                    hole = j;
+                }
+            }
+            this.slots[hole] = null;
+            this.keys[hole] = 0;
+            this.size--;
+            return removed;
+        }
+        public synchronized void collectAge(long nowTime, long[] histogram) {
+            for (Slot slot : this.slots) {
+                if (slot == null) {
+                    continue;
+                }
+                long age = nowTime - slot.startTime;
+                int bucket = 0;
+                while (bucket < AGE_BUCKETS.length && age >= AGE_BUCKETS[bucket]) {
+                    bucket++;
+                }
+                histogram[bucket]++;
+            }
+        }
+        private void resize(int newLength) {
+            long[] oldKeys = this.keys;
+            Slot[] oldSlots = this.slots;
+            this.keys = new long[newLength];
+            this.slots = new Slot[newLength];
+            int mask = newLength - 1;
+            for (int j = 0; j < oldSlots.length; j++) {
+                if (oldSlots[j] == null) {
+                    continue;
+                }
+                int i = hash(oldKeys[j], mask);
+                while (this.slots[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                this.keys[i] = oldKeys[j];
+                this.slots[i] = oldSlots[j];
+            }
+        }
+    }
+}
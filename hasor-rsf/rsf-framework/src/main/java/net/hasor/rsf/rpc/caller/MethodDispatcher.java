@@ -0,0 +1,147 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.rpc.caller;
+import net.hasor.rsf.domain.RsfRuntimeUtils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * 服务方法调用器，每个容器中的每个服务一个（由 RsfBeanContainer 缓存，容器销毁时一起回收）。
+ * <p>服务类型上的方法在创建时编好序号并按方法名建立索引，调用者先用 {@link #indexOf(String, List)} 或 {@link #indexOf(Method)} 查到序号，
+ * 再通过 {@link #invoke(Object, int, Object[])} 调用。调用器的子类由字节码生成，invoke 是一个以序号为条件的 switch，
+ * 直接调用目标方法，不经过反射。服务类型不是 public 或者生成失败时，退回到反射调用。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public abstract class MethodDispatcher {
+    private Class<?>             serviceType;
+    private Method[]             methods;
+    private String[][]           paramTypes; // 每个方法参数类型的 RsfRuntimeUtils.toAsmType 表示，和请求中的参数类型相同
+    private Map<Method, Integer> methodIndex;
+    private Map<String, int[]>   nameIndex;  // 方法名 -> 同名方法（重载）的序号
+    //
+    /** 创建服务类型的方法调用器，调用器由使用者缓存（参见 RsfBeanContainer，每个容器一份）。 */
+    public static MethodDispatcher newDispatcher(Class<?> serviceType) {
+        Method[] methods = ClassCodeTools.serviceMethods(serviceType, null);
+        MethodDispatcher dispatcher = DispatcherClassConfig.newDispatcher(serviceType, methods);
+        if (dispatcher == null) {
+            dispatcher = new ReflectDispatcher();
+        }
+        dispatcher.init(serviceType, methods);
+        return dispatcher;
+    }
+    void init(Class<?> serviceType, Method[] methods) {
+        this.serviceType = serviceType;
+        this.methods = methods;
+        this.paramTypes = new String[methods.length][];
+        this.methodIndex = new HashMap<Method, Integer>();
+        this.nameIndex = new HashMap<String, int[]>();
+        for (int i = 0; i < methods.length; i++) {
+            Class<?>[] types = methods[i].getParameterTypes();
+            this.paramTypes[i] = new String[types.length];
+            for (int j = 0; j < types.length; j++) {
+                this.paramTypes[i][j] = RsfRuntimeUtils.toAsmType(types[j]);
+            }
+            this.methodIndex.put(methods[i], i);
+            int[] indexes = this.nameIndex.get(methods[i].getName());
+            indexes = (indexes == null) ? new int[1] : Arrays.copyOf(indexes, indexes.length + 1);
+            indexes[indexes.length - 1] = i;
+            this.nameIndex.put(methods[i].getName(), indexes);
+        }
+    }
+    //
+    /** 服务类型 */
+    public Class<?> getServiceType() {
+        return this.serviceType;
+    }
+    /** 方法数量，序号从 0 开始 */
+    public int getMethodCount() {
+        return this.methods.length;
+    }
+    /** 取得序号对应的方法 */
+    public Method getMethod(int index) {
+        return this.methods[index];
+    }
+    /** 查找方法的序号，找不到返回 -1。 */
+    public int indexOf(Method method) {
+        Integer index = this.methodIndex.get(method);
+        if (index != null) {
+            return index;
+        }
+        // .声明在其它类型上的同签名方法（例如实现类上的方法）
+        int[] indexes = this.nameIndex.get(method.getName());
+        if (indexes != null) {
+            Class<?>[] types = method.getParameterTypes();
+            for (int i : indexes) {
+                if (Arrays.equals(this.methods[i].getParameterTypes(), types)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+    /** 根据方法名和参数类型（{@link RsfRuntimeUtils#toAsmType(Class)} 格式）查找方法的序号，找不到返回 -1。 */
+    public int indexOf(String methodName, List<String> paramTypes) {
+        int[] indexes = this.nameIndex.get(methodName);
+        if (indexes == null) {
+            return -1;
+        }
+        int paramCount = paramTypes == null ? 0 : paramTypes.size();
+        for (int i : indexes) {
+            String[] types = this.paramTypes[i];
+            if (types.length != paramCount) {
+                continue;
+            }
+            boolean match = true;
+            for (int j = 0; j < paramCount; j++) {
+                if (!types[j].equals(paramTypes.get(j))) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    //
+    /** 调用 target 上序号为 index 的方法，方法抛出的异常原样抛出。 */
+    public abstract Object invoke(Object target, int index, Object[] params) throws Throwable;
+
+    /** 生成的 invoke 方法遇到未知序号时调用。 */
+    protected final Throwable noSuchMethod(int index) {
+        return new IllegalArgumentException("method index " + index + " is out of range, service type is " + this.serviceType.getName());
+    }
+    //
+    /** 通过反射调用 */
+    private static class ReflectDispatcher extends MethodDispatcher {
+        public Object invoke(Object target, int index, Object[] params) throws Throwable {
+            if (index < 0 || index >= this.getMethodCount()) {
+                throw this.noSuchMethod(index);
+            }
+            try {
+                return this.getMethod(index).invoke(target, params);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.rpc.caller;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import net.hasor.rsf.RsfFuture;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+/**
+ * 并发请求数达到上限时，用于暂存待发送请求的有界等待队列（{@link net.hasor.rsf.SendLimitPolicy#WaitQueue}）。
+ * <p>每个服务各自排队，出队时在服务之间轮转，单个服务最多只能占用总容量中按排队服务数（含新来的服务）均分的一份，
+ * 队列已满时新来的服务会挤掉超出份额的服务最后排入的请求，避免一个突发的服务挤占其它服务。每个排队请求都有截止时间，过期的请求在出队时直接丢弃，
+ * 同时也会由时间轮在截止时间到达时主动移除并回调失败。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class RequestWaitQueue {
+    private final int                                 maxSize;
+    private final Map<String, ArrayDeque<WaitEntry>> serviceQueues;
+    private final ArrayDeque<String>                  serviceRound;
+    private final ExpireListener                      expireListener;
+    private       int                                 size;
+    //
+    public RequestWaitQueue(int maxSize, ExpireListener expireListener) {
+        this.maxSize = Math.max(1, maxSize);
+        this.expireListener = expireListener;
+        this.serviceQueues = new HashMap<String, ArrayDeque<WaitEntry>>();
+        this.serviceRound = new ArrayDeque<String>();
+        this.size = 0;
+    }
+    //
+    /** 排队的请求总数。*/
+    public synchronized int size() {
+        return this.size;
+    }
+    /**
+     * 将请求放入等待队列。
+     * @param serviceID 请求所属服务
+     * @param rsfFuture 请求
+     * @param maxWait 最长等待时间（毫秒）
+     * @param evictedList 队列已满时，为了给该服务腾出份额而被挤出队列的请求
+     * @return 队列已满且没有服务超出份额，或者该服务已用完其均分的份额时返回 null。
+     */
+    public synchronized WaitEntry offer(String serviceID, RsfFuture rsfFuture, long maxWait, ArrayDeque<WaitEntry> evictedList) {
+        ArrayDeque<WaitEntry> queue = this.serviceQueues.get(serviceID);
+        int serviceCount = this.serviceQueues.size() + (queue == null ? 1 : 0);
+        int fairShare = Math.max(1, this.maxSize / serviceCount);
+        if (queue != null && queue.size() >= fairShare) {
+            return null;
+        }
+        if (this.size >= this.maxSize) {
+            // .队列已满，从超出份额最多的服务中挤掉最后排入的请求
+            ArrayDeque<WaitEntry> overQueue = null;
+            for (ArrayDeque<WaitEntry> atQueue : this.serviceQueues.values()) {
+                if (atQueue.size() > fairShare && (overQueue == null || atQueue.size() > overQueue.size())) {
+                    overQueue = atQueue;
+                }
+            }
+            if (overQueue == null) {
+                return null;
+            }
+            evictedList.addLast(overQueue.pollLast());
+            this.size--;
+        }
+        if (queue == null) {
+            queue = new ArrayDeque<WaitEntry>();
+            this.serviceQueues.put(serviceID, queue);
+            this.serviceRound.addLast(serviceID);
+        }
+        WaitEntry entry = new WaitEntry(serviceID, rsfFuture, System.currentTimeMillis() + maxWait);
+        queue.addLast(entry);
+        this.size++;
+        return entry;
+    }
+    /** 按服务轮转取出下一个未过期的请求，过期的请求会被移出并放入 expiredList。*/
+    public synchronized WaitEntry poll(long nowTime, ArrayDeque<WaitEntry> expiredList) {
+        while (!this.serviceRound.isEmpty()) {
+            String serviceID = this.serviceRound.pollFirst();
+            ArrayDeque<WaitEntry> queue = this.serviceQueues.get(serviceID);
+            WaitEntry entry = null;
+            while (queue != null && !queue.isEmpty()) {
+                WaitEntry atEntry = queue.pollFirst();
+                this.size--;
+                if (atEntry.deadline <= nowTime) {
+                    expiredList.addLast(atEntry);
+                    continue;
+                }
+                entry = atEntry;
+                break;
+            }
+            if (queue == null || queue.isEmpty()) {
+                this.serviceQueues.remove(serviceID);
+            } else {
+                this.serviceRound.addLast(serviceID);
+            }
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+    /** 从队列中移除指定请求（等待超时时使用），返回是否成功移除。*/
+    public synchronized boolean remove(WaitEntry entry) {
+        ArrayDeque<WaitEntry> queue = this.serviceQueues.get(entry.serviceID);
+        if (queue == null || !queue.remove(entry)) {
+            return false;
+        }
+        this.size--;
+        if (queue.isEmpty()) {
+            this.serviceQueues.remove(entry.serviceID);
+            this.serviceRound.remove(entry.serviceID);
+        }
+        return true;
+    }
+    //
+    /** 排队请求等待超时的处理器。*/
+    public static interface ExpireListener {
+        public void onExpire(WaitEntry entry);
+    }
+    //
+    /** 一个排队中的请求，同时作为其等待超时的定时任务。*/
+    public class WaitEntry implements TimerTask {
+        private final    String    serviceID;
+        private final    RsfFuture rsfFuture;
+        private final    long      deadline;
+        private volatile Timeout   timeout;
+        private WaitEntry(String serviceID, RsfFuture rsfFuture, long deadline) {
+            this.serviceID = serviceID;
+            this.rsfFuture = rsfFuture;
+            this.deadline = deadline;
+        }
+        public RsfFuture getRsfFuture() {
+            return this.rsfFuture;
+        }
+        public long getDeadline() {
+            return this.deadline;
+        }
+        public void attachTimeout(Timeout timeout) {
+            this.timeout = timeout;
+        }
+        public void cancelTimeout() {
+            Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            if (remove(this)) {
+                expireListener.onExpire(this);
+            }
+        }
+    }
+}
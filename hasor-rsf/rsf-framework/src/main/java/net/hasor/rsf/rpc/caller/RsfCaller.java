@@ -20,12 +20,15 @@ import net.hasor.rsf.domain.RsfException;
 import net.hasor.rsf.domain.RsfFlags;
 import net.hasor.rsf.domain.RsfRuntimeUtils;
 import net.hasor.rsf.domain.provider.AddressProvider;
+import net.hasor.utils.asm.Type;
 import net.hasor.utils.future.FutureCallback;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.*;
 /**
  * 通过包装RSF请求响应，提供（同步、异步、回调、接口代理）四种远程调用方式的实现。
@@ -137,8 +140,8 @@ public class RsfCaller extends RsfRequestManager {
             return null;
         return this.wrapper(target, bindInfo, interFace);
     }
-    private final Object                                          LOCK_OBJECT = new Object();
-    private final ConcurrentMap<String, Class<RsfServiceWrapper>> wrapperMap  = new ConcurrentHashMap<String, Class<RsfServiceWrapper>>();
+    private final Object                               LOCK_OBJECT = new Object();
+    private final ConcurrentMap<Class<?>, WrapperType> wrapperMap  = new ConcurrentHashMap<Class<?>, WrapperType>();
     public <T> T wrapper(AddressProvider target, RsfBindInfo<?> bindInfo, Class<T> interFace) throws RsfException {
         if (bindInfo == null)
             throw new NullPointerException();
@@ -148,16 +151,14 @@ public class RsfCaller extends RsfRequestManager {
         }
         //
         String bindID = bindInfo.getBindID();
-        Class<RsfServiceWrapper> wrapperClass = this.wrapperMap.get(bindID);
-        if (wrapperClass == null) {
+        WrapperType wrapperType = this.wrapperMap.get(interFace);
+        if (wrapperType == null) {
             synchronized (LOCK_OBJECT) {
-                wrapperClass = this.wrapperMap.get(bindID);
-                if (wrapperClass == null) {
+                wrapperType = this.wrapperMap.get(interFace);
+                if (wrapperType == null) {
                     try {
-                        ClassLoader loader = this.getContext().getClassLoader();
-                        wrapperClass = (Class<RsfServiceWrapper>) Proxy.getProxyClass(loader, new Class[] { RsfServiceWrapper.class, interFace });
-                        //
-                        this.wrapperMap.put(bindID, wrapperClass);
+                        wrapperType = this.buildWrapperType(interFace);
+                        this.wrapperMap.put(interFace, wrapperType);
                     } catch (Throwable e) {
                         throw new RsfException(e.getMessage(), e);
                     }
@@ -166,8 +167,15 @@ public class RsfCaller extends RsfRequestManager {
         }
         //
         try {
-            Constructor<RsfServiceWrapper> constructor = wrapperClass.getConstructor(new Class[] { InvocationHandler.class });
-            RsfServiceWrapper wrapper = constructor.newInstance(new Object[] { new ServiceMethodDelegateByProxy(bindInfo) });
+            RsfServiceWrapper wrapper = null;
+            if (wrapperType.methods != null) {
+                RsfServiceWrapperObject wrapperObject = (RsfServiceWrapperObject) wrapperType.wrapperClass.newInstance();
+                wrapperObject.initWrapper(this, bindInfo, wrapperType.methods);
+                wrapper = wrapperObject;
+            } else {
+                Constructor<?> constructor = wrapperType.wrapperClass.getConstructor(new Class[] { InvocationHandler.class });
+                wrapper = (RsfServiceWrapper) constructor.newInstance(new Object[] { new ServiceMethodDelegateByProxy(bindInfo) });
+            }
             //
             wrapper.setTarget(target);
             return (T) wrapper;
@@ -176,6 +184,39 @@ public class RsfCaller extends RsfRequestManager {
             throw new RsfException(e.getMessage(), e);
         }
     }
+    /** 优先生成 {@link RsfServiceWrapperObject} 的子类作为接口实现，接口不是 public 或者生成失败时使用 {@link Proxy}。 */
+    private WrapperType buildWrapperType(Class<?> interFace) {
+        ClassLoader interLoader = interFace.getClassLoader();
+        if (interLoader != null && ClassCodeTools.isPublicType(interFace) && ClassCodeTools.isVisible(RsfServiceWrapperObject.class, interLoader)) {
+            Set<String> excludeDesc = new HashSet<String>();
+            for (Method method : RsfServiceWrapperObject.class.getMethods()) {
+                excludeDesc.add(method.getName() + Type.getMethodDescriptor(method));
+            }
+            Method[] methods = ClassCodeTools.serviceMethods(interFace, excludeDesc);
+            boolean support = true;
+            for (Method method : methods) {
+                support = support && ClassCodeTools.isPublicMethod(method);
+            }
+            if (support) {
+                try {
+                    Class<?> wrapperClass = new WrapperClassConfig(interFace, methods, interLoader).toClass();
+                    return new WrapperType(wrapperClass, methods);
+                } catch (Throwable e) {
+                    logger.warn("build wrapper of {} failed, use Proxy instead -> {}", interFace.getName(), e.getMessage(), e);
+                }
+            }
+        }
+        ClassLoader loader = this.getContext().getClassLoader();
+        return new WrapperType(Proxy.getProxyClass(loader, new Class[] { RsfServiceWrapper.class, interFace }), null);
+    }
+    private static class WrapperType {
+        private final Class<?> wrapperClass;
+        private final Method[] methods;     // 为 null 表示 wrapperClass 是 Proxy
+        WrapperType(Class<?> wrapperClass, Method[] methods) {
+            this.wrapperClass = wrapperClass;
+            this.methods = methods;
+        }
+    }
     private class ServiceMethodDelegateByProxy implements InvocationHandler {
         private RsfBindInfo<?>  bindInfo;
         private AddressProvider target;
@@ -218,6 +259,13 @@ public class RsfCaller extends RsfRequestManager {
         //3.返回数据
         return rsfFuture.get(timeout, TimeUnit.MILLISECONDS).getData();
     }
+    /** 同步方式调用远程服务，targetMethod 已经是服务类型上的方法（客户端桩使用）。 */
+    Object syncInvoke(AddressProvider target, RsfBindInfo<?> bindInfo, Method targetMethod, Object[] parameterObjects) throws InterruptedException, ExecutionException, TimeoutException {
+        int timeout = validateTimeout(bindInfo.getClientTimeout());
+        RsfRequestFormLocal request = buildRsfRequestFormLocal(target, bindInfo, targetMethod, parameterObjects);
+        RsfFuture rsfFuture = doSendRequest(request, null);
+        return rsfFuture.get(timeout, TimeUnit.MILLISECONDS).getData();
+    }
     /**
      * 异步方式调用远程服务。
      * @param target 目标RSF服务提供者地址。
@@ -273,12 +321,15 @@ public class RsfCaller extends RsfRequestManager {
         return timeout;
     }
     private RsfRequestFormLocal buildRsfRequestFormLocal(AddressProvider target, RsfBindInfo<?> bindInfo, String methodName, Class<?>[] parameterTypes, Object[] parameterObjects) {
+        Method targetMethod = RsfRuntimeUtils.getServiceMethod(bindInfo.getBindType(), methodName, parameterTypes);
+        return buildRsfRequestFormLocal(target, bindInfo, targetMethod, parameterObjects);
+    }
+    private RsfRequestFormLocal buildRsfRequestFormLocal(AddressProvider target, RsfBindInfo<?> bindInfo, Method targetMethod, Object[] parameterObjects) {
         short flags = 0;
         if (target.isDistributed()) {
             flags = RsfFlags.P2PFlag.addTag(flags);
         }
-        Method targetMethod = RsfRuntimeUtils.getServiceMethod(bindInfo.getBindType(), methodName, parameterTypes);
-        InterAddress targetAddress = target.get(bindInfo.getBindID(), methodName, parameterObjects);
+        InterAddress targetAddress = target.get(bindInfo.getBindID(), targetMethod.getName(), parameterObjects);
         return new RsfRequestFormLocal(targetAddress, flags, bindInfo, targetMethod, parameterObjects, this);
     }
 }
\ No newline at end of file
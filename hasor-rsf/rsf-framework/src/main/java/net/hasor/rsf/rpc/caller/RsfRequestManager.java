@@ -14,23 +14,25 @@
  * limitations under the License.
  */
 package net.hasor.rsf.rpc.caller;
-import io.netty.util.Timeout;
-import io.netty.util.TimerTask;
 import net.hasor.core.Hasor;
 import net.hasor.core.Provider;
 import net.hasor.rsf.*;
 import net.hasor.rsf.container.RsfBeanContainer;
 import net.hasor.rsf.domain.*;
+import net.hasor.rsf.rpc.net.RsfChannel;
 import net.hasor.rsf.rpc.net.SendCallBack;
 import net.hasor.rsf.utils.ProtocolUtils;
+import net.hasor.utils.NameThreadFactory;
 import net.hasor.utils.future.FutureCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Method;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * 负责管理所有 RSF 发起的请求，Manager还提供了最大并发上限的配置.
  * @version : 2014年9月12日
@@ -39,17 +41,35 @@ import java.util.concurrent.atomic.AtomicInteger;
 public abstract class RsfRequestManager {
     protected static Logger logger    = LoggerFactory.getLogger(RsfRequestManager.class);
     protected static Logger invLogger = LoggerFactory.getLogger(RsfConstants.LoggerName_Invoker);
-    private final ConcurrentMap<Long, RsfFuture> rsfResponse;
-    private final RsfContext                     rsfContext;
-    private final AtomicInteger                  requestCount;
-    private final SenderListener                 senderListener;
+    private final    InFlightRequestTable rsfResponse;
+    private final    RequestWaitQueue     waitQueue;
+    private final    AtomicBoolean        waitQueueDraining;
+    private          ExecutorService      waitQueueExecutor;
+    private volatile boolean              waitQueueShutdown;
+    private final    RsfContext           rsfContext;
+    private final    SenderListener       senderListener;
     //
     public RsfRequestManager(RsfContext rsfContext, SenderListener senderListener) {
         senderListener = Hasor.assertIsNotNull(senderListener, "not found SendData.");
         this.rsfContext = rsfContext;
-        this.rsfResponse = new ConcurrentHashMap<Long, RsfFuture>();
-        this.requestCount = new AtomicInteger(0);
+        this.rsfResponse = new InFlightRequestTable(Runtime.getRuntime().availableProcessors() * 4, new InFlightRequestTable.TimeoutListener() {
+            public void onTimeout(long requestID) {
+                /*异常信息*/
+                String errorInfo = "request(" + requestID + ") -> timeout for client.";
+                invLogger.error(errorInfo);
+                /*回应Response*/
+                putResponse(requestID, new RsfTimeoutException(errorInfo));
+            }
+        });
         this.senderListener = senderListener;
+        //
+        int sendQueueMaxSize = rsfContext.getSettings().getSendQueueMaxSize();
+        this.waitQueue = new RequestWaitQueue(sendQueueMaxSize, new RequestWaitQueue.ExpireListener() {
+            public void onExpire(RequestWaitQueue.WaitEntry entry) {
+                waitQueueExpired(entry);
+            }
+        });
+        this.waitQueueDraining = new AtomicBoolean(false);
     }
     /**获取RSF容器对象。*/
     public RsfContext getContext() {
@@ -57,9 +77,30 @@ public abstract class RsfRequestManager {
     }
     /**获取{@link RsfBeanContainer}。*/
     public abstract RsfBeanContainer getContainer();
+    /**销毁，停止发送等待队列的线程，还在排队的请求全部失败。*/
+    public void shutdown() {
+        ExecutorService executor;
+        synchronized (this) {
+            this.waitQueueShutdown = true;
+            executor = this.waitQueueExecutor;
+            this.waitQueueExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        ArrayDeque<RequestWaitQueue.WaitEntry> remainingList = new ArrayDeque<RequestWaitQueue.WaitEntry>();
+        this.waitQueue.poll(Long.MAX_VALUE, remainingList);// 所有请求都视为过期
+        for (RequestWaitQueue.WaitEntry entry : remainingList) {
+            entry.cancelTimeout();
+            RsfFuture rsfFuture = entry.getRsfFuture();
+            String errorMessage = "request(" + rsfFuture.getRequest().getRequestID() + ") -> sendDataFailed, rsf is shutdown.";
+            invLogger.error(errorMessage);
+            rsfFuture.failed(new RsfException(ProtocolStatus.SendLimitPolicy, errorMessage));
+        }
+    }
     /**发送数据包*/
-    private void sendData(InterAddress toAddress, RequestInfo info, SendCallBack callBack) {
-        this.senderListener.sendRequest(toAddress, info, callBack);
+    private void sendData(InterAddress toAddress, RequestInfo info, int connections, SendCallBack callBack) {
+        this.senderListener.sendRequest(toAddress, info, connections, callBack);
     }
     //
     /**
@@ -70,6 +111,30 @@ public abstract class RsfRequestManager {
     public RsfFuture getRequest(long requestID) {
         return this.rsfResponse.get(requestID);
     }
+    /**
+     * 记录请求是从哪个连接发出的，由发送方在选定连接之后、写出数据之前调用。
+     * 请求完成（最终响应、发送失败或者超时）时扣减该连接上的在途请求数，因此连接上的计数与进行中的请求表保持一致。
+     * @return 请求已经完成时返回 false。
+     */
+    public boolean attachChannel(long requestID, RsfChannel rsfChannel) {
+        InFlightRequestTable.Slot slot = this.rsfResponse.getSlot(requestID);
+        return slot != null && slot.attachChannel(rsfChannel);
+    }
+    /** @return 当前正在进行中（等待响应）的请求数。*/
+    public int getInFlightCount() {
+        return this.rsfResponse.size();
+    }
+    /**
+     * 进行中请求的等待时长分布，分桶上限（毫秒）见 {@link #getInFlightAgeBuckets()}，数组最后一个元素为超出最大上限的请求数。
+     * @return 每个分桶中的请求数。
+     */
+    public long[] getInFlightAgeHistogram() {
+        return this.rsfResponse.ageHistogram();
+    }
+    /** @return 进行中请求的等待时长分桶上限（毫秒）。*/
+    public long[] getInFlightAgeBuckets() {
+        return InFlightRequestTable.AGE_BUCKETS.clone();
+    }
     /**
      * 响应挂起的Request请求。
      * @param info 响应结果
@@ -138,7 +203,7 @@ public abstract class RsfRequestManager {
         }
         // - Invoker 调用
         if (info.getStatus() == ProtocolStatus.OK) {
-            local.sendData(info.getReturnData());
+            local.sendPayload(info);// 返回值在调用者线程上反序列化
             return rsfFuture.completed(local);
         } else {
             invLogger.error("response({}) -> statusFailed, bindID ={}, status ={}.",//
@@ -161,10 +226,15 @@ public abstract class RsfRequestManager {
         }
     }
     private RsfFuture removeRsfFuture(long requestID) {
-        RsfFuture rsfFuture = this.rsfResponse.remove(requestID);
-        if (rsfFuture != null) {
-            this.requestCount.decrementAndGet();// i--;
+        InFlightRequestTable.Slot slot = this.rsfResponse.removeSlot(requestID);// 同时取消超时任务
+        if (slot == null) {
+            return null;
         }
+        RsfFuture rsfFuture = slot.getRsfFuture();
+        RsfRequestFormLocal request = (RsfRequestFormLocal) rsfFuture.getRequest();
+        long costTime = System.currentTimeMillis() - slot.getStartTime();
+        this.getContainer().getAddressPool().invokeEnd(request.getBindInfo().getBindID(), request.getTargetAddress(), costTime);// 反馈给选址策略
+        this.wakeupWaitQueue();// 空出了并发名额，尝试发送排队中的请求
         return rsfFuture;
     }
     /**
@@ -219,28 +289,42 @@ public abstract class RsfRequestManager {
         //
         /*2.发送之前的检查（允许的最大并发请求数）*/
         RsfSettings rsfSettings = this.getContainer().getEnvironment().getSettings();
-        if (this.requestCount.get() >= rsfSettings.getMaximumRequest()) {
-            SendLimitPolicy sendPolicy = rsfSettings.getSendLimitPolicy();
+        SendLimitPolicy sendPolicy = rsfSettings.getSendLimitPolicy();
+        if (sendPolicy == SendLimitPolicy.WaitQueue && this.waitQueue.size() > 0) {
+            this.waitInQueue(rsfFuture, rsfSettings);// 已经有请求在排队，新请求也要排队，避免插队
+            return;
+        }
+        if (this.rsfResponse.size() >= rsfSettings.getMaximumRequest()) {
             String errorMessage = "request(" + rsfRequest.getRequestID() + ") -> sendDataFailed, maximum number of requests, apply SendPolicy = " + sendPolicy.name();
             invLogger.error(errorMessage);
             if (sendPolicy == SendLimitPolicy.Reject) {
                 // - A.直接抛异常
                 rsfFuture.failed(new RsfException(ProtocolStatus.SendLimitPolicy, errorMessage));
                 return;
+            } else if (sendPolicy == SendLimitPolicy.WaitQueue) {
+                // - B.进入等待队列，不阻塞调用线程
+                this.waitInQueue(rsfFuture, rsfSettings);
+                return;
             } else {
-                // - B.等待1秒之后重新尝试，如果依然资源不足，那么抛异常
+                // - C.等待1秒之后重新尝试，如果依然资源不足，那么抛异常
                 try {
                     Thread.sleep(1000);/*SendLimitPolicy.WaitSecond*/
                 } catch (InterruptedException e) {
                     logger.error(e.getMessage(), e);
                 }
-                if (this.requestCount.get() >= rsfSettings.getMaximumRequest()) {
+                if (this.rsfResponse.size() >= rsfSettings.getMaximumRequest()) {
                     invLogger.error(errorMessage);
                     rsfFuture.failed(new RsfException(ProtocolStatus.SendLimitPolicy, errorMessage));
                     return;
                 }
             }
         }
+        this.sendToRemote(rsfFuture);
+    }
+    /**将请求发送到远端服务器（已经通过并发数检查）。*/
+    private void sendToRemote(final RsfFuture rsfFuture) {
+        final RsfRequestFormLocal rsfRequest = (RsfRequestFormLocal) rsfFuture.getRequest();
+        String serviceID = rsfRequest.getBindInfo().getBindID();
         /*3.准备发送数据*/
         InterAddress toAddress = rsfRequest.getTargetAddress();
         if (toAddress == null) {
@@ -255,7 +339,9 @@ public abstract class RsfRequestManager {
             RequestInfo info = ProtocolUtils.buildRequestInfo(environment, rsfRequest); // <- 1.生成RequestInfo
             info.setFlags(rsfRequest.getFlags());
             startRequest(rsfFuture);                                                    // <- 2.开始 timeout 计时
-            sendData(toAddress, info, new SendCallBack() {                              // <- 3.发送数据
+            this.getContainer().getAddressPool().invokeStart(serviceID, toAddress);     //    记录地址上的在途请求
+            int connections = rsfRequest.getBindInfo().getConnections();
+            sendData(toAddress, info, connections, new SendCallBack() {                 // <- 3.发送数据
                 public void failed(long requestID, Throwable e) {
                     putResponse(requestID, e);                                          // <- 4.发送失败直接 failed
                 }
@@ -268,30 +354,99 @@ public abstract class RsfRequestManager {
             putResponse(rsfRequest.getRequestID(), e);
         }
     }
+    //
+    /**将请求放入等待队列，队列已满（或该服务已用完其份额）时直接失败，为它腾出份额而被挤出队列的请求同样失败。*/
+    private void waitInQueue(RsfFuture rsfFuture, RsfSettings rsfSettings) {
+        RsfRequestFormLocal rsfRequest = (RsfRequestFormLocal) rsfFuture.getRequest();
+        int maxWait = rsfSettings.getSendQueueMaxWait();
+        if (rsfRequest.getTimeout() > 0 && rsfRequest.getTimeout() < maxWait) {
+            maxWait = rsfRequest.getTimeout();
+        }
+        ArrayDeque<RequestWaitQueue.WaitEntry> evictedList = new ArrayDeque<RequestWaitQueue.WaitEntry>();
+        RequestWaitQueue.WaitEntry entry = this.waitQueueShutdown ? null : this.waitQueue.offer(rsfRequest.getBindInfo().getBindID(), rsfFuture, maxWait, evictedList);
+        for (RequestWaitQueue.WaitEntry evicted : evictedList) {
+            this.waitQueueEvicted(evicted);
+        }
+        if (entry == null) {
+            String errorMessage = "request(" + rsfRequest.getRequestID() + ") -> sendDataFailed, send queue is full, apply SendPolicy = WaitQueue";
+            invLogger.error(errorMessage);
+            rsfFuture.failed(new RsfException(ProtocolStatus.SendLimitPolicy, errorMessage));
+            return;
+        }
+        invLogger.info("request({}) -> waitInQueue, maxWait = {}.", rsfRequest.getRequestID(), maxWait);
+        entry.attachTimeout(this.getContext().getEnvironment().atTime(entry, maxWait));
+        this.wakeupWaitQueue();// 入队期间可能已经有请求完成
+    }
+    /**请求在等待队列中超时。*/
+    private void waitQueueExpired(RequestWaitQueue.WaitEntry entry) {
+        entry.cancelTimeout();
+        RsfFuture rsfFuture = entry.getRsfFuture();
+        String errorMessage = "request(" + rsfFuture.getRequest().getRequestID() + ") -> sendDataFailed, wait in send queue timeout, apply SendPolicy = WaitQueue";
+        invLogger.error(errorMessage);
+        rsfFuture.failed(new RsfException(ProtocolStatus.SendLimitPolicy, errorMessage));
+    }
+    /**请求超出所属服务的份额，被其它服务挤出等待队列。*/
+    private void waitQueueEvicted(RequestWaitQueue.WaitEntry entry) {
+        entry.cancelTimeout();
+        RsfFuture rsfFuture = entry.getRsfFuture();
+        String errorMessage = "request(" + rsfFuture.getRequest().getRequestID() + ") -> sendDataFailed, evicted from send queue by fair share, apply SendPolicy = WaitQueue";
+        invLogger.error(errorMessage);
+        rsfFuture.failed(new RsfException(ProtocolStatus.SendLimitPolicy, errorMessage));
+    }
+    /**在独立线程中把排队的请求发送出去，同一时刻只有一个线程在处理队列。*/
+    private void wakeupWaitQueue() {
+        if (this.waitQueue.size() == 0 || !this.waitQueueDraining.compareAndSet(false, true)) {
+            return;
+        }
+        ExecutorService executor = this.getWaitQueueExecutor();
+        if (executor == null) {
+            this.waitQueueDraining.set(false);// 已经销毁
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    waitQueueDraining.set(false);
+                    drainWaitQueue();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.waitQueueDraining.set(false);// 销毁的同时提交
+        }
+    }
+    private synchronized ExecutorService getWaitQueueExecutor() {
+        if (this.waitQueueShutdown) {
+            return null;
+        }
+        if (this.waitQueueExecutor == null) {
+            this.waitQueueExecutor = Executors.newSingleThreadExecutor(new NameThreadFactory("RSF-SendQueue-%s", this.rsfContext.getClassLoader()));
+        }
+        return this.waitQueueExecutor;
+    }
+    private void drainWaitQueue() {
+        int maximumRequest = this.getContext().getSettings().getMaximumRequest();
+        ArrayDeque<RequestWaitQueue.WaitEntry> expiredList = new ArrayDeque<RequestWaitQueue.WaitEntry>();
+        while (this.rsfResponse.size() < maximumRequest) {
+            RequestWaitQueue.WaitEntry entry = this.waitQueue.poll(System.currentTimeMillis(), expiredList);
+            if (entry == null) {
+                break;
+            }
+            entry.cancelTimeout();
+            this.sendToRemote(entry.getRsfFuture());
+        }
+        for (RequestWaitQueue.WaitEntry entry : expiredList) {
+            this.waitQueueExpired(entry);
+        }
+    }
     /**
      * 负责客户端引发的超时逻辑。
      * @param rsfFuture 开始计时的请求。
      */
     private void startRequest(RsfFuture rsfFuture) {
-        this.requestCount.incrementAndGet();// i++;
-        this.rsfResponse.put(rsfFuture.getRequest().getRequestID(), rsfFuture);
-        final RsfRequestFormLocal request = (RsfRequestFormLocal) rsfFuture.getRequest();
-        TimerTask timeTask = new TimerTask() {
-            public void run(Timeout timeoutObject) throws Exception {
-                RsfFuture rsfCallBack = getRequest(request.getRequestID());
-                /*检测不到说明请求已经被正确响应。*/
-                if (rsfCallBack == null) {
-                    return;
-                }
-                /*异常信息*/
-                String errorInfo = "request(" + request.getRequestID() + ") -> timeout for client.";
-                invLogger.error(errorInfo);
-                /*回应Response*/
-                putResponse(request.getRequestID(), new RsfTimeoutException(errorInfo));
-            }
-        };
+        RsfRequestFormLocal request = (RsfRequestFormLocal) rsfFuture.getRequest();
+        InFlightRequestTable.Slot slot = this.rsfResponse.put(request.getRequestID(), rsfFuture);
         invLogger.info("request({}) -> startRequest, timeout at {} ,bindID ={}, callMethod ={}.", //
                 request.getRequestID(), request.getTimeout(), request.getBindInfo().getBindID(), request.getMethod());
-        this.getContext().getEnvironment().atTime(timeTask, request.getTimeout());
+        slot.attachTimeout(this.getContext().getEnvironment().atTime(slot, request.getTimeout()));
     }
 }
@@ -19,6 +19,8 @@ import net.hasor.rsf.RsfRequest;
 import net.hasor.rsf.RsfResponse;
 import net.hasor.rsf.domain.OptionInfo;
 import net.hasor.rsf.domain.ProtocolStatus;
+import net.hasor.rsf.domain.ResponseInfo;
+import net.hasor.rsf.domain.RsfException;
 import net.hasor.utils.StringUtils;
 /**
  * 调用请求
@@ -26,10 +28,12 @@ import net.hasor.utils.StringUtils;
  * @author 赵永春 (zyc@hasor.net)
  */
 public class RsfResponseObject extends OptionInfo implements RsfResponse {
-    private final RsfRequest rsfRequest;
-    private short   status       = ProtocolStatus.Unknown;
-    private Object  returnObject = null;
-    private boolean committed    = false;
+    private final    RsfRequest   rsfRequest;
+    private          short        status       = ProtocolStatus.Unknown;
+    private          Object       returnObject = null;
+    private          boolean      committed    = false;
+    private volatile ResponseInfo lazyData     = null; //还没有反序列化的返回值，第一次 getData 时在调用者线程上解码
+    private          RsfException decodeError  = null; //返回值反序列化失败
     //
     public RsfResponseObject(RsfRequest rsfRequest) {
         this.rsfRequest = rsfRequest;
@@ -53,8 +57,29 @@ public class RsfResponseObject extends OptionInfo implements RsfResponse {
     }
     @Override
     public Object getData() {
+        if (this.lazyData != null) {
+            this.decodeData();
+        }
+        if (this.decodeError != null) {
+            throw this.decodeError;
+        }
         return this.returnObject;
     }
+    private synchronized void decodeData() {
+        ResponseInfo info = this.lazyData;
+        if (info == null) {
+            return;
+        }
+        try {
+            info.decodePayload();
+            this.returnObject = info.getReturnData();
+        } catch (Throwable e) {
+            String errorMessage = "(" + e.getClass().getName() + ")" + e.getMessage();
+            this.decodeError = new RsfException(ProtocolStatus.SerializeError, "response(" + this.getRequestID() + ") decode failed -> " + errorMessage, e);
+        } finally {
+            this.lazyData = null;
+        }
+    }
     @Override
     public Class<?> getReturnType() {
         return this.rsfRequest.getMethod().getReturnType();
@@ -67,6 +92,13 @@ public class RsfResponseObject extends OptionInfo implements RsfResponse {
     public void sendData(Object returnObject) {
         this.updateReturn(ProtocolStatus.OK, returnObject, null);
     }
+    /**响应返回值，返回值还没有反序列化时推迟到第一次 {@link #getData()} 时解码。*/
+    void sendPayload(ResponseInfo info) {
+        this.updateReturn(ProtocolStatus.OK, info.getReturnData(), null);
+        if (info.hasLazyPayload()) {
+            this.lazyData = info;
+        }
+    }
     @Override
     public void sendStatus(short status) {
         this.updateReturn(status, null, null);
@@ -78,6 +110,8 @@ public class RsfResponseObject extends OptionInfo implements RsfResponse {
     private void updateReturn(short status, Object returnData, String returnMessage) {
         this.status = status;
         this.returnObject = returnData;
+        this.lazyData = null;
+        this.decodeError = null;
         this.committed = true;
         if (StringUtils.isNotBlank(returnMessage)) {
             this.addOption("message", returnMessage);
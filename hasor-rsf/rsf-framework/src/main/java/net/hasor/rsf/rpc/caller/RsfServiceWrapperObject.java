@@ -14,18 +14,68 @@
  * limitations under the License.
  */
 package net.hasor.rsf.rpc.caller;
+import net.hasor.rsf.RsfBindInfo;
+import net.hasor.rsf.domain.RsfRuntimeUtils;
 import net.hasor.rsf.domain.provider.AddressProvider;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
 /**
- * 服务对象基类。
+ * 服务对象基类，{@link RsfCaller#wrapper(AddressProvider, RsfBindInfo, Class)} 为每个接口生成它的一个子类作为客户端桩。
+ * <p>生成的子类实现接口上的每一个方法，方法体只是把参数装进数组然后调用 {@link #invokeMethod(int, Object[])}，
+ * 方法序号在生成时就已经确定，调用时不需要反射。</p>
  * @version : 2015年12月8日
  * @author 赵永春 (zyc@hasor.net)
  */
-public class RsfServiceWrapperObject implements RsfServiceWrapper {
+public abstract class RsfServiceWrapperObject implements RsfServiceWrapper {
     private AddressProvider target;
+    private RsfCaller       rsfCaller;
+    private RsfBindInfo<?>  bindInfo;
+    private Method[]        methods;       // 接口方法，下标为方法序号
+    private Method[]        remoteMethods; // 方法序号对应的服务类型（bindType）上的方法，第一次调用时查找
+    //
+    void initWrapper(RsfCaller rsfCaller, RsfBindInfo<?> bindInfo, Method[] methods) {
+        this.rsfCaller = rsfCaller;
+        this.bindInfo = bindInfo;
+        this.methods = methods;
+        this.remoteMethods = new Method[methods.length];
+    }
     public AddressProvider getTarget() {
         return target;
     }
     public void setTarget(AddressProvider target) {
         this.target = target;
     }
+    public String toString() {
+        return String.valueOf(this.target);
+    }
+    //
+    /** 以同步方式调用第 index 个方法，异常的处理方式和 {@link java.lang.reflect.Proxy} 一致。 */
+    protected final Object invokeMethod(int index, Object[] params) throws Throwable {
+        Method method = this.methods[index];
+        try {
+            Method remoteMethod = this.remoteMethods[index];
+            if (remoteMethod == null) {
+                Class<?> bindType = this.bindInfo.getBindType();
+                if (bindType == method.getDeclaringClass()) {
+                    remoteMethod = method;
+                } else {
+                    remoteMethod = RsfRuntimeUtils.getServiceMethod(bindType, method.getName(), method.getParameterTypes());
+                }
+                this.remoteMethods[index] = remoteMethod;
+            }
+            return this.rsfCaller.syncInvoke(this.target, this.bindInfo, remoteMethod, params);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            for (Class<?> exceptionType : method.getExceptionTypes()) {
+                if (exceptionType.isInstance(e)) {
+                    throw e;
+                }
+            }
+            throw new UndeclaredThrowableException(e);
+        }
+    }
 }
\ No newline at end of file
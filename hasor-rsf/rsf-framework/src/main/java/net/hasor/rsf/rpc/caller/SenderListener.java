@@ -24,8 +24,8 @@ import net.hasor.rsf.rpc.net.SendCallBack;
  * @author 赵永春 (zyc@hasor.net)
  */
 public interface SenderListener {
-    /**向远端发送请求。*/
-    public void sendRequest(InterAddress toAddress, RequestInfo info, SendCallBack callBack);
+    /**向远端发送请求，connections 为服务要求和远端之间保持的连接数。*/
+    public void sendRequest(InterAddress toAddress, RequestInfo info, int connections, SendCallBack callBack);
 
     /**向远端发送响应数据。*/
     public void sendResponse(InterAddress target, ResponseInfo info, SendCallBack callBack);
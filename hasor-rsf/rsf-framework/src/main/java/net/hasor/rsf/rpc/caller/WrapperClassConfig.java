@@ -0,0 +1,98 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.rpc.caller;
+import net.hasor.core.classcode.AbstractClassConfig;
+import net.hasor.utils.asm.ClassVisitor;
+import net.hasor.utils.asm.MethodVisitor;
+import net.hasor.utils.asm.Opcodes;
+import net.hasor.utils.asm.Type;
+
+import java.lang.reflect.Method;
+/**
+ * 生成客户端桩：{@link RsfServiceWrapperObject} 的子类，实现服务接口。
+ * <pre>
+ * public R method(A a, B b) throws E {
+ *     return (R) this.invokeMethod(index, new Object[] { a, b });
+ * }
+ * </pre>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+class WrapperClassConfig extends AbstractClassConfig implements Opcodes {
+    private final Class<?> interFace;
+    private final Method[] methods;
+    //
+    WrapperClassConfig(Class<?> interFace, Method[] methods, ClassLoader parentLoader) {
+        super(RsfServiceWrapperObject.class, parentLoader);
+        this.interFace = interFace;
+        this.methods = methods;
+    }
+    protected String initClassName() {
+        return RsfServiceWrapperObject.class.getName() + "$Wrapper$" + index();
+    }
+    public boolean hasChange() {
+        return true;
+    }
+    protected ClassVisitor buildClassVisitor(ClassVisitor parentVisitor) {
+        String[] interfaces = new String[] { Type.getInternalName(this.interFace) };
+        return new ClassCodeTools.NewClassAdapter(parentVisitor, this.getClassName(), interfaces) {
+            protected void visitBody() {
+                for (int i = 0; i < methods.length; i++) {
+                    buildMethod(this, i, methods[i]);
+                }
+            }
+        };
+    }
+    private void buildMethod(ClassCodeTools.NewClassAdapter adapter, int index, Method method) {
+        Class<?>[] paramTypes = method.getParameterTypes();
+        Class<?>[] exceptionTypes = method.getExceptionTypes();
+        String[] exceptions = new String[exceptionTypes.length];
+        for (int i = 0; i < exceptionTypes.length; i++) {
+            exceptions[i] = Type.getInternalName(exceptionTypes[i]);
+        }
+        MethodVisitor mv = adapter.newMethod(ACC_PUBLIC, method.getName(), Type.getMethodDescriptor(method), exceptions);
+        mv.visitCode();
+        //
+        // .this.invokeMethod(index, new Object[] { ... })
+        mv.visitVarInsn(ALOAD, 0);
+        ClassCodeTools.pushInt(mv, index);
+        ClassCodeTools.pushInt(mv, paramTypes.length);
+        mv.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+        int localIndex = 1;
+        for (int i = 0; i < paramTypes.length; i++) {
+            Type paramType = Type.getType(paramTypes[i]);
+            mv.visitInsn(DUP);
+            ClassCodeTools.pushInt(mv, i);
+            mv.visitVarInsn(paramType.getOpcode(ILOAD), localIndex);
+            ClassCodeTools.box(mv, paramTypes[i]);
+            mv.visitInsn(AASTORE);
+            localIndex += paramType.getSize();
+        }
+        mv.visitMethodInsn(INVOKEVIRTUAL, adapter.getSuperClassName(), "invokeMethod", "(I[Ljava/lang/Object;)Ljava/lang/Object;", false);
+        //
+        // .返回值
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            mv.visitInsn(POP);
+            mv.visitInsn(RETURN);
+        } else {
+            ClassCodeTools.unbox(mv, returnType);
+            mv.visitInsn(Type.getType(returnType).getOpcode(IRETURN));
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+}
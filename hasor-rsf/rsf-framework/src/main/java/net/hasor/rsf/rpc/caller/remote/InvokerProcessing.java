@@ -17,8 +17,10 @@ package net.hasor.rsf.rpc.caller.remote;
 import net.hasor.core.Provider;
 import net.hasor.rsf.*;
 import net.hasor.rsf.domain.*;
+import net.hasor.rsf.rpc.caller.MethodDispatcher;
 import net.hasor.rsf.rpc.caller.RsfFilterHandler;
 import net.hasor.rsf.rpc.caller.RsfResponseObject;
+import net.hasor.rsf.utils.ExecutesManager;
 import net.hasor.rsf.utils.ProtocolUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,7 +32,7 @@ import java.util.List;
  * @version : 2014年11月4日
  * @author 赵永春 (zyc@hasor.net)
  */
-abstract class InvokerProcessing implements Runnable {
+abstract class InvokerProcessing implements ExecutesManager.ExpirableTask {
     protected Logger logger = LoggerFactory.getLogger(getClass());
     private final RemoteRsfCaller rsfCaller;
     private final InterAddress    target;
@@ -51,8 +53,42 @@ abstract class InvokerProcessing implements Runnable {
     public RemoteRsfCaller getRsfCaller() {
         return this.rsfCaller;
     }
+    /**按照客户端的超时时间计算过期时间（服务自身的超时时间在执行时检查）。*/
+    @Override
+    public long getExpireTime() {
+        int timeout = this.requestInfo.getClientTimeout();
+        if (timeout <= 0) {
+            timeout = this.rsfCaller.getContext().getSettings().getDefaultTimeout();
+        }
+        return this.requestInfo.getReceiveTime() + timeout;
+    }
+    @Override
+    public void expired() {
+        long requestID = this.requestInfo.getRequestID();
+        String errorInfo = "do request(" + requestID + ") failed -> timeout for server, expired in queue.";
+        logger.error(errorInfo);
+        ResponseInfo info = ProtocolUtils.buildResponseStatus(this.rsfEnv, requestID, ProtocolStatus.Timeout, errorInfo);
+        this.requestInfo.releasePayload();
+        this.sendResponse(info);
+    }
+    @Override
+    public void rejected(String reason) {
+        long requestID = this.requestInfo.getRequestID();
+        String errorInfo = "do request(" + requestID + ") failed -> rejected request, " + reason;
+        logger.error(errorInfo);
+        ResponseInfo info = ProtocolUtils.buildResponseStatus(this.rsfEnv, requestID, ProtocolStatus.QueueFull, errorInfo);
+        this.requestInfo.releasePayload();
+        this.sendResponse(info);
+    }
     //
     public void run() {
+        try {
+            this.doRun();
+        } finally {
+            this.requestInfo.releasePayload();// 没有走到参数解码的请求（服务不存在、已经超时）也要释放数据包
+        }
+    }
+    private void doRun() {
         //
         /*正确性检验。*/
         long requestID = this.requestInfo.getRequestID();
@@ -82,7 +118,7 @@ abstract class InvokerProcessing implements Runnable {
         /*准备参数*/
         String serializeType = this.requestInfo.getSerializeType();
         Object[] pObjects = null;
-        Class<?>[] pTypes = null;
+        List<String> pTypeList = null;
         try {
             //1.确定序列化器
             SerializeCoder coder = this.rsfEnv.getSerializeCoder(serializeType);
@@ -93,8 +129,9 @@ abstract class InvokerProcessing implements Runnable {
                 this.sendResponse(info);
                 return;
             }
-            //2.参数数量校验
-            List<String> pTypeList = this.requestInfo.getParameterTypes();
+            //2.参数数量校验（延迟反序列化的参数在这里解码，解码工作在业务线程上完成）
+            this.requestInfo.decodePayload();
+            pTypeList = this.requestInfo.getParameterTypes();
             List<Object> pObjectList = this.requestInfo.getParameterValues();
             if (pTypeList.size() != pObjectList.size()) {
                 String errorInfo = "do request(" + requestID + ") failed -> parameters count and types count, not equal.";
@@ -104,15 +141,7 @@ abstract class InvokerProcessing implements Runnable {
                 return;
             }
             //3.反序列化
-            pTypes = new Class<?>[pTypeList.size()];
-            pObjects = new Object[pObjectList.size()];
-            for (int i = 0; i < pTypeList.size(); i++) {
-                String paramTypeStr = pTypeList.get(i);
-                Object paramObject = pObjectList.get(i);
-                //
-                pTypes[i] = RsfRuntimeUtils.getType(paramTypeStr, this.classLoader);
-                pObjects[i] = paramObject;
-            }
+            pObjects = pObjectList.toArray();
         } catch (Throwable e) {
             String errorMessage = "(" + e.getClass().getName() + ")" + e.getMessage();
             String errorInfo = "do request(" + requestID + ") failed -> serializeType(" + serializeType + ") ,serialize error: " + errorMessage;
@@ -124,8 +153,19 @@ abstract class InvokerProcessing implements Runnable {
         /*执行调用*/
         Method targetMethod = null;
         try {
+            //方法序号在调用器创建时已经编好，这里只做字符串比较，不需要加载参数类型
             String methodName = this.requestInfo.getTargetMethod();
-            targetMethod = bindInfo.getBindType().getMethod(methodName, pTypes);
+            MethodDispatcher dispatcher = this.rsfCaller.getContainer().getMethodDispatcher(bindInfo);
+            int methodIndex = dispatcher.indexOf(methodName, pTypeList);
+            if (methodIndex >= 0) {
+                targetMethod = dispatcher.getMethod(methodIndex);
+            } else {
+                Class<?>[] pTypes = new Class<?>[pTypeList.size()];
+                for (int i = 0; i < pTypeList.size(); i++) {
+                    pTypes[i] = RsfRuntimeUtils.getType(pTypeList.get(i), this.classLoader);
+                }
+                targetMethod = bindInfo.getBindType().getMethod(methodName, pTypes);
+            }
         } catch (Throwable e) {
             String errorMessage = "(" + e.getClass().getName() + ")" + e.getMessage();
             String errorInfo = "do request(" + requestID + ") failed -> lookup service method error : " + errorMessage;
@@ -14,6 +14,7 @@
  * limitations under the License.
  */
 package net.hasor.rsf.rpc.caller.remote;
+import net.hasor.rsf.ExecuteMode;
 import net.hasor.rsf.InterAddress;
 import net.hasor.rsf.RsfContext;
 import net.hasor.rsf.RsfEnvironment;
@@ -27,7 +28,6 @@ import net.hasor.rsf.rpc.caller.SenderListener;
 import net.hasor.rsf.utils.ExecutesManager;
 import net.hasor.rsf.utils.ProtocolUtils;
 
-import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 /**
  * 扩展{@link RsfCaller}，用来支持远程机器发来的调用请求。
@@ -47,11 +47,14 @@ public class RemoteRsfCaller extends RsfCaller {
         int minCorePoolSize = rsfSettings.getQueueMinPoolSize();
         int maxCorePoolSize = rsfSettings.getQueueMaxPoolSize();
         long keepAliveTime = rsfSettings.getQueueKeepAliveTime();
-        this.executesManager = new ExecutesManager(minCorePoolSize, maxCorePoolSize, queueSize, keepAliveTime, rsfContext.getClassLoader());
+        ExecuteMode executeMode = rsfSettings.getQueueExecuteMode();
+        int serviceLimit = rsfSettings.getQueueServiceLimit();
+        this.executesManager = new ExecutesManager(minCorePoolSize, maxCorePoolSize, queueSize, keepAliveTime, executeMode, serviceLimit, rsfContext.getClassLoader());
     }
     /**销毁。*/
     public void shutdown() {
         logger.info("rsfCaller -> shutdown.");
+        super.shutdown();
         this.executesManager.shutdown();
     }
     /**
@@ -66,10 +69,12 @@ public class RemoteRsfCaller extends RsfCaller {
             invLogger.info("request({}) -> received, bindID ={}, targetMethod ={}, remoteAddress ={}.", //
                     info.getRequestID(), serviceUniqueName, info.getTargetMethod(), target);
             //
-            Executor executor = executesManager.getExecute(serviceUniqueName);
-            executor.execute(new RemoteRsfCallerProcessing(target, this, info));//放入业务线程准备执行
-            ResponseInfo resp = ProtocolUtils.buildResponseStatus(rsfEnv, info.getRequestID(), ProtocolStatus.Accept, null);
-            this.senderListener.sendResponse(target, resp, null);
+            executesManager.execute(serviceUniqueName, new RemoteRsfCallerProcessing(target, this, info));//放入业务线程准备执行，排队期间超时的请求不会被执行
+            if (ProtocolUtils.isAcceptRequired(info)) {
+                // .握手时协商过的连接上，Invoke 调用以最终的结果作为响应，不再单独回应 Accept
+                ResponseInfo resp = ProtocolUtils.buildResponseStatus(rsfEnv, info.getRequestID(), ProtocolStatus.Accept, null);
+                this.senderListener.sendResponse(target, resp, null);
+            }
         } catch (RejectedExecutionException e) {
             invLogger.info("request({}) -> rejected request, queue is full. -> bindID ={}, targetMethod ={}, remoteAddress ={}.", //
                     info.getRequestID(), serviceUniqueName, info.getTargetMethod(), target);
@@ -77,11 +82,16 @@ public class RemoteRsfCaller extends RsfCaller {
             String errorMessage = "(" + e.getClass().getName() + ")" + e.getMessage();
             String msgLog = "rejected request, queue is full." + errorMessage;
             logger.warn(msgLog, e);
+            info.releasePayload();
             ResponseInfo resp = ProtocolUtils.buildResponseStatus(rsfEnv, info.getRequestID(), ProtocolStatus.QueueFull, msgLog);
             this.senderListener.sendResponse(target, resp, null);
         }
     }
     //
+    /**服务端执行请求的业务线程。*/
+    public ExecutesManager getExecutesManager() {
+        return this.executesManager;
+    }
     /**获取消息监听器。*/
     SenderListener getSenderListener() {
         return this.senderListener;
@@ -20,6 +20,7 @@ import net.hasor.rsf.RsfFilterChain;
 import net.hasor.rsf.RsfRequest;
 import net.hasor.rsf.RsfResponse;
 import net.hasor.rsf.domain.ProtocolStatus;
+import net.hasor.rsf.rpc.caller.MethodDispatcher;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -44,10 +45,15 @@ class RsfInvokeFilterChain implements RsfFilterChain {
             return;
         }
         //
+        Method refMethod = request.getMethod();
+        Object[] pObjects = request.getParameterObject();
+        MethodDispatcher dispatcher = request.getContext().getMethodDispatcher(bindInfo);
+        int methodIndex = dispatcher.indexOf(refMethod);
+        if (methodIndex >= 0) {
+            response.sendData(dispatcher.invoke(target, methodIndex, pObjects));
+            return;
+        }
         try {
-            Method refMethod = request.getMethod();
-            //Method targetMethod = target.getClass().getMethod(refMethod.getName(), refMethod.getParameterTypes());
-            Object[] pObjects = request.getParameterObject();
             Object resData = refMethod.invoke(target, pObjects);
             response.sendData(resData);
         } catch (InvocationTargetException e) {
@@ -26,6 +26,7 @@ import net.hasor.rsf.domain.*;
 import net.hasor.rsf.domain.provider.AddressProvider;
 import net.hasor.rsf.domain.provider.InstanceAddressProvider;
 import net.hasor.rsf.domain.provider.PoolAddressProvider;
+import net.hasor.rsf.rpc.caller.MethodDispatcher;
 import net.hasor.rsf.rpc.caller.SenderListener;
 import net.hasor.rsf.rpc.caller.remote.RemoteRsfCaller;
 import net.hasor.rsf.rpc.client.RpcRsfClient;
@@ -107,6 +108,7 @@ public abstract class AbstractRsfContext implements RsfContext, ContextStartList
         this.rsfCaller.shutdown();
         this.rsfNetManager.shutdown();
         this.addressPool.shutdownTimer();
+        this.addressPool.shutdown();
     }
     @Override
     public void doShutdownCompleted(AppContext appContext) {
@@ -221,6 +223,9 @@ public abstract class AbstractRsfContext implements RsfContext, ContextStartList
     public <T> Provider<T> getServiceProvider(RsfBindInfo<T> bindInfo) {
         return this.rsfBeanContainer.getProvider(bindInfo);
     }
+    public MethodDispatcher getMethodDispatcher(RsfBindInfo<?> bindInfo) {
+        return this.rsfBeanContainer.getMethodDispatcher(bindInfo);
+    }
     public RsfPublisher publisher() {
         return this.rsfBeanContainer.createPublisher(this.rsfBeanContainer, this);
     }
@@ -238,11 +243,12 @@ public abstract class AbstractRsfContext implements RsfContext, ContextStartList
         }
         //
         @Override
-        public void sendRequest(InterAddress toAddress, RequestInfo info, SendCallBack callBack) {
+        public void sendRequest(InterAddress toAddress, RequestInfo info, int connections, SendCallBack callBack) {
             try {
                 Connector connector = findConnector(toAddress);
-                RsfChannel channel = connector.getOrConnectionTo(toAddress).get();
+                RsfChannel channel = connector.getOrConnectionTo(toAddress, connections).get();
                 if (channel != null) {
+                    rsfCaller.attachChannel(info.getRequestID(), channel);
                     channel.sendData(info, callBack);
                 } else {
                     throw new RsfException(ProtocolStatus.NetworkError, "Invalid address ->" + toAddress.toHostSchema());
@@ -14,6 +14,7 @@
  * limitations under the License.
  */
 package net.hasor.rsf.rpc.context;
+import io.netty.util.Timeout;
 import io.netty.util.TimerTask;
 import net.hasor.core.Environment;
 import net.hasor.core.environment.EnvironmentWrap;
@@ -52,12 +53,12 @@ public class DefaultRsfEnvironment extends EnvironmentWrap implements RsfEnviron
         return this.factory.getSerializeCoder(codeName);
     }
     @Override
-    public void atTime(TimerTask timeTask, int timeout) {
-        this.timerManager.atTime(timeTask, timeout);
+    public Timeout atTime(TimerTask timeTask, int timeout) {
+        return this.timerManager.atTime(timeTask, timeout);
     }
     @Override
-    public void atTime(TimerTask timerTask) {
-        this.timerManager.atTime(timerTask);
+    public Timeout atTime(TimerTask timerTask) {
+        return this.timerManager.atTime(timerTask);
     }
     @Override
     public String getInstanceID() {
@@ -17,6 +17,7 @@ package net.hasor.rsf.rpc.context;
 import net.hasor.core.Settings;
 import net.hasor.core.XmlNode;
 import net.hasor.core.setting.SettingsWrap;
+import net.hasor.rsf.ExecuteMode;
 import net.hasor.rsf.InterAddress;
 import net.hasor.rsf.RsfOptionSet;
 import net.hasor.rsf.RsfSettings;
@@ -44,6 +45,7 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
     private   String                    defaultGroup          = "RSF";
     private   String                    defaultVersion        = "1.0.0";
     private   String                    defaultSerializeType  = "Hprose";
+    private   boolean                   lazyDecode            = true;
     //
     private   OptionInfo                serverOptionManager   = new OptionInfo();
     private   OptionInfo                clientOptionManager   = new OptionInfo();
@@ -52,6 +54,8 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
     private   int                       queueMinPoolSize      = 1;
     private   int                       queueMaxPoolSize      = 7;
     private   long                      queueKeepAliveTime    = 300L;
+    private   ExecuteMode               queueExecuteMode      = ExecuteMode.ThreadPool;
+    private   int                       queueServiceLimit     = 0;
     //
     private   String                    bindAddress           = "local";
     private   String                    defaultProtocol       = null;
@@ -61,6 +65,9 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
     private   int                       requestTimeout        = 6000;
     private   int                       maximumRequest        = 200;
     private   SendLimitPolicy           sendLimitPolicy       = SendLimitPolicy.Reject;
+    private   int                       sendQueueMaxSize      = 1024;
+    private   int                       sendQueueMaxWait      = 1000;
+    private   int                       connectionsPerHost    = 1;
     private   int                       connectTimeout        = 100;
     private   String                    unitName              = "default";
     private   long                      invalidWaitTime       = 30000;
@@ -68,6 +75,10 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
     private   boolean                   localDiskCache        = true;
     private   long                      diskCacheTimeInterval = 3600000;
     private   boolean                   automaticOnline       = true;
+    private   boolean                   invokeAccept          = false;
+    private   int                       dictionarySize        = 1024;
+    private   String                    compressType          = "none";
+    private   int                       compressThreshold     = 65536;
     //
     //
     public DefaultRsfSettings(Settings settings) throws IOException {
@@ -100,6 +111,10 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
         return this.defaultSerializeType;
     }
     @Override
+    public boolean isLazyDecode() {
+        return this.lazyDecode;
+    }
+    @Override
     public int getQueueMaxSize() {
         return this.queueMaxSize;
     }
@@ -116,6 +131,14 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
         return this.queueKeepAliveTime;
     }
     @Override
+    public ExecuteMode getQueueExecuteMode() {
+        return this.queueExecuteMode;
+    }
+    @Override
+    public int getQueueServiceLimit() {
+        return this.queueServiceLimit;
+    }
+    @Override
     public int getRequestTimeout() {
         return this.requestTimeout;
     }
@@ -128,6 +151,18 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
         return this.sendLimitPolicy;
     }
     @Override
+    public int getSendQueueMaxSize() {
+        return this.sendQueueMaxSize;
+    }
+    @Override
+    public int getSendQueueMaxWait() {
+        return this.sendQueueMaxWait;
+    }
+    @Override
+    public int getConnectionsPerHost() {
+        return this.connectionsPerHost;
+    }
+    @Override
     public int getConnectTimeout() {
         return this.connectTimeout;
     }
@@ -175,6 +210,22 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
     public boolean isAutomaticOnline() {
         return this.automaticOnline;
     }
+    @Override
+    public boolean isInvokeAccept() {
+        return this.invokeAccept;
+    }
+    @Override
+    public int getDictionarySize() {
+        return this.dictionarySize;
+    }
+    @Override
+    public String getCompressType() {
+        return this.compressType;
+    }
+    @Override
+    public int getCompressThreshold() {
+        return this.compressThreshold;
+    }
     //
     public void refresh() throws IOException {
         super.refresh();
@@ -185,6 +236,7 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
         this.defaultVersion = getString("hasor.rsfConfig.defaultServiceValue.version", "1.0.0");
         this.defaultTimeout = getInteger("hasor.rsfConfig.defaultServiceValue.timeout", 6000);
         this.defaultSerializeType = getString("hasor.rsfConfig.serializeType.default", "Hessian");
+        this.lazyDecode = getBoolean("hasor.rsfConfig.serializeType.lazyDecode", true);
         //
         XmlNode[] serverOptSetArray = getXmlNodeArray("hasor.rsfConfig.serverOptionSet");
         if (serverOptSetArray != null) {
@@ -215,6 +267,8 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
         this.queueMinPoolSize = getInteger("hasor.rsfConfig.queue.minPoolSize", 1);
         this.queueMaxPoolSize = getInteger("hasor.rsfConfig.queue.maxPoolSize", 7);
         this.queueKeepAliveTime = getLong("hasor.rsfConfig.queue.keepAliveTime", 300L);
+        this.queueExecuteMode = getEnum("hasor.rsfConfig.queue.mode", ExecuteMode.class, ExecuteMode.ThreadPool);
+        this.queueServiceLimit = getInteger("hasor.rsfConfig.queue.serviceLimit", 0);
         //
         String bindAddress = getString("hasor.rsfConfig.address", "local");
         InetAddress inetAddress = NetworkUtils.finalBindAddress(bindAddress);
@@ -263,6 +317,9 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
         this.requestTimeout = getInteger("hasor.rsfConfig.client.defaultTimeout", 6000);
         this.maximumRequest = getInteger("hasor.rsfConfig.client.maximumRequest", 200);
         this.sendLimitPolicy = getEnum("hasor.rsfConfig.client.sendLimitPolicy", SendLimitPolicy.class, SendLimitPolicy.Reject);
+        this.sendQueueMaxSize = getInteger("hasor.rsfConfig.client.sendQueueMaxSize", 1024);
+        this.sendQueueMaxWait = getInteger("hasor.rsfConfig.client.sendQueueMaxWait", 1000);
+        this.connectionsPerHost = getInteger("hasor.rsfConfig.client.connectionsPerHost", 1);
         this.connectTimeout = getInteger("hasor.rsfConfig.client.connectTimeout", 100);
         //
         this.unitName = getString("hasor.rsfConfig.unitName", "local");
@@ -272,6 +329,10 @@ public class DefaultRsfSettings extends SettingsWrap implements RsfSettings {
         this.diskCacheTimeInterval = getLong("hasor.rsfConfig.addressPool.diskCacheTimeInterval", 3600000L);
         //
         this.automaticOnline = getBoolean("hasor.rsfConfig.automaticOnline", true);
+        this.invokeAccept = getBoolean("hasor.rsfConfig.invokeAccept", false);
+        this.dictionarySize = getInteger("hasor.rsfConfig.dictionarySize", 1024);
+        this.compressType = getString("hasor.rsfConfig.frameCompress.type", "none");
+        this.compressThreshold = getInteger("hasor.rsfConfig.frameCompress.threshold", 65536);
         this.logger.info("loadRsfConfig complete!");
     }
 }
\ No newline at end of file
@@ -25,6 +25,6 @@ class CloseListener {
         this.linkPool = linkPool;
     }
     public void doClose(RsfChannel rsfChannel) {
-        this.linkPool.closeConnection(rsfChannel.getTarget().getHostPort());
+        this.linkPool.closeConnection(rsfChannel);
     }
 }
\ No newline at end of file
@@ -14,6 +14,8 @@
  * limitations under the License.
  */
 package net.hasor.rsf.rpc.net;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import net.hasor.core.AppContext;
 import net.hasor.rsf.InterAddress;
 import net.hasor.rsf.RsfEnvironment;
@@ -32,14 +34,19 @@ import java.util.concurrent.Future;
  * @author 赵永春 (zyc@hasor.net)
  */
 public abstract class Connector {
+    /** 后台维护连接的间隔（毫秒） */
+    public static final int  LINK_KEEP_INTERVAL = 1000;
+    /** 超过这个时间（毫秒）没有被使用的连接组，后台不再为它重连和预热 */
+    public static final long LINK_IDLE_TIME     = 60000;
     protected Logger logger = LoggerFactory.getLogger(getClass());
-    private final String             protocol;        // 协议名，例如：RSF/1.0、Hprose/HTTP
-    private final String             sechma;          // 协议头，例如：rsf、hprose
-    private final RsfEnvironment     rsfEnvironment;  // Rsf环境
-    private final InterAddress       bindAddress;     // 网络通信地址
-    private final LinkPool           linkPool;        // 连接池
-    private final ReceivedListener   receivedListener;// 数据接收器
-    private final ConnectionAccepter accepter;        // 连接接受器，用于IP黑名单实现
+    private final    String             protocol;        // 协议名，例如：RSF/1.0、Hprose/HTTP
+    private final    String             sechma;          // 协议头，例如：rsf、hprose
+    private final    RsfEnvironment     rsfEnvironment;  // Rsf环境
+    private final    InterAddress       bindAddress;     // 网络通信地址
+    private final    LinkPool           linkPool;        // 连接池
+    private final    ReceivedListener   receivedListener;// 数据接收器
+    private final    ConnectionAccepter accepter;        // 连接接受器，用于IP黑名单实现
+    private volatile boolean            running;         // 后台维护连接的任务是否还在运行
     //
     public Connector(String protocol, RsfEnvironment rsfEnvironment, ReceivedListener receivedListener, ConnectionAccepter accepter) {
         this.protocol = protocol;
@@ -56,6 +63,8 @@ public abstract class Connector {
         if (this.bindAddress.getPort() <= 0) {
             throw new IllegalStateException("[" + protocol + "] the prot is zero.");
         }
+        this.running = true;
+        this.scheduleKeepLinks();
     }
     //
     @Override
@@ -85,43 +94,74 @@ public abstract class Connector {
     }
     /** 建立或获取和远程的连接(异步+回调) */
     public Future<RsfChannel> getOrConnectionTo(InterAddress target) throws InterruptedException {
+        return this.getOrConnectionTo(target, 1);
+    }
+    /**
+     * 建立或获取和远程的连接(异步+回调)，和同一个远程地址之间最多维持 connections 个连接，
+     * 返回其中在途请求最少的一个。失效连接的重连和连接预热由后台任务负责，不会占用当前线程。
+     */
+    public Future<RsfChannel> getOrConnectionTo(InterAddress target, int connections) throws InterruptedException {
         String protocol = target.getSechma();
         if (!this.sechma.equalsIgnoreCase(protocol)) {
             throw new RsfException(ProtocolStatus.ProtocolError, "sechma not match.");
         }
         //
-        // .查找连接，并确定已有连接是否有效
+        // .选择连接，还没有可用或者正在建立中的连接时在当前线程上发起第一个连接（异步的），其余的连接由后台任务预热
         String hostPort = target.getHostPort();
-        BasicFuture<RsfChannel> channelFuture = this.linkPool.findChannel(hostPort);
-        if (channelFuture != null && channelFuture.isDone()) {
-            RsfChannel channel = null;
-            try {
-                channel = channelFuture.get();
-                if (channel != null && !channel.isActive()) {
-                    this.linkPool.closeConnection(hostPort);// 连接已经失效，需要重新连接
-                    channelFuture = null;
-                }
-            } catch (Exception e) {
-                this.linkPool.closeConnection(hostPort);// 连接失败
-                channelFuture = null;
-            }
+        LinkGroup group = this.linkPool.findOrCreateGroup(hostPort);
+        int count = group.require(target, connections);
+        BasicFuture<RsfChannel> channelFuture = group.select(count);
+        if (channelFuture == null) {
+            this.fillGroup(group, target, 1);
+            channelFuture = group.select(count);
         }
-        if (channelFuture != null) {
-            return channelFuture;
+        if (channelFuture == null) {
+            throw new RsfException(ProtocolStatus.NetworkError, "no channel available -> " + hostPort);
         }
-        //
-        // .新建连接
-        synchronized (this) {
-            channelFuture = this.linkPool.findChannel(hostPort);    // 查找连接，有可能当进入到同步块中时已经创建了相同的连接。
+        return channelFuture;
+    }
+    /**
+     * 补齐连接组中前 count 个槽位上的连接，各个槽位通过 CAS 抢占，抢占成功的线程负责发起连接，因此多个连接可以并发建立。
+     */
+    private void fillGroup(LinkGroup group, InterAddress target, int count) {
+        for (int i = 0; i < count; i++) {
+            BasicFuture<RsfChannel> channelFuture = this.linkPool.preConnection(group, i);// 根据host+prot 创建一个 Future，并启动一个超时的定时器。当超时到达时仍然没有建立连接那么引发error。
             if (channelFuture != null) {
-                return channelFuture;
+                logger.info("connect to {} ... ({}/{})", target.getHostPort(), i + 1, count);
+                this.connectionTo(target, channelFuture);                              // 连接到目标地址
             }
-            channelFuture = this.linkPool.preConnection(hostPort);  // 根据host+prot 创建一个 Future，并启动一个超时的定时器。当超时到达时仍然没有建立连接那么引发error。
-            //
-            logger.info("connect to {} ...", hostPort);
-            this.connectionTo(target, channelFuture);               // 连接到目标地址
         }
-        return channelFuture;
+    }
+    /**
+     * 维护连接（由后台定时任务调用）：为最近使用过的连接组重连失效的连接并预热到要求的连接数。
+     */
+    protected void keepLinks() {
+        long now = System.currentTimeMillis();
+        for (LinkGroup group : this.linkPool.groups()) {
+            InterAddress target = group.getTarget();
+            if (target != null && now - group.getLastUseTime() < LINK_IDLE_TIME) {
+                this.fillGroup(group, target, group.getRequired());
+            }
+        }
+    }
+    private void scheduleKeepLinks() {
+        this.rsfEnvironment.atTime(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                if (!running) {
+                    return;
+                }
+                try {
+                    keepLinks();
+                } catch (Throwable e) {
+                    logger.error("keep links failed -> " + e.getMessage(), e);
+                } finally {
+                    if (running) {
+                        scheduleKeepLinks();
+                    }
+                }
+            }
+        }, LINK_KEEP_INTERVAL);
     }
     //
     //
@@ -156,6 +196,7 @@ public abstract class Connector {
     //
     /**停止监听器*/
     public final void shutdown() {
+        this.running = false;
         this.shutdownListener();
         this.linkPool.destroyPool();
     }
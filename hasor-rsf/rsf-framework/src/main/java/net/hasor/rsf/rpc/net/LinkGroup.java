@@ -0,0 +1,158 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.rpc.net;
+import net.hasor.rsf.InterAddress;
+import net.hasor.utils.future.BasicFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+/**
+ * 同一个远程地址上的一组连接。
+ * tips：每个连接占用一个槽位，槽位通过 CAS 抢占，因此多个连接可以并发建立而不需要加锁。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class LinkGroup {
+    private final    String                                        hostPort;
+    private final    AtomicReferenceArray<BasicFuture<RsfChannel>> slots;
+    private final    AtomicInteger                                 round;
+    private final    AtomicInteger                                 required;    // 调用者要求维持的连接数
+    private volatile InterAddress                                  target;      // 主动连接的目标地址，只有接入的连接时为空
+    private volatile long                                          lastUseTime; // 最后一次通过 require 使用连接组的时间
+    //
+    public LinkGroup(String hostPort, int capacity) {
+        this.hostPort = hostPort;
+        this.slots = new AtomicReferenceArray<BasicFuture<RsfChannel>>(capacity);
+        this.round = new AtomicInteger(0);
+        this.required = new AtomicInteger(0);
+    }
+    public String getHostPort() {
+        return this.hostPort;
+    }
+    /** 主动连接的目标地址，连接组中只有接入的连接时返回空 */
+    public InterAddress getTarget() {
+        return this.target;
+    }
+    /** 需要维持的连接数（历次 require 中最大的那个） */
+    public int getRequired() {
+        return this.required.get();
+    }
+    /** 最后一次通过 require 使用连接组的时间 */
+    public long getLastUseTime() {
+        return this.lastUseTime;
+    }
+    /** 登记需要和 target 维持 connections 个连接，返回本次调用可以使用的连接数 */
+    public int require(InterAddress target, int connections) {
+        int count = Math.min(Math.max(connections, 1), this.slots.length());
+        this.target = target;
+        this.lastUseTime = System.currentTimeMillis();
+        int current = this.required.get();
+        while (current < count && !this.required.compareAndSet(current, count)) {
+            current = this.required.get();
+        }
+        return count;
+    }
+    /** 槽位数 */
+    public int capacity() {
+        return this.slots.length();
+    }
+    /** 获取某个槽位上的连接 */
+    public BasicFuture<RsfChannel> get(int index) {
+        return this.slots.get(index);
+    }
+    /** 抢占或替换某个槽位上的连接 */
+    public boolean compareAndSet(int index, BasicFuture<RsfChannel> expect, BasicFuture<RsfChannel> update) {
+        return this.slots.compareAndSet(index, expect, update);
+    }
+    /**
+     * 在前 connections 个槽位中选择一个连接：优先选择在途请求最少的可用连接，在途请求相同时轮询。
+     * 如果还没有可用的连接，那么返回一个正在建立中的连接。
+     */
+    public BasicFuture<RsfChannel> select(int connections) {
+        int count = Math.min(Math.max(connections, 1), this.slots.length());
+        int start = (this.round.getAndIncrement() & Integer.MAX_VALUE) % count;
+        BasicFuture<RsfChannel> selected = null;
+        BasicFuture<RsfChannel> pending = null;
+        int minInFlight = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            BasicFuture<RsfChannel> future = this.slots.get((start + i) % count);
+            if (future == null) {
+                continue;
+            }
+            RsfChannel channel = readyChannel(future);
+            if (channel == null) {
+                if (pending == null && !future.isDone()) {
+                    pending = future;
+                }
+                continue;
+            }
+            int inFlight = channel.getInFlight();
+            if (inFlight < minInFlight) {
+                minInFlight = inFlight;
+                selected = future;
+            }
+        }
+        return selected != null ? selected : pending;
+    }
+    /** 移除某个连接，返回是否找到了该连接 */
+    public boolean remove(RsfChannel rsfChannel) {
+        for (int i = 0; i < this.slots.length(); i++) {
+            BasicFuture<RsfChannel> future = this.slots.get(i);
+            if (future != null && doneChannel(future) == rsfChannel) {
+                return this.slots.compareAndSet(i, future, null);
+            }
+        }
+        return false;
+    }
+    /** 所有槽位都为空 */
+    public boolean isEmpty() {
+        for (int i = 0; i < this.slots.length(); i++) {
+            if (this.slots.get(i) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /** 所有不为空的连接 */
+    public List<BasicFuture<RsfChannel>> toList() {
+        List<BasicFuture<RsfChannel>> futureList = new ArrayList<BasicFuture<RsfChannel>>();
+        for (int i = 0; i < this.slots.length(); i++) {
+            BasicFuture<RsfChannel> future = this.slots.get(i);
+            if (future != null) {
+                futureList.add(future);
+            }
+        }
+        return futureList;
+    }
+    /** 如果连接已经建立并且有效则返回连接，否则返回 null */
+    static RsfChannel readyChannel(BasicFuture<RsfChannel> future) {
+        RsfChannel channel = doneChannel(future);
+        return (channel != null && channel.isActive()) ? channel : null;
+    }
+    /** 如果连接已经建立（不论是否有效）则返回连接，否则返回 null */
+    static RsfChannel doneChannel(BasicFuture<RsfChannel> future) {
+        if (!future.isDone() || future.isCancelled()) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
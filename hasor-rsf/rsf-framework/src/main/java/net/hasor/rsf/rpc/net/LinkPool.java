@@ -23,25 +23,29 @@ import net.hasor.utils.future.BasicFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * 维护RSF同其它RSF的连接。
- * tips：主要数据结构为 hostPort 和 RsfChannel 的映射关系。另外还维护了一个 别名关系，通过别名关系实现双向通信上的连接复用问题。
+ * tips：主要数据结构为 hostPort 和 {@link LinkGroup} 的映射关系，同一个远程地址上可以同时维护多个连接。
+ *      另外还维护了一个 别名关系，通过别名关系实现双向通信上的连接复用问题。
  * @version : 2014年9月12日
  * @author 赵永春 (zyc@hasor.net)
  */
 public class LinkPool {
+    /** 同一个远程地址上最多允许建立的连接数 */
+    public static final int MAX_CONNECTIONS = 32;
     protected     Logger        logger = LoggerFactory.getLogger(getClass());
     private final AtomicBoolean inited = new AtomicBoolean(false);
-    private final RsfEnvironment                                 environment;
-    private final ConcurrentMap<String, BasicFuture<RsfChannel>> channelMap;
+    private final RsfEnvironment                   environment;
+    private final ConcurrentMap<String, LinkGroup> channelMap;
     //private final ConcurrentMap<String, String>                  channelAlias;
     //
     public LinkPool(RsfEnvironment environment) {
         this.environment = environment;
-        this.channelMap = new ConcurrentHashMap<String, BasicFuture<RsfChannel>>();
+        this.channelMap = new ConcurrentHashMap<String, LinkGroup>();
         //this.channelAlias = new ConcurrentHashMap<String, String>();
     }
     //
@@ -55,31 +59,77 @@ public class LinkPool {
     public void destroyPool() {
         if (this.inited.compareAndSet(true, false)) {
             this.logger.info("destroy LinkPool.");
-            for (BasicFuture<RsfChannel> future : channelMap.values()) {
-                if (future == null)
-                    continue;
-                if (!future.isDone()) {
-                    future.failed(new IllegalStateException("the pool destroy."));
-                } else {
-                    try {
-                        future.get().close();
-                    } catch (Exception e) { /**/ }
+            for (LinkGroup group : channelMap.values()) {
+                for (BasicFuture<RsfChannel> future : group.toList()) {
+                    if (!future.isDone()) {
+                        future.failed(new IllegalStateException("the pool destroy."));
+                    } else {
+                        try {
+                            future.get().close();
+                        } catch (Exception e) { /**/ }
+                    }
                 }
             }
         }
     }
     //
     //
-    public synchronized BasicFuture<RsfChannel> preConnection(String hostPortKey) {
+    /** 获取或创建远程地址对应的连接组，主动连接和接入的连接共用一个连接组。*/
+    LinkGroup findOrCreateGroup(String hostPortKey) {
+        LinkGroup group = this.channelMap.get(hostPortKey);
+        if (group == null) {
+            LinkGroup newGroup = new LinkGroup(hostPortKey, MAX_CONNECTIONS);
+            group = this.channelMap.putIfAbsent(hostPortKey, newGroup);
+            if (group == null) {
+                group = newGroup;
+            }
+        }
+        return group;
+    }
+    /** 所有的连接组。*/
+    Collection<LinkGroup> groups() {
+        return this.channelMap.values();
+    }
+    /**
+     * 为接入的连接占用一个槽位，可用的槽位数取配置的 connectionsPerHost 和本地主动连接时要求的连接数中较大的一个。
+     * 如果槽位都已经被占用，那么返回已存在的连接。
+     */
+    public BasicFuture<RsfChannel> preConnection(String hostPortKey) {
+        LinkGroup group = this.findOrCreateGroup(hostPortKey);
+        int perHost = this.environment.getSettings().getConnectionsPerHost();
+        int count = Math.min(Math.max(Math.max(perHost, group.getRequired()), 1), group.capacity());
+        for (int i = 0; i < count; i++) {
+            BasicFuture<RsfChannel> channel = this.preConnection(group, i);
+            if (channel != null) {
+                return channel;
+            }
+        }
+        BasicFuture<RsfChannel> channel = group.select(count);
+        return channel != null ? channel : group.get(0);
+    }
+    /**
+     * 抢占连接组中的一个槽位，并开始计时，槽位为空或者槽位上的连接已经失效时才能抢占成功。
+     * @return 抢占成功返回新的 Future（调用者负责建立连接），槽位上已有正在建立或者有效的连接时返回 null。
+     */
+    BasicFuture<RsfChannel> preConnection(LinkGroup group, int index) {
         if (!this.inited.get()) {
             throw new IllegalStateException("LinkPool not inited.");
         }
+        BasicFuture<RsfChannel> oldFuture = group.get(index);
+        if (oldFuture != null && (!oldFuture.isDone() || LinkGroup.readyChannel(oldFuture) != null)) {
+            return null;
+        }
         //
         //创建一个Future，并开始计时，在规定时间内没有连接成功则反馈失败（目的防止其它线程在Future的get上被锁死）
         final BasicFuture<RsfChannel> channel = new BasicFuture<RsfChannel>();
-        BasicFuture<RsfChannel> oldFuture = this.channelMap.putIfAbsent(hostPortKey, channel);
+        if (!group.compareAndSet(index, oldFuture, channel)) {
+            return null;
+        }
         if (oldFuture != null) {
-            return oldFuture;
+            RsfChannel oldChannel = LinkGroup.doneChannel(oldFuture);
+            if (oldChannel != null) {
+                oldChannel.close();// 连接已经失效
+            }
         }
         //
         int timeout = this.environment.getSettings().getConnectTimeout();
@@ -93,16 +143,16 @@ public class LinkPool {
         }, timeout);
         return channel;
     }
-    public void closeConnection(String hostPortKey) {
-        BasicFuture<RsfChannel> future = this.findChannel(hostPortKey);
-        if (future == null) {
+    /** 连接关闭，从连接组中移除。只有接入连接的连接组在为空时一起移除连接组，主动连接的连接组由后台任务负责重连。*/
+    public void closeConnection(RsfChannel rsfChannel) {
+        String hostPortKey = rsfChannel.getTarget().getHostPort();
+        LinkGroup group = this.channelMap.get(hostPortKey);
+        if (group == null) {
             return;
         }
-        this.channelMap.remove(hostPortKey);
-        if (future.isDone()) {
-            try {
-                future.get().close();
-            } catch (Exception e) { /**/ }
+        group.remove(rsfChannel);
+        if (rsfChannel.getLinkType() == LinkType.In && group.getTarget() == null && group.isEmpty()) {
+            this.channelMap.remove(hostPortKey, group);
         }
     }
     public void mappingTo(RsfChannel rsfChannel, String hostPort) {
@@ -119,6 +169,7 @@ public class LinkPool {
      * @param hostPortKey  liek this 127.0.0.1:2180
      */
     public BasicFuture<RsfChannel> findChannel(String hostPortKey) {
-        return this.channelMap.get(hostPortKey);
+        LinkGroup group = this.channelMap.get(hostPortKey);
+        return group == null ? null : group.select(group.capacity());
     }
 }
\ No newline at end of file
@@ -30,6 +30,8 @@ public abstract class ReceivedAdapter implements ReceivedListener {
             RequestInfo request = (RequestInfo) info;
             if (request.getRequestID() > 0) {
                 this.receivedMessage(rsfChannel.getTarget(), request);
+            } else {
+                request.releasePayload();
             }
             return;
         }
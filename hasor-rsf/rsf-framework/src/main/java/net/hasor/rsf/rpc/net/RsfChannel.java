@@ -16,11 +16,13 @@
 package net.hasor.rsf.rpc.net;
 import net.hasor.rsf.InterAddress;
 import net.hasor.rsf.domain.*;
+import net.hasor.rsf.utils.ProtocolUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 /**
  * 封装网络连接，并且提供网络数据收发统计。
  * @version : 2015年12月8日
@@ -35,6 +37,10 @@ public abstract class RsfChannel {
     private volatile long                   sendPackets;    //发送的数据包总数
     private volatile long                   sendPacketsOk;  //发送的数据包总数
     private volatile long                   sendPacketsErr; //发送的数据包总数
+    private volatile long                   sendFlushes;    //执行 flush 的总次数
+    private volatile long                   flushFrames;    //通过 flush 写出的数据包总数
+    private volatile long                   flushBytes;     //通过 flush 写出的字节总数
+    private final    AtomicInteger          inFlight;       //已发出但还没有收到最终响应的请求数
     private          List<ReceivedListener> listenerList;   //
     private          CloseListener          closeListener;  //当关闭时
     //
@@ -43,6 +49,7 @@ public abstract class RsfChannel {
         this.target = target;
         this.linkType = linkType;
         this.listenerList = new CopyOnWriteArrayList<ReceivedListener>();
+        this.inFlight = new AtomicInteger(0);
     }
     @Override
     public String toString() {
@@ -75,41 +82,46 @@ public abstract class RsfChannel {
         /*发送数据*/
         this.sendPackets++;
         this.lastSendTime = System.currentTimeMillis();
-        this.sendData(sendData, new SendCallBack() {
-            private boolean asked = false;
-            @Override
-            public void failed(long requestID, Throwable ex) {
-                if (asked) {
-                    return;
-                }
-                sendPacketsErr++;
-                if (callBack != null) {
-                    callBack.failed(requestID, new RsfException(ProtocolStatus.NetworkError, ex.getMessage(), ex));
-                }
-                this.asked = true;
-            }
-            @Override
-            public void complete(long requestID) {
-                if (asked) {
-                    return;
-                }
-                sendPacketsOk++;
-                if (callBack != null) {
-                    callBack.complete(requestID);
-                }
-                this.asked = true;
-            }
-        });
+        this.sendData(sendData, callBack);
+    }
+    /**数据发送成功，由具体实现在数据写出之后调用。*/
+    protected final void sendCompleted(long requestID, SendCallBack callBack) {
+        this.sendPacketsOk++;
+        if (callBack != null) {
+            callBack.complete(requestID);
+        }
+    }
+    /**数据发送失败，由具体实现在数据写出失败之后调用。*/
+    protected final void sendFailed(long requestID, SendCallBack callBack, Throwable ex) {
+        this.sendPacketsErr++;
+        if (callBack != null) {
+            callBack.failed(requestID, new RsfException(ProtocolStatus.NetworkError, ex.getMessage(), ex));
+        }
+    }
+    /**记录一次 flush，由具体实现在 flush 时调用（只允许在单个 I/O 线程上调用）。*/
+    protected final void flushRecorded(int frames, long bytes) {
+        this.sendFlushes++;
+        this.flushFrames += frames;
+        this.flushBytes += bytes;
     }
     /**接收到数据（受保护的，只有包内可见）*/
     final void receivedData(OptionInfo object) {
         if (!isActive()) {
+            ProtocolUtils.releasePayload(object);
             return;
         }
         for (ReceivedListener listener : this.listenerList) {
             listener.receivedMessage(this, object);
         }
     }
+    /**请求从这个连接发出，在途请求数加一（由进行中的请求表在发送之前调用）。*/
+    public void requestStarted() {
+        this.inFlight.incrementAndGet();
+    }
+    /**从这个连接发出的请求已经完成（最终响应、发送失败或者超时），在途请求数减一（由进行中的请求表调用）。*/
+    public void requestFinished() {
+        this.inFlight.decrementAndGet();
+    }
     /**添加数据接收监听器（受保护的，只有包内可见）*/
     final void addListener(ReceivedListener receivedListener) {
         if (!this.listenerList.contains(receivedListener)) {
@@ -138,6 +150,35 @@ public abstract class RsfChannel {
     public long getSendPacketsErr() {
         return this.sendPacketsErr;
     }
+    /**
+     * 已发出但还没有收到最终响应的请求数，用于在同一个远程地址的多个连接之间做负载均衡。
+     * tips：计数跟随进行中的请求表，收到最终响应、写出失败或者超时的请求都会扣减，Invoke 调用的 Accept 应答不扣减。
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+    /**执行 flush 的总次数（合并写模式下多个数据包共用一次 flush）。*/
+    public long getSendFlushes() {
+        return this.sendFlushes;
+    }
+    /**通过 flush 写出的数据包总数。*/
+    public long getFlushFrames() {
+        return this.flushFrames;
+    }
+    /**通过 flush 写出的字节总数。*/
+    public long getFlushBytes() {
+        return this.flushBytes;
+    }
+    /**平均每次 flush 合并的数据包数。*/
+    public double getFramesPerFlush() {
+        long flushes = this.sendFlushes;
+        return flushes == 0 ? 0 : (double) this.flushFrames / flushes;
+    }
+    /**平均每次 flush 写出的字节数。*/
+    public double getBytesPerFlush() {
+        long flushes = this.sendFlushes;
+        return flushes == 0 ? 0 : (double) this.flushBytes / flushes;
+    }
     /**测定连接是否处于激活的。*/
     public abstract boolean isActive();
     /**获取远程连接的地址*/
@@ -169,6 +210,6 @@ public abstract class RsfChannel {
     /**关闭网络连接*/
     protected abstract void closeChannel();
 
-    /**发送数据*/
+    /**发送数据，发送结束之后必须通过 {@link #sendCompleted(long, SendCallBack)} 或 {@link #sendFailed(long, SendCallBack, Throwable)} 通知结果。*/
     protected abstract void sendData(OptionInfo sendData, SendCallBack sendCallBack);
 }
\ No newline at end of file
@@ -63,8 +63,13 @@ class RsfChannelOnHttp extends RsfChannel {
                 (sendData instanceof ResponseInfo) ? ((ResponseInfo) sendData).getRequestID() : 0;
         //
         sendData(requestID, sendData, new SendCallBack() {
+            private boolean asked = false;
             @Override
             public void failed(long requestID, Throwable e) {
+                if (asked) {
+                    return;
+                }
+                this.asked = true;
                 short status = ProtocolStatus.InvokeError;
                 if (e instanceof RsfException) {
                     status = ((RsfException) e).getStatus();
@@ -72,11 +77,15 @@ class RsfChannelOnHttp extends RsfChannel {
                 ResponseInfo responseInfo = ProtocolUtils.buildResponseStatus(//
                         null, requestID, status, e.getMessage());
                 httpConnector.receivedData(RsfChannelOnHttp.this, responseInfo);
-                sendCallBack.failed(requestID, e);
+                sendFailed(requestID, sendCallBack, e);
             }
             @Override
             public void complete(long requestID) {
-                sendCallBack.complete(requestID);
+                if (asked) {
+                    return;
+                }
+                this.asked = true;
+                sendCompleted(requestID, sendCallBack);
             }
         });
     }
@@ -22,9 +22,11 @@ import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.AttributeKey;
 import net.hasor.core.AppContext;
 import net.hasor.rsf.InterAddress;
 import net.hasor.rsf.RsfEnvironment;
+import net.hasor.rsf.RsfSettings;
 import net.hasor.rsf.domain.OptionInfo;
 import net.hasor.rsf.domain.ProtocolStatus;
 import net.hasor.rsf.domain.RsfException;
@@ -43,15 +45,31 @@ import java.util.Arrays;
  * @author 赵永春 (zyc@hasor.net)
  */
 public class NettyConnector extends Connector {
+    /** Netty 连接上绑定的 RsfChannel（同一个远程地址可能有多个连接，因此接收数据时按 Netty 连接查找） */
+    static final        AttributeKey<RsfChannel> RSF_CHANNEL     = AttributeKey.valueOf("RSF_CHANNEL");
+    /** 握手时协商的结果：对端支持 Invoke 调用不回应 Accept */
+    public static final AttributeKey<Boolean>    ACCEPT_OPTIONAL = AttributeKey.valueOf("ACCEPT_OPTIONAL");
+    /** 握手时协商的结果：发往对端的数据包使用 RSF 2.0 协议，值为字符串字典的容量 */
+    public static final AttributeKey<Integer>    DICTIONARY_SIZE = AttributeKey.valueOf("DICTIONARY_SIZE");
+    /** 握手时协商的结果：发往对端的大数据包使用的压缩算法（{@link net.hasor.rsf.protocol.rsf.ProtocolConstants} 中的 Compress_*） */
+    public static final AttributeKey<Byte>       COMPRESS_TYPE   = AttributeKey.valueOf("COMPRESS_TYPE");
     protected Logger logger = LoggerFactory.getLogger(getClass());
     private RsfChannel             localListener;   // Socket监听器
     private NettyThreadGroup       threadGroup;     // Netty 线程组
     private ProtocolHandlerFactory handlerFactory;  // Netty ChannelHandler 组
     private AppContext             appContext;      // App
+    private int                    maxFrames;       // 合并写：一次 flush 最多合并的数据包数
+    private int                    maxBytes;        // 合并写：一次 flush 最多合并的字节数
     //
     public NettyConnector(String protocol, final AppContext appContext, final ReceivedListener receivedListener, ConnectionAccepter accepter) throws ClassNotFoundException {
         super(protocol, appContext.getInstance(RsfEnvironment.class), receivedListener, accepter);
         this.appContext = appContext;
+        //
+        RsfSettings rsfSettings = getRsfEnvironment().getSettings();
+        String configKey = rsfSettings.getProtocolConfigKey(protocol);
+        boolean coalescing = rsfSettings.getBoolean(configKey + ".writeCoalescing.enable", true);
+        this.maxFrames = coalescing ? rsfSettings.getInteger(configKey + ".writeCoalescing.maxFrames", 64) : 1;
+        this.maxBytes = rsfSettings.getInteger(configKey + ".writeCoalescing.maxBytes", 64 * 1024);
     }
     /**获取work线程组*/
     public EventLoopGroup getWorkerGroup() {
@@ -149,7 +167,8 @@ public class NettyConnector extends Connector {
                 } else {
                     Channel channel = future.channel();
                     logger.info("connect to {} Success.", hostAddress);
-                    RsfChannelOnNetty onNetty = new RsfChannelOnNetty(getBindAddress(), channel, LinkType.Out);
+                    RsfChannelOnNetty onNetty = new RsfChannelOnNetty(hostAddress, channel, LinkType.Out, maxFrames, maxBytes);
+                    channel.attr(RSF_CHANNEL).set(onNetty);
                     result.completed(configListener(onNetty));
                 }
             }
@@ -167,7 +186,7 @@ public class NettyConnector extends Connector {
         String hostPort = hostAddress + ":" + port;
         //
         InterAddress target = new InterAddress(this.getSechma(), hostAddress, port, "unknown");
-        RsfChannel rsfChannel = new RsfChannelOnNetty(target, ctx.channel(), LinkType.In);
+        RsfChannel rsfChannel = new RsfChannelOnNetty(target, ctx.channel(), LinkType.In, this.maxFrames, this.maxBytes);
         //
         // .检查当前连接是否被允许接入，如果不允许接入关闭这个连接
         if (!super.acceptChannel(rsfChannel)) {
@@ -175,6 +194,7 @@ public class NettyConnector extends Connector {
             this.logger.warn("connection refused form {} ,", hostPort);
             return false;
         }
+        ctx.channel().attr(RSF_CHANNEL).set(rsfChannel);
         return true;
     }
     //
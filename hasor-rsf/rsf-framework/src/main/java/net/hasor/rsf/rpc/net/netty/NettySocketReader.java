@@ -21,6 +21,7 @@ import net.hasor.rsf.domain.ProtocolStatus;
 import net.hasor.rsf.domain.RsfException;
 import net.hasor.rsf.rpc.net.LinkPool;
 import net.hasor.rsf.rpc.net.RsfChannel;
+import net.hasor.rsf.utils.ProtocolUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,14 +63,19 @@ class NettySocketReader extends ChannelInboundHandlerAdapter {
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (msg instanceof OptionInfo) {
             String hostPort = converToHostProt(ctx);
-            Future<RsfChannel> channel = this.connector.findRsfChannelByHostPort(hostPort);
-            if (channel == null || !channel.isDone()) {
-                this.exceptionCaught(ctx, new RsfException(ProtocolStatus.NetworkError, "the " + hostPort + " connection is not in the pool."));
-                return;
+            RsfChannel rsfChannel = ctx.channel().attr(NettyConnector.RSF_CHANNEL).get();
+            if (rsfChannel == null) {
+                Future<RsfChannel> channel = this.connector.findRsfChannelByHostPort(hostPort);
+                if (channel == null || !channel.isDone()) {
+                    this.exceptionCaught(ctx, new RsfException(ProtocolStatus.NetworkError, "the " + hostPort + " connection is not in the pool."));
+                    ProtocolUtils.releasePayload((OptionInfo) msg);
+                    return;
+                }
+                rsfChannel = channel.get();
             }
-            RsfChannel rsfChannel = channel.get();
             if (rsfChannel.getTarget() == null) {
                 this.exceptionCaught(ctx, new RsfException(ProtocolStatus.NetworkError, "the " + hostPort + " connection is not management."));
+                ProtocolUtils.releasePayload((OptionInfo) msg);
                 return;
             }
             this.connector.receivedData(rsfChannel, (OptionInfo) msg);
@@ -17,22 +17,48 @@ package net.hasor.rsf.rpc.net.netty;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.util.Recycler;
 import net.hasor.rsf.InterAddress;
 import net.hasor.rsf.domain.*;
 import net.hasor.rsf.rpc.net.LinkType;
 import net.hasor.rsf.rpc.net.RsfChannel;
 import net.hasor.rsf.rpc.net.SendCallBack;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * 封装Netty网络连接。
+ * tips：开启合并写之后，调用线程只负责把数据包放入队列，由 I/O 线程在一次事件循环中把队列中的数据包一起写出，
+ *      每攒够 maxFrames 个数据包或 maxBytes 字节执行一次 flush，队列清空时再 flush 一次。
  * @version : 2015年12月8日
  * @author 赵永春 (zyc@hasor.net)
  */
-class RsfChannelOnNetty extends RsfChannel {
-    private final Channel channel;
+public class RsfChannelOnNetty extends RsfChannel {
+    private static final int               MAX_FLUSH_PER_RUN = 16;  // 单次任务最多 flush 的次数，超过之后让出 I/O 线程
+    private final        Channel           channel;
+    private final        int               maxFrames;       // 一次 flush 最多合并的数据包数，小于等于 1 表示不合并
+    private final        int               maxBytes;        // 一次 flush 最多合并的字节数
+    private final        Queue<WriteEntry> writeQueue;      // 等待 I/O 线程写出的数据包
+    private final        AtomicBoolean     flushScheduled;  // 是否已经向 I/O 线程提交了写任务
+    private final        Runnable          flushTask;       //
     //
-    RsfChannelOnNetty(InterAddress target, Channel channel, LinkType linkType) {
+    public RsfChannelOnNetty(InterAddress target, Channel channel, LinkType linkType) {
+        this(target, channel, linkType, 1, 0);
+    }
+    public RsfChannelOnNetty(InterAddress target, Channel channel, LinkType linkType, int maxFrames, int maxBytes) {
         super(target, linkType);
         this.channel = channel;
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        this.writeQueue = new ConcurrentLinkedQueue<WriteEntry>();
+        this.flushScheduled = new AtomicBoolean(false);
+        this.flushTask = new Runnable() {
+            public void run() {
+                flushQueue();
+            }
+        };
     }
     //
     @Override
@@ -52,31 +78,134 @@ class RsfChannelOnNetty extends RsfChannel {
     }
     @Override
     protected void sendData(OptionInfo sendData, final SendCallBack sendCallBack) {
-        final ChannelFuture future = this.channel.writeAndFlush(sendData);
         final long requestID = (sendData instanceof RequestInfo) ? ((RequestInfo) sendData).getRequestID() ://
                 (sendData instanceof ResponseInfo) ? ((ResponseInfo) sendData).getRequestID() : 0;
-        /*为sendData添加侦听器，负责处理意外情况。*/
-        future.addListener(new ChannelFutureListener() {
-            public void operationComplete(ChannelFuture future) throws Exception {
-                if (future.isSuccess()) {
-                    if (sendCallBack != null) {
-                        sendCallBack.complete(requestID);
-                    }
-                    return;
-                }
-                RsfException e = null;
-                if (future.isCancelled()) {
-                    //用户取消
-                    if (sendCallBack != null) {
-                        sendCallBack.failed(requestID, new RsfException(ProtocolStatus.Unknown, "user Cancelled."));
-                    }
-                } else if (!future.isSuccess()) {
-                    //异常状况
-                    if (sendCallBack != null) {
-                        sendCallBack.failed(requestID, future.cause());
-                    }
+        if (sendData instanceof RequestInfo && !((RequestInfo) sendData).isMessage()) {
+            /*按照握手的协商结果标记 Invoke 调用是否需要 Accept，同一个请求重发到其它连接时重新标记。*/
+            RequestInfo info = (RequestInfo) sendData;
+            boolean acceptOptional = Boolean.TRUE.equals(this.channel.attr(NettyConnector.ACCEPT_OPTIONAL).get());
+            short flags = info.getFlags();
+            info.setFlags(acceptOptional ? RsfFlags.NoAcceptFlag.addTag(flags) : RsfFlags.NoAcceptFlag.removeTag(flags));
+        }
+        WriteEntry entry = WriteEntry.newInstance(this, requestID, sendData, sendCallBack);
+        if (this.maxFrames <= 1) {
+            /*不合并，每个数据包单独 flush。*/
+            this.channel.writeAndFlush(entry.takeData()).addListener(entry);
+            return;
+        }
+        /*合并写，交给 I/O 线程批量写出。*/
+        this.writeQueue.offer(entry);
+        if (this.flushScheduled.compareAndSet(false, true)) {
+            try {
+                this.channel.eventLoop().execute(this.flushTask);
+            } catch (Exception e) {
+                this.flushScheduled.set(false);
+                this.failQueue(e);
+            }
+        }
+    }
+    /** 在 I/O 线程上执行：把队列中的数据包写入 Netty，按照数据包数和字节数预算分批 flush。 */
+    private void flushQueue() {
+        this.flushScheduled.set(false);// 先复位，之后入队的数据包会重新提交任务，不会丢失唤醒
+        int flushCount = 0;
+        int frames = 0;
+        long startBytes = pendingBytes();
+        WriteEntry entry;
+        while ((entry = this.writeQueue.poll()) != null) {
+            this.channel.write(entry.takeData()).addListener(entry);
+            frames++;
+            long batchBytes = pendingBytes() - startBytes;
+            if (frames >= this.maxFrames || batchBytes >= this.maxBytes) {
+                this.channel.flush();
+                this.flushRecorded(frames, batchBytes);
+                frames = 0;
+                startBytes = pendingBytes();
+                if (++flushCount >= MAX_FLUSH_PER_RUN) {
+                    break;
                 }
             }
-        });
+        }
+        if (frames > 0) {
+            long batchBytes = pendingBytes() - startBytes;
+            this.channel.flush();
+            this.flushRecorded(frames, batchBytes);
+        }
+        // .预算用完但队列中还有数据，重新提交任务让出 I/O 线程给其它连接
+        if (!this.writeQueue.isEmpty() && this.flushScheduled.compareAndSet(false, true)) {
+            this.channel.eventLoop().execute(this.flushTask);
+        }
+    }
+    /** 还没有写入 Socket 的字节数。 */
+    private long pendingBytes() {
+        ChannelOutboundBuffer outboundBuffer = this.channel.unsafe().outboundBuffer();
+        return outboundBuffer == null ? 0 : outboundBuffer.totalPendingWriteBytes();
+    }
+    /** I/O 线程不可用，队列中的数据包全部按照失败处理。 */
+    private void failQueue(Throwable cause) {
+        WriteEntry entry;
+        while ((entry = this.writeQueue.poll()) != null) {
+            entry.takeData();
+            entry.notifyResult(cause);
+        }
+    }
+    //
+    /** 一次发送的上下文，同时作为写出结果的侦听器，使用 Recycler 复用以减少每次发送的对象分配。 */
+    private static final class WriteEntry implements ChannelFutureListener {
+        private static final Recycler<WriteEntry> RECYCLER = new Recycler<WriteEntry>() {
+            @Override
+            protected WriteEntry newObject(Handle<WriteEntry> handle) {
+                return new WriteEntry(handle);
+            }
+        };
+        private final Recycler.Handle<WriteEntry> handle;
+        private       RsfChannelOnNetty           rsfChannel;
+        private       long                        requestID;
+        private       OptionInfo                  sendData;
+        private       SendCallBack                callBack;
+        //
+        private WriteEntry(Recycler.Handle<WriteEntry> handle) {
+            this.handle = handle;
+        }
+        static WriteEntry newInstance(RsfChannelOnNetty rsfChannel, long requestID, OptionInfo sendData, SendCallBack callBack) {
+            WriteEntry entry = RECYCLER.get();
+            entry.rsfChannel = rsfChannel;
+            entry.requestID = requestID;
+            entry.sendData = sendData;
+            entry.callBack = callBack;
+            return entry;
+        }
+        /** 取出要发送的数据（取出之后不再持有引用）。 */
+        OptionInfo takeData() {
+            OptionInfo sendData = this.sendData;
+            this.sendData = null;
+            return sendData;
+        }
+        /*为sendData添加侦听器，负责处理意外情况。*/
+        public void operationComplete(ChannelFuture future) throws Exception {
+            if (future.isSuccess()) {
+                this.notifyResult(null);
+            } else if (future.isCancelled()) {
+                //用户取消
+                this.notifyResult(new RsfException(ProtocolStatus.Unknown, "user Cancelled."));
+            } else {
+                //异常状况
+                this.notifyResult(future.cause());
+            }
+        }
+        /** 通知发送结果，并且回收当前对象。 */
+        void notifyResult(Throwable cause) {
+            RsfChannelOnNetty rsfChannel = this.rsfChannel;
+            long requestID = this.requestID;
+            SendCallBack callBack = this.callBack;
+            this.rsfChannel = null;
+            this.callBack = null;
+            this.handle.recycle(this);
+            //
+            if (cause == null) {
+                rsfChannel.sendCompleted(requestID, callBack);
+            } else {
+                rsfChannel.sendFailed(requestID, callBack, cause);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.rsf.serialize;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.hasor.rsf.StreamSerializeCoder;
+
+import java.io.IOException;
+/**
+ * {@link StreamSerializeCoder} 的基类，旧的 byte[] 接口通过包装流式接口实现。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public abstract class AbstractStreamSerializeCoder implements StreamSerializeCoder {
+    @Override
+    public byte[] encode(Object object) throws IOException {
+        ByteBuf out = Unpooled.buffer();
+        try {
+            this.encode(object, out);
+            byte[] data = new byte[out.readableBytes()];
+            out.readBytes(data);
+            return data;
+        } finally {
+            out.release();
+        }
+    }
+    @Override
+    public Object decode(byte[] bytes, Class<?> returnType) throws IOException {
+        if (bytes == null)
+            return null;
+        return this.decode(Unpooled.wrappedBuffer(bytes), returnType);
+    }
+}
@@ -14,21 +14,22 @@
  * limitations under the License.
  */
 package net.hasor.rsf.serialize.coder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import net.hasor.core.Environment;
-import net.hasor.rsf.SerializeCoder;
 import net.hasor.rsf.libs.com.caucho.hessian.io.HessianInput;
 import net.hasor.rsf.libs.com.caucho.hessian.io.HessianOutput;
 import net.hasor.rsf.libs.com.caucho.hessian.io.SerializerFactory;
+import net.hasor.rsf.serialize.AbstractStreamSerializeCoder;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 /**
  *
  * @version : 2014年9月19日
  * @author 赵永春 (zyc@hasor.net)
  */
-public class HessianSerializeCoder implements SerializeCoder {
+public class HessianSerializeCoder extends AbstractStreamSerializeCoder {
     private SerializerFactory serializerFactory = null;
     //
     @Override
@@ -37,19 +38,17 @@ public class HessianSerializeCoder implements SerializeCoder {
     }
     //
     @Override
-    public byte[] encode(Object object) throws IOException {
-        ByteArrayOutputStream binary = new ByteArrayOutputStream();
-        HessianOutput hout = new HessianOutput(binary);
+    public void encode(Object object, ByteBuf out) throws IOException {
+        HessianOutput hout = new HessianOutput(new ByteBufOutputStream(out));
         hout.setSerializerFactory(this.serializerFactory);
         hout.writeObject(object);
-        return binary.toByteArray();
     }
     //
     @Override
-    public Object decode(byte[] bytes, Class<?> returnType) throws IOException {
-        if (bytes == null)
+    public Object decode(ByteBuf in, Class<?> returnType) throws IOException {
+        if (in == null)
             return null;
-        HessianInput input = new HessianInput(new ByteArrayInputStream(bytes));
+        HessianInput input = new HessianInput(new ByteBufInputStream(in));
         input.setSerializerFactory(this.serializerFactory);
         return input.readObject(returnType);
     }
@@ -14,35 +14,34 @@
  * limitations under the License.
  */
 package net.hasor.rsf.serialize.coder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
 import net.hasor.core.Environment;
-import net.hasor.rsf.SerializeCoder;
 import net.hasor.rsf.libs.com.hprose.io.HproseReader;
 import net.hasor.rsf.libs.com.hprose.io.HproseWriter;
+import net.hasor.rsf.serialize.AbstractStreamSerializeCoder;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 /**
  *
  * @version : 2017年1月12日
  * @author 赵永春 (zyc@hasor.net)
  */
-public class HproseSerializeCoder implements SerializeCoder {
+public class HproseSerializeCoder extends AbstractStreamSerializeCoder {
     //
     @Override
     public void initCoder(Environment environment) {
     }
     //
-    public byte[] encode(Object object) throws IOException {
-        ByteArrayOutputStream binary = new ByteArrayOutputStream();
-        HproseWriter writer = new HproseWriter(binary);
+    public void encode(Object object, ByteBuf out) throws IOException {
+        HproseWriter writer = new HproseWriter(new ByteBufOutputStream(out));
         writer.serialize(object);
-        return binary.toByteArray();
     }
     //
-    public Object decode(byte[] bytes, Class<?> returnType) throws IOException {
-        if (bytes == null)
+    public Object decode(ByteBuf in, Class<?> returnType) throws IOException {
+        if (in == null)
             return null;
-        HproseReader reader = new HproseReader(bytes);
+        HproseReader reader = new HproseReader(in.nioBuffer());
         return reader.unserialize(returnType);
     }
 }
\ No newline at end of file
@@ -14,32 +14,37 @@
  * limitations under the License.
  */
 package net.hasor.rsf.serialize.coder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import net.hasor.core.Environment;
-import net.hasor.rsf.SerializeCoder;
+import net.hasor.rsf.serialize.AbstractStreamSerializeCoder;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 /**
  *
  * @version : 2014年9月19日
  * @author 赵永春 (zyc@hasor.net)
  */
-public class JavaSerializeCoder implements SerializeCoder {
+public class JavaSerializeCoder extends AbstractStreamSerializeCoder {
     @Override
     public void initCoder(Environment environment) {
     }
     //
-    public byte[] encode(Object object) throws IOException {
-        ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
-        ObjectOutputStream output = new ObjectOutputStream(byteArray);
+    public void encode(Object object, ByteBuf out) throws IOException {
+        ObjectOutputStream output = new ObjectOutputStream(new ByteBufOutputStream(out));
         output.writeObject(object);
         output.flush();
         output.close();
-        return byteArray.toByteArray();
     }
     //
-    public Object decode(byte[] bytes, Class<?> returnType) throws IOException {
+    public Object decode(ByteBuf in, Class<?> returnType) throws IOException {
+        if (in == null)
+            return null;
         try {
-            ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            ObjectInputStream objectIn = new ObjectInputStream(new ByteBufInputStream(in));
             Object resultObject = objectIn.readObject();
             objectIn.close();
             return resultObject;
@@ -15,26 +15,39 @@
  */
 package net.hasor.rsf.serialize.coder;
 import com.alibaba.fastjson.JSON;
+import io.netty.buffer.ByteBuf;
 import net.hasor.core.Environment;
 import net.hasor.core.Settings;
-import net.hasor.rsf.SerializeCoder;
+import net.hasor.rsf.serialize.AbstractStreamSerializeCoder;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 /**
  *
  * @version : 2014年9月19日
  * @author 赵永春 (zyc@hasor.net)
  */
-public class JsonSerializeCoder implements SerializeCoder {
+public class JsonSerializeCoder extends AbstractStreamSerializeCoder {
+    private static final Charset CHARSET = Charset.forName(Settings.DefaultCharset);
     @Override
     public void initCoder(Environment environment) {
     }
     public byte[] encode(Object object) throws IOException {
         String text = JSON.toJSONString(object);
-        return text.getBytes(Settings.DefaultCharset);
+        return text.getBytes(CHARSET);
+    }
+    public void encode(Object object, ByteBuf out) throws IOException {
+        out.writeBytes(this.encode(object));
     }
     //
     public Object decode(byte[] bytes, Class<?> returnType) throws IOException {
-        return JSON.parseObject(new String(bytes), returnType);
+        if (bytes == null)
+            return null;
+        return JSON.parseObject(new String(bytes, CHARSET), returnType);
+    }
+    public Object decode(ByteBuf in, Class<?> returnType) throws IOException {
+        if (in == null)
+            return null;
+        return JSON.parseObject(in.toString(CHARSET), returnType);
     }
 }
@@ -108,9 +108,14 @@ public class InfoRsfInstruct implements CommandExecutor {
         sw.write(">>   queueMinPoolSize :" + settings.getQueueMinPoolSize() + "\r\n");
         sw.write(">>   queueMaxPoolSize :" + settings.getQueueMaxPoolSize() + "\r\n");
         sw.write(">> queueKeepAliveTime :" + settings.getQueueKeepAliveTime() + "\r\n");
+        sw.write(">>   queueExecuteMode :" + settings.getQueueExecuteMode().name() + "\r\n");
+        sw.write(">>  queueServiceLimit :" + settings.getQueueServiceLimit() + "\r\n");
         sw.write(">>     requestTimeout :" + settings.getRequestTimeout() + "\r\n");
         sw.write(">>     maximumRequest :" + settings.getMaximumRequest() + "\r\n");
         sw.write(">>    sendLimitPolicy :" + settings.getSendLimitPolicy().name() + "\r\n");
+        sw.write(">>   sendQueueMaxSize :" + settings.getSendQueueMaxSize() + "\r\n");
+        sw.write(">>   sendQueueMaxWait :" + settings.getSendQueueMaxWait() + "\r\n");
+        sw.write(">> connectionsPerHost :" + settings.getConnectionsPerHost() + "\r\n");
         sw.write(">>\r\n");
         sw.write(">>----- Address Policy------\r\n");
         sw.write(">>       invalidWaitTime :" + settings.getInvalidWaitTime() + "\r\n");
@@ -15,27 +15,52 @@
  */
 package net.hasor.rsf.utils;
 import net.hasor.core.Provider;
+import net.hasor.rsf.ExecuteMode;
 import net.hasor.utils.NameThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 /**
  * 业务线程
+ * <ul>
+ *  <li>ThreadPool：所有服务共享一个 ThreadPoolExecutor（原有方式）。</li>
+ *  <li>WorkStealing、VirtualThread：每个服务一个派发队列，限制单个服务同时执行的请求数，然后派发到共享的 work-stealing 线程池或虚拟线程上执行。
+ *      已经超时的请求（{@link ExpirableTask}）在派发之前就会被丢弃，不再占用业务线程；停止之后还在排队的请求以拒绝结束。</li>
+ * </ul>
+ * 所有方式下都会按服务统计请求的排队耗时和执行耗时的直方图。
  * @version : 2014年11月11日
  * @author 赵永春 (zyc@hasor.net)
  */
 public class ExecutesManager {
+    /** 耗时直方图的分桶上限（毫秒），最后一个桶表示超过最大值的请求。*/
+    public static final long[] TIME_BUCKETS = { 1, 5, 10, 50, 100, 500, 1000, 5000 };
     protected Logger logger = LoggerFactory.getLogger(getClass());
+    private final ExecuteMode                               executeMode;
+    private final ClassLoader                               loader;
+    private final int                                       queueSize;
+    private final int                                       serviceLimit;
     private       Provider<ThreadPoolExecutor>              defaultExecutorProvider;
     private       ThreadPoolExecutor                        defaultExecutor;
     private final ConcurrentMap<String, ThreadPoolExecutor> servicePoolCache;
+    private       ExecutorService                           sharedExecutor;  // WorkStealing、VirtualThread 方式下共享的执行器
+    private final ConcurrentMap<String, ServiceDispatcher>  dispatcherMap;
+    private final ConcurrentMap<String, ServiceStats>       serviceStatsMap;
+    private final AtomicInteger                             pendingCount;    // WorkStealing、VirtualThread 方式下排队中的请求总数
     //
     public ExecutesManager(final int minCorePoolSize, final int maxCorePoolSize, final int queueSize, final long keepAliveTime, final ClassLoader loader) {
-        logger.info("executesManager init ->> minCorePoolSize ={}, maxCorePoolSize ={}, queueSize ={}, keepAliveTime ={}",//
-                minCorePoolSize, maxCorePoolSize, queueSize, keepAliveTime);
+        this(minCorePoolSize, maxCorePoolSize, queueSize, keepAliveTime, ExecuteMode.ThreadPool, 0, loader);
+    }
+    public ExecutesManager(final int minCorePoolSize, final int maxCorePoolSize, final int queueSize, final long keepAliveTime, //
+            ExecuteMode executeMode, int serviceLimit, final ClassLoader loader) {
+        logger.info("executesManager init ->> minCorePoolSize ={}, maxCorePoolSize ={}, queueSize ={}, keepAliveTime ={}, executeMode ={}, serviceLimit ={}",//
+                minCorePoolSize, maxCorePoolSize, queueSize, keepAliveTime, executeMode, serviceLimit);
         //
         final BlockingQueue<Runnable> inWorkQueue = new LinkedBlockingQueue<Runnable>(queueSize);
         this.defaultExecutorProvider = new Provider<ThreadPoolExecutor>() {
@@ -46,11 +71,57 @@ public class ExecutesManager {
                         new NameThreadFactory("RSF-Biz-%s", loader), new ThreadPoolExecutor.AbortPolicy());
             }
         };
-        this.defaultExecutor = this.defaultExecutorProvider.get();
         this.servicePoolCache = new ConcurrentHashMap<String, ThreadPoolExecutor>();
+        this.dispatcherMap = new ConcurrentHashMap<String, ServiceDispatcher>();
+        this.serviceStatsMap = new ConcurrentHashMap<String, ServiceStats>();
+        this.pendingCount = new AtomicInteger(0);
+        this.loader = loader;
+        this.queueSize = queueSize;
+        //
+        // .WorkStealing、VirtualThread 需要运行时支持，不支持时逐级退回
+        if (executeMode == ExecuteMode.VirtualThread) {
+            this.sharedExecutor = newExecutor("newVirtualThreadPerTaskExecutor");
+            if (this.sharedExecutor == null) {
+                logger.warn("executesManager -> virtual thread is not supported by this jvm, use WorkStealing.");
+                executeMode = ExecuteMode.WorkStealing;
+            }
+        }
+        if (executeMode == ExecuteMode.WorkStealing) {
+            this.sharedExecutor = newExecutor("newWorkStealingPool", Math.max(maxCorePoolSize, 1));
+            if (this.sharedExecutor == null) {
+                logger.warn("executesManager -> work-stealing pool is not supported by this jvm, use ThreadPool.");
+                executeMode = ExecuteMode.ThreadPool;
+            }
+        }
+        this.executeMode = executeMode;
+        if (serviceLimit <= 0) {
+            serviceLimit = (executeMode == ExecuteMode.WorkStealing) ? Math.max(maxCorePoolSize / 2, 1) : Integer.MAX_VALUE;
+        }
+        this.serviceLimit = serviceLimit;
+        this.defaultExecutor = (executeMode == ExecuteMode.ThreadPool) ? this.defaultExecutorProvider.get() : null;
+    }
+    /** 通过反射创建 Executors 上的执行器（Java 6 编译），不支持时返回 null。*/
+    private static ExecutorService newExecutor(String methodName, Object... args) {
+        try {
+            Class<?>[] types = new Class<?>[args.length];
+            for (int i = 0; i < args.length; i++) {
+                types[i] = int.class;
+            }
+            Method method = Executors.class.getMethod(methodName, types);
+            return (ExecutorService) method.invoke(null, args);
+        } catch (Throwable e) {
+            return null;
+        }
     }
     //
+    /**实际使用的执行方式（不支持的方式会被退回）。*/
+    public ExecuteMode getExecuteMode() {
+        return this.executeMode;
+    }
     public Executor getExecute(String serviceUniqueName) {
+        if (this.executeMode != ExecuteMode.ThreadPool) {
+            return this.getDispatcher(serviceUniqueName);
+        }
         if (!this.servicePoolCache.isEmpty() && serviceUniqueName != null) {
             ThreadPoolExecutor executor = this.servicePoolCache.get(serviceUniqueName);
             if (executor != null) {
@@ -59,21 +130,76 @@ public class ExecutesManager {
         }
         return this.defaultExecutor;
     }
-    /**停止应用服务。*/
+    /**
+     * 执行一个服务的请求，task 实现了 {@link ExpirableTask} 时超时的请求不会被执行。
+     * @throws RejectedExecutionException 队列已满。
+     */
+    public void execute(String serviceUniqueName, Runnable task) throws RejectedExecutionException {
+        TimedTask timedTask = new TimedTask(task, this.getStats(serviceUniqueName));
+        this.getExecute(serviceUniqueName).execute(timedTask);
+    }
+    /**服务请求的排队耗时直方图，数组长度为 TIME_BUCKETS.length + 1，服务不存在时返回 null。*/
+    public long[] getQueueTimeHistogram(String serviceUniqueName) {
+        ServiceStats stats = this.serviceStatsMap.get(serviceUniqueName);
+        return stats == null ? null : stats.queueTime.snapshot();
+    }
+    /**服务请求的执行耗时直方图，数组长度为 TIME_BUCKETS.length + 1，服务不存在时返回 null。*/
+    public long[] getServiceTimeHistogram(String serviceUniqueName) {
+        ServiceStats stats = this.serviceStatsMap.get(serviceUniqueName);
+        return stats == null ? null : stats.serviceTime.snapshot();
+    }
+    /**服务在排队期间就已经超时而被丢弃的请求数。*/
+    public long getExpiredCount(String serviceUniqueName) {
+        ServiceStats stats = this.serviceStatsMap.get(serviceUniqueName);
+        return stats == null ? 0 : stats.expiredCount.get();
+    }
+    private ServiceStats getStats(String serviceUniqueName) {
+        String key = serviceUniqueName == null ? "" : serviceUniqueName;
+        ServiceStats stats = this.serviceStatsMap.get(key);
+        if (stats == null) {
+            ServiceStats newStats = new ServiceStats();
+            stats = this.serviceStatsMap.putIfAbsent(key, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+    private ServiceDispatcher getDispatcher(String serviceUniqueName) {
+        String key = serviceUniqueName == null ? "" : serviceUniqueName;
+        ServiceDispatcher dispatcher = this.dispatcherMap.get(key);
+        if (dispatcher == null) {
+            ServiceDispatcher newDispatcher = new ServiceDispatcher(key);
+            dispatcher = this.dispatcherMap.putIfAbsent(key, newDispatcher);
+            if (dispatcher == null) {
+                dispatcher = newDispatcher;
+            }
+        }
+        return dispatcher;
+    }
+    /**停止应用服务，派发队列中还在排队的请求全部拒绝。*/
     public void shutdown() {
-        List<ThreadPoolExecutor> executorList = new ArrayList<ThreadPoolExecutor>(this.servicePoolCache.values());
+        List<ExecutorService> executorList = new ArrayList<ExecutorService>(this.servicePoolCache.values());
         executorList.add(this.defaultExecutor);
+        executorList.add(this.sharedExecutor);
+        List<ServiceDispatcher> dispatcherList = new ArrayList<ServiceDispatcher>(this.dispatcherMap.values());
         this.servicePoolCache.clear();
-        this.defaultExecutor = this.defaultExecutorProvider.get();
+        this.dispatcherMap.clear();
+        for (ServiceDispatcher dispatcher : dispatcherList) {
+            dispatcher.rejectAll("executesManager is shutdown.");
+        }
+        if (this.executeMode == ExecuteMode.ThreadPool) {
+            this.defaultExecutor = this.defaultExecutorProvider.get();
+        }
         //
-        for (ThreadPoolExecutor exec : executorList) {
+        for (ExecutorService exec : executorList) {
             if (exec == null)
                 continue;
             exec.shutdown();
         }
         while (true) {
             boolean jump = true;
-            for (ThreadPoolExecutor exec : executorList) {
+            for (ExecutorService exec : executorList) {
                 if (exec == null) {
                     continue;
                 }
@@ -90,4 +216,170 @@ public class ExecutesManager {
             } catch (Exception e) { /**/ }
         }
     }
-}
\ No newline at end of file
+    //
+    /** 带有过期时间的任务，过期之后不会被执行，而是调用 {@link #expired()}。*/
+    public static interface ExpirableTask extends Runnable {
+        /** 过期时间（System.currentTimeMillis），小于等于 0 表示不会过期。*/
+        public long getExpireTime();
+        /** 任务在排队期间过期。*/
+        public void expired();
+        /** 任务已经离开调用者，但是执行器拒绝执行（例如已经停止），任务不会再被执行。*/
+        public void rejected(String reason);
+    }
+    /** 服务的统计信息 */
+    private static class ServiceStats {
+        private final TimeHistogram queueTime    = new TimeHistogram();
+        private final TimeHistogram serviceTime  = new TimeHistogram();
+        private final AtomicLong    expiredCount = new AtomicLong(0);
+    }
+    /** 按 TIME_BUCKETS 分桶的耗时直方图 */
+    private static class TimeHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(TIME_BUCKETS.length + 1);
+        public void record(long costNanos) {
+            long costMillis = TimeUnit.NANOSECONDS.toMillis(costNanos);
+            int index = 0;
+            while (index < TIME_BUCKETS.length && costMillis >= TIME_BUCKETS[index]) {
+                index++;
+            }
+            this.buckets.incrementAndGet(index);
+        }
+        public long[] snapshot() {
+            long[] histogram = new long[this.buckets.length()];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = this.buckets.get(i);
+            }
+            return histogram;
+        }
+    }
+    /** 记录排队和执行耗时，并在执行之前检查是否过期 */
+    private static class TimedTask implements Runnable {
+        private final Runnable     task;
+        private final ServiceStats stats;
+        private final long         enqueueTime;
+        TimedTask(Runnable task, ServiceStats stats) {
+            this.task = task;
+            this.stats = stats;
+            this.enqueueTime = System.nanoTime();
+        }
+        /**如果已经过期，则记录排队耗时并通知任务过期。*/
+        boolean dropIfExpired() {
+            if (!(this.task instanceof ExpirableTask)) {
+                return false;
+            }
+            long expireTime = ((ExpirableTask) this.task).getExpireTime();
+            if (expireTime <= 0 || System.currentTimeMillis() <= expireTime) {
+                return false;
+            }
+            this.stats.queueTime.record(System.nanoTime() - this.enqueueTime);
+            this.stats.expiredCount.incrementAndGet();
+            ((ExpirableTask) this.task).expired();
+            return true;
+        }
+        /**任务不会再被执行，通知任务被拒绝。*/
+        void reject(String reason) {
+            if (this.task instanceof ExpirableTask) {
+                ((ExpirableTask) this.task).rejected(reason);
+            }
+        }
+        @Override
+        public void run() {
+            if (this.dropIfExpired()) {
+                return;
+            }
+            long startTime = System.nanoTime();
+            this.stats.queueTime.record(startTime - this.enqueueTime);
+            try {
+                this.task.run();
+            } finally {
+                this.stats.serviceTime.record(System.nanoTime() - startTime);
+            }
+        }
+    }
+    /**
+     * 一个服务的派发队列：最多同时派发 serviceLimit 个请求到共享执行器，其余的请求排队，派发之前丢弃已经过期的请求。
+     * tips：入队和派发都是无锁的，任务执行完之后由执行线程继续派发队列中的下一个请求。
+     */
+    private class ServiceDispatcher implements Executor {
+        private final String                         serviceUniqueName;
+        private final ConcurrentLinkedQueue<Runnable> taskQueue = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicInteger                  running   = new AtomicInteger(0);
+        ServiceDispatcher(String serviceUniqueName) {
+            this.serviceUniqueName = serviceUniqueName;
+        }
+        @Override
+        public void execute(Runnable task) {
+            if (pendingCount.incrementAndGet() > queueSize) {
+                pendingCount.decrementAndGet();
+                throw new RejectedExecutionException("service " + this.serviceUniqueName + " rejected, queue is full.");
+            }
+            this.taskQueue.offer(task);
+            this.dispatch();
+        }
+        private Runnable pollTask() {
+            while (true) {
+                Runnable task = this.taskQueue.poll();
+                if (task == null) {
+                    return null;
+                }
+                pendingCount.decrementAndGet();
+                if (task instanceof TimedTask && ((TimedTask) task).dropIfExpired()) {
+                    continue;
+                }
+                return task;
+            }
+        }
+        private void dispatch() {
+            while (!this.taskQueue.isEmpty()) {
+                int atRunning = this.running.get();
+                if (atRunning >= serviceLimit) {
+                    return;/*执行中的请求结束之后会继续派发*/
+                }
+                if (!this.running.compareAndSet(atRunning, atRunning + 1)) {
+                    continue;
+                }
+                final Runnable task = this.pollTask();
+                if (task == null) {
+                    this.running.decrementAndGet();
+                    continue;
+                }
+                try {
+                    sharedExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            Thread currentThread = Thread.currentThread();
+                            ClassLoader oldLoader = currentThread.getContextClassLoader();
+                            currentThread.setContextClassLoader(loader);
+                            try {
+                                task.run();
+                            } finally {
+                                currentThread.setContextClassLoader(oldLoader);
+                                running.decrementAndGet();
+                                dispatch();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    this.running.decrementAndGet();
+                    logger.error("service {} dispatch failed, executor is shutdown.", this.serviceUniqueName);
+                    this.reject(task, "executor is shutdown.");
+                    this.rejectAll("executor is shutdown.");
+                    return;
+                }
+            }
+        }
+        /**拒绝队列中所有的请求（已经过期的请求依然以过期结束）。*/
+        void rejectAll(String reason) {
+            Runnable task;
+            while ((task = this.pollTask()) != null) {
+                this.reject(task, reason);
+            }
+        }
+        private void reject(Runnable task, String reason) {
+            if (task instanceof TimedTask) {
+                ((TimedTask) task).reject("service " + this.serviceUniqueName + " rejected, " + reason);
+            } else {
+                logger.error("service {} task dropped, {}", this.serviceUniqueName, reason);
+            }
+        }
+    }
+}
@@ -20,8 +20,10 @@ import net.hasor.rsf.RsfBindInfo;
 import net.hasor.rsf.RsfEnvironment;
 import net.hasor.rsf.RsfRequest;
 import net.hasor.rsf.RsfResponse;
+import net.hasor.rsf.domain.OptionInfo;
 import net.hasor.rsf.domain.RequestInfo;
 import net.hasor.rsf.domain.ResponseInfo;
+import net.hasor.rsf.domain.RsfFlags;
 import net.hasor.rsf.domain.RsfRuntimeUtils;
 import net.hasor.utils.StringUtils;
 
@@ -72,6 +74,10 @@ public class ProtocolUtils {
         }
         return info;
     }
+    /**收到请求之后是否需要回应 Accept：Message 调用总是需要，Invoke 调用在握手时协商过（带有 NoAcceptFlag 标记）就不需要。*/
+    public static boolean isAcceptRequired(RequestInfo info) {
+        return info.isMessage() || !RsfFlags.NoAcceptFlag.testTag(info.getFlags());
+    }
     /**将{@link RsfResponse},转换为{@link ResponseInfo}。*/
     public static ResponseInfo buildResponseInfo(RsfEnvironment env, RsfResponse rsfResponse) throws IOException {
         ResponseInfo info = new ResponseInfo();
@@ -87,6 +93,14 @@ public class ProtocolUtils {
         //
         return info;
     }
+    /**丢弃收到的数据时调用，释放其中没有解码的延迟反序列化数据。*/
+    public static void releasePayload(OptionInfo info) {
+        if (info instanceof RequestInfo) {
+            ((RequestInfo) info).releasePayload();
+        } else if (info instanceof ResponseInfo) {
+            ((ResponseInfo) info).releasePayload();
+        }
+    }
     /**创建ByteBuf*/
     public static ByteBuf newByteBuf() {
         return PooledByteBufAllocator.DEFAULT.directBuffer();
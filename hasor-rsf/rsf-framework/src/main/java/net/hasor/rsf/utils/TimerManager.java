@@ -15,6 +15,7 @@
  */
 package net.hasor.rsf.utils;
 import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import io.netty.util.Timer;
 import io.netty.util.TimerTask;
 import net.hasor.core.Hasor;
@@ -38,12 +39,12 @@ public class TimerManager {
         name = Hasor.assertIsNotNull(name);
         this.timer = new HashedWheelTimer(new NameThreadFactory(name + "-Timer-%s", loader));
     }
-    public void atTime(TimerTask timeTask) {
-        this.atTime(timeTask, this.defaultTimeout);
+    public Timeout atTime(TimerTask timeTask) {
+        return this.atTime(timeTask, this.defaultTimeout);
     }
-    public void atTime(TimerTask timeTask, int timeout) {
+    public Timeout atTime(TimerTask timeTask, int timeout) {
         int reqTimeout = validateTimeout(timeout);
-        this.timer.newTimeout(timeTask, reqTimeout, TimeUnit.MILLISECONDS);
+        return this.timer.newTimeout(timeTask, reqTimeout, TimeUnit.MILLISECONDS);
     }
     private int validateTimeout(int timeout) {
         if (timeout <= 0) {
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.rsf.functions;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.hasor.core.AppContext;
+import net.hasor.core.Hasor;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.RsfEnvironment;
+import net.hasor.rsf.domain.OptionInfo;
+import net.hasor.rsf.domain.ProtocolStatus;
+import net.hasor.rsf.domain.RequestInfo;
+import net.hasor.rsf.domain.ResponseInfo;
+import net.hasor.rsf.domain.RsfFlags;
+import net.hasor.rsf.protocol.rsf.ShakeHands;
+import net.hasor.rsf.protocol.rsf.v1.CodecAdapterForV1;
+import net.hasor.rsf.rpc.context.DefaultRsfEnvironment;
+import net.hasor.rsf.rpc.net.*;
+import net.hasor.rsf.rpc.net.netty.NettyConnector;
+import net.hasor.rsf.rpc.net.netty.RsfChannelOnNetty;
+import net.hasor.rsf.utils.ProtocolUtils;
+import net.hasor.utils.future.BasicFuture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+/**
+ * 握手时协商 ACCEPT_MODE：协商过的连接上 Invoke 调用不再回应 Accept，旧版本的对端仍然收到 Accept
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class AcceptModeTest {
+    private AppContext        appContext;
+    private RsfEnvironment    rsfEnv;
+    private TestConnector     connector;
+    private CodecAdapterForV1 codecAdapter;
+    @Before
+    public void before() throws Throwable {
+        this.appContext = Hasor.create().putData("RSF_ENABLE", "false").build();
+        this.rsfEnv = new DefaultRsfEnvironment(this.appContext.getEnvironment());
+        this.connector = new TestConnector(this.rsfEnv);
+        this.codecAdapter = new CodecAdapterForV1(this.rsfEnv, this.appContext.getClassLoader());
+    }
+    @After
+    public void after() {
+        this.connector.shutdown();
+        this.appContext.shutdown();
+    }
+    // - 完成握手，peerOptions 是对端发来的握手选项
+    private EmbeddedChannel shakeHands(String... peerOptions) {
+        EmbeddedChannel channel = new EmbeddedChannel(new ShakeHands(this.connector));
+        ResponseInfo localOptions = channel.readOutbound();
+        Assert.assertEquals("Message", localOptions.getOption("ACCEPT_MODE"));// 本地默认只在 Message 调用时回应 Accept
+        //
+        ResponseInfo options = new ResponseInfo();
+        options.setRequestID(-1);
+        options.setStatus(ProtocolStatus.OK);
+        options.addOption("SERVER_INFO", "rsf://127.0.0.1:2180/unit");
+        for (int i = 0; i + 1 < peerOptions.length; i += 2) {
+            options.addOption(peerOptions[i], peerOptions[i + 1]);
+        }
+        channel.writeInbound(options);
+        return channel;
+    }
+    // - 经由握手之后的连接发出请求，返回对端解码得到的请求
+    private RequestInfo sendAndReceive(EmbeddedChannel channel, boolean message) throws IOException {
+        RequestInfo request = new RequestInfo();
+        request.setRequestID(System.currentTimeMillis());
+        request.setMessage(message);
+        request.setSerializeType(this.rsfEnv.getSettings().getDefaultSerializeType());
+        request.setServiceName("java.util.List");
+        request.setTargetMethod("add");
+        request.addParameter("java.lang.String", "aaaa");
+        InterAddress target = new InterAddress("127.0.0.1", 2180, "unit");
+        RsfChannelOnNetty rsfChannel = new RsfChannelOnNetty(target, channel, LinkType.Out, 1, 0);
+        rsfChannel.sendData(request, null);
+        RequestInfo outRequest = channel.readOutbound();
+        Assert.assertSame(request, outRequest);
+        //
+        ByteBuf buf = ByteBufAllocator.DEFAULT.heapBuffer();
+        this.codecAdapter.wirteRequestBlock(this.codecAdapter.buildRequestBlock(outRequest), buf);
+        RequestInfo inRequest = this.codecAdapter.readRequestInfo(buf);
+        buf.release();
+        return inRequest;
+    }
+    //
+    @Test
+    public void negotiatedPeerTest() throws Throwable {
+        EmbeddedChannel channel = this.shakeHands("ACCEPT_MODE", "Message");
+        Assert.assertEquals(Boolean.TRUE, channel.attr(NettyConnector.ACCEPT_OPTIONAL).get());
+        //
+        // .Invoke 调用带着 NoAcceptFlag 到达对端，对端不回应 Accept
+        RequestInfo invoke = this.sendAndReceive(channel, false);
+        Assert.assertTrue(RsfFlags.NoAcceptFlag.testTag(invoke.getFlags()));
+        Assert.assertFalse(ProtocolUtils.isAcceptRequired(invoke));
+        //
+        // .Message 调用仍然需要 Accept
+        RequestInfo message = this.sendAndReceive(channel, true);
+        Assert.assertFalse(RsfFlags.NoAcceptFlag.testTag(message.getFlags()));
+        Assert.assertTrue(ProtocolUtils.isAcceptRequired(message));
+        channel.finish();
+    }
+    @Test
+    public void oldPeerTest() throws Throwable {
+        // .旧版本的对端在握手时不发送 ACCEPT_MODE
+        EmbeddedChannel channel = this.shakeHands();
+        Assert.assertEquals(Boolean.FALSE, channel.attr(NettyConnector.ACCEPT_OPTIONAL).get());
+        RequestInfo invoke = this.sendAndReceive(channel, false);
+        Assert.assertFalse(RsfFlags.NoAcceptFlag.testTag(invoke.getFlags()));
+        Assert.assertTrue(ProtocolUtils.isAcceptRequired(invoke));
+        channel.finish();
+        //
+        // .对端声明了其它的模式，同样回应 Accept
+        channel = this.shakeHands("ACCEPT_MODE", "All");
+        Assert.assertEquals(Boolean.FALSE, channel.attr(NettyConnector.ACCEPT_OPTIONAL).get());
+        Assert.assertTrue(ProtocolUtils.isAcceptRequired(this.sendAndReceive(channel, false)));
+        channel.finish();
+    }
+    @Test
+    public void resendTest() throws Throwable {
+        // .同一个请求从协商过的连接改发到旧版本的连接上时去掉 NoAcceptFlag
+        RequestInfo request = new RequestInfo();
+        request.setRequestID(1);
+        InterAddress target = new InterAddress("127.0.0.1", 2180, "unit");
+        EmbeddedChannel negotiated = this.shakeHands("ACCEPT_MODE", "Message");
+        new RsfChannelOnNetty(target, negotiated, LinkType.Out, 1, 0).sendData(request, null);
+        Assert.assertTrue(RsfFlags.NoAcceptFlag.testTag(request.getFlags()));
+        EmbeddedChannel old = this.shakeHands();
+        new RsfChannelOnNetty(target, old, LinkType.Out, 1, 0).sendData(request, null);
+        Assert.assertFalse(RsfFlags.NoAcceptFlag.testTag(request.getFlags()));
+        Assert.assertTrue(ProtocolUtils.isAcceptRequired(request));
+        negotiated.finish();
+        old.finish();
+    }
+    //
+    private static class TestConnector extends Connector {
+        public TestConnector(RsfEnvironment rsfEnvironment) {
+            super("RSF/1.0", rsfEnvironment, new ReceivedListener() {
+                public void receivedMessage(RsfChannel rsfChannel, OptionInfo info) {
+                }
+            }, new ConnectionAccepter() {
+                public boolean acceptIn(RsfChannel rsfChannel) throws IOException {
+                    return true;
+                }
+            });
+        }
+        public void startListener(AppContext appContext) {
+        }
+        public void shutdownListener() {
+        }
+        protected void connectionTo(InterAddress target, BasicFuture<RsfChannel> channelFuture) {
+            channelFuture.failed(new IOException("not support."));
+        }
+    }
+}
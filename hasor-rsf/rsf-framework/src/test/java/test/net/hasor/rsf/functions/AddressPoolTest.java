@@ -22,6 +22,7 @@ import net.hasor.rsf.address.DiskCacheAddressPool;
 import net.hasor.rsf.rpc.context.DefaultRsfEnvironment;
 import net.hasor.rsf.utils.IOUtils;
 import net.hasor.utils.ResourcesUtils;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
@@ -30,6 +31,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
 /**
@@ -133,6 +135,103 @@ public class AddressPoolTest {
         pool.restoreConfig();
     }
     //
+    /** 只保留每个服务的第一个地址（127.0.x.1）的路由规则 */
+    private static final String FIRST_ONLY_SCRIPT = "" +//
+            "def List<String> evalAddress(String serviceID, List<String> allAddress) {\n" +//
+            "    return allAddress.findAll { it.startsWith(\"127.\") && it.endsWith(\".1:8000\") }\n" +//
+            "}";
+    private static void assertFirstOnly(AddressPool pool, String serviceID) {
+        for (int i = 0; i < 10; i++) {
+            InterAddress address = pool.nextAddress(serviceID, "sayHello", new Object[] { "hello" });
+            Assert.assertNotNull(serviceID, address);
+            Assert.assertTrue(serviceID + " -> " + address, address.getHost().startsWith("127.") && address.getHost().endsWith(".1"));
+        }
+    }
+    @Test
+    public void resetCostTest() throws IOException, URISyntaxException {
+        DefaultRsfEnvironment rsfEnv = new DefaultRsfEnvironment(Hasor.createAppContext().getEnvironment());
+        AddressPool pool = new AddressPool(rsfEnv);
+        String serviceID = "HelloWord_";
+        int serviceCount = 5000;
+        //
+        // 1.准备 5000 个服务，其中每 10 个服务中有一个配置了路由规则，规则生效之后立刻只能选到过滤之后的地址
+        for (int i = 0; i < serviceCount; i++) {
+            ArrayList<InterAddress> dynamicList = new ArrayList<InterAddress>();
+            for (int j = 1; j <= 4; j++) {
+                dynamicList.add(new InterAddress("127.0." + (i % 250) + "." + j, 8000, "etc2"));
+            }
+            pool.appendAddress(serviceID + i, dynamicList);
+            if (i % 10 == 0) {
+                pool.updateServiceRoute(serviceID + i, FIRST_ONLY_SCRIPT);
+                assertFirstOnly(pool, serviceID + i);
+            }
+        }
+        //
+        // 2.单个服务的地址推送，推送之后沿用上一次过滤的结果，不会选到新推送的地址
+        int loop = 1000;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < loop; i++) {
+            pool.appendAddress(serviceID + (i % serviceCount), new InterAddress("192.168.1." + (i % 250), 8000, "etc2"));
+        }
+        long appendCost = (System.nanoTime() - startTime) / loop;
+        for (int i = 0; i < loop; i += 10) {
+            assertFirstOnly(pool, serviceID + i);
+        }
+        //
+        // 3.全量刷新（地址和规则都没有变化）
+        startTime = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            pool.refreshAddressCache();
+        }
+        long refreshCost = (System.nanoTime() - startTime) / 10;
+        //
+        // 4.选址，没有规则的服务可以选到所有地址
+        startTime = System.nanoTime();
+        for (int i = 0; i < loop; i++) {
+            pool.nextAddress(serviceID + (i % serviceCount), "sayHello", new Object[] { "hello" });
+        }
+        long nextCost = (System.nanoTime() - startTime) / loop;
+        for (int i = 0; i < serviceCount; i += 10) {
+            assertFirstOnly(pool, serviceID + i);
+        }
+        Set<String> hosts = new HashSet<String>();
+        for (int i = 0; i < 200; i++) {
+            hosts.add(pool.nextAddress(serviceID + 1, "sayHello", new Object[] { "hello" }).getHost());
+        }
+        Assert.assertTrue(hosts.size() > 1);
+        Assert.assertEquals(0, pool.getRuleTimeoutCount());
+        pool.shutdown();
+        //
+        System.out.println("services = " + serviceCount);
+        System.out.println("appendAddress avg = " + appendCost / 1000 + "us");
+        System.out.println("refreshAddressCache avg = " + refreshCost / 1000 + "us");
+        System.out.println("nextAddress avg = " + nextCost / 1000 + "us");
+    }
+    @Test
+    public void ruleTimeoutTest() throws IOException, URISyntaxException {
+        DefaultRsfEnvironment rsfEnv = new DefaultRsfEnvironment(Hasor.createAppContext().getEnvironment());
+        AddressPool pool = new AddressPool(rsfEnv);
+        String serviceID = "HelloWord_Timeout";
+        ArrayList<InterAddress> dynamicList = new ArrayList<InterAddress>();
+        for (int j = 1; j <= 4; j++) {
+            dynamicList.add(new InterAddress("127.0.0." + j, 8000, "etc2"));
+        }
+        pool.appendAddress(serviceID, dynamicList);
+        //
+        // .不检查中断的脚本，超时之后沿用单元化的地址，并记录超时次数
+        String sleepScript = "" +//
+                "def List<String> evalAddress(String serviceID, List<String> allAddress) {\n" +//
+                "    long end = System.currentTimeMillis() + 3000\n" +//
+                "    while (System.currentTimeMillis() < end) { }\n" +//
+                "    return allAddress\n" +//
+                "}";
+        long startTime = System.currentTimeMillis();
+        pool.updateServiceRoute(serviceID, sleepScript);
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 2500);
+        Assert.assertTrue(pool.getRuleTimeoutCount() >= 1);
+        Assert.assertNotNull(pool.nextAddress(serviceID, "sayHello", new Object[] { "hello" }));
+        pool.shutdown();
+    }
     @Test
     public void nextAddressTest() throws IOException, URISyntaxException, InterruptedException {
         DefaultRsfEnvironment rsfEnv = new DefaultRsfEnvironment(Hasor.createAppContext().getEnvironment());
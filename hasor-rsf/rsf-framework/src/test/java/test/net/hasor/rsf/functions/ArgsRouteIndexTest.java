@@ -0,0 +1,111 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.rsf.functions;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.address.ArgsRouteIndex;
+import net.hasor.rsf.address.route.rule.ArgsKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+/**
+ * 参数级路由编译结果的查找
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ArgsRouteIndexTest {
+    private static final String SERVICE_ID = "[RSF]test.net.hasor.rsf.services.EchoService-1.0.0";
+    private InterAddress addressA = new InterAddress("127.0.0.1", 8000, "unitA");
+    private InterAddress addressB = new InterAddress("127.0.0.1", 8001, "unitB");
+    //
+    private Map<String, List<InterAddress>> routes(Object... keyAndAddress) {
+        Map<String, List<InterAddress>> routes = new LinkedHashMap<String, List<InterAddress>>();
+        for (int i = 0; i < keyAndAddress.length; i += 2) {
+            routes.put((String) keyAndAddress[i], Collections.singletonList((InterAddress) keyAndAddress[i + 1]));
+        }
+        return routes;
+    }
+    @Test
+    public void argsDeclareTest() {
+        ArgsRouteIndex index = ArgsRouteIndex.compile("sayEcho(0)", routes("abc", addressA, "123", addressB));
+        Assert.assertEquals("sayEcho", index.getMethodName());
+        Assert.assertEquals(Collections.singletonList(addressA), index.find(SERVICE_ID, new Object[] { "abc" }, null));
+        Assert.assertEquals(Collections.singletonList(addressB), index.find(SERVICE_ID, new Object[] { "123" }, null));
+        Assert.assertEquals(Collections.singletonList(addressB), index.find(SERVICE_ID, new Object[] { 123 }, null));
+        Assert.assertEquals(Collections.singletonList(addressB), index.find(SERVICE_ID, new Object[] { 123L }, null));
+        Assert.assertNull(index.find(SERVICE_ID, new Object[] { "xyz" }, null));
+        Assert.assertNull(index.find(SERVICE_ID, new Object[0], null));
+    }
+    @Test
+    public void multiArgsDeclareTest() {
+        Map<String, Object> user = new HashMap<String, Object>();
+        user.put("id", 7);
+        ArgsRouteIndex index = ArgsRouteIndex.compile("query(0, 1.id)", routes("a,7", addressA, "b,7", addressB));
+        Assert.assertEquals("query", index.getMethodName());
+        Assert.assertEquals(Collections.singletonList(addressA), index.find(SERVICE_ID, new Object[] { "a", user }, null));
+        Assert.assertEquals(Collections.singletonList(addressB), index.find(SERVICE_ID, new Object[] { "b", user }, null));
+        Assert.assertNull(index.find(SERVICE_ID, new Object[] { "c", user }, null));
+    }
+    @Test
+    public void argsKeyTest() {
+        // .没有参数声明时由 ArgsKey 生成 key
+        ArgsKey argsKey = new ArgsKey() {
+            public String eval(String serviceID, String methodName, Object[] args) {
+                return args[0].toString();
+            }
+        };
+        ArgsRouteIndex index = ArgsRouteIndex.compile("sayEcho", routes("abc", addressA));
+        Assert.assertEquals(Collections.singletonList(addressA), index.find(SERVICE_ID, new Object[] { "abc" }, argsKey));
+        Assert.assertNull(index.find(SERVICE_ID, new Object[] { "abc" }, null));
+    }
+    @Test
+    public void methodTableTest() {
+        List<ArgsRouteIndex> indexList = new ArrayList<ArgsRouteIndex>();
+        for (int i = 0; i < 100; i++) {
+            indexList.add(ArgsRouteIndex.compile("method" + i + "(0)", routes(String.valueOf(i), addressA)));
+        }
+        // .同名方法只有先加入的那个生效
+        indexList.add(ArgsRouteIndex.compile("method5(0)", routes("5", addressB)));
+        ArgsRouteIndex.MethodTable table = new ArgsRouteIndex.MethodTable(indexList.toArray(new ArgsRouteIndex[indexList.size()]));
+        Assert.assertEquals(101, table.size());
+        //
+        for (int i = 0; i < 100; i++) {
+            String methodName = new String("method" + i);// 方法名和声明中的方法名不是同一个字符串对象
+            ArgsRouteIndex index = table.findMethod(methodName);
+            Assert.assertNotNull(index);
+            Assert.assertEquals(methodName, index.getMethodName());
+            Assert.assertSame(indexList.get(i), index);
+        }
+        Assert.assertEquals(Collections.singletonList(addressA), table.findMethod("method5").find(SERVICE_ID, new Object[] { 5 }, null));
+        Assert.assertNull(table.findMethod("method100"));
+        Assert.assertNull(table.findMethod(null));
+        Assert.assertNull(new ArgsRouteIndex.MethodTable(new ArgsRouteIndex[0]).findMethod("method0"));
+    }
+    @Test
+    public void retainTest() {
+        ArgsRouteIndex sayEcho = ArgsRouteIndex.compile("sayEcho(0)", routes("a", addressA, "b", addressB));
+        ArgsRouteIndex sayHello = ArgsRouteIndex.compile("sayHello", routes("a", addressA, "b", addressB));
+        ArgsRouteIndex.MethodTable table = new ArgsRouteIndex.MethodTable(new ArgsRouteIndex[] { sayEcho, sayHello });
+        //
+        // .去掉不可用的地址，方法仍然可以查找到
+        ArgsRouteIndex.MethodTable retain = table.retain(new HashSet<InterAddress>(Collections.singletonList(addressA)));
+        Assert.assertEquals(2, retain.size());
+        ArgsRouteIndex retainEcho = retain.findMethod("sayEcho");
+        Assert.assertEquals(Collections.singletonList(addressA), retainEcho.find(SERVICE_ID, new Object[] { "a" }, null));
+        Assert.assertNull(retainEcho.find(SERVICE_ID, new Object[] { "b" }, null));
+        Assert.assertNotNull(retain.findMethod("sayHello"));
+    }
+}
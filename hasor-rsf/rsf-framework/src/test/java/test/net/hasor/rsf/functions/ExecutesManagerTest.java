@@ -0,0 +1,251 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.rsf.functions;
+import net.hasor.rsf.ExecuteMode;
+import net.hasor.rsf.utils.ExecutesManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * 业务线程：过期请求在派发之前丢弃、单个服务的并发限制、停止之后拒绝排队中的请求、排队和执行耗时直方图
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ExecutesManagerTest {
+    private ExecutesManager newManager(ExecuteMode mode, int queueSize, int serviceLimit) {
+        return new ExecutesManager(2, 4, queueSize, 60, mode, serviceLimit, Thread.currentThread().getContextClassLoader());
+    }
+    private static Runnable blockTask(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) { /**/ }
+            }
+        };
+    }
+    private static class TestExpirableTask implements ExecutesManager.ExpirableTask {
+        private final    long           expireTime;
+        private final    CountDownLatch done     = new CountDownLatch(1);
+        private volatile boolean        run      = false;
+        private volatile boolean        expired  = false;
+        private volatile String         rejected = null;
+        TestExpirableTask(long expireTime) {
+            this.expireTime = expireTime;
+        }
+        public long getExpireTime() {
+            return this.expireTime;
+        }
+        public void expired() {
+            this.expired = true;
+            this.done.countDown();
+        }
+        public void rejected(String reason) {
+            this.rejected = reason;
+            this.done.countDown();
+        }
+        public void run() {
+            this.run = true;
+            this.done.countDown();
+        }
+    }
+    //
+    @Test
+    public void dropExpiredTest() throws InterruptedException {
+        for (ExecuteMode mode : ExecuteMode.values()) {
+            ExecutesManager manager = newManager(mode, 100, 1);
+            String service = "service_" + mode.name();
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            if (manager.getExecuteMode() == ExecuteMode.ThreadPool) {
+                // .ThreadPool 方式下占满所有的核心业务线程（队列没有满之前不会创建更多的线程）
+                CountDownLatch allStarted = new CountDownLatch(2);
+                for (int i = 0; i < 2; i++) {
+                    manager.execute(service, blockTask(allStarted, release));
+                }
+                Assert.assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+            } else {
+                manager.execute(service, blockTask(started, release));
+                Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            }
+            //
+            // .排队期间过期的请求不会被执行
+            TestExpirableTask expireTask = new TestExpirableTask(System.currentTimeMillis() + 50);
+            TestExpirableTask liveTask = new TestExpirableTask(System.currentTimeMillis() + 60000);
+            TestExpirableTask foreverTask = new TestExpirableTask(0);
+            manager.execute(service, expireTask);
+            manager.execute(service, liveTask);
+            manager.execute(service, foreverTask);
+            Thread.sleep(100);
+            release.countDown();
+            //
+            Assert.assertTrue(expireTask.done.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(liveTask.done.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(foreverTask.done.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(mode.name(), expireTask.expired);
+            Assert.assertFalse(mode.name(), expireTask.run);
+            Assert.assertTrue(mode.name(), liveTask.run);
+            Assert.assertTrue(mode.name(), foreverTask.run);
+            Assert.assertEquals(mode.name(), 1, manager.getExpiredCount(service));
+            manager.shutdown();
+        }
+    }
+    @Test
+    public void serviceLimitTest() throws InterruptedException {
+        ExecutesManager manager = newManager(ExecuteMode.WorkStealing, 100, 2);
+        if (manager.getExecuteMode() != ExecuteMode.WorkStealing) {
+            return;// 运行环境不支持
+        }
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            manager.execute("slowService", new Runnable() {
+                public void run() {
+                    int atRunning = running.incrementAndGet();
+                    while (true) {
+                        int max = maxRunning.get();
+                        if (atRunning <= max || maxRunning.compareAndSet(max, atRunning)) {
+                            break;
+                        }
+                    }
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) { /**/ }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(maxRunning.get() <= 2);
+        manager.shutdown();
+    }
+    @Test
+    public void serviceIsolationTest() throws InterruptedException {
+        ExecutesManager manager = newManager(ExecuteMode.WorkStealing, 100, 1);
+        if (manager.getExecuteMode() != ExecuteMode.WorkStealing) {
+            return;// 运行环境不支持
+        }
+        // .一个服务的请求全部阻塞时，不影响其它服务的请求
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        manager.execute("slowService", blockTask(started, release));
+        manager.execute("slowService", blockTask(new CountDownLatch(1), release));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        //
+        TestExpirableTask otherTask = new TestExpirableTask(0);
+        manager.execute("otherService", otherTask);
+        Assert.assertTrue(otherTask.done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(otherTask.run);
+        release.countDown();
+        manager.shutdown();
+    }
+    @Test
+    public void queueFullTest() throws InterruptedException {
+        ExecutesManager manager = newManager(ExecuteMode.WorkStealing, 2, 1);
+        if (manager.getExecuteMode() != ExecuteMode.WorkStealing) {
+            return;// 运行环境不支持
+        }
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        manager.execute("service", blockTask(started, release));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        manager.execute("service", new TestExpirableTask(0));
+        manager.execute("service", new TestExpirableTask(0));
+        try {
+            manager.execute("service", new TestExpirableTask(0));
+            Assert.fail("queue is full.");
+        } catch (RejectedExecutionException e) {
+            /**/
+        }
+        release.countDown();
+        manager.shutdown();
+    }
+    @Test
+    public void shutdownRejectTest() throws InterruptedException {
+        ExecutesManager manager = newManager(ExecuteMode.WorkStealing, 100, 1);
+        if (manager.getExecuteMode() != ExecuteMode.WorkStealing) {
+            return;// 运行环境不支持
+        }
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        manager.execute("service", blockTask(started, release));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        TestExpirableTask queuedTask = new TestExpirableTask(0);
+        TestExpirableTask expireTask = new TestExpirableTask(System.currentTimeMillis() + 10);
+        manager.execute("service", queuedTask);
+        manager.execute("service", expireTask);
+        Thread.sleep(50);
+        //
+        // .停止时还在排队的请求以拒绝结束（已经过期的请求依然以过期结束），不会被悄悄丢掉
+        manager.shutdown();
+        Assert.assertTrue(queuedTask.done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(expireTask.done.await(5, TimeUnit.SECONDS));
+        Assert.assertNotNull(queuedTask.rejected);
+        Assert.assertFalse(queuedTask.run);
+        Assert.assertTrue(expireTask.expired);
+        Assert.assertNull(expireTask.rejected);
+        release.countDown();
+        //
+        // .执行器已经停止，派发时被拒绝的请求同样通知拒绝
+        TestExpirableTask lateTask = new TestExpirableTask(0);
+        manager.execute("service", lateTask);
+        Assert.assertTrue(lateTask.done.await(5, TimeUnit.SECONDS));
+        Assert.assertNotNull(lateTask.rejected);
+        Assert.assertFalse(lateTask.run);
+    }
+    @Test
+    public void histogramTest() throws InterruptedException {
+        ExecutesManager manager = newManager(ExecuteMode.ThreadPool, 100, 0);
+        Assert.assertNull(manager.getQueueTimeHistogram("service"));
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            manager.execute("service", new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) { /**/ }
+                    done.countDown();
+                }
+            });
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);// 执行耗时在任务结束之后记录
+        //
+        long[] queueTime = manager.getQueueTimeHistogram("service");
+        long[] serviceTime = manager.getServiceTimeHistogram("service");
+        Assert.assertEquals(ExecutesManager.TIME_BUCKETS.length + 1, queueTime.length);
+        Assert.assertEquals(3, sum(queueTime));
+        Assert.assertEquals(3, sum(serviceTime));
+        // .20ms 的请求落在 [10, 50) 和 [50, 100) 桶中（取决于调度）
+        Assert.assertEquals(3, serviceTime[3] + serviceTime[4]);
+        Assert.assertEquals(0, manager.getExpiredCount("service"));
+        manager.shutdown();
+    }
+    private static long sum(long[] histogram) {
+        long sum = 0;
+        for (long count : histogram) {
+            sum += count;
+        }
+        return sum;
+    }
+}
@@ -17,9 +17,11 @@ package test.net.hasor.rsf.functions;
 import net.hasor.core.environment.StandardEnvironment;
 import net.hasor.rsf.InterAddress;
 import net.hasor.rsf.RsfEnvironment;
+import net.hasor.rsf.address.AddressMetrics;
 import net.hasor.rsf.address.route.flowcontrol.random.RandomFlowControl;
 import net.hasor.rsf.address.route.flowcontrol.speed.SpeedFlowControl;
 import net.hasor.rsf.address.route.flowcontrol.unit.UnitFlowControl;
+import net.hasor.rsf.address.route.flowcontrol.weight.WeightFlowControl;
 import net.hasor.rsf.address.route.rule.RuleParser;
 import net.hasor.rsf.rpc.context.DefaultRsfEnvironment;
 import net.hasor.rsf.utils.IOUtils;
@@ -29,7 +31,9 @@ import org.junit.Test;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 /**
  *
  * @version : 2015年4月5日
@@ -64,6 +68,27 @@ public class FlowControlTest {
         }
     }
     @Test
+    public void weightTest() throws Throwable {
+        RuleParser ruleParser = getRuleParser();
+        String weightBody = IOUtils.readToString(ResourcesUtils.getResourceAsStream("/flow-control/weight-flow.xml"), "utf-8");
+        WeightFlowControl rule = (WeightFlowControl) ruleParser.ruleSettings(weightBody);
+        //
+        List<InterAddress> address = addressList();
+        AddressMetrics metrics = new AddressMetrics();
+        Map<InterAddress, Integer> countMap = new HashMap<InterAddress, Integer>();
+        for (int i = 0; i < 500; i++) {
+            InterAddress addr = rule.getServiceAddress(address, metrics);
+            Integer count = countMap.get(addr);
+            countMap.put(addr, count == null ? 1 : count + 1);
+        }
+        // 权重 300:100:100:0，一个完整周期内恰好按权重比例分配
+        assert countMap.get(address.get(0)) == 300;
+        assert countMap.get(address.get(1)) == 100;
+        assert countMap.get(address.get(2)) == 100;
+        assert !countMap.containsKey(address.get(3));
+        System.out.println(countMap);
+    }
+    @Test
     public void unitTest() throws Throwable {
         RuleParser ruleParser = getRuleParser();
         String roomBody = IOUtils.readToString(ResourcesUtils.getResourceAsStream("/flow-control/unit-flow.xml"), "utf-8");
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.rsf.functions;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.RsfFuture;
+import net.hasor.rsf.domain.OptionInfo;
+import net.hasor.rsf.rpc.caller.InFlightRequestTable;
+import net.hasor.rsf.rpc.net.LinkType;
+import net.hasor.rsf.rpc.net.RsfChannel;
+import net.hasor.rsf.rpc.net.SendCallBack;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+/**
+ * 进行中的请求表
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class InFlightTableTest {
+    private List<Long> timeoutList = new ArrayList<Long>();
+    private InFlightRequestTable newTable(int stripeCount) {
+        return new InFlightRequestTable(stripeCount, new InFlightRequestTable.TimeoutListener() {
+            public void onTimeout(long requestID) {
+                timeoutList.add(requestID);
+            }
+        });
+    }
+    //
+    @Test
+    public void putAndRemoveTest() {
+        InFlightRequestTable table = newTable(4);
+        RsfFuture[] futures = new RsfFuture[1000];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = new RsfFuture(null);
+            table.put(i * 7, futures[i]);// 同一段中的 key 足够多，会发生扩容和探测冲突
+        }
+        Assert.assertEquals(1000, table.size());
+        // .删除一半之后，剩下的依然都能找到（删除时的后移压缩没有截断探测链）
+        for (int i = 0; i < futures.length; i += 2) {
+            Assert.assertSame(futures[i], table.remove(i * 7));
+            Assert.assertNull(table.remove(i * 7));
+        }
+        Assert.assertEquals(500, table.size());
+        for (int i = 0; i < futures.length; i++) {
+            if (i % 2 == 0) {
+                Assert.assertNull(table.get(i * 7));
+            } else {
+                Assert.assertSame(futures[i], table.get(i * 7));
+            }
+        }
+    }
+    @Test
+    public void replaceTest() {
+        InFlightRequestTable table = newTable(1);
+        TestTimeout oldTimeout = new TestTimeout();
+        table.put(1, new RsfFuture(null)).attachTimeout(oldTimeout);
+        RsfFuture newFuture = new RsfFuture(null);
+        table.put(1, newFuture);
+        // .相同的 requestID 替换旧请求，旧请求的超时任务被取消，请求数不变
+        Assert.assertTrue(oldTimeout.cancelled);
+        Assert.assertEquals(1, table.size());
+        Assert.assertSame(newFuture, table.get(1));
+    }
+    @Test
+    public void timeoutTest() throws Exception {
+        InFlightRequestTable table = newTable(2);
+        InFlightRequestTable.Slot slot1 = table.put(1, new RsfFuture(null));
+        InFlightRequestTable.Slot slot2 = table.put(2, new RsfFuture(null));
+        TestTimeout timeout2 = new TestTimeout();
+        slot2.attachTimeout(timeout2);
+        // .已经完成的请求不会触发超时，并且超时任务被取消
+        table.remove(2);
+        Assert.assertTrue(timeout2.cancelled);
+        slot2.run(timeout2);
+        slot1.run(null);
+        Assert.assertEquals(1, this.timeoutList.size());
+        Assert.assertEquals(1L, (long) this.timeoutList.get(0));
+        // .完成之后才关联的超时任务立刻被取消
+        table.remove(1);
+        TestTimeout lateTimeout = new TestTimeout();
+        slot1.attachTimeout(lateTimeout);
+        Assert.assertTrue(lateTimeout.cancelled);
+    }
+    @Test
+    public void channelInFlightTest() throws Exception {
+        InFlightRequestTable table = newTable(2);
+        TestChannel ch0 = new TestChannel();
+        TestChannel ch1 = new TestChannel();
+        table.put(1, new RsfFuture(null));
+        table.put(2, new RsfFuture(null));
+        table.put(3, new RsfFuture(null));
+        Assert.assertTrue(table.getSlot(1).attachChannel(ch0));
+        Assert.assertTrue(table.getSlot(2).attachChannel(ch0));
+        Assert.assertTrue(table.getSlot(3).attachChannel(ch1));
+        Assert.assertFalse(table.getSlot(3).attachChannel(ch0));// 一个请求只记录一个连接
+        Assert.assertEquals(2, ch0.getInFlight());
+        Assert.assertEquals(1, ch1.getInFlight());
+        //
+        // .请求完成时扣减发出它的连接，重复完成不会再次扣减
+        table.remove(1);
+        table.remove(1);
+        Assert.assertEquals(1, ch0.getInFlight());
+        table.remove(3);
+        Assert.assertEquals(0, ch1.getInFlight());
+        //
+        // .相同 requestID 替换旧请求时，旧请求的连接同样扣减
+        table.put(2, new RsfFuture(null));
+        Assert.assertEquals(0, ch0.getInFlight());
+        //
+        // .已经完成的请求不再计数
+        InFlightRequestTable.Slot slot = table.put(4, new RsfFuture(null));
+        table.remove(4);
+        Assert.assertFalse(slot.attachChannel(ch0));
+        Assert.assertEquals(0, ch0.getInFlight());
+    }
+    @Test
+    public void ageHistogramTest() {
+        InFlightRequestTable table = newTable(4);
+        for (int i = 0; i < 10; i++) {
+            table.put(i, new RsfFuture(null));
+        }
+        long[] histogram = table.ageHistogram();
+        Assert.assertEquals(InFlightRequestTable.AGE_BUCKETS.length + 1, histogram.length);
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        Assert.assertEquals(10, total);
+    }
+    //
+    private static class TestChannel extends RsfChannel {
+        public TestChannel() {
+            super(new InterAddress("rsf", "127.0.0.1", 2299, "unit"), LinkType.Out);
+        }
+        public boolean isActive() {
+            return true;
+        }
+        protected void closeChannel() {
+        }
+        protected void sendData(OptionInfo sendData, SendCallBack sendCallBack) {
+        }
+    }
+    private static class TestTimeout implements Timeout {
+        private boolean cancelled;
+        public Timer timer() {
+            return null;
+        }
+        public TimerTask task() {
+            return null;
+        }
+        public boolean isExpired() {
+            return false;
+        }
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
+        public boolean cancel() {
+            this.cancelled = true;
+            return true;
+        }
+    }
+}
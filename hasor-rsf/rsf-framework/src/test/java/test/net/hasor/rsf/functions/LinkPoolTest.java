@@ -0,0 +1,173 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.rsf.functions;
+import net.hasor.core.AppContext;
+import net.hasor.core.Hasor;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.RsfEnvironment;
+import net.hasor.rsf.domain.OptionInfo;
+import net.hasor.rsf.rpc.context.DefaultRsfEnvironment;
+import net.hasor.rsf.rpc.net.*;
+import net.hasor.utils.future.BasicFuture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+/**
+ * 同一个远程地址上的多连接：连接选择、后台重连和预热
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class LinkPoolTest {
+    private AppContext    appContext;
+    private TestConnector connector;
+    private InterAddress  target;
+    @Before
+    public void before() throws Throwable {
+        this.appContext = Hasor.create().putData("RSF_ENABLE", "false").build();
+        RsfEnvironment rsfEnv = new DefaultRsfEnvironment(this.appContext.getEnvironment());
+        this.connector = new TestConnector(rsfEnv);
+        this.target = new InterAddress(this.connector.getSechma(), "127.0.0.1", 2299, "unit");
+    }
+    @After
+    public void after() {
+        this.connector.shutdown();
+        this.appContext.shutdown();
+    }
+    //
+    @Test
+    public void warmUpTest() throws Throwable {
+        // .调用者线程上只建立第一个连接，其余的连接由后台任务预热
+        RsfChannel first = this.connector.getOrConnectionTo(this.target, 3).get();
+        Assert.assertEquals(1, this.connector.channelList.size());
+        Assert.assertSame(first, this.connector.channelList.get(0));
+        //
+        this.connector.keep();
+        Assert.assertEquals(3, this.connector.channelList.size());
+        this.connector.keep();
+        Assert.assertEquals(3, this.connector.channelList.size());
+    }
+    @Test
+    public void selectTest() throws Throwable {
+        this.connector.getOrConnectionTo(this.target, 3);
+        this.connector.keep();
+        TestChannel ch0 = this.connector.channelList.get(0);
+        TestChannel ch1 = this.connector.channelList.get(1);
+        TestChannel ch2 = this.connector.channelList.get(2);
+        ch0.requestStarted();
+        ch0.requestStarted();
+        ch1.requestStarted();
+        //
+        // .优先选择在途请求最少的连接
+        for (int i = 0; i < 6; i++) {
+            Assert.assertSame(ch2, this.connector.getOrConnectionTo(this.target, 3).get());
+        }
+        // .在途请求相同时轮询
+        ch2.requestStarted();
+        ch2.requestStarted();
+        ch1.requestStarted();
+        List<RsfChannel> selected = new CopyOnWriteArrayList<RsfChannel>();
+        for (int i = 0; i < 6; i++) {
+            RsfChannel channel = this.connector.getOrConnectionTo(this.target, 3).get();
+            if (!selected.contains(channel)) {
+                selected.add(channel);
+            }
+        }
+        Assert.assertEquals(3, selected.size());
+    }
+    @Test
+    public void reconnectTest() throws Throwable {
+        this.connector.getOrConnectionTo(this.target, 2);
+        this.connector.keep();
+        TestChannel ch0 = this.connector.channelList.get(0);
+        TestChannel ch1 = this.connector.channelList.get(1);
+        ch0.close();
+        //
+        // .失效的连接不会被选中，由后台任务重连
+        for (int i = 0; i < 4; i++) {
+            Assert.assertSame(ch1, this.connector.getOrConnectionTo(this.target, 2).get());
+        }
+        Assert.assertEquals(2, this.connector.channelList.size());
+        this.connector.keep();
+        Assert.assertEquals(3, this.connector.channelList.size());
+        Assert.assertTrue(this.connector.channelList.get(2).isActive());
+        //
+        // .所有连接都失效时，调用者线程上重新建立第一个连接
+        ch1.close();
+        this.connector.channelList.get(2).close();
+        RsfChannel channel = this.connector.getOrConnectionTo(this.target, 2).get();
+        Assert.assertTrue(channel.isActive());
+        Assert.assertEquals(4, this.connector.channelList.size());
+    }
+    @Test
+    public void acceptTest() throws Throwable {
+        this.connector.getOrConnectionTo(this.target, 2);
+        TestChannel inChannel = new TestChannel(this.target, LinkType.In);
+        Assert.assertTrue(this.connector.accept(inChannel));
+        //
+        // .接入的连接占用了第二个槽位，后台不需要再预热
+        this.connector.keep();
+        Assert.assertEquals(1, this.connector.channelList.size());
+    }
+    //
+    //
+    private static class TestConnector extends Connector {
+        private final List<TestChannel> channelList = new CopyOnWriteArrayList<TestChannel>();
+        public TestConnector(RsfEnvironment rsfEnvironment) {
+            super("RSF/1.0", rsfEnvironment, new ReceivedListener() {
+                public void receivedMessage(RsfChannel rsfChannel, OptionInfo info) {
+                }
+            }, new ConnectionAccepter() {
+                public boolean acceptIn(RsfChannel rsfChannel) throws IOException {
+                    return true;
+                }
+            });
+        }
+        public void startListener(AppContext appContext) {
+        }
+        public void shutdownListener() {
+        }
+        protected void connectionTo(InterAddress target, BasicFuture<RsfChannel> channelFuture) {
+            TestChannel channel = new TestChannel(target, LinkType.Out);
+            this.channelList.add(channel);
+            channelFuture.completed(channel);
+        }
+        public void keep() {
+            this.keepLinks();
+        }
+        public boolean accept(RsfChannel rsfChannel) throws Exception {
+            return this.acceptChannel(rsfChannel);
+        }
+    }
+    private static class TestChannel extends RsfChannel {
+        private volatile boolean active = true;
+        public TestChannel(InterAddress target, LinkType linkType) {
+            super(target, linkType);
+        }
+        public boolean isActive() {
+            return this.active;
+        }
+        protected void closeChannel() {
+            this.active = false;
+        }
+        protected void sendData(OptionInfo sendData, SendCallBack sendCallBack) {
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.rsf.functions;
+import net.hasor.rsf.rpc.caller.MethodDispatcher;
+import org.junit.Assert;
+import org.junit.Test;
+import test.net.hasor.rsf.services.EchoService;
+import test.net.hasor.rsf.services.EchoServiceImpl;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+/**
+ *
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class MethodDispatcherTest {
+    public interface CalcService {
+        public int add(int a, int b);
+
+        public long add(long a, long b);
+
+        public long sum(long[] values);
+
+        public void reset();
+
+        public String join(String prefix, double value) throws Exception;
+    }
+    public static class CalcServiceImpl implements CalcService {
+        public int add(int a, int b) {
+            return a + b;
+        }
+        public long add(long a, long b) {
+            return a + b + 1;
+        }
+        public long sum(long[] values) {
+            long sum = 0;
+            for (long value : values) {
+                sum += value;
+            }
+            return sum;
+        }
+        public void reset() {
+        }
+        public String join(String prefix, double value) throws Exception {
+            if (prefix == null) {
+                throw new Exception("prefix is null.");
+            }
+            return prefix + value;
+        }
+    }
+    @Test
+    public void dispatcherTest() throws Throwable {
+        MethodDispatcher dispatcher = MethodDispatcher.newDispatcher(CalcService.class);
+        Assert.assertFalse(dispatcher.getClass().getName().endsWith("$ReflectDispatcher"));
+        CalcService target = new CalcServiceImpl();
+        //
+        int addIndex = dispatcher.indexOf("add", Arrays.asList("I", "I"));
+        Assert.assertEquals(addIndex, dispatcher.indexOf(CalcService.class.getMethod("add", int.class, int.class)));
+        Assert.assertEquals(7, dispatcher.invoke(target, addIndex, new Object[] { 3, 4 }));
+        // .重载的方法按参数类型区分
+        int addLongIndex = dispatcher.indexOf("add", Arrays.asList("J", "J"));
+        Assert.assertTrue(addIndex != addLongIndex);
+        Assert.assertEquals(addLongIndex, dispatcher.indexOf(CalcServiceImpl.class.getMethod("add", long.class, long.class)));
+        Assert.assertEquals(8L, dispatcher.invoke(target, addLongIndex, new Object[] { 3L, 4L }));
+        //
+        int sumIndex = dispatcher.indexOf("sum", Collections.singletonList("[J"));
+        Assert.assertEquals(6L, dispatcher.invoke(target, sumIndex, new Object[] { new long[] { 1, 2, 3 } }));
+        //
+        int resetIndex = dispatcher.indexOf("reset", Collections.<String>emptyList());
+        Assert.assertNull(dispatcher.invoke(target, resetIndex, new Object[0]));
+        //
+        int joinIndex = dispatcher.indexOf("join", Arrays.asList("java.lang.String", "D"));
+        Assert.assertEquals("a1.5", dispatcher.invoke(target, joinIndex, new Object[] { "a", 1.5d }));
+        try {
+            dispatcher.invoke(target, joinIndex, new Object[] { null, 1.5d });
+            Assert.fail();
+        } catch (Exception e) {
+            Assert.assertEquals("prefix is null.", e.getMessage());
+        }
+        //
+        Assert.assertEquals(-1, dispatcher.indexOf("add", Arrays.asList("D", "D")));
+        Assert.assertEquals(-1, dispatcher.indexOf("add", Collections.singletonList("I")));
+        Assert.assertEquals(-1, dispatcher.indexOf("remove", Collections.<String>emptyList()));
+        try {
+            dispatcher.invoke(target, dispatcher.getMethodCount(), new Object[0]);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            //
+        }
+    }
+    @Test
+    public void serviceTest() throws Throwable {
+        MethodDispatcher dispatcher = MethodDispatcher.newDispatcher(EchoService.class);
+        Method method = EchoService.class.getMethod("sayHello", String.class);
+        int index = dispatcher.indexOf(method);
+        Assert.assertEquals(method, dispatcher.getMethod(index));
+        Assert.assertEquals("you say abc", dispatcher.invoke(new EchoServiceImpl(), index, new Object[] { "abc" }));
+    }
+}
@@ -18,11 +18,22 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import net.hasor.core.AppContext;
 import net.hasor.core.Hasor;
+import net.hasor.rsf.domain.ProtocolStatus;
 import net.hasor.rsf.domain.RequestInfo;
 import net.hasor.rsf.domain.ResponseInfo;
+import net.hasor.rsf.domain.RsfException;
+import net.hasor.rsf.protocol.rsf.ProtocolConstants;
+import net.hasor.rsf.protocol.rsf.compress.FrameCompress;
 import net.hasor.rsf.protocol.rsf.v1.CodecAdapterForV1;
+import net.hasor.rsf.protocol.rsf.v1.PoolBlock;
+import net.hasor.rsf.protocol.rsf.v1.RequestBlock;
+import net.hasor.rsf.protocol.rsf.v2.CodecAdapterForV2;
+import net.hasor.rsf.protocol.rsf.v2.StringDictionary;
 import net.hasor.rsf.rpc.context.DefaultRsfEnvironment;
+import org.junit.Assert;
 import org.junit.Test;
+
+import java.io.IOException;
 /**
  *
  * @version : 2014年9月12日
@@ -61,6 +72,146 @@ public class ProtocolTest {
     }
     //
     @Test
+    public void requestLazyPack() throws Throwable {
+        AppContext appContext = Hasor.createAppContext();
+        DefaultRsfEnvironment rsfEnv = new DefaultRsfEnvironment(appContext.getEnvironment());
+        CodecAdapterForV1 codecAdapter = new CodecAdapterForV1(rsfEnv, appContext.getClassLoader());
+        //
+        RequestInfo outRequest = new RequestInfo();
+        outRequest.setRequestID(System.currentTimeMillis());
+        outRequest.setSerializeType(rsfEnv.getSettings().getDefaultSerializeType());
+        outRequest.setServiceName("java.util.List");
+        outRequest.setTargetMethod("add");
+        outRequest.addParameter("java.lang.String", "aaaa");
+        //
+        ByteBuf inBuf = ByteBufAllocator.DEFAULT.heapBuffer();
+        codecAdapter.wirteRequestBlock(codecAdapter.buildRequestBlock(outRequest), inBuf);
+        RequestInfo inRequest = codecAdapter.readRequestInfo(inBuf, true);
+        //
+        // .参数还没有解码，数据包被保留
+        Assert.assertTrue(inRequest.hasLazyPayload());
+        Assert.assertNull(inRequest.getParameterValues().get(0));
+        Assert.assertEquals(2, inBuf.refCnt());
+        //
+        // .解码之后释放数据包
+        inRequest.decodePayload();
+        Assert.assertEquals("aaaa", inRequest.getParameterValues().get(0));
+        Assert.assertEquals(1, inBuf.refCnt());
+        inRequest.releasePayload();
+        Assert.assertEquals(1, inBuf.refCnt());
+        inBuf.release();
+    }
+    //
+    @Test
+    public void requestDictionaryPack() throws Throwable {
+        AppContext appContext = Hasor.createAppContext();
+        DefaultRsfEnvironment rsfEnv = new DefaultRsfEnvironment(appContext.getEnvironment());
+        CodecAdapterForV2 outAdapter = new CodecAdapterForV2(rsfEnv, appContext.getClassLoader(), new StringDictionary(16));
+        CodecAdapterForV2 inAdapter = new CodecAdapterForV2(rsfEnv, appContext.getClassLoader(), new StringDictionary(16));
+        //
+        int[] frameLength = new int[2];
+        for (int i = 0; i < 2; i++) {
+            RequestInfo outRequest = new RequestInfo();
+            outRequest.setRequestID(i);
+            outRequest.setClientTimeout(1000);
+            outRequest.setSerializeType(rsfEnv.getSettings().getDefaultSerializeType());
+            outRequest.setServiceGroup("Test");
+            outRequest.setServiceName("java.util.List");
+            outRequest.setServiceVersion("1.0.0");
+            outRequest.setTargetMethod("add");
+            outRequest.addParameter("java.lang.String", "aaaa");
+            outRequest.addOption("traceID", "trace_" + i);
+            //
+            ByteBuf inBuf = ByteBufAllocator.DEFAULT.heapBuffer();
+            outAdapter.writeRequestInfo(outRequest, inBuf);
+            outAdapter.getDictionary().commit();
+            frameLength[i] = inBuf.readableBytes();
+            RequestInfo inRequest = inAdapter.readRequestInfo(inBuf, false);
+            inBuf.release();
+            //
+            Assert.assertEquals(i, inRequest.getRequestID());
+            Assert.assertEquals("java.util.List", inRequest.getServiceName());
+            Assert.assertEquals("add", inRequest.getTargetMethod());
+            Assert.assertEquals(1000, inRequest.getClientTimeout());
+            Assert.assertEquals("aaaa", inRequest.getParameterValues().get(0));
+            Assert.assertEquals("trace_" + i, inRequest.getOption("traceID"));
+        }
+        // .第二个数据包中的字符串都只发送了编号
+        Assert.assertTrue(frameLength[1] < frameLength[0]);
+        Assert.assertEquals(7, inAdapter.getDictionary().size());
+    }
+    //
+    @Test
+    public void compressPack() throws Throwable {
+        AppContext appContext = Hasor.createAppContext();
+        DefaultRsfEnvironment rsfEnv = new DefaultRsfEnvironment(appContext.getEnvironment());
+        CodecAdapterForV2 outAdapter = new CodecAdapterForV2(rsfEnv, appContext.getClassLoader(), new StringDictionary(0));
+        CodecAdapterForV2 inAdapter = new CodecAdapterForV2(rsfEnv, appContext.getClassLoader(), new StringDictionary(0));
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; report.length() < 200000; i++) {
+            report.append("row_").append(i).append(",report data,").append(i % 7).append(";");
+        }
+        //
+        for (byte compressType : new byte[] { ProtocolConstants.Compress_Block, ProtocolConstants.Compress_Deflate }) {
+            RequestInfo outRequest = new RequestInfo();
+            outRequest.setRequestID(compressType);
+            outRequest.setSerializeType(rsfEnv.getSettings().getDefaultSerializeType());
+            outRequest.setServiceName("java.util.List");
+            outRequest.setTargetMethod("add");
+            outRequest.addParameter("java.lang.String", report.toString());
+            //
+            ByteBuf outBuf = ByteBufAllocator.DEFAULT.directBuffer();
+            outAdapter.writeRequestInfo(outRequest, outBuf);
+            int plainLength = outBuf.readableBytes();
+            Assert.assertTrue(FrameCompress.compressFrame(ByteBufAllocator.DEFAULT, outBuf, 0, compressType));
+            Assert.assertTrue(FrameCompress.isCompressed(outBuf));
+            Assert.assertTrue(outBuf.readableBytes() < plainLength / 2);
+            //
+            ByteBuf inBuf = FrameCompress.decompressFrame(ByteBufAllocator.DEFAULT, outBuf, plainLength);
+            Assert.assertFalse(FrameCompress.isCompressed(inBuf));
+            Assert.assertEquals(plainLength, inBuf.readableBytes());
+            RequestInfo inRequest = inAdapter.readRequestInfo(inBuf, false);
+            Assert.assertEquals(compressType, inRequest.getRequestID());
+            Assert.assertEquals(report.toString(), inRequest.getParameterValues().get(0));
+            // .解压后超过限制
+            try {
+                FrameCompress.decompressFrame(ByteBufAllocator.DEFAULT, outBuf, plainLength - 1);
+                Assert.fail();
+            } catch (IOException e) {
+                // 期望的异常
+            }
+            inBuf.release();
+            outBuf.release();
+        }
+    }
+    //
+    @Test
+    public void compressFramesTest() throws Throwable {
+        // .同一个线程上连续压缩的数据包共用一个压缩器，之前数据包留在哈希表中的位置不能被当作匹配
+        for (int i = 0; i < 50; i++) {
+            StringBuilder body = new StringBuilder();
+            for (int j = 0; body.length() < 2000 + i * 97; j++) {
+                body.append(i % 2 == 0 ? "even_" : "odd_").append(j * (i + 1)).append(",frame ").append(i).append(";");
+            }
+            byte[] bodyBytes = body.toString().getBytes("UTF-8");
+            ByteBuf frame = ByteBufAllocator.DEFAULT.heapBuffer();
+            frame.writeByte(ProtocolConstants.RSF_InvokerRequest_V2);
+            frame.writeLong(i);
+            frame.writeByte(0);
+            frame.writeMedium(bodyBytes.length);
+            frame.writeBytes(bodyBytes);
+            ByteBuf plainFrame = frame.copy();
+            //
+            Assert.assertTrue(FrameCompress.compressFrame(ByteBufAllocator.DEFAULT, frame, 0, ProtocolConstants.Compress_Block));
+            ByteBuf inBuf = FrameCompress.decompressFrame(ByteBufAllocator.DEFAULT, frame, plainFrame.readableBytes());
+            Assert.assertEquals(plainFrame, inBuf);
+            inBuf.release();
+            plainFrame.release();
+            frame.release();
+        }
+    }
+    //
+    @Test
     public void responsePack() throws Throwable {
         AppContext appContext = Hasor.createAppContext();
         DefaultRsfEnvironment rsfEnv = new DefaultRsfEnvironment(appContext.getEnvironment());
@@ -84,4 +235,79 @@ public class ProtocolTest {
         //
         System.out.println(inResponse);
     }
-}
\ No newline at end of file
+    //
+    @Test
+    public void poolBlockIndex() throws Throwable {
+        PoolBlock outBlock = new PoolBlock();
+        for (int i = 0; i < 40; i++) {
+            outBlock.pushData(("key_" + i).getBytes());
+            outBlock.pushData(null);
+        }
+        ByteBuf outBuf = ByteBufAllocator.DEFAULT.heapBuffer();
+        outBlock.fillTo(outBuf);
+        outBlock.release();
+        //
+        PoolBlock inBlock = new PoolBlock();
+        inBlock.fillFrom(outBuf);
+        Assert.assertEquals(80, inBlock.getPoolLength());
+        for (int i = 0; i < 40; i++) {
+            Assert.assertEquals("key_" + i, inBlock.readPoolString((short) (i * 2)));
+            Assert.assertEquals("key_" + i, new String(inBlock.readPool((short) (i * 2))));
+            Assert.assertNull(inBlock.readPoolSlice((short) (i * 2 + 1)));
+        }
+        inBlock.release();
+        outBuf.release();
+    }
+    //
+    @Test
+    public void poolBlockOutOfRange() throws Throwable {
+        PoolBlock block = new PoolBlock();
+        block.pushData("key".getBytes());
+        block.pushData(null);
+        for (short attrIndex : new short[] { -1, 2, PoolBlock.PoolMaxSize }) {
+            try {
+                block.readPool(attrIndex);
+                Assert.fail();
+            } catch (RsfException e) {
+                Assert.assertEquals(ProtocolStatus.ProtocolError, e.getStatus());
+            }
+            try {
+                block.readPoolSlice(attrIndex);
+                Assert.fail();
+            } catch (RsfException e) {
+                Assert.assertEquals(ProtocolStatus.ProtocolError, e.getStatus());
+            }
+            try {
+                block.readPoolString(attrIndex);
+                Assert.fail();
+            } catch (RsfException e) {
+                Assert.assertEquals(ProtocolStatus.ProtocolError, e.getStatus());
+            }
+        }
+        Assert.assertEquals("key", block.readPoolString((short) 0));
+        Assert.assertNull(block.readPool((short) 1));
+        block.release();
+        //
+        // .数据包中的索引超出了数据池
+        AppContext appContext = Hasor.createAppContext();
+        DefaultRsfEnvironment rsfEnv = new DefaultRsfEnvironment(appContext.getEnvironment());
+        CodecAdapterForV1 codecAdapter = new CodecAdapterForV1(rsfEnv, appContext.getClassLoader());
+        RequestInfo outRequest = new RequestInfo();
+        outRequest.setRequestID(System.currentTimeMillis());
+        outRequest.setSerializeType(rsfEnv.getSettings().getDefaultSerializeType());
+        outRequest.setServiceName("java.util.List");
+        outRequest.setTargetMethod("add");
+        RequestBlock requestBlock = codecAdapter.buildRequestBlock(outRequest);
+        requestBlock.setServiceName((short) requestBlock.getPoolLength());
+        ByteBuf inBuf = ByteBufAllocator.DEFAULT.heapBuffer();
+        codecAdapter.wirteRequestBlock(requestBlock, inBuf);
+        requestBlock.release();
+        try {
+            codecAdapter.readRequestInfo(inBuf);
+            Assert.fail();
+        } catch (RsfException e) {
+            Assert.assertEquals(ProtocolStatus.ProtocolError, e.getStatus());
+        }
+        inBuf.release();
+    }
+}
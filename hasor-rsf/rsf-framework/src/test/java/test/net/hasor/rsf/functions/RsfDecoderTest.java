@@ -0,0 +1,134 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.rsf.functions;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.hasor.core.AppContext;
+import net.hasor.core.Hasor;
+import net.hasor.rsf.domain.RequestInfo;
+import net.hasor.rsf.protocol.rsf.ProtocolConstants;
+import net.hasor.rsf.protocol.rsf.RsfDecoder;
+import net.hasor.rsf.protocol.rsf.v2.CodecAdapterForV2;
+import net.hasor.rsf.protocol.rsf.v2.StringDictionary;
+import net.hasor.rsf.rpc.context.DefaultRsfEnvironment;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+/**
+ * RsfDecoder 遇到无法解码的 RSF 2.0 数据包或者无法解压的数据包时关闭连接，之后的数据包不再解码
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class RsfDecoderTest {
+    private AppContext            appContext;
+    private DefaultRsfEnvironment rsfEnv;
+    private CodecAdapterForV2     outAdapter;
+    @Before
+    public void before() throws Throwable {
+        this.appContext = Hasor.createAppContext();
+        this.rsfEnv = new DefaultRsfEnvironment(this.appContext.getEnvironment());
+        this.outAdapter = new CodecAdapterForV2(this.rsfEnv, this.appContext.getClassLoader(), new StringDictionary(0));
+    }
+    @After
+    public void after() {
+        this.appContext.shutdown();
+    }
+    private EmbeddedChannel newChannel() {
+        return new EmbeddedChannel(new RsfDecoder(this.rsfEnv, 1024 * 1024, this.appContext.getClassLoader()));
+    }
+    private void writeRequest(long requestID, ByteBuf out) throws Exception {
+        RequestInfo request = new RequestInfo();
+        request.setRequestID(requestID);
+        request.setSerializeType(this.rsfEnv.getSettings().getDefaultSerializeType());
+        request.setServiceName("java.util.List");
+        request.setTargetMethod("add");
+        request.addParameter("java.lang.String", "aaaa");
+        this.outAdapter.writeRequestInfo(request, out);
+    }
+    // - 数据帧的长度是对的，但是内容无法解码（第一个字符串的长度是一个不会结束的 varint）
+    private static void writeCorrupt(long requestID, ByteBuf out) {
+        out.writeByte(ProtocolConstants.RSF_InvokerRequest_V2);
+        out.writeLong(requestID);
+        out.writeByte(0);
+        out.writeMedium(4);
+        out.writeInt(0xFFFFFFFF);
+    }
+    //
+    @Test
+    public void validFramesTest() throws Exception {
+        EmbeddedChannel channel = this.newChannel();
+        ByteBuf buf = Unpooled.buffer();
+        this.writeRequest(1, buf);
+        this.writeRequest(2, buf);
+        channel.writeInbound(buf);
+        Assert.assertEquals(1, ((RequestInfo) channel.readInbound()).getRequestID());
+        Assert.assertEquals(2, ((RequestInfo) channel.readInbound()).getRequestID());
+        Assert.assertTrue(channel.isOpen());
+        channel.finish();
+    }
+    @Test
+    public void corruptThenValidTest() throws Exception {
+        // .坏的数据包之后紧跟着一个完好的数据包，二者在同一次读取中到达
+        EmbeddedChannel channel = this.newChannel();
+        ByteBuf buf = Unpooled.buffer();
+        writeCorrupt(1, buf);
+        this.writeRequest(2, buf);
+        channel.writeInbound(buf);
+        //
+        // .连接被关闭，不回应状态，后面的数据包也不再解码（字典已经和对端不一致）
+        Assert.assertFalse(channel.isOpen());
+        Assert.assertNull(channel.readOutbound());
+        Assert.assertNull(channel.readInbound());
+        channel.finish();
+        Assert.assertEquals(0, buf.refCnt());
+    }
+    @Test
+    public void undefinedHeadTest() throws Exception {
+        // .未定义的 2.0 数据包同样关闭连接
+        EmbeddedChannel channel = this.newChannel();
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeByte(ProtocolConstants.Version_2 | ProtocolConstants.RSF_Packet_xxxx7);
+        buf.writeLong(1);
+        buf.writeByte(0);
+        buf.writeMedium(0);
+        this.writeRequest(2, buf);
+        channel.writeInbound(buf);
+        Assert.assertFalse(channel.isOpen());
+        Assert.assertNull(channel.readOutbound());
+        Assert.assertNull(channel.readInbound());
+        channel.finish();
+    }
+    @Test
+    public void corruptCompressedTest() throws Exception {
+        // .压缩数据损坏（声明的原始长度和解压结果不一致），同样关闭连接
+        EmbeddedChannel channel = this.newChannel();
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeByte(ProtocolConstants.RSF_InvokerRequest_V2);
+        buf.writeLong(1);
+        buf.writeByte(ProtocolConstants.Compress_Block);
+        buf.writeMedium(8);
+        buf.writeInt(100);
+        buf.writeInt(0x10FFFFFF);
+        this.writeRequest(2, buf);
+        channel.writeInbound(buf);
+        Assert.assertFalse(channel.isOpen());
+        Assert.assertNull(channel.readOutbound());
+        Assert.assertNull(channel.readInbound());
+        channel.finish();
+    }
+}
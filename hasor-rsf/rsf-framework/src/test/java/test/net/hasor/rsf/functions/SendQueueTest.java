@@ -0,0 +1,126 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.rsf.functions;
+import net.hasor.rsf.rpc.caller.RequestWaitQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+/**
+ * 发送等待队列（SendLimitPolicy.WaitQueue）
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class SendQueueTest {
+    private RequestWaitQueue newQueue(int maxSize) {
+        return new RequestWaitQueue(maxSize, new RequestWaitQueue.ExpireListener() {
+            public void onExpire(RequestWaitQueue.WaitEntry entry) {
+            }
+        });
+    }
+    //
+    @Test
+    public void fairShareTest() {
+        RequestWaitQueue queue = newQueue(4);
+        ArrayDeque<RequestWaitQueue.WaitEntry> evictedList = new ArrayDeque<RequestWaitQueue.WaitEntry>();
+        Assert.assertNotNull(queue.offer("A", null, 10000, evictedList));
+        Assert.assertNotNull(queue.offer("A", null, 10000, evictedList));
+        Assert.assertNotNull(queue.offer("B", null, 10000, evictedList));
+        // .两个服务排队，每个服务最多占一半
+        Assert.assertNull(queue.offer("A", null, 10000, evictedList));
+        Assert.assertNotNull(queue.offer("B", null, 10000, evictedList));
+        Assert.assertTrue(evictedList.isEmpty());
+        // .队列已满，三个服务每个最多占一份，C 挤掉超出份额的服务最后排入的请求
+        RequestWaitQueue.WaitEntry c1 = queue.offer("C", null, 10000, evictedList);
+        Assert.assertNotNull(c1);
+        Assert.assertEquals(1, evictedList.size());
+        Assert.assertEquals(4, queue.size());
+        Assert.assertNull(queue.offer("C", null, 10000, evictedList));
+        Assert.assertNotNull(queue.offer("D", null, 10000, evictedList));
+        Assert.assertEquals(2, evictedList.size());
+        // .没有服务超出份额之后，队列已满
+        Assert.assertNull(queue.offer("E", null, 10000, evictedList));
+        Assert.assertEquals(2, evictedList.size());
+        Assert.assertEquals(4, queue.size());
+    }
+    @Test
+    public void floodTest() {
+        RequestWaitQueue queue = newQueue(4);
+        ArrayDeque<RequestWaitQueue.WaitEntry> evictedList = new ArrayDeque<RequestWaitQueue.WaitEntry>();
+        RequestWaitQueue.WaitEntry[] aEntries = new RequestWaitQueue.WaitEntry[4];
+        for (int i = 0; i < aEntries.length; i++) {
+            aEntries[i] = queue.offer("A", null, 10000, evictedList);
+            Assert.assertNotNull(aEntries[i]);
+        }
+        // .A 独占了整个队列，之后到达的 B 依然可以拿到它的一半份额，A 最后排入的请求被挤出
+        Assert.assertNull(queue.offer("A", null, 10000, evictedList));
+        RequestWaitQueue.WaitEntry b1 = queue.offer("B", null, 10000, evictedList);
+        RequestWaitQueue.WaitEntry b2 = queue.offer("B", null, 10000, evictedList);
+        Assert.assertNotNull(b1);
+        Assert.assertNotNull(b2);
+        Assert.assertNull(queue.offer("B", null, 10000, evictedList));
+        Assert.assertEquals(2, evictedList.size());
+        Assert.assertSame(aEntries[3], evictedList.pollFirst());
+        Assert.assertSame(aEntries[2], evictedList.pollFirst());
+        Assert.assertEquals(4, queue.size());
+        // .被挤出的请求不会再出队，也不能再被移除（等待超时的定时任务不会重复回调）
+        Assert.assertFalse(queue.remove(aEntries[3]));
+        ArrayDeque<RequestWaitQueue.WaitEntry> expiredList = new ArrayDeque<RequestWaitQueue.WaitEntry>();
+        long nowTime = System.currentTimeMillis();
+        Assert.assertSame(aEntries[0], queue.poll(nowTime, expiredList));
+        Assert.assertSame(b1, queue.poll(nowTime, expiredList));
+        Assert.assertSame(aEntries[1], queue.poll(nowTime, expiredList));
+        Assert.assertSame(b2, queue.poll(nowTime, expiredList));
+        Assert.assertNull(queue.poll(nowTime, expiredList));
+        Assert.assertTrue(expiredList.isEmpty());
+    }
+    @Test
+    public void roundRobinTest() {
+        RequestWaitQueue queue = newQueue(10);
+        ArrayDeque<RequestWaitQueue.WaitEntry> evictedList = new ArrayDeque<RequestWaitQueue.WaitEntry>();
+        RequestWaitQueue.WaitEntry a1 = queue.offer("A", null, 10000, evictedList);
+        RequestWaitQueue.WaitEntry a2 = queue.offer("A", null, 10000, evictedList);
+        RequestWaitQueue.WaitEntry b1 = queue.offer("B", null, 10000, evictedList);
+        Assert.assertTrue(evictedList.isEmpty());
+        //
+        ArrayDeque<RequestWaitQueue.WaitEntry> expiredList = new ArrayDeque<RequestWaitQueue.WaitEntry>();
+        long nowTime = System.currentTimeMillis();
+        Assert.assertSame(a1, queue.poll(nowTime, expiredList));
+        Assert.assertSame(b1, queue.poll(nowTime, expiredList));
+        Assert.assertSame(a2, queue.poll(nowTime, expiredList));
+        Assert.assertNull(queue.poll(nowTime, expiredList));
+        Assert.assertTrue(expiredList.isEmpty());
+        Assert.assertEquals(0, queue.size());
+    }
+    @Test
+    public void expireTest() {
+        RequestWaitQueue queue = newQueue(10);
+        ArrayDeque<RequestWaitQueue.WaitEntry> evictedList = new ArrayDeque<RequestWaitQueue.WaitEntry>();
+        RequestWaitQueue.WaitEntry a1 = queue.offer("A", null, 100, evictedList);
+        RequestWaitQueue.WaitEntry a2 = queue.offer("A", null, 10000, evictedList);
+        RequestWaitQueue.WaitEntry b1 = queue.offer("B", null, 10000, evictedList);
+        // .过期的请求出队时放入 expiredList，不会被返回
+        ArrayDeque<RequestWaitQueue.WaitEntry> expiredList = new ArrayDeque<RequestWaitQueue.WaitEntry>();
+        Assert.assertSame(a2, queue.poll(a1.getDeadline(), expiredList));
+        Assert.assertEquals(1, expiredList.size());
+        Assert.assertSame(a1, expiredList.peekFirst());
+        // .移除之后不再出队
+        Assert.assertTrue(queue.remove(b1));
+        Assert.assertFalse(queue.remove(b1));
+        Assert.assertNull(queue.poll(a1.getDeadline(), expiredList));
+        Assert.assertEquals(0, queue.size());
+    }
+}
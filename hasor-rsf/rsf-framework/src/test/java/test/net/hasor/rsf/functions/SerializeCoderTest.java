@@ -0,0 +1,186 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.rsf.functions;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.hasor.core.AppContext;
+import net.hasor.core.Hasor;
+import net.hasor.rsf.SerializeCoder;
+import net.hasor.rsf.StreamSerializeCoder;
+import net.hasor.rsf.protocol.rsf.v1.PoolBlock;
+import net.hasor.rsf.rpc.context.DefaultRsfEnvironment;
+import net.hasor.rsf.serialize.SerializeFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+/**
+ * 流式序列化器：ByteBuf 和 byte[] 两种接口的往返编解码、直接编码到数据池（beginData/commitData/abortData）
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class SerializeCoderTest {
+    private static final String[] CODER_NAMES = { "Json", "Java", "Hessian", "Hprose" };
+    private static final String   TEXT        = "hello RSF，你好 Grüße ☃";
+    private AppContext       appContext;
+    private SerializeFactory factory;
+    @Before
+    public void before() {
+        this.appContext = Hasor.create().putData("RSF_ENABLE", "false").build();
+        this.factory = SerializeFactory.createFactory(new DefaultRsfEnvironment(this.appContext.getEnvironment()));
+    }
+    @After
+    public void after() {
+        this.appContext.shutdown();
+    }
+    private StreamSerializeCoder streamCoder(String coderName) {
+        SerializeCoder coder = this.factory.getSerializeCoder(coderName);
+        Assert.assertTrue(coderName, coder instanceof StreamSerializeCoder);
+        return (StreamSerializeCoder) coder;
+    }
+    //
+    @Test
+    public void streamRoundTripTest() throws IOException {
+        for (String coderName : CODER_NAMES) {
+            StreamSerializeCoder coder = this.streamCoder(coderName);
+            ByteBuf buf = Unpooled.buffer();
+            try {
+                coder.encode(TEXT, buf);
+                coder.encode(12345, buf);
+                // .同一个 ByteBuf 中的多个对象，按切片逐个解码
+                ByteBuf textBuf = Unpooled.buffer();
+                coder.encode(TEXT, textBuf);
+                int textLength = textBuf.readableBytes();
+                textBuf.release();
+                Assert.assertEquals(coderName, TEXT, coder.decode(buf.slice(0, textLength), String.class));
+                Assert.assertEquals(coderName, 12345, ((Number) coder.decode(buf.slice(textLength, buf.readableBytes() - textLength), Integer.class)).intValue());
+                Assert.assertNull(coderName, coder.decode((ByteBuf) null, String.class));
+            } finally {
+                buf.release();
+            }
+        }
+    }
+    @Test
+    public void byteArrayRoundTripTest() throws IOException {
+        for (String coderName : CODER_NAMES) {
+            StreamSerializeCoder coder = this.streamCoder(coderName);
+            // .byte[] 接口和 ByteBuf 接口的编码结果互通
+            byte[] bytes = coder.encode(TEXT);
+            Assert.assertEquals(coderName, TEXT, coder.decode(bytes, String.class));
+            Assert.assertEquals(coderName, TEXT, coder.decode(Unpooled.wrappedBuffer(bytes), String.class));
+            ByteBuf buf = Unpooled.buffer();
+            try {
+                coder.encode(TEXT, buf);
+                byte[] streamBytes = new byte[buf.readableBytes()];
+                buf.getBytes(buf.readerIndex(), streamBytes);
+                Assert.assertEquals(coderName, TEXT, coder.decode(streamBytes, String.class));
+            } finally {
+                buf.release();
+            }
+        }
+    }
+    @Test
+    public void jsonCharsetTest() throws IOException {
+        // .两个解码入口使用相同的字符集，非 ASCII 的内容解码结果一致
+        StreamSerializeCoder coder = this.streamCoder("Json");
+        byte[] bytes = ("\"" + TEXT + "\"").getBytes("UTF-8");
+        Assert.assertEquals(TEXT, coder.decode(bytes, String.class));
+        Assert.assertEquals(TEXT, coder.decode(Unpooled.wrappedBuffer(bytes), String.class));
+    }
+    @Test
+    public void poolDataTest() throws IOException {
+        for (String coderName : CODER_NAMES) {
+            StreamSerializeCoder coder = this.streamCoder(coderName);
+            PoolBlock block = new PoolBlock();
+            try {
+                short first = block.pushData(new byte[] { 1, 2, 3 });
+                coder.encode(TEXT, block.beginData());
+                short second = block.commitData();
+                short third = block.pushData(null);
+                Assert.assertEquals(0, first);
+                Assert.assertEquals(1, second);
+                Assert.assertEquals(2, third);
+                Assert.assertEquals(coderName, TEXT, coder.decode(block.readPoolSlice(second), String.class));
+                Assert.assertEquals(coderName, TEXT, coder.decode(block.readPool(second), String.class));
+                Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, block.readPool(first));
+                Assert.assertNull(block.readPool(third));
+                //
+                // .经过 fillTo/fillFrom 之后，数据依然可以直接在切片上解码
+                ByteBuf frame = Unpooled.buffer();
+                block.fillTo(frame);
+                PoolBlock readBlock = new PoolBlock();
+                readBlock.fillFrom(frame);
+                Assert.assertEquals(3, readBlock.getPoolLength());
+                Assert.assertEquals(coderName, TEXT, coder.decode(readBlock.readPoolSlice(second), String.class));
+                readBlock.release();
+                frame.release();
+            } finally {
+                block.release();
+            }
+        }
+    }
+    @Test
+    public void abortDataTest() throws IOException {
+        StreamSerializeCoder coder = this.streamCoder("Java");
+        PoolBlock block = new PoolBlock();
+        try {
+            block.pushData(new byte[] { 1, 2, 3 });
+            int poolSize = block.getPoolSize();
+            //
+            // .序列化器写出了一部分数据之后失败，放弃之后数据池回到写入之前的状态
+            ByteBuf dataBuf = block.beginData();
+            try {
+                coder.encode(new Object(), dataBuf);
+                Assert.fail("object is not serializable.");
+            } catch (NotSerializableException e) {
+                Assert.assertTrue(dataBuf.writerIndex() > poolSize);
+                block.abortData();
+            }
+            Assert.assertEquals(poolSize, block.getPoolSize());
+            Assert.assertEquals(1, block.getPoolLength());
+            //
+            // .放弃之后可以继续写入，新的数据不会带上残留的内容
+            coder.encode(TEXT, block.beginData());
+            short index = block.commitData();
+            Assert.assertEquals(1, index);
+            Assert.assertEquals(TEXT, coder.decode(block.readPoolSlice(index), String.class));
+            Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, block.readPool((short) 0));
+            //
+            // .没有提交之前不能再写入，abortData 可以重复调用
+            block.beginData();
+            try {
+                block.pushData(new byte[0]);
+                Assert.fail("the previous data is not committed.");
+            } catch (IllegalStateException e) {
+                /**/
+            }
+            block.abortData();
+            block.abortData();
+            try {
+                block.commitData();
+                Assert.fail("beginData must be called first.");
+            } catch (IllegalStateException e) {
+                /**/
+            }
+            Assert.assertEquals(2, block.getPoolLength());
+        } finally {
+            block.release();
+        }
+    }
+}
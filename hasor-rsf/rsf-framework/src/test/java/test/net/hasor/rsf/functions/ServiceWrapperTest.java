@@ -0,0 +1,97 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.rsf.functions;
+import net.hasor.core.AppContext;
+import net.hasor.core.Hasor;
+import net.hasor.rsf.RsfApiBinder;
+import net.hasor.rsf.RsfBindInfo;
+import net.hasor.rsf.RsfContext;
+import net.hasor.rsf.RsfModule;
+import net.hasor.rsf.rpc.caller.MethodDispatcher;
+import net.hasor.rsf.rpc.caller.RsfServiceWrapper;
+import net.hasor.rsf.rpc.caller.RsfServiceWrapperObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import test.net.hasor.rsf.functions.MethodDispatcherTest.CalcService;
+import test.net.hasor.rsf.functions.MethodDispatcherTest.CalcServiceImpl;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+/**
+ * 生成的客户端桩：接口方法经由 RsfServiceWrapperObject.invokeMethod 发起调用，本地有提供者时由 LocalPref 直接调用
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ServiceWrapperTest {
+    private AppContext  appContext;
+    private RsfContext  rsfContext;
+    private CalcService calcService;
+    @Before
+    public void before() throws Throwable {
+        this.appContext = Hasor.createAppContext("alone/provider-config.xml", new RsfModule() {
+            @Override
+            public void loadModule(RsfApiBinder apiBinder) throws Throwable {
+                apiBinder.rsfService(CalcService.class).toInstance(new CalcServiceImpl()).register();
+            }
+        });
+        this.rsfContext = this.appContext.getInstance(RsfContext.class);
+        // .指定地址的调用不是分布式调用，LocalPref 优先使用本地的提供者
+        String protocol = this.rsfContext.getDefaultProtocol();
+        this.calcService = this.rsfContext.getRsfClient(this.rsfContext.bindAddress(protocol)).wrapper(CalcService.class);
+    }
+    @After
+    public void after() {
+        this.appContext.shutdown();
+    }
+    //
+    @Test
+    public void wrapperClassTest() throws Throwable {
+        // .public 接口生成 RsfServiceWrapperObject 的子类，不使用 Proxy
+        Assert.assertTrue(this.calcService instanceof RsfServiceWrapperObject);
+        Assert.assertFalse(Proxy.isProxyClass(this.calcService.getClass()));
+        Assert.assertNotNull(((RsfServiceWrapper) this.calcService).getTarget());
+    }
+    @Test
+    public void invokeMethodTest() throws Throwable {
+        // .基本类型参数的装箱、返回值的拆箱、重载方法、数组参数和 void 方法
+        Assert.assertEquals(7, this.calcService.add(3, 4));
+        Assert.assertEquals(8L, this.calcService.add(3L, 4L));
+        Assert.assertEquals(6L, this.calcService.sum(new long[] { 1, 2, 3 }));
+        this.calcService.reset();
+        Assert.assertEquals("a1.5", this.calcService.join("a", 1.5d));
+        //
+        // .方法上声明的异常原样抛出
+        try {
+            this.calcService.join(null, 1.5d);
+            Assert.fail();
+        } catch (Exception e) {
+            Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+            Assert.assertEquals("prefix is null.", cause.getMessage());
+        }
+    }
+    @Test
+    public void dispatcherCacheTest() throws Throwable {
+        // .调用器由容器缓存，同一个服务只生成一次
+        RsfBindInfo<CalcService> bindInfo = this.rsfContext.getServiceInfo(CalcService.class);
+        MethodDispatcher dispatcher = this.rsfContext.getMethodDispatcher(bindInfo);
+        Assert.assertSame(dispatcher, this.rsfContext.getMethodDispatcher(bindInfo));
+        Assert.assertSame(CalcService.class, dispatcher.getServiceType());
+        int addIndex = dispatcher.indexOf("add", Arrays.asList("I", "I"));
+        Assert.assertEquals(7, dispatcher.invoke(new CalcServiceImpl(), addIndex, new Object[] { 3, 4 }));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.rsf.functions;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.domain.RequestInfo;
+import net.hasor.rsf.rpc.net.LinkType;
+import net.hasor.rsf.rpc.net.SendCallBack;
+import net.hasor.rsf.rpc.net.netty.RsfChannelOnNetty;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+/**
+ * RsfChannelOnNetty 的合并写
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class WriteBatchTest {
+    private List<Long> completeList = new ArrayList<Long>();
+    private SendCallBack callBack = new SendCallBack() {
+        public void failed(long requestID, Throwable e) {
+            Assert.fail(e.getMessage());
+        }
+        public void complete(long requestID) {
+            completeList.add(requestID);
+        }
+    };
+    private static RequestInfo newRequest(long requestID) {
+        RequestInfo info = new RequestInfo();
+        info.setRequestID(requestID);
+        info.setMessage(true);
+        info.setServiceName("java.util.List");
+        info.setTargetMethod("add");
+        return info;
+    }
+    //
+    @Test
+    public void batchByFramesTest() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        InterAddress target = new InterAddress("127.0.0.1", 2180, "local");
+        RsfChannelOnNetty rsfChannel = new RsfChannelOnNetty(target, channel, LinkType.Out, 4, Integer.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            rsfChannel.sendData(newRequest(i), this.callBack);
+        }
+        // .I/O 线程执行之前数据包只在队列中
+        Assert.assertNull(channel.readOutbound());
+        Assert.assertEquals(0, rsfChannel.getSendFlushes());
+        //
+        channel.runPendingTasks();
+        for (int i = 0; i < 10; i++) {
+            RequestInfo info = channel.readOutbound();
+            Assert.assertEquals(i, info.getRequestID());// 顺序不变
+        }
+        Assert.assertEquals(3, rsfChannel.getSendFlushes());// 4 + 4 + 2
+        Assert.assertEquals(10, rsfChannel.getFlushFrames());
+        Assert.assertEquals(10, rsfChannel.getSendPacketsOk());
+        Assert.assertEquals(10, this.completeList.size());
+    }
+    @Test
+    public void batchByBytesTest() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        InterAddress target = new InterAddress("127.0.0.1", 2180, "local");
+        RsfChannelOnNetty rsfChannel = new RsfChannelOnNetty(target, channel, LinkType.Out, 100, 1);
+        for (int i = 0; i < 5; i++) {
+            rsfChannel.sendData(newRequest(i), this.callBack);
+        }
+        channel.runPendingTasks();
+        // .每个数据包都超过了字节预算，各自 flush
+        Assert.assertEquals(5, rsfChannel.getSendFlushes());
+        Assert.assertEquals(5, this.completeList.size());
+    }
+    @Test
+    public void noBatchTest() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        InterAddress target = new InterAddress("127.0.0.1", 2180, "local");
+        RsfChannelOnNetty rsfChannel = new RsfChannelOnNetty(target, channel, LinkType.Out, 1, 0);
+        rsfChannel.sendData(newRequest(1), this.callBack);
+        // .不合并时在调用线程上直接写出
+        RequestInfo info = channel.readOutbound();
+        Assert.assertEquals(1, info.getRequestID());
+        Assert.assertEquals(1, this.completeList.size());
+    }
+    @Test
+    public void closedChannelTest() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        InterAddress target = new InterAddress("127.0.0.1", 2180, "local");
+        RsfChannelOnNetty rsfChannel = new RsfChannelOnNetty(target, channel, LinkType.Out, 4, Integer.MAX_VALUE);
+        channel.close();
+        final List<Long> failedList = new ArrayList<Long>();
+        rsfChannel.sendData(newRequest(1), new SendCallBack() {
+            public void failed(long requestID, Throwable e) {
+                failedList.add(requestID);
+            }
+            public void complete(long requestID) {
+                Assert.fail();
+            }
+        });
+        Assert.assertEquals(1, failedList.size());
+    }
+}
@@ -19,6 +19,7 @@ import net.hasor.registry.client.support.RegistryClientModule;
 import net.hasor.registry.common.CenterMode;
 import net.hasor.registry.common.RsfCenterSettings;
 import net.hasor.registry.server.RegistryServerModule;
+import net.hasor.registry.server.sharding.ShardingServerModule;
 import net.hasor.rsf.RsfApiBinder;
 import net.hasor.rsf.RsfEnvironment;
 import net.hasor.rsf.RsfModule;
@@ -55,8 +56,9 @@ public class RegistryBootModule extends RsfModule {
             return;
         }
         if (CenterMode.Cluster.equals(settings.getMode())) {
-            this.logger.warn("registry workAt Cluster mode, Temporary does not support.");
-            throw new UnsupportedOperationException("Temporary does not support");
+            this.logger.info("registry workAt Cluster mode, so service info will be sharded across all registry servers.");
+            apiBinder.installModule(new ShardingServerModule(rsfEnvironment, settings));
+            return;
         }
         if (CenterMode.Leader.equals(settings.getMode())) {
             this.logger.warn("registry workAt Leader mode, Temporary does not support.");
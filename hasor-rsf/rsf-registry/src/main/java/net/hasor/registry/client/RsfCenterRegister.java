@@ -14,6 +14,7 @@
  * limitations under the License.
  */
 package net.hasor.registry.client;
+import net.hasor.registry.client.domain.AddressDelta;
 import net.hasor.registry.client.domain.ConsumerPublishInfo;
 import net.hasor.registry.client.domain.ProviderPublishInfo;
 import net.hasor.registry.client.domain.ServiceID;
@@ -46,6 +47,13 @@ public interface RsfCenterRegister {
     /** 拉取服务提供者列表 */
     public RsfCenterResult<List<String>> pullProviders(InstanceInfo instance, ServiceID serviceID, List<String> runProtocol);
 
+    /**
+     * 增量拉取服务提供者列表，首次拉取时 epoch、revision 传 0。
+     * @param epoch 上一次拉取结果中的 epoch
+     * @param revision 上一次拉取结果中的 revision
+     */
+    public RsfCenterResult<AddressDelta> pullProviderDelta(InstanceInfo instance, ServiceID serviceID, List<String> runProtocol, long epoch, long revision);
+
     /** 请求远程把服务地址重新推送过来(如果远程服务器繁忙,那么可能返回失败) */
     public RsfCenterResult<Boolean> requestPushProviders(InstanceInfo instance, ServiceID serviceID, List<String> runProtocol);
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.registry.client.domain;
+import java.io.Serializable;
+import java.util.List;
+/**
+ * 服务提供者地址的增量同步结果。
+ * <p>客户端带着上一次同步得到的 epoch 和 revision 拉取地址，注册中心只返回这之后发生的变化。
+ * 当 epoch 不一致（注册中心重启或换了节点）或者变更日志已经不足以覆盖时，返回全量地址并将 full 置为 true。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class AddressDelta implements Serializable {
+    private static final long serialVersionUID = 5324916390021873416L;
+    private long         epoch;         // 注册中心的变更日志标识
+    private long         revision;      // 同步到的版本
+    private boolean      full;          // true 表示 appendList 为全量地址
+    private List<String> appendList;    // 新增的地址
+    private List<String> removeList;    // 删除的地址
+    //
+    public long getEpoch() {
+        return epoch;
+    }
+    public void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+    public long getRevision() {
+        return revision;
+    }
+    public void setRevision(long revision) {
+        this.revision = revision;
+    }
+    public boolean isFull() {
+        return full;
+    }
+    public void setFull(boolean full) {
+        this.full = full;
+    }
+    public List<String> getAppendList() {
+        return appendList;
+    }
+    public void setAppendList(List<String> appendList) {
+        this.appendList = appendList;
+    }
+    public List<String> getRemoveList() {
+        return removeList;
+    }
+    public void setRemoveList(List<String> removeList) {
+        this.removeList = removeList;
+    }
+}
@@ -19,6 +19,7 @@ import io.netty.util.TimerTask;
 import net.hasor.registry.RegistryCenter;
 import net.hasor.registry.client.RsfCenterRegister;
 import net.hasor.registry.client.RsfCenterResult;
+import net.hasor.registry.client.domain.AddressDelta;
 import net.hasor.registry.client.domain.BeanInfo;
 import net.hasor.registry.client.domain.ConsumerPublishInfo;
 import net.hasor.registry.client.domain.ProviderPublishInfo;
@@ -33,6 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 /**
  * 负责维护RSF客户端服务在注册中心上的信息。
  * @version : 2016年2月18日
@@ -40,6 +42,9 @@ import java.util.*;
  */
 class RegistryClientManager implements TimerTask {
     protected Logger logger = LoggerFactory.getLogger(getClass());
+    private static final int                    FULL_REGISTER_TICKS = 10;   // 每隔多少次心跳重新注册一次服务
+    private final        Map<String, SyncState> syncStates          = new ConcurrentHashMap<String, SyncState>();
+    private              long                   tickCount           = 0;
     private final RsfContext        rsfContext;
     private final TimerManager      timerManager;
     private final RsfCenterRegister centerRegister;
@@ -61,10 +66,17 @@ class RegistryClientManager implements TimerTask {
         }
         this.timerManager.atTime(this);
     }
+    /** 服务在注册中心上的同步状态 */
+    private static class SyncState {
+        private volatile boolean registered = false;
+        private volatile long    epoch      = 0;    // 上一次增量同步得到的注册中心 epoch
+        private volatile long    revision   = 0;    // 上一次增量同步得到的地址版本
+    }
     private void run() throws Exception {
         if (!this.rsfContext.isOnline()) {
             return;
         }
+        boolean fullRegister = (++this.tickCount % FULL_REGISTER_TICKS == 0);
         List<String> serviceIDs = this.rsfContext.getServiceIDs();
         for (String serviceID : serviceIDs) {
             // .如果是工作隐藏模式下那么不参与注册
@@ -72,8 +84,13 @@ class RegistryClientManager implements TimerTask {
             if (domain == null || domain.isShadow()) {
                 continue;
             }
-            // .重新注册服务
-            this.onlineService(domain);
+            // .尚未注册成功的服务重新注册，已经注册的服务只增量同步地址，每隔 FULL_REGISTER_TICKS 次心跳重新注册一次
+            SyncState syncState = this.syncStates.get(domain.getBindID());
+            if (fullRegister || syncState == null || !syncState.registered) {
+                this.onlineService(domain);
+            } else {
+                this.pullAddress(domain);
+            }
         }
     }
     //
@@ -181,6 +198,7 @@ class RegistryClientManager implements TimerTask {
             //
             // .同步拉取地址数据
             if (registerInfo != null && registerInfo.isSuccess()) {
+                this.syncState(domain).registered = true;
                 pullAddress(domain);//更新地址池
             } else {
                 this.onlineService(domain, tryTimes + 1); //重试
@@ -208,6 +226,7 @@ class RegistryClientManager implements TimerTask {
             return;
         }
         //
+        this.syncStates.remove(domain.getBindID());
         try {
             String serviceID = domain.getBindID();
             RsfCenterResult<Void> result = this.centerRegister.unRegister(this.registryCenter.getInstanceInfo(), ServiceID.of(domain));
@@ -229,11 +248,80 @@ class RegistryClientManager implements TimerTask {
         }
     }
     //
-    /** 拉地址，三次失败之后改为异步请求一次全量推送 */
+    private SyncState syncState(RsfBindInfo<?> domain) {
+        SyncState syncState = this.syncStates.get(domain.getBindID());
+        if (syncState == null) {
+            syncState = new SyncState();
+            this.syncStates.put(domain.getBindID(), syncState);
+        }
+        return syncState;
+    }
+    /** 增量拉地址，只取上一次同步之后的变化。失败时改为全量拉取 */
     private void pullAddress(RsfBindInfo<?> domain) {
         if (RsfServiceType.Consumer != domain.getServiceType()) {
             return;/*只有Consumer才需要pull地址*/
         }
+        ServiceID serviceID = ServiceID.of(domain);
+        SyncState syncState = this.syncState(domain);
+        List<String> runProtocol = new ArrayList<String>(domain.getBindProtocols());
+        RsfCenterResult<AddressDelta> deltaResult = null;
+        try {
+            deltaResult = this.centerRegister.pullProviderDelta(this.registryCenter.getInstanceInfo(), serviceID, runProtocol, syncState.epoch, syncState.revision);
+        } catch (Exception e) {
+            logger.warn("pullAddress '{}' delta failed -> {}", serviceID, e.getMessage());
+        }
+        if (deltaResult == null || !deltaResult.isSuccess() || deltaResult.getResult() == null) {
+            syncState.epoch = 0;
+            syncState.revision = 0;
+            this.pullFullAddress(domain);
+            return;
+        }
+        //
+        AddressDelta delta = deltaResult.getResult();
+        if (syncState.epoch != 0 && syncState.epoch != delta.getEpoch()) {
+            syncState.registered = false;// 注册中心重启或者切换了节点，下一次心跳时重新注册
+        }
+        try {
+            List<InterAddress> appendList = toAddress(delta.getAppendList());
+            List<InterAddress> removeList = toAddress(delta.getRemoveList());
+            if (delta.isFull()) {
+                // .全量地址替换已有的地址本，已经下线的地址不会残留。空的地址本和推送的 RefreshAddressEvent 一样忽略
+                if (!appendList.isEmpty()) {
+                    this.rsfContext.getUpdater().refreshAddress(domain.getBindID(), appendList);
+                }
+            } else {
+                if (!removeList.isEmpty()) {
+                    this.rsfContext.getUpdater().removeAddress(domain.getBindID(), removeList);
+                }
+                if (!appendList.isEmpty()) {
+                    this.rsfContext.getUpdater().appendAddress(domain.getBindID(), appendList);
+                }
+            }
+            syncState.epoch = delta.getEpoch();
+            syncState.revision = delta.getRevision();
+            if (delta.isFull() || !appendList.isEmpty() || !removeList.isEmpty()) {
+                logger.info("pullAddress '{}' revision {} full={} ,append {} ,remove {}.", serviceID, delta.getRevision(), delta.isFull(), appendList.size(), removeList.size());
+            }
+        } catch (Throwable e) {
+            logger.error("pullAddress -> update address failed ,serviceID={} ,message={}.", serviceID, e.getMessage(), e);
+        }
+    }
+    private List<InterAddress> toAddress(List<String> addressList) {
+        List<InterAddress> hostList = new ArrayList<InterAddress>();
+        if (addressList == null) {
+            return hostList;
+        }
+        for (String providerAddress : addressList) {
+            try {
+                hostList.add(new InterAddress(providerAddress));
+            } catch (Throwable e) {
+                logger.error("pullAddress '" + providerAddress + "' formater error ->" + e.getMessage(), e);
+            }
+        }
+        return hostList;
+    }
+    /** 全量拉地址，三次失败之后改为异步请求一次全量推送 */
+    private void pullFullAddress(RsfBindInfo<?> domain) {
         // .拉地址3次尝试
         ServiceID serviceID = ServiceID.of(domain);
         InstanceInfo instanceInfo = this.registryCenter.getInstanceInfo();
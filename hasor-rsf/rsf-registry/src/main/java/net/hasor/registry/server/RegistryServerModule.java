@@ -22,6 +22,7 @@ import net.hasor.registry.common.RsfCenterSettings;
 import net.hasor.registry.server.manager.AuthQuery;
 import net.hasor.registry.storage.DataAdapter;
 import net.hasor.rsf.*;
+import net.hasor.rsf.RsfPublisher.FilterBindBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 /**
@@ -55,15 +56,19 @@ public class RegistryServerModule extends RsfModule implements LifeModule {
     protected void doStartCenter(RsfContext rsfContext) throws java.io.IOException {
         //
         RsfPublisher rsfBinder = rsfContext.publisher();
-        rsfBinder.rsfService(RsfCenterRegister.class).to(RsfCenterRegisterProvider.class)//
-                .bindFilter("VerificationFilter", RsfCenterServerVerifyFilter.class)//
-                .register();
+        FilterBindBuilder<RsfCenterRegister> registerBuilder = rsfBinder.rsfService(RsfCenterRegister.class).to(RsfCenterRegisterProvider.class)//
+                .bindFilter("VerificationFilter", RsfCenterServerVerifyFilter.class);
+        this.configRegister(registerBuilder);
+        registerBuilder.register();
         rsfBinder.rsfService(RsfCenterListener.class)// 
                 .bindFilter("VerificationFilter", RsfCenterServerVerifyFilter.class)//
                 .register();
     }
+    /** 发布 RsfCenterRegister 服务之前的扩展点，可以追加过滤器 */
+    protected void configRegister(FilterBindBuilder<RsfCenterRegister> registerBuilder) {
+    }
     /** Center停止 */
     public void onStop(AppContext appContext) throws Throwable {
-        /**/
+        appContext.getInstance(DataAdapter.class).close();
     }
 }
\ No newline at end of file
@@ -18,6 +18,7 @@ import net.hasor.core.Inject;
 import net.hasor.core.Singleton;
 import net.hasor.registry.client.RsfCenterRegister;
 import net.hasor.registry.client.RsfCenterResult;
+import net.hasor.registry.client.domain.AddressDelta;
 import net.hasor.registry.client.domain.ConsumerPublishInfo;
 import net.hasor.registry.client.domain.ProviderPublishInfo;
 import net.hasor.registry.client.domain.ServiceID;
@@ -213,6 +214,32 @@ public class RsfCenterRegisterProvider implements RsfCenterRegister {
     }
     //
     @Override
+    public RsfCenterResult<AddressDelta> pullProviderDelta(InstanceInfo instance, ServiceID serviceID, List<String> runProtocol, long epoch, long revision) {
+        RsfCenterResultDO<AddressDelta> centerResult = new RsfCenterResultDO<AddressDelta>();
+        centerResult.setMessageID(this.rsfRequest.getRequestID());
+        InterAddress remoteRsfAddress = this.rsfRequest.getRemoteAddress();
+        try {
+            AddressDelta result = this.queryManager.queryProviderDelta(runProtocol, serviceID, epoch, revision);
+            centerResult.setSuccess(true);
+            centerResult.setErrorCode(ErrorCode.OK.getCodeType());
+            centerResult.setResult(result);
+        } catch (Throwable e) {
+            centerResult.setSuccess(false);
+            centerResult.setErrorCode(ErrorCode.Exception.getCodeType());
+            centerResult.setErrorMessage(e.getMessage());
+            logger.error(LogUtils.create("ERROR_100_00302")//
+                    .addLog("errorCode", centerResult.getErrorCode())//
+                    .addLog("remoteAddress", remoteRsfAddress.toHostSchema())//
+                    .addLog("instanceID", instance.getInstanceID())//
+                    .addLog("serviceID", serviceID)//
+                    .addLog("revision", revision)//
+                    .addLog("error", e.getMessage())//
+                    .toJson(), e);
+        }
+        return centerResult;
+    }
+    //
+    @Override
     public RsfCenterResult<Boolean> requestPushProviders(InstanceInfo instance, ServiceID serviceID, List<String> runProtocol) {
         RsfCenterResultDO<Boolean> centerResult = new RsfCenterResultDO<Boolean>();
         centerResult.setMessageID(this.rsfRequest.getRequestID());
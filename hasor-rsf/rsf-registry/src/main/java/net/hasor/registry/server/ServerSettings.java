@@ -26,11 +26,15 @@ public class ServerSettings {
     protected static final Logger logger = LoggerFactory.getLogger(ServerSettings.class);
     private int     threadSize;
     private int     queueMaxSize;
-    private int     sleepTime;
+    private int     retryTimes;
+    private int     retryInterval;
     //
     private int     dataExpireTime;
     private boolean allowAnonymous;
     //
+    private long    storageCheckpointSize;
+    private int     shardVirtualNodes;
+    //
     //
     //
     public ServerSettings(RsfEnvironment rsfEnvironment, RsfCenterSettings settings) throws ClassNotFoundException {
@@ -40,11 +44,27 @@ public class ServerSettings {
             this.threadSize = 3;
         }
         this.queueMaxSize = settings.getInteger("hasor.registry.polling.queueMaxSize", 20000);
-        this.sleepTime = settings.getInteger("hasor.registry.polling.sleepTime", 1000);
+        this.retryTimes = settings.getInteger("hasor.registry.polling.retryTimes", 3);
+        if (this.retryTimes < 1) {
+            this.retryTimes = 1;
+        }
+        this.retryInterval = settings.getInteger("hasor.registry.polling.retryInterval", 1000);
+        if (this.retryInterval < 1) {
+            this.retryInterval = 1;
+        }
         //
         this.dataExpireTime = settings.getInteger("hasor.registry.serviceManager.dataExpireTime", 300) * 1000;
         this.allowAnonymous = settings.getBoolean("hasor.registry.auth.allowAnonymous", true);
         //
+        this.storageCheckpointSize = settings.getLong("hasor.registry.storage.checkpointSize", 64L) * 1024 * 1024;
+        if (this.storageCheckpointSize < 1024 * 1024) {
+            this.storageCheckpointSize = 1024 * 1024;
+        }
+        //
+        this.shardVirtualNodes = settings.getInteger("hasor.registry.sharding.virtualNodes", 160);
+        if (this.shardVirtualNodes < 1) {
+            this.shardVirtualNodes = 160;
+        }
     }
     //
     public int getThreadSize() {
@@ -53,8 +73,13 @@ public class ServerSettings {
     public int getQueueMaxSize() {
         return queueMaxSize;
     }
-    public int getSleepTime() {
-        return sleepTime;
+    /** 单次推送最多尝试的次数 */
+    public int getRetryTimes() {
+        return retryTimes;
+    }
+    /** 推送失败之后第一次重试的等待时间（毫秒），之后每次翻倍 */
+    public int getRetryInterval() {
+        return retryInterval;
     }
     //
     public int getDataExpireTime() {
@@ -63,4 +88,13 @@ public class ServerSettings {
     public boolean isAllowAnonymous() {
         return allowAnonymous;
     }
+    //
+    /** 预写日志分段超过该大小（字节）之后进行 checkpoint */
+    public long getStorageCheckpointSize() {
+        return storageCheckpointSize;
+    }
+    /** 集群模式下每个注册中心在一致性 Hash 环上的虚拟节点数 */
+    public int getShardVirtualNodes() {
+        return shardVirtualNodes;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.registry.server.commonds;
+import net.hasor.core.Singleton;
+import net.hasor.registry.common.InstanceInfo;
+import net.hasor.registry.server.sharding.ShardManager;
+import net.hasor.rsf.InterAddress;
+import net.hasor.tconsole.launcher.CmdRequest;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+/**
+ * 查看和调整注册中心集群的分片成员。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+@Singleton
+public class ShardRsfInstruct extends AbstractCenterInstruct {
+    //
+    @Override
+    public String helpInfo() {
+        return "show or change shard members of center cluster.\r\n"//
+                + " - shard                  (show shard members.)\r\n"//
+                + " - shard add    XXXX      (add center XXXX to cluster, e.g. rsf://127.0.0.1:2181/default)\r\n"//
+                + " - shard remove XXXX      (remove center XXXX from cluster.)\r\n"//
+                + " - shard rebalance        (move data not belong to this center.)\r\n";
+    }
+    @Override
+    public boolean inputMultiLine(CmdRequest request) {
+        return false;
+    }
+    @Override
+    public String doCommand(InstanceInfo instance, CmdRequest request) throws Throwable {
+        ShardManager shardManager = request.getFinder().getAppContext().getInstance(ShardManager.class);
+        StringWriter sw = new StringWriter();
+        String[] args = request.getRequestArgs();
+        if (args == null || args.length == 0) {
+            sw.write(">>>>>>>>>>>>>>>>>>>>>>>>  shard  <<<<<<<<<<<<<<<<<<<<<<<<\r\n");
+            sw.write(">> local : " + shardManager.getLocalAddress().toHostSchema() + "\r\n");
+            for (InterAddress member : shardManager.getShardRing().getMembers()) {
+                sw.write(">> member: " + member.toHostSchema() + "\r\n");
+            }
+            return sw.toString();
+        }
+        //
+        String doArg = args[0];
+        if ("rebalance".equalsIgnoreCase(doArg)) {
+            return "[SUCCEED] " + shardManager.rebalance() + " data moved.";
+        }
+        if (args.length < 2 || !("add".equalsIgnoreCase(doArg) || "remove".equalsIgnoreCase(doArg))) {
+            return helpInfo();
+        }
+        InterAddress address = new InterAddress(args[1]);
+        List<InterAddress> members = new ArrayList<InterAddress>();
+        for (InterAddress member : shardManager.getShardRing().getMembers()) {
+            if (!member.getHostPort().equals(address.getHostPort())) {
+                members.add(member);
+            }
+        }
+        if ("add".equalsIgnoreCase(doArg)) {
+            members.add(address);
+        }
+        shardManager.changeMembers(members, true);
+        return "[SUCCEED] members changed, rebalance is running in background.";
+    }
+}
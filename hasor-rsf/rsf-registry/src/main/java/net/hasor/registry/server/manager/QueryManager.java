@@ -14,23 +14,17 @@
  * limitations under the License.
  */
 package net.hasor.registry.server.manager;
-import com.alibaba.fastjson.JSON;
+import net.hasor.core.Init;
 import net.hasor.core.Inject;
-import net.hasor.core.Matcher;
 import net.hasor.core.Singleton;
+import net.hasor.registry.client.domain.AddressDelta;
 import net.hasor.registry.client.domain.ConsumerPublishInfo;
-import net.hasor.registry.client.domain.ProviderPublishInfo;
 import net.hasor.registry.client.domain.ServiceID;
-import net.hasor.registry.server.domain.RsfCenterConstants;
 import net.hasor.registry.storage.DataAdapter;
-import net.hasor.registry.storage.DataEntity;
-import net.hasor.utils.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import static net.hasor.registry.server.utils.CenterUtils.getDataKey;
 /**
@@ -42,63 +36,28 @@ import static net.hasor.registry.server.utils.CenterUtils.getDataKey;
 public class QueryManager {
     protected Logger logger = LoggerFactory.getLogger(getClass());
     @Inject
-    private DataAdapter dataAdapter;
+    private DataAdapter  dataAdapter;
+    private ServiceIndex serviceIndex;
+    //
+    @Init
+    public void init() {
+        // .注册索引之后存储会把已有的数据回放一遍，之后的变更按照日志顺序同步到索引
+        this.serviceIndex = new ServiceIndex();
+        this.dataAdapter.addListener(this.serviceIndex);
+    }
     //
     /** 得到 Consumer 列表，用于异步推送服务的提供者列表 */
     public List<ConsumerPublishInfo> queryConsumerList(List<String> protocol, ServiceID serviceID) {
-        String dataKey = getDataKey(serviceID) + "/Consumer/";
-        List<DataEntity> consumerDataList = this.dataAdapter.listData(dataKey, new Matcher<DataEntity>() {
-            @Override
-            public boolean matches(DataEntity target) {
-                long tags = target.getTags();
-                return tags == (tags | RsfCenterConstants.TAG_Consumer);
-            }
-        });
-        List<ConsumerPublishInfo> resultList = new ArrayList<ConsumerPublishInfo>(consumerDataList.size());
-        //
-        begin:
-        for (DataEntity data : consumerDataList) {
-            ConsumerPublishInfo consumerInfo = JSON.parseObject(data.getDataValue(), ConsumerPublishInfo.class);
-            for (String prot : protocol) {
-                for (String prot2 : consumerInfo.getProtocol()) {
-                    if (prot2.equals(prot)) {
-                        resultList.add(consumerInfo);
-                        break begin;
-                    }
-                }
-            }
-        }
-        //
-        return resultList;
+        return this.serviceIndex.queryConsumerList(getDataKey(serviceID), protocol);
     }
     //
     /** 查询提供者列表 */
     public List<String> queryProviderList(List<String> protocol, ServiceID serviceID) {
-        String dataKey = getDataKey(serviceID) + "/Provider/";
-        List<DataEntity> providerDataList = this.dataAdapter.listData(dataKey, new Matcher<DataEntity>() {
-            @Override
-            public boolean matches(DataEntity target) {
-                long tags = target.getTags();
-                return tags == (tags | RsfCenterConstants.TAG_Provider);
-            }
-        });
-        //
-        List<String> resultList = new ArrayList<String>(providerDataList.size());
-        for (DataEntity data : providerDataList) {
-            ProviderPublishInfo providerInfo = JSON.parseObject(data.getDataValue(), ProviderPublishInfo.class);
-            if (providerInfo == null || providerInfo.getAddressMap() == null) {
-                continue;
-            }
-            //
-            Map<String, String> rsfAddressMap = providerInfo.getAddressMap();
-            for (String prot : protocol) {
-                String addressStr = rsfAddressMap.get(prot);
-                if (StringUtils.isNotBlank(addressStr)) {
-                    resultList.add(addressStr);
-                }
-            }
-        }
-        //
-        return resultList;
+        return this.serviceIndex.queryProviderList(getDataKey(serviceID), protocol);
+    }
+    //
+    /** 查询提供者地址在 revision 之后的变化 */
+    public AddressDelta queryProviderDelta(List<String> protocol, ServiceID serviceID, long epoch, long revision) {
+        return this.serviceIndex.queryProviderDelta(getDataKey(serviceID), protocol, epoch, revision);
     }
 }
\ No newline at end of file
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.registry.server.manager;
+import com.alibaba.fastjson.JSON;
+import net.hasor.registry.client.domain.AddressDelta;
+import net.hasor.registry.client.domain.ConsumerPublishInfo;
+import net.hasor.registry.client.domain.ProviderPublishInfo;
+import net.hasor.registry.server.domain.RsfCenterConstants;
+import net.hasor.registry.storage.DataEntity;
+import net.hasor.registry.storage.DataListener;
+import net.hasor.utils.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * 服务提供者、消费者的二级索引，索引键为 (group, name, version, protocol)。
+ * 通过监听存储的变更来维护，同时缓存解析之后的 ProviderPublishInfo、ConsumerPublishInfo 对象，查询时无需再解析 JSON。
+ * 每个服务还维护一份提供者地址的变更日志，客户端可以按照 revision 增量同步地址。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ServiceIndex implements DataListener {
+    protected           Logger                           logger        = LoggerFactory.getLogger(getClass());
+    private static final String                          PROVIDER_PATH = "/Provider/";
+    private static final String                          CONSUMER_PATH = "/Consumer/";
+    private final       ConcurrentMap<String, IndexItem> serviceMap    = new ConcurrentHashMap<String, IndexItem>();
+    private final       long                             epoch         = System.currentTimeMillis();
+    //
+    @Override
+    public void onWrite(DataEntity entity) {
+        long tags = entity.getTags();
+        String dataKey = entity.getDataKey();
+        try {
+            if (tags == (tags | RsfCenterConstants.TAG_Provider)) {
+                ProviderPublishInfo info = JSON.parseObject(entity.getDataValue(), ProviderPublishInfo.class);
+                String serviceKey = serviceKey(dataKey, PROVIDER_PATH);
+                if (info != null && serviceKey != null) {
+                    this.indexItem(serviceKey).putProvider(dataKey, info);
+                }
+            } else if (tags == (tags | RsfCenterConstants.TAG_Consumer)) {
+                ConsumerPublishInfo info = JSON.parseObject(entity.getDataValue(), ConsumerPublishInfo.class);
+                String serviceKey = serviceKey(dataKey, CONSUMER_PATH);
+                if (info != null && serviceKey != null) {
+                    this.indexItem(serviceKey).putConsumer(dataKey, info);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("index data {} failed, {}", dataKey, e.getMessage());
+        }
+    }
+    @Override
+    public void onDelete(String dataKey) {
+        String serviceKey = serviceKey(dataKey, PROVIDER_PATH);
+        if (serviceKey == null) {
+            serviceKey = serviceKey(dataKey, CONSUMER_PATH);
+        }
+        IndexItem item = (serviceKey == null) ? null : this.serviceMap.get(serviceKey);
+        if (item != null) {
+            item.remove(dataKey);
+        }
+    }
+    //
+    /** 按照协议查询提供者地址 */
+    public List<String> queryProviderList(String serviceKey, List<String> protocol) {
+        IndexItem item = this.serviceMap.get(serviceKey);
+        if (item == null || protocol == null) {
+            return new ArrayList<String>(0);
+        }
+        Map<String, List<String>> providerMap = item.providerSnapshot();
+        List<String> resultList = new ArrayList<String>();
+        for (String prot : protocol) {
+            List<String> addressList = providerMap.get(prot);
+            if (addressList != null) {
+                resultList.addAll(addressList);
+            }
+        }
+        return resultList;
+    }
+    /** 按照协议查询 revision 之后的提供者地址变化，epoch 不一致时返回全量地址 */
+    public AddressDelta queryProviderDelta(String serviceKey, List<String> protocol, long epoch, long revision) {
+        IndexItem item = this.serviceMap.get(serviceKey);
+        if (item == null) {
+            // .未知的服务不创建索引项，返回 revision 为 0 的空地址。客户端下一次同步时仍然会得到全量地址
+            AddressDelta delta = new AddressDelta();
+            delta.setEpoch(this.epoch);
+            delta.setRevision(0);
+            delta.setFull(true);
+            delta.setAppendList(new ArrayList<String>(0));
+            delta.setRemoveList(new ArrayList<String>(0));
+            return delta;
+        }
+        if (protocol == null) {
+            protocol = Collections.emptyList();
+        }
+        AddressDelta delta = item.addressLog.delta(protocol, (epoch == this.epoch) ? revision : 0);
+        delta.setEpoch(this.epoch);
+        return delta;
+    }
+    /** 索引中的服务数 */
+    public int getServiceCount() {
+        return this.serviceMap.size();
+    }
+    /** 查询支持 protocol 中任意一个协议的消费者 */
+    public List<ConsumerPublishInfo> queryConsumerList(String serviceKey, List<String> protocol) {
+        IndexItem item = this.serviceMap.get(serviceKey);
+        if (item == null || protocol == null) {
+            return new ArrayList<ConsumerPublishInfo>(0);
+        }
+        Map<String, List<ConsumerPublishInfo>> consumerMap = item.consumerSnapshot();
+        Set<ConsumerPublishInfo> resultSet = new LinkedHashSet<ConsumerPublishInfo>();
+        for (String prot : protocol) {
+            List<ConsumerPublishInfo> consumerList = consumerMap.get(prot);
+            if (consumerList != null) {
+                resultSet.addAll(consumerList);
+            }
+        }
+        return new ArrayList<ConsumerPublishInfo>(resultSet);
+    }
+    //
+    private IndexItem indexItem(String serviceKey) {
+        IndexItem item = this.serviceMap.get(serviceKey);
+        if (item == null) {
+            IndexItem newItem = new IndexItem();
+            item = this.serviceMap.putIfAbsent(serviceKey, newItem);
+            if (item == null) {
+                item = newItem;
+            }
+        }
+        return item;
+    }
+    private static String serviceKey(String dataKey, String typePath) {
+        int index = dataKey.lastIndexOf(typePath);
+        return (index < 0) ? null : dataKey.substring(0, index);
+    }
+    //
+    /** 一个服务的所有提供者和消费者，查询使用按协议分组的快照，数据变化之后快照在下一次查询时重建 */
+    private static class IndexItem {
+        private final    ConcurrentMap<String, ProviderPublishInfo> providers    = new ConcurrentHashMap<String, ProviderPublishInfo>();
+        private final    ConcurrentMap<String, ConsumerPublishInfo> consumers    = new ConcurrentHashMap<String, ConsumerPublishInfo>();
+        private final    AtomicLong                                 version      = new AtomicLong(0);
+        private volatile Snapshot                                   snapshot     = null;
+        //
+        private final    AddressLog                                 addressLog   = new AddressLog();
+        //
+        public void putProvider(String dataKey, ProviderPublishInfo info) {
+            ProviderPublishInfo oldInfo = this.providers.put(dataKey, info);
+            this.addressLog.update(oldInfo, info);
+            this.version.incrementAndGet();
+        }
+        public void putConsumer(String dataKey, ConsumerPublishInfo info) {
+            this.consumers.put(dataKey, info);
+            this.version.incrementAndGet();
+        }
+        public void remove(String dataKey) {
+            ProviderPublishInfo oldInfo = this.providers.remove(dataKey);
+            if (oldInfo != null) {
+                this.addressLog.update(oldInfo, null);
+            }
+            if (oldInfo != null | this.consumers.remove(dataKey) != null) {
+                this.version.incrementAndGet();
+            }
+        }
+        public Map<String, List<String>> providerSnapshot() {
+            return this.snapshot().providerMap;
+        }
+        public Map<String, List<ConsumerPublishInfo>> consumerSnapshot() {
+            return this.snapshot().consumerMap;
+        }
+        private Snapshot snapshot() {
+            long curVersion = this.version.get();
+            Snapshot snapshot = this.snapshot;
+            if (snapshot != null && snapshot.version == curVersion) {
+                return snapshot;
+            }
+            // .先读版本再读数据，并发修改会让快照的版本落后，下一次查询时重建
+            Map<String, List<String>> providerMap = new HashMap<String, List<String>>();
+            for (ProviderPublishInfo info : this.providers.values()) {
+                if (info.getAddressMap() == null) {
+                    continue;
+                }
+                for (Map.Entry<String, String> entry : info.getAddressMap().entrySet()) {
+                    if (StringUtils.isBlank(entry.getValue())) {
+                        continue;
+                    }
+                    List<String> addressList = providerMap.get(entry.getKey());
+                    if (addressList == null) {
+                        addressList = new ArrayList<String>();
+                        providerMap.put(entry.getKey(), addressList);
+                    }
+                    addressList.add(entry.getValue());
+                }
+            }
+            Map<String, List<ConsumerPublishInfo>> consumerMap = new HashMap<String, List<ConsumerPublishInfo>>();
+            for (ConsumerPublishInfo info : this.consumers.values()) {
+                if (info.getProtocol() == null) {
+                    continue;
+                }
+                for (String prot : info.getProtocol()) {
+                    List<ConsumerPublishInfo> consumerList = consumerMap.get(prot);
+                    if (consumerList == null) {
+                        consumerList = new ArrayList<ConsumerPublishInfo>();
+                        consumerMap.put(prot, consumerList);
+                    }
+                    consumerList.add(info);
+                }
+            }
+            snapshot = new Snapshot(curVersion, Collections.unmodifiableMap(providerMap), Collections.unmodifiableMap(consumerMap));
+            this.snapshot = snapshot;
+            return snapshot;
+        }
+    }
+    /**
+     * 一个服务的提供者地址变更日志，每次地址上线、下线都会分配一个递增的 revision。
+     * 同一个地址可能被多个提供者登记，所以按照引用计数判断地址的上线和下线。日志只保留最近的 {@link #CHANGE_LOG_SIZE} 条。
+     */
+    private static class AddressLog {
+        private static final int                                     CHANGE_LOG_SIZE   = 1024;
+        private final        Map<String, Map<String, AtomicLong>>    addressCount      = new HashMap<String, Map<String, AtomicLong>>();
+        private final        LinkedList<AddressChange>               changeLog         = new LinkedList<AddressChange>();
+        private              long                                    revision          = 0;
+        private              long                                    truncatedRevision = 0; // 已经从日志中丢弃的最大 revision
+        //
+        public synchronized void update(ProviderPublishInfo oldInfo, ProviderPublishInfo newInfo) {
+            Map<String, String> oldMap = (oldInfo == null) ? null : oldInfo.getAddressMap();
+            Map<String, String> newMap = (newInfo == null) ? null : newInfo.getAddressMap();
+            if (oldMap != null) {
+                for (Map.Entry<String, String> entry : oldMap.entrySet()) {
+                    if (newMap == null || !StringUtils.equals(entry.getValue(), newMap.get(entry.getKey()))) {
+                        this.decrement(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            if (newMap != null) {
+                for (Map.Entry<String, String> entry : newMap.entrySet()) {
+                    if (oldMap == null || !StringUtils.equals(entry.getValue(), oldMap.get(entry.getKey()))) {
+                        this.increment(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+        private void increment(String protocol, String address) {
+            if (StringUtils.isBlank(address)) {
+                return;
+            }
+            Map<String, AtomicLong> countMap = this.addressCount.get(protocol);
+            if (countMap == null) {
+                countMap = new LinkedHashMap<String, AtomicLong>();
+                this.addressCount.put(protocol, countMap);
+            }
+            AtomicLong count = countMap.get(address);
+            if (count == null) {
+                countMap.put(address, new AtomicLong(1));
+                this.append(protocol, address, false);
+            } else {
+                count.incrementAndGet();
+            }
+        }
+        private void decrement(String protocol, String address) {
+            Map<String, AtomicLong> countMap = this.addressCount.get(protocol);
+            AtomicLong count = (countMap == null || address == null) ? null : countMap.get(address);
+            if (count != null && count.decrementAndGet() <= 0) {
+                countMap.remove(address);
+                this.append(protocol, address, true);
+            }
+        }
+        private void append(String protocol, String address, boolean remove) {
+            this.changeLog.addLast(new AddressChange(++this.revision, protocol, address, remove));
+            if (this.changeLog.size() > CHANGE_LOG_SIZE) {
+                this.truncatedRevision = this.changeLog.removeFirst().revision;
+            }
+        }
+        //
+        /** 计算 revision 之后的地址变化，日志无法覆盖时返回全量地址 */
+        public synchronized AddressDelta delta(List<String> protocol, long revision) {
+            AddressDelta delta = new AddressDelta();
+            delta.setRevision(this.revision);
+            if (revision <= 0 || revision < this.truncatedRevision || revision > this.revision) {
+                List<String> addressList = new ArrayList<String>();
+                for (String prot : protocol) {
+                    Map<String, AtomicLong> countMap = this.addressCount.get(prot);
+                    if (countMap != null) {
+                        addressList.addAll(countMap.keySet());
+                    }
+                }
+                delta.setFull(true);
+                delta.setAppendList(addressList);
+                delta.setRemoveList(new ArrayList<String>(0));
+                return delta;
+            }
+            // .同一个地址以最后一次变化为准
+            Map<String, Boolean> changeMap = new LinkedHashMap<String, Boolean>();
+            Iterator<AddressChange> iterator = this.changeLog.descendingIterator();
+            while (iterator.hasNext()) {
+                AddressChange change = iterator.next();
+                if (change.revision <= revision) {
+                    break;
+                }
+                if (protocol.contains(change.protocol) && !changeMap.containsKey(change.address)) {
+                    changeMap.put(change.address, change.remove);
+                }
+            }
+            List<String> appendList = new ArrayList<String>();
+            List<String> removeList = new ArrayList<String>();
+            for (Map.Entry<String, Boolean> entry : changeMap.entrySet()) {
+                (entry.getValue() ? removeList : appendList).add(entry.getKey());
+            }
+            delta.setFull(false);
+            delta.setAppendList(appendList);
+            delta.setRemoveList(removeList);
+            return delta;
+        }
+    }
+    private static class AddressChange {
+        private final long    revision;
+        private final String  protocol;
+        private final String  address;
+        private final boolean remove;
+        public AddressChange(long revision, String protocol, String address, boolean remove) {
+            this.revision = revision;
+            this.protocol = protocol;
+            this.address = address;
+            this.remove = remove;
+        }
+    }
+    private static class Snapshot {
+        private final long                                   version;
+        private final Map<String, List<String>>              providerMap;
+        private final Map<String, List<ConsumerPublishInfo>> consumerMap;
+        public Snapshot(long version, Map<String, List<String>> providerMap, Map<String, List<ConsumerPublishInfo>> consumerMap) {
+            this.version = version;
+            this.providerMap = providerMap;
+            this.consumerMap = consumerMap;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.util.List;
  * @author 赵永春 (zyc@hasor.net)
  */
 public class PushEvent {
+    private ServiceID          serviceID;       // 服务ID
     private String             group;           // Group
     private String             name;            // Name
     private String             version;         // Version
@@ -33,6 +34,7 @@ public class PushEvent {
     private String             eventBody;       // 内容体（真正推送的内容）
     //
     PushEvent(ServiceID serviceID, List<String> targets, RsfCenterEventEnum pushEventType) {
+        this.serviceID = serviceID;
         this.group = serviceID.getBindGroup();
         this.name = serviceID.getBindName();
         this.version = serviceID.getBindVersion();
@@ -41,6 +43,9 @@ public class PushEvent {
     }
     //
     //
+    ServiceID getServiceID() {
+        return serviceID;
+    }
     public String getGroup() {
         return group;
     }
@@ -24,10 +24,6 @@ import net.hasor.rsf.domain.provider.InstanceAddressProvider;
 import net.hasor.rsf.rpc.caller.RsfServiceWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 /**
  * 执行处理器，该类的作用是将事件推送到指定的客户端中去。
  * @version : 2016年3月23日
@@ -48,47 +44,14 @@ public class PushProcessor {
         };
     }
     //
-    public final List<String> doProcessor(PushEvent event) {
-        if (event == null || event.getTargetList() == null) {
-            return Collections.emptyList();
-        }
-        if (event.getTargetList() == null || event.getTargetList().isEmpty()) {
-            logger.error(LogUtils.create("ERROR_300_00003")//
-                    .addLog("group", event.getGroup())//
-                    .addLog("name", event.getName())//
-                    .addLog("version", event.getVersion())//
-                    .addLog("pushEventType", event.getPushEventType().name())//
-                    .toJson());
-            return Collections.emptyList();
-            //
-        } else {
-            ArrayList<String> failedAddress = new ArrayList<String>();
-            for (String target : event.getTargetList()) {
-                boolean res = this.doProcessor(target, event);
-                if (!res) {
-                    failedAddress.add(target);
-                }
-            }
-            return failedAddress;
-        }
-    }
-    //
     /**
-     * 向客户端推送数据,3次重试
+     * 向客户端推送数据，只尝试一次。失败之后的重试由 {@link PushQueue} 按照退避时间安排。
      * @param rsfAddress 目标客户端
      * @param event 数据
+     * @param times 第几次尝试
      */
-    private boolean doProcessor(String rsfAddress, PushEvent event) {
-        boolean result = false;
-        result = sendEvent(rsfAddress, event, 1);           // 第一次尝试
-        if (!result) {
-            result = sendEvent(rsfAddress, event, 2);       // 第二次尝试
-            if (!result) {
-                result = sendEvent(rsfAddress, event, 3);   // 第三次尝试
-            }
-        }
-        //
-        return result;
+    public final boolean doProcessor(String rsfAddress, PushEvent event, int times) {
+        return this.sendEvent(rsfAddress, event, times);
     }
     /** 数据推送 */
     private boolean sendEvent(String rsfAddress, PushEvent event, int times) {
@@ -14,10 +14,13 @@
  * limitations under the License.
  */
 package net.hasor.registry.server.pusher;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import net.hasor.core.AppContext;
 import net.hasor.core.Init;
 import net.hasor.core.Inject;
 import net.hasor.core.Singleton;
+import net.hasor.registry.client.domain.ServiceID;
 import net.hasor.registry.server.ServerSettings;
 import net.hasor.registry.server.domain.LogUtils;
 import net.hasor.rsf.RsfContext;
@@ -25,21 +28,34 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 /**
  * 推送服务触发器
+ * <p>推送事件按照 (serviceID, target) 合并成 {@link PushTask}，同一个客户端上短时间内的多次地址变更只会推送一次合并之后的结果。
+ * 推送线程之间并行的向不同的客户端推送，并发度由 threadSize 决定；推送失败的任务按照退避时间重新排队，不阻塞其它任务。
  * @version : 2016年3月1日
  * @author 赵永春 (zyc@hasor.net)
  */
 @Singleton
 public class PushQueue implements Runnable {
     protected Logger logger = LoggerFactory.getLogger(getClass());
-    private LinkedBlockingQueue<PushEvent>         dataQueue;
+    private ConcurrentHashMap<String, PushTask>    taskMap;
+    private LinkedBlockingQueue<PushTask>          readyQueue;
     private ArrayList<Thread>                      threadPushQueue;
     private Map<RsfCenterEventEnum, PushProcessor> processorMapping;
+    private final AtomicLong                       eventCount     = new AtomicLong(0);
+    private final AtomicLong                       coalescedCount = new AtomicLong(0);
+    private final AtomicLong                       pushCount      = new AtomicLong(0);
+    private final AtomicLong                       retryCount     = new AtomicLong(0);
+    private final AtomicLong                       droppedCount   = new AtomicLong(0);
+    private final AtomicLong                       latencyTotal   = new AtomicLong(0);
+    private final AtomicLong                       latencyMax     = new AtomicLong(0);
     @Inject
     private RsfContext                             rsfContext;
     @Inject
@@ -55,7 +71,8 @@ public class PushQueue implements Runnable {
             logger.info("pushQueue processor mapping {} -> {}", eventType.forCenterEvent(), eventType.getProcessorType());
         }
         //
-        this.dataQueue = new LinkedBlockingQueue<PushEvent>();
+        this.taskMap = new ConcurrentHashMap<String, PushTask>();
+        this.readyQueue = new LinkedBlockingQueue<PushTask>();
         this.threadPushQueue = new ArrayList<Thread>();
         int threadSize = this.rsfCenterCfg.getThreadSize();
         for (int i = 1; i <= threadSize; i++) {
@@ -71,9 +88,9 @@ public class PushQueue implements Runnable {
         logger.info("pushQueue Thread start. -> " + Thread.currentThread().getName());
         while (true) {
             try {
-                PushEvent pushEvent = null;
-                while ((pushEvent = this.dataQueue.take()) != null) {
-                    doPush(pushEvent);
+                PushTask pushTask = null;
+                while ((pushTask = this.readyQueue.take()) != null) {
+                    doPush(pushTask);
                 }
             } catch (Throwable e) {
                 logger.error(LogUtils.create("ERROR_300_00004")//
@@ -82,33 +99,149 @@ public class PushQueue implements Runnable {
         }
     }
     //
-    // - 立刻执行消息推送,返回推送失败的地址列表。
-    private List<String> doPush(PushEvent pushEvent) {
-        PushProcessor pushProcessor = this.processorMapping.get(pushEvent.getPushEventType());
-        if (pushProcessor != null) {
-            return pushProcessor.doProcessor(pushEvent);
-        } else {
+    // - 推送任务中合并之后的所有内容，失败的部分按照退避时间重新排队。
+    //   遇到第一个失败的事件就停止，之后的事件不能先于它送达（例如：先删除再重试全量刷新会把删除的地址加回来），重试时按照原来的顺序推送。
+    private void doPush(final PushTask pushTask) {
+        PushTask.State state = pushTask.drain();
+        if (state != null && !state.isEmpty()) {
+            int times = state.getFailedTimes() + 1;
+            for (RsfCenterEventEnum eventType : state.eventList()) {
+                if (!this.sendEvent(pushTask, eventType, state.eventBody(eventType), times)) {
+                    break;
+                }
+                state.finish(eventType);
+            }
+            //
+            if (state.isEmpty()) {
+                long latency = System.currentTimeMillis() - state.getCreateTime();
+                this.pushCount.incrementAndGet();
+                this.latencyTotal.addAndGet(latency);
+                long max = this.latencyMax.get();
+                while (latency > max && !this.latencyMax.compareAndSet(max, latency)) {
+                    max = this.latencyMax.get();
+                }
+            } else if (state.failed() >= this.rsfCenterCfg.getRetryTimes()) {
+                this.droppedCount.incrementAndGet();
+                logger.error(LogUtils.create("ERROR_300_00002")//
+                        .addLog("rsfAddress", pushTask.getTarget())//
+                        .addLog("events", state.eventList().toString())//
+                        .addLog("times", state.getFailedTimes())//
+                        .toJson());
+            } else {
+                // .未送达的内容放回任务，在退避时间之后重新排队。等待期间的新事件继续合并到任务中
+                pushTask.restore(state);
+                this.retryCount.incrementAndGet();
+                int retryDelay = this.rsfCenterCfg.getRetryInterval() << Math.min(state.getFailedTimes() - 1, 5);
+                this.rsfContext.getEnvironment().atTime(new TimerTask() {
+                    public void run(Timeout timeout) throws Exception {
+                        readyQueue.offer(pushTask);
+                    }
+                }, retryDelay);
+                return;
+            }
+        }
+        //
+        if (pushTask.release()) {
+            this.readyQueue.offer(pushTask);
+        } else if (pushTask.expire()) {
+            this.taskMap.remove(taskKey(pushTask.getServiceID(), pushTask.getTarget()), pushTask);
+        }
+    }
+    private boolean sendEvent(PushTask pushTask, RsfCenterEventEnum eventType, String eventBody, int times) {
+        if (eventType == RsfCenterEventEnum.RefreshAddressEvent && eventBody.length() == 0) {
+            return true;// 客户端会忽略空的地址本
+        }
+        PushProcessor pushProcessor = this.processorMapping.get(eventType);
+        if (pushProcessor == null) {
             logger.error(LogUtils.create("ERROR_300_00005")//
-                    .addLog("pushEventType", pushEvent.getPushEventType().name())//
+                    .addLog("pushEventType", eventType.name())//
                     .toJson());
+            return true;
         }
-        return pushEvent.getTargetList();
+        PushEvent pushEvent = new PushEvent(pushTask.getServiceID(), Collections.singletonList(pushTask.getTarget()), eventType);
+        pushEvent.setEventBody(eventBody);
+        return pushProcessor.doProcessor(pushTask.getTarget(), pushEvent, times);
     }
-    // - 将消息推送交给推送线程,执行异步推送。
+    // - 将消息推送合并到推送任务中,执行异步推送。
     public boolean doPushEvent(PushEvent eventData) {
-        if (this.dataQueue.size() > this.rsfCenterCfg.getQueueMaxSize()) {
-            try {
-                Thread.sleep(this.rsfCenterCfg.getSleepTime());
-            } catch (Exception e) {
-                logger.error(LogUtils.create("ERROR_300_00004")//
-                        .logException(e).toJson());
-            }
-            if (this.dataQueue.size() > this.rsfCenterCfg.getQueueMaxSize()) {
-                return false;//资源还是紧张,返回 失败
+        List<String> targetList = eventData.getTargetList();
+        if (targetList == null || targetList.isEmpty()) {
+            logger.error(LogUtils.create("ERROR_300_00003")//
+                    .addLog("group", eventData.getGroup())//
+                    .addLog("name", eventData.getName())//
+                    .addLog("version", eventData.getVersion())//
+                    .addLog("pushEventType", eventData.getPushEventType().name())//
+                    .toJson());
+            return true;
+        }
+        ServiceID serviceID = eventData.getServiceID();
+        boolean result = true;
+        for (String target : targetList) {
+            String taskKey = taskKey(serviceID, target);
+            Boolean offer = null;
+            while (offer == null) {
+                PushTask pushTask = this.taskMap.get(taskKey);
+                if (pushTask == null) {
+                    if (this.taskMap.size() >= this.rsfCenterCfg.getQueueMaxSize()) {
+                        result = false;//资源紧张,返回 失败
+                        break;
+                    }
+                    PushTask newTask = new PushTask(serviceID, target);
+                    pushTask = this.taskMap.putIfAbsent(taskKey, newTask);
+                    pushTask = (pushTask == null) ? newTask : pushTask;
+                }
+                offer = pushTask.offer(eventData.getPushEventType(), eventData.getEventBody());
+                if (offer == null) {
+                    this.taskMap.remove(taskKey, pushTask);
+                } else if (offer) {
+                    this.readyQueue.offer(pushTask);
+                } else {
+                    this.coalescedCount.incrementAndGet();
+                }
             }
+            this.eventCount.incrementAndGet();
         }
-        //
-        this.dataQueue.offer(eventData);//资源不在紧张，加入到队列中。
-        return true;
+        return result;
+    }
+    private static String taskKey(ServiceID serviceID, String target) {
+        return serviceID.getBindGroup() + "/" + serviceID.getBindName() + "/" + serviceID.getBindVersion() + "@" + target;
+    }
+    //
+    /** 等待推送线程处理的任务数 */
+    public int getQueueDepth() {
+        return this.readyQueue.size();
+    }
+    /** 尚未结束的推送任务数（包含排队、推送中和等待重试的任务） */
+    public int getTaskCount() {
+        return this.taskMap.size();
+    }
+    /** 收到的推送事件数（按照目标客户端计数） */
+    public long getEventCount() {
+        return this.eventCount.get();
+    }
+    /** 被合并到已有推送任务中的事件数 */
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+    /** 成功完成的推送次数 */
+    public long getPushCount() {
+        return this.pushCount.get();
+    }
+    /** 推送失败之后重新排队的次数 */
+    public long getRetryCount() {
+        return this.retryCount.get();
+    }
+    /** 重试次数用尽之后被放弃的推送次数 */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+    /** 从事件到达至推送完成的平均耗时（毫秒） */
+    public long getAvgPushLatency() {
+        long count = this.pushCount.get();
+        return count == 0 ? 0 : this.latencyTotal.get() / count;
+    }
+    /** 从事件到达至推送完成的最大耗时（毫秒） */
+    public long getMaxPushLatency() {
+        return this.latencyMax.get();
     }
 }
\ No newline at end of file
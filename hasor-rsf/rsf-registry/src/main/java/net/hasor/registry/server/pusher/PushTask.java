@@ -0,0 +1,232 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.registry.server.pusher;
+import net.hasor.registry.client.domain.ServiceID;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+/**
+ * 某个服务对某个客户端的待推送内容，同一个 (serviceID, target) 上的多次推送在这里合并。
+ * <p>地址类事件合并为：一次全量刷新加一组删除，或者一组删除加一组追加；路由、流控类事件只保留最后一次的内容。
+ * 删除始终作为独立的事件在全量刷新之后推送，全量刷新的地址本不会因为删除而变空（客户端会忽略空的地址本）。
+ * 在 {@link PushQueue} 中同一个 PushTask 同时只会有一个线程在推送，所以合并后的推送顺序和事件顺序一致。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class PushTask {
+    private final ServiceID serviceID;
+    private final String    target;
+    private       State     pending;    // 尚未推送的内容
+    private       boolean   owned;      // 是否已经交给推送线程（排队中、推送中或等待重试）
+    private       boolean   dead;       // 已经从 PushQueue 中移除，不再接受新的事件
+    //
+    PushTask(ServiceID serviceID, String target) {
+        this.serviceID = serviceID;
+        this.target = target;
+    }
+    public ServiceID getServiceID() {
+        return this.serviceID;
+    }
+    public String getTarget() {
+        return this.target;
+    }
+    //
+    /** 合并一个事件，返回 true 表示需要把任务交给推送线程。返回 null 表示任务已经失效需要重新获取。 */
+    synchronized Boolean offer(RsfCenterEventEnum eventType, String eventBody) {
+        if (this.dead) {
+            return null;
+        }
+        if (this.pending == null) {
+            this.pending = new State();
+        }
+        this.pending.apply(eventType, eventBody);
+        if (this.owned) {
+            return false;
+        }
+        this.owned = true;
+        return true;
+    }
+    /** 推送线程取走所有待推送的内容 */
+    synchronized State drain() {
+        State state = this.pending;
+        this.pending = null;
+        return state;
+    }
+    /** 推送失败，把未送达的内容放回去，之后到达的事件合并在它之上 */
+    synchronized void restore(State failed) {
+        if (this.pending != null) {
+            failed.merge(this.pending);
+        }
+        this.pending = failed;
+    }
+    /** 一轮推送结束，返回 true 表示还有新的内容需要继续推送 */
+    synchronized boolean release() {
+        if (this.pending != null && !this.pending.isEmpty()) {
+            return true;
+        }
+        this.pending = null;
+        this.owned = false;
+        return false;
+    }
+    /** 任务空闲时将其标记为失效，返回是否标记成功 */
+    synchronized boolean expire() {
+        if (this.owned || this.pending != null) {
+            return false;
+        }
+        this.dead = true;
+        return true;
+    }
+    //
+    /** 合并之后的待推送内容，推送顺序为：全量刷新、删除、追加 */
+    public static class State {
+        private Set<String>                             refreshSet  = null; // 非空表示需要全量刷新，之后追加的地址合并到这里
+        private Set<String>                             appendSet   = new LinkedHashSet<String>();
+        private Set<String>                             removeSet   = new LinkedHashSet<String>();
+        private Map<RsfCenterEventEnum, String>         ruleMap     = new EnumMap<RsfCenterEventEnum, String>(RsfCenterEventEnum.class);
+        private int                                     failedTimes = 0;
+        private long                                    createTime  = System.currentTimeMillis();
+        //
+        public void apply(RsfCenterEventEnum eventType, String eventBody) {
+            switch (eventType) {
+            case RefreshAddressEvent:
+                this.refresh(split(eventBody));
+                break;
+            case AppendAddressEvent:
+                this.append(split(eventBody));
+                break;
+            case RemoveAddressEvent:
+                this.remove(split(eventBody));
+                break;
+            default:
+                this.ruleMap.put(eventType, eventBody);
+            }
+        }
+        // - 全量刷新之前的追加被刷新覆盖。之前的删除如果不在新的地址本中仍然保留，因为空的地址本会被客户端忽略。
+        private void refresh(Collection<String> addressList) {
+            this.refreshSet = new LinkedHashSet<String>(addressList);
+            this.appendSet.clear();
+            this.removeSet.removeAll(this.refreshSet);
+        }
+        private void append(Collection<String> addressList) {
+            this.removeSet.removeAll(addressList);
+            if (this.refreshSet != null) {
+                this.refreshSet.addAll(addressList);
+            } else {
+                this.appendSet.addAll(addressList);
+            }
+        }
+        // - 删除不从全量刷新的地址本中扣除，而是在刷新之后单独推送
+        private void remove(Collection<String> addressList) {
+            this.appendSet.removeAll(addressList);
+            this.removeSet.addAll(addressList);
+        }
+        /** 将更晚的内容合并到当前内容之上 */
+        public void merge(State newer) {
+            if (newer.refreshSet != null) {
+                this.refresh(newer.refreshSet);
+            }
+            this.remove(newer.removeSet);
+            this.append(newer.appendSet);
+            this.ruleMap.putAll(newer.ruleMap);
+        }
+        public boolean isEmpty() {
+            return this.refreshSet == null && this.appendSet.isEmpty() && this.removeSet.isEmpty() && this.ruleMap.isEmpty();
+        }
+        //
+        /** 按照推送顺序列出需要发送的事件：地址变更在前，路由、流控规则在后 */
+        public List<RsfCenterEventEnum> eventList() {
+            List<RsfCenterEventEnum> eventList = new ArrayList<RsfCenterEventEnum>();
+            if (this.refreshSet != null) {
+                eventList.add(RsfCenterEventEnum.RefreshAddressEvent);
+            }
+            if (!this.removeSet.isEmpty()) {
+                eventList.add(RsfCenterEventEnum.RemoveAddressEvent);
+            }
+            if (!this.appendSet.isEmpty()) {
+                eventList.add(RsfCenterEventEnum.AppendAddressEvent);
+            }
+            eventList.addAll(this.ruleMap.keySet());
+            return eventList;
+        }
+        public String eventBody(RsfCenterEventEnum eventType) {
+            switch (eventType) {
+            case RefreshAddressEvent:
+                return join(this.refreshSet);
+            case AppendAddressEvent:
+                return join(this.appendSet);
+            case RemoveAddressEvent:
+                return join(this.removeSet);
+            default:
+                return this.ruleMap.get(eventType);
+            }
+        }
+        /** 事件已经送达，从待推送内容中移除 */
+        public void finish(RsfCenterEventEnum eventType) {
+            switch (eventType) {
+            case RefreshAddressEvent:
+                this.refreshSet = null;
+                break;
+            case AppendAddressEvent:
+                this.appendSet.clear();
+                break;
+            case RemoveAddressEvent:
+                this.removeSet.clear();
+                break;
+            default:
+                this.ruleMap.remove(eventType);
+            }
+        }
+        public int getFailedTimes() {
+            return this.failedTimes;
+        }
+        public int failed() {
+            return ++this.failedTimes;
+        }
+        public long getCreateTime() {
+            return this.createTime;
+        }
+        //
+        private static List<String> split(String eventBody) {
+            if (eventBody == null || eventBody.length() == 0) {
+                return Collections.emptyList();
+            }
+            List<String> addressList = new ArrayList<String>();
+            for (String address : eventBody.split(",")) {
+                address = address.trim();
+                if (address.length() > 0) {
+                    addressList.add(address);
+                }
+            }
+            return addressList;
+        }
+        private static String join(Set<String> addressSet) {
+            StringBuilder strBuilder = new StringBuilder("");
+            for (String addr : addressSet) {
+                if (strBuilder.length() > 0) {
+                    strBuilder.append(",");
+                }
+                strBuilder.append(addr);
+            }
+            return strBuilder.toString();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.registry.server.sharding;
+import net.hasor.rsf.RsfService;
+
+import java.util.List;
+/**
+ * 注册中心节点之间的分片接口，用于成员变化时迁移服务数据。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+@RsfService(group = "RSF", version = "1.0.0")
+public interface RsfCenterShard {
+    /** 导入其它节点迁移过来的数据，返回是否全部写入成功 */
+    public boolean importData(String[] dataKeys, String[] dataValues, long[] tags);
+
+    /** 更新集群成员列表（rsf://host:port/unit 格式），不会再向其它节点广播 */
+    public boolean updateMembers(List<String> members);
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.registry.server.sharding;
+import net.hasor.core.Inject;
+import net.hasor.core.Singleton;
+import net.hasor.registry.client.domain.ServiceID;
+import net.hasor.registry.common.RegistryConstants;
+import net.hasor.registry.common.RsfCenterSettings;
+import net.hasor.rsf.*;
+import net.hasor.rsf.domain.ProtocolStatus;
+import net.hasor.rsf.domain.RsfException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+/**
+ * 集群模式下将 RsfCenterRegister 的请求转发到服务所属的注册中心。
+ * <p>转发出去的请求会带上原始请求的选项（应用授权信息）和转发标记，收到带有转发标记的请求时不再继续转发，避免成员列表不一致时循环转发。
+ * 注册中心之间的 RsfCenterShard 调用也经过该过滤器，会带上本节点的应用授权信息和本节点地址，importData 只接受来自集群中其它注册中心的调用。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+@Singleton
+public class ShardForwardFilter implements RsfFilter {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+    public static final String                  SHARD_FORWARD = "RSF_CENTER_SHARD_FORWARD";
+    public static final String                  SHARD_PEER    = "RSF_CENTER_SHARD_PEER";
+    private final       ThreadLocal<RsfRequest> forwarding    = new ThreadLocal<RsfRequest>();
+    @Inject
+    private             ShardManager            shardManager;
+    @Inject
+    private             RsfCenterSettings       centerSettings;
+    //
+    @Override
+    public void doFilter(RsfRequest request, RsfResponse response, RsfFilterChain chain) throws Throwable {
+        if (request.isLocal()) {
+            // .本节点发出的请求：转发时复制原请求的选项，节点之间的调用使用本节点的授权信息
+            RsfRequest origin = this.forwarding.get();
+            if (origin != null) {
+                for (String optKey : origin.getOptionKeys()) {
+                    request.addOption(optKey, origin.getOption(optKey));
+                }
+                request.addOption(SHARD_FORWARD, this.shardManager.getLocalAddress().getHostPort());
+            } else {
+                request.addOption(RegistryConstants.Center_RSF_APP_KEY, this.centerSettings.getAppKeyID());
+                request.addOption(RegistryConstants.Center_RSF_APP_KEY_SECRET, this.centerSettings.getAppKeySecret());
+                request.addOption(SHARD_PEER, this.shardManager.getLocalAddress().toHostSchema());
+            }
+            chain.doFilter(request, response);
+            return;
+        }
+        // .迁移数据只接受集群中的其它注册中心
+        if (request.getBindInfo().getBindType() == RsfCenterShard.class && "importData".equals(request.getMethod().getName())) {
+            String peerAddress = request.getOption(SHARD_PEER);
+            if (!this.shardManager.isPeer(peerAddress, request.getRemoteAddress())) {
+                logger.error("shard importData refused, peer = {} ,remoteAddress = {}.", peerAddress, request.getRemoteAddress().toHostSchema());
+                response.sendStatus(ProtocolStatus.Forbidden, "importData is only allowed from peer centers.");
+                return;
+            }
+        }
+        //
+        Object[] params = request.getParameterObject();
+        boolean canForward = request.getOption(SHARD_FORWARD) == null && params != null && params.length > 1 && params[1] instanceof ServiceID;
+        InterAddress owner = canForward ? this.shardManager.ownerOf((ServiceID) params[1]) : null;
+        if (this.shardManager.isLocal(owner)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        // .转发到服务所属的注册中心
+        this.forwarding.set(request);
+        try {
+            Object result = request.getMethod().invoke(this.shardManager.remoteRegister(owner), params);
+            response.sendData(result);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getTargetException();
+            logger.error("shard forward {} to {} failed -> {}", request.getMethod().getName(), owner.getHostPort(), cause.getMessage(), cause);
+            short status = (cause instanceof RsfException) ? ((RsfException) cause).getStatus() : ProtocolStatus.InvokeError;
+            response.sendStatus(status, cause.getMessage());
+        } finally {
+            this.forwarding.remove();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.registry.server.sharding;
+import net.hasor.core.EventContext;
+import net.hasor.core.Init;
+import net.hasor.core.Inject;
+import net.hasor.core.Singleton;
+import net.hasor.registry.client.RsfCenterRegister;
+import net.hasor.registry.client.domain.ServiceID;
+import net.hasor.registry.common.RsfCenterSettings;
+import net.hasor.registry.server.ServerSettings;
+import net.hasor.registry.storage.DataAdapter;
+import net.hasor.registry.storage.DataEntity;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.RsfContext;
+import net.hasor.rsf.domain.provider.InstanceAddressProvider;
+import net.hasor.rsf.rpc.caller.RsfServiceWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static net.hasor.registry.server.utils.CenterUtils.getDataKey;
+/**
+ * 服务数据分片管理，负责计算服务所属的注册中心，并在成员变化时将不再属于本节点的服务数据迁移到新的节点上。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+@Singleton
+public class ShardManager implements RsfCenterShard {
+    protected Logger logger = LoggerFactory.getLogger(getClass());
+    private static final String            DATA_ROOT    = "/rsf-registry/";
+    private static final int               IMPORT_BATCH = 512;
+    @Inject
+    private              RsfContext        rsfContext;
+    @Inject
+    private              RsfCenterSettings centerSettings;
+    @Inject
+    private              ServerSettings    serverSettings;
+    @Inject
+    private              DataAdapter       dataAdapter;
+    @Inject
+    private              EventContext      eventContext;
+    private              InterAddress      localAddress;
+    private volatile     ShardRing         shardRing;
+    private volatile     ShardRing         previousRing;  // 上一次的成员，离开集群的节点还需要迁出数据
+    private final        Object            rebalanceLock = new Object();
+    //
+    @Init
+    public void init() {
+        this.localAddress = this.rsfContext.bindAddress(this.rsfContext.getDefaultProtocol());
+        List<InterAddress> members = new ArrayList<InterAddress>(Arrays.asList(this.centerSettings.getCenterServerSet()));
+        members.add(this.localAddress);
+        this.shardRing = new ShardRing(members, this.serverSettings.getShardVirtualNodes());
+        this.previousRing = this.shardRing;
+        logger.info("shard ring init, local = {} ,members = {}.", this.localAddress.getHostPort(), this.shardRing.getMembers());
+    }
+    //
+    public InterAddress getLocalAddress() {
+        return this.localAddress;
+    }
+    public ShardRing getShardRing() {
+        return this.shardRing;
+    }
+    /** 服务所属的注册中心 */
+    public InterAddress ownerOf(ServiceID serviceID) {
+        return this.shardRing.ownerOf(getDataKey(serviceID));
+    }
+    /** 是否为本节点 */
+    public boolean isLocal(InterAddress address) {
+        return address == null || this.localAddress.getHostPort().equals(address.getHostPort());
+    }
+    /**
+     * 请求是否来自集群中的其它注册中心（当前或上一次的成员）。
+     * @param peerAddress 对方声明的注册中心地址
+     * @param remoteAddress 连接的对端地址，入站连接的端口是临时端口，只比较主机
+     */
+    public boolean isPeer(String peerAddress, InterAddress remoteAddress) {
+        if (peerAddress == null || remoteAddress == null) {
+            return false;
+        }
+        InterAddress peer;
+        try {
+            peer = new InterAddress(peerAddress);
+        } catch (Exception e) {
+            return false;
+        }
+        if (this.isLocal(peer) || !peer.getHost().equals(remoteAddress.getHost())) {
+            return false;
+        }
+        return this.shardRing.contains(peer) || this.previousRing.contains(peer);
+    }
+    /** 指向某个注册中心的 RsfCenterRegister 接口 */
+    public RsfCenterRegister remoteRegister(InterAddress target) {
+        RsfCenterRegister register = this.rsfContext.getRsfClient().wrapper(RsfCenterRegister.class);
+        ((RsfServiceWrapper) register).setTarget(new InstanceAddressProvider(target));
+        return register;
+    }
+    private RsfCenterShard remoteShard(InterAddress target) {
+        RsfCenterShard centerShard = this.rsfContext.getRsfClient().wrapper(RsfCenterShard.class);
+        ((RsfServiceWrapper) centerShard).setTarget(new InstanceAddressProvider(target));
+        return centerShard;
+    }
+    //
+    /**
+     * 变更集群成员，之后在后台迁移不再属于本节点的服务数据。
+     * @param members 新的成员列表
+     * @param broadcast 是否通知新、旧成员列表中的其它节点
+     */
+    public synchronized void changeMembers(Collection<InterAddress> members, boolean broadcast) {
+        ShardRing oldRing = this.shardRing;
+        this.previousRing = oldRing;
+        this.shardRing = new ShardRing(members, this.serverSettings.getShardVirtualNodes());
+        logger.info("shard ring changed, members {} -> {}.", oldRing.getMembers(), this.shardRing.getMembers());
+        if (broadcast) {
+            List<String> memberList = new ArrayList<String>();
+            for (InterAddress address : this.shardRing.getMembers()) {
+                memberList.add(address.toHostSchema());
+            }
+            Set<InterAddress> notifySet = new LinkedHashSet<InterAddress>(oldRing.getMembers());
+            notifySet.addAll(this.shardRing.getMembers());
+            for (InterAddress address : notifySet) {
+                if (this.isLocal(address)) {
+                    continue;
+                }
+                try {
+                    this.remoteShard(address).updateMembers(memberList);
+                } catch (Exception e) {
+                    logger.error("shard notify {} failed -> {}", address.getHostPort(), e.getMessage(), e);
+                }
+            }
+        }
+        this.eventContext.asyncTask(new Runnable() {
+            @Override
+            public void run() {
+                rebalance();
+            }
+        });
+    }
+    /** 将不属于本节点的服务数据迁移到所属节点，返回迁移的数据条数 */
+    public int rebalance() {
+        synchronized (this.rebalanceLock) {
+            ShardRing ring = this.shardRing;
+            Map<String, List<DataEntity>> serviceMap = new LinkedHashMap<String, List<DataEntity>>();
+            for (DataEntity entity : this.dataAdapter.listData(DATA_ROOT, null)) {
+                if (entity.isLinkTo()) {
+                    continue;
+                }
+                String serviceKey = serviceKey(entity.getDataKey());
+                List<DataEntity> entityList = serviceMap.get(serviceKey);
+                if (entityList == null) {
+                    entityList = new ArrayList<DataEntity>();
+                    serviceMap.put(serviceKey, entityList);
+                }
+                entityList.add(entity);
+            }
+            // .按照目标节点归并之后批量迁移
+            Map<InterAddress, List<DataEntity>> moveMap = new LinkedHashMap<InterAddress, List<DataEntity>>();
+            for (Map.Entry<String, List<DataEntity>> entry : serviceMap.entrySet()) {
+                InterAddress owner = ring.ownerOf(entry.getKey());
+                if (this.isLocal(owner)) {
+                    continue;
+                }
+                List<DataEntity> moveList = moveMap.get(owner);
+                if (moveList == null) {
+                    moveList = new ArrayList<DataEntity>();
+                    moveMap.put(owner, moveList);
+                }
+                moveList.addAll(entry.getValue());
+            }
+            int moveCount = 0;
+            for (Map.Entry<InterAddress, List<DataEntity>> entry : moveMap.entrySet()) {
+                moveCount += this.moveTo(entry.getKey(), entry.getValue());
+            }
+            if (moveCount > 0) {
+                logger.info("shard rebalance finish, {} data moved.", moveCount);
+            }
+            return moveCount;
+        }
+    }
+    private int moveTo(InterAddress target, List<DataEntity> entityList) {
+        RsfCenterShard centerShard = this.remoteShard(target);
+        int moveCount = 0;
+        for (int start = 0; start < entityList.size(); start += IMPORT_BATCH) {
+            List<DataEntity> batchList = entityList.subList(start, Math.min(start + IMPORT_BATCH, entityList.size()));
+            String[] dataKeys = new String[batchList.size()];
+            String[] dataValues = new String[batchList.size()];
+            long[] tags = new long[batchList.size()];
+            for (int i = 0; i < batchList.size(); i++) {
+                DataEntity entity = batchList.get(i);
+                dataKeys[i] = entity.getDataKey();
+                dataValues[i] = entity.getDataValue();
+                tags[i] = entity.getTags();
+            }
+            try {
+                if (!centerShard.importData(dataKeys, dataValues, tags)) {
+                    logger.error("shard move to {} failed, import return false.", target.getHostPort());
+                    return moveCount;
+                }
+            } catch (Exception e) {
+                logger.error("shard move to {} failed -> {}", target.getHostPort(), e.getMessage(), e);
+                return moveCount;
+            }
+            // .对方写入成功之后才删除本地数据
+            for (String dataKey : dataKeys) {
+                this.dataAdapter.deleteData(dataKey);
+            }
+            moveCount += dataKeys.length;
+        }
+        return moveCount;
+    }
+    /** 数据所属服务的 key，即 /rsf-registry/group/name/version */
+    static String serviceKey(String dataKey) {
+        int index = -1;
+        for (int i = 0; i < 5; i++) {
+            index = dataKey.indexOf('/', index + 1);
+            if (index < 0) {
+                return dataKey;
+            }
+        }
+        return dataKey.substring(0, index);
+    }
+    //
+    @Override
+    public boolean importData(String[] dataKeys, String[] dataValues, long[] tags) {
+        // .本地已有的数据更新，说明客户端已经重新注册到本节点，忽略迁移过来的旧数据
+        List<Integer> importList = new ArrayList<Integer>();
+        for (int i = 0; i < dataKeys.length; i++) {
+            if (!this.dataAdapter.exist(dataKeys[i])) {
+                importList.add(i);
+            }
+        }
+        String[] importKeys = new String[importList.size()];
+        String[] importValues = new String[importList.size()];
+        long[] importTags = new long[importList.size()];
+        for (int i = 0; i < importList.size(); i++) {
+            importKeys[i] = dataKeys[importList.get(i)];
+            importValues[i] = dataValues[importList.get(i)];
+            importTags[i] = tags[importList.get(i)];
+        }
+        for (boolean result : this.dataAdapter.writeData(importKeys, importValues, importTags)) {
+            if (!result) {
+                return false;
+            }
+        }
+        return true;
+    }
+    @Override
+    public boolean updateMembers(List<String> members) {
+        List<InterAddress> memberList = new ArrayList<InterAddress>();
+        for (String member : members) {
+            try {
+                memberList.add(new InterAddress(member));
+            } catch (Exception e) {
+                logger.error("shard member {} format error -> {}.", member, e.getMessage());
+                return false;
+            }
+        }
+        this.changeMembers(memberList, false);
+        return true;
+    }
+}
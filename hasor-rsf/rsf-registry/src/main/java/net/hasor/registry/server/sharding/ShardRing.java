@@ -0,0 +1,102 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.registry.server.sharding;
+import net.hasor.rsf.InterAddress;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+/**
+ * 一致性 Hash 环，每个注册中心节点在环上放置若干虚拟节点，服务数据按照 hash 落在顺时针方向的第一个虚拟节点所属的注册中心上。
+ * 节点加入或离开时只有相邻区间上的服务需要迁移。该类是不可变的，成员变化时创建新的实例。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ShardRing {
+    public static final int                         DEFAULT_VIRTUAL_NODES = 160;
+    private final       List<InterAddress>          members;
+    private final       TreeMap<Long, InterAddress> ring;
+    //
+    public ShardRing(Collection<InterAddress> members, int virtualNodes) {
+        if (virtualNodes < 1) {
+            virtualNodes = DEFAULT_VIRTUAL_NODES;
+        }
+        // .按照 host:port 去重，同一个注册中心只能出现一次
+        Map<String, InterAddress> memberMap = new TreeMap<String, InterAddress>();
+        for (InterAddress address : members) {
+            if (address != null && !memberMap.containsKey(address.getHostPort())) {
+                memberMap.put(address.getHostPort(), address);
+            }
+        }
+        this.members = Collections.unmodifiableList(new ArrayList<InterAddress>(memberMap.values()));
+        this.ring = new TreeMap<Long, InterAddress>();
+        for (InterAddress address : this.members) {
+            // .每次 MD5 得到 16 个字节，切成 4 个虚拟节点
+            for (int i = 0; i < (virtualNodes + 3) / 4; i++) {
+                byte[] digest = md5(address.getHostPort() + "#" + i);
+                for (int h = 0; h < 4 && i * 4 + h < virtualNodes; h++) {
+                    this.ring.put(hashOf(digest, h), address);
+                }
+            }
+        }
+    }
+    //
+    /** 所有成员 */
+    public List<InterAddress> getMembers() {
+        return this.members;
+    }
+    public boolean isEmpty() {
+        return this.members.isEmpty();
+    }
+    /** 是否包含某个注册中心 */
+    public boolean contains(InterAddress address) {
+        for (InterAddress member : this.members) {
+            if (member.getHostPort().equals(address.getHostPort())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /** 计算数据所属的注册中心，环为空时返回 null */
+    public InterAddress ownerOf(String shardKey) {
+        if (this.ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, InterAddress> entry = this.ring.ceilingEntry(hashOf(md5(shardKey), 0));
+        if (entry == null) {
+            entry = this.ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+    //
+    private static long hashOf(byte[] digest, int index) {
+        return ((long) (digest[3 + index * 4] & 0xFF) << 24)//
+                | ((long) (digest[2 + index * 4] & 0xFF) << 16)//
+                | ((long) (digest[1 + index * 4] & 0xFF) << 8)//
+                | ((long) (digest[index * 4] & 0xFF));
+    }
+    private static byte[] md5(String key) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            return md5.digest(key.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.registry.server.sharding;
+import net.hasor.registry.client.RsfCenterRegister;
+import net.hasor.registry.common.RsfCenterSettings;
+import net.hasor.registry.server.RegistryServerModule;
+import net.hasor.registry.server.RsfCenterServerVerifyFilter;
+import net.hasor.registry.server.commonds.ShardRsfInstruct;
+import net.hasor.rsf.RsfApiBinder;
+import net.hasor.rsf.RsfContext;
+import net.hasor.rsf.RsfEnvironment;
+import net.hasor.rsf.RsfPublisher.FilterBindBuilder;
+import net.hasor.tconsole.ConsoleApiBinder;
+/**
+ * 注册中心集群模式启动入口，服务数据按照一致性 Hash 分布在 servers 配置的所有注册中心上。
+ * 客户端可以连接任意一个注册中心，请求会被转发到服务所属的节点。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ShardingServerModule extends RegistryServerModule {
+    public ShardingServerModule(RsfEnvironment rsfEnvironment, RsfCenterSettings settings) throws ClassNotFoundException {
+        super(rsfEnvironment, settings);
+    }
+    //
+    @Override
+    public void loadModule(RsfApiBinder apiBinder) throws Throwable {
+        super.loadModule(apiBinder);
+        apiBinder.tryCast(ConsoleApiBinder.class).addCommand(new String[] { "shard" }, ShardRsfInstruct.class);
+    }
+    @Override
+    protected void configRegister(FilterBindBuilder<RsfCenterRegister> registerBuilder) {
+        registerBuilder.bindFilter("ShardForwardFilter", ShardForwardFilter.class);
+    }
+    @Override
+    protected void doStartCenter(RsfContext rsfContext) throws java.io.IOException {
+        super.doStartCenter(rsfContext);
+        rsfContext.publisher().rsfService(RsfCenterShard.class).to(ShardManager.class)//
+                .bindFilter("VerificationFilter", RsfCenterServerVerifyFilter.class)//
+                .bindFilter("ShardForwardFilter", ShardForwardFilter.class)//
+                .register();
+        // .成员变化期间留在本节点上、已经不属于本节点的数据，启动之后在后台迁移
+        final ShardManager shardManager = rsfContext.getAppContext().getInstance(ShardManager.class);
+        rsfContext.getAppContext().getEnvironment().getEventContext().asyncTask(new Runnable() {
+            @Override
+            public void run() {
+                shardManager.rebalance();
+            }
+        });
+    }
+}
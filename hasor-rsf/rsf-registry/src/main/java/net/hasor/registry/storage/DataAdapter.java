@@ -14,15 +14,190 @@
  * limitations under the License.
  */
 package net.hasor.registry.storage;
+import net.hasor.core.AppContext;
+import net.hasor.core.Environment;
+import net.hasor.core.Init;
+import net.hasor.core.Inject;
 import net.hasor.core.Matcher;
+import net.hasor.core.Singleton;
+import net.hasor.registry.server.ServerSettings;
+import net.hasor.registry.storage.block.Block;
+import net.hasor.registry.storage.block.BlockFileAdapter;
+import net.hasor.registry.storage.wal.LogRecord;
+import net.hasor.registry.storage.wal.WriteAheadLog;
+import net.hasor.utils.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 /**
  * 服务数据存储检索适配器，负责将数据的操作对应到 DataDao 接口上。
+ * <p>数据以 Block 的形式追加写入数据文件（registry.dat），Block 内容为 {@link LogRecord} 格式，读取走内存映射区。
+ * 内存中保存 dataKey 到 Block 的有序索引，启动时通过扫描数据文件重建。</p>
+ * <p>所有变更先写入预写日志并落盘（group commit），然后按照日志顺序应用到数据文件上。
+ * 预写日志超过 checkpointSize 之后切换分段，待之前的变更全部应用并且数据文件 force 之后删除旧分段。
+ * 启动时重放日志，依据记录序号跳过已经应用过的变更，因此重放是幂等的。</p>
+ * <p>被覆盖和删除的 Block 只做删除标记。checkpoint 时如果已删除的数据超过 checkpointSize 并且占到数据文件的一半，
+ * 存活的数据会被重写到一个新的数据文件（registry.dat.compact），落盘之后替换原有的数据文件。</p>
+ * <p>通过 {@link DataListener} 可以按照变更顺序得到数据的变化，用于维护二级索引。</p>
  * @version : 2015年8月19日
  * @author 赵永春 (zyc@hasor.net)
  */
+@Singleton
 public class DataAdapter {
+    protected            Logger                                     logger            = LoggerFactory.getLogger(getClass());
+    private static final String                                     DATA_FILE_NAME    = "registry.dat";
+    private static final String                                     WAL_DIR_NAME      = "wal";
+    private static final String                                     COMPACT_FILE_NAME = "registry.dat.compact";
+    private static final int                                        COMPACT_BATCH     = 1000;
+    @Inject
+    private              AppContext                                 appContext;
+    @Inject
+    private              ServerSettings                             serverSettings;
+    private final        ConcurrentNavigableMap<String, IndexEntry> dataIndex         = new ConcurrentSkipListMap<String, IndexEntry>();
+    private              File                                       storageDir        = null;
+    private              BlockFileAdapter                           dataFile          = null;
+    private final        ReadWriteLock                              dataFileLock      = new ReentrantReadWriteLock(); // 读数据持有读锁，切换数据文件持有写锁
+    private              long                                       garbageSize       = 0;                            // 数据文件中已删除 Block 占用的字节数
+    private              WriteAheadLog                              writeAheadLog     = null;
+    private              long                                       checkpointSize    = 0;
+    private final        Object                                     applyLock         = new Object();
+    private              long                                       appliedTicket     = 0;                            // 已经应用到数据文件的日志票据
+    private              long                                       checkpointTicket  = -1;                           // 旧分段中最后的票据，应用到这里之后可以删除旧分段
+    private final        List<DataListener>                         listeners         = new CopyOnWriteArrayList<DataListener>();
+    //
+    @Init
+    public void init() throws IOException {
+        Environment env = this.appContext.getEnvironment();
+        File storageDir = new File(env.evalString("%RSF_CENTER_FILE_STORAGE%"));
+        this.open(storageDir, this.serverSettings.getStorageCheckpointSize());
+    }
+    //
+    /** 打开存储目录，加载数据文件并重放预写日志 */
+    public synchronized void open(File storageDir, long checkpointSize) throws IOException {
+        if (this.dataFile != null) {
+            throw new IllegalStateException("storage is opened.");
+        }
+        File walDir = new File(storageDir, WAL_DIR_NAME);
+        if (!walDir.exists() && !walDir.mkdirs()) {
+            throw new IOException("create dir " + walDir.getAbsolutePath() + " failed.");
+        }
+        // .压缩过程中断：原数据文件还在时新文件可能不完整直接丢弃，否则新文件已经落盘只是没有改名
+        File dataFileName = new File(storageDir, DATA_FILE_NAME);
+        File compactFile = new File(storageDir, COMPACT_FILE_NAME);
+        if (compactFile.exists()) {
+            if (dataFileName.exists()) {
+                if (!compactFile.delete()) {
+                    throw new IOException("delete file " + compactFile.getAbsolutePath() + " failed.");
+                }
+            } else if (!compactFile.renameTo(dataFileName)) {
+                throw new IOException("rename file " + compactFile.getAbsolutePath() + " failed.");
+            }
+        }
+        long startTime = System.currentTimeMillis();
+        this.storageDir = storageDir;
+        this.checkpointSize = checkpointSize;
+        this.garbageSize = 0;
+        this.dataFile = new BlockFileAdapter(dataFileName);
+        long lastSequence = this.loadDataFile();
+        //
+        // .重放预写日志，重放完毕的数据落盘之后日志才会被删除
+        this.writeAheadLog = new WriteAheadLog(walDir);
+        final List<LogRecord> replayList = new ArrayList<LogRecord>();
+        long walSequence = this.writeAheadLog.replay(new WriteAheadLog.ReplayHandler() {
+            @Override
+            public void replay(LogRecord record) throws IOException {
+                replayList.add(record);
+                if (replayList.size() >= 1000) {
+                    applyRecords(replayList.toArray(new LogRecord[replayList.size()]));
+                    replayList.clear();
+                }
+            }
+        });
+        this.applyRecords(replayList.toArray(new LogRecord[replayList.size()]));
+        this.dataFile.sync();
+        this.writeAheadLog.open(Math.max(lastSequence, walSequence));
+        this.appliedTicket = 0;
+        this.checkpointTicket = -1;
+        for (DataListener listener : this.listeners) {
+            this.notifyExisting(listener);
+        }
+        logger.info("storage open at {}, load {} records, cost {}ms.", storageDir.getAbsolutePath(), this.dataIndex.size(), System.currentTimeMillis() - startTime);
+    }
+    //
+    /** 关闭存储 */
+    public synchronized void close() throws IOException {
+        if (this.dataFile == null) {
+            return;
+        }
+        synchronized (this.applyLock) {
+            this.writeAheadLog.close();
+            this.dataFile.sync();
+            this.dataFileLock.writeLock().lock();
+            try {
+                this.dataFile.close();
+                this.dataFile = null;
+                this.dataIndex.clear();
+            } finally {
+                this.dataFileLock.writeLock().unlock();
+            }
+        }
+    }
+    //
+    /** 添加数据变更监听器，添加时已有的数据会以 onWrite 的方式通知一遍 */
+    public void addListener(DataListener listener) {
+        synchronized (this.applyLock) {
+            this.listeners.add(listener);
+            if (this.dataFile != null) {
+                this.notifyExisting(listener);
+            }
+        }
+    }
+    private void notifyExisting(DataListener listener) {
+        List<IndexEntry> entryList = new ArrayList<IndexEntry>(this.dataIndex.values());
+        DataEntity[] entities = this.readEntries(entryList.toArray(new IndexEntry[entryList.size()]));
+        for (DataEntity entity : entities) {
+            if (entity != null) {
+                listener.onWrite(entity);
+            }
+        }
+    }
+    private void fireWrite(LogRecord record, Block block) {
+        if (this.listeners.isEmpty()) {
+            return;
+        }
+        boolean linkTo = record.getOperation() == LogRecord.OP_LINK;
+        DataEntity entity = new DataEntity(record.getDataKey(), record.getDataValue(), record.getTags(),//
+                linkTo, block.getPosition(), block.getDataSize());
+        for (DataListener listener : this.listeners) {
+            try {
+                listener.onWrite(entity);
+            } catch (Throwable e) {
+                logger.error("storage listener onWrite failed, " + e.getMessage(), e);
+            }
+        }
+    }
+    private void fireDelete(String dataKey) {
+        for (DataListener listener : this.listeners) {
+            try {
+                listener.onDelete(dataKey);
+            } catch (Throwable e) {
+                logger.error("storage listener onDelete failed, " + e.getMessage(), e);
+            }
+        }
+    }
     //
     public DataEntity readData(String dataKey) {
         return readData(new String[] { dataKey })[0];
@@ -33,25 +208,354 @@ public class DataAdapter {
     public boolean exist(String dataKey) {
         return exist(new String[] { dataKey })[0];
     }
+    public boolean writeData(String dataKey, String dataValue, long tags) {
+        return writeData(new String[] { dataKey }, new String[] { dataValue }, new long[] { tags })[0];
+    }
     //
     //
     public boolean[] exist(String[] dataKeys) {
-        return null;
+        boolean[] result = new boolean[dataKeys.length];
+        for (int i = 0; i < dataKeys.length; i++) {
+            result[i] = dataKeys[i] != null && this.dataIndex.containsKey(dataKeys[i]);
+        }
+        return result;
     }
     public DataEntity[] readData(String[] dataKey) {
-        return null;
+        this.dataFileLock.readLock().lock();
+        try {
+            IndexEntry[] entries = new IndexEntry[dataKey.length];
+            for (int i = 0; i < dataKey.length; i++) {
+                entries[i] = (dataKey[i] == null) ? null : this.dataIndex.get(dataKey[i]);
+            }
+            return this.readEntries(entries);
+        } finally {
+            this.dataFileLock.readLock().unlock();
+        }
     }
     public boolean[] deleteData(String[] dataKey) {
-        return null;
+        List<LogRecord> records = new ArrayList<LogRecord>(dataKey.length);
+        List<Integer> recordIndex = new ArrayList<Integer>(dataKey.length);
+        for (int i = 0; i < dataKey.length; i++) {
+            if (dataKey[i] != null && this.dataIndex.containsKey(dataKey[i])) {
+                records.add(new LogRecord(LogRecord.OP_DELETE, dataKey[i], null, 0));
+                recordIndex.add(i);
+            }
+        }
+        boolean[] result = new boolean[dataKey.length];
+        boolean[] commitResult = this.commit(records.toArray(new LogRecord[records.size()]));
+        for (int i = 0; i < commitResult.length; i++) {
+            result[recordIndex.get(i)] = commitResult[i];
+        }
+        return result;
     }
     //
     public List<DataEntity> listData(String dataKey, Matcher<? extends DataEntity> matcher) {
-        return null;
+        DataEntity[] entities;
+        this.dataFileLock.readLock().lock();
+        try {
+            List<IndexEntry> entryList = new ArrayList<IndexEntry>();
+            for (Map.Entry<String, IndexEntry> entry : this.dataIndex.tailMap(dataKey, true).entrySet()) {
+                if (!entry.getKey().startsWith(dataKey)) {
+                    break;
+                }
+                entryList.add(entry.getValue());
+            }
+            entities = this.readEntries(entryList.toArray(new IndexEntry[entryList.size()]));
+        } finally {
+            this.dataFileLock.readLock().unlock();
+        }
+        //
+        List<DataEntity> resultList = new ArrayList<DataEntity>(entities.length);
+        Matcher<DataEntity> entityMatcher = (Matcher<DataEntity>) matcher;
+        for (DataEntity entity : entities) {
+            if (entity != null && (entityMatcher == null || entityMatcher.matches(entity))) {
+                resultList.add(entity);
+            }
+        }
+        return resultList;
     }
-    public boolean writeData(String dataKey, String dataValue, long tags) {
-        return false;
+    /** 批量写入数据，所有数据在一次日志提交中完成 */
+    public boolean[] writeData(String[] dataKeys, String[] dataValues, long[] tags) {
+        LogRecord[] records = new LogRecord[dataKeys.length];
+        for (int i = 0; i < dataKeys.length; i++) {
+            records[i] = new LogRecord(LogRecord.OP_WRITE, dataKeys[i], dataValues[i], tags[i]);
+        }
+        return this.commit(records);
     }
     public boolean linkTo(String dataKey, String mappingToDataKey, long tag) {
-        return false;
+        if (!this.dataIndex.containsKey(mappingToDataKey)) {
+            return false;
+        }
+        return this.commit(new LogRecord[] { new LogRecord(LogRecord.OP_LINK, dataKey, mappingToDataKey, tag) })[0];
+    }
+    //
+    // ------------------------------------------------------------------------------------------------------------------
+    //
+    // - 批量读取，按照 Block 的位置顺序读取以保证对映射区的顺序访问。
+    //   调用者需要持有 dataFileLock 的读锁（或者 applyLock），从索引中查找 Block 到解码完成期间数据文件不会被切换或关闭。
+    private DataEntity[] readEntries(final IndexEntry[] entries) {
+        Integer[] readOrder = new Integer[entries.length];
+        for (int i = 0; i < readOrder.length; i++) {
+            readOrder[i] = i;
+        }
+        Arrays.sort(readOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long p1 = (entries[o1] == null) ? -1 : entries[o1].block.getPosition();
+                long p2 = (entries[o2] == null) ? -1 : entries[o2].block.getPosition();
+                return p1 < p2 ? -1 : (p1 == p2 ? 0 : 1);
+            }
+        });
+        //
+        DataEntity[] result = new DataEntity[entries.length];
+        try {
+            for (Integer index : readOrder) {
+                IndexEntry entry = entries[index];
+                if (entry == null) {
+                    continue;
+                }
+                Block block = entry.block;
+                LogRecord record = LogRecord.decode(this.dataFile.readData(block));
+                boolean linkTo = record.getOperation() == LogRecord.OP_LINK;
+                result[index] = new DataEntity(record.getDataKey(), record.getDataValue(), record.getTags(),//
+                        linkTo, block.getPosition(), block.getDataSize());
+            }
+        } catch (IOException e) {
+            throw ExceptionUtils.toRuntimeException(e);
+        }
+        return result;
+    }
+    //
+    // - 写入预写日志并等待落盘（group commit），然后严格按照日志顺序把变更应用到数据文件上。
+    private boolean[] commit(LogRecord[] records) {
+        if (records.length == 0) {
+            return new boolean[0];
+        }
+        try {
+            long ticket = this.writeAheadLog.write(records);
+            this.writeAheadLog.sync(ticket);
+            return this.applyInOrder(ticket, records);
+        } catch (IOException e) {
+            logger.error("storage commit failed, " + e.getMessage(), e);
+            return new boolean[records.length];
+        }
+    }
+    private boolean[] applyInOrder(long ticket, LogRecord[] records) throws IOException {
+        synchronized (this.applyLock) {
+            boolean interrupted = false;
+            while (this.appliedTicket != ticket - 1) {
+                try {
+                    this.applyLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                boolean[] result = this.applyRecords(records);
+                this.checkpoint(ticket);
+                return result;
+            } finally {
+                this.appliedTicket = ticket;
+                this.applyLock.notifyAll();
+            }
+        }
+    }
+    //
+    // - 预写日志过大时切换分段，旧分段中的变更全部应用并且数据文件落盘之后删除旧分段。
+    private void checkpoint(long ticket) throws IOException {
+        if (this.checkpointTicket < 0) {
+            if (this.writeAheadLog.segmentSize() < this.checkpointSize) {
+                return;
+            }
+            this.checkpointTicket = this.writeAheadLog.roll();
+        }
+        if (ticket >= this.checkpointTicket) {
+            this.dataFile.sync();
+            this.writeAheadLog.dropRolled();
+            this.checkpointTicket = -1;
+            if (this.garbageSize >= this.checkpointSize && this.garbageSize * 2 >= this.dataFile.fileSize()) {
+                this.compact();
+            }
+        }
+    }
+    //
+    // - 把存活的数据按照 dataKey 的顺序重写到新的数据文件，落盘之后替换原有的数据文件。调用者需要持有 applyLock。
+    //   新文件写好之前读请求继续使用原有的数据文件，只有切换文件和更新索引的时候阻塞读请求。
+    //   压缩失败不影响正常的读写，已删除的数据会在下一次 checkpoint 时再次尝试清理。
+    private void compact() {
+        long startTime = System.currentTimeMillis();
+        File dataFileName = new File(this.storageDir, DATA_FILE_NAME);
+        File compactFile = new File(this.storageDir, COMPACT_FILE_NAME);
+        List<String> keyList = new ArrayList<String>(this.dataIndex.size());
+        List<IndexEntry> entryList = new ArrayList<IndexEntry>(this.dataIndex.size());
+        List<Block> blockList = new ArrayList<Block>(this.dataIndex.size());
+        long beforeSize;
+        try {
+            beforeSize = this.dataFile.fileSize();
+            if (compactFile.exists() && !compactFile.delete()) {
+                throw new IOException("delete file " + compactFile.getAbsolutePath() + " failed.");
+            }
+            BlockFileAdapter compactAdapter = new BlockFileAdapter(compactFile);
+            try {
+                List<ByteBuffer> batchList = new ArrayList<ByteBuffer>(COMPACT_BATCH);
+                for (Map.Entry<String, IndexEntry> entry : this.dataIndex.entrySet()) {
+                    keyList.add(entry.getKey());
+                    entryList.add(entry.getValue());
+                    batchList.add(this.dataFile.readData(entry.getValue().block));
+                    if (batchList.size() >= COMPACT_BATCH) {
+                        blockList.addAll(Arrays.asList(compactAdapter.appendBlocks(batchList.toArray(new ByteBuffer[batchList.size()]))));
+                        batchList.clear();
+                    }
+                }
+                blockList.addAll(Arrays.asList(compactAdapter.appendBlocks(batchList.toArray(new ByteBuffer[batchList.size()]))));
+                compactAdapter.sync();
+            } finally {
+                compactAdapter.close();
+            }
+        } catch (IOException e) {
+            logger.error("storage compact failed, " + e.getMessage(), e);
+            compactFile.delete();
+            return;
+        }
+        //
+        this.dataFileLock.writeLock().lock();
+        try {
+            this.dataFile.close();
+            if (!compactFile.renameTo(dataFileName)) {
+                // .部分平台上 rename 不能覆盖已经存在的文件（删除之后中断，重新 open 时会使用 compact 文件）
+                if (!dataFileName.delete() || !compactFile.renameTo(dataFileName)) {
+                    throw new IOException("replace file " + dataFileName.getAbsolutePath() + " failed.");
+                }
+            }
+            this.dataFile = new BlockFileAdapter(dataFileName);
+            for (int i = 0; i < keyList.size(); i++) {
+                this.dataIndex.put(keyList.get(i), new IndexEntry(entryList.get(i).sequence, blockList.get(i)));
+            }
+            this.garbageSize = 0;
+            logger.info("storage compact {} records, {} -> {} bytes, cost {}ms.", keyList.size(), beforeSize, this.dataFile.fileSize(), System.currentTimeMillis() - startTime);
+        } catch (IOException e) {
+            logger.error("storage compact failed, " + e.getMessage(), e);
+            try {
+                if (dataFileName.exists()) {
+                    this.dataFile = new BlockFileAdapter(dataFileName);
+                }
+            } catch (IOException reopen) {
+                logger.error("storage reopen failed, " + reopen.getMessage(), reopen);
+            }
+        } finally {
+            this.dataFileLock.writeLock().unlock();
+        }
+    }
+    //
+    // - 应用变更到数据文件，只有序号比当前数据新的变更才会生效（日志重放时会遇到已经应用过的变更）。
+    //   所有写入的 Block 通过一次 IO 追加到数据文件尾部。
+    private boolean[] applyRecords(LogRecord[] records) throws IOException {
+        List<ByteBuffer> appendList = new ArrayList<ByteBuffer>(records.length);
+        boolean[] appended = new boolean[records.length];
+        for (int i = 0; i < records.length; i++) {
+            if (records[i].getOperation() != LogRecord.OP_DELETE && this.isNewer(records[i])) {
+                appendList.add(records[i].encode());
+                appended[i] = true;
+            }
+        }
+        Block[] blocks = this.dataFile.appendBlocks(appendList.toArray(new ByteBuffer[appendList.size()]));
+        //
+        boolean[] result = new boolean[records.length];
+        int blockIndex = 0;
+        for (int i = 0; i < records.length; i++) {
+            LogRecord record = records[i];
+            if (record.getOperation() == LogRecord.OP_DELETE) {
+                IndexEntry entry = this.dataIndex.get(record.getDataKey());
+                if (entry != null && entry.sequence < record.getSequence()) {
+                    this.dataIndex.remove(record.getDataKey());
+                    this.deleteBlock(entry.block);
+                    this.fireDelete(record.getDataKey());
+                    result[i] = true;
+                }
+                continue;
+            }
+            if (!appended[i]) {
+                continue;
+            }
+            // .同一批次中相同的 dataKey 以最后一次写入为准
+            Block block = blocks[blockIndex++];
+            IndexEntry entry = this.dataIndex.get(record.getDataKey());
+            if (entry == null || entry.sequence < record.getSequence()) {
+                this.dataIndex.put(record.getDataKey(), new IndexEntry(record.getSequence(), block));
+                if (entry != null) {
+                    this.deleteBlock(entry.block);
+                }
+                this.fireWrite(record, block);
+                result[i] = true;
+            } else {
+                this.deleteBlock(block);
+            }
+        }
+        return result;
+    }
+    //
+    private void deleteBlock(Block block) throws IOException {
+        if (this.dataFile.deleteBlock(block)) {
+            this.garbageSize += block.stiffBlockSize();
+        }
+    }
+    private boolean isNewer(LogRecord record) {
+        IndexEntry entry = this.dataIndex.get(record.getDataKey());
+        return entry == null || entry.sequence < record.getSequence();
+    }
+    //
+    // - 扫描数据文件重建索引，返回最大的记录序号。不完整的尾部会被截断，损坏的 Block 会被删除（其数据仍在预写日志中）。
+    private long loadDataFile() throws IOException {
+        long lastSequence = 0;
+        long validEnd = 0;
+        try {
+            for (Block block = this.dataFile.firstBlock(); block != null; block = this.dataFile.nextBlock()) {
+                if (block.getPosition() + block.stiffBlockSize() > this.dataFile.fileSize()) {
+                    break;
+                }
+                validEnd = block.getPosition() + block.stiffBlockSize();
+                if (block.isInvalid()) {
+                    this.garbageSize += block.stiffBlockSize();
+                    continue;
+                }
+                LogRecord record;
+                try {
+                    record = LogRecord.decode(this.dataFile.readData(block));
+                } catch (IOException e) {
+                    logger.warn("storage block at {} is broken, delete it.", block.getPosition());
+                    this.deleteBlock(block);
+                    continue;
+                }
+                lastSequence = Math.max(lastSequence, record.getSequence());
+                IndexEntry entry = this.dataIndex.get(record.getDataKey());
+                if (entry == null || entry.sequence < record.getSequence()) {
+                    this.dataIndex.put(record.getDataKey(), new IndexEntry(record.getSequence(), block));
+                    if (entry != null) {
+                        this.deleteBlock(entry.block);
+                    }
+                } else {
+                    this.deleteBlock(block);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("storage file is broken at " + validEnd + ", " + e.getMessage());
+        }
+        if (validEnd < this.dataFile.fileSize()) {
+            logger.warn("storage file has {} bytes broken at {}, truncate it.", this.dataFile.fileSize() - validEnd, validEnd);
+            this.dataFile.truncate(validEnd);
+        }
+        return lastSequence;
+    }
+    //
+    private static class IndexEntry {
+        private final long  sequence;
+        private final Block block;
+        public IndexEntry(long sequence, Block block) {
+            this.sequence = sequence;
+            this.block = block;
+        }
     }
-}
\ No newline at end of file
+}
@@ -14,35 +14,65 @@
  * limitations under the License.
  */
 package net.hasor.registry.storage;
+import net.hasor.utils.CommonCodeUtils;
+import net.hasor.utils.ExceptionUtils;
+
+import java.security.NoSuchAlgorithmException;
 /**
  *
  * @version : 2015年8月19日
  * @author 赵永春 (zyc@hasor.net)
  */
 public class DataEntity {
-    private String dataKey;
-    private long   tags;
+    private String  dataKey;
+    private String  dataValue;
+    private long    tags;
+    private boolean linkTo;
+    private String  md5;
     //
-    private long   dataPosition;
-    private long   dataLength;
+    private long    dataPosition;
+    private long    dataLength;
     //
+    DataEntity(String dataKey, String dataValue, long tags, boolean linkTo, long dataPosition, long dataLength) {
+        this.dataKey = dataKey;
+        this.dataValue = dataValue;
+        this.tags = tags;
+        this.linkTo = linkTo;
+        this.dataPosition = dataPosition;
+        this.dataLength = dataLength;
+    }
     //
     public String getDataKey() {
         return dataKey;
     }
     public String getDataValue() {
-        return null;
+        return this.linkTo ? null : this.dataValue;
     }
     public long getTags() {
         return tags;
     }
     public String getMD5() {
-        return null;
+        if (this.md5 == null && this.getDataValue() != null) {
+            try {
+                this.md5 = CommonCodeUtils.MD5.getMD5(this.getDataValue());
+            } catch (NoSuchAlgorithmException e) {
+                throw ExceptionUtils.toRuntimeException(e);
+            }
+        }
+        return this.md5;
     }
     public String getTarget() {
-        return null;
+        return this.linkTo ? this.dataValue : null;
     }
     public boolean isLinkTo() {
-        return false;
+        return this.linkTo;
+    }
+    /** 数据在数据文件中的位置 */
+    public long getDataPosition() {
+        return dataPosition;
+    }
+    /** 数据在数据文件中的长度 */
+    public long getDataLength() {
+        return dataLength;
     }
 }
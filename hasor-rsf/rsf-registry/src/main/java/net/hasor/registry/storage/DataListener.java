@@ -13,26 +13,17 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package net.hasor.land.node;
+package net.hasor.registry.storage;
 /**
- * 服务器操作
- *
- * @version : 2016年09月10日
+ * 数据变更监听器。回调发生在变更应用到数据文件之后，并且严格按照变更提交的顺序执行，
+ * 因此可以用来维护基于存储数据的二级索引。
+ * @version : 2017年12月18日
  * @author 赵永春 (zyc@hasor.net)
  */
-public interface Operation extends Server {
-    /** Term 自增 */
-    public void incrementAndGetTerm();
-
-    /** Term 更新成比自己大的那个 */
-    public boolean updateTermTo(String remoteTerm);
-
-    /** 更新最后一次收到 Leader 的心跳时间 */
-    public void newLastLeaderHeartbeat();
-
-    /** 应用选票 */
-    public void applyVoted(String remoteServerID, boolean voteGranted);
+public interface DataListener {
+    /** 数据被写入（新增或者更新） */
+    public void onWrite(DataEntity entity);
 
-    /** 清空所有选票 */
-    public void clearVoted();
-}
\ No newline at end of file
+    /** 数据被删除 */
+    public void onDelete(String dataKey);
+}
@@ -20,22 +20,32 @@ import sun.nio.ch.DirectBuffer;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 /**
  * 文件格式为：0 到多个 Block 序列。读写支持 NIO，堆外内存和流两种方式。
  * 单个 Block 格式为：<blockSize 8-Byte> + <dataSize 8-Byte> + <data bytes n-Byte>
+ * <p>Block 头和数据的读取优先走只读的内存映射区，映射区之外新追加的尾部数据使用定位读（不移动文件指针）。
+ * 映射区在 close 时主动释放，定位读和 close 之间通过读写锁互斥，因此 close 不会释放一个正在被读取的映射区。</p>
  * @version : 2018年5月7日
  * @author 赵永春 (zyc@hasor.net)
  */
 public class BlockFileAdapter {
-    private static final long             DEL_MASK       = 0x8000000000000000L;
-    private static final long             NORMAL_MASK    = 0x7FFFFFFFFFFFFFFFL;
-    private              File             blockFileName  = null;
-    private              RandomAccessFile ioAccessFile   = null;
-    private              FileChannel      isFileChannel  = null;
-    private              AtomicLong       curentStreamID = null;
-    private              Block            curentBlock    = null;
+    private static final long                   DEL_MASK       = 0x8000000000000000L;
+    private static final long                   NORMAL_MASK    = 0x7FFFFFFFFFFFFFFFL;
+    private static final long                   REMAP_STEP     = 4 * 1024 * 1024;              // 未映射的尾部超过 4M 时重新映射
+    private              File                   blockFileName  = null;
+    private              RandomAccessFile       ioAccessFile   = null;
+    private              FileChannel            isFileChannel  = null;
+    private              AtomicLong             curentStreamID = null;
+    private              Block                  curentBlock    = null;
+    private volatile     MappedByteBuffer       mappedBuffer   = null;                         // 只读映射区，覆盖文件 [0, mappedLimit)
+    private volatile     long                   mappedLimit    = 0;
+    private final        Object                 mappedLock     = new Object();
+    private final        ReentrantReadWriteLock closeLock      = new ReentrantReadWriteLock(); // 定位读持有读锁，close 持有写锁
+    private volatile     boolean                closed         = false;
     //
     //
     public BlockFileAdapter(File blockFileName) throws IOException {
@@ -170,9 +180,8 @@ public class BlockFileAdapter {
         }
         //
         long blockPosition = this.ioFilePointer();
-        long blockSize = this.ioReadLong();  // BlockSize（预读8个字节）
-        long dataSize = this.ioReadLong();   // DataSize （预读8个字节）
-        ioSeekTo(blockPosition);             // 回退预读的字节的指针
+        long blockSize = this.ioReadLong(blockPosition);     // BlockSize（定位读，不移动文件指针）
+        long dataSize = this.ioReadLong(blockPosition + 8);  // DataSize
         //
         // .create structure of the Block
         boolean invalid = blockSize < 0;
@@ -245,6 +254,63 @@ public class BlockFileAdapter {
         }
         throw new IOException("getInputStream failed.");
     }
+    /** 读取 Block 的数据部分，返回的 ByteBuffer 为只读。该方法不占用读写流，也不移动文件指针，可以被多线程并发调用。
+     * 返回的 ByteBuffer 可能直接引用映射区，close 之后不能再使用。 */
+    public ByteBuffer readData(Block block) throws IOException {
+        if (block == null || block.isInvalid() || block.isEof()) {
+            return null;
+        }
+        long dataSize = block.getDataSize();
+        if (dataSize > Integer.MAX_VALUE) {
+            throw new IOException("data size " + dataSize + " out of limit.");
+        }
+        return ioReadBuffer(block.getPosition() + Block.HEAD_LENGTH, (int) dataSize);
+    }
+    //
+    /** 以追加的方式批量写入多个 Block，所有 Block 通过一次 IO 写入文件尾部。返回的 Block 顺序和 dataArrays 一致。 */
+    public Block[] appendBlocks(ByteBuffer[] dataArrays) throws IOException {
+        this.releaseStream();
+        long endPosition = this.fileSize();
+        int totalSize = 0;
+        for (ByteBuffer data : dataArrays) {
+            totalSize += Block.HEAD_LENGTH + data.remaining();
+        }
+        //
+        Block[] blocks = new Block[dataArrays.length];
+        ByteBuffer writeBuffer = ByteBuffer.allocate(totalSize);
+        long position = endPosition;
+        for (int i = 0; i < dataArrays.length; i++) {
+            int dataSize = dataArrays[i].remaining();
+            writeBuffer.putLong(dataSize);
+            writeBuffer.putLong(dataSize);
+            writeBuffer.put(dataArrays[i].duplicate());
+            blocks[i] = new Block(position, dataSize, dataSize, false, false);
+            position += Block.HEAD_LENGTH + dataSize;
+        }
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            endPosition += this.isFileChannel.write(writeBuffer, endPosition);
+        }
+        return blocks;
+    }
+    //
+    /** 截断文件，丢弃 fromPosition 之后的所有数据（用于修复意外中断造成的不完整尾部）*/
+    public void truncate(long fromPosition) throws IOException {
+        this.releaseStream();
+        synchronized (this.mappedLock) {
+            this.mappedLimit = 0;
+            this.mappedBuffer = null;
+        }
+        this.curentBlock = null;
+        this.ioAccessFile.setLength(fromPosition);
+        this.ioSeekTo(0);
+    }
+    //
+    /** 将所有写入的数据强制刷到磁盘上 */
+    public void sync() throws IOException {
+        this.isFileChannel.force(false);
+    }
+    //
     /** 删除 Block */
     public boolean deleteBlock(Block block) throws IOException {
         if (block == null) {
@@ -682,8 +748,97 @@ public class BlockFileAdapter {
     private void ioExtendSize(long addSize) throws IOException {
         ioAccessFile.setLength(ioAccessFile.length() + addSize);
     }
+    // - 等待正在进行的定位读结束之后再释放映射区，之后的定位读会得到 IOException。
     private void ioClose() throws IOException {
-        this.ioAccessFile.close();
+        this.closeLock.writeLock().lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            synchronized (this.mappedLock) {
+                MappedByteBuffer mapped = this.mappedBuffer;
+                this.mappedLimit = 0;
+                this.mappedBuffer = null;
+                if (mapped instanceof DirectBuffer) {
+                    Cleaner cleaner = ((DirectBuffer) mapped).cleaner();
+                    if (cleaner != null) {
+                        cleaner.clean();
+                    }
+                }
+            }
+            this.ioAccessFile.close();
+        } finally {
+            this.closeLock.writeLock().unlock();
+        }
+    }
+    private void checkClosed() throws IOException {
+        if (this.closed) {
+            throw new IOException("block file " + this.blockFileName.getName() + " is closed.");
+        }
+    }
+    private long ioReadLong(long position) throws IOException {
+        this.closeLock.readLock().lock();
+        try {
+            this.checkClosed();
+            MappedByteBuffer mapped = this.ioMapped(position, 8);
+            if (mapped != null) {
+                return mapped.getLong((int) position);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            this.ioReadFully(buffer, position);
+            return buffer.getLong(0);
+        } finally {
+            this.closeLock.readLock().unlock();
+        }
+    }
+    private ByteBuffer ioReadBuffer(long position, int length) throws IOException {
+        this.closeLock.readLock().lock();
+        try {
+            this.checkClosed();
+            MappedByteBuffer mapped = this.ioMapped(position, length);
+            if (mapped != null) {
+                ByteBuffer dup = mapped.duplicate();
+                dup.limit((int) position + length);
+                dup.position((int) position);
+                return dup.slice().asReadOnlyBuffer();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            this.ioReadFully(buffer, position);
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        } finally {
+            this.closeLock.readLock().unlock();
+        }
+    }
+    private void ioReadFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = this.isFileChannel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("read position " + position + " out of file.");
+            }
+            position += read;
+        }
+    }
+    // - 获取能够覆盖 [position, position + length) 的映射区，不能覆盖时返回 null。
+    //   旧的映射区不主动释放（可能仍有读者在使用），交给 GC 回收。
+    private MappedByteBuffer ioMapped(long position, int length) throws IOException {
+        long endPosition = position + length;
+        if (endPosition <= this.mappedLimit) {
+            return this.mappedBuffer;
+        }
+        synchronized (this.mappedLock) {
+            if (endPosition <= this.mappedLimit) {
+                return this.mappedBuffer;
+            }
+            long fileSize = Math.min(this.ioFileSize(), Integer.MAX_VALUE);
+            if (endPosition > fileSize || (this.mappedBuffer != null && fileSize - this.mappedLimit < REMAP_STEP)) {
+                return null;
+            }
+            this.mappedBuffer = this.isFileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            this.mappedLimit = fileSize;
+            return this.mappedBuffer;
+        }
     }
     private void ioSyncBuffer() throws IOException {
         //
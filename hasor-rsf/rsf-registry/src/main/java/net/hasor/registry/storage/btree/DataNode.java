@@ -23,6 +23,10 @@ public class DataNode extends Node {
     public DataNode(long dataKey) {
         super(dataKey);
     }
+    public DataNode(long dataKey, long position) {
+        super(dataKey);
+        this.setPosition(position);
+    }
     /** 返回是否为数据节点，DataNode 始终为 true */
     @Override
     public boolean isData() {
@@ -23,10 +23,17 @@ public class ResultSlice {
     private int   parentSlice = -1;    // 父亲 Slice
     private Slice atSlice     = null;    // 所处 Slice
     private int   atPosition  = 0;       // 位于 Slice 的位置
+    private int[] pathSlices  = null;    // 从树根到父亲 Slice 的路径
+    private int[] pathIndexes = null;    // 路径上每一层所选择的子节点位置
     ResultSlice(int parentSlice, Slice atSlice, int atPosition) {
+        this(parentSlice, atSlice, atPosition, new int[0], new int[0]);
+    }
+    ResultSlice(int parentSlice, Slice atSlice, int atPosition, int[] pathSlices, int[] pathIndexes) {
         this.parentSlice = parentSlice;
         this.atSlice = atSlice;
         this.atPosition = atPosition;
+        this.pathSlices = pathSlices;
+        this.pathIndexes = pathIndexes;
     }
     //
     /**所处 Slice*/
@@ -40,4 +47,10 @@ public class ResultSlice {
     public int getAtPosition() {
         return this.atPosition;
     }
+    int[] getPathSlices() {
+        return this.pathSlices;
+    }
+    int[] getPathIndexes() {
+        return this.pathIndexes;
+    }
 }
\ No newline at end of file
@@ -25,14 +25,21 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 /**
  * B-Tree 索引操作类，保存机制为 copy on write。
+ * <p>树的结构为 B+Tree：数据节点都位于叶子 Slice 上，非叶子 Slice 上的 TreeNode 记录子树中最大的 key。
+ * 解码后的 Slice 保存在 LRU 页缓存中，修改过的 Slice 只做脏标记，在 submitToFile 或者被淘汰时才写入文件。</p>
  * @version : 2018年5月28日
  * @author 赵永春 (zyc@hasor.net)
  */
 public class SliceAdapter {
-    protected static Logger           logger = LoggerFactory.getLogger(SliceAdapter.class);
+    protected static Logger           logger             = LoggerFactory.getLogger(SliceAdapter.class);
+    public static final int           DEFAULT_CACHE_SIZE = 4096;
     private          int              entryPoint;           // 入口点
     private          ByteBuffer       slicePool;            // slice 使用状态池，所有 bit状态位的总数等于 maxEchoSequence
     private          ByteBuffer       slicePositionPool;    // slice 数据块所在真实位置
@@ -41,10 +48,12 @@ public class SliceAdapter {
     private          int              sliceSize;            // 切块大小
     private          int              maxEchoSequence;      // slice 编号分配采用自旋序列，这个值是旋转的最大上限
     private          int              echoSequence;         // 当前自旋值
+    private          SliceCache       sliceCache;           // 页缓存
     //
     //
     //
     private SliceAdapter() {
+        this.sliceCache = new SliceCache(DEFAULT_CACHE_SIZE);
     }
     //
     // ------------------------------------------------------------------------------------------------------ Block 存储和回收
@@ -122,8 +131,28 @@ public class SliceAdapter {
         this.fileAdapter.close();
     }
     //
-    /** 递交所有操作到磁盘上（其实就是把头信息保存到磁盘上）*/
+    /** 设置页缓存可以容纳的 Slice 数量，缩小容量时多出来的 Slice 会被淘汰（脏 Slice 会先写入文件）*/
+    public void setCacheSize(int cacheSize) {
+        this.sliceCache.setCapacity(cacheSize);
+    }
+    //
+    /** 递交所有操作到磁盘上（先写入所有的脏 Slice，然后把头信息保存到磁盘上）*/
     public void submitToFile() throws IOException {
+        //
+        // 写入脏 Slice（按照 SliceID 排序，保证写入顺序稳定）
+        List<Integer> dirtyList = new ArrayList<Integer>();
+        for (Map.Entry<Integer, CachedSlice> entry : this.sliceCache.entrySet()) {
+            if (entry.getValue().dirty) {
+                dirtyList.add(entry.getKey());
+            }
+        }
+        Integer[] dirtyArrays = dirtyList.toArray(new Integer[dirtyList.size()]);
+        Arrays.sort(dirtyArrays);
+        for (Integer sliceID : dirtyArrays) {
+            CachedSlice cached = this.sliceCache.get(sliceID);
+            this.writeSlice(cached.slice);
+            cached.dirty = false;
+        }
         //
         // 判断 headerVersion 来确定，主次版本
         Block block = this.fileAdapter.firstBlock();
@@ -168,7 +197,7 @@ public class SliceAdapter {
         this.deleteBlock.add(position);
     }
     //
-    // - 读取 Block 数据
+    // - 读取 Block 数据（走 BlockFileAdapter 的内存映射区）
     private ByteBuffer readBlock(long position) {
         try {
             Block block = this.fileAdapter.findBlock(position);
@@ -179,11 +208,7 @@ public class SliceAdapter {
                 throw new NoDataException("position " + position + " data is invalid.");
             }
             //
-            BlockChannel blockChannel = this.fileAdapter.getBlockChannel(block);
-            ByteBuffer allocate = ByteBuffer.allocate((int) block.getDataSize());
-            blockChannel.read(allocate);
-            blockChannel.close();
-            return allocate;
+            return this.fileAdapter.readData(block);
             //
         } catch (Exception e) {
             throw ExceptionUtils.toRuntimeException(e);
@@ -207,7 +232,7 @@ public class SliceAdapter {
     //
     // ------------------------------------------------------------------------------------------------------ Slice 存储和回收
     //
-    // - 分配一个 Slice ID
+    // - 分配一个 Slice ID（新分配的 Slice 在文件上没有数据，位置记为 0）
     private int requestNewSliceID() {
         int counter = 0;
         while (true) {
@@ -221,6 +246,7 @@ public class SliceAdapter {
             //
             if (byteValue == (byte) (byteValue | (1 << bitIndex))) {
                 this.slicePool.put(byteIndex, (byte) (byteValue & ~(1 << bitIndex)));
+                this.setSlicePosition(curSequence, 0);
                 return curSequence;
             }
             // .如果计数器到了上限，那么抛出异常：没有富裕的 Slice
@@ -239,9 +265,12 @@ public class SliceAdapter {
         int bitIndex = sliceID % 8;
         byte byteValue = this.slicePool.get(byteIndex);
         this.slicePool.put(byteIndex, (byte) (byteValue | (1 << bitIndex)));
+        this.sliceCache.remove(sliceID);
         // - 删除区块
         long position = this.getSlicePosition(sliceID);
-        this.deleteBlock(position);
+        if (position > 0) {
+            this.deleteBlock(position);
+        }
     }
     //
     // - 强制获取某个 Slice 的数据位置（该 Slice 有可能未被分配或者已经被释放）
@@ -276,8 +305,13 @@ public class SliceAdapter {
         this.entryPoint = entryPoint;
     }
     //
-    /** 根据 sliceID 获取 Slice */
+    /** 根据 sliceID 获取 Slice（优先从页缓存中获取）*/
     public Slice getSlice(int sliceID) {
+        CachedSlice cached = this.sliceCache.get(sliceID);
+        if (cached != null) {
+            return cached.slice;
+        }
+        //
         // .根据 sliceID 计算slicePosition位置，然后取出 slice 的 Position
         long positionLong = this.getSlicePosition(sliceID);
         ByteBuffer byteBuffer = this.readBlock(positionLong);
@@ -285,7 +319,6 @@ public class SliceAdapter {
             return null;
         }
         //
-        byteBuffer.flip();
         int dat_sliceID = byteBuffer.getInt();
         Slice slice = new Slice();
         slice.setSliceID(dat_sliceID);
@@ -298,16 +331,27 @@ public class SliceAdapter {
             if (dataPosition < 0) {
                 dataArray[i] = new TreeNode(dataKey, (int) (dataPosition & 0x7FFFFFFFFFFFFFFFL));
             } else {
-                dataArray[i] = new DataNode(dataKey);
-                dataArray[i].setPosition(dataPosition);
+                dataArray[i] = new DataNode(dataKey, dataPosition);
             }
         }
         slice.setChildrensKeys(dataArray);
+        this.sliceCache.put(sliceID, new CachedSlice(slice, false));
         return slice;
     }
     //
-    /** 保存 Slice 返回数据存储的位置，保存机制为 copy on write。 */
+    /** 保存 Slice，Slice 只在页缓存中标记为脏，真正的写入发生在 submitToFile 或者被淘汰时。 */
     protected long storeSlice(Slice sliceData) {
+        CachedSlice cached = this.sliceCache.get(sliceData.getSliceID());
+        if (cached != null && cached.slice == sliceData) {
+            cached.dirty = true;
+        } else {
+            this.sliceCache.put(sliceData.getSliceID(), new CachedSlice(sliceData, true));
+        }
+        return sliceData.getSliceID();
+    }
+    //
+    // - 写入 Slice 到文件，保存机制为 copy on write：新数据写到新的 Block 上，旧的 Block 在 commit 环节删除。
+    private void writeSlice(Slice sliceData) {
         // .计算 Slice 所需长度 (最大不过 512K)
         int dataLength = sliceData.getChildrensKeys().length * 16 + 6; // Node length is long + long = 8 + 8
         //
@@ -327,149 +371,230 @@ public class SliceAdapter {
         }
         // .保存到 Block ,并更新索引元信息
         long dataPosition = this.writeBlock(writeBuffer);
+        long oldPosition = this.getSlicePosition(sliceData.getSliceID());
+        if (oldPosition > 0) {
+            this.deleteBlock(oldPosition);
+        }
         this.setSlicePosition(sliceData.getSliceID(), dataPosition);
-        //
-        return sliceData.getSliceID();
     }
     //
-    /** 根据 hashKey 查找所处 Slice，或最接近的 Slice。 */
+    // - 二分查找，返回第一个 key 大于等于 hashKey 的位置，都小于 hashKey 时返回 nodes.length
+    private static int lowerBound(Node[] nodes, long hashKey) {
+        int low = 0;
+        int high = nodes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (nodes[mid].getDataKey() < hashKey) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    private static boolean isLeaf(Node[] nodes) {
+        return nodes.length == 0 || nodes[0].isData();
+    }
+    //
+    /** 根据 hashKey 查找所处叶子 Slice，以及在 Slice 中的位置（或者应该插入的位置）。 */
     public ResultSlice nearSlice(long hashKey) {
-        Slice slice = this.getEntryPoint();
-        return nearSlice(hashKey, slice, 0, -1);
+        Slice atSlice = this.getEntryPoint();
+        int[] pathSlices = new int[8];
+        int[] pathIndexes = new int[8];
+        int depth = 0;
+        while (true) {
+            Node[] childrensNodes = atSlice.getChildrensKeys();
+            int position = lowerBound(childrensNodes, hashKey);
+            if (isLeaf(childrensNodes)) {
+                int parentSliceID = (depth == 0) ? -1 : pathSlices[depth - 1];
+                return new ResultSlice(parentSliceID, atSlice, position,//
+                        Arrays.copyOf(pathSlices, depth), Arrays.copyOf(pathIndexes, depth));
+            }
+            // .比所有的 key 都大时，进入最右侧的子树
+            if (position == childrensNodes.length) {
+                position = childrensNodes.length - 1;
+            }
+            if (depth == pathSlices.length) {
+                pathSlices = Arrays.copyOf(pathSlices, depth * 2);
+                pathIndexes = Arrays.copyOf(pathIndexes, depth * 2);
+            }
+            pathSlices[depth] = atSlice.getSliceID();
+            pathIndexes[depth] = position;
+            depth++;
+            atSlice = this.getSlice((int) childrensNodes[position].getPosition());
+        }
     }
     //
-    // - 根据 hashKey 查找最接近的 Slice 并以 ResultSlice 方式返回
-    private ResultSlice nearSlice(long hashKey, Slice atSlice, int positionOfatSlice, int parentSliceID) {
-        // .已经是叶子节点了，不可能在遍历了
-        Node[] childrensNodes = atSlice.getChildrensKeys();
-        if (childrensNodes.length == 0) {
-            return new ResultSlice(parentSliceID, atSlice, positionOfatSlice);
+    /** 查找 hashKey 对应的数据节点，不存在返回 null */
+    public DataNode findData(long hashKey) {
+        ResultSlice resultSlice = this.nearSlice(hashKey);
+        Node[] childrensNodes = resultSlice.getAtSlice().getChildrensKeys();
+        int atPosition = resultSlice.getAtPosition();
+        if (atPosition < childrensNodes.length && childrensNodes[atPosition].getDataKey() == hashKey) {
+            return (DataNode) childrensNodes[atPosition];
         }
-        //
-        for (int i = 0; i < childrensNodes.length; i++) {
-            Node itemNode = childrensNodes[i];
-            // 小于itemKey，证明 hashKey 应该放在这个分支下
-            if (hashKey < itemNode.getDataKey()) {
-                if (!itemNode.isData()) {
-                    Slice itemSlice = this.getSlice((int) itemNode.getPosition());
-                    return nearSlice(hashKey, itemSlice, i, atSlice.getSliceID()); // itemSlice 没有子节点
+        return null;
+    }
+    //
+    /** 按顺序返回 key 位于 [fromKey, toKey] 之间的所有数据节点 */
+    public List<DataNode> scanData(long fromKey, long toKey) {
+        List<DataNode> resultList = new ArrayList<DataNode>();
+        if (fromKey <= toKey) {
+            this.scanData(this.getEntryPoint(), fromKey, toKey, resultList);
+        }
+        return resultList;
+    }
+    private void scanData(Slice atSlice, long fromKey, long toKey, List<DataNode> resultList) {
+        Node[] childrensNodes = atSlice.getChildrensKeys();
+        boolean isLeaf = isLeaf(childrensNodes);
+        for (int i = lowerBound(childrensNodes, fromKey); i < childrensNodes.length; i++) {
+            Node node = childrensNodes[i];
+            if (isLeaf) {
+                if (node.getDataKey() > toKey) {
+                    return;
+                }
+                resultList.add((DataNode) node);
+            } else {
+                this.scanData(this.getSlice((int) node.getPosition()), fromKey, toKey, resultList);
+                if (node.getDataKey() >= toKey) {
+                    return; // 子树中最大的 key 已经超出范围
                 }
-                return new ResultSlice(parentSliceID, atSlice, i);
-            }
-            // 等于，命中 atSlice 就是要找的
-            if (itemNode.getDataKey() == hashKey) {
-                return new ResultSlice(parentSliceID, atSlice, i);
             }
         }
-        //
-        // .最右侧的数据都比 hashKey 小，那说明只能添加到 atSlice 上
-        return new ResultSlice(parentSliceID, atSlice, childrensNodes.length);
     }
     //
-    /** 插入数据到索引中 */
+    /** 插入数据到索引中，相同 key 的数据会被替换 */
     public ResultSlice insertData(DataNode dataSlice) throws IOException {
         // .找到最近的 Slice
-        ResultSlice resultSlice = this.nearSlice(dataSlice.getDataKey());
+        long hashKey = dataSlice.getDataKey();
+        ResultSlice resultSlice = this.nearSlice(hashKey);
         Slice atSlice = resultSlice.getAtSlice();
         int atPosition = resultSlice.getAtPosition();
-        //
         Node[] childrensNodes = atSlice.getChildrensKeys();
-        Node[] new_childrensNodes = new Node[childrensNodes.length + 1];
         //
-        new_childrensNodes[atPosition] = dataSlice;
+        // .已经存在，替换数据
+        if (atPosition < childrensNodes.length && childrensNodes[atPosition].getDataKey() == hashKey) {
+            childrensNodes[atPosition] = dataSlice;
+            this.storeSlice(atSlice);
+            return resultSlice;
+        }
         //
+        Node[] new_childrensNodes = new Node[childrensNodes.length + 1];
         System.arraycopy(childrensNodes, 0, new_childrensNodes, 0, atPosition);
+        new_childrensNodes[atPosition] = dataSlice;
         System.arraycopy(childrensNodes, atPosition, new_childrensNodes, atPosition + 1, childrensNodes.length - atPosition);
         atSlice.setChildrensKeys(new_childrensNodes);
-        //
-        return splitAndStore(resultSlice, this.sliceSize);
-    }
-    //
-    // - 将 treeNode 插入到 parentSlice 所表示的 parent 中。
-    private void insertToParent(TreeNode treeNode, Slice parentSlice, int parentSliceID) {
-        Node[] childrensNodes = parentSlice.getChildrensKeys();
-        int atPosition = -1;
-        for (int i = 0; i < childrensNodes.length; i++) {
-            atPosition = i;
-            Node itemNode = childrensNodes[i];
-            if (treeNode.getDataKey() < itemNode.getDataKey()) {
-                break;
+        this.storeSlice(atSlice);
+        //
+        // .成为了子树中最大的 key，沿路径更新父 Slice 上的 TreeNode
+        int[] pathSlices = resultSlice.getPathSlices();
+        int[] pathIndexes = resultSlice.getPathIndexes();
+        if (atPosition == childrensNodes.length) {
+            for (int depth = pathSlices.length - 1; depth >= 0; depth--) {
+                Slice parentSlice = this.getSlice(pathSlices[depth]);
+                Node[] parentNodes = parentSlice.getChildrensKeys();
+                Node treeNode = parentNodes[pathIndexes[depth]];
+                if (treeNode.getDataKey() >= hashKey) {
+                    break;
+                }
+                parentNodes[pathIndexes[depth]] = new TreeNode(hashKey, (int) treeNode.getPosition());
+                this.storeSlice(parentSlice);
             }
         }
         //
-        Node[] new_childrensNodes = new Node[childrensNodes.length + 1];
-        new_childrensNodes[atPosition] = treeNode;
-        //
-        System.arraycopy(childrensNodes, 0, new_childrensNodes, 0, atPosition);
-        System.arraycopy(childrensNodes, atPosition, new_childrensNodes, atPosition + 1, childrensNodes.length - atPosition);
-        //
-        parentSlice.setChildrensKeys(new_childrensNodes);
-        //
-        splitAndStore(new ResultSlice(parentSliceID, parentSlice, atPosition), this.sliceSize);
+        if (new_childrensNodes.length <= this.sliceSize) {
+            return resultSlice;
+        }
+        this.splitAndStore(atSlice, pathSlices, pathIndexes);
+        return this.nearSlice(hashKey);
     }
     //
-    // - 根据分裂因子进行分裂，分裂后返回依据的父节点
-    private ResultSlice splitAndStore(ResultSlice sliceResult, int maxRecord) {
-        //
-        // .容量还够的情况下不进行分裂
-        Slice slice = sliceResult.getAtSlice();
-        Node[] childrens = slice.getChildrensKeys();
-        if (childrens.length <= maxRecord || maxRecord < 1) {
-            this.storeSlice(sliceResult.getAtSlice());
-            return sliceResult;
-        }
-        // .查找切分点
-        int splitPoint = childrens.length / 2;
-        //
-        // .切分数据
-        Node[] leftKeys = new Node[splitPoint];
-        System.arraycopy(childrens, 0, leftKeys, 0, leftKeys.length);
-        Slice leftSlice = new Slice();
-        leftSlice.setChildrensKeys(leftKeys);
-        leftSlice.setSliceID(this.requestNewSliceID());
-        //
-        Node[] rightKeys = new Node[childrens.length - splitPoint];
-        System.arraycopy(childrens, leftKeys.length, rightKeys, 0, rightKeys.length);
-        Slice rightSlice = new Slice();
-        rightSlice.setChildrensKeys(rightKeys);
-        rightSlice.setSliceID(this.requestNewSliceID());
-        //
-        // .重新计算 sliceResult
-        if (sliceResult.getAtPosition() < splitPoint) {
-            sliceResult = new ResultSlice(sliceResult.getParentSlice(), leftSlice, sliceResult.getAtPosition());
-        } else {
-            sliceResult = new ResultSlice(sliceResult.getParentSlice(), rightSlice, sliceResult.getAtPosition() - splitPoint);
-        }
-        //
-        // .决定是否增加树的高度
-        if (sliceResult.getParentSlice() < 0) {
-            // - 新的树根
-            Slice newParent = new Slice();
-            newParent.setSliceID(this.requestNewSliceID());
-            TreeNode leftNode = new TreeNode(leftKeys[leftKeys.length - 1].getDataKey(), leftSlice.getSliceID());
-            TreeNode rightNode = new TreeNode(rightKeys[rightKeys.length - 1].getDataKey(), rightSlice.getSliceID());
-            newParent.setChildrensKeys(new Node[] { leftNode, rightNode, });
+    // - 根据分裂因子自底向上进行分裂。分裂后右半部分沿用原来的 SliceID，因此父 Slice 上原有的 TreeNode 依然有效，
+    //   只需要在它前面插入左半部分的 TreeNode。
+    private void splitAndStore(Slice slice, int[] pathSlices, int[] pathIndexes) {
+        int depth = pathSlices.length - 1;
+        while (slice.getChildrensKeys().length > this.sliceSize) {
+            Node[] childrens = slice.getChildrensKeys();
+            int splitPoint = childrens.length / 2;
             //
+            // .切分数据
+            Node[] leftKeys = Arrays.copyOfRange(childrens, 0, splitPoint);
+            Node[] rightKeys = Arrays.copyOfRange(childrens, splitPoint, childrens.length);
+            Slice leftSlice = new Slice();
+            leftSlice.setSliceID(this.requestNewSliceID());
+            leftSlice.setChildrensKeys(leftKeys);
+            slice.setChildrensKeys(rightKeys);
             this.storeSlice(leftSlice);
-            this.storeSlice(rightSlice);
-            this.storeSlice(newParent);
+            this.storeSlice(slice);
+            TreeNode leftNode = new TreeNode(leftKeys[leftKeys.length - 1].getDataKey(), leftSlice.getSliceID());
+            //
+            // .树根分裂，增加树的高度
+            if (depth < 0) {
+                Slice newParent = new Slice();
+                newParent.setSliceID(this.requestNewSliceID());
+                TreeNode rightNode = new TreeNode(rightKeys[rightKeys.length - 1].getDataKey(), slice.getSliceID());
+                newParent.setChildrensKeys(new Node[] { leftNode, rightNode });
+                this.storeSlice(newParent);
+                this.updataEntryPoint(newParent.getSliceID());
+                return;
+            }
             //
-            this.updataEntryPoint(newParent.getSliceID());
-            this.releaseSlice(slice.getSliceID());
+            // .向父 Slice 插入左半部分
+            Slice parentSlice = this.getSlice(pathSlices[depth]);
+            Node[] parentNodes = parentSlice.getChildrensKeys();
+            int atPosition = pathIndexes[depth];
+            Node[] new_parentNodes = new Node[parentNodes.length + 1];
+            System.arraycopy(parentNodes, 0, new_parentNodes, 0, atPosition);
+            new_parentNodes[atPosition] = leftNode;
+            System.arraycopy(parentNodes, atPosition, new_parentNodes, atPosition + 1, parentNodes.length - atPosition);
+            parentSlice.setChildrensKeys(new_parentNodes);
+            this.storeSlice(parentSlice);
             //
-            return sliceResult;
+            slice = parentSlice;
+            depth--;
+        }
+    }
+    //
+    // ------------------------------------------------------------------------------------------------------ 页缓存
+    //
+    private static class CachedSlice {
+        private final Slice   slice;
+        private       boolean dirty;
+        public CachedSlice(Slice slice, boolean dirty) {
+            this.slice = slice;
+            this.dirty = dirty;
+        }
+    }
+    //
+    // - LRU 页缓存，淘汰脏 Slice 时先写入文件
+    private class SliceCache extends LinkedHashMap<Integer, CachedSlice> {
+        private int capacity;
+        public SliceCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+        public void setCapacity(int capacity) {
+            this.capacity = Math.max(capacity, 16);
+            Iterator<Map.Entry<Integer, CachedSlice>> iterator = this.entrySet().iterator();
+            while (this.size() > this.capacity && iterator.hasNext()) {
+                CachedSlice cached = iterator.next().getValue();
+                iterator.remove();
+                evict(cached);
+            }
+        }
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CachedSlice> eldest) {
+            if (this.size() <= this.capacity) {
+                return false;
+            }
+            evict(eldest.getValue());
+            return true;
+        }
+        private void evict(CachedSlice cached) {
+            if (cached.dirty) {
+                writeSlice(cached.slice);
+                cached.dirty = false;
+            }
         }
-        //
-        // .不需要增加树的高度，那么向父 Slice 插入数据
-        rightSlice.setSliceID(slice.getSliceID());
-        this.storeSlice(leftSlice);
-        this.storeSlice(rightSlice);
-        this.insertToParent(//
-                new TreeNode(leftKeys[leftKeys.length - 1].getDataKey(), leftSlice.getSliceID()),//
-                this.getSlice(sliceResult.getParentSlice()),//
-                sliceResult.getParentSlice()//
-        );
-        //
-        return sliceResult;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.registry.storage.wal;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+/**
+ * 一条数据变更记录，同时也是数据文件中 Block 的存储格式。
+ * 格式为：<crc32 4-Byte> + <sequence 8-Byte> + <operation 1-Byte> + <tags 8-Byte> + <dataKey> + <dataValue>，
+ * 字符串以 <length 4-Byte> + <UTF-8 bytes> 存储，length 为 -1 表示 null。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class LogRecord {
+    public static final  byte    OP_WRITE  = 1; // 写入数据
+    public static final  byte    OP_LINK   = 2; // 写入链接，dataValue 为链接目标
+    public static final  byte    OP_DELETE = 3; // 删除数据
+    private static final Charset UTF8      = Charset.forName("UTF-8");
+    private              long    sequence;
+    private              byte    operation;
+    private              long    tags;
+    private              String  dataKey;
+    private              String  dataValue;
+    //
+    public LogRecord(byte operation, String dataKey, String dataValue, long tags) {
+        this.operation = operation;
+        this.dataKey = dataKey;
+        this.dataValue = dataValue;
+        this.tags = tags;
+    }
+    //
+    /** 记录序号，由 WriteAheadLog 在写入时分配，全局单调递增 */
+    public long getSequence() {
+        return this.sequence;
+    }
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+    public byte getOperation() {
+        return this.operation;
+    }
+    public long getTags() {
+        return this.tags;
+    }
+    public String getDataKey() {
+        return this.dataKey;
+    }
+    public String getDataValue() {
+        return this.dataValue;
+    }
+    //
+    /** 编码记录，返回的 ByteBuffer 已经 flip 可以直接读取 */
+    public ByteBuffer encode() {
+        byte[] keyBytes = (this.dataKey == null) ? null : this.dataKey.getBytes(UTF8);
+        byte[] valueBytes = (this.dataValue == null) ? null : this.dataValue.getBytes(UTF8);
+        int length = 4 + 8 + 1 + 8 + 4 + 4;
+        length += (keyBytes == null) ? 0 : keyBytes.length;
+        length += (valueBytes == null) ? 0 : valueBytes.length;
+        //
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(0);   // crc 占位
+        buffer.putLong(this.sequence);
+        buffer.put(this.operation);
+        buffer.putLong(this.tags);
+        putBytes(buffer, keyBytes);
+        putBytes(buffer, valueBytes);
+        //
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.array(), 4, length - 4);
+        buffer.putInt(0, (int) crc32.getValue());
+        buffer.flip();
+        return buffer;
+    }
+    //
+    /** 解码记录，数据不完整或者校验失败时抛出 IOException */
+    public static LogRecord decode(ByteBuffer buffer) throws IOException {
+        try {
+            buffer = buffer.slice();
+            int length = buffer.remaining();
+            byte[] data = new byte[length];
+            buffer.get(data);
+            CRC32 crc32 = new CRC32();
+            crc32.update(data, 4, length - 4);
+            //
+            ByteBuffer dataBuffer = ByteBuffer.wrap(data);
+            if (dataBuffer.getInt() != (int) crc32.getValue()) {
+                throw new IOException("record checksum failed.");
+            }
+            long sequence = dataBuffer.getLong();
+            byte operation = dataBuffer.get();
+            long tags = dataBuffer.getLong();
+            String dataKey = getString(dataBuffer);
+            String dataValue = getString(dataBuffer);
+            //
+            LogRecord record = new LogRecord(operation, dataKey, dataValue, tags);
+            record.setSequence(sequence);
+            return record;
+        } catch (RuntimeException e) {
+            throw new IOException("bad record, " + e.getMessage(), e);
+        }
+    }
+    //
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, UTF8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+    //
+    @Override
+    public String toString() {
+        return "LogRecord{sequence=" + this.sequence + //
+                ", operation=" + this.operation + //
+                ", tags=" + this.tags + //
+                ", dataKey=" + this.dataKey + //
+                '}';
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hasor.registry.storage.wal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+/**
+ * 追加写的预写日志。日志由多个分段文件组成（00000001.wal、00000002.wal ...），
+ * 每条记录的格式为：<length 4-Byte> + <LogRecord>。
+ * <p>写入分为两步：{@link #write(LogRecord[])} 分配序号并放入待刷盘队列，{@link #sync(long)} 等待数据落盘。
+ * 多个线程并发 sync 时，最先到达的线程负责把队列中所有的数据一次写入并 force，其余线程等待即可（group commit）。</p>
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class WriteAheadLog {
+    protected static Logger          logger       = LoggerFactory.getLogger(WriteAheadLog.class);
+    private static final String      SEGMENT_EXT  = ".wal";
+    private final        File        logDir;
+    private final        Object      lock         = new Object();
+    private              List<File>  rolledFiles  = new ArrayList<File>();
+    private              File        segmentFile  = null;
+    private              FileChannel segment      = null;
+    private              long        segmentSize  = 0;
+    private              int         segmentIndex = 0;
+    //
+    private              long        sequence     = 0;      // 最后分配的记录序号
+    private              long        writeTicket  = 0;      // 最后一次 write 的票据
+    private              long        syncedTicket = 0;      // 已经落盘的票据
+    private              boolean     flushing     = false;  // 是否有线程正在刷盘
+    private              IOException failure      = null;   // 刷盘失败之后日志不再可用
+    private              List<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+    //
+    public WriteAheadLog(File logDir) {
+        this.logDir = logDir;
+    }
+    //
+    /** 按顺序重放目录中所有的日志分段，返回遇到的最大记录序号。遇到不完整或损坏的记录时停止重放，之后的数据会被丢弃。 */
+    public long replay(ReplayHandler handler) throws IOException {
+        long maxSequence = 0;
+        for (File file : this.listSegments()) {
+            RandomAccessFile accessFile = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = accessFile.getChannel();
+                long position = 0;
+                long fileSize = channel.size();
+                ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+                while (position + 4 <= fileSize) {
+                    lengthBuffer.clear();
+                    readFully(channel, lengthBuffer, position);
+                    int length = lengthBuffer.getInt(0);
+                    if (length <= 0 || position + 4 + length > fileSize) {
+                        break;
+                    }
+                    ByteBuffer recordBuffer = ByteBuffer.allocate(length);
+                    readFully(channel, recordBuffer, position + 4);
+                    recordBuffer.flip();
+                    LogRecord record;
+                    try {
+                        record = LogRecord.decode(recordBuffer);
+                    } catch (IOException e) {
+                        break;
+                    }
+                    handler.replay(record);
+                    maxSequence = Math.max(maxSequence, record.getSequence());
+                    position = position + 4 + length;
+                }
+                if (position < fileSize) {
+                    logger.warn("wal {} has {} bytes broken at {}, the rest is discarded.", file.getName(), fileSize - position, position);
+                    channel.truncate(position);
+                    return maxSequence;
+                }
+            } finally {
+                accessFile.close();
+            }
+        }
+        return maxSequence;
+    }
+    //
+    /** 打开一个新的分段用于写入。调用之前，重放过的数据必须已经持久化，目录中旧的分段都会被删除。 */
+    public void open(long lastSequence) throws IOException {
+        synchronized (this.lock) {
+            if (this.segment != null) {
+                throw new IllegalStateException("wal is opened.");
+            }
+            for (File file : this.listSegments()) {
+                this.segmentIndex = Math.max(this.segmentIndex, segmentIndex(file));
+                this.rolledFiles.add(file);
+            }
+            this.sequence = lastSequence;
+            this.newSegment();
+            this.dropRolled();
+        }
+    }
+    //
+    /** 写入一组记录并为它们分配序号，返回用于 {@link #sync(long)} 的票据。此时数据还未落盘。 */
+    public long write(LogRecord[] records) throws IOException {
+        synchronized (this.lock) {
+            if (this.failure != null) {
+                throw new IOException("wal is broken.", this.failure);
+            }
+            if (this.segment == null) {
+                throw new IOException("wal is closed.");
+            }
+            for (LogRecord record : records) {
+                record.setSequence(++this.sequence);
+                ByteBuffer data = record.encode();
+                ByteBuffer frame = ByteBuffer.allocate(4 + data.remaining());
+                frame.putInt(data.remaining());
+                frame.put(data);
+                frame.flip();
+                this.pending.add(frame);
+                this.segmentSize += frame.remaining();
+            }
+            return ++this.writeTicket;
+        }
+    }
+    //
+    /** 等待 ticket 及其之前的所有数据落盘。 */
+    public void sync(long ticket) throws IOException {
+        List<ByteBuffer> toWrite;
+        long upToTicket;
+        FileChannel channel;
+        boolean interrupted = false;
+        synchronized (this.lock) {
+            try {
+                while (true) {
+                    if (this.syncedTicket >= ticket) {
+                        return;
+                    }
+                    if (this.failure != null) {
+                        throw new IOException("wal is broken.", this.failure);
+                    }
+                    if (!this.flushing) {
+                        break;
+                    }
+                    interrupted |= this.awaitLock();
+                }
+            } finally {
+                restoreInterrupt(interrupted);
+            }
+            // .成为 leader，把队列中所有的数据一次写盘
+            this.flushing = true;
+            toWrite = this.pending;
+            this.pending = new ArrayList<ByteBuffer>();
+            upToTicket = this.writeTicket;
+            channel = this.segment;
+        }
+        //
+        IOException error = null;
+        try {
+            writeFully(channel, toWrite);
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this.lock) {
+            this.flushing = false;
+            if (error == null) {
+                this.syncedTicket = upToTicket;
+            } else {
+                this.failure = error;
+            }
+            this.lock.notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+    //
+    /** 当前分段的大小 */
+    public long segmentSize() {
+        synchronized (this.lock) {
+            return this.segmentSize;
+        }
+    }
+    //
+    /** 刷盘并切换到新的分段，返回旧分段中最后一次 write 的票据。 */
+    public long roll() throws IOException {
+        synchronized (this.lock) {
+            boolean interrupted = false;
+            while (this.flushing) {
+                interrupted |= this.awaitLock();
+            }
+            restoreInterrupt(interrupted);
+            if (this.failure != null) {
+                throw new IOException("wal is broken.", this.failure);
+            }
+            try {
+                writeFully(this.segment, this.pending);
+                this.segment.force(false);
+            } catch (IOException e) {
+                this.failure = e;
+                this.lock.notifyAll();
+                throw e;
+            }
+            this.pending = new ArrayList<ByteBuffer>();
+            this.syncedTicket = this.writeTicket;
+            this.lock.notifyAll();
+            //
+            this.segment.close();
+            this.rolledFiles.add(this.segmentFile);
+            this.newSegment();
+            return this.writeTicket;
+        }
+    }
+    //
+    /** 删除所有已经切换掉的分段，调用之前这些分段中的数据必须已经持久化到数据文件上。 */
+    public void dropRolled() {
+        synchronized (this.lock) {
+            for (File file : this.rolledFiles) {
+                if (!file.delete()) {
+                    logger.warn("wal {} delete failed.", file.getAbsolutePath());
+                }
+            }
+            this.rolledFiles.clear();
+        }
+    }
+    //
+    /** 关闭日志，未 sync 的数据会被刷盘 */
+    public void close() throws IOException {
+        synchronized (this.lock) {
+            boolean interrupted = false;
+            while (this.flushing) {
+                interrupted |= this.awaitLock();
+            }
+            restoreInterrupt(interrupted);
+            if (this.segment == null) {
+                return;
+            }
+            try {
+                if (this.failure == null) {
+                    writeFully(this.segment, this.pending);
+                    this.segment.force(false);
+                    this.syncedTicket = this.writeTicket;
+                }
+            } finally {
+                this.pending = new ArrayList<ByteBuffer>();
+                this.segment.close();
+                this.segment = null;
+                this.lock.notifyAll();
+            }
+        }
+    }
+    //
+    private void newSegment() throws IOException {
+        this.segmentIndex++;
+        this.segmentFile = new File(this.logDir, String.format("%08d", this.segmentIndex) + SEGMENT_EXT);
+        this.segment = new RandomAccessFile(this.segmentFile, "rw").getChannel();
+        this.segment.truncate(0);
+        this.segmentSize = 0;
+    }
+    private List<File> listSegments() {
+        File[] files = this.logDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SEGMENT_EXT) && segmentIndex(file) > 0;
+            }
+        });
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                int i1 = segmentIndex(o1);
+                int i2 = segmentIndex(o2);
+                return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+            }
+        });
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+    private static int segmentIndex(File file) {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_EXT.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    // - 等待期间的中断不能打断刷盘协议，返回是否发生过中断，由调用者在结束时恢复中断标记
+    private boolean awaitLock() {
+        try {
+            this.lock.wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+    private static void restoreInterrupt(boolean interrupted) {
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    private static void writeFully(FileChannel channel, List<ByteBuffer> dataList) throws IOException {
+        if (dataList.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] dataArrays = dataList.toArray(new ByteBuffer[dataList.size()]);
+        long remaining = 0;
+        for (ByteBuffer data : dataArrays) {
+            remaining += data.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(dataArrays);
+        }
+    }
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("unexpected end of wal.");
+            }
+            position += read;
+        }
+    }
+    //
+    /** 重放日志时的回调 */
+    public static interface ReplayHandler {
+        public void replay(LogRecord record) throws IOException;
+    }
+}
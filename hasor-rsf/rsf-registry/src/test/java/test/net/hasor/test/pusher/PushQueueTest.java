@@ -0,0 +1,198 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.test.pusher;
+import io.netty.util.TimerTask;
+import net.hasor.registry.client.RsfCenterListener;
+import net.hasor.registry.client.domain.ServiceID;
+import net.hasor.registry.common.RsfCenterSettings;
+import net.hasor.registry.server.ServerSettings;
+import net.hasor.registry.server.pusher.PushProcessor;
+import net.hasor.registry.server.pusher.PushQueue;
+import net.hasor.registry.server.pusher.RsfCenterEventEnum;
+import net.hasor.registry.server.pusher.RsfPusher;
+import net.hasor.rsf.RsfContext;
+import net.hasor.rsf.RsfEnvironment;
+import net.hasor.rsf.rpc.caller.RsfServiceWrapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static net.hasor.registry.server.pusher.RsfCenterEventEnum.*;
+/**
+ * PushQueue 推送失败之后的重试：第一个失败的事件之后的内容不能先送达，重试时按照原来的顺序推送
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class PushQueueTest {
+    private static final String                      TARGET     = "rsf://127.0.0.1:2180/unit";
+    private final        List<String>                sentList   = new CopyOnWriteArrayList<String>();
+    private final        Set<String>                 failSet    = new HashSet<String>();// 这些事件推送失败
+    private final        List<TimerTask>             retryList  = new ArrayList<TimerTask>();
+    private final        Set<String>                 clientBook = new LinkedHashSet<String>();
+    private              PushQueue                   pushQueue;
+    private              RsfPusher                   rsfPusher;
+    private              LinkedBlockingQueue<Object> readyQueue;
+    //
+    @Before
+    public void before() throws Exception {
+        this.pushQueue = new PushQueue();
+        this.readyQueue = new LinkedBlockingQueue<Object>();
+        setField(this.pushQueue, "rsfContext", this.newRsfContext());
+        setField(this.pushQueue, "rsfCenterCfg", new ServerSettings(null, proxy(RsfCenterSettings.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return args[1];// 全部使用默认值
+            }
+        })));
+        setField(this.pushQueue, "taskMap", new ConcurrentHashMap<Object, Object>());
+        setField(this.pushQueue, "readyQueue", this.readyQueue);
+        Map<RsfCenterEventEnum, PushProcessor> processorMapping = new HashMap<RsfCenterEventEnum, PushProcessor>();
+        for (RsfCenterEventEnum eventType : RsfCenterEventEnum.values()) {
+            processorMapping.put(eventType, this.newProcessor());
+        }
+        setField(this.pushQueue, "processorMapping", processorMapping);
+        this.rsfPusher = new RsfPusher();
+        setField(this.rsfPusher, "pushQueue", this.pushQueue);
+    }
+    private static void setField(Object target, String fieldName, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(PushQueueTest.class.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+    // - 重试的定时任务记录下来，由测试决定什么时候执行
+    private RsfContext newRsfContext() {
+        final RsfEnvironment rsfEnvironment = proxy(RsfEnvironment.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("atTime")) {
+                    retryList.add((TimerTask) args[0]);
+                }
+                return null;
+            }
+        });
+        return proxy(RsfContext.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return method.getName().equals("getEnvironment") ? rsfEnvironment : null;
+            }
+        });
+    }
+    // - 客户端：记录收到的事件并更新地址本，failSet 中的事件推送失败
+    private PushProcessor newProcessor() throws Exception {
+        final Object listener = Proxy.newProxyInstance(PushQueueTest.class.getClassLoader(), new Class<?>[] { RsfCenterListener.class, RsfServiceWrapper.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (!method.getName().equals("onEvent")) {
+                    return null;
+                }
+                String eventType = (String) args[3];
+                String eventBody = (String) args[4];
+                if (failSet.contains(eventType)) {
+                    return false;
+                }
+                sentList.add(eventType + ":" + eventBody);
+                List<String> addressList = Arrays.asList(eventBody.split(","));
+                if (eventType.equals(RefreshAddressEvent.forCenterEvent())) {
+                    clientBook.clear();
+                    clientBook.addAll(addressList);
+                } else if (eventType.equals(AppendAddressEvent.forCenterEvent())) {
+                    clientBook.addAll(addressList);
+                } else if (eventType.equals(RemoveAddressEvent.forCenterEvent())) {
+                    clientBook.removeAll(addressList);
+                }
+                return true;
+            }
+        });
+        PushProcessor processor = new PushProcessor();
+        setField(processor, "rsfClientListener", new ThreadLocal<Object>() {
+            protected Object initialValue() {
+                return listener;
+            }
+        });
+        return processor;
+    }
+    // - 推送线程处理一个排队中的任务
+    private void pushOnce() throws Exception {
+        Object pushTask = this.readyQueue.poll();
+        assert pushTask != null;
+        Method doPush = PushQueue.class.getDeclaredMethod("doPush", pushTask.getClass());
+        doPush.setAccessible(true);
+        doPush.invoke(this.pushQueue, pushTask);
+    }
+    private void retry() throws Exception {
+        assert this.retryList.size() == 1;
+        this.retryList.remove(0).run(null);
+    }
+    //
+    @Test
+    public void failedFirstTest() throws Exception {
+        List<String> targets = Collections.singletonList(TARGET);
+        ServiceID serviceID = new ServiceID();
+        this.rsfPusher.refreshAddress(serviceID, Arrays.asList("a", "x"), targets);
+        this.rsfPusher.removeAddress(serviceID, Arrays.asList("x"), targets);
+        this.rsfPusher.updateServiceRoute(serviceID, "route-1", targets);
+        //
+        // .全量刷新失败，之后的删除和路由即使能够送达也不推送
+        this.failSet.add(RefreshAddressEvent.forCenterEvent());
+        this.pushOnce();
+        assert this.sentList.isEmpty() : this.sentList;
+        assert this.pushQueue.getRetryCount() == 1;
+        //
+        // .重试时按照原来的顺序推送，删除的地址不会回到客户端
+        this.failSet.clear();
+        this.retry();
+        this.pushOnce();
+        assert this.sentList.equals(Arrays.asList(//
+                RefreshAddressEvent.forCenterEvent() + ":a,x",//
+                RemoveAddressEvent.forCenterEvent() + ":x",//
+                UpdateServiceRouteEvent.forCenterEvent() + ":route-1")) : this.sentList;
+        assert this.clientBook.equals(new LinkedHashSet<String>(Arrays.asList("a"))) : this.clientBook;
+        assert this.pushQueue.getPushCount() == 1;
+    }
+    @Test
+    public void failedMiddleTest() throws Exception {
+        List<String> targets = Collections.singletonList(TARGET);
+        ServiceID serviceID = new ServiceID();
+        this.clientBook.addAll(Arrays.asList("a", "b"));
+        this.rsfPusher.removeAddress(serviceID, Arrays.asList("b"), targets);
+        this.rsfPusher.appendAddress(serviceID, Arrays.asList("c"), targets);
+        this.rsfPusher.updateFlowControl(serviceID, "flow-1", targets);
+        //
+        // .已经送达的删除不再重复推送，失败的追加和之后的流控在重试时推送；等待重试期间到达的事件合并进来
+        this.failSet.add(AppendAddressEvent.forCenterEvent());
+        this.pushOnce();
+        assert this.sentList.equals(Arrays.asList(RemoveAddressEvent.forCenterEvent() + ":b")) : this.sentList;
+        this.rsfPusher.removeAddress(serviceID, Arrays.asList("a"), targets);
+        assert this.readyQueue.isEmpty();// 任务还在等待重试
+        //
+        this.failSet.clear();
+        this.retry();
+        this.pushOnce();
+        assert this.sentList.equals(Arrays.asList(//
+                RemoveAddressEvent.forCenterEvent() + ":b",//
+                RemoveAddressEvent.forCenterEvent() + ":a",//
+                AppendAddressEvent.forCenterEvent() + ":c",//
+                UpdateFlowControlEvent.forCenterEvent() + ":flow-1")) : this.sentList;
+        assert this.clientBook.equals(new LinkedHashSet<String>(Arrays.asList("c"))) : this.clientBook;
+    }
+}
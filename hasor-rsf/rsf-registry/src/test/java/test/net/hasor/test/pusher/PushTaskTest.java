@@ -0,0 +1,153 @@
+package test.net.hasor.test.pusher;
+import net.hasor.registry.server.pusher.PushTask;
+import net.hasor.registry.server.pusher.RsfCenterEventEnum;
+import org.junit.Test;
+
+import java.util.*;
+
+import static net.hasor.registry.server.pusher.RsfCenterEventEnum.*;
+/**
+ * 推送内容的合并：合并之后按照 全量刷新、删除、追加、规则 的顺序推送，客户端得到的地址本和逐个推送事件的结果一致
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class PushTaskTest {
+    // - 模拟客户端的地址本：空的全量刷新会被忽略
+    private static void clientApply(Set<String> addressBook, RsfCenterEventEnum eventType, String eventBody) {
+        List<String> addressList = new ArrayList<String>();
+        for (String address : eventBody.split(",")) {
+            if (address.length() > 0) {
+                addressList.add(address);
+            }
+        }
+        if (eventType == RefreshAddressEvent) {
+            if (!addressList.isEmpty()) {
+                addressBook.clear();
+                addressBook.addAll(addressList);
+            }
+        } else if (eventType == AppendAddressEvent) {
+            addressBook.addAll(addressList);
+        } else if (eventType == RemoveAddressEvent) {
+            addressBook.removeAll(addressList);
+        }
+    }
+    private static void clientApply(Set<String> addressBook, PushTask.State state) {
+        for (RsfCenterEventEnum eventType : state.eventList()) {
+            clientApply(addressBook, eventType, state.eventBody(eventType));
+        }
+    }
+    private static Set<String> book(String... address) {
+        return new LinkedHashSet<String>(Arrays.asList(address));
+    }
+    //
+    @Test
+    public void refreshThenRemoveTest() {
+        // .刷新之后删除了刷新中的所有地址，删除仍然作为独立的事件推送
+        PushTask.State state = new PushTask.State();
+        state.apply(RefreshAddressEvent, "a,b");
+        state.apply(RemoveAddressEvent, "a,b");
+        assert state.eventList().equals(Arrays.asList(RefreshAddressEvent, RemoveAddressEvent));
+        assert "a,b".equals(state.eventBody(RefreshAddressEvent));
+        assert "a,b".equals(state.eventBody(RemoveAddressEvent));
+        //
+        Set<String> addressBook = book("x");
+        clientApply(addressBook, state);
+        assert addressBook.isEmpty() : addressBook;
+    }
+    @Test
+    public void eventOrderTest() {
+        PushTask.State state = new PushTask.State();
+        state.apply(UpdateServiceRouteEvent, "route-1");
+        state.apply(AppendAddressEvent, "a");
+        state.apply(RemoveAddressEvent, "b");
+        state.apply(UpdateServiceRouteEvent, "route-2");
+        assert state.eventList().equals(Arrays.asList(RemoveAddressEvent, AppendAddressEvent, UpdateServiceRouteEvent));
+        assert "route-2".equals(state.eventBody(UpdateServiceRouteEvent));
+        //
+        // .全量刷新覆盖之前的追加，之前的删除如果不在新的地址本中仍然保留
+        state.apply(RemoveAddressEvent, "c");
+        state.apply(RefreshAddressEvent, "b,d");
+        state.apply(AppendAddressEvent, "e");
+        assert state.eventList().equals(Arrays.asList(RefreshAddressEvent, RemoveAddressEvent, UpdateServiceRouteEvent));
+        assert "b,d,e".equals(state.eventBody(RefreshAddressEvent));
+        assert "c".equals(state.eventBody(RemoveAddressEvent));
+        //
+        // .删除之后重新追加
+        state.apply(RemoveAddressEvent, "d");
+        state.apply(AppendAddressEvent, "d");
+        assert "c".equals(state.eventBody(RemoveAddressEvent));
+        Set<String> addressBook = book("a", "c", "x");
+        clientApply(addressBook, state);
+        assert addressBook.equals(book("b", "d", "e")) : addressBook;
+    }
+    @Test
+    public void emptyRefreshTest() {
+        // .空的全量刷新被客户端忽略，之前的删除不能丢
+        PushTask.State state = new PushTask.State();
+        state.apply(RemoveAddressEvent, "a");
+        state.apply(RefreshAddressEvent, "");
+        Set<String> addressBook = book("a", "b");
+        clientApply(addressBook, state);
+        assert addressBook.equals(book("b")) : addressBook;
+    }
+    @Test
+    public void mergeAfterFailedTest() {
+        // .推送失败时全量刷新已经送达，删除没有送达；等待重试期间又到达了新的事件
+        PushTask.State failed = new PushTask.State();
+        failed.apply(RefreshAddressEvent, "a,b");
+        failed.apply(RemoveAddressEvent, "a");
+        failed.finish(RefreshAddressEvent);
+        PushTask.State newer = new PushTask.State();
+        newer.apply(AppendAddressEvent, "a");
+        newer.apply(RemoveAddressEvent, "b");
+        failed.merge(newer);
+        assert failed.eventList().equals(Arrays.asList(RemoveAddressEvent, AppendAddressEvent));
+        assert "b".equals(failed.eventBody(RemoveAddressEvent));
+        assert "a".equals(failed.eventBody(AppendAddressEvent));
+        //
+        // .新的内容中带有全量刷新
+        PushTask.State refresh = new PushTask.State();
+        refresh.apply(RefreshAddressEvent, "c");
+        refresh.apply(RemoveAddressEvent, "c");
+        failed.merge(refresh);
+        assert failed.eventList().equals(Arrays.asList(RefreshAddressEvent, RemoveAddressEvent));
+        Set<String> addressBook = book("a", "b", "x");
+        clientApply(addressBook, failed);
+        assert addressBook.isEmpty() : addressBook;
+    }
+    @Test
+    public void mergeOrderTest() {
+        // .随机的事件序列，任意位置切分成 失败的内容 + 新到达的内容，合并推送的结果要和逐个推送一致
+        RsfCenterEventEnum[] eventTypes = { RefreshAddressEvent, AppendAddressEvent, RemoveAddressEvent };
+        Random random = new Random(1);
+        for (int round = 0; round < 2000; round++) {
+            int eventCount = 1 + random.nextInt(8);
+            RsfCenterEventEnum[] events = new RsfCenterEventEnum[eventCount];
+            String[] bodies = new String[eventCount];
+            for (int i = 0; i < eventCount; i++) {
+                events[i] = eventTypes[random.nextInt(eventTypes.length)];
+                StringBuilder body = new StringBuilder();
+                int addressCount = 1 + random.nextInt(3);// 服务端推送的全量地址本不会为空
+                for (int j = 0; j < addressCount; j++) {
+                    body.append(j == 0 ? "" : ",").append((char) ('a' + random.nextInt(5)));
+                }
+                bodies[i] = body.toString();
+            }
+            //
+            Set<String> expect = book("a", "x");
+            for (int i = 0; i < eventCount; i++) {
+                clientApply(expect, events[i], bodies[i]);
+            }
+            int splitAt = random.nextInt(eventCount + 1);
+            PushTask.State older = new PushTask.State();
+            PushTask.State newer = new PushTask.State();
+            for (int i = 0; i < eventCount; i++) {
+                (i < splitAt ? older : newer).apply(events[i], bodies[i]);
+            }
+            older.merge(newer);
+            Set<String> actual = book("a", "x");
+            clientApply(actual, older);
+            assert expect.equals(actual) : Arrays.toString(events) + " " + Arrays.toString(bodies) + " expect " + expect + " but " + actual;
+        }
+    }
+}
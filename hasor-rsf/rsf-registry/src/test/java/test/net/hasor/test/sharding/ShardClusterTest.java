@@ -0,0 +1,223 @@
+/*
+ * Copyright 2008-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.net.hasor.test.sharding;
+import net.hasor.core.AppContext;
+import net.hasor.core.Hasor;
+import net.hasor.registry.client.RsfCenterRegister;
+import net.hasor.registry.client.RsfCenterResult;
+import net.hasor.registry.client.domain.ProviderPublishInfo;
+import net.hasor.registry.client.domain.ServiceID;
+import net.hasor.registry.common.InstanceInfo;
+import net.hasor.registry.server.sharding.RsfCenterShard;
+import net.hasor.registry.server.sharding.ShardManager;
+import net.hasor.registry.storage.DataAdapter;
+import net.hasor.rsf.InterAddress;
+import net.hasor.rsf.RsfContext;
+import net.hasor.rsf.domain.ProtocolStatus;
+import net.hasor.rsf.domain.RsfException;
+import net.hasor.rsf.domain.RsfServiceType;
+import net.hasor.rsf.domain.provider.InstanceAddressProvider;
+import net.hasor.rsf.rpc.caller.RsfServiceWrapper;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+import static net.hasor.registry.server.utils.CenterUtils.getDataKey;
+/**
+ * 集群模式，在本机启动三个注册中心（rsf-server-cluster-1/2/3.xml）：
+ * 请求被转发到服务所属的节点，成员变化之后数据迁移到新的所属节点，迁移数据只接受集群中的其它注册中心。
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ShardClusterTest {
+    private static final int              SERVICE_COUNT = 30;
+    private static final long             WAIT_TIME     = 30000;
+    private static       List<AppContext> centerList;
+    private final        String           testID        = Long.toHexString(System.currentTimeMillis());// 工作目录中可能留有上一次运行的数据
+    //
+    @BeforeClass
+    public static void startCluster() {
+        centerList = new ArrayList<AppContext>();
+        for (int i = 1; i <= 3; i++) {
+            centerList.add(Hasor.createAppContext("/center/rsf-server-cluster-" + i + ".xml"));
+        }
+    }
+    @AfterClass
+    public static void stopCluster() {
+        for (AppContext appContext : centerList) {
+            appContext.shutdown();
+        }
+    }
+    private static ShardManager shardManager(int index) {
+        return centerList.get(index).getInstance(ShardManager.class);
+    }
+    private static DataAdapter dataAdapter(int index) {
+        return centerList.get(index).getInstance(DataAdapter.class);
+    }
+    private static List<InterAddress> members(int... indexes) {
+        List<InterAddress> members = new ArrayList<InterAddress>();
+        for (int index : indexes) {
+            members.add(shardManager(index).getLocalAddress());
+        }
+        return members;
+    }
+    /** 当前成员列表中服务所属的节点 */
+    private static int ownerOf(ServiceID serviceID) {
+        InterAddress owner = shardManager(0).ownerOf(serviceID);
+        for (int i = 0; i < centerList.size(); i++) {
+            if (shardManager(i).isLocal(owner)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("unknown owner " + owner);
+    }
+    /** from 节点上指向 to 节点的 RsfCenterShard 接口 */
+    private static RsfCenterShard remoteShard(int from, int to) {
+        RsfContext rsfContext = centerList.get(from).getInstance(RsfContext.class);
+        RsfCenterShard centerShard = rsfContext.getRsfClient().wrapper(RsfCenterShard.class);
+        ((RsfServiceWrapper) centerShard).setTarget(new InstanceAddressProvider(shardManager(to).getLocalAddress()));
+        return centerShard;
+    }
+    private ServiceID serviceID(String name, int index) throws Exception {
+        ServiceID serviceID = new ServiceID();
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("bindGroup", "RSF");
+        values.put("bindName", "test.net.hasor." + name + "." + this.testID + ".Service" + index);
+        values.put("bindVersion", "1.0.0");
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            Field field = ServiceID.class.getDeclaredField(entry.getKey());
+            field.setAccessible(true);
+            field.set(serviceID, entry.getValue());
+        }
+        return serviceID;
+    }
+    private InstanceInfo instance(String name) {
+        InstanceInfo instance = new InstanceInfo();
+        instance.setInstanceID(name + "-" + this.testID);
+        instance.setUnitName("default");
+        instance.setRsfAddress("rsf://127.0.0.1:2301/default");
+        instance.setDefaultProtocol("RSF/1.0");
+        instance.setRunProtocols(Arrays.asList("RSF/1.0"));
+        return instance;
+    }
+    /** 通过 1 号节点注册一组服务，返回每个服务提供者的数据 key */
+    private Map<ServiceID, String> registerProviders(String name) throws Exception {
+        RsfCenterRegister register = shardManager(0).remoteRegister(shardManager(0).getLocalAddress());
+        InstanceInfo instance = this.instance(name);
+        Map<ServiceID, String> providerKeys = new LinkedHashMap<ServiceID, String>();
+        for (int i = 0; i < SERVICE_COUNT; i++) {
+            ServiceID serviceID = this.serviceID(name, i);
+            RsfCenterResult<Void> result = register.registerProvider(instance, serviceID, new ProviderPublishInfo());
+            assert result != null && result.isSuccess() : (result == null ? null : result.getErrorMessage());
+            providerKeys.put(serviceID, getDataKey(instance, serviceID, RsfServiceType.Provider));
+        }
+        return providerKeys;
+    }
+    /** 数据是否只存在于所属节点上 */
+    private static boolean onlyAtOwner(Map<ServiceID, String> providerKeys) {
+        for (Map.Entry<ServiceID, String> entry : providerKeys.entrySet()) {
+            int owner = ownerOf(entry.getKey());
+            for (int i = 0; i < centerList.size(); i++) {
+                if (dataAdapter(i).exist(entry.getValue()) != (i == owner)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    private static void waitOnlyAtOwner(Map<ServiceID, String> providerKeys) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_TIME;
+        while (!onlyAtOwner(providerKeys)) {
+            assert System.currentTimeMillis() < deadline : "shard data is not moved in " + WAIT_TIME + "ms.";
+            Thread.sleep(100);
+        }
+    }
+    private static short statusOf(Throwable e) {
+        while (e != null) {
+            if (e instanceof RsfException) {
+                return ((RsfException) e).getStatus();
+            }
+            e = e.getCause();
+        }
+        return ProtocolStatus.Unknown;
+    }
+    //
+    @Test
+    public void forwardTest() throws Exception {
+        // .所有请求都发往 1 号节点，数据写在服务所属的节点上
+        Map<ServiceID, String> providerKeys = this.registerProviders("forward");
+        assert onlyAtOwner(providerKeys);
+        Set<Integer> ownerSet = new HashSet<Integer>();
+        for (ServiceID serviceID : providerKeys.keySet()) {
+            ownerSet.add(ownerOf(serviceID));
+        }
+        assert ownerSet.size() == centerList.size() : ownerSet;
+    }
+    @Test
+    public void rebalanceTest() throws Exception {
+        Map<ServiceID, String> providerKeys = this.registerProviders("rebalance");
+        Map<ServiceID, Integer> ownerMap = new HashMap<ServiceID, Integer>();
+        for (ServiceID serviceID : providerKeys.keySet()) {
+            ownerMap.put(serviceID, ownerOf(serviceID));
+        }
+        assert ownerMap.containsValue(2);
+        //
+        // .3 号节点离开集群，它上面的数据迁移到 1、2 号节点
+        shardManager(2).changeMembers(members(0, 1), true);
+        assert shardManager(0).getShardRing().getMembers().size() == 2;
+        waitOnlyAtOwner(providerKeys);
+        for (String providerKey : providerKeys.values()) {
+            assert !dataAdapter(2).exist(providerKey);
+        }
+        //
+        // .3 号节点重新加入，原来属于它的数据迁移回来
+        shardManager(0).changeMembers(members(0, 1, 2), true);
+        assert shardManager(2).getShardRing().getMembers().size() == 3;
+        waitOnlyAtOwner(providerKeys);
+        for (Map.Entry<ServiceID, Integer> entry : ownerMap.entrySet()) {
+            assert ownerOf(entry.getKey()) == entry.getValue();
+        }
+    }
+    @Test
+    public void importFromPeerTest() throws Exception {
+        String[] dataKeys = new String[] { "/rsf-shard-test/" + this.testID };// 不在 /rsf-registry/ 下，不会被迁移
+        String[] dataValues = new String[] { "{}" };
+        long[] tags = new long[] { 0 };
+        //
+        // .1 号节点的当前和上一次成员中都没有 3 号节点，来自 3 号节点的导入被拒绝
+        shardManager(0).changeMembers(members(0, 1), false);
+        shardManager(0).changeMembers(members(0, 1), false);
+        try {
+            try {
+                remoteShard(2, 0).importData(dataKeys, dataValues, tags);
+                assert false : "importData from a non-peer center must be refused.";
+            } catch (Exception e) {
+                assert statusOf(e) == ProtocolStatus.Forbidden : e;
+            }
+            assert !dataAdapter(0).exist(dataKeys[0]);
+            //
+            // .2 号节点依然是成员，可以导入
+            assert remoteShard(1, 0).importData(dataKeys, dataValues, tags);
+            assert dataAdapter(0).exist(dataKeys[0]);
+        } finally {
+            dataAdapter(0).deleteData(dataKeys[0]);
+            shardManager(0).changeMembers(members(0, 1, 2), true);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package test.net.hasor.test.sharding;
+import net.hasor.registry.server.sharding.ShardRing;
+import net.hasor.rsf.InterAddress;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * 一致性 Hash 环的分布均匀性、成员变化时的迁移量测试
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ShardRingTest {
+    private static final int KEY_COUNT = 100000;
+    //
+    private static List<InterAddress> members(int count) {
+        List<InterAddress> members = new ArrayList<InterAddress>();
+        for (int i = 0; i < count; i++) {
+            members.add(new InterAddress("127.0.0.1", 2181 + i * 10, "default"));
+        }
+        return members;
+    }
+    private static String serviceKey(int i) {
+        return "/rsf-registry/RSF/test.net.hasor.Service" + i + "/1.0.0";
+    }
+    //
+    @Test
+    public void balanceTest() {
+        ShardRing ring = new ShardRing(members(3), ShardRing.DEFAULT_VIRTUAL_NODES);
+        Map<String, Integer> countMap = new HashMap<String, Integer>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            String owner = ring.ownerOf(serviceKey(i)).getHostPort();
+            Integer count = countMap.get(owner);
+            countMap.put(owner, count == null ? 1 : count + 1);
+        }
+        System.out.println(countMap);
+        assert countMap.size() == 3;
+        for (Integer count : countMap.values()) {
+            assert Math.abs(count - KEY_COUNT / 3) < KEY_COUNT / 3 * 0.2;
+        }
+    }
+    @Test
+    public void memberChangeTest() {
+        ShardRing oldRing = new ShardRing(members(3), ShardRing.DEFAULT_VIRTUAL_NODES);
+        ShardRing newRing = new ShardRing(members(4), ShardRing.DEFAULT_VIRTUAL_NODES);
+        InterAddress newMember = members(4).get(3);
+        int moved = 0;
+        for (int i = 0; i < KEY_COUNT; i++) {
+            InterAddress oldOwner = oldRing.ownerOf(serviceKey(i));
+            InterAddress newOwner = newRing.ownerOf(serviceKey(i));
+            if (!oldOwner.getHostPort().equals(newOwner.getHostPort())) {
+                // .新增节点只会从已有节点上接走数据，已有节点之间不发生迁移
+                assert newOwner.getHostPort().equals(newMember.getHostPort());
+                moved++;
+            }
+        }
+        System.out.println("moved " + moved + " of " + KEY_COUNT);
+        assert Math.abs(moved - KEY_COUNT / 4) < KEY_COUNT / 4 * 0.2;
+        //
+        // .同样的成员列表（顺序不同）得到同样的结果
+        List<InterAddress> reversed = members(4);
+        java.util.Collections.reverse(reversed);
+        ShardRing sameRing = new ShardRing(reversed, ShardRing.DEFAULT_VIRTUAL_NODES);
+        for (int i = 0; i < 1000; i++) {
+            assert sameRing.ownerOf(serviceKey(i)).equals(newRing.ownerOf(serviceKey(i)));
+        }
+    }
+}
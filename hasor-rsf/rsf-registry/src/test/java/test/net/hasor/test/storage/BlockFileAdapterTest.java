@@ -541,4 +541,20 @@ public class BlockFileAdapterTest {
         //
         iteratorlocks();
     }
-}
\ No newline at end of file
+    /** close 之后读取数据 */
+    @Test
+    public void readAfterClose() throws IOException {
+        FILE.delete();
+        BlockFileAdapter adapter = new BlockFileAdapter(FILE);
+        Block[] blocks = adapter.appendBlocks(new ByteBuffer[] { ByteBuffer.wrap("abc".getBytes()) });
+        assert adapter.readData(blocks[0]).remaining() == 3;
+        adapter.close();
+        adapter.close();
+        try {
+            adapter.readData(blocks[0]);
+            assert false;
+        } catch (IOException e) {
+            assert e.getMessage().contains("closed");
+        }
+    }
+}
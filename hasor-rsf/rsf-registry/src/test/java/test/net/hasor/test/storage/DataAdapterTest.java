@@ -0,0 +1,144 @@
+package test.net.hasor.test.storage;
+import net.hasor.registry.storage.DataAdapter;
+import net.hasor.registry.storage.DataEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+/**
+ * DataAdapter 的读写、重启恢复、数据文件压缩测试
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class DataAdapterTest {
+    private static File STORAGE_DIR = new File("storage_test");
+    //
+    @Before
+    public void cleanDir() {
+        deleteFile(STORAGE_DIR);
+    }
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+    //
+    @Test
+    public void writeAndRestart() throws IOException {
+        DataAdapter adapter = new DataAdapter();
+        adapter.open(STORAGE_DIR, 1024 * 1024);
+        for (int i = 0; i < 10000; i++) {
+            assert adapter.writeData("/service/" + (i % 10) + "/Provider/" + i, "value-" + i, 2);
+        }
+        assert adapter.deleteData("/service/1/Provider/1");
+        assert !adapter.deleteData("/service/1/Provider/1");
+        assert adapter.writeData("/service/2/Provider/2", "value-new", 2);
+        // 不调用 close 模拟进程崩溃，数据依靠预写日志恢复
+        //
+        DataAdapter reopen = new DataAdapter();
+        reopen.open(STORAGE_DIR, 1024 * 1024);
+        assert reopen.listData("/service/1/", null).size() == 999;
+        assert !reopen.exist("/service/1/Provider/1");
+        assert "value-new".equals(reopen.readData("/service/2/Provider/2").getDataValue());
+        DataEntity[] entities = reopen.readData(new String[] { "/service/3/Provider/3", "none", "/service/9/Provider/9999" });
+        assert "value-3".equals(entities[0].getDataValue());
+        assert entities[1] == null;
+        assert "value-9999".equals(entities[2].getDataValue());
+        reopen.close();
+    }
+    //
+    @Test
+    public void brokenTail() throws IOException {
+        DataAdapter adapter = new DataAdapter();
+        adapter.open(STORAGE_DIR, 1024 * 1024);
+        assert adapter.writeData("key1", "value1", 1);
+        assert adapter.writeData("key2", "value2", 1);
+        adapter.close();
+        //
+        // 截掉数据文件的最后几个字节，模拟写入过程中断电
+        RandomAccessFile dataFile = new RandomAccessFile(new File(STORAGE_DIR, "registry.dat"), "rw");
+        dataFile.setLength(dataFile.length() - 3);
+        dataFile.close();
+        //
+        DataAdapter reopen = new DataAdapter();
+        reopen.open(STORAGE_DIR, 1024 * 1024);
+        // 不完整的 Block 被截断，其数据从预写日志中恢复
+        assert "value1".equals(reopen.readData("key1").getDataValue());
+        assert "value2".equals(reopen.readData("key2").getDataValue());
+        reopen.close();
+    }
+    //
+    @Test
+    public void compactOnCheckpoint() throws IOException {
+        DataAdapter adapter = new DataAdapter();
+        adapter.open(STORAGE_DIR, 4096);
+        for (int i = 0; i < 20000; i++) {
+            assert adapter.writeData("/service/" + (i % 10), "value-" + i, 2);
+        }
+        // 不压缩时数据文件中会有 20000 个 Block，压缩之后只剩下存活的数据和最近一次 checkpoint 之后的变更
+        long dataSize = new File(STORAGE_DIR, "registry.dat").length();
+        assert dataSize < 64 * 1024 : "data file size " + dataSize;
+        assert !new File(STORAGE_DIR, "registry.dat.compact").exists();
+        assert "value-19999".equals(adapter.readData("/service/9").getDataValue());
+        assert adapter.listData("/service/", null).size() == 10;
+        adapter.close();
+        //
+        DataAdapter reopen = new DataAdapter();
+        reopen.open(STORAGE_DIR, 4096);
+        for (int i = 0; i < 10; i++) {
+            assert ("value-" + (19990 + i)).equals(reopen.readData("/service/" + i).getDataValue());
+        }
+        reopen.close();
+    }
+    //
+    @Test
+    public void readWhileCompact() throws Throwable {
+        final DataAdapter adapter = new DataAdapter();
+        adapter.open(STORAGE_DIR, 4096);
+        for (int i = 0; i < 100; i++) {
+            assert adapter.writeData("/service/" + i, "value-" + i, 2);
+        }
+        // 读线程持续读取，写线程不断覆盖数据触发压缩，读到的数据要么是旧值要么是新值
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    while (running.get()) {
+                        for (int i = 0; i < 100; i++) {
+                            String value = adapter.readData("/service/" + i).getDataValue();
+                            assert value.equals("value-" + i) || value.startsWith("value-" + i + "-") : value;
+                        }
+                        assert adapter.listData("/service/", null).size() == 100;
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 100; i++) {
+                assert adapter.writeData("/service/" + i, "value-" + i + "-" + round, 2);
+            }
+        }
+        running.set(false);
+        reader.join();
+        if (!errors.isEmpty()) {
+            throw errors.get(0);
+        }
+        assert "value-7-99".equals(adapter.readData("/service/7").getDataValue());
+        adapter.close();
+    }
+}
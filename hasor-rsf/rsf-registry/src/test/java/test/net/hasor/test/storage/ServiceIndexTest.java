@@ -0,0 +1,273 @@
+package test.net.hasor.test.storage;
+import com.alibaba.fastjson.JSON;
+import net.hasor.registry.client.domain.AddressDelta;
+import net.hasor.registry.client.domain.ConsumerPublishInfo;
+import net.hasor.registry.client.domain.ProviderPublishInfo;
+import net.hasor.registry.server.domain.RsfCenterConstants;
+import net.hasor.registry.server.manager.ServiceIndex;
+import net.hasor.registry.storage.DataAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+/**
+ * ServiceIndex 通过监听 DataAdapter 的变更维护提供者、消费者索引，测试写入、删除之后的查询结果，以及按照 revision 增量同步地址
+ * @version : 2017年12月18日
+ * @author 赵永春 (zyc@hasor.net)
+ */
+public class ServiceIndexTest {
+    private static File         STORAGE_DIR = new File("storage_index_test");
+    private static final String SERVICE_A   = "/rsf-registry/RSF/test.net.hasor.ServiceA/1.0.0";
+    private static final String SERVICE_B   = "/rsf-registry/RSF/test.net.hasor.ServiceB/1.0.0";
+    private static final String RSF_10      = "RSF/1.0";
+    private static final String RSF_20      = "RSF/2.0";
+    private DataAdapter  dataAdapter;
+    private ServiceIndex serviceIndex;
+    //
+    @Before
+    public void before() throws IOException {
+        deleteFile(STORAGE_DIR);
+        this.dataAdapter = new DataAdapter();
+        this.dataAdapter.open(STORAGE_DIR, 1024 * 1024);
+        this.serviceIndex = new ServiceIndex();
+        this.dataAdapter.addListener(this.serviceIndex);
+    }
+    @After
+    public void after() throws IOException {
+        this.dataAdapter.close();
+        deleteFile(STORAGE_DIR);
+    }
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+    //
+    private void writeProvider(String serviceKey, String instanceID, String... protocolAndAddress) {
+        Map<String, String> addressMap = new LinkedHashMap<String, String>();
+        for (int i = 0; i < protocolAndAddress.length; i += 2) {
+            addressMap.put(protocolAndAddress[i], protocolAndAddress[i + 1]);
+        }
+        ProviderPublishInfo info = new ProviderPublishInfo();
+        info.setAddressMap(addressMap);
+        String dataKey = serviceKey + "/Provider/" + instanceID;
+        assert this.dataAdapter.writeData(dataKey, JSON.toJSONString(info), RsfCenterConstants.TAG_Provider);
+    }
+    private void writeConsumer(String serviceKey, String instanceID, String... protocol) {
+        ConsumerPublishInfo info = new ConsumerPublishInfo();
+        info.setProtocol(Arrays.asList(protocol));
+        info.setCommunicationAddress(instanceID);
+        String dataKey = serviceKey + "/Consumer/" + instanceID;
+        assert this.dataAdapter.writeData(dataKey, JSON.toJSONString(info), RsfCenterConstants.TAG_Consumer);
+    }
+    private static Set<String> asSet(List<String> list) {
+        return new HashSet<String>(list);
+    }
+    private static Set<String> asSet(String... items) {
+        return new HashSet<String>(Arrays.asList(items));
+    }
+    //
+    @Test
+    public void queryProviderTest() {
+        writeProvider(SERVICE_A, "p1", RSF_10, "rsf://127.0.0.1:2180/unit", RSF_20, "rsf2://127.0.0.1:2181/unit");
+        writeProvider(SERVICE_A, "p2", RSF_10, "rsf://127.0.0.2:2180/unit");
+        writeProvider(SERVICE_B, "p3", RSF_10, "rsf://127.0.0.3:2180/unit");
+        //
+        // .按协议和服务隔离
+        assert asSet(this.serviceIndex.queryProviderList(SERVICE_A, Arrays.asList(RSF_10)))//
+                .equals(asSet("rsf://127.0.0.1:2180/unit", "rsf://127.0.0.2:2180/unit"));
+        assert asSet(this.serviceIndex.queryProviderList(SERVICE_A, Arrays.asList(RSF_20)))//
+                .equals(asSet("rsf2://127.0.0.1:2181/unit"));
+        assert this.serviceIndex.queryProviderList(SERVICE_A, Arrays.asList(RSF_10, RSF_20)).size() == 3;
+        assert asSet(this.serviceIndex.queryProviderList(SERVICE_B, Arrays.asList(RSF_10, RSF_20)))//
+                .equals(asSet("rsf://127.0.0.3:2180/unit"));
+        //
+        // .未知的服务、协议，以及没有指定协议
+        assert this.serviceIndex.queryProviderList("/rsf-registry/none", Arrays.asList(RSF_10)).isEmpty();
+        assert this.serviceIndex.queryProviderList(SERVICE_A, Arrays.asList("none")).isEmpty();
+        assert this.serviceIndex.queryProviderList(SERVICE_A, null).isEmpty();
+    }
+    @Test
+    public void updateProviderTest() {
+        writeProvider(SERVICE_A, "p1", RSF_10, "rsf://127.0.0.1:2180/unit");
+        assert this.serviceIndex.queryProviderList(SERVICE_A, Arrays.asList(RSF_10)).size() == 1;
+        //
+        // .同一个提供者重新发布，旧的地址被替换，空地址不进入索引
+        writeProvider(SERVICE_A, "p1", RSF_10, "rsf://127.0.0.9:2180/unit", RSF_20, "");
+        assert asSet(this.serviceIndex.queryProviderList(SERVICE_A, Arrays.asList(RSF_10)))//
+                .equals(asSet("rsf://127.0.0.9:2180/unit"));
+        assert this.serviceIndex.queryProviderList(SERVICE_A, Arrays.asList(RSF_20)).isEmpty();
+    }
+    @Test
+    public void removeTest() {
+        writeProvider(SERVICE_A, "p1", RSF_10, "rsf://127.0.0.1:2180/unit");
+        writeProvider(SERVICE_A, "p2", RSF_10, "rsf://127.0.0.2:2180/unit");
+        writeConsumer(SERVICE_A, "c1", RSF_10);
+        //
+        assert this.dataAdapter.deleteData(SERVICE_A + "/Provider/p1");
+        assert asSet(this.serviceIndex.queryProviderList(SERVICE_A, Arrays.asList(RSF_10)))//
+                .equals(asSet("rsf://127.0.0.2:2180/unit"));
+        assert this.serviceIndex.queryConsumerList(SERVICE_A, Arrays.asList(RSF_10)).size() == 1;
+        //
+        assert this.dataAdapter.deleteData(SERVICE_A + "/Consumer/c1");
+        assert this.serviceIndex.queryConsumerList(SERVICE_A, Arrays.asList(RSF_10)).isEmpty();
+        assert this.dataAdapter.deleteData(SERVICE_A + "/Provider/p2");
+        assert this.serviceIndex.queryProviderList(SERVICE_A, Arrays.asList(RSF_10)).isEmpty();
+        //
+        // .删除不存在的数据，以及删除不属于任何服务的数据
+        this.serviceIndex.onDelete(SERVICE_A + "/Provider/none");
+        this.serviceIndex.onDelete("/rsf-registry/none");
+    }
+    @Test
+    public void queryConsumerTest() {
+        writeConsumer(SERVICE_A, "c1", RSF_10, RSF_20);
+        writeConsumer(SERVICE_A, "c2", RSF_20);
+        writeConsumer(SERVICE_B, "c3", RSF_10);
+        //
+        // .同时支持多个协议的消费者只出现一次
+        List<ConsumerPublishInfo> consumerList = this.serviceIndex.queryConsumerList(SERVICE_A, Arrays.asList(RSF_10, RSF_20));
+        Set<String> addressSet = new HashSet<String>();
+        for (ConsumerPublishInfo info : consumerList) {
+            addressSet.add(info.getCommunicationAddress());
+        }
+        assert consumerList.size() == 2;
+        assert addressSet.equals(asSet("c1", "c2"));
+        assert this.serviceIndex.queryConsumerList(SERVICE_A, Arrays.asList(RSF_10)).size() == 1;
+        assert this.serviceIndex.queryConsumerList(SERVICE_B, Arrays.asList(RSF_20)).isEmpty();
+        assert this.serviceIndex.queryConsumerList(SERVICE_A, null).isEmpty();
+    }
+    @Test
+    public void existingDataTest() {
+        writeProvider(SERVICE_A, "p1", RSF_10, "rsf://127.0.0.1:2180/unit");
+        writeConsumer(SERVICE_A, "c1", RSF_10);
+        //
+        // .后注册的索引会收到已有的数据
+        ServiceIndex lateIndex = new ServiceIndex();
+        this.dataAdapter.addListener(lateIndex);
+        assert lateIndex.queryProviderList(SERVICE_A, Arrays.asList(RSF_10)).size() == 1;
+        assert lateIndex.queryConsumerList(SERVICE_A, Arrays.asList(RSF_10)).size() == 1;
+        //
+        // .之后的变更同时同步到两个索引
+        writeProvider(SERVICE_A, "p2", RSF_10, "rsf://127.0.0.2:2180/unit");
+        assert lateIndex.queryProviderList(SERVICE_A, Arrays.asList(RSF_10)).size() == 2;
+        assert this.serviceIndex.queryProviderList(SERVICE_A, Arrays.asList(RSF_10)).size() == 2;
+    }
+    //
+    @Test
+    public void deltaTest() {
+        List<String> protocol = Arrays.asList(RSF_10);
+        writeProvider(SERVICE_A, "p1", RSF_10, "rsf://127.0.0.1:2180/unit");
+        writeProvider(SERVICE_A, "p2", RSF_10, "rsf://127.0.0.2:2180/unit");
+        //
+        // .第一次同步得到全量地址
+        AddressDelta full = this.serviceIndex.queryProviderDelta(SERVICE_A, protocol, 0, 0);
+        assert full.isFull();
+        assert full.getRevision() == 2;
+        assert asSet(full.getAppendList()).equals(asSet("rsf://127.0.0.1:2180/unit", "rsf://127.0.0.2:2180/unit"));
+        long epoch = full.getEpoch();
+        //
+        // .增量同步：同一个地址以最后一次变化为准
+        writeProvider(SERVICE_A, "p3", RSF_10, "rsf://127.0.0.3:2180/unit");
+        assert this.dataAdapter.deleteData(SERVICE_A + "/Provider/p1");
+        writeProvider(SERVICE_A, "p4", RSF_10, "rsf://127.0.0.4:2180/unit");
+        assert this.dataAdapter.deleteData(SERVICE_A + "/Provider/p4");
+        AddressDelta delta = this.serviceIndex.queryProviderDelta(SERVICE_A, protocol, epoch, full.getRevision());
+        assert !delta.isFull();
+        assert delta.getRevision() == 6;
+        assert delta.getEpoch() == epoch;
+        assert delta.getAppendList().equals(Arrays.asList("rsf://127.0.0.3:2180/unit"));
+        assert asSet(delta.getRemoveList()).equals(asSet("rsf://127.0.0.1:2180/unit", "rsf://127.0.0.4:2180/unit"));
+        //
+        // .其它协议的变化不会出现在增量中
+        writeProvider(SERVICE_A, "p5", RSF_20, "rsf2://127.0.0.5:2180/unit");
+        AddressDelta otherProtocol = this.serviceIndex.queryProviderDelta(SERVICE_A, protocol, epoch, delta.getRevision());
+        assert !otherProtocol.isFull();
+        assert otherProtocol.getRevision() == 7;
+        assert otherProtocol.getAppendList().isEmpty() && otherProtocol.getRemoveList().isEmpty();
+        //
+        // .epoch 不一致（注册中心重启）、revision 超前时返回全量地址
+        assert this.serviceIndex.queryProviderDelta(SERVICE_A, protocol, epoch - 1, delta.getRevision()).isFull();
+        assert this.serviceIndex.queryProviderDelta(SERVICE_A, protocol, epoch, 100).isFull();
+    }
+    @Test
+    public void deltaTruncatedTest() {
+        List<String> protocol = Arrays.asList(RSF_10);
+        AddressDelta first = this.serviceIndex.queryProviderDelta(SERVICE_A, protocol, 0, 0);
+        long epoch = first.getEpoch();
+        String[] dataKeys = new String[1100];
+        String[] dataValues = new String[1100];
+        long[] tags = new long[1100];
+        for (int i = 0; i < dataKeys.length; i++) {
+            Map<String, String> addressMap = new HashMap<String, String>();
+            addressMap.put(RSF_10, "rsf://127.0.0.1:" + (10000 + i) + "/unit");
+            ProviderPublishInfo info = new ProviderPublishInfo();
+            info.setAddressMap(addressMap);
+            dataKeys[i] = SERVICE_A + "/Provider/p" + i;
+            dataValues[i] = JSON.toJSONString(info);
+            tags[i] = RsfCenterConstants.TAG_Provider;
+        }
+        this.dataAdapter.writeData(dataKeys, dataValues, tags);
+        //
+        // .日志只保留最近的 1024 条变化，更早的 revision 无法增量同步，返回全量地址
+        AddressDelta truncated = this.serviceIndex.queryProviderDelta(SERVICE_A, protocol, epoch, 10);
+        assert truncated.isFull();
+        assert truncated.getRevision() == 1100;
+        assert truncated.getAppendList().size() == 1100;
+        assert truncated.getRemoveList().isEmpty();
+        //
+        // .日志覆盖范围之内仍然是增量
+        AddressDelta delta = this.serviceIndex.queryProviderDelta(SERVICE_A, protocol, epoch, 1090);
+        assert !delta.isFull();
+        assert delta.getAppendList().size() == 10;
+        assert delta.getAppendList().contains("rsf://127.0.0.1:11099/unit");
+    }
+    @Test
+    public void deltaEmptyTest() {
+        List<String> protocol = Arrays.asList(RSF_10);
+        // .没有提供者的服务得到空的全量地址
+        AddressDelta empty = this.serviceIndex.queryProviderDelta(SERVICE_B, protocol, 0, 0);
+        assert empty.isFull();
+        assert empty.getRevision() == 0;
+        assert empty.getAppendList().isEmpty() && empty.getRemoveList().isEmpty();
+        //
+        // .已经同步到最新的 revision，没有变化
+        writeProvider(SERVICE_A, "p1", RSF_10, "rsf://127.0.0.1:2180/unit");
+        AddressDelta full = this.serviceIndex.queryProviderDelta(SERVICE_A, protocol, 0, 0);
+        AddressDelta noChange = this.serviceIndex.queryProviderDelta(SERVICE_A, protocol, full.getEpoch(), full.getRevision());
+        assert !noChange.isFull();
+        assert noChange.getRevision() == full.getRevision();
+        assert noChange.getAppendList().isEmpty() && noChange.getRemoveList().isEmpty();
+        //
+        // .没有指定协议
+        assert this.serviceIndex.queryProviderDelta(SERVICE_A, null, 0, 0).getAppendList().isEmpty();
+    }
+    @Test
+    public void deltaUnknownServiceTest() {
+        List<String> protocol = Arrays.asList(RSF_10);
+        writeProvider(SERVICE_A, "p1", RSF_10, "rsf://127.0.0.1:2180/unit");
+        assert this.serviceIndex.getServiceCount() == 1;
+        //
+        // .查询未知的服务不会在索引中创建数据
+        AddressDelta unknown = null;
+        for (int i = 0; i < 100; i++) {
+            unknown = this.serviceIndex.queryProviderDelta("/rsf-registry/RSF/unknown" + i + "/1.0.0", protocol, 0, 0);
+            assert unknown.isFull() && unknown.getRevision() == 0;
+            assert unknown.getAppendList().isEmpty() && unknown.getRemoveList().isEmpty();
+        }
+        assert this.serviceIndex.getServiceCount() == 1;
+        //
+        // .服务之后有了提供者，客户端用上一次得到的 revision 同步时得到全量地址
+        writeProvider(SERVICE_B, "p2", RSF_10, "rsf://127.0.0.2:2180/unit");
+        AddressDelta empty = this.serviceIndex.queryProviderDelta(SERVICE_B + "-none", protocol, 0, 0);
+        AddressDelta delta = this.serviceIndex.queryProviderDelta(SERVICE_B, protocol, empty.getEpoch(), empty.getRevision());
+        assert delta.isFull();
+        assert delta.getAppendList().equals(Arrays.asList("rsf://127.0.0.2:2180/unit"));
+    }
+}
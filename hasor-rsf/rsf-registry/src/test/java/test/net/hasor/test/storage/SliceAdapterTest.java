@@ -9,7 +9,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Random;
+import java.util.*;
 import java.util.regex.Pattern;
 //
 //
@@ -70,4 +70,196 @@ public class SliceAdapterTest {
         //        printNodeTree(sliceAdapter, (int) enttyPoint, 1);
         //        Thread.sleep(1000);
     }
-}
\ No newline at end of file
+    //
+    private static final File TEST_FILE = new File("bTree_test.dat");
+    private SliceAdapter newIndex(int sliceSize) throws IOException {
+        TEST_FILE.delete();
+        return SliceAdapter.initIndex(sliceSize, 1024, new BlockFileAdapter(TEST_FILE));
+    }
+    // - 遍历整棵树，检查每个 Slice 的大小、叶子节点的顺序，以及 TreeNode 记录的是子树中最大的 key。返回子树中最大的 key
+    private long checkTree(SliceAdapter sliceAdapter, Slice slice, int sliceSize, List<Long> leafKeys) {
+        Node[] nodes = slice.getChildrensKeys();
+        assert nodes.length <= sliceSize : "slice " + slice.getSliceID() + " size " + nodes.length;
+        long maxKey = Long.MIN_VALUE;
+        for (Node node : nodes) {
+            if (node.isData()) {
+                leafKeys.add(node.getDataKey());
+            } else {
+                long subMaxKey = checkTree(sliceAdapter, sliceAdapter.getSlice((int) node.getPosition()), sliceSize, leafKeys);
+                assert subMaxKey == node.getDataKey() : "tree node " + node.getDataKey() + " but sub tree max " + subMaxKey;
+            }
+            maxKey = node.getDataKey();
+        }
+        return maxKey;
+    }
+    private List<Long> checkTree(SliceAdapter sliceAdapter, int sliceSize) {
+        List<Long> leafKeys = new ArrayList<Long>();
+        checkTree(sliceAdapter, sliceAdapter.getEntryPoint(), sliceSize, leafKeys);
+        for (int i = 1; i < leafKeys.size(); i++) {
+            assert leafKeys.get(i - 1) < leafKeys.get(i);
+        }
+        return leafKeys;
+    }
+    //
+    @Test
+    public void insertTest() throws IOException {
+        SliceAdapter sliceAdapter = newIndex(5);
+        Random random = new Random(1);
+        Map<Long, Long> dataMap = new HashMap<Long, Long>();
+        for (int i = 0; i < 500; i++) {
+            long key = random.nextInt(300) - 150;// 有重复的 key，重复插入时替换数据
+            sliceAdapter.insertData(new DataNode(key, i));
+            dataMap.put(key, (long) i);
+        }
+        for (Map.Entry<Long, Long> entry : dataMap.entrySet()) {
+            DataNode dataNode = sliceAdapter.findData(entry.getKey());
+            assert dataNode != null && dataNode.getPosition() == entry.getValue();
+        }
+        assert sliceAdapter.findData(1000) == null;
+        assert sliceAdapter.findData(-1000) == null;
+        assert checkTree(sliceAdapter, 5).size() == dataMap.size();
+        sliceAdapter.close();
+        TEST_FILE.delete();
+    }
+    @Test
+    public void splitTest() throws IOException {
+        SliceAdapter sliceAdapter = newIndex(3);
+        sliceAdapter.insertData(new DataNode(1, 1));
+        sliceAdapter.insertData(new DataNode(2, 2));
+        sliceAdapter.insertData(new DataNode(3, 3));
+        assert sliceAdapter.getEntryPoint().getChildrensKeys()[0].isData();
+        //
+        // .第 4 个 key 使树根分裂，树高增加一层
+        sliceAdapter.insertData(new DataNode(4, 4));
+        Node[] rootNodes = sliceAdapter.getEntryPoint().getChildrensKeys();
+        assert rootNodes.length == 2;
+        assert !rootNodes[0].isData() && rootNodes[0].getDataKey() == 2;
+        assert !rootNodes[1].isData() && rootNodes[1].getDataKey() == 4;
+        //
+        // .递增、递减和中间插入都会引起分裂，分裂之后树依然有序
+        for (int i = 5; i <= 100; i++) {
+            sliceAdapter.insertData(new DataNode(i, i));
+            sliceAdapter.insertData(new DataNode(-i, i));
+        }
+        List<Long> leafKeys = checkTree(sliceAdapter, 3);
+        assert leafKeys.size() == 196;
+        assert leafKeys.get(0) == -100 && leafKeys.get(leafKeys.size() - 1) == 100;
+        for (int i = -100; i <= 100; i++) {
+            assert (sliceAdapter.findData(i) != null) == (i > 0 || i < -4);
+        }
+        sliceAdapter.close();
+        TEST_FILE.delete();
+    }
+    @Test
+    public void scanTest() throws IOException {
+        SliceAdapter sliceAdapter = newIndex(4);
+        List<Long> keys = new ArrayList<Long>();
+        for (long i = 0; i < 1000; i += 2) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(1));
+        for (Long key : keys) {
+            sliceAdapter.insertData(new DataNode(key, key));
+        }
+        //
+        List<DataNode> scanList = sliceAdapter.scanData(101, 200);
+        assert scanList.size() == 50;
+        for (int i = 0; i < scanList.size(); i++) {
+            assert scanList.get(i).getDataKey() == 102 + i * 2;
+        }
+        assert sliceAdapter.scanData(100, 100).size() == 1;
+        assert sliceAdapter.scanData(101, 101).isEmpty();
+        assert sliceAdapter.scanData(200, 100).isEmpty();
+        assert sliceAdapter.scanData(Long.MIN_VALUE, Long.MAX_VALUE).size() == 500;
+        assert sliceAdapter.scanData(998, Long.MAX_VALUE).size() == 1;
+        sliceAdapter.close();
+        TEST_FILE.delete();
+    }
+    @Test
+    public void evictionTest() throws IOException {
+        // .页缓存远小于 Slice 数量，脏 Slice 在淘汰时写入文件，之后从文件中重新读取
+        SliceAdapter sliceAdapter = newIndex(3);
+        sliceAdapter.setCacheSize(16);
+        for (int i = 0; i < 2000; i++) {
+            sliceAdapter.insertData(new DataNode(i * 7 % 2000, i));
+        }
+        for (int i = 0; i < 2000; i++) {
+            DataNode dataNode = sliceAdapter.findData(i * 7 % 2000);
+            assert dataNode != null && dataNode.getPosition() == i;
+        }
+        assert checkTree(sliceAdapter, 3).size() == 2000;
+        sliceAdapter.submitToFile();
+        sliceAdapter.close();
+        //
+        // .重新加载索引文件
+        SliceAdapter reload = SliceAdapter.loadIndex(new BlockFileAdapter(TEST_FILE));
+        for (int i = 0; i < 2000; i++) {
+            DataNode dataNode = reload.findData(i * 7 % 2000);
+            assert dataNode != null && dataNode.getPosition() == i;
+        }
+        assert reload.scanData(0, 1999).size() == 2000;
+        reload.close();
+        TEST_FILE.delete();
+    }
+    //
+    /** 1M key 下的顺序插入、点查、随机插入和范围扫描耗时，耗时较长不作为单元测试运行 */
+    public static void main(String[] args) throws IOException {
+        File dataFile = new File("bTree_bench.dat");
+        dataFile.delete();
+        BlockFileAdapter adapter = new BlockFileAdapter(dataFile);
+        SliceAdapter sliceAdapter = SliceAdapter.initIndex(128, 4096, adapter);
+        //
+        int keyCount = 1000000;
+        Random random = new Random(System.currentTimeMillis());
+        long[] keys = new long[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = random.nextLong();
+        }
+        Arrays.sort(keys);
+        //
+        // .顺序插入
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < keyCount; i++) {
+            if (i > 0 && keys[i] == keys[i - 1]) {
+                continue;// 随机数中可能有重复，跳过重复的 key
+            }
+            sliceAdapter.insertData(new DataNode(keys[i], keys[i] & 0x7FFFFFFFFFFFFFFFL));
+        }
+        sliceAdapter.submitToFile();
+        System.out.println("insertData(sorted) " + keyCount + " keys cost " + (System.currentTimeMillis() - startTime) + "ms");
+        //
+        // .点查
+        startTime = System.currentTimeMillis();
+        for (int i = 0; i < keyCount; i++) {
+            long key = keys[random.nextInt(keyCount)];
+            DataNode dataNode = sliceAdapter.findData(key);
+            assert dataNode != null && dataNode.getPosition() == (key & 0x7FFFFFFFFFFFFFFFL);
+        }
+        System.out.println("findData " + keyCount + " times cost " + (System.currentTimeMillis() - startTime) + "ms");
+        //
+        // .随机插入
+        int insertCount = 100000;
+        startTime = System.currentTimeMillis();
+        for (int i = 0; i < insertCount; i++) {
+            sliceAdapter.insertData(new DataNode(random.nextLong(), i));
+        }
+        sliceAdapter.submitToFile();
+        System.out.println("insertData " + insertCount + " keys cost " + (System.currentTimeMillis() - startTime) + "ms");
+        //
+        // .范围扫描（每次约 1000 个 key）
+        int scanCount = 1000;
+        long scanWidth = (Long.MAX_VALUE / keyCount) * 2 * 1000;
+        long scanSize = 0;
+        startTime = System.currentTimeMillis();
+        for (int i = 0; i < scanCount; i++) {
+            long fromKey = keys[random.nextInt(keyCount)];
+            long toKey = (fromKey > Long.MAX_VALUE - scanWidth) ? Long.MAX_VALUE : fromKey + scanWidth;
+            List<DataNode> scanList = sliceAdapter.scanData(fromKey, toKey);
+            scanSize += scanList.size();
+        }
+        System.out.println("scanData " + scanCount + " times (" + scanSize + " keys) cost " + (System.currentTimeMillis() - startTime) + "ms");
+        //
+        adapter.close();
+        dataFile.delete();
+    }
+}